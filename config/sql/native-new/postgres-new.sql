@@ -152,6 +152,8 @@ CREATE TYPE TaskWaitingReasonType AS ENUM ('OTHER_TASKS', 'OTHER');
 CREATE TYPE ThreadStopActionType AS ENUM ('RESTART', 'RESCHEDULE', 'SUSPEND', 'CLOSE');
 
 CREATE TYPE TimeIntervalStatusType AS ENUM ('BEFORE', 'IN', 'AFTER');
+
+CREATE TYPE WorkBucketStateType AS ENUM ('READY', 'DELEGATED', 'COMPLETE');
 -- endregion
 
 -- region OID-pool table
@@ -712,113 +714,184 @@ CREATE INDEX m_ref_object_parent_org_targetOidRelationId_idx
 
 -- region org-closure
 /*
-Trigger on m_ref_object_parent_org marks this view for refresh in one m_global_metadata row.
-Closure contains also identity (org = org) entries because:
-* It's easier to do optimized matrix-multiplication based refresh with them later.
+Org closure table is maintained incrementally by the triggers on m_org and m_ref_object_parent_org
+in the same transaction that changes the org hierarchy, so it is always up-to-date.
+Closure contains identity (org = org) entries for all orgs because:
+* It makes the incremental updates simple - new edge p => c (=> means "is parent of") adds
+all combinations of p's ancestors and c's descendants, both including the org itself.
 * It actually makes some query easier and requires AND instead of OR conditions.
-* While the table shows that o => o (=> means "is parent of"), this is not the semantics
-of isParent/ChildOf searches and they never return parameter OID as a result.
+* While the table shows that o => o, this is not the semantics of isParent/ChildOf searches
+and they never return parameter OID as a result.
+Column paths counts the number of different paths between ancestor and descendant,
+this is necessary for correct removal of an edge when there are multiple paths (multiple parents).
+Org hierarchy must not contain cycles, a parent org ref that would create one is ignored.
+Parent org refs pointing to non-existent orgs are ignored until the org is created.
 */
-CREATE MATERIALIZED VIEW m_org_closure AS
-WITH RECURSIVE org_h (
-    ancestor_oid, -- ref.targetoid
-    descendant_oid --ref.ownerOid
-    -- paths -- number of different paths, not used for materialized view version
-    -- depth -- possible later, but cycle detected must be added to the recursive term
-) AS (
-    -- non-recursive term:
-    -- Gather all organization oids from parent-org refs and initialize identity lines (o => o).
-    -- We don't want the orgs not in org hierarchy, that would require org triggers too.
-    SELECT o.oid, o.oid FROM m_org o
-        WHERE EXISTS(
-            SELECT 1 FROM m_ref_object_parent_org r
-                WHERE r.targetOid = o.oid OR r.ownerOid = o.oid)
-    UNION
-    -- recursive (iterative) term:
-    -- Generate their parents (anc => desc, that is target => owner), => means "is parent of".
-    SELECT par.targetoid, chi.descendant_oid -- leaving original child there generates closure
-        FROM m_ref_object_parent_org as par, org_h as chi
-        WHERE par.ownerOid = chi.ancestor_oid
-)
-SELECT * FROM org_h;
+CREATE TABLE m_org_closure (
+    ancestor_oid UUID NOT NULL,
+    descendant_oid UUID NOT NULL,
+    paths INTEGER NOT NULL,
+
+    PRIMARY KEY (ancestor_oid, descendant_oid)
+);
 
--- unique index is like PK if it was table
-CREATE UNIQUE INDEX m_org_closure_asc_desc_idx
-    ON m_org_closure (ancestor_oid, descendant_oid);
 CREATE INDEX m_org_closure_desc_asc_idx
     ON m_org_closure (descendant_oid, ancestor_oid);
 
--- The trigger for m_ref_object_parent_org that flags the view for refresh.
-CREATE OR REPLACE FUNCTION mark_org_closure_for_refresh()
+-- Adds (delta = 1) or removes (delta = -1) parent => child edge to/from the closure.
+-- Edge is ignored if any of the orgs does not exist (has no identity row).
+-- Edge is also ignored if it would close a cycle (the child is already an ancestor of the parent),
+-- so the closure stays acyclic and its maintenance always terminates. When such an edge is removed,
+-- the same check skips it, unless the cycle was broken in the meantime - m_refresh_org_closure(true)
+-- repairs the closure then.
+CREATE OR REPLACE FUNCTION m_org_closure_edge(parent_oid UUID, child_oid UUID, delta INTEGER)
+    RETURNS void
+    LANGUAGE plpgsql
+AS $$
+BEGIN
+    IF parent_oid = child_oid THEN
+        RETURN;
+    END IF;
+
+    -- Serializes all closure changes until the end of the transaction.
+    -- Without it concurrent transactions could miss the edges added by each other.
+    PERFORM pg_advisory_xact_lock(47);
+
+    IF NOT EXISTS (SELECT 1 FROM m_org_closure WHERE ancestor_oid = parent_oid AND descendant_oid = parent_oid)
+        OR NOT EXISTS (SELECT 1 FROM m_org_closure WHERE ancestor_oid = child_oid AND descendant_oid = child_oid)
+    THEN
+        RETURN;
+    END IF;
+
+    IF EXISTS (SELECT 1 FROM m_org_closure WHERE ancestor_oid = child_oid AND descendant_oid = parent_oid) THEN
+        IF delta > 0 THEN
+            RAISE WARNING 'Org % is a descendant of org %, ignoring the parent org ref that would create a cycle',
+                parent_oid, child_oid;
+        END IF;
+        RETURN;
+    END IF;
+
+    INSERT INTO m_org_closure (ancestor_oid, descendant_oid, paths)
+        SELECT anc.ancestor_oid, des.descendant_oid, delta * sum(anc.paths * des.paths)
+            FROM m_org_closure anc, m_org_closure des
+            WHERE anc.descendant_oid = parent_oid AND des.ancestor_oid = child_oid
+            GROUP BY anc.ancestor_oid, des.descendant_oid
+        ON CONFLICT (ancestor_oid, descendant_oid)
+            DO UPDATE SET paths = m_org_closure.paths + EXCLUDED.paths;
+
+    -- Only the pairs changed above can drop to zero paths, the rows of parent's ancestors
+    -- and child's descendants used in the sub-selects are not changed (no cycles).
+    IF delta < 0 THEN
+        DELETE FROM m_org_closure
+            WHERE paths <= 0
+                AND ancestor_oid IN (SELECT ancestor_oid FROM m_org_closure WHERE descendant_oid = parent_oid)
+                AND descendant_oid IN (SELECT descendant_oid FROM m_org_closure WHERE ancestor_oid = child_oid);
+    END IF;
+END $$;
+
+-- The trigger for m_ref_object_parent_org that updates the closure for org => org references.
+CREATE OR REPLACE FUNCTION m_org_closure_ref_change()
     RETURNS trigger
     LANGUAGE plpgsql
 AS $$
 BEGIN
-    IF TG_OP = 'TRUNCATE' OR OLD.ownerType = 'ORG' OR NEW.ownerType = 'ORG' THEN
-        INSERT INTO m_global_metadata VALUES ('orgClosureRefreshNeeded', 'true')
-            ON CONFLICT (name) DO UPDATE SET value = 'true';
+    IF TG_OP = 'TRUNCATE' THEN
+        PERFORM pg_advisory_xact_lock(47);
+        DELETE FROM m_org_closure WHERE ancestor_oid <> descendant_oid;
+        RETURN NULL;
+    END IF;
+
+    IF TG_OP IN ('DELETE', 'UPDATE') AND OLD.ownerType = 'ORG' THEN
+        PERFORM m_org_closure_edge(OLD.targetOid, OLD.ownerOid, -1);
+    END IF;
+    IF TG_OP IN ('INSERT', 'UPDATE') AND NEW.ownerType = 'ORG' THEN
+        PERFORM m_org_closure_edge(NEW.targetOid, NEW.ownerOid, 1);
     END IF;
 
     -- after trigger returns null
     RETURN NULL;
 END $$;
 
-CREATE TRIGGER m_ref_object_parent_mark_refresh_tr
+CREATE TRIGGER m_ref_object_parent_org_closure_tr
     AFTER INSERT OR UPDATE OR DELETE ON m_ref_object_parent_org
-    FOR EACH ROW EXECUTE FUNCTION mark_org_closure_for_refresh();
-CREATE TRIGGER m_ref_object_parent_mark_refresh_trunc_tr
+    FOR EACH ROW EXECUTE FUNCTION m_org_closure_ref_change();
+CREATE TRIGGER m_ref_object_parent_org_closure_trunc_tr
     AFTER TRUNCATE ON m_ref_object_parent_org
-    FOR EACH STATEMENT EXECUTE FUNCTION mark_org_closure_for_refresh();
+    FOR EACH STATEMENT EXECUTE FUNCTION m_org_closure_ref_change();
 
--- The trigger that flags the view for refresh after m_org changes.
-CREATE OR REPLACE FUNCTION mark_org_closure_for_refresh_org()
+-- The trigger for m_org that adds/removes identity row and edges of the org.
+-- Org delete is handled BEFORE the delete, because the parent refs of the org are still there.
+-- These are cascade-deleted later, but then the org has no identity row and the edges are ignored.
+CREATE OR REPLACE FUNCTION m_org_closure_org_change()
     RETURNS trigger
     LANGUAGE plpgsql
 AS $$
+DECLARE
+    r RECORD;
 BEGIN
-    INSERT INTO m_global_metadata VALUES ('orgClosureRefreshNeeded', 'true')
-        ON CONFLICT (name) DO UPDATE SET value = 'true';
+    PERFORM pg_advisory_xact_lock(47);
+    IF TG_OP = 'TRUNCATE' THEN
+        DELETE FROM m_org_closure;
+        RETURN NULL;
+    END IF;
 
-    -- after trigger returns null
-    RETURN NULL;
+    IF TG_OP = 'INSERT' THEN
+        INSERT INTO m_org_closure VALUES (NEW.oid, NEW.oid, 1) ON CONFLICT DO NOTHING;
+        -- refs of existing child orgs pointing to this org (parent refs of this org are added later)
+        FOR r IN SELECT ownerOid, targetOid FROM m_ref_object_parent_org
+                WHERE (targetOid = NEW.oid OR ownerOid = NEW.oid) AND ownerType = 'ORG'
+        LOOP
+            PERFORM m_org_closure_edge(r.targetOid, r.ownerOid, 1);
+        END LOOP;
+        RETURN NULL; -- after trigger
+    END IF;
+
+    -- DELETE
+    FOR r IN SELECT ownerOid, targetOid FROM m_ref_object_parent_org
+            WHERE (targetOid = OLD.oid OR ownerOid = OLD.oid) AND ownerType = 'ORG'
+    LOOP
+        PERFORM m_org_closure_edge(r.targetOid, r.ownerOid, -1);
+    END LOOP;
+    DELETE FROM m_org_closure WHERE ancestor_oid = OLD.oid OR descendant_oid = OLD.oid;
+    RETURN OLD; -- before trigger must return OLD, NULL would skip the delete
 END $$;
 
--- Update is not necessary, it does not change relations between orgs.
--- If it does, it is handled by trigger on m_ref_object_parent_org.
-CREATE TRIGGER m_org_mark_refresh_tr
-    AFTER INSERT OR DELETE ON m_org
-    FOR EACH ROW EXECUTE FUNCTION mark_org_closure_for_refresh_org();
-CREATE TRIGGER m_org_mark_refresh_trunc_tr
+CREATE TRIGGER m_org_closure_insert_tr
+    AFTER INSERT ON m_org
+    FOR EACH ROW EXECUTE FUNCTION m_org_closure_org_change();
+CREATE TRIGGER m_org_closure_delete_tr
+    BEFORE DELETE ON m_org
+    FOR EACH ROW EXECUTE FUNCTION m_org_closure_org_change();
+CREATE TRIGGER m_org_closure_trunc_tr
     AFTER TRUNCATE ON m_org
-    FOR EACH STATEMENT EXECUTE FUNCTION mark_org_closure_for_refresh_org();
-
--- This procedure for conditional refresh when needed is called from the application code.
--- The refresh can be forced, e.g. after many changes with triggers off (or just to be sure).
+    FOR EACH STATEMENT EXECUTE FUNCTION m_org_closure_org_change();
+
+-- This procedure rebuilds the closure from scratch, which is normally not necessary.
+-- It is used to repair the closure if inconsistency is found (e.g. after changes with triggers off).
+-- Parameter is obsolete, it was used for conditional refresh of the former materialized view.
+-- The closure is built from the identity rows by adding the edges one by one, the same way as
+-- the incremental updates do it. This gives the same path counts, ignores the same edges (refs to
+-- non-existent orgs and edges closing a cycle), and the cost of each edge is bounded by the number
+-- of the closure rows it changes - the paths are never enumerated one by one.
 CREATE OR REPLACE PROCEDURE m_refresh_org_closure(force boolean = false)
     LANGUAGE plpgsql
 AS $$
 DECLARE
-    flag_val text;
+    r RECORD;
 BEGIN
-    SELECT value INTO flag_val FROM m_global_metadata WHERE name = 'orgClosureRefreshNeeded';
-    IF flag_val = 'true' OR force THEN
-        -- We use advisory session lock only for the check + refresh, then release it immediately.
-        -- This can still dead-lock two transactions in a single thread on the select/delete combo,
-        -- (I mean, who would do that?!) but works fine for parallel transactions.
-        PERFORM pg_advisory_lock(47);
-        BEGIN
-            SELECT value INTO flag_val FROM m_global_metadata WHERE name = 'orgClosureRefreshNeeded';
-            IF flag_val = 'true' OR force THEN
-                REFRESH MATERIALIZED VIEW m_org_closure;
-                DELETE FROM m_global_metadata WHERE name = 'orgClosureRefreshNeeded';
-            END IF;
-            PERFORM pg_advisory_unlock(47);
-        EXCEPTION WHEN OTHERS THEN
-            -- Whatever happens we definitely want to release the lock.
-            PERFORM pg_advisory_unlock(47);
-            RAISE;
-        END;
+    IF NOT force THEN
+        RETURN; -- closure is always up-to-date
     END IF;
+
+    PERFORM pg_advisory_xact_lock(47);
+    DELETE FROM m_org_closure;
+    INSERT INTO m_org_closure (ancestor_oid, descendant_oid, paths)
+        SELECT oid, oid, 1 FROM m_org;
+    -- one edge per ref row, like the triggers (refs with different relations count as different paths)
+    FOR r IN SELECT ownerOid, targetOid FROM m_ref_object_parent_org WHERE ownerType = 'ORG'
+    LOOP
+        PERFORM m_org_closure_edge(r.targetOid, r.ownerOid, 1);
+    END LOOP;
 END; $$;
 -- endregion
 
@@ -1269,6 +1342,26 @@ CREATE INDEX m_task_ext_idx ON m_task USING gin(ext);
 CREATE INDEX m_task_fullTextInfo_idx ON m_task USING gin (fullTextInfo gin_trgm_ops);
 CREATE INDEX m_task_createTimestamp_idx ON m_task (createTimestamp);
 CREATE INDEX m_task_modifyTimestamp_idx ON m_task (modifyTimestamp);
+
+-- Work buckets of distributed activities, one row per bucket.
+-- Used instead of the coordinator task activity state only if workBucketTable is enabled
+-- in the repository configuration.
+-- Full object contains serialized WorkBucketType, state and worker are authoritative in the columns.
+CREATE TABLE m_work_bucket (
+    coordinatorOid UUID NOT NULL REFERENCES m_object_oid(oid) ON DELETE CASCADE,
+    activityPath TEXT NOT NULL, -- empty string for the root activity
+    sequentialNumber INTEGER NOT NULL,
+    state WorkBucketStateType NOT NULL,
+    workerOid UUID,
+    fullObject BYTEA NOT NULL,
+
+    PRIMARY KEY (coordinatorOid, activityPath, sequentialNumber)
+);
+
+CREATE INDEX m_work_bucket_workerOid_idx ON m_work_bucket (workerOid);
+-- Buckets not yet complete, used to find READY and DELEGATED buckets without scanning the complete ones.
+CREATE INDEX m_work_bucket_state_idx ON m_work_bucket (coordinatorOid, activityPath, state)
+    WHERE state <> 'COMPLETE';
 -- endregion
 
 -- region cases
@@ -1909,4 +2002,4 @@ END $$;
 
 -- Initializing the last change number used in postgres-new-upgrade.sql.
 -- This is important to avoid applying any change more than once.
-call apply_change(7, $$ SELECT 1 $$, true);
+call apply_change(9, $$ SELECT 1 $$, true);
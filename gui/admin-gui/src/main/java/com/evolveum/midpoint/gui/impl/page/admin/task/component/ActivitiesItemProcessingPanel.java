@@ -52,6 +52,7 @@ public class ActivitiesItemProcessingPanel extends BasePanel<ActivitiesItemProce
     private static final String ID_CHART = "chart";
     private static final String ID_SUMMARY = "summary";
     private static final String ID_WALL_CLOCK_THROUGHPUT = "wallClockThroughput";
+    private static final String ID_DURATION_PERCENTILES = "durationPercentiles";
 
     ActivitiesItemProcessingPanel(String id, IModel<ActivitiesItemProcessingDto> model) {
         super(id, model);
@@ -81,6 +82,10 @@ public class ActivitiesItemProcessingPanel extends BasePanel<ActivitiesItemProce
                 summary.setOutputMarkupId(true);
                 listItem.add(wallClockThroughput);
 
+                Label durationPercentiles = new Label(ID_DURATION_PERCENTILES,
+                        PropertyModel.of(itemProcessingModel, ActivityItemProcessingDto.F_DURATION_PERCENTILES));
+                listItem.add(durationPercentiles);
+
                 ChartJsPanel<PieChartConfiguration> chartPanel =
                         new ChartJsPanel<>(ID_CHART, PropertyModel.of(itemProcessingModel, ActivityItemProcessingDto.F_CHART));
                 listItem.add(chartPanel);
@@ -19,6 +19,7 @@ import com.evolveum.midpoint.gui.impl.component.box.InfoBoxData;
 import com.evolveum.midpoint.schema.util.task.ActivityItemProcessingStatisticsUtil;
 import com.evolveum.midpoint.schema.util.task.ActivityPerformanceInformation;
 import com.evolveum.midpoint.schema.util.task.ActivityTreeUtil.ActivityStateInContext;
+import com.evolveum.midpoint.schema.util.task.DurationHistogramUtil;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 import com.evolveum.wicket.chartjs.*;
 
@@ -34,6 +35,7 @@ public class ActivityItemProcessingDto implements Serializable {
     public static final String F_CHART = "chart";
     public static final String F_TITLE = "title";
     public static final String F_WALL_CLOCK_THROUGHPUT = "wallClockThroughput";
+    public static final String F_DURATION_PERCENTILES = "durationPercentiles";
 
     private ProcessedItemSetType successProcessedItemSet;
     private ProcessedItemSetType failureProcessedItemSet;
@@ -41,6 +43,9 @@ public class ActivityItemProcessingDto implements Serializable {
 
     private final List<ProcessedItemDto> currentItems = new ArrayList<>();
 
+    /** Processing times of all items (regardless of the outcome). */
+    private final DurationHistogramType durationHistogram = new DurationHistogramType();
+
     private PieChartConfiguration chart;
 
     private final ActivityPerformanceInformation performanceInformation;
@@ -70,6 +75,9 @@ public class ActivityItemProcessingDto implements Serializable {
                 continue;
             }
             parseItemForOutcome(outcome.getOutcome(), processedItem);
+            if (processedItem.getDurationHistogram() != null) {
+                DurationHistogramUtil.addTo(durationHistogram, processedItem.getDurationHistogram());
+            }
         }
         for (ProcessedItemType currentItem : itemProcessing.getCurrent()) {
             currentItems.add(new ProcessedItemDto(currentItem));
@@ -168,6 +176,12 @@ public class ActivityItemProcessingDto implements Serializable {
         return null;
     }
 
+    @SuppressWarnings("unused") // accessed dynamically
+    public String getDurationPercentiles() {
+        String percentiles = DurationHistogramUtil.formatPercentiles(durationHistogram);
+        return percentiles != null ? getString("TaskIterativeProgress.durationPercentiles", percentiles) : null;
+    }
+
     private boolean containsPerfInfo() {
         return performanceInformation.getAverageWallClockTime() != null && performanceInformation.getThroughput() != null;
     }
@@ -37,6 +37,8 @@ public class ConnIdOperation {
     private long lastSuspendTimestamp;
     private long lastResumeTimestamp;
     private long netRunningTime;
+    /** Time spent waiting for the connector governor (in milliseconds); not included in the running time. */
+    private long waitTime;
     private OperationResultStatus status;
     private String message;
 
@@ -148,6 +150,14 @@ public class ConnIdOperation {
         return netRunningTime;
     }
 
+    public long getWaitTime() {
+        return waitTime;
+    }
+
+    public void addWaitTime(long waitTime) {
+        this.waitTime += waitTime;
+    }
+
     public boolean wasSuspended() {
         return lastSuspendTimestamp != 0;
     }
@@ -189,7 +199,8 @@ public class ConnIdOperation {
                 // TODO size
                 .startTimestamp(XmlTypeConverter.createXMLGregorianCalendar(startTimestamp))
                 .endTimestamp(XmlTypeConverter.createXMLGregorianCalendar(endTimestamp))
-                .duration((double) getNetRunningTime()); // TODO
+                .duration((double) getNetRunningTime()) // TODO
+                .waitTime(waitTime != 0 ? (double) waitTime : null);
     }
 
     public boolean isNotFatalError() {
@@ -16,6 +16,7 @@ import java.util.List;
 import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.schema.util.task.DurationHistogramUtil;
 import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
@@ -50,6 +51,8 @@ public class ActivityItemProcessingStatisticsPrinter extends AbstractStatisticsP
             record.add(set.getCount());
             record.add(set.getDuration());
             record.add(div(set.getDuration(), set.getCount()));
+            record.add(div(set.getQueueWaitDuration(), set.getCount()));
+            record.add(DurationHistogramUtil.formatPercentiles(set.getDurationHistogram()));
             if (set.getLastItem() != null) {
                 record.add(getItemDescription(set.getLastItem()));
                 record.add(XmlTypeConverter.toDate(set.getLastItem().getStartTimestamp()));
@@ -71,6 +74,8 @@ public class ActivityItemProcessingStatisticsPrinter extends AbstractStatisticsP
             record.add(null);
             record.add(null);
             record.add(null);
+            record.add(null);
+            record.add(null);
             record.add(getItemDescription(currentItem));
             record.add(XmlTypeConverter.toDate(currentItem.getStartTimestamp()));
             record.add(null);
@@ -102,6 +107,8 @@ public class ActivityItemProcessingStatisticsPrinter extends AbstractStatisticsP
         addColumn("Count", RIGHT, formatInt());
         addColumn("Total time (ms)", RIGHT, formatFloat1());
         addColumn("Per object", RIGHT, formatFloat1());
+        addColumn("Queue wait per object", RIGHT, formatFloat1());
+        addColumn("Percentiles (ms)", LEFT, formatString());
         addColumn("Current/last object", LEFT, formatString());
         addColumn("Started on", LEFT, formatString());
         addColumn("Finished on", LEFT, formatString());
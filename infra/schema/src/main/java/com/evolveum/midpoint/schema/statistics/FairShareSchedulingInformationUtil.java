@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.schema.statistics;
+
+import static com.evolveum.midpoint.util.MiscUtil.or0;
+
+import java.util.Locale;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FairShareSchedulingInformationType;
+
+/**
+ * Maintains and formats {@link FairShareSchedulingInformationType} values.
+ */
+public class FairShareSchedulingInformationUtil {
+
+    /** Records a slot that was waited for `waitTime` and then held for `runTime` milliseconds. */
+    public static void record(@NotNull FairShareSchedulingInformationType info, boolean waited, long waitTime, long runTime) {
+        info.setSlotsAcquired(or0(info.getSlotsAcquired()) + 1);
+        if (waited) {
+            info.setWaitCount(or0(info.getWaitCount()) + 1);
+        }
+        info.setTotalWaitTime(or0(info.getTotalWaitTime()) + waitTime);
+        info.setMaxWaitTime(Math.max(or0(info.getMaxWaitTime()), waitTime));
+        info.setTotalRunTime(or0(info.getTotalRunTime()) + runTime);
+    }
+
+    public static void addTo(@NotNull FairShareSchedulingInformationType aggregate,
+            @Nullable FairShareSchedulingInformationType part) {
+        if (part == null) {
+            return;
+        }
+        aggregate.setSlotsAcquired(or0(aggregate.getSlotsAcquired()) + or0(part.getSlotsAcquired()));
+        aggregate.setWaitCount(or0(aggregate.getWaitCount()) + or0(part.getWaitCount()));
+        aggregate.setTotalWaitTime(or0(aggregate.getTotalWaitTime()) + or0(part.getTotalWaitTime()));
+        aggregate.setMaxWaitTime(Math.max(or0(aggregate.getMaxWaitTime()), or0(part.getMaxWaitTime())));
+        aggregate.setTotalRunTime(or0(aggregate.getTotalRunTime()) + or0(part.getTotalRunTime()));
+    }
+
+    public static String format(@NotNull FairShareSchedulingInformationType info) {
+        int slots = or0(info.getSlotsAcquired());
+        return String.format(Locale.US,
+                "Slots acquired: %,d, waited: %,d, wait time: %,d ms (avg %,.1f, max %,d), run time: %,d ms (avg %,.1f)\n",
+                slots, or0(info.getWaitCount()),
+                or0(info.getTotalWaitTime()), avg(info.getTotalWaitTime(), slots), or0(info.getMaxWaitTime()),
+                or0(info.getTotalRunTime()), avg(info.getTotalRunTime(), slots));
+    }
+
+    private static double avg(Long total, int count) {
+        return count > 0 ? (double) or0(total) / count : 0;
+    }
+}
@@ -30,6 +30,11 @@ public class IterativeOperationStartInfo {
      */
     private boolean simpleCaller;
 
+    /**
+     * How long the item waited in a queue before its processing started. Zero if not applicable (e.g. not queued).
+     */
+    private long queueWaitNanos;
+
     public IterativeOperationStartInfo(@NotNull IterationItemInformation item) {
         this.item = item;
 
@@ -57,6 +62,14 @@ public class IterativeOperationStartInfo {
         this.simpleCaller = simpleCaller;
     }
 
+    public long getQueueWaitNanos() {
+        return queueWaitNanos;
+    }
+
+    public void setQueueWaitNanos(long queueWaitNanos) {
+        this.queueWaitNanos = queueWaitNanos;
+    }
+
     @Override
     public String toString() {
         return getClass().getSimpleName() + "{" +
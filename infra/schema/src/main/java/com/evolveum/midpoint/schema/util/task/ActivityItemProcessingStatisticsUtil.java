@@ -14,6 +14,7 @@ import com.evolveum.midpoint.schema.statistics.AbstractStatisticsPrinter;
 import com.evolveum.midpoint.schema.statistics.ActivityItemProcessingStatisticsPrinter;
 import com.evolveum.midpoint.schema.statistics.OutcomeKeyedCounterTypeUtil;
 import com.evolveum.midpoint.schema.util.task.ActivityTreeUtil.ActivityStateInContext;
+import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
 import org.jetbrains.annotations.NotNull;
@@ -21,9 +22,11 @@ import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
 import java.util.Objects;
+import java.util.function.Consumer;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
+import javax.xml.namespace.QName;
 
 import static com.evolveum.midpoint.util.MiscUtil.or0;
 
@@ -32,6 +35,9 @@ import static java.util.Collections.singleton;
 
 public class ActivityItemProcessingStatisticsUtil {
 
+    /** How many slowest items are kept in the statistics. */
+    public static final int MAX_SLOWEST_ITEMS = 10;
+
     @SuppressWarnings("unused")
     public static int getItemsProcessedWithFailure(ActivityItemProcessingStatisticsType info) {
         if (info != null) {
@@ -281,6 +287,8 @@ public class ActivityItemProcessingStatisticsUtil {
         addProcessed(sum.getProcessed(), delta.getProcessed());
         addCurrent(sum.getCurrent(), delta.getCurrent());
         addRunRecords(sum, delta);
+        addSlowest(sum.getSlowest(), delta.getSlowest());
+        addItemTypes(sum.getItemType(), delta.getItemType());
     }
 
     private static void addRunRecords(@NotNull ActivityItemProcessingStatisticsType sum,
@@ -315,6 +323,12 @@ public class ActivityItemProcessingStatisticsUtil {
     private static void addMatchingProcessedItemSets(@NotNull ProcessedItemSetType sum, @NotNull ProcessedItemSetType delta) {
         sum.setCount(or0(sum.getCount()) + or0(delta.getCount()));
         sum.setDuration(or0(sum.getDuration()) + or0(delta.getDuration()));
+        if (delta.getQueueWaitDuration() != null) {
+            sum.setQueueWaitDuration(or0(sum.getQueueWaitDuration()) + delta.getQueueWaitDuration());
+        }
+        if (delta.getDurationHistogram() != null) {
+            addHistogram(sum.getDurationHistogram(), delta.getDurationHistogram(), sum::setDurationHistogram);
+        }
         if (delta.getLastItem() != null) {
             if (sum.getLastItem() == null ||
                     XmlTypeConverter.isAfterNullLast(delta.getLastItem().getEndTimestamp(), sum.getLastItem().getEndTimestamp())) {
@@ -323,6 +337,71 @@ public class ActivityItemProcessingStatisticsUtil {
         }
     }
 
+    private static void addHistogram(DurationHistogramType sum, @NotNull DurationHistogramType delta,
+            Consumer<DurationHistogramType> sumSetter) {
+        if (sum != null) {
+            DurationHistogramUtil.addTo(sum, delta);
+        } else {
+            sumSetter.accept(delta.cloneWithoutId());
+        }
+    }
+
+    /** Adds `slowest` items information: keeps {@link #MAX_SLOWEST_ITEMS} slowest ones from both lists. */
+    private static void addSlowest(@NotNull List<ProcessedItemType> sum, @NotNull List<ProcessedItemType> delta) {
+        for (ProcessedItemType deltaItem : delta) {
+            addToSlowest(sum, deltaItem.cloneWithoutId());
+        }
+    }
+
+    /**
+     * Adds an item to the list of slowest items, if it belongs there. Evicts the fastest one if the list is full.
+     * The list is kept sorted from the slowest item to the fastest one.
+     */
+    public static void addToSlowest(@NotNull List<ProcessedItemType> slowest, @NotNull ProcessedItemType item) {
+        long duration = getDuration(item);
+        if (slowest.size() >= MAX_SLOWEST_ITEMS && duration <= getDuration(slowest.get(slowest.size() - 1))) {
+            return;
+        }
+        List<ProcessedItemType> sorted = new ArrayList<>(slowest);
+        sorted.add(item);
+        sorted.sort(Comparator.comparingLong(ActivityItemProcessingStatisticsUtil::getDuration).reversed());
+        slowest.clear();
+        slowest.addAll(CloneUtil.cloneCollectionMembersWithoutIds(
+                sorted.subList(0, Math.min(sorted.size(), MAX_SLOWEST_ITEMS))));
+    }
+
+    /** Returns processing duration (in milliseconds) of a processed item, or zero if not known. */
+    public static long getDuration(@NotNull ProcessedItemType item) {
+        if (item.getStartTimestamp() != null && item.getEndTimestamp() != null) {
+            return XmlTypeConverter.toMillis(item.getEndTimestamp()) - XmlTypeConverter.toMillis(item.getStartTimestamp());
+        } else {
+            return 0;
+        }
+    }
+
+    private static void addItemTypes(@NotNull List<ItemTypeProcessingStatisticsType> sum,
+            @NotNull List<ItemTypeProcessingStatisticsType> delta) {
+        for (ItemTypeProcessingStatisticsType deltaStats : delta) {
+            ItemTypeProcessingStatisticsType matching = findOrCreateItemTypeStatistics(sum, deltaStats.getType());
+            matching.setCount(or0(matching.getCount()) + or0(deltaStats.getCount()));
+            matching.setDuration(or0(matching.getDuration()) + or0(deltaStats.getDuration()));
+            if (deltaStats.getDurationHistogram() != null) {
+                addHistogram(matching.getDurationHistogram(), deltaStats.getDurationHistogram(),
+                        matching::setDurationHistogram);
+            }
+        }
+    }
+
+    /** Finds statistics for given item type, creating _and adding to the list_ if necessary. */
+    public static ItemTypeProcessingStatisticsType findOrCreateItemTypeStatistics(
+            @NotNull List<ItemTypeProcessingStatisticsType> list, QName type) {
+        return list.stream()
+                .filter(item -> QNameUtil.match(item.getType(), type))
+                .findFirst()
+                .orElseGet(
+                        () -> add(list, new ItemTypeProcessingStatisticsType().type(type)));
+    }
+
     /** Adds `current` items information (simply concatenates the lists). */
     private static void addCurrent(List<ProcessedItemType> sum, List<ProcessedItemType> delta) {
         sum.addAll(CloneUtil.cloneCollectionMembersWithoutIds(delta)); // to avoid problems with parent and IDs
@@ -53,6 +53,7 @@ public class BucketingUtil {
                     buckets.getOidSegmentation(),
                     buckets.getExplicitSegmentation(),
                     buckets.getImplicitSegmentation(),
+                    buckets.getSampledSegmentation(),
                     buckets.getSegmentation());
         } else {
             return null;
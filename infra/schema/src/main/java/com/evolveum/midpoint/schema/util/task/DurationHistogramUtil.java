@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.schema.util.task;
+
+import static com.evolveum.midpoint.util.MiscUtil.or0;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.DurationHistogramBucketType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.DurationHistogramType;
+
+/**
+ * Maintains and evaluates {@link DurationHistogramType} values.
+ *
+ * The scale is fixed: bucket upper bounds follow the series of 1, 1.5, 2, 3, 5, 7 (times powers of ten)
+ * from 0.1 ms to about 80 days. So a percentile estimate is never more than 5/3 of the real value,
+ * while the histogram has only a couple of (non-empty) buckets in practice. Because the scale is fixed,
+ * histograms can be simply added.
+ */
+public class DurationHistogramUtil {
+
+    private static final double[] MANTISSAS = { 1, 1.5, 2, 3, 5, 7 };
+    private static final int MIN_EXPONENT = -1;
+    private static final int MAX_EXPONENT = 9;
+
+    /** Upper bounds of the buckets, in milliseconds. Durations over the last bound go into the last bucket. */
+    private static final double[] UPPER_BOUNDS = createUpperBounds();
+
+    private static double[] createUpperBounds() {
+        double[] bounds = new double[(MAX_EXPONENT - MIN_EXPONENT + 1) * MANTISSAS.length];
+        int i = 0;
+        for (int exponent = MIN_EXPONENT; exponent <= MAX_EXPONENT; exponent++) {
+            for (double mantissa : MANTISSAS) {
+                // Rounding to avoid values like 0.30000000000000004
+                bounds[i++] = Math.round(mantissa * Math.pow(10, exponent) * 100) / 100.0;
+            }
+        }
+        return bounds;
+    }
+
+    /** Records single duration (in milliseconds) into the histogram. */
+    public static void record(@NotNull DurationHistogramType histogram, double duration) {
+        DurationHistogramBucketType bucket = findOrCreateBucket(histogram.getBucket(), getUpperBound(duration));
+        bucket.setCount(or0(bucket.getCount()) + 1);
+        histogram.setMax(max(histogram.getMax(), duration));
+    }
+
+    /** Adds `delta` histogram to the `sum` one. */
+    public static void addTo(@NotNull DurationHistogramType sum, @NotNull DurationHistogramType delta) {
+        for (DurationHistogramBucketType deltaBucket : delta.getBucket()) {
+            if (deltaBucket.getUpperBound() != null) {
+                DurationHistogramBucketType sumBucket = findOrCreateBucket(sum.getBucket(), deltaBucket.getUpperBound());
+                sumBucket.setCount(or0(sumBucket.getCount()) + or0(deltaBucket.getCount()));
+            }
+        }
+        sum.setMax(max(sum.getMax(), delta.getMax()));
+    }
+
+    /**
+     * Returns the estimate of given percentile (0-100) of the recorded durations: the upper bound of the bucket
+     * containing it, but never more than the maximal recorded value. Returns null if the histogram is empty.
+     */
+    public static @Nullable Double getPercentile(@Nullable DurationHistogramType histogram, double percentile) {
+        if (histogram == null) {
+            return null;
+        }
+        long total = getCount(histogram);
+        if (total == 0) {
+            return null;
+        }
+        long rank = Math.max((long) Math.ceil(total * percentile / 100.0), 1);
+        long cumulative = 0;
+        for (DurationHistogramBucketType bucket : getSortedBuckets(histogram)) {
+            cumulative += or0(bucket.getCount());
+            if (cumulative >= rank) {
+                return min(bucket.getUpperBound(), histogram.getMax());
+            }
+        }
+        return histogram.getMax();
+    }
+
+    public static long getCount(@NotNull DurationHistogramType histogram) {
+        return histogram.getBucket().stream()
+                .mapToLong(b -> or0(b.getCount()))
+                .sum();
+    }
+
+    /** Formats the usual percentiles, e.g. for the statistics printouts. Returns null for empty histograms. */
+    public static @Nullable String formatPercentiles(@Nullable DurationHistogramType histogram) {
+        Double p50 = getPercentile(histogram, 50);
+        if (p50 == null) {
+            return null;
+        }
+        return String.format(Locale.US, "p50: %,.1f, p95: %,.1f, p99: %,.1f, max: %,.1f",
+                p50, getPercentile(histogram, 95), getPercentile(histogram, 99), or0(histogram.getMax()));
+    }
+
+    private static List<DurationHistogramBucketType> getSortedBuckets(@NotNull DurationHistogramType histogram) {
+        List<DurationHistogramBucketType> buckets = new ArrayList<>(histogram.getBucket());
+        buckets.sort(Comparator.comparing(b -> or0(b.getUpperBound())));
+        return buckets;
+    }
+
+    private static double getUpperBound(double duration) {
+        int index = Arrays.binarySearch(UPPER_BOUNDS, duration);
+        if (index < 0) {
+            index = -index - 1; // insertion point = first bound greater than the duration
+        }
+        return UPPER_BOUNDS[Math.min(index, UPPER_BOUNDS.length - 1)];
+    }
+
+    private static DurationHistogramBucketType findOrCreateBucket(List<DurationHistogramBucketType> buckets,
+            double upperBound) {
+        for (DurationHistogramBucketType bucket : buckets) {
+            if (bucket.getUpperBound() != null && bucket.getUpperBound() == upperBound) {
+                return bucket;
+            }
+        }
+        DurationHistogramBucketType bucket = new DurationHistogramBucketType()
+                .upperBound(upperBound)
+                .count(0);
+        buckets.add(bucket);
+        return bucket;
+    }
+
+    private static Double max(Double a, Double b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        } else {
+            return Math.max(a, b);
+        }
+    }
+
+    private static Double min(Double a, Double b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        } else {
+            return Math.min(a, b);
+        }
+    }
+}
@@ -16,6 +16,7 @@ import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.util.CloneUtil;
 import com.evolveum.midpoint.schema.statistics.CachePerformanceInformationUtil;
 import com.evolveum.midpoint.schema.statistics.EnvironmentalPerformanceInformation;
+import com.evolveum.midpoint.schema.statistics.FairShareSchedulingInformationUtil;
 import com.evolveum.midpoint.schema.statistics.OperationsPerformanceInformationUtil;
 import com.evolveum.midpoint.schema.statistics.RepositoryPerformanceInformationUtil;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
@@ -113,6 +114,12 @@ public class TaskOperationStatsUtil {
             }
             CachePerformanceInformationUtil.addTo(aggregate.getCachesPerformanceInformation(), increment.getCachesPerformanceInformation());
         }
+        if (increment.getFairShareSchedulingInformation() != null) {
+            if (aggregate.getFairShareSchedulingInformation() == null) {
+                aggregate.setFairShareSchedulingInformation(new FairShareSchedulingInformationType());
+            }
+            FairShareSchedulingInformationUtil.addTo(aggregate.getFairShareSchedulingInformation(), increment.getFairShareSchedulingInformation());
+        }
     }
 
     public static String format(OperationStatsType statistics) {
@@ -140,6 +147,11 @@ public class TaskOperationStatsUtil {
                     .append(OperationsPerformanceInformationUtil.format(statistics.getOperationsPerformanceInformation()))
                     .append("\n");
         }
+        if (statistics.getFairShareSchedulingInformation() != null) {
+            sb.append("Fair-share scheduling information\n\n")
+                    .append(FairShareSchedulingInformationUtil.format(statistics.getFairShareSchedulingInformation()))
+                    .append("\n");
+        }
         return sb.toString();
     }
 }
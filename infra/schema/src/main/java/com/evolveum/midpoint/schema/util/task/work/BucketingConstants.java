@@ -22,4 +22,5 @@ public class BucketingConstants {
     public static final String GET_WORK_BUCKET_NO_MORE_BUCKETS_WAIT_TIME_ELAPSED = "getWorkBucket.NoMoreBucketsWaitTimeElapsed";
     public static final String COMPLETE_WORK_BUCKET = "completeWorkBucket";
     public static final String RELEASE_WORK_BUCKET = "releaseWorkBucket";
+    public static final String NARROW_WORK_BUCKET = "narrowWorkBucket";
 }
@@ -14,6 +14,7 @@ import static com.evolveum.midpoint.prism.util.PrismTestUtil.getPrismContext;
 import java.io.File;
 import java.util.concurrent.atomic.AtomicInteger;
 
+import com.evolveum.midpoint.schema.util.task.DurationHistogramUtil;
 import com.evolveum.midpoint.schema.util.task.WallClockTimeComputer;
 
 import org.testng.annotations.Test;
@@ -141,4 +142,22 @@ public class TestMiscellaneous extends AbstractSchemaTest {
                 { 120, 130 }
         }).getSummaryTime()).isEqualTo(30);
     }
+
+    @Test
+    public void testDurationHistogram() {
+        DurationHistogramType first = new DurationHistogramType();
+        DurationHistogramType second = new DurationHistogramType();
+        for (int i = 1; i <= 50; i++) {
+            DurationHistogramUtil.record(first, i);
+            DurationHistogramUtil.record(second, 50 + i);
+        }
+        DurationHistogramUtil.addTo(first, second);
+
+        assertThat(DurationHistogramUtil.getCount(first)).isEqualTo(100);
+        assertThat(first.getMax()).isEqualTo(100.0);
+        assertThat(DurationHistogramUtil.getPercentile(first, 50)).isEqualTo(50.0); // bucket (30, 50]
+        assertThat(DurationHistogramUtil.getPercentile(first, 60)).isEqualTo(70.0); // bucket (50, 70]
+        assertThat(DurationHistogramUtil.getPercentile(first, 99)).isEqualTo(100.0); // bucket (70, 100]
+        assertThat(DurationHistogramUtil.getPercentile(new DurationHistogramType(), 50)).isNull();
+    }
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl;
+
+import java.util.*;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.model.api.util.ClusterServiceConsts;
+import com.evolveum.midpoint.repo.api.TargetedCacheInvalidationDetails;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Batch of cache invalidation events sent from one node to another by {@link ClusterInvalidationChannel}.
+ *
+ * Sequence numbers are assigned per sender and target node, starting with 1 for each sender incarnation
+ * (i.e. node start), so the target can detect lost messages.
+ * If {@link #clearAll} is set, the entries are irrelevant and all caches should be cleared.
+ *
+ * The batch is sent as a simple line-oriented text, see {@link #toText()}:
+ * header lines (`sender`, `incarnation`, `sequence`, `clearAll`) followed by one `type oid [targetCache]` line
+ * for each entry, where type is the REST type name and `*` stands for null OID. The target cache is present only
+ * for events meant for a single cache, see {@link TargetedCacheInvalidationDetails}.
+ */
+public class ClusterInvalidationBatch {
+
+    private static final String SENDER = "sender";
+    private static final String INCARNATION = "incarnation";
+    private static final String SEQUENCE = "sequence";
+    private static final String CLEAR_ALL = "clearAll";
+    private static final String ANY = "*";
+
+    @NotNull private final String senderNodeId;
+    private final long senderIncarnation;
+    private final long sequence;
+    private final boolean clearAll;
+    @NotNull private final List<Entry> entries;
+
+    public ClusterInvalidationBatch(@NotNull String senderNodeId, long senderIncarnation, long sequence,
+            boolean clearAll, @NotNull Collection<Entry> entries) {
+        this.senderNodeId = senderNodeId;
+        this.senderIncarnation = senderIncarnation;
+        this.sequence = sequence;
+        this.clearAll = clearAll;
+        this.entries = clearAll ? List.of() : List.copyOf(entries);
+    }
+
+    public @NotNull String getSenderNodeId() {
+        return senderNodeId;
+    }
+
+    public long getSenderIncarnation() {
+        return senderIncarnation;
+    }
+
+    public long getSequence() {
+        return sequence;
+    }
+
+    public boolean isClearAll() {
+        return clearAll;
+    }
+
+    public @NotNull List<Entry> getEntries() {
+        return entries;
+    }
+
+    public @NotNull String toText() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(SENDER).append(' ').append(senderNodeId).append('\n');
+        sb.append(INCARNATION).append(' ').append(senderIncarnation).append('\n');
+        sb.append(SEQUENCE).append(' ').append(sequence).append('\n');
+        sb.append(CLEAR_ALL).append(' ').append(clearAll).append('\n');
+        for (Entry entry : entries) {
+            sb.append(ObjectTypes.getRestTypeFromClass(entry.type))
+                    .append(' ')
+                    .append(entry.oid != null ? entry.oid : ANY);
+            if (entry.targetCache != null) {
+                sb.append(' ').append(entry.targetCache);
+            }
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Returns paths of the single-event endpoint ({@link ClusterServiceConsts#EVENT_INVALIDATION}) with the same effect
+     * as this batch, for nodes that do not support batches (i.e. older versions during a rolling upgrade).
+     * The target cache can't be expressed there, so targeted entries invalidate the object in all caches.
+     */
+    public @NotNull List<String> toLegacyPaths() {
+        if (clearAll) {
+            return List.of(ClusterServiceConsts.EVENT_INVALIDATION);
+        }
+        Set<String> paths = new LinkedHashSet<>(); // entries differing only in the target cache are sent once
+        for (Entry entry : entries) {
+            paths.add(ClusterServiceConsts.EVENT_INVALIDATION + ObjectTypes.getRestTypeFromClass(entry.type)
+                    + (entry.oid != null ? "/" + entry.oid : ""));
+        }
+        return new ArrayList<>(paths);
+    }
+
+    /**
+     * Parses the text created by {@link #toText()}.
+     *
+     * @throws IllegalArgumentException if the text is malformed or contains unknown type
+     */
+    public static @NotNull ClusterInvalidationBatch parse(@NotNull String text) {
+        String[] lines = text.split("\n");
+        if (lines.length < 4) {
+            throw new IllegalArgumentException("Invalidation batch header is incomplete");
+        }
+        String senderNodeId = headerValue(lines[0], SENDER);
+        long incarnation = Long.parseLong(headerValue(lines[1], INCARNATION));
+        long sequence = Long.parseLong(headerValue(lines[2], SEQUENCE));
+        boolean clearAll = Boolean.parseBoolean(headerValue(lines[3], CLEAR_ALL));
+
+        List<Entry> entries = new ArrayList<>();
+        for (int i = 4; i < lines.length; i++) {
+            String line = lines[i].trim();
+            if (line.isEmpty()) {
+                continue;
+            }
+            String[] parts = line.split(" ");
+            if (parts.length != 2 && parts.length != 3) {
+                throw new IllegalArgumentException("Invalid invalidation batch entry: " + line);
+            }
+            entries.add(new Entry(
+                    ObjectTypes.getClassFromRestType(parts[0]),
+                    ANY.equals(parts[1]) ? null : parts[1],
+                    parts.length == 3 ? parts[2] : null));
+        }
+        return new ClusterInvalidationBatch(senderNodeId, incarnation, sequence, clearAll, entries);
+    }
+
+    private static String headerValue(String line, String name) {
+        String prefix = name + ' ';
+        if (!line.startsWith(prefix)) {
+            throw new IllegalArgumentException("Expected '" + name + "' header in invalidation batch, got: " + line);
+        }
+        return line.substring(prefix.length()).trim();
+    }
+
+    @Override
+    public String toString() {
+        return "ClusterInvalidationBatch{" +
+                "sender=" + senderNodeId +
+                ", incarnation=" + senderIncarnation +
+                ", sequence=" + sequence +
+                ", clearAll=" + clearAll +
+                ", entries=" + entries.size() +
+                '}';
+    }
+
+    /**
+     * Invalidation of single object (or all objects of given type, if OID is null);
+     * in all caches, or in the target cache only.
+     */
+    public static class Entry {
+
+        @NotNull private final Class<? extends ObjectType> type;
+        @Nullable private final String oid;
+        @Nullable private final String targetCache;
+
+        public Entry(@NotNull Class<? extends ObjectType> type, @Nullable String oid) {
+            this(type, oid, null);
+        }
+
+        public Entry(@NotNull Class<? extends ObjectType> type, @Nullable String oid, @Nullable String targetCache) {
+            this.type = type;
+            this.oid = oid;
+            this.targetCache = targetCache;
+        }
+
+        public @NotNull Class<? extends ObjectType> getType() {
+            return type;
+        }
+
+        public @Nullable String getOid() {
+            return oid;
+        }
+
+        public @Nullable String getTargetCache() {
+            return targetCache;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            Entry entry = (Entry) o;
+            return type.equals(entry.type)
+                    && Objects.equals(oid, entry.oid)
+                    && Objects.equals(targetCache, entry.targetCache);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(type, oid, targetCache);
+        }
+
+        @Override
+        public String toString() {
+            return type.getSimpleName() + ":" + oid + (targetCache != null ? " (" + targetCache + ")" : "");
+        }
+    }
+}
@@ -0,0 +1,405 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+import org.apache.cxf.jaxrs.client.WebClient;
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.CacheInvalidationContext;
+import com.evolveum.midpoint.model.api.util.ClusterServiceConsts;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.TargetedCacheInvalidationDetails;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.ClusterExecutionHelper;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Asynchronous channel for cluster-wide cache invalidation.
+ *
+ * Sending side: invalidation events are put into a bounded queue, coalesced by type and OID,
+ * and sent by a single-threaded scheduled executor to all other nodes in batches, one REST call per node
+ * per {@link #FLUSH_WINDOW_MS}, instead of one synchronous call per node per event in the
+ * modifying thread.
+ * If the queue overflows (or a global invalidation is requested) the queued events are replaced
+ * by a single "clear all" request.
+ * If a batch can't be delivered to a node, "clear all" is sent to that node, because the node may keep
+ * stale entries otherwise. This is retried every {@link #RETRY_INTERVAL_MS} until it is delivered,
+ * even if no other events come.
+ *
+ * Nodes that do not know the batch endpoint (older versions during a rolling upgrade, recognized by HTTP 404)
+ * get the events through the single-event endpoint instead, one call per event, see
+ * {@link ClusterInvalidationBatch#toLegacyPaths()}. The batch endpoint is tried again for them after
+ * {@link #LEGACY_RECHECK_INTERVAL_MS}, as the node may have been upgraded meanwhile.
+ *
+ * Receiving side: batches are dispatched to local caches in {@link #receive(ClusterInvalidationBatch)}.
+ * Sequence numbers are checked there and if any message from a sender is missing, all caches
+ * are cleared, as we don't know what was in the lost message.
+ *
+ * Note that the invalidation on other nodes is delayed by up to the flush window (plus the network call).
+ * This was the case even with the synchronous calls to a lesser degree; caches are not transactional
+ * across the cluster anyway.
+ */
+@Component
+public class ClusterInvalidationChannel {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ClusterInvalidationChannel.class);
+
+    /** How long the events are collected before the batch is sent. */
+    private static final long FLUSH_WINDOW_MS = 100;
+
+    /** How long to wait before sending "clear all" again to the nodes that failed to receive a batch. */
+    private static final long RETRY_INTERVAL_MS = 5000;
+
+    /** How long the single-event endpoint is used for a node that does not support batches. */
+    private static final long LEGACY_RECHECK_INTERVAL_MS = 600_000;
+
+    /** Maximum number of distinct queued events, after that everything is replaced by "clear all". */
+    static final int MAX_QUEUED_EVENTS = 10_000;
+
+    private static final String OP_SEND_BATCH = ClusterInvalidationChannel.class.getName() + ".sendBatch";
+
+    @Autowired private TaskManager taskManager;
+    @Autowired private CacheDispatcher cacheDispatcher;
+    @Autowired private ClusterExecutionHelper clusterExecutionHelper;
+
+    /** Distinguishes sequence numbers of this node run from the previous runs. */
+    private final long incarnation = System.currentTimeMillis();
+
+    //region Sending side state
+    /** Guards {@link #queuedEvents}, {@link #clearAllQueued}, {@link #flushScheduled} and {@link #retryScheduled}. */
+    private final Object queueLock = new Object();
+
+    private final Set<ClusterInvalidationBatch.Entry> queuedEvents = new LinkedHashSet<>();
+    private boolean clearAllQueued;
+
+    /** True if a flush of the queued events is scheduled and not started yet. */
+    private boolean flushScheduled;
+
+    /** True if a retry for the nodes in {@link #nodesToClearAll} is scheduled and not started yet. */
+    private boolean retryScheduled;
+
+    /** Last sequence number sent to each node. Used only by the sender (executor) thread. */
+    private final Map<String, Long> lastSentSequence = new HashMap<>();
+
+    /** Nodes that failed to receive the last batch, they get "clear all" next time. Used only by the sender thread. */
+    private final Set<String> nodesToClearAll = new HashSet<>();
+
+    /**
+     * Nodes that do not support batches, with the time when it was found out.
+     * Used only by the sender thread.
+     */
+    private final Map<String, Long> legacyNodes = new HashMap<>();
+
+    /** Executes the flushes; single-threaded, so the flushes never overlap. Null if not started (e.g. in tests). */
+    private ScheduledExecutorService sender;
+    //endregion
+
+    /** Last sequence received from each sender node (receiving side). */
+    private final Map<String, ReceivedSequence> lastReceived = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    public void start() {
+        sender = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-cache-invalidation");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void stop() {
+        if (sender != null) {
+            sender.shutdownNow();
+        }
+    }
+
+    /**
+     * Queues invalidation event for distribution to other nodes.
+     * Null type means all types; null OID means all objects of given type.
+     */
+    public void send(Class<? extends ObjectType> type, String oid) {
+        send(type, oid, null);
+    }
+
+    /**
+     * Queues invalidation event for distribution to other nodes, see {@link #send(Class, String)}.
+     * If target cache is not null, the event is dispatched only to that cache on the other nodes,
+     * see {@link TargetedCacheInvalidationDetails}.
+     */
+    public void send(Class<? extends ObjectType> type, String oid, String targetCache) {
+        synchronized (queueLock) {
+            if (!clearAllQueued) {
+                if (type == null) {
+                    if (oid != null) {
+                        LOGGER.warn("Cannot invalidate object type null with specific OID. Converting to global invalidation.");
+                    }
+                    queueClearAll();
+                } else {
+                    ClusterInvalidationBatch.Entry entry = new ClusterInvalidationBatch.Entry(type, oid, targetCache);
+                    if (queuedEvents.size() >= MAX_QUEUED_EVENTS && !queuedEvents.contains(entry)) {
+                        LOGGER.debug("Too many queued cache invalidation events ({}), will send global invalidation instead",
+                                queuedEvents.size());
+                        queueClearAll();
+                    } else {
+                        queuedEvents.add(entry);
+                    }
+                }
+            }
+            if (!flushScheduled && schedule(FLUSH_WINDOW_MS)) {
+                flushScheduled = true; // events coming meanwhile are sent in the same batch
+            }
+        }
+    }
+
+    private void queueClearAll() {
+        clearAllQueued = true;
+        queuedEvents.clear();
+    }
+
+    /** Schedules a flush, returns false if it's not possible (channel not started or already stopped). */
+    private boolean schedule(long delay) {
+        if (sender == null) {
+            return false;
+        }
+        try {
+            sender.schedule(this::flushSafely, delay, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("Cluster cache invalidation sender is stopped, not sending the events");
+            return false;
+        }
+    }
+
+    private void flushSafely() {
+        try {
+            flush();
+        } catch (Throwable t) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't send cluster cache invalidation batch", t);
+        }
+    }
+
+    /** Sends the queued events to all other nodes. Called only by the sender thread. */
+    private void flush() {
+        Queued queued = takeQueued();
+        if (queued.isEmpty() && nodesToClearAll.isEmpty()) {
+            return;
+        }
+
+        String localNodeId = taskManager.getNodeId();
+        OperationResult result = new OperationResult(OP_SEND_BATCH);
+        LOGGER.trace("Sending cluster cache invalidation batch: {} entries, clearAll={}, nodes to clear all: {}",
+                queued.entries.size(), queued.clearAll, nodesToClearAll);
+
+        // Regular cache invalidation can be skipped for nodes not checking in. Cache entries will expire on such nodes
+        // eventually. (We can revisit this design decision if needed.)
+        clusterExecutionHelper.execute((client, node, result1) -> {
+            String nodeId = node.getNodeIdentifier();
+            ClusterInvalidationBatch batch = createBatch(localNodeId, nodeId, queued);
+            if (batch == null) {
+                return; // nothing for this node (this is a retry for other nodes)
+            }
+            boolean delivered = false;
+            try {
+                delivered = deliver(client, nodeId, batch);
+            } finally {
+                recordDelivery(nodeId, delivered);
+            }
+        }, null, "cache invalidation", result);
+
+        scheduleRetryIfNeeded();
+    }
+
+    /** Sends the batch to the node, falling back to the single-event endpoint if needed. Returns true if delivered. */
+    private boolean deliver(WebClient client, String nodeId, ClusterInvalidationBatch batch) {
+        if (!isLegacyNode(nodeId)) {
+            client.path(ClusterServiceConsts.EVENT_INVALIDATION_BATCH);
+            client.type(MediaType.TEXT_PLAIN);
+            Response response = client.post(batch.toText());
+            Response.StatusType statusInfo = response.getStatusInfo();
+            response.close();
+            if (statusInfo.getStatusCode() != Response.Status.NOT_FOUND.getStatusCode()) {
+                boolean delivered = statusInfo.getFamily() == Response.Status.Family.SUCCESSFUL;
+                if (!delivered) {
+                    LOGGER.warn("Cluster-wide cache invalidation batch {} finished on {} with status {}, {}",
+                            batch.getSequence(), nodeId, statusInfo.getStatusCode(), statusInfo.getReasonPhrase());
+                } else {
+                    LOGGER.debug("Cluster-wide cache invalidation batch {} ({} entries, clearAll={}) delivered to {}",
+                            batch.getSequence(), batch.getEntries().size(), batch.isClearAll(), nodeId);
+                }
+                return delivered;
+            }
+            LOGGER.info("Node {} does not support cache invalidation batches (older version?),"
+                    + " will use single-event invalidation for it", nodeId);
+            legacyNodes.put(nodeId, System.currentTimeMillis());
+            client.back(true);
+        }
+        return deliverLegacy(client, nodeId, batch);
+    }
+
+    /** Returns true if the single-event endpoint should be used for the node. */
+    private boolean isLegacyNode(String nodeId) {
+        Long since = legacyNodes.get(nodeId);
+        if (since == null) {
+            return false;
+        } else if (System.currentTimeMillis() - since > LEGACY_RECHECK_INTERVAL_MS) {
+            legacyNodes.remove(nodeId); // maybe it was upgraded, let's try the batch again
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    /** Sends the batch event by event, as older nodes expect. Returns true if all the events were delivered. */
+    private boolean deliverLegacy(WebClient client, String nodeId, ClusterInvalidationBatch batch) {
+        for (String path : batch.toLegacyPaths()) {
+            client.back(true);
+            client.path(path);
+            Response response = client.post(null);
+            Response.StatusType statusInfo = response.getStatusInfo();
+            response.close();
+            if (statusInfo.getFamily() != Response.Status.Family.SUCCESSFUL) {
+                LOGGER.warn("Cluster-wide cache invalidation {} finished on {} with status {}, {}",
+                        path, nodeId, statusInfo.getStatusCode(), statusInfo.getReasonPhrase());
+                return false;
+            }
+        }
+        LOGGER.debug("Cluster-wide cache invalidation batch {} ({} entries, clearAll={}) delivered to {} event by event",
+                batch.getSequence(), batch.getEntries().size(), batch.isClearAll(), nodeId);
+        return true;
+    }
+
+    /** Takes the queued events for sending, leaving the queue empty. */
+    Queued takeQueued() {
+        synchronized (queueLock) {
+            Queued queued = new Queued(new ArrayList<>(queuedEvents), clearAllQueued);
+            queuedEvents.clear();
+            clearAllQueued = false;
+            flushScheduled = false;
+            retryScheduled = false; // this flush retries the failed nodes as well
+            return queued;
+        }
+    }
+
+    /**
+     * Creates the batch for given node, or returns null if there is nothing to send there.
+     * The node gets "clear all" if requested or if it failed to receive the previous batch.
+     */
+    ClusterInvalidationBatch createBatch(String localNodeId, String nodeId, Queued queued) {
+        boolean clearAllForNode = queued.clearAll || nodesToClearAll.contains(nodeId);
+        if (!clearAllForNode && queued.entries.isEmpty()) {
+            return null;
+        }
+        long sequence = lastSentSequence.merge(nodeId, 1L, Long::sum);
+        return new ClusterInvalidationBatch(localNodeId, incarnation, sequence, clearAllForNode, queued.entries);
+    }
+
+    void recordDelivery(String nodeId, boolean delivered) {
+        if (delivered) {
+            nodesToClearAll.remove(nodeId);
+        } else {
+            nodesToClearAll.add(nodeId);
+        }
+    }
+
+    private void scheduleRetryIfNeeded() {
+        if (nodesToClearAll.isEmpty()) {
+            return;
+        }
+        synchronized (queueLock) {
+            if (!retryScheduled && !flushScheduled && schedule(RETRY_INTERVAL_MS)) {
+                LOGGER.debug("Will retry cache invalidation for nodes {} in {} ms", nodesToClearAll, RETRY_INTERVAL_MS);
+                retryScheduled = true;
+            }
+        }
+    }
+
+    /**
+     * Dispatches received batch to local caches.
+     * Clears all caches if the batch asks for it or if some previous batch from the sender was lost.
+     */
+    public void receive(@NotNull ClusterInvalidationBatch batch) {
+        boolean sequenceOk = checkSequence(batch); // must be checked (and recorded) for each batch
+        boolean clearAll = batch.isClearAll() || !sequenceOk;
+        // clusterwide is false: we got this from another node so we don't need to redistribute it
+        if (clearAll) {
+            LOGGER.debug("Clearing all caches because of {}", batch);
+            cacheDispatcher.dispatchInvalidation(null, null, false, new CacheInvalidationContext(true, null));
+        } else {
+            LOGGER.trace("Dispatching {}", batch);
+            for (ClusterInvalidationBatch.Entry entry : batch.getEntries()) {
+                String targetCache = entry.getTargetCache();
+                CacheInvalidationContext context = new CacheInvalidationContext(true,
+                        targetCache != null ? new TargetedCacheInvalidationDetails(targetCache) : null);
+                cacheDispatcher.dispatchInvalidation(entry.getType(), entry.getOid(), false, context);
+            }
+        }
+    }
+
+    /** Returns false if some batch from the sender was (possibly) lost. */
+    boolean checkSequence(ClusterInvalidationBatch batch) {
+        ReceivedSequence current = new ReceivedSequence(batch.getSenderIncarnation(), batch.getSequence());
+        ReceivedSequence previous = lastReceived.put(batch.getSenderNodeId(), current);
+        if (previous == null) {
+            // First batch from this sender since our start, our caches were empty at that time.
+            return true;
+        } else if (previous.incarnation != current.incarnation) {
+            // Sender was restarted, events queued there before the restart might have been lost.
+            LOGGER.debug("Node {} was restarted, some cache invalidation events might have been lost",
+                    batch.getSenderNodeId());
+            return false;
+        } else if (current.sequence != previous.sequence + 1) {
+            LOGGER.warn("Cache invalidation batch from node {} has sequence {} but {} was expected;"
+                    + " some events were lost, clearing all caches",
+                    batch.getSenderNodeId(), current.sequence, previous.sequence + 1);
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    /** Events taken from the queue to be sent in one batch. */
+    static class Queued {
+        @NotNull final List<ClusterInvalidationBatch.Entry> entries;
+        final boolean clearAll;
+
+        private Queued(@NotNull List<ClusterInvalidationBatch.Entry> entries, boolean clearAll) {
+            this.entries = entries;
+            this.clearAll = clearAll;
+        }
+
+        boolean isEmpty() {
+            return entries.isEmpty() && !clearAll;
+        }
+    }
+
+    private static class ReceivedSequence {
+        private final long incarnation;
+        private final long sequence;
+
+        private ReceivedSequence(long incarnation, long sequence) {
+            this.incarnation = incarnation;
+            this.sequence = sequence;
+        }
+    }
+}
@@ -57,6 +57,7 @@ import com.evolveum.midpoint.model.impl.lens.projector.focus.AutoAssignMappingCo
 import com.evolveum.midpoint.model.impl.lens.projector.mappings.MappingEvaluator;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.util.annotation.Experimental;
 
@@ -89,6 +90,7 @@ public class ModelBeans {
     @Autowired public ModelObjectResolver modelObjectResolver;
     @Autowired public ModelService modelService;
     @Autowired @Qualifier("cacheRepositoryService") public RepositoryService cacheRepositoryService;
+    @Autowired public CacheDispatcher cacheDispatcher;
     @Autowired public MatchingRuleRegistry matchingRuleRegistry;
     @Autowired public AutoAssignMappingCollector autoAssignMappingCollector;
     @Autowired public MappingEvaluator mappingEvaluator;
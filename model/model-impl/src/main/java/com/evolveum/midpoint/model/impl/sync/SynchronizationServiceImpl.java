@@ -11,6 +11,8 @@ import static com.evolveum.midpoint.prism.PrismObject.asObjectable;
 import static com.evolveum.midpoint.schema.internals.InternalsConfig.consistencyChecks;
 import static com.evolveum.midpoint.xml.ns._public.common.common_3.SynchronizationExclusionReasonType.*;
 
+import java.util.List;
+
 import org.apache.commons.lang3.Validate;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -27,7 +29,6 @@ import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.provisioning.api.ResourceObjectShadowChangeDescription;
 import com.evolveum.midpoint.repo.api.RepositoryService;
-import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.Task;
@@ -127,15 +128,20 @@ public class SynchronizationServiceImpl implements SynchronizationService {
      * TODO: Consider situations when one account belongs to two different users. It should correspond to
      *  the {@link SynchronizationSituationType#DISPUTED} situation.
      */
-    private <F extends FocusType> @Nullable F findShadowOwner(SynchronizationContext.Complete<F> syncCtx, OperationResult result)
-            throws SchemaException {
+    private <F extends FocusType> @Nullable F findShadowOwner(SynchronizationContext.Complete<F> syncCtx,
+            ResourceObjectShadowChangeDescription change, OperationResult result) throws SchemaException {
         ShadowType shadow = syncCtx.getShadowedResourceObject();
-        ObjectQuery query = prismContext.queryFor(FocusType.class)
-                .item(FocusType.F_LINK_REF).ref(shadow.getOid(), null, PrismConstants.Q_ANY)
-                .build();
-        // TODO read-only later
-        SearchResultList<PrismObject<FocusType>> owners =
-                repositoryService.searchObjects(FocusType.class, query, null, result);
+        List<PrismObject<FocusType>> owners;
+        if (change.getKnownShadowOwners() != null) {
+            LOGGER.trace("Using owners of {} determined in advance: {}", shadow, change.getKnownShadowOwners());
+            owners = change.getKnownShadowOwners();
+        } else {
+            ObjectQuery query = prismContext.queryFor(FocusType.class)
+                    .item(FocusType.F_LINK_REF).ref(shadow.getOid(), null, PrismConstants.Q_ANY)
+                    .build();
+            // TODO read-only later
+            owners = repositoryService.searchObjects(FocusType.class, query, null, result);
+        }
 
         if (owners.isEmpty()) {
             return null;
@@ -242,7 +248,7 @@ public class SynchronizationServiceImpl implements SynchronizationService {
                 syncCtx.getFocusClass(), syncCtx.getPolicyName());
 
         try {
-            F linkedOwner = findShadowOwner(syncCtx, result);
+            F linkedOwner = findShadowOwner(syncCtx, change, result);
             syncCtx.setLinkedOwner(linkedOwner);
 
             if (syncCtx.getLinkedOwner() == null || syncCtx.isCorrelatorsUpdateRequested()) {
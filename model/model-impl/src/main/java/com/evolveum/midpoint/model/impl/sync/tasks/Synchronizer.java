@@ -6,23 +6,35 @@
  */
 package com.evolveum.midpoint.model.impl.sync.tasks;
 
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import javax.xml.namespace.QName;
 
 import org.jetbrains.annotations.NotNull;
 
+import com.evolveum.midpoint.CacheInvalidationContext;
 import com.evolveum.midpoint.model.impl.util.ModelImplUtils;
+import com.evolveum.midpoint.prism.PrismConstants;
+import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismReferenceValue;
 import com.evolveum.midpoint.prism.delta.ChangeType;
 import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.provisioning.api.ResourceObjectChangeListener;
 import com.evolveum.midpoint.provisioning.api.ResourceObjectShadowChangeDescription;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.common.util.RepoCommonUtils;
+import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.exception.SystemException;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
@@ -45,6 +57,25 @@ public class Synchronizer {
     private final boolean simulate;
     private final boolean forceAdd;
 
+    /**
+     * Owners of shadows determined in advance by {@link #prefetchShadowOwners(Collection, RepositoryService, CacheDispatcher,
+     * OperationResult)}. Keyed by shadow OID. Entries are removed when used, or when the shadow is changed in the meanwhile.
+     * Concurrent, as batches are prepared and processed by worker threads.
+     */
+    private final Map<String, PrefetchedOwners> prefetchedOwners = new ConcurrentHashMap<>();
+
+    /** Removes the prefetched owners of shadows that are changed. Registered while there are prefetched owners. */
+    private final CacheListener prefetchedOwnersInvalidator = new CacheListener() {
+        @Override
+        public <O extends ObjectType> void invalidate(Class<O> type, String oid, boolean clusterwide,
+                CacheInvalidationContext context) {
+            invalidatePrefetchedOwners(type, oid);
+        }
+    };
+
+    /** Dispatcher where {@link #prefetchedOwnersInvalidator} is registered (if it is). Guarded by this. */
+    private CacheDispatcher registeredCacheDispatcher;
+
     public Synchronizer(@NotNull ResourceType resource,
             @NotNull PostSearchFilter postSearchFilter,
             @NotNull ResourceObjectChangeListener objectChangeListener,
@@ -70,6 +101,7 @@ public class Synchronizer {
             Task workerTask,
             OperationResult result) {
         ShadowType shadow = shadowObject.asObjectable();
+        PrefetchedOwners prefetched = prefetchedOwners.remove(shadowObject.getOid());
         if (ObjectTypeUtil.hasFetchError(shadowObject)) {
             // Not used in iterative tasks. There we filter out these objects before processing.
             OperationResultType fetchResult = shadow.getFetchResult();
@@ -91,11 +123,98 @@ public class Synchronizer {
             return;
         }
 
-        handleObjectInternal(shadowObject, itemProcessingIdentifier, workerTask, result);
+        List<PrismObject<FocusType>> knownOwners = prefetched != null ? prefetched.getIfStillValid(shadowObject) : null;
+        handleObjectInternal(shadowObject, itemProcessingIdentifier, knownOwners, workerTask, result);
     }
 
-    private void handleObjectInternal(PrismObject<ShadowType> shadowObject, String itemProcessingIdentifier, Task workerTask,
-            OperationResult result) {
+    /**
+     * Determines owners of given shadows using a single repository search, so that they need not be looked up
+     * one by one during the synchronization of the shadows. Used when items are processed in micro-batches.
+     *
+     * The synchronization of the shadows processed earlier in the batch can change the owners (link or unlink the shadow).
+     * Such a change updates the shadow in the repository (at least its synchronization situation), so the prefetched owners
+     * of a shadow are forgotten when the repository cache announces a change of the shadow. This costs no repository
+     * operations. See {@link PrefetchedOwners}.
+     */
+    public void prefetchShadowOwners(Collection<ShadowType> shadows, RepositoryService repositoryService,
+            CacheDispatcher cacheDispatcher, OperationResult result) throws SchemaException {
+        Map<String, PrefetchedOwners> prefetched = new HashMap<>();
+        for (ShadowType shadow : shadows) {
+            if (shadow.getOid() != null && shadow.getFetchResult() == null) {
+                prefetched.put(shadow.getOid(), new PrefetchedOwners());
+            }
+        }
+        if (prefetched.isEmpty()) {
+            return;
+        }
+        registerInvalidator(cacheDispatcher);
+        // Registered before the search, so the changes made during the search are not missed.
+        prefetchedOwners.putAll(prefetched);
+
+        PrismContext prismContext = PrismContext.get();
+        List<PrismReferenceValue> linkRefValues = new ArrayList<>();
+        for (String shadowOid : prefetched.keySet()) {
+            PrismReferenceValue value = prismContext.itemFactory().createReferenceValue(shadowOid);
+            value.setRelation(PrismConstants.Q_ANY);
+            linkRefValues.add(value);
+        }
+        ObjectQuery query = prismContext.queryFor(FocusType.class)
+                .item(FocusType.F_LINK_REF).ref(linkRefValues)
+                .build();
+        SearchResultList<PrismObject<FocusType>> owners =
+                repositoryService.searchObjects(FocusType.class, query, null, result);
+
+        for (PrismObject<FocusType> owner : owners) {
+            for (ObjectReferenceType linkRef : owner.asObjectable().getLinkRef()) {
+                PrefetchedOwners shadowOwners = prefetched.get(linkRef.getOid());
+                if (shadowOwners != null) {
+                    shadowOwners.owners.add(owner);
+                }
+            }
+        }
+        LOGGER.trace("Prefetched owners for {} shadow(s): found {} owner(s)", prefetched.size(), owners.size());
+        prefetched.values().forEach(PrefetchedOwners::markComplete);
+    }
+
+    /** Forgets prefetched owners that were not used, e.g. because the shadows were skipped before synchronization. */
+    public void clearPrefetchedShadowOwners() {
+        prefetchedOwners.clear();
+        unregisterInvalidator();
+    }
+
+    private synchronized void registerInvalidator(CacheDispatcher cacheDispatcher) {
+        if (registeredCacheDispatcher == null) {
+            cacheDispatcher.registerCacheListener(prefetchedOwnersInvalidator);
+            registeredCacheDispatcher = cacheDispatcher;
+        }
+    }
+
+    private synchronized void unregisterInvalidator() {
+        if (registeredCacheDispatcher != null) {
+            registeredCacheDispatcher.unregisterCacheListener(prefetchedOwnersInvalidator);
+            registeredCacheDispatcher = null;
+        }
+    }
+
+    private void invalidatePrefetchedOwners(Class<?> type, String oid) {
+        if (prefetchedOwners.isEmpty() || type != null && !type.isAssignableFrom(ShadowType.class)) {
+            return;
+        }
+        if (oid != null) {
+            PrefetchedOwners removed = prefetchedOwners.remove(oid);
+            if (removed != null) {
+                removed.invalidate();
+                LOGGER.trace("Shadow {} was changed, not using its prefetched owners", oid);
+            }
+        } else {
+            LOGGER.trace("All shadows may have been changed, not using any prefetched owners");
+            prefetchedOwners.values().forEach(PrefetchedOwners::invalidate);
+            prefetchedOwners.clear();
+        }
+    }
+
+    private void handleObjectInternal(PrismObject<ShadowType> shadowObject, String itemProcessingIdentifier,
+            List<PrismObject<FocusType>> knownOwners, Task workerTask, OperationResult result) {
         // We are going to pretend that all of the objects were just created.
         // That will effectively import them to the repository
 
@@ -104,6 +223,7 @@ public class Synchronizer {
         change.setResource(resource.asPrismObject());
         change.setSimulate(simulate);
         change.setItemProcessingIdentifier(itemProcessingIdentifier);
+        change.setKnownShadowOwners(knownOwners);
 
         if (forceAdd) {
             // We should provide shadow in the state before the change. But we are
@@ -135,6 +255,36 @@ public class Synchronizer {
         // No exception thrown here. The error is indicated in the result. Will be processed by superclass.
     }
 
+    /**
+     * Owners of a shadow determined in advance. They are valid only if the shadow was not changed since the owners
+     * search started. The invalidation can come from any thread, even before the search is complete.
+     */
+    private static class PrefetchedOwners {
+
+        @NotNull private final List<PrismObject<FocusType>> owners = new ArrayList<>();
+
+        private volatile boolean complete;
+        private volatile boolean invalidated;
+
+        private void markComplete() {
+            complete = true;
+        }
+
+        private void invalidate() {
+            invalidated = true;
+        }
+
+        /** Returns the owners if they are still valid. Otherwise, returns null, so they are looked up in the usual way. */
+        private List<PrismObject<FocusType>> getIfStillValid(PrismObject<ShadowType> shadow) {
+            if (complete && !invalidated) {
+                return owners;
+            } else {
+                LOGGER.trace("{} was changed since its owners were prefetched, not using them", shadow);
+                return null;
+            }
+        }
+    }
+
     private boolean isShadowUnknown(ShadowType shadowType) {
         return ShadowKindType.UNKNOWN == shadowType.getKind()
                 || SchemaConstants.INTENT_UNKNOWN.equals(shadowType.getIntent());
@@ -8,6 +8,8 @@
 package com.evolveum.midpoint.model.impl.sync.tasks.imp;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import com.evolveum.midpoint.model.impl.sync.tasks.ProcessingScope;
 import com.evolveum.midpoint.repo.common.activity.run.ActivityRunException;
@@ -60,6 +62,19 @@ public final class ImportActivityRun
         processingScope = getModelBeans().syncTaskHelper
                 .getProcessingScopeCheckingMaintenance(resourceObjectSet, getRunningTask(), result);
         synchronizer = createSynchronizer();
+        getModelBeans().provisioningService
+                .prepareEntitlementMembershipIndex(processingScope.getResourceOid(), getRunningTask(), result);
+    }
+
+    @Override
+    public void cleanupAfterRun(OperationResult result) {
+        if (synchronizer != null) {
+            synchronizer.clearPrefetchedShadowOwners();
+        }
+        if (processingScope != null) {
+            getModelBeans().provisioningService
+                    .releaseEntitlementMembershipIndex(processingScope.getResourceOid(), getRunningTask());
+        }
     }
 
     @Override
@@ -103,6 +118,22 @@ public final class ImportActivityRun
         return true;
     }
 
+    /** Shadow owners are looked up for the whole batch at once. */
+    @Override
+    public void prepareItemBatch(@NotNull List<ItemProcessingRequest<ShadowType>> requests,
+            @NotNull RunningTask workerTask, OperationResult result) throws CommonException {
+        List<ShadowType> shadows = requests.stream()
+                .map(ItemProcessingRequest::getItem)
+                .collect(Collectors.toList());
+        synchronizer.prefetchShadowOwners(
+                shadows, getModelBeans().cacheRepositoryService, getModelBeans().cacheDispatcher, result);
+    }
+
+    @Override
+    public void afterBucketProcessing(OperationResult result) {
+        synchronizer.clearPrefetchedShadowOwners();
+    }
+
     private @NotNull ModelBeans getModelBeans() {
         return getActivityHandler().getModelBeans();
     }
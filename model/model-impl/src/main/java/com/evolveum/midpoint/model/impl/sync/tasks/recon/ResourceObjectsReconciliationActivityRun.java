@@ -8,6 +8,8 @@
 package com.evolveum.midpoint.model.impl.sync.tasks.recon;
 
 import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
 
 import com.evolveum.midpoint.repo.common.activity.run.ActivityRunException;
 
@@ -47,6 +49,19 @@ public final class ResourceObjectsReconciliationActivityRun
     public void beforeRun(OperationResult result) throws CommonException, ActivityRunException {
         super.beforeRun(result);
         synchronizer = createSynchronizer();
+        getModelBeans().provisioningService
+                .prepareEntitlementMembershipIndex(processingScope.getResourceOid(), getRunningTask(), result);
+    }
+
+    @Override
+    public void cleanupAfterRun(OperationResult result) {
+        if (synchronizer != null) {
+            synchronizer.clearPrefetchedShadowOwners();
+        }
+        if (processingScope != null) {
+            getModelBeans().provisioningService
+                    .releaseEntitlementMembershipIndex(processingScope.getResourceOid(), getRunningTask());
+        }
     }
 
     @Override
@@ -90,6 +105,22 @@ public final class ResourceObjectsReconciliationActivityRun
         return true;
     }
 
+    /** Shadow owners are looked up for the whole batch at once. */
+    @Override
+    public void prepareItemBatch(@NotNull List<ItemProcessingRequest<ShadowType>> requests,
+            @NotNull RunningTask workerTask, OperationResult result) throws CommonException {
+        List<ShadowType> shadows = requests.stream()
+                .map(ItemProcessingRequest::getItem)
+                .collect(Collectors.toList());
+        synchronizer.prefetchShadowOwners(
+                shadows, getModelBeans().cacheRepositoryService, getModelBeans().cacheDispatcher, result);
+    }
+
+    @Override
+    public void afterBucketProcessing(OperationResult result) {
+        synchronizer.clearPrefetchedShadowOwners();
+    }
+
     @VisibleForTesting
     public long getResourceReconCount() {
         return transientRunStatistics.getItemsProcessed();
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ArchetypeType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
+
+/**
+ * Tests the sending and receiving logic of {@link ClusterInvalidationChannel} without the sender thread
+ * and REST calls, so the channel is not started here.
+ */
+public class ClusterInvalidationChannelTest extends AbstractUnitTest {
+
+    private static final String OID_1 = "9a3c3b8e-0b0e-4d4a-9f5c-7c1f0d6e3a11";
+    private static final String OID_2 = "0f6d2a4c-6a37-4a43-8a7b-3d9e8b0c5f22";
+
+    @Test
+    public void test100CheckSequence() {
+        ClusterInvalidationChannel channel = new ClusterInvalidationChannel();
+
+        expect("first batch from the sender is accepted, whatever its sequence");
+        assertThat(channel.checkSequence(batch("node-1", 1L, 5L))).isTrue();
+
+        expect("consecutive batch is accepted");
+        assertThat(channel.checkSequence(batch("node-1", 1L, 6L))).isTrue();
+
+        expect("other sender has its own sequence");
+        assertThat(channel.checkSequence(batch("node-2", 1L, 1L))).isTrue();
+
+        expect("gap in the sequence is reported");
+        assertThat(channel.checkSequence(batch("node-1", 1L, 8L))).isFalse();
+
+        expect("sequence continues from the last received batch");
+        assertThat(channel.checkSequence(batch("node-1", 1L, 9L))).isTrue();
+
+        expect("repeated batch is reported too");
+        assertThat(channel.checkSequence(batch("node-1", 1L, 9L))).isFalse();
+
+        expect("restart of the sender (new incarnation) is reported");
+        assertThat(channel.checkSequence(batch("node-1", 2L, 1L))).isFalse();
+        assertThat(channel.checkSequence(batch("node-1", 2L, 2L))).isTrue();
+    }
+
+    @Test
+    public void test110QueuedEventsAreCoalesced() {
+        ClusterInvalidationChannel channel = new ClusterInvalidationChannel();
+
+        when("the same events are sent repeatedly");
+        channel.send(UserType.class, OID_1);
+        channel.send(UserType.class, OID_2);
+        channel.send(UserType.class, OID_1);
+        channel.send(ArchetypeType.class, null);
+        channel.send(ArchetypeType.class, null);
+
+        then("each distinct event is queued once, in the order of arrival");
+        ClusterInvalidationChannel.Queued queued = channel.takeQueued();
+        assertThat(queued.clearAll).isFalse();
+        assertThat(queued.entries).containsExactly(
+                new ClusterInvalidationBatch.Entry(UserType.class, OID_1),
+                new ClusterInvalidationBatch.Entry(UserType.class, OID_2),
+                new ClusterInvalidationBatch.Entry(ArchetypeType.class, null));
+
+        and("the queue is empty after it's taken");
+        assertThat(channel.takeQueued().isEmpty()).isTrue();
+    }
+
+    @Test
+    public void test120OverflowIsReplacedByClearAll() {
+        ClusterInvalidationChannel channel = new ClusterInvalidationChannel();
+
+        given("full queue");
+        for (int i = 0; i < ClusterInvalidationChannel.MAX_QUEUED_EVENTS; i++) {
+            channel.send(UserType.class, "oid-" + i);
+        }
+
+        when("already queued event is sent");
+        channel.send(UserType.class, "oid-0");
+
+        then("it is coalesced");
+        ClusterInvalidationChannel.Queued queued = channel.takeQueued();
+        assertThat(queued.clearAll).isFalse();
+        assertThat(queued.entries).hasSize(ClusterInvalidationChannel.MAX_QUEUED_EVENTS);
+
+        given("full queue again");
+        for (int i = 0; i < ClusterInvalidationChannel.MAX_QUEUED_EVENTS; i++) {
+            channel.send(UserType.class, "oid-" + i);
+        }
+
+        when("one more distinct event is sent");
+        channel.send(SystemConfigurationType.class, OID_1);
+        channel.send(UserType.class, OID_2);
+
+        then("all queued events are replaced by clear all");
+        queued = channel.takeQueued();
+        assertThat(queued.clearAll).isTrue();
+        assertThat(queued.entries).isEmpty();
+
+        when("global invalidation is sent");
+        channel.send(UserType.class, OID_1);
+        channel.send(null, null);
+
+        then("it is queued as clear all as well");
+        queued = channel.takeQueued();
+        assertThat(queued.clearAll).isTrue();
+        assertThat(queued.entries).isEmpty();
+    }
+
+    @Test
+    public void test130FailedNodeGetsClearAllUntilDelivered() {
+        ClusterInvalidationChannel channel = new ClusterInvalidationChannel();
+
+        given("batch delivered to one node and not to the other");
+        channel.send(UserType.class, OID_1);
+        ClusterInvalidationChannel.Queued queued = channel.takeQueued();
+        ClusterInvalidationBatch toNode1 = channel.createBatch("local", "node-1", queued);
+        ClusterInvalidationBatch toNode2 = channel.createBatch("local", "node-2", queued);
+        assertThat(toNode1).isNotNull();
+        assertThat(toNode1.isClearAll()).isFalse();
+        assertThat(toNode1.getSequence()).isEqualTo(1L);
+        assertThat(toNode2).isNotNull();
+        channel.recordDelivery("node-1", true);
+        channel.recordDelivery("node-2", false);
+
+        when("retry without any new events is done");
+        queued = channel.takeQueued();
+
+        then("only the failed node gets clear all");
+        assertThat(queued.isEmpty()).isTrue();
+        assertThat(channel.createBatch("local", "node-1", queued)).isNull();
+        ClusterInvalidationBatch retry = channel.createBatch("local", "node-2", queued);
+        assertThat(retry).isNotNull();
+        assertThat(retry.isClearAll()).isTrue();
+        assertThat(retry.getSequence()).isEqualTo(2L);
+
+        when("retry fails again and a new event comes");
+        channel.recordDelivery("node-2", false);
+        channel.send(UserType.class, OID_2);
+        queued = channel.takeQueued();
+
+        then("the failed node still gets clear all, the other one the event");
+        ClusterInvalidationBatch next1 = channel.createBatch("local", "node-1", queued);
+        assertThat(next1).isNotNull();
+        assertThat(next1.isClearAll()).isFalse();
+        assertThat(next1.getSequence()).isEqualTo(2L);
+        ClusterInvalidationBatch next2 = channel.createBatch("local", "node-2", queued);
+        assertThat(next2).isNotNull();
+        assertThat(next2.isClearAll()).isTrue();
+        assertThat(next2.getSequence()).isEqualTo(3L);
+
+        when("clear all is delivered");
+        channel.recordDelivery("node-1", true);
+        channel.recordDelivery("node-2", true);
+        queued = channel.takeQueued();
+
+        then("nothing more is sent");
+        assertThat(channel.createBatch("local", "node-1", queued)).isNull();
+        assertThat(channel.createBatch("local", "node-2", queued)).isNull();
+    }
+
+    private ClusterInvalidationBatch batch(String sender, long incarnation, long sequence) {
+        return new ClusterInvalidationBatch(sender, incarnation, sequence, false, List.of());
+    }
+}
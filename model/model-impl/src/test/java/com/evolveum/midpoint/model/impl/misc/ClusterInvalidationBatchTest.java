@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl.misc;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.model.impl.ClusterInvalidationBatch;
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ArchetypeType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
+
+public class ClusterInvalidationBatchTest extends AbstractUnitTest {
+
+    @Test
+    public void test100RoundTrip() {
+        given("batch with entries with and without OID, and with a target cache");
+        ClusterInvalidationBatch batch = new ClusterInvalidationBatch("node-1", 123L, 7L, false, List.of(
+                new ClusterInvalidationBatch.Entry(ArchetypeType.class, "9a3c3b8e-0b0e-4d4a-9f5c-7c1f0d6e3a11"),
+                new ClusterInvalidationBatch.Entry(SystemConfigurationType.class, null),
+                new ClusterInvalidationBatch.Entry(
+                        ResourceType.class, "10000000-0000-0000-0000-000000000004", "com.example.SomeIndex")));
+
+        when("batch is serialized and parsed");
+        ClusterInvalidationBatch parsed = ClusterInvalidationBatch.parse(batch.toText());
+
+        then("it is the same");
+        assertThat(parsed.getSenderNodeId()).isEqualTo("node-1");
+        assertThat(parsed.getSenderIncarnation()).isEqualTo(123L);
+        assertThat(parsed.getSequence()).isEqualTo(7L);
+        assertThat(parsed.isClearAll()).isFalse();
+        assertThat(parsed.getEntries()).containsExactlyElementsOf(batch.getEntries());
+    }
+
+    @Test
+    public void test110ClearAllHasNoEntries() {
+        ClusterInvalidationBatch batch = new ClusterInvalidationBatch("node-1", 123L, 8L, true, List.of(
+                new ClusterInvalidationBatch.Entry(ArchetypeType.class, null)));
+
+        ClusterInvalidationBatch parsed = ClusterInvalidationBatch.parse(batch.toText());
+
+        assertThat(parsed.isClearAll()).isTrue();
+        assertThat(parsed.getEntries()).isEmpty();
+    }
+
+    @Test
+    public void test115LegacyPaths() {
+        given("batch with entries with and without OID, and with a target cache");
+        ClusterInvalidationBatch batch = new ClusterInvalidationBatch("node-1", 123L, 9L, false, List.of(
+                new ClusterInvalidationBatch.Entry(SystemConfigurationType.class, null),
+                new ClusterInvalidationBatch.Entry(ResourceType.class, "10000000-0000-0000-0000-000000000004"),
+                new ClusterInvalidationBatch.Entry(
+                        ResourceType.class, "10000000-0000-0000-0000-000000000004", "com.example.SomeIndex")));
+
+        expect("single-event paths with targeted entries sent as plain type/OID, each only once");
+        assertThat(batch.toLegacyPaths()).containsExactly(
+                "/event/invalidation/systemConfigurations",
+                "/event/invalidation/resources/10000000-0000-0000-0000-000000000004");
+
+        and("clear all is sent to the global invalidation path");
+        assertThat(new ClusterInvalidationBatch("node-1", 123L, 10L, true, List.of()).toLegacyPaths())
+                .containsExactly("/event/invalidation/");
+    }
+
+    @Test
+    public void test120MalformedBatchIsRejected() {
+        assertThatThrownBy(() -> ClusterInvalidationBatch.parse("sender node-1\nsequence 1\n"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.impl.sync;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.model.impl.AbstractInternalModelIntegrationTest;
+import com.evolveum.midpoint.model.impl.sync.tasks.Synchronizer;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.provisioning.api.ResourceObjectChangeListener;
+import com.evolveum.midpoint.provisioning.api.ResourceObjectShadowChangeDescription;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.perf.PerformanceInformation;
+import com.evolveum.midpoint.schema.constants.SchemaConstants;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+/**
+ * Tests the owners of shadows prefetched by {@link Synchronizer} for a batch of items: they must be obtained
+ * by a single repository search per batch, and must not be used after the shadow was changed.
+ */
+@ContextConfiguration(locations = { "classpath:ctx-model-test-main.xml" })
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestSynchronizerOwnerPrefetch extends AbstractInternalModelIntegrationTest {
+
+    private static final int SHADOWS = 5;
+    private static final int OWNED_SHADOWS = 3;
+
+    @Autowired private CacheDispatcher cacheDispatcher;
+
+    private final List<String> shadowOids = new ArrayList<>();
+    private final List<String> ownerOids = new ArrayList<>();
+
+    /** Known owners passed to the change listener, keyed by shadow OID. */
+    private final Map<String, List<PrismObject<FocusType>>> knownOwners = new HashMap<>();
+
+    @Override
+    public void initSystem(Task initTask, OperationResult initResult) throws Exception {
+        super.initSystem(initTask, initResult);
+
+        for (int i = 0; i < SHADOWS; i++) {
+            String shadowOid = repositoryService.addObject(
+                    new ShadowType()
+                            .name("prefetch-" + i)
+                            .resourceRef(RESOURCE_DUMMY_OID, ResourceType.COMPLEX_TYPE)
+                            .objectClass(SchemaConstants.RI_ACCOUNT_OBJECT_CLASS)
+                            .kind(ShadowKindType.UNKNOWN)
+                            .asPrismObject(),
+                    null, initResult);
+            shadowOids.add(shadowOid);
+            if (i < OWNED_SHADOWS) {
+                ownerOids.add(repositoryService.addObject(
+                        new UserType()
+                                .name("prefetch-owner-" + i)
+                                .linkRef(shadowOid, ShadowType.COMPLEX_TYPE)
+                                .asPrismObject(),
+                        null, initResult));
+            }
+        }
+    }
+
+    /** Owners of the whole batch are found by one search; no repository operations are needed per item. */
+    @Test
+    public void test100PrefetchedOwnersUseOneSearchPerBatch() throws Exception {
+        given("a batch of shadows, some of them owned");
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        Synchronizer synchronizer = createSynchronizer();
+        List<ShadowType> shadows = getShadows(result);
+        knownOwners.clear();
+
+        when("owners are prefetched and the batch is synchronized");
+        repositoryService.getPerformanceMonitor().startThreadLocalPerformanceInformationCollection();
+        synchronizer.prefetchShadowOwners(shadows, repositoryService, cacheDispatcher, result);
+        for (ShadowType shadow : shadows) {
+            synchronizer.synchronize(shadow.asPrismObject(), null, task, result);
+        }
+        PerformanceInformation performanceInformation =
+                repositoryService.getPerformanceMonitor().getThreadLocalPerformanceInformation().clone();
+        synchronizer.clearPrefetchedShadowOwners();
+
+        then("one search was issued for the batch, and no versions were read");
+        displayDumpable("repository operations", performanceInformation);
+        assertThat(performanceInformation.getInvocationCount("searchObjects")).as("searches").isEqualTo(1);
+        assertThat(performanceInformation.getInvocationCount("getVersion")).as("version reads").isZero();
+
+        and("the prefetched owners were passed to the synchronization");
+        for (int i = 0; i < SHADOWS; i++) {
+            List<PrismObject<FocusType>> owners = knownOwners.get(shadowOids.get(i));
+            assertThat(owners).as("known owners of shadow #" + i).isNotNull();
+            if (i < OWNED_SHADOWS) {
+                assertThat(owners).as("known owners of shadow #" + i).hasSize(1);
+                assertThat(owners.get(0).getOid()).as("owner of shadow #" + i).isEqualTo(ownerOids.get(i));
+            } else {
+                assertThat(owners).as("known owners of shadow #" + i).isEmpty();
+            }
+        }
+    }
+
+    /** A shadow changed after the prefetch (e.g. linked or unlinked) gets no prefetched owners. */
+    @Test
+    public void test110ChangedShadowDoesNotUsePrefetchedOwners() throws Exception {
+        given("owners of a batch are prefetched");
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+        Synchronizer synchronizer = createSynchronizer();
+        List<ShadowType> shadows = getShadows(result);
+        knownOwners.clear();
+        synchronizer.prefetchShadowOwners(shadows, repositoryService, cacheDispatcher, result);
+
+        when("the first shadow is changed, and the batch is synchronized");
+        repositoryService.modifyObject(ShadowType.class, shadowOids.get(0),
+                prismContext.deltaFor(ShadowType.class)
+                        .item(ShadowType.F_SYNCHRONIZATION_SITUATION).replace(SynchronizationSituationType.UNLINKED)
+                        .asItemDeltas(),
+                result);
+        for (ShadowType shadow : shadows) {
+            synchronizer.synchronize(shadow.asPrismObject(), null, task, result);
+        }
+        synchronizer.clearPrefetchedShadowOwners();
+
+        then("the changed shadow got no prefetched owners, the other ones did");
+        assertThat(knownOwners.get(shadowOids.get(0))).as("known owners of the changed shadow").isNull();
+        assertThat(knownOwners.get(shadowOids.get(1))).as("known owners of an unchanged shadow").hasSize(1);
+    }
+
+    private Synchronizer createSynchronizer() {
+        return new Synchronizer(
+                getDummyResourceType(),
+                shadow -> true,
+                new RecordingListener(),
+                SchemaConstants.CHANNEL_RECON,
+                true,
+                false);
+    }
+
+    private List<ShadowType> getShadows(OperationResult result) throws Exception {
+        List<ShadowType> shadows = new ArrayList<>();
+        for (String oid : shadowOids) {
+            shadows.add(repositoryService.getObject(ShadowType.class, oid, null, result).asObjectable());
+        }
+        return shadows;
+    }
+
+    /** Records the known owners, does not synchronize anything. */
+    private class RecordingListener implements ResourceObjectChangeListener {
+
+        @Override
+        public void notifyChange(@NotNull ResourceObjectShadowChangeDescription change, Task task,
+                OperationResult parentResult) {
+            knownOwners.put(change.getShadowedResourceObject().getOid(), change.getKnownShadowOwners());
+        }
+
+        @Override
+        public String getName() {
+            return "recording listener";
+        }
+    }
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.model.intest.sync;
+
+import static com.evolveum.midpoint.model.intest.sync.AbstractSynchronizationStoryTest.Color.*;
+
+import java.util.Map;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.annotation.DirtiesContext.ClassMode;
+import org.springframework.test.context.ContextConfiguration;
+
+import com.evolveum.midpoint.test.TestTask;
+
+/**
+ * Uses multithreaded reconciliation task with worker threads taking the items in micro-batches.
+ *
+ * Shadow owners are then looked up for the whole batch in advance. So this checks that the synchronization story
+ * works also with these owners, i.e. that they are not used after they became stale.
+ */
+@ContextConfiguration(locations = {"classpath:ctx-model-intest-test-main.xml"})
+@DirtiesContext(classMode = ClassMode.AFTER_CLASS)
+public class TestSyncStoryUsingReconciliationInBatches extends TestSyncStoryUsingReconciliation {
+
+    private static final TestTask TASK_RECONCILE_DUMMY = new TestTask(
+            TEST_DIR, "task-reconcile-dummy-in-batches.xml", "3e1f6a2b-5c8d-4b7e-9a0f-2d4c6b8e1a19");
+    private static final TestTask TASK_RECONCILE_DUMMY_GREEN = new TestTask(
+            TEST_DIR, "task-reconcile-dummy-green-in-batches.xml", "8b2d4f6a-1c3e-4a5b-8d7f-9e0a2c4b6d19");
+    private static final TestTask TASK_RECONCILE_DUMMY_BLUE = new TestTask(
+            TEST_DIR, "task-reconcile-dummy-blue-in-batches.xml", "c5e7a9b1-3d5f-4c7e-9b1a-4f6d8e0c2b19");
+
+    @Override
+    protected Map<Color, TestTask> getTaskMap() {
+        return Map.of(
+                DEFAULT, TASK_RECONCILE_DUMMY,
+                GREEN, TASK_RECONCILE_DUMMY_GREEN,
+                BLUE, TASK_RECONCILE_DUMMY_BLUE);
+    }
+}
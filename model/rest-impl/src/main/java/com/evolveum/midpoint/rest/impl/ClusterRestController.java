@@ -29,6 +29,8 @@ import com.evolveum.midpoint.common.configuration.api.MidpointConfiguration;
 import com.evolveum.midpoint.model.api.ModelPublicConstants;
 import com.evolveum.midpoint.model.api.authentication.GuiProfiledPrincipalManager;
 import com.evolveum.midpoint.model.api.util.ClusterServiceConsts;
+import com.evolveum.midpoint.model.impl.ClusterInvalidationBatch;
+import com.evolveum.midpoint.model.impl.ClusterInvalidationChannel;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.repo.api.CacheDispatcher;
 import com.evolveum.midpoint.schema.DefinitionProcessingOption;
@@ -62,6 +64,7 @@ public class ClusterRestController extends AbstractRestController {
     public static final String CLASS_DOT = ClusterRestController.class.getName() + ".";
 
     private static final String OPERATION_EXECUTE_CLUSTER_CACHE_INVALIDATION_EVENT = CLASS_DOT + "executeClusterCacheInvalidationEvent";
+    private static final String OPERATION_EXECUTE_CLUSTER_CACHE_INVALIDATION_BATCH = CLASS_DOT + "executeClusterCacheInvalidationBatch";
     private static final String OPERATION_EXECUTE_CLUSTER_TERMINATE_SESSION_EVENT = CLASS_DOT + "executeClusterTerminateSessionEvent";
     private static final String OPERATION_GET_LOCAL_SCHEDULER_INFORMATION = CLASS_DOT + "getLocalSchedulerInformation";
     private static final String OPERATION_STOP_LOCAL_SCHEDULER = CLASS_DOT + "stopLocalScheduler";
@@ -78,6 +81,7 @@ public class ClusterRestController extends AbstractRestController {
     @Autowired private MidpointConfiguration midpointConfiguration;
     @Autowired private GuiProfiledPrincipalManager focusProfileService;
     @Autowired private CacheDispatcher cacheDispatcher;
+    @Autowired private ClusterInvalidationChannel clusterInvalidationChannel;
 
     public ClusterRestController() {
         // nothing to do
@@ -119,6 +123,33 @@ public class ClusterRestController extends AbstractRestController {
         return response;
     }
 
+    /**
+     * Batch of invalidation events sent by {@link ClusterInvalidationChannel}.
+     * The single event endpoints above are kept for nodes running older versions.
+     */
+    @PostMapping(value = ClusterServiceConsts.EVENT_INVALIDATION_BATCH, consumes = MediaType.TEXT_PLAIN_VALUE)
+    public ResponseEntity<?> executeClusterCacheInvalidationBatch(@RequestBody String batchText) {
+        Task task = initRequest();
+        OperationResult result = createSubresult(task, OPERATION_EXECUTE_CLUSTER_CACHE_INVALIDATION_BATCH);
+
+        ResponseEntity<?> response;
+        try {
+            checkNodeAuthentication();
+
+            ClusterInvalidationBatch batch = ClusterInvalidationBatch.parse(batchText);
+            result.addParam("sender", batch.getSenderNodeId());
+            result.addParam("sequence", batch.getSequence());
+            clusterInvalidationChannel.receive(batch);
+
+            result.recordSuccess();
+            response = createResponse(HttpStatus.OK, result);
+        } catch (Throwable t) {
+            response = handleException(result, t);
+        }
+        finishRequest(task, result);
+        return response;
+    }
+
     @PostMapping(ClusterServiceConsts.EVENT_TERMINATE_SESSION)
     public ResponseEntity<?> executeClusterTerminateSessionEvent(
             @RequestBody TerminateSessionEventType event) {
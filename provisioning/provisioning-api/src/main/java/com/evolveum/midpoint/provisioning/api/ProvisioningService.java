@@ -31,6 +31,7 @@ import com.evolveum.midpoint.schema.*;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.statistics.ConnectorOperationalStatus;
 import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.annotation.Experimental;
 import com.evolveum.midpoint.util.exception.*;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
@@ -238,7 +239,8 @@ public interface ProvisioningService {
      * asynchronous updates data source.
      *
      * Execution of updates is done in the context of the task worker threads (i.e. lightweight asynchronous
-     * subtask), if there are any. If there are none, execution is done in the thread that receives the message.
+     * subtask), if there are any. If there are none, execution is done in the thread that receives the message
+     * (or in the thread of the respective partition, if the connector processes the changes in partitions).
      *
      * @param coordinates
      *
@@ -683,6 +685,25 @@ public interface ProvisioningService {
 
     void exitConstraintsCheckerCache();
 
+    /**
+     * Builds (or re-uses) the node-local index of memberships for object-to-subject entitlement associations
+     * of given resource that have `membershipIndex` enabled. It is meant to be called at the start of a bulk operation
+     * (like import or reconciliation) that reads many subjects with their associations. The index is used only
+     * for operations carried out by the given task and its lightweight subtasks. Must be paired with
+     * {@link #releaseEntitlementMembershipIndex(String, Task)}, even if this method fails.
+     *
+     * Failures are recorded in the result but not thrown: the associations are then simply read in the usual way.
+     */
+    @Experimental
+    void prepareEntitlementMembershipIndex(@NotNull String resourceOid, @NotNull Task task, @NotNull OperationResult result);
+
+    /**
+     * Signals that the index prepared by {@link #prepareEntitlementMembershipIndex(String, Task, OperationResult)}
+     * is no longer needed by the given task. Can be called repeatedly.
+     */
+    @Experimental
+    void releaseEntitlementMembershipIndex(@NotNull String resourceOid, @NotNull Task task);
+
     /**
      * Compare value on the resource with the provided value. This method is used to compare resource attributes
      * or passwords, e.g. for the purposes of password policy.
@@ -13,12 +13,14 @@ import com.evolveum.midpoint.schema.util.ShadowUtil;
 import com.evolveum.midpoint.schema.util.SchemaDebugUtil;
 import com.evolveum.midpoint.util.DebugDumpable;
 import com.evolveum.midpoint.util.annotation.Experimental;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.FocusType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 
 import org.jetbrains.annotations.NotNull;
 
 import java.io.Serializable;
+import java.util.List;
 import java.util.Objects;
 
 import static com.evolveum.midpoint.util.MiscUtil.stateCheck;
@@ -82,6 +84,13 @@ public class ResourceObjectShadowChangeDescription implements ProvisioningEvent,
     @Experimental
     private String itemProcessingIdentifier;
 
+    /**
+     * Owners of the shadow, if they were determined in advance - e.g. for a whole batch of shadows being imported
+     * using a single repository search. Null means "not known", i.e. they have to be looked up.
+     */
+    @Experimental
+    private List<PrismObject<FocusType>> knownShadowOwners;
+
     public ObjectDelta<ShadowType> getObjectDelta() {
         return objectDelta;
     }
@@ -138,6 +147,14 @@ public class ResourceObjectShadowChangeDescription implements ProvisioningEvent,
         this.itemProcessingIdentifier = itemProcessingIdentifier;
     }
 
+    public List<PrismObject<FocusType>> getKnownShadowOwners() {
+        return knownShadowOwners;
+    }
+
+    public void setKnownShadowOwners(List<PrismObject<FocusType>> knownShadowOwners) {
+        this.knownShadowOwners = knownShadowOwners;
+    }
+
     public void checkConsistence() {
         stateCheck(resource != null, "No resource");
         resource.checkConsistence();
@@ -215,6 +232,12 @@ public class ResourceObjectShadowChangeDescription implements ProvisioningEvent,
         SchemaDebugUtil.indentDebugDump(sb, indent+1);
         sb.append("itemProcessingIdentifier: ").append(itemProcessingIdentifier);
 
+        if (knownShadowOwners != null) {
+            sb.append("\n");
+            SchemaDebugUtil.indentDebugDump(sb, indent+1);
+            sb.append("knownShadowOwners: ").append(knownShadowOwners);
+        }
+
         return sb.toString();
     }
 
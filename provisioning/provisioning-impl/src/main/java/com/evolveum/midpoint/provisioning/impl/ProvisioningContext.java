@@ -456,7 +456,8 @@ public class ProvisioningContext {
         return new UcfExecutionContext(
                 contextFactory.getLightweightIdentifierGenerator(),
                 resource,
-                task);
+                task,
+                contextFactory.getConnectorManager().getOperationGovernor(resource));
     }
 
     public boolean canRun() {
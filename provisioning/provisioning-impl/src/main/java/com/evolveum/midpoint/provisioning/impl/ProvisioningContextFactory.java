@@ -18,6 +18,7 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.provisioning.impl.resources.ConnectorManager;
 import com.evolveum.midpoint.provisioning.impl.resources.ResourceManager;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.ResourceOperationCoordinates;
@@ -48,6 +49,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 public class ProvisioningContextFactory {
 
     @Autowired private ResourceManager resourceManager;
+    @Autowired private ConnectorManager connectorManager;
     @Autowired private LightweightIdentifierGenerator lightweightIdentifierGenerator;
 
     /**
@@ -297,6 +299,10 @@ public class ProvisioningContextFactory {
         return resourceManager;
     }
 
+    @NotNull ConnectorManager getConnectorManager() {
+        return connectorManager;
+    }
+
     @NotNull public LightweightIdentifierGenerator getLightweightIdentifierGenerator() {
         return lightweightIdentifierGenerator;
     }
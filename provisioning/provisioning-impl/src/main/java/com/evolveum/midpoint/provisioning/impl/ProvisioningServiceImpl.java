@@ -18,6 +18,7 @@ import javax.annotation.PreDestroy;
 import com.evolveum.midpoint.provisioning.impl.operations.OperationsHelper;
 import com.evolveum.midpoint.provisioning.impl.operations.ProvisioningGetOperation;
 import com.evolveum.midpoint.provisioning.impl.operations.ProvisioningSearchLikeOperation;
+import com.evolveum.midpoint.provisioning.impl.resourceobjects.EntitlementMembershipIndex;
 import com.evolveum.midpoint.provisioning.impl.resources.ConnectorManager;
 import com.evolveum.midpoint.provisioning.impl.resources.ResourceManager;
 import com.evolveum.midpoint.provisioning.impl.shadows.ConstraintsChecker;
@@ -121,6 +122,7 @@ public class ProvisioningServiceImpl implements ProvisioningService, SystemConfi
     @Autowired private OperationsHelper operationsHelper;
     @Autowired private ResourceObjectClassifier resourceObjectClassifier;
     @Autowired private ShadowTagGenerator shadowTagGenerator;
+    @Autowired private EntitlementMembershipIndex entitlementMembershipIndex;
 
     @Autowired @Qualifier("cacheRepositoryService") private RepositoryService cacheRepositoryService;
 
@@ -1018,6 +1020,17 @@ public class ProvisioningServiceImpl implements ProvisioningService, SystemConfi
         ConstraintsChecker.exitCache();
     }
 
+    @Override
+    public void prepareEntitlementMembershipIndex(
+            @NotNull String resourceOid, @NotNull Task task, @NotNull OperationResult result) {
+        entitlementMembershipIndex.prepare(resourceOid, task, result);
+    }
+
+    @Override
+    public void releaseEntitlementMembershipIndex(@NotNull String resourceOid, @NotNull Task task) {
+        entitlementMembershipIndex.release(resourceOid, task);
+    }
+
     @Override
     public <O extends ObjectType, T> ItemComparisonResult compare(Class<O> type, String oid, ItemPath path,
             T expectedValue, Task task, OperationResult parentResult)
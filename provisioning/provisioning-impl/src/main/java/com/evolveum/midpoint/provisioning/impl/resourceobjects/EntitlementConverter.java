@@ -8,6 +8,7 @@ package com.evolveum.midpoint.provisioning.impl.resourceobjects;
 
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.xml.namespace.QName;
@@ -64,6 +65,7 @@ class EntitlementConverter {
     @Autowired private DelineationProcessor delineationProcessor;
     @Autowired private PrismContext prismContext;
     @Autowired private MatchingRuleRegistry matchingRuleRegistry;
+    @Autowired private EntitlementMembershipIndex entitlementMembershipIndex;
 
     //region Read (get)
     //////////
@@ -118,6 +120,7 @@ class EntitlementConverter {
                                 associationContainer,
                                 resourceObject,
                                 associationDef,
+                                entitlementIntent,
                                 subjectCtx,
                                 entitlementCtx,
                                 result);
@@ -129,7 +132,9 @@ class EntitlementConverter {
             }
         }
 
-        if (!associationContainer.isEmpty()) {
+        if (!associationContainer.isEmpty() || ProvisioningUtil.isCachingAssociations(subjectCtx)) {
+            // If the associations are cached, an empty container tells that there are no associations (as opposed
+            // to the associations not being fetched at all).
             resourceObject.add(associationContainer);
         }
         LOGGER.trace("Finished postProcessEntitlementRead with association container having {} item(s)",
@@ -199,11 +204,14 @@ class EntitlementConverter {
     /**
      * Creates values in `associationContainer`. It searches for entitlements having the "association" (referencing) attribute
      * value - e.g. `ri:members` - containing the value in subject "value" (referenced) attribute - e.g. `ri:dn`.
+     *
+     * If the {@link EntitlementMembershipIndex} is available for the association, it is used instead of the search.
      */
     private <S extends ShadowType, T> void postProcessReadEntitlementToSubject(
             PrismContainer<ShadowAssociationType> associationContainer,
             PrismObject<S> resourceObject,
             ResourceAssociationDefinition associationDef,
+            String entitlementIntent,
             ProvisioningContext subjectCtx,
             ProvisioningContext entitlementCtx,
             OperationResult result)
@@ -249,6 +257,19 @@ class EntitlementConverter {
         ResourceAttributeDefinition<T> referencedAttrDef = referencedAttr.getDefinition();
         PrismPropertyValue<T> referencedAttrValue = referencedAttr.getAnyValue();
 
+        List<Collection<ResourceAttribute<?>>> indexedEntitlements = entitlementMembershipIndex.getEntitlementIdentifiers(
+                subjectCtx, associationDef, entitlementIntent,
+                getRealNormalizedConvertedValue(referencedAttrValue, referencedAttrDef, referencingAttrDef, associationDef));
+        if (indexedEntitlements != null) {
+            LOGGER.trace("Using membership index for association {}: {} entitlement(s) found",
+                    associationName, indexedEntitlements.size());
+            for (Collection<ResourceAttribute<?>> entitlementIdentifiers : indexedEntitlements) {
+                createAssociationValueFromIdentifiers(
+                        associationContainer, entitlementIdentifiers, associationName, entitlementDef);
+            }
+            return;
+        }
+
         ObjectQuery query = createEntitlementQuery(referencedAttrValue, referencedAttrDef, referencingAttrDef, associationDef);
 
         executeSearchForEntitlements(
@@ -374,6 +395,25 @@ class EntitlementConverter {
                 createIdentifiersContainerForTargetObject(targetResourceObject, entitlementDef));
     }
 
+    /**
+     * Creates association value from known identifiers of the target object (e.g. taken from
+     * {@link EntitlementMembershipIndex}); and inserts it into `associationContainer`.
+     */
+    private void createAssociationValueFromIdentifiers(
+            PrismContainer<ShadowAssociationType> associationContainer,
+            Collection<ResourceAttribute<?>> targetIdentifiers,
+            QName associationName,
+            ResourceObjectDefinition entitlementDef) throws SchemaException {
+
+        ResourceAttributeContainer identifiersContainer = ObjectFactory.createResourceAttributeContainer(
+                ShadowAssociationType.F_IDENTIFIERS, entitlementDef.toResourceAttributeContainerDefinition());
+        identifiersContainer.getValue().addAll(Item.cloneCollection(targetIdentifiers));
+
+        PrismContainerValue<ShadowAssociationType> associationContainerValue = associationContainer.createNewValue();
+        associationContainerValue.asContainerable().setName(associationName);
+        associationContainerValue.add(identifiersContainer);
+    }
+
     /**
      * Creates the identifiers container from given value of an identifier.
      */
@@ -0,0 +1,1061 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.provisioning.impl.resourceobjects;
+
+import static com.evolveum.midpoint.util.MiscUtil.emptyIfNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.xml.namespace.QName;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.CacheInvalidationContext;
+import com.evolveum.midpoint.prism.Item;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismPropertyValue;
+import com.evolveum.midpoint.prism.PrismValue;
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.prism.match.MatchingRule;
+import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
+import com.evolveum.midpoint.provisioning.impl.ProvisioningContext;
+import com.evolveum.midpoint.provisioning.impl.ProvisioningContextFactory;
+import com.evolveum.midpoint.provisioning.ucf.api.*;
+import com.evolveum.midpoint.repo.api.Cache;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheRegistry;
+import com.evolveum.midpoint.repo.api.TargetedCacheInvalidationDetails;
+import com.evolveum.midpoint.schema.ResourceShadowCoordinates;
+import com.evolveum.midpoint.schema.processor.*;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.task.api.RunningLightweightTask;
+import com.evolveum.midpoint.task.api.RunningTask;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.*;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.ReadCapabilityType;
+
+/**
+ * Node-local reverse index of object-to-subject entitlement associations: for a subject value (e.g. account DN)
+ * it provides the identifiers of entitlements (e.g. groups) that reference it (e.g. in their `members` attribute).
+ * {@link EntitlementConverter} uses it instead of searching for the entitlements of each subject read.
+ *
+ * Only associations with {@link ResourceObjectAssociationType#isMembershipIndex()} set are indexed.
+ *
+ * Lifecycle:
+ *
+ * 1. The index for a resource is built by a full scan of the entitlements when a bulk processing (import,
+ * reconciliation) starts, see {@link #prepare(String, Task, OperationResult)}. It is dropped when the last
+ * bulk processing ends, see {@link #release(String, Task)}, or after {@link #MAX_AGE} at the latest.
+ * 2. It is used only by the bulk processing runs that prepared it (i.e. their tasks and the lightweight subtasks of them).
+ * Other operations, e.g. interactive ones, search for the entitlements as usual, so they never see stale data.
+ * 3. Changes of entitlements done by midPoint itself (on this node) are applied to the index incrementally,
+ * see {@link #onEntitlementModified(ProvisioningContext, Collection, Collection)} and similar methods. Other nodes are told
+ * to drop their index, as they do not see the changes; this is done by an invalidation event targeted at this cache,
+ * so the resource itself is not invalidated there, see {@link #notifyOtherNodes(String)}.
+ * 4. The index is dropped (and not rebuilt until the next start) on all nodes when a change that cannot be applied
+ * incrementally occurs: a change of entitlements or subjects detected by live sync or asynchronous update, a failed
+ * modification of an entitlement, a rename of an entitlement, or a change of the subject value attribute
+ * (see {@link #invalidateClusterwide(String, String)}).
+ * 5. It is ignored if the resource definition changed since the index was built. It is dropped when the resource
+ * is invalidated in the caches.
+ *
+ * If there is no (valid) index, the entitlements are searched for in the usual way.
+ */
+@Component
+public class EntitlementMembershipIndex implements Cache {
+
+    private static final Trace LOGGER = TraceManager.getTrace(EntitlementMembershipIndex.class);
+    private static final Trace LOGGER_CONTENT = TraceManager.getTrace(EntitlementMembershipIndex.class.getName() + ".content");
+
+    private static final String OP_PREPARE = EntitlementMembershipIndex.class.getName() + ".prepare";
+
+    /**
+     * Bound on the staleness caused by changes of entitlements that midPoint does not learn about, i.e. those made
+     * directly on the resource and not detected by live sync nor asynchronous update. It is also a safety net
+     * for bulk processing that ended without releasing the index.
+     */
+    private static final long MAX_AGE = 3600 * 1000L;
+
+    /**
+     * Invalidations of the index of a resource are sent to other nodes at most once per this interval. The changes done
+     * in the meanwhile are covered by an invalidation sent at the end of the interval. This is important e.g. for
+     * reconciliation that modifies many entitlements.
+     */
+    private static final long CLUSTERWIDE_INVALIDATION_INTERVAL = 1000L;
+
+    @Autowired private ProvisioningContextFactory ctxFactory;
+    @Autowired private DelineationProcessor delineationProcessor;
+    @Autowired private MatchingRuleRegistry matchingRuleRegistry;
+    @Autowired private CacheRegistry cacheRegistry;
+    @Autowired private CacheDispatcher cacheDispatcher;
+
+    /** Keyed by resource OID. */
+    private final Map<String, ResourceEntry> resourceEntries = new ConcurrentHashMap<>();
+
+    /**
+     * Resources for which an invalidation was sent to other nodes recently, see {@link #CLUSTERWIDE_INVALIDATION_INTERVAL}.
+     * The value tells whether another invalidation is to be sent at the end of the interval. Guarded by itself.
+     */
+    private final Map<String, Boolean> recentClusterwideInvalidations = new HashMap<>();
+
+    /** Sends delayed cluster-wide invalidations. Null if not started (e.g. in tests). */
+    private ScheduledExecutorService invalidationSender;
+
+    @PostConstruct
+    public void register() {
+        cacheRegistry.registerCache(this);
+        invalidationSender = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "entitlement-membership-index-invalidation");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    public void unregister() {
+        cacheRegistry.unregisterCache(this);
+        if (invalidationSender != null) {
+            invalidationSender.shutdownNow();
+        }
+    }
+
+    /**
+     * Builds the index for given resource, unless it is already there (or being built). Failures are logged, recorded into
+     * the operation result, and otherwise ignored: without the index, the entitlements are simply searched for.
+     *
+     * The index is built without holding any lock, so other runs that prepare or release the index for the same
+     * resource do not wait for the (possibly long) scan. They start without the index, and use it when it is built.
+     *
+     * Each call should be paired with {@link #release(String, Task)}, even if this method fails.
+     */
+    public void prepare(@NotNull String resourceOid, @NotNull Task task, @NotNull OperationResult parentResult) {
+        OperationResult result = parentResult.subresult(OP_PREPARE)
+                .addParam("resourceOid", resourceOid)
+                .build();
+        try {
+            ResourceEntry entry = resourceEntries.computeIfAbsent(resourceOid, oid -> new ResourceEntry());
+            long invalidationsBefore;
+            synchronized (entry) {
+                entry.owners.add(getOwnerIdentifier(task));
+                if (entry.index != null && !entry.index.isExpired()) {
+                    LOGGER.trace("Entitlement membership index for {} is already present", resourceOid);
+                    result.recordNotApplicable("Already present");
+                    return;
+                }
+                if (entry.building) {
+                    // The index will be available also to this run when built.
+                    LOGGER.trace("Entitlement membership index for {} is being built by another run", resourceOid);
+                    result.recordNotApplicable("Being built by another run");
+                    return;
+                }
+                entry.building = true;
+                invalidationsBefore = entry.invalidations;
+            }
+            ResourceIndex index = null;
+            try {
+                index = build(resourceOid, task, result);
+            } finally {
+                synchronized (entry) {
+                    entry.building = false;
+                    if (index == null) {
+                        // Nothing to publish.
+                    } else if (entry.invalidations != invalidationsBefore) {
+                        LOGGER.debug("Entitlement membership index for {} was invalidated while being built, not using it",
+                                resourceOid);
+                    } else if (entry.owners.isEmpty()) {
+                        LOGGER.debug("Entitlement membership index for {} was released while being built, not using it",
+                                resourceOid);
+                    } else {
+                        entry.index = index;
+                        LOGGER.debug("Entitlement membership index for {} built: {}", resourceOid, index);
+                    }
+                }
+            }
+            if (index == null) {
+                result.recordNotApplicable("No association with membership index on the resource");
+            }
+        } catch (Throwable t) {
+            LOGGER.warn("Couldn't build entitlement membership index for {}, entitlements will be searched for: {}",
+                    resourceOid, t.getMessage(), t);
+            result.recordHandledError(t);
+        } finally {
+            result.close();
+        }
+    }
+
+    /**
+     * Ends the use of the index by a bulk processing run (represented by its task). Drops the index if there are
+     * no other runs using it. (The entry itself is kept, as it is negligible in size.)
+     *
+     * Can be called repeatedly, or without the index being prepared.
+     */
+    public void release(@NotNull String resourceOid, @NotNull Task task) {
+        ResourceEntry entry = resourceEntries.get(resourceOid);
+        if (entry == null) {
+            return;
+        }
+        synchronized (entry) {
+            entry.owners.remove(getOwnerIdentifier(task));
+            if (entry.owners.isEmpty() && entry.index != null) {
+                LOGGER.debug("Dropping entitlement membership index for {}", resourceOid);
+                entry.index = null;
+            }
+        }
+    }
+
+    /**
+     * The index is owned by bulk processing runs, identified by their (coordinator) tasks. Their worker threads
+     * run in lightweight subtasks of these tasks.
+     */
+    private static @NotNull String getOwnerIdentifier(@NotNull Task task) {
+        if (task instanceof RunningLightweightTask) {
+            RunningTask parent = ((RunningLightweightTask) task).getLightweightTaskParent();
+            if (parent != null) {
+                return parent.getTaskIdentifier();
+            }
+        }
+        return task.getTaskIdentifier();
+    }
+
+    private @Nullable ResourceIndex build(@NotNull String resourceOid, @NotNull Task task, @NotNull OperationResult result)
+            throws CommonException, GenericFrameworkException {
+        ResourceType resource = ctxFactory.getResource(resourceOid, task, result);
+        ResourceSchema schema = ResourceSchemaFactory.getCompleteSchemaRequired(resource);
+        ResourceIndex index = new ResourceIndex(resource.getVersion());
+        for (ResourceObjectTypeDefinition subjectDef : schema.getObjectTypeDefinitions()) {
+            for (ResourceAssociationDefinition associationDef : subjectDef.getAssociationDefinitions()) {
+                if (!isIndexed(associationDef)) {
+                    continue;
+                }
+                for (String intent : associationDef.getIntents()) {
+                    IndexKey key = new IndexKey(associationDef, intent);
+                    if (!index.memberships.containsKey(key)) {
+                        ProvisioningContext entitlementCtx = ctxFactory.createForShadowCoordinates(
+                                new ResourceShadowCoordinates(resourceOid, associationDef.getKind(), intent), task, result);
+                        index.memberships.put(key, scan(entitlementCtx, associationDef, result));
+                    }
+                }
+            }
+        }
+        return index.memberships.isEmpty() ? null : index;
+    }
+
+    /** Reads all entitlements, and indexes their identifiers by (normalized) values of the referencing attribute. */
+    private @NotNull Memberships scan(@NotNull ProvisioningContext entitlementCtx,
+            @NotNull ResourceAssociationDefinition associationDef, @NotNull OperationResult result)
+            throws CommonException, GenericFrameworkException {
+        ResourceObjectDefinition entitlementDef = entitlementCtx.getObjectDefinitionRequired();
+        QName referencingAttrName = associationDef.getDefinitionBean().getAssociationAttribute();
+        ResourceAttributeDefinition<?> referencingAttrDef = entitlementDef.findAttributeDefinitionRequired(referencingAttrName);
+        MatchingRule<Object> matchingRule =
+                matchingRuleRegistry.getMatchingRule(associationDef.getMatchingRule(), referencingAttrDef.getTypeName());
+
+        List<ResourceAttributeDefinition<?>> attributesToGet = new ArrayList<>(entitlementDef.getAllIdentifiers());
+        attributesToGet.add(referencingAttrDef);
+        AttributesToReturn attributesToReturn = new AttributesToReturn();
+        attributesToReturn.setReturnDefaultAttributes(false);
+        attributesToReturn.setAttributesToReturn(attributesToGet);
+
+        QueryWithConstraints queryWithConstraints =
+                delineationProcessor.determineQueryWithConstraints(entitlementCtx, null, result);
+
+        Memberships memberships = new Memberships(matchingRule);
+        UcfObjectHandler handler = (ucfObject, lResult) -> {
+            PrismObject<ShadowType> entitlement = ucfObject.getResourceObject();
+            ResourceAttribute<?> referencingAttr = ShadowUtil.getAttributesContainer(entitlement).findAttribute(referencingAttrName);
+            if (referencingAttr == null || referencingAttr.isEmpty()) {
+                return true;
+            }
+            // Cloned to avoid keeping the whole entitlement object in memory.
+            Collection<ResourceAttribute<?>> identifiers = Item.cloneCollection(emptyIfNull(ShadowUtil.getAllIdentifiers(entitlement)));
+            try {
+                for (PrismPropertyValue<?> value : referencingAttr.getValues()) {
+                    memberships.bySubjectValue
+                            .computeIfAbsent(matchingRule.normalize(value.getRealValue()), k -> new ArrayList<>())
+                            .add(identifiers);
+                }
+            } catch (SchemaException e) {
+                throw new TunnelException(e);
+            }
+            return true;
+        };
+
+        ConnectorInstance connector = entitlementCtx.getConnector(ReadCapabilityType.class, result);
+        try {
+            connector.search(
+                    entitlementDef,
+                    queryWithConstraints.query,
+                    handler,
+                    attributesToReturn,
+                    entitlementDef.getPagedSearches(entitlementCtx.getResource()),
+                    queryWithConstraints.constraints,
+                    UcfFetchErrorReportingMethod.EXCEPTION,
+                    entitlementCtx.getUcfExecutionContext(),
+                    result);
+        } catch (TunnelException e) {
+            throw (SchemaException) e.getCause();
+        }
+        return memberships;
+    }
+
+    /**
+     * Returns identifiers of entitlements referencing given (normalized) subject value,
+     * or null if the index is not available. It is available only to the bulk processing runs that prepared it.
+     */
+    @Nullable List<Collection<ResourceAttribute<?>>> getEntitlementIdentifiers(@NotNull ProvisioningContext subjectCtx,
+            @NotNull ResourceAssociationDefinition associationDef, @NotNull String entitlementIntent,
+            @NotNull Object normalizedSubjectValue) {
+        if (!isIndexed(associationDef)) {
+            return null;
+        }
+        ResourceEntry entry = resourceEntries.get(subjectCtx.getResourceOid());
+        ResourceIndex index = entry != null ? entry.index : null;
+        if (index == null || index.isExpired()
+                || !Objects.equals(index.resourceVersion, subjectCtx.getResource().getVersion())
+                || !entry.owners.contains(getOwnerIdentifier(subjectCtx.getTask()))) {
+            return null;
+        }
+        Memberships memberships = index.memberships.get(new IndexKey(associationDef, entitlementIntent));
+        if (memberships == null) {
+            return null;
+        }
+        return memberships.bySubjectValue.getOrDefault(normalizedSubjectValue, List.of());
+    }
+
+    /** Called when an object is added on the resource by midPoint. */
+    void onObjectAdded(@NotNull ProvisioningContext ctx, @NotNull PrismObject<ShadowType> object) {
+        IndexedClasses indexedClasses = getIndexedClassesIfRelevant(ctx);
+        if (indexedClasses != null) {
+            updateIfEntitlement(ctx, indexedClasses, ShadowUtil.getAllIdentifiers(object), EntitlementChange.added(object));
+            invalidateIfSubjectAffected(ctx, indexedClasses, false, List.of());
+        }
+    }
+
+    /** Called when an object is modified on the resource by midPoint. */
+    void onObjectModified(@NotNull ProvisioningContext ctx, @Nullable Collection<? extends ResourceAttribute<?>> identifiers,
+            @NotNull Collection<? extends ItemDelta<?, ?>> modifications) {
+        IndexedClasses indexedClasses = getIndexedClassesIfRelevant(ctx);
+        if (indexedClasses != null) {
+            updateIfEntitlement(ctx, indexedClasses, identifiers, EntitlementChange.modified(modifications));
+            invalidateIfSubjectAffected(ctx, indexedClasses, false, modifications);
+        }
+    }
+
+    /** Called when an object is deleted on the resource by midPoint. */
+    void onObjectDeleted(@NotNull ProvisioningContext ctx, @Nullable Collection<? extends ResourceAttribute<?>> identifiers) {
+        IndexedClasses indexedClasses = getIndexedClassesIfRelevant(ctx);
+        if (indexedClasses != null) {
+            updateIfEntitlement(ctx, indexedClasses, identifiers, EntitlementChange.deleted());
+            invalidateIfSubjectAffected(ctx, indexedClasses, true, null);
+        }
+    }
+
+    /**
+     * Called when an entitlement was modified by midPoint as a part of subject operation, i.e. when the subject
+     * was added to or removed from it.
+     */
+    void onEntitlementModified(@NotNull ProvisioningContext entitlementCtx,
+            @NotNull Collection<? extends ResourceAttribute<?>> identifiers, @NotNull Collection<Operation> operations) {
+        IndexedClasses indexedClasses = getIndexedClassesIfRelevant(entitlementCtx);
+        if (indexedClasses == null) {
+            return;
+        }
+        List<ItemDelta<?, ?>> modifications = new ArrayList<>();
+        for (Operation operation : operations) {
+            if (operation instanceof PropertyModificationOperation) {
+                modifications.add(((PropertyModificationOperation<?>) operation).getPropertyDelta());
+            } else {
+                invalidateIfEntitlement(entitlementCtx, indexedClasses, "unsupported operation on an entitlement");
+                return;
+            }
+        }
+        updateIfEntitlement(entitlementCtx, indexedClasses, identifiers, EntitlementChange.modified(modifications));
+    }
+
+    /**
+     * Called when a modification of an entitlement by midPoint (as a part of subject operation) failed.
+     * We do not know what was really changed on the resource.
+     */
+    void onEntitlementModificationFailed(@NotNull ProvisioningContext entitlementCtx) {
+        IndexedClasses indexedClasses = getIndexedClassesIfRelevant(entitlementCtx);
+        if (indexedClasses != null) {
+            invalidateIfEntitlement(entitlementCtx, indexedClasses, "failed modification of an entitlement");
+        }
+    }
+
+    /** Called when a change of an object is detected by live sync or asynchronous update. The delta may be unknown. */
+    void onExternalChange(@NotNull ProvisioningContext ctx, @Nullable ObjectDelta<ShadowType> delta) {
+        IndexedClasses indexedClasses = getIndexedClassesIfRelevant(ctx);
+        if (indexedClasses == null) {
+            return;
+        }
+        invalidateIfEntitlement(ctx, indexedClasses, "external change of an entitlement");
+        if (delta == null) {
+            invalidateIfSubjectAffected(ctx, indexedClasses, true, null);
+        } else if (delta.isAdd()) {
+            invalidateIfSubjectAffected(ctx, indexedClasses, false, List.of());
+        } else if (delta.isDelete()) {
+            invalidateIfSubjectAffected(ctx, indexedClasses, true, null);
+        } else {
+            invalidateIfSubjectAffected(ctx, indexedClasses, false, delta.getModifications());
+        }
+    }
+
+    /**
+     * Returns the classes relevant for the index on the resource, or null if a change of the object in the context
+     * is irrelevant for the index, or if the index was invalidated because the relevance cannot be determined.
+     */
+    private @Nullable IndexedClasses getIndexedClassesIfRelevant(@NotNull ProvisioningContext ctx) {
+        // Other nodes may have the index even if this one does not have it, so we check the resource definition.
+        IndexedClasses indexedClasses = getIndexedClasses(ctx);
+        if (indexedClasses == null) {
+            invalidateClusterwide(ctx.getResourceOid(), "change on a resource without (complete) schema");
+            return null;
+        }
+        if (indexedClasses.isEmpty()) {
+            return null;
+        }
+        if (ctx.getObjectDefinition() == null) {
+            invalidateClusterwide(ctx.getResourceOid(), "change of an object of unknown class");
+            return null;
+        }
+        return indexedClasses;
+    }
+
+    private void invalidateIfEntitlement(@NotNull ProvisioningContext ctx, @NotNull IndexedClasses indexedClasses,
+            @NotNull String reason) {
+        QName objectClassName = ctx.getObjectDefinitionRequired().getObjectClassName();
+        if (!indexedClasses.getReferencingAttributes(objectClassName).isEmpty()) {
+            invalidateClusterwide(ctx.getResourceOid(), reason);
+        }
+    }
+
+    /**
+     * Applies a change of an (indexed) entitlement done by midPoint to the index on this node, and drops the index
+     * on other nodes. If the change cannot be applied, the index is invalidated everywhere.
+     *
+     * @param identifiers Identifiers of the entitlement. Null if not known.
+     */
+    private void updateIfEntitlement(@NotNull ProvisioningContext ctx, @NotNull IndexedClasses indexedClasses,
+            @Nullable Collection<? extends ResourceAttribute<?>> identifiers, @NotNull EntitlementChange change) {
+        ResourceObjectDefinition objectDefinition = ctx.getObjectDefinitionRequired();
+        Set<QName> referencingAttributes = indexedClasses.getReferencingAttributes(objectDefinition.getObjectClassName());
+        if (referencingAttributes.isEmpty() || !change.isRelevant(objectDefinition, referencingAttributes)) {
+            return;
+        }
+        String resourceOid = ctx.getResourceOid();
+        if (updateLocally(ctx, identifiers, change)) {
+            notifyOtherNodes(resourceOid);
+        } else {
+            invalidateClusterwide(resourceOid, "change of an entitlement that cannot be applied to the index");
+        }
+    }
+
+    /** Returns false if the change could not be applied to the index on this node, so the index must be invalidated. */
+    private boolean updateLocally(@NotNull ProvisioningContext ctx,
+            @Nullable Collection<? extends ResourceAttribute<?>> identifiers, @NotNull EntitlementChange change) {
+        ResourceEntry entry = resourceEntries.get(ctx.getResourceOid());
+        if (entry == null) {
+            return true;
+        }
+        ResourceIndex index;
+        synchronized (entry) {
+            if (entry.building) {
+                // The scan might have missed the change, so the index being built must not be used.
+                entry.invalidations++;
+            }
+            index = entry.index;
+        }
+        if (index == null) {
+            return true;
+        }
+        ResourceObjectDefinition objectDefinition = ctx.getObjectDefinitionRequired();
+        ResourceObjectTypeDefinition typeDefinition = objectDefinition.getTypeDefinition();
+        if (typeDefinition == null || identifiers == null || identifiers.isEmpty()
+                || change.modifiesIdentifiers(objectDefinition)) {
+            return false;
+        }
+        try {
+            EntitlementIdentity identity = new EntitlementIdentity(identifiers, matchingRuleRegistry);
+            for (Map.Entry<IndexKey, Memberships> indexEntry : index.memberships.entrySet()) {
+                IndexKey key = indexEntry.getKey();
+                if (typeDefinition.matches(key.kind, key.intent)
+                        && !change.applyTo(indexEntry.getValue(), key.referencingAttrName, identity)) {
+                    return false;
+                }
+            }
+            LOGGER.trace("Applied {} of entitlement {} to the index for {}", change, identifiers, ctx.getResourceOid());
+            return true;
+        } catch (SchemaException | RuntimeException e) {
+            LOGGER.debug("Couldn't apply {} of entitlement {} to the index for {}: {}",
+                    change, identifiers, ctx.getResourceOid(), e.getMessage(), e);
+            return false;
+        }
+    }
+
+    /**
+     * Invalidates the index if the object is a subject whose value attribute might have been changed.
+     *
+     * @param subjectAffected Whether the subject value is freed or changed in an unknown way (if the object is a subject).
+     * @param modifications Modifications of the object. Null if not known.
+     */
+    private void invalidateIfSubjectAffected(@NotNull ProvisioningContext ctx, @NotNull IndexedClasses indexedClasses,
+            boolean subjectAffected, @Nullable Collection<? extends ItemDelta<?, ?>> modifications) {
+        QName objectClassName = ctx.getObjectDefinitionRequired().getObjectClassName();
+        Set<QName> valueAttributes = indexedClasses.getSubjectValueAttributes(objectClassName);
+        if (valueAttributes.isEmpty()) {
+            return;
+        }
+        if (subjectAffected || modifications == null
+                || modifications.stream().anyMatch(modification -> isAttributeModification(modification, valueAttributes))) {
+            invalidateClusterwide(ctx.getResourceOid(), "change of a subject");
+        }
+    }
+
+    private static boolean isAttributeModification(ItemDelta<?, ?> modification, Collection<QName> attributeNames) {
+        return ShadowType.F_ATTRIBUTES.equivalent(modification.getParentPath())
+                && QNameUtil.matchAny(modification.getElementName(), attributeNames);
+    }
+
+    /** Returns the classes relevant for the index on the resource, or null if they cannot be determined. */
+    private @Nullable IndexedClasses getIndexedClasses(@NotNull ProvisioningContext ctx) {
+        ResourceSchema schema;
+        try {
+            schema = ResourceSchemaFactory.getCompleteSchema(ctx.getResource());
+        } catch (SchemaException | ConfigurationException e) {
+            LOGGER.debug("Couldn't get the schema of {}: {}", ctx.getResource(), e.getMessage(), e);
+            return null;
+        }
+        return schema != null ? IndexedClasses.determine(schema) : null;
+    }
+
+    /**
+     * Invalidates the index for given resource on this node immediately, and on the other nodes as soon as possible.
+     */
+    private void invalidateClusterwide(@NotNull String resourceOid, @NotNull String reason) {
+        invalidateLocally(resourceOid, reason);
+        notifyOtherNodes(resourceOid);
+    }
+
+    /**
+     * Invalidates the index for given resource on the other nodes, by a cache invalidation event targeted at this cache.
+     * Other caches ignore it, so the resource is not re-read there. The events for a given resource are dispatched
+     * at most once per {@link #CLUSTERWIDE_INVALIDATION_INTERVAL}.
+     */
+    private void notifyOtherNodes(@NotNull String resourceOid) {
+        synchronized (recentClusterwideInvalidations) {
+            if (invalidationSender != null && recentClusterwideInvalidations.containsKey(resourceOid)) {
+                LOGGER.trace("Deferring cluster-wide invalidation of entitlement membership index for {}", resourceOid);
+                recentClusterwideInvalidations.put(resourceOid, true);
+                return;
+            }
+            recentClusterwideInvalidations.put(resourceOid, false);
+        }
+        dispatchClusterwideInvalidation(resourceOid);
+    }
+
+    private void dispatchClusterwideInvalidation(@NotNull String resourceOid) {
+        LOGGER.trace("Dispatching cluster-wide invalidation of entitlement membership index for {}", resourceOid);
+        try {
+            cacheDispatcher.dispatchInvalidation(ResourceType.class, resourceOid, true,
+                    new CacheInvalidationContext(false, new TargetedCacheInvalidationDetails(getClass().getName())));
+        } catch (RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER,
+                    "Couldn't dispatch cluster-wide invalidation of entitlement membership index for {}", e, resourceOid);
+        }
+        if (invalidationSender != null) {
+            try {
+                invalidationSender.schedule(
+                        () -> onClusterwideInvalidationIntervalEnd(resourceOid),
+                        CLUSTERWIDE_INVALIDATION_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (RejectedExecutionException e) {
+                // We are shutting down.
+                synchronized (recentClusterwideInvalidations) {
+                    recentClusterwideInvalidations.remove(resourceOid);
+                }
+            }
+        }
+    }
+
+    private void onClusterwideInvalidationIntervalEnd(@NotNull String resourceOid) {
+        synchronized (recentClusterwideInvalidations) {
+            if (!Boolean.TRUE.equals(recentClusterwideInvalidations.get(resourceOid))) {
+                recentClusterwideInvalidations.remove(resourceOid);
+                return;
+            }
+            recentClusterwideInvalidations.put(resourceOid, false);
+        }
+        dispatchClusterwideInvalidation(resourceOid);
+    }
+
+    private void invalidateLocally(@NotNull String resourceOid, @NotNull String reason) {
+        ResourceEntry entry = resourceEntries.get(resourceOid);
+        if (entry != null) {
+            // Not synchronized on the entry, so we do not wait for the concurrent release or prepare.
+            entry.invalidations++;
+            if (entry.index != null) {
+                LOGGER.debug("Invalidating entitlement membership index for {}: {}", resourceOid, reason);
+                entry.index = null;
+            }
+        }
+    }
+
+    /**
+     * Called on the invalidation of cached objects, on this node or coming from other nodes. Invalidation of a resource
+     * drops its index: either the resource itself was changed, or the index was invalidated on another node.
+     *
+     * Invalidations targeted at this cache are processed only if they come from other nodes; the local ones were
+     * dispatched by this cache for the other nodes, after updating or invalidating the index here.
+     */
+    @Override
+    public void invalidate(Class<?> type, String oid, CacheInvalidationContext context) {
+        if (TargetedCacheInvalidationDetails.getTargetCache(context) != null && !context.isFromRemoteNode()) {
+            return;
+        }
+        if (type == null || type.isAssignableFrom(ResourceType.class)) {
+            if (oid != null) {
+                invalidateLocally(oid, "resource invalidated");
+            } else {
+                resourceEntries.keySet().forEach(resourceOid -> invalidateLocally(resourceOid, "all resources invalidated"));
+            }
+        }
+    }
+
+    @Override
+    public @NotNull Collection<SingleCacheStateInformationType> getStateInformation() {
+        return Collections.singleton(
+                new SingleCacheStateInformationType()
+                        .name(EntitlementMembershipIndex.class.getName())
+                        .size((int) resourceEntries.values().stream()
+                                .filter(entry -> entry.index != null)
+                                .count()));
+    }
+
+    @Override
+    public void dumpContent() {
+        if (LOGGER_CONTENT.isInfoEnabled()) {
+            resourceEntries.forEach((oid, entry) -> LOGGER_CONTENT.info("Entitlement membership index for {}: {} (owners: {})",
+                    oid, entry.index, entry.owners));
+        }
+    }
+
+    private static boolean isIndexed(@NotNull ResourceAssociationDefinition associationDef) {
+        return associationDef.getDirection() == ResourceObjectAssociationDirectionType.OBJECT_TO_SUBJECT
+                && Boolean.TRUE.equals(associationDef.getDefinitionBean().isMembershipIndex())
+                && associationDef.getDefinitionBean().getAssociationAttribute() != null
+                && associationDef.getDefinitionBean().getValueAttribute() != null;
+    }
+
+    /** Index for a resource, along with its owners. Guarded by itself, except for volatile and concurrent fields. */
+    private static class ResourceEntry {
+
+        /** Identifiers of bulk processing runs (tasks) using the index, see {@link #getOwnerIdentifier(Task)}. */
+        @NotNull private final Set<String> owners = ConcurrentHashMap.newKeySet();
+
+        /** The index. Null if not built yet, or if invalidated. */
+        private volatile ResourceIndex index;
+
+        /** True if the index is being built. */
+        private boolean building;
+
+        /** Incremented on each invalidation. Used to detect invalidations that occurred while building the index. */
+        private volatile long invalidations;
+    }
+
+    /** The index itself. The set of association targets is fixed; the memberships are updated by midPoint's own changes. */
+    private static class ResourceIndex {
+
+        /** Version of the resource object this index was built from. */
+        private final String resourceVersion;
+
+        private final long timestamp = System.currentTimeMillis();
+
+        /** Memberships per association target. */
+        @NotNull private final Map<IndexKey, Memberships> memberships = new HashMap<>();
+
+        private ResourceIndex(String resourceVersion) {
+            this.resourceVersion = resourceVersion;
+        }
+
+        private boolean isExpired() {
+            return System.currentTimeMillis() - timestamp > MAX_AGE;
+        }
+
+        @Override
+        public String toString() {
+            return memberships.size() + " association target(s), "
+                    + memberships.values().stream().mapToInt(m -> m.bySubjectValue.size()).sum() + " subject value(s)";
+        }
+    }
+
+    /** Entitlements of an association target, indexed by the subjects referenced. Can be updated while being read. */
+    private static class Memberships {
+
+        /** Matching rule of the association, used to normalize the subject values. */
+        @NotNull private final MatchingRule<Object> matchingRule;
+
+        /**
+         * Normalized subject value -> identifiers of entitlements referencing it. The lists are not modified after the index
+         * is published; they are replaced by updated copies.
+         */
+        @NotNull private final Map<Object, List<Collection<ResourceAttribute<?>>>> bySubjectValue = new ConcurrentHashMap<>();
+
+        private Memberships(@NotNull MatchingRule<Object> matchingRule) {
+            this.matchingRule = matchingRule;
+        }
+
+        private @NotNull Object normalize(@NotNull Object subjectValue) throws SchemaException {
+            return matchingRule.normalize(subjectValue);
+        }
+
+        /**
+         * Adds the entitlement to the memberships of given (normalized) subject value, or removes it from them.
+         * Returns false if it cannot be done, because the entitlement cannot be compared with the indexed ones.
+         */
+        private boolean update(@NotNull Object normalizedSubjectValue, @NotNull EntitlementIdentity entitlement, boolean add)
+                throws SchemaException {
+            for (;;) {
+                List<Collection<ResourceAttribute<?>>> current = bySubjectValue.get(normalizedSubjectValue);
+                List<Collection<ResourceAttribute<?>>> updated = new ArrayList<>();
+                boolean found = false;
+                for (Collection<ResourceAttribute<?>> indexed : emptyIfNull(current)) {
+                    Boolean same = entitlement.matches(indexed);
+                    if (same == null) {
+                        return false;
+                    } else if (same) {
+                        found = true;
+                    } else {
+                        updated.add(indexed);
+                    }
+                }
+                if (found == add) {
+                    return true; // nothing to change
+                }
+                if (add) {
+                    updated.add(entitlement.identifiers);
+                }
+                boolean replaced;
+                if (current == null) {
+                    replaced = bySubjectValue.putIfAbsent(normalizedSubjectValue, updated) == null;
+                } else if (updated.isEmpty()) {
+                    replaced = bySubjectValue.remove(normalizedSubjectValue, current);
+                } else {
+                    replaced = bySubjectValue.replace(normalizedSubjectValue, current, updated);
+                }
+                if (replaced) {
+                    return true;
+                }
+                // Concurrent update of the same subject value, let us try again.
+            }
+        }
+    }
+
+    /** Identifiers of an entitlement changed by midPoint, normalized so they can be compared with the indexed ones. */
+    private static class EntitlementIdentity {
+
+        /** Identifiers to be put into the index. */
+        @NotNull private final Collection<ResourceAttribute<?>> identifiers = new ArrayList<>();
+
+        /** Normalized identifier values, keyed by the local name of the identifier. */
+        @NotNull private final Map<String, Set<Object>> normalizedValues = new HashMap<>();
+
+        @NotNull private final MatchingRuleRegistry matchingRuleRegistry;
+
+        private EntitlementIdentity(@NotNull Collection<? extends ResourceAttribute<?>> identifiers,
+                @NotNull MatchingRuleRegistry matchingRuleRegistry) throws SchemaException {
+            this.matchingRuleRegistry = matchingRuleRegistry;
+            for (ResourceAttribute<?> identifier : identifiers) {
+                this.identifiers.add(identifier.clone());
+                normalizedValues.put(identifier.getElementName().getLocalPart(), normalize(identifier));
+            }
+        }
+
+        /**
+         * Tells whether the indexed identifiers denote this entitlement, comparing the identifiers present in both.
+         * Returns null if there are no such identifiers.
+         */
+        private @Nullable Boolean matches(@NotNull Collection<ResourceAttribute<?>> indexed) throws SchemaException {
+            boolean compared = false;
+            for (ResourceAttribute<?> indexedIdentifier : indexed) {
+                Set<Object> values = normalizedValues.get(indexedIdentifier.getElementName().getLocalPart());
+                if (values != null) {
+                    if (!values.equals(normalize(indexedIdentifier))) {
+                        return false;
+                    }
+                    compared = true;
+                }
+            }
+            return compared ? true : null;
+        }
+
+        private @NotNull Set<Object> normalize(@NotNull ResourceAttribute<?> identifier) throws SchemaException {
+            ResourceAttributeDefinition<?> definition = identifier.getDefinition();
+            MatchingRule<Object> matchingRule = matchingRuleRegistry.getMatchingRule(
+                    definition != null ? definition.getMatchingRuleQName() : null,
+                    definition != null ? definition.getTypeName() : null);
+            Set<Object> values = new HashSet<>();
+            for (Object realValue : identifier.getRealValues()) {
+                values.add(matchingRule.normalize(realValue));
+            }
+            return values;
+        }
+    }
+
+    /** A change of an (indexed) entitlement done by midPoint, to be applied to the index. */
+    private abstract static class EntitlementChange {
+
+        private static @NotNull EntitlementChange added(@NotNull PrismObject<ShadowType> object) {
+            return new Added(object);
+        }
+
+        private static @NotNull EntitlementChange modified(@NotNull Collection<? extends ItemDelta<?, ?>> modifications) {
+            return new Modified(modifications);
+        }
+
+        private static @NotNull EntitlementChange deleted() {
+            return new Deleted();
+        }
+
+        /** Whether the change can affect the index at all. */
+        abstract boolean isRelevant(@NotNull ResourceObjectDefinition definition, @NotNull Set<QName> referencingAttributes);
+
+        /** Whether the entitlement is renamed, so it cannot be found in the index by its identifiers. */
+        boolean modifiesIdentifiers(@NotNull ResourceObjectDefinition definition) {
+            return false;
+        }
+
+        /** Applies the change to the memberships of an association target. Returns false if not possible. */
+        abstract boolean applyTo(@NotNull Memberships memberships, @NotNull QName referencingAttrName,
+                @NotNull EntitlementIdentity entitlement) throws SchemaException;
+
+        private static class Added extends EntitlementChange {
+
+            @NotNull private final PrismObject<ShadowType> object;
+
+            private Added(@NotNull PrismObject<ShadowType> object) {
+                this.object = object;
+            }
+
+            @Override
+            boolean isRelevant(@NotNull ResourceObjectDefinition definition, @NotNull Set<QName> referencingAttributes) {
+                return referencingAttributes.stream()
+                        .map(this::findAttribute)
+                        .anyMatch(attribute -> attribute != null && !attribute.isEmpty());
+            }
+
+            @Override
+            boolean applyTo(@NotNull Memberships memberships, @NotNull QName referencingAttrName,
+                    @NotNull EntitlementIdentity entitlement) throws SchemaException {
+                ResourceAttribute<?> referencingAttr = findAttribute(referencingAttrName);
+                if (referencingAttr != null) {
+                    for (Object subjectValue : referencingAttr.getRealValues()) {
+                        if (!memberships.update(memberships.normalize(subjectValue), entitlement, true)) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+
+            private @Nullable ResourceAttribute<?> findAttribute(@NotNull QName attrName) {
+                ResourceAttributeContainer attributesContainer = ShadowUtil.getAttributesContainer(object);
+                return attributesContainer != null ? attributesContainer.findAttribute(attrName) : null;
+            }
+
+            @Override
+            public String toString() {
+                return "addition";
+            }
+        }
+
+        private static class Modified extends EntitlementChange {
+
+            @NotNull private final Collection<? extends ItemDelta<?, ?>> modifications;
+
+            private Modified(@NotNull Collection<? extends ItemDelta<?, ?>> modifications) {
+                this.modifications = modifications;
+            }
+
+            @Override
+            boolean isRelevant(@NotNull ResourceObjectDefinition definition, @NotNull Set<QName> referencingAttributes) {
+                return modifications.stream().anyMatch(
+                        modification -> isAttributeModification(modification, referencingAttributes))
+                        || modifiesIdentifiers(definition);
+            }
+
+            @Override
+            boolean modifiesIdentifiers(@NotNull ResourceObjectDefinition definition) {
+                List<QName> identifierNames = definition.getAllIdentifiers().stream()
+                        .map(ResourceAttributeDefinition::getItemName)
+                        .collect(Collectors.toList());
+                return modifications.stream().anyMatch(modification -> isAttributeModification(modification, identifierNames));
+            }
+
+            @Override
+            boolean applyTo(@NotNull Memberships memberships, @NotNull QName referencingAttrName,
+                    @NotNull EntitlementIdentity entitlement) throws SchemaException {
+                for (ItemDelta<?, ?> modification : modifications) {
+                    if (!isAttributeModification(modification, List.of(referencingAttrName))) {
+                        continue;
+                    }
+                    if (modification.isReplace()) {
+                        return false; // we do not know the values replaced
+                    }
+                    for (PrismValue value : emptyIfNull(modification.getValuesToAdd())) {
+                        if (!memberships.update(memberships.normalize(value.getRealValue()), entitlement, true)) {
+                            return false;
+                        }
+                    }
+                    for (PrismValue value : emptyIfNull(modification.getValuesToDelete())) {
+                        if (!memberships.update(memberships.normalize(value.getRealValue()), entitlement, false)) {
+                            return false;
+                        }
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public String toString() {
+                return "modification";
+            }
+        }
+
+        private static class Deleted extends EntitlementChange {
+
+            @Override
+            boolean isRelevant(@NotNull ResourceObjectDefinition definition, @NotNull Set<QName> referencingAttributes) {
+                return true;
+            }
+
+            @Override
+            boolean applyTo(@NotNull Memberships memberships, @NotNull QName referencingAttrName,
+                    @NotNull EntitlementIdentity entitlement) throws SchemaException {
+                for (Object normalizedSubjectValue : memberships.bySubjectValue.keySet()) {
+                    if (!memberships.update(normalizedSubjectValue, entitlement, false)) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+
+            @Override
+            public String toString() {
+                return "deletion";
+            }
+        }
+    }
+
+    /** Object classes whose changes may affect the index on a resource, along with the relevant attributes. */
+    private static class IndexedClasses {
+
+        /** Referencing attributes of the entitlements indexed (e.g. `ri:members`), keyed by entitlement object class. */
+        @NotNull private final Map<QName, Set<QName>> referencingAttributes = new HashMap<>();
+
+        /** Value attributes of subjects (e.g. `ri:dn`), keyed by subject object class. */
+        @NotNull private final Map<QName, Set<QName>> subjectValueAttributes = new HashMap<>();
+
+        private static @NotNull IndexedClasses determine(@NotNull ResourceSchema schema) {
+            IndexedClasses indexedClasses = new IndexedClasses();
+            for (ResourceObjectTypeDefinition subjectDef : schema.getObjectTypeDefinitions()) {
+                for (ResourceAssociationDefinition associationDef : subjectDef.getAssociationDefinitions()) {
+                    if (!isIndexed(associationDef)) {
+                        continue;
+                    }
+                    indexedClasses.subjectValueAttributes
+                            .computeIfAbsent(subjectDef.getObjectClassName(), k -> new HashSet<>())
+                            .add(associationDef.getDefinitionBean().getValueAttribute());
+                    for (String intent : associationDef.getIntents()) {
+                        ResourceObjectDefinition entitlementDef = schema.findObjectDefinition(associationDef.getKind(), intent);
+                        if (entitlementDef != null) {
+                            indexedClasses.referencingAttributes
+                                    .computeIfAbsent(entitlementDef.getObjectClassName(), k -> new HashSet<>())
+                                    .add(associationDef.getDefinitionBean().getAssociationAttribute());
+                        }
+                    }
+                }
+            }
+            return indexedClasses;
+        }
+
+        private boolean isEmpty() {
+            return subjectValueAttributes.isEmpty();
+        }
+
+        /** Returns referencing attributes of given object class, if it is an indexed entitlement class. */
+        private @NotNull Set<QName> getReferencingAttributes(QName objectClassName) {
+            return find(referencingAttributes, objectClassName);
+        }
+
+        private @NotNull Set<QName> getSubjectValueAttributes(QName objectClassName) {
+            return find(subjectValueAttributes, objectClassName);
+        }
+
+        private static @NotNull Set<QName> find(@NotNull Map<QName, Set<QName>> attributesMap, QName objectClassName) {
+            for (Map.Entry<QName, Set<QName>> entry : attributesMap.entrySet()) {
+                if (QNameUtil.match(entry.getKey(), objectClassName)) {
+                    return entry.getValue();
+                }
+            }
+            return Set.of();
+        }
+    }
+
+    /** Entitlements indexed, along with the way how they reference the subjects. */
+    private static class IndexKey {
+
+        @NotNull private final ShadowKindType kind;
+        @NotNull private final String intent;
+        @NotNull private final QName referencingAttrName;
+        @Nullable private final QName matchingRule;
+
+        private IndexKey(@NotNull ResourceAssociationDefinition associationDef, @NotNull String intent) {
+            this.kind = associationDef.getKind();
+            this.intent = intent;
+            this.referencingAttrName = associationDef.getDefinitionBean().getAssociationAttribute();
+            this.matchingRule = associationDef.getMatchingRule();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (o == null || getClass() != o.getClass()) {
+                return false;
+            }
+            IndexKey indexKey = (IndexKey) o;
+            return kind == indexKey.kind
+                    && intent.equals(indexKey.intent)
+                    && referencingAttrName.equals(indexKey.referencingAttrName)
+                    && Objects.equals(matchingRule, indexKey.matchingRule);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(kind, intent, referencingAttrName, matchingRule);
+        }
+    }
+}
@@ -190,6 +190,8 @@ public abstract class ResourceObjectChange implements InitializableMixin {
             updateProvisioningContext(task);
             setResourceObjectDefinition();
 
+            beans.entitlementMembershipIndex.onExternalChange(context, objectDelta);
+
             processObjectAndDelta(result);
         } else {
             addFakePrimaryIdentifierIfNeeded();
@@ -51,7 +51,6 @@ import com.evolveum.midpoint.schema.util.ExceptionUtil;
 import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
 import com.evolveum.midpoint.schema.util.SchemaDebugUtil;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
-import com.evolveum.midpoint.task.api.LightweightIdentifierGenerator;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.DebugUtil;
 import com.evolveum.midpoint.util.Holder;
@@ -102,7 +101,6 @@ public class ResourceObjectConverter {
     @Autowired private RelationRegistry relationRegistry;
     @Autowired private ExpressionFactory expressionFactory;
     @Autowired private CommonBeans commonBeans;
-    @Autowired private LightweightIdentifierGenerator lightweightIdentifierGenerator;
     @Autowired private ResourceObjectsBeans beans;
 
     private static final Trace LOGGER = TraceManager.getTrace(ResourceObjectConverter.class);
@@ -313,6 +311,8 @@ public class ResourceObjectConverter {
                 // Be careful not to apply this to the cloned shadow. This needs to be propagated
                 // outside this method.
                 applyAfterOperationAttributes(shadow, resourceAttributesAfterAdd);
+
+                beans.entitlementMembershipIndex.onObjectAdded(ctx, shadow);
             } catch (CommunicationException ex) {
                 result.recordFatalError(
                         "Could not create object on the resource. Error communicating with the connector " + connector + ": " + ex.getMessage(), ex);
@@ -448,6 +448,7 @@ public class ResourceObjectConverter {
                         connector.deleteObject(
                                 ctx.getObjectDefinitionRequired(), shadow, identifiers, ctx.getUcfExecutionContext(), result);
 
+                beans.entitlementMembershipIndex.onObjectDeleted(ctx, identifiers);
             } catch (ObjectNotFoundException ex) {
                 throw new ObjectNotFoundException("An error occurred while deleting resource object " + shadow
                         + " with identifiers " + identifiers + ": " + ex.getMessage(), ex);
@@ -664,6 +665,8 @@ public class ResourceObjectConverter {
             Collection<? extends ItemDelta> allDeltas = new ArrayList<>(itemDeltas);
             ItemDeltaCollectionsUtil.addNotEquivalent(allDeltas, knownExecutedDeltas); // MID-6892
 
+            beans.entitlementMembershipIndex.onObjectModified(ctx, identifiers, allDeltas);
+
             // Execute entitlement modification on other objects (if needed)
             executeEntitlementChangesModify(ctx,
                     preReadShadow == null ? repoShadow : preReadShadow,
@@ -1359,6 +1362,7 @@ public class ResourceObjectConverter {
             try {
 
                 executeModify(entitlementCtx, entry.getValue().getCurrentShadow(), allIdentifiers, operations, null, result, connOptions);
+                beans.entitlementMembershipIndex.onEntitlementModified(entitlementCtx, allIdentifiers, operations);
 
                 result.recordSuccess();
 
@@ -1372,9 +1376,11 @@ public class ResourceObjectConverter {
                 // properly record the operation in the result.
                 LOGGER.error("Error while modifying entitlement {} of {}: {}", entitlementCtx, subjectCtx, e.getMessage(), e);
                 result.recordFatalError(e);
+                beans.entitlementMembershipIndex.onEntitlementModificationFailed(entitlementCtx);
             } catch (RuntimeException | Error e) {
                 LOGGER.error("Error while modifying entitlement {} of {}: {}", entitlementCtx, subjectCtx, e.getMessage(), e);
                 result.recordFatalError(e);
+                beans.entitlementMembershipIndex.onEntitlementModificationFailed(entitlementCtx);
                 throw e;
             } finally {
                 result.computeStatusIfUnknown();
@@ -1671,8 +1677,7 @@ public class ResourceObjectConverter {
         }
         ConnectorInstance connector = ctx.getConnector(ScriptCapabilityType.class, result);
         for (ExecuteProvisioningScriptOperation operation : operations) {
-            UcfExecutionContext ucfCtx = new UcfExecutionContext(
-                    lightweightIdentifierGenerator, ctx.getResource(), ctx.getTask());
+            UcfExecutionContext ucfCtx = ctx.getUcfExecutionContext();
 
             try {
                 if (LOGGER.isDebugEnabled()) {
@@ -7,6 +7,10 @@
 
 package com.evolveum.midpoint.provisioning.impl.resourceobjects;
 
+import java.util.List;
+
+import org.jetbrains.annotations.NotNull;
+
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.annotation.Experimental;
 
@@ -18,4 +22,18 @@ public interface ResourceObjectHandler {
 
     boolean handle(ResourceObjectFound resourceObject, OperationResult result);
 
+    /**
+     * Called before a batch of (already initialized) objects is handled, if the objects are processed in batches.
+     * See {@link com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceConsistencyType#getShadowAcquisitionBatchSize()}.
+     */
+    default void prepareBatch(@NotNull List<ResourceObjectFound> resourceObjects, @NotNull OperationResult result) {
+    }
+
+    /**
+     * Called after a batch of objects (see {@link #prepareBatch(List, OperationResult)}) was handled. It is called
+     * even if the handling was stopped or failed, i.e. when some of the objects were not handled.
+     */
+    default void finishBatch(@NotNull OperationResult result) {
+    }
+
 }
@@ -14,13 +14,13 @@ import com.evolveum.midpoint.provisioning.ucf.api.ConnectorInstance;
 import com.evolveum.midpoint.provisioning.ucf.api.GenericFrameworkException;
 import com.evolveum.midpoint.provisioning.ucf.api.UcfFetchErrorReportingMethod;
 import com.evolveum.midpoint.provisioning.ucf.api.UcfObjectFound;
+import com.evolveum.midpoint.provisioning.util.ProvisioningUtil;
 import com.evolveum.midpoint.repo.cache.RepositoryCache;
 import com.evolveum.midpoint.schema.SearchResultMetadata;
 import com.evolveum.midpoint.schema.internals.InternalsConfig;
 import com.evolveum.midpoint.schema.processor.ResourceObjectDefinition;
 import com.evolveum.midpoint.schema.result.OperationConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
-import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.util.MiscUtil;
 import com.evolveum.midpoint.util.exception.*;
 import com.evolveum.midpoint.util.logging.Trace;
@@ -31,7 +31,10 @@ import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.ReadCapabili
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * Handles {@link ResourceObjectConverter#searchResourceObjects(ProvisioningContext, ResourceObjectHandler, ObjectQuery,
@@ -57,6 +60,18 @@ class ResourceObjectSearchOperation {
 
     private final AtomicInteger objectCounter = new AtomicInteger(0);
 
+    /**
+     * Number of objects that are processed together.
+     * See {@link ProvisioningUtil#getShadowAcquisitionBatchSize(ProvisioningContext)}.
+     */
+    private final int batchSize;
+
+    /** Objects received from the connector but not processed yet. Used only if processing in batches. */
+    @NotNull private final List<UcfObjectFound> pendingObjects = new ArrayList<>();
+
+    /** Result under which the pending objects are to be processed. */
+    private OperationResult pendingObjectsParentResult;
+
     ResourceObjectSearchOperation(
             @NotNull ProvisioningContext ctx,
             @NotNull ResourceObjectHandler resultHandler,
@@ -70,6 +85,7 @@ class ResourceObjectSearchOperation {
         this.fetchAssociations = fetchAssociations;
         this.errorReportingMethod = errorReportingMethod;
         this.beans = beans;
+        this.batchSize = ProvisioningUtil.getShadowAcquisitionBatchSize(ctx);
     }
 
     public SearchResultMetadata execute(OperationResult parentResult)
@@ -101,7 +117,7 @@ class ResourceObjectSearchOperation {
                 metadata = connector.search(
                         objectDefinition,
                         queryWithConstraints.query,
-                        this::handleObjectFound,
+                        batchSize > 1 ? this::addPendingObject : this::handleObjectFound,
                         ctx.createAttributesToReturn(),
                         objectDefinition.getPagedSearches(ctx.getResource()),
                         queryWithConstraints.constraints,
@@ -109,6 +125,10 @@ class ResourceObjectSearchOperation {
                         ctx.getUcfExecutionContext(),
                         result);
 
+                if (!pendingObjects.isEmpty()) {
+                    processPendingObjects();
+                }
+
             } catch (GenericFrameworkException e) {
                 throw new SystemException("Generic error in the connector: " + e.getMessage(), e);
             } catch (CommunicationException ex) {
@@ -168,35 +188,100 @@ class ResourceObjectSearchOperation {
         // in order to utilize the cache right from the beginning...
         RepositoryCache.enterLocalCaches(beans.cacheConfigurationManager);
         try {
+            OperationResult objResult = createObjectResult(ucfObject, parentResult);
+            try {
+                objectFound.initialize(ctx.getTask(), objResult);
+                return resultHandler.handle(objectFound, objResult);
+            } catch (Throwable t) {
+                objResult.recordFatalError(t);
+                throw t;
+            } finally {
+                cleanupObjectResult(objResult);
+                // TODO Reconsider this. It is quite dubious to touch the global result from the inside.
+                parentResult.summarize();
+            }
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new TunnelException(t);
+        } finally {
+            RepositoryCache.exitLocalCaches();
+        }
+    }
 
-            int objectNumber = objectCounter.getAndIncrement();
+    /** Collects the object for later processing. Processes the whole batch when it is complete. */
+    private boolean addPendingObject(UcfObjectFound ucfObject, OperationResult parentResult) {
+        pendingObjects.add(ucfObject);
+        pendingObjectsParentResult = parentResult;
+        if (pendingObjects.size() < batchSize) {
+            return true;
+        } else {
+            return processPendingObjects();
+        }
+    }
 
-            Task task = ctx.getTask();
+    /**
+     * Processes the batch of pending objects: initializes them, lets the handler prepare for the whole batch
+     * (e.g. acquire the shadows), and then handles the objects one by one, in the original order.
+     * Finally, lets the handler clean up after the batch, e.g. if some objects were not handled because of the stop.
+     *
+     * Local caches are entered for each of these steps separately, so - as in {@link #handleObjectFound(UcfObjectFound,
+     * OperationResult)} - nothing cached while handling one object is seen when handling the next one.
+     */
+    private boolean processPendingObjects() {
+        List<UcfObjectFound> ucfObjects = new ArrayList<>(pendingObjects);
+        pendingObjects.clear();
+        OperationResult parentResult = pendingObjectsParentResult;
+
+        List<PendingObject> batch = new ArrayList<>(ucfObjects.size());
+        try {
             try {
-                OperationResult objResult = parentResult
-                        .subresult(OperationConstants.OPERATION_SEARCH_RESULT)
-                        .setMinor()
-                        .addParam("number", objectNumber)
-                        .addArbitraryObjectAsParam("primaryIdentifierValue", ucfObject.getPrimaryIdentifierValue())
-                        .addArbitraryObjectAsParam("errorState", ucfObject.getErrorState()).build();
+                for (UcfObjectFound ucfObject : ucfObjects) {
+                    PendingObject pendingObject = new PendingObject(
+                            new ResourceObjectFound(ucfObject, beans.resourceObjectConverter, ctx, fetchAssociations),
+                            createObjectResult(ucfObject, parentResult));
+                    batch.add(pendingObject);
+                    RepositoryCache.enterLocalCaches(beans.cacheConfigurationManager);
+                    try {
+                        pendingObject.objectFound.initialize(ctx.getTask(), pendingObject.result);
+                    } finally {
+                        RepositoryCache.exitLocalCaches();
+                    }
+                }
+
+                RepositoryCache.enterLocalCaches(beans.cacheConfigurationManager);
                 try {
-                    objectFound.initialize(task, objResult);
-                    return resultHandler.handle(objectFound, objResult);
-                } catch (Throwable t) {
-                    objResult.recordFatalError(t);
-                    throw t;
+                    resultHandler.prepareBatch(
+                            batch.stream()
+                                    .map(pendingObject -> pendingObject.objectFound)
+                                    .collect(Collectors.toList()),
+                            parentResult);
                 } finally {
-                    objResult.computeStatusIfUnknown();
-                    // FIXME: hack. Hardcoded ugly summarization of successes. something like
-                    //  AbstractSummarizingResultHandler [lazyman]
-                    if (objResult.isSuccess() && objResult.canBeCleanedUp()) {
-                        objResult.getSubresults().clear();
+                    RepositoryCache.exitLocalCaches();
+                }
+
+                boolean canContinue = true;
+                for (PendingObject pendingObject : batch) {
+                    if (!canContinue) {
+                        pendingObject.result.recordNotApplicable("The search was stopped");
+                        continue;
+                    }
+                    RepositoryCache.enterLocalCaches(beans.cacheConfigurationManager);
+                    try {
+                        canContinue = resultHandler.handle(pendingObject.objectFound, pendingObject.result);
+                    } catch (Throwable t) {
+                        pendingObject.result.recordFatalError(t);
+                        throw t;
+                    } finally {
+                        RepositoryCache.exitLocalCaches();
                     }
-                    // TODO Reconsider this. It is quite dubious to touch the global result from the inside.
-                    parentResult.summarize();
                 }
+                return canContinue;
             } finally {
-                RepositoryCache.exitLocalCaches();
+                resultHandler.finishBatch(parentResult);
+                batch.forEach(pendingObject -> cleanupObjectResult(pendingObject.result));
+                // TODO Reconsider this. It is quite dubious to touch the global result from the inside.
+                parentResult.summarize();
             }
         } catch (RuntimeException e) {
             throw e;
@@ -204,4 +289,34 @@ class ResourceObjectSearchOperation {
             throw new TunnelException(t);
         }
     }
+
+    private OperationResult createObjectResult(UcfObjectFound ucfObject, OperationResult parentResult) {
+        return parentResult
+                .subresult(OperationConstants.OPERATION_SEARCH_RESULT)
+                .setMinor()
+                .addParam("number", objectCounter.getAndIncrement())
+                .addArbitraryObjectAsParam("primaryIdentifierValue", ucfObject.getPrimaryIdentifierValue())
+                .addArbitraryObjectAsParam("errorState", ucfObject.getErrorState()).build();
+    }
+
+    private void cleanupObjectResult(OperationResult objResult) {
+        objResult.computeStatusIfUnknown();
+        // FIXME: hack. Hardcoded ugly summarization of successes. something like
+        //  AbstractSummarizingResultHandler [lazyman]
+        if (objResult.isSuccess() && objResult.canBeCleanedUp()) {
+            objResult.getSubresults().clear();
+        }
+    }
+
+    /** An object waiting in the batch, along with its operation result. */
+    private static class PendingObject {
+
+        @NotNull private final ResourceObjectFound objectFound;
+        @NotNull private final OperationResult result;
+
+        private PendingObject(@NotNull ResourceObjectFound objectFound, @NotNull OperationResult result) {
+            this.objectFound = objectFound;
+            this.result = result;
+        }
+    }
 }
@@ -19,6 +19,7 @@ class ResourceObjectsBeans {
     @Autowired ResourceObjectConverter resourceObjectConverter;
     @Autowired FakeIdentifierGenerator fakeIdentifierGenerator;
     @Autowired DelineationProcessor delineationProcessor;
+    @Autowired EntitlementMembershipIndex entitlementMembershipIndex;
 
     // From other parts of the code
     @Autowired CacheConfigurationManager cacheConfigurationManager;
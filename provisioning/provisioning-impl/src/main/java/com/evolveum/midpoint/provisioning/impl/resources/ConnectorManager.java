@@ -34,6 +34,7 @@ import com.evolveum.midpoint.xml.ns._public.resource.capabilities_3.CapabilityCo
 
 import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.VisibleForTesting;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
@@ -116,6 +117,13 @@ public class ConnectorManager implements Cache, ConnectorDiscoveryListener {
      */
     @NotNull private Map<String, ConnectorWithSchema> connectorBeanCache = new ConcurrentHashMap<>();
 
+    /**
+     * Governors limiting the connector operations, keyed by resource OID. They are not cached objects:
+     * they hold the state of the operations in progress, so they are kept (and updated on reconfiguration) until
+     * the limits are removed from the resource.
+     */
+    @NotNull private final Map<String, ConnectorOperationGovernor> operationGovernors = new ConcurrentHashMap<>();
+
     @VisibleForTesting
     private Consumer<ConnectorType> notInRepoConsumer;
 
@@ -622,6 +630,26 @@ public class ConnectorManager implements Cache, ConnectorDiscoveryListener {
         return connIdConnectorFactory.getFrameworkVersion();
     }
 
+    /**
+     * Returns the governor limiting the connector operations on given resource, or null if there are no limits.
+     * If the configuration changes, the existing governor is updated, so the operations in flight are still counted.
+     */
+    public @Nullable ConnectorOperationGovernor getOperationGovernor(@NotNull ResourceType resource) {
+        String resourceOid = resource.getOid();
+        ConnectorGovernorType configuration = resource.getConnectorGovernor();
+        if (resourceOid == null) {
+            return null;
+        } else if (configuration == null) {
+            operationGovernors.remove(resourceOid);
+            return null;
+        } else {
+            ConnectorOperationGovernor governor = operationGovernors.computeIfAbsent(resourceOid,
+                    oid -> new ConnectorOperationGovernor(oid, configuration));
+            governor.update(configuration);
+            return governor;
+        }
+    }
+
     public void connectorFrameworkSelfTest(OperationResult parentTestResult, Task ignored) {
         for (ConnectorFactory connectorFactory: getConnectorFactories()) {
             connectorFactory.selfTest(parentTestResult);
@@ -11,7 +11,9 @@ import static com.evolveum.midpoint.provisioning.util.ProvisioningUtil.validateS
 import static com.evolveum.midpoint.schema.GetOperationOptions.*;
 
 import java.util.Collection;
+import java.util.Date;
 import java.util.Objects;
+import javax.xml.datatype.Duration;
 import javax.xml.datatype.XMLGregorianCalendar;
 
 import com.evolveum.midpoint.provisioning.api.ResourceObjectClassification;
@@ -31,6 +33,7 @@ import org.springframework.stereotype.Component;
 import com.evolveum.midpoint.common.Clock;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.crypto.EncryptionException;
+import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.provisioning.api.GenericConnectorException;
 import com.evolveum.midpoint.provisioning.api.ProvisioningOperationOptions;
@@ -44,6 +47,7 @@ import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.internals.InternalCounters;
 import com.evolveum.midpoint.schema.internals.InternalMonitor;
 import com.evolveum.midpoint.schema.processor.ResourceAttribute;
+import com.evolveum.midpoint.schema.processor.ResourceAttributeDefinition;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.schema.util.ResourceTypeUtil;
@@ -187,10 +191,11 @@ class GetHelper {
         ShadowLifecycleStateType shadowState = shadowCaretaker.updateAndReturnShadowState(ctx, repoShadow, now);
         LOGGER.trace("State of shadow {}: {}", repoShadow, shadowState);
 
-        if (canImmediatelyReturnCached(options, repoShadow, shadowState, resource)) {
+        if (canImmediatelyReturnCached(ctx, options, repoShadow, shadowState, resource)) {
             LOGGER.trace("Returning cached (repository) version of shadow {}", repoShadow);
             PrismObject<ShadowType> resultShadow = commonHelper.futurizeShadow(ctx, repoShadow, null, options, now);
             shadowCaretaker.applyAttributesDefinition(ctx, resultShadow);
+            ProvisioningUtil.markUncachedAttributesIncomplete(ctx, resultShadow);
             validateShadow(resultShadow, true);
             return resultShadow;
         }
@@ -406,7 +411,7 @@ class GetHelper {
         return handler.handleGetError(ctx, repositoryShadow, rootOptions, cause, task, parentResult);
     }
 
-    private boolean canImmediatelyReturnCached(Collection<SelectorOptions<GetOperationOptions>> options,
+    private boolean canImmediatelyReturnCached(ProvisioningContext ctx, Collection<SelectorOptions<GetOperationOptions>> options,
             PrismObject<ShadowType> repositoryShadow, ShadowLifecycleStateType shadowState, ResourceType resource)
             throws ConfigurationException {
         if (ProvisioningUtil.resourceReadIsCachingOnly(resource)) {
@@ -417,7 +422,7 @@ class GetHelper {
             // NOTE: this is just for tombstone! Schrodinger's shadows (corpse) will still work as if they were alive.
             return true;
         }
-        long stalenessOption = getStaleness(SelectorOptions.findRootOptions(options));
+        long stalenessOption = getEffectiveStaleness(ctx, SelectorOptions.findRootOptions(options));
         PointInTimeType pit = getPointInTimeType(SelectorOptions.findRootOptions(options));
         if (pit == null) {
             if (stalenessOption > 0) {
@@ -431,7 +436,8 @@ class GetHelper {
                 // We need current reliable state. Never return cached data.
                 return false;
             case CACHED:
-                return isCachedShadowValid(options, repositoryShadow);
+                return isCachedShadowValid(stalenessOption, repositoryShadow)
+                        && (stalenessOption == Long.MAX_VALUE || areRequestedItemsCached(ctx));
             case FUTURE:
                 // We could, e.g. if there is a pending create operation. But let's try real get operation first.
                 return false;
@@ -440,10 +446,46 @@ class GetHelper {
         }
     }
 
-    private boolean isCachedShadowValid(
-            Collection<SelectorOptions<GetOperationOptions>> options, PrismObject<ShadowType> repositoryShadow)
+    /**
+     * Returns the staleness requested by the caller. If the caller specified neither staleness nor point in time,
+     * the time to live of the cached data is used - if configured in the caching policy of the object type.
+     * (The resource-wide caching policy does not make the reads without options return the cached data.)
+     */
+    private long getEffectiveStaleness(ProvisioningContext ctx, GetOperationOptions rootOptions) {
+        if (rootOptions != null && (rootOptions.getStaleness() != null || rootOptions.getPointInTimeType() != null)) {
+            return getStaleness(rootOptions);
+        }
+        if (!ProvisioningUtil.isReadThroughEnabled(ctx)) {
+            return 0;
+        }
+        CachingPolicyType cachingPolicy = ProvisioningUtil.getObjectTypeCachingPolicy(ctx);
+        Duration timeToLive = cachingPolicy != null ? cachingPolicy.getTimeToLive() : null;
+        return timeToLive != null ? Math.max(timeToLive.getTimeInMillis(new Date()), 0) : 0;
+    }
+
+    /**
+     * Are all the attributes and associations explicitly requested by the caller (via `retrieve` option) cached?
+     * If not, the cached shadow would lack them, so it can be returned only if the caller insists on the cached data.
+     * (The items that are not cached and not requested explicitly are marked as incomplete in the returned shadow.)
+     */
+    private boolean areRequestedItemsCached(ProvisioningContext ctx) throws ConfigurationException {
+        for (ResourceAttributeDefinition<?> attrDef : ProvisioningUtil.getUncachedAttributes(ctx)) {
+            if (ctx.isFetchingRequested(ItemPath.create(ShadowType.F_ATTRIBUTES, attrDef.getItemName()))) {
+                LOGGER.trace("Attribute {} is requested but not cached, cannot return the cached shadow", attrDef);
+                return false;
+            }
+        }
+        if (!ctx.getAssociationDefinitions().isEmpty()
+                && !ProvisioningUtil.isCachingAssociations(ctx)
+                && ctx.isFetchingRequested(ShadowType.F_ASSOCIATION)) {
+            LOGGER.trace("Associations are requested but not cached, cannot return the cached shadow");
+            return false;
+        }
+        return true;
+    }
+
+    private boolean isCachedShadowValid(long stalenessOption, PrismObject<ShadowType> repositoryShadow)
             throws ConfigurationException {
-        long stalenessOption = getStaleness(SelectorOptions.findRootOptions(options));
         if (stalenessOption == 0L) {
             return false;
         }
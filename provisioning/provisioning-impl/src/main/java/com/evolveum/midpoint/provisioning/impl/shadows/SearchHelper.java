@@ -27,6 +27,7 @@ import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.crypto.EncryptionException;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.query.*;
@@ -76,6 +77,7 @@ class SearchHelper {
     @Autowired private ProvisioningContextFactory ctxFactory;
     @Autowired private ExpressionFactory expressionFactory;
     @Autowired private ShadowsLocalBeans localBeans;
+    @Autowired private GetHelper getHelper;
 
     public SearchResultMetadata searchObjectsIterative(ObjectQuery query,
             Collection<SelectorOptions<GetOperationOptions>> options, ResultHandler<ShadowType> handler,
@@ -117,6 +119,8 @@ class SearchHelper {
         GetOperationOptions rootOptions = SelectorOptions.findRootOptions(options);
         if (shouldDoRepoSearch(rootOptions)) {
             return searchShadowsInRepositoryIteratively(ctx, query, options, handler, parentResult);
+        } else if (shouldDoReadThroughSearch(ctx, query, rootOptions)) {
+            return searchShadowsReadThroughIteratively(ctx, query, options, handler, parentResult);
         } else {
             return searchObjectIterativeResource(ctx, query, options, handler, parentResult, rootOptions);
         }
@@ -139,19 +143,40 @@ class SearchHelper {
         // (we do not have raw/noFetch option)
         InternalMonitor.recordCount(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
 
-        ResourceObjectHandler resultHandler = (ResourceObjectFound objectFound, OperationResult objResult) -> {
+        ResourceObjectHandler resultHandler = new ResourceObjectHandler() {
 
-            ShadowedObjectFound shadowedObjectFound = new ShadowedObjectFound(objectFound, localBeans, ctx);
-            shadowedObjectFound.initialize(ctx.getTask(), objResult);
-            PrismObject<ShadowType> shadowedObject = shadowedObjectFound.getResultingObject(ucfErrorReportingMethod);
+            /** Shadows acquired in advance for the current batch of objects (if processing in batches). */
+            private ShadowAcquisitionBatch acquisitionBatch;
 
-            try {
-                return handler.handle(shadowedObject, objResult);
-            } catch (Throwable t) {
-                objResult.recordFatalError(t);
-                throw t;
-            } finally {
-                objResult.computeStatusIfUnknown();
+            @Override
+            public void prepareBatch(@NotNull List<ResourceObjectFound> objects, @NotNull OperationResult result) {
+                acquisitionBatch = localBeans.shadowAcquisitionHelper.prepareBatch(ctx, objects, result);
+            }
+
+            @Override
+            public void finishBatch(@NotNull OperationResult result) {
+                if (acquisitionBatch != null) {
+                    localBeans.shadowAcquisitionHelper.finishBatch(acquisitionBatch, result);
+                    acquisitionBatch = null;
+                }
+            }
+
+            @Override
+            public boolean handle(ResourceObjectFound objectFound, OperationResult objResult) {
+
+                ShadowedObjectFound shadowedObjectFound =
+                        new ShadowedObjectFound(objectFound, localBeans, ctx, acquisitionBatch);
+                shadowedObjectFound.initialize(ctx.getTask(), objResult);
+                PrismObject<ShadowType> shadowedObject = shadowedObjectFound.getResultingObject(ucfErrorReportingMethod);
+
+                try {
+                    return handler.handle(shadowedObject, objResult);
+                } catch (Throwable t) {
+                    objResult.recordFatalError(t);
+                    throw t;
+                } finally {
+                    objResult.computeStatusIfUnknown();
+                }
             }
         };
 
@@ -405,6 +430,56 @@ class SearchHelper {
         return shadowManager.searchShadowsIterative(ctx, query, options, repoHandler, parentResult);
     }
 
+    /**
+     * Searches for the shadows in the repository, returning the cached data for shadows that are fresh enough
+     * (according to the staleness option), and getting the current data from the resource for the others (read-through).
+     *
+     * The shadows refreshed from the resource may not match the query anymore, so the filter is re-checked on them.
+     * (This is possible because the query refers only to cached attributes, see {@link #shouldDoReadThroughSearch}.)
+     * When paging is used, a page can therefore contain fewer objects than requested.
+     *
+     * Note that the objects that exist on the resource but are not known to the repository yet are not found.
+     */
+    private SearchResultMetadata searchShadowsReadThroughIteratively(ProvisioningContext ctx,
+            ObjectQuery query, Collection<SelectorOptions<GetOperationOptions>> originalOptions,
+            ResultHandler<ShadowType> shadowHandler, OperationResult parentResult)
+            throws SchemaException {
+        LOGGER.trace("Searching for shadows in the repository, refreshing stale ones from the resource");
+        var options = GetOperationOptions.updateToReadWrite(originalOptions);
+        ResultHandler<ShadowType> readThroughHandler = (PrismObject<ShadowType> shadow, OperationResult objResult) -> {
+            PrismObject<ShadowType> currentShadow;
+            try {
+                // The staleness is checked there; the resource is contacted only if the cached data are not fresh enough.
+                currentShadow = getHelper.getShadow(shadow.getOid(), shadow, null, options, ctx.getTask(), objResult);
+            } catch (ObjectNotFoundException e) {
+                LOGGER.trace("Object for {} does not exist anymore, skipping it", shadow);
+                objResult.recordHandledError(e);
+                return true;
+            } catch (SchemaException | ConfigurationException | CommunicationException | ExpressionEvaluationException |
+                    SecurityViolationException | EncryptionException e) {
+                objResult.recordFatalError(e);
+                throw new SystemException(e);
+            }
+            ObjectFilter filter = query != null ? query.getFilter() : null;
+            try {
+                if (filter != null && !ObjectQuery.match(currentShadow, filter, matchingRuleRegistry)) {
+                    LOGGER.trace("{} does not match the query after being read from the resource, skipping it",
+                            currentShadow);
+                    return true;
+                }
+            } catch (SchemaException e) {
+                objResult.recordFatalError(e);
+                throw new SystemException(e);
+            }
+            try {
+                return shadowHandler.handle(currentShadow, objResult);
+            } finally {
+                objResult.computeStatusIfUnknown();
+            }
+        };
+        return shadowManager.searchShadowsIterative(ctx, query, options, readThroughHandler, parentResult);
+    }
+
     @NotNull
     private ResultHandler<ShadowType> createRepoShadowHandler(ProvisioningContext ctx,
             Collection<SelectorOptions<GetOperationOptions>> options, ResultHandler<ShadowType> shadowHandler) {
@@ -470,6 +545,8 @@ class SearchHelper {
             CachingMetadataType cachingMetadata = shadow.asObjectable().getCachingMetadata();
             if (cachingMetadata == null) {
                 objResult.recordFatalError("Requested cached data but no cached data are available in the shadow");
+            } else {
+                ProvisioningUtil.markUncachedAttributesIncomplete(ctx, shadow);
             }
         }
     }
@@ -545,6 +622,44 @@ class SearchHelper {
                 isMaxStaleness(rootOptions);
     }
 
+    /**
+     * Can the search be served from the repository, refreshing the stale shadows individually? This is the case
+     * if the caller tolerates some staleness, the data are cached by the caching policy of the object type
+     * (see {@link ProvisioningUtil#isReadThroughEnabled(ProvisioningContext)}), and all the attributes the query refers to
+     * are cached. Otherwise, the search goes to the resource, so it finds also the objects that have no shadows yet.
+     * (Searches with the maximal staleness are served from the repository right away, see {@link #shouldDoRepoSearch}.)
+     */
+    private static boolean shouldDoReadThroughSearch(ProvisioningContext ctx, ObjectQuery query,
+            GetOperationOptions rootOptions) throws ConfigurationException {
+        if (GetOperationOptions.getStaleness(rootOptions) <= 0 || !ProvisioningUtil.isReadThroughEnabled(ctx)) {
+            return false;
+        }
+        ResourceObjectDefinition objectDefinition = ctx.getObjectDefinition();
+        if (objectDefinition == null) {
+            return false;
+        }
+        List<QName> attributeNames = new ArrayList<>();
+        if (query != null && query.getFilter() != null) {
+            query.getFilter().accept(filter -> {
+                if (filter instanceof ValueFilter) {
+                    ItemPath path = ((ValueFilter<?, ?>) filter).getFullPath();
+                    if (path.startsWith(ShadowType.F_ATTRIBUTES) && path.size() > 1) {
+                        attributeNames.add(path.rest().firstName());
+                    }
+                }
+            });
+        }
+        CachingPolicyType cachingPolicy = ProvisioningUtil.getObjectTypeCachingPolicy(ctx);
+        for (QName attributeName : attributeNames) {
+            if (!ProvisioningUtil.shouldStoreAttributeInShadow(
+                    objectDefinition, attributeName, CachingStrategyType.PASSIVE, cachingPolicy)) {
+                LOGGER.trace("Attribute {} is not cached, the search has to go to the resource", attributeName);
+                return false;
+            }
+        }
+        return true;
+    }
+
     private enum CountMethod {
         METADATA, COUNTING
     }
@@ -24,6 +24,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.xml.namespace.QName;
 
@@ -72,17 +73,21 @@ class ShadowAcquisition {
     /** Whether we want to skip the classification. It is used e.g. in emergency shadow creation. */
     private final boolean skipClassification;
 
+    /** Shadows acquired in advance for the batch the object belongs to (if any). */
+    @Nullable private final ShadowAcquisitionBatch batch;
+
     private final CommonBeans beans;
     private final ShadowsLocalBeans localBeans;
 
     ShadowAcquisition(@NotNull ProvisioningContext ctx, @NotNull PrismProperty<?> primaryIdentifier,
             @NotNull QName objectClass, @NotNull ResourceObjectSupplier resourceObjectSupplier,
-            boolean skipClassification, CommonBeans commonBeans) {
+            boolean skipClassification, @Nullable ShadowAcquisitionBatch batch, CommonBeans commonBeans) {
         this.ctx = ctx;
         this.primaryIdentifier = primaryIdentifier;
         this.objectClass = objectClass;
         this.resourceObjectSupplier = resourceObjectSupplier;
         this.skipClassification = skipClassification;
+        this.batch = batch;
         this.beans = commonBeans;
         this.localBeans = commonBeans.shadowsFacade.getLocalBeans();
     }
@@ -135,6 +140,13 @@ class ShadowAcquisition {
     private PrismObject<ShadowType> obtainRepoShadow(OperationResult result) throws SchemaException, ObjectNotFoundException,
             CommunicationException, ConfigurationException, ExpressionEvaluationException, EncryptionException {
 
+        if (batch != null) {
+            PrismObject<ShadowType> batchRepoShadow = batch.getShadow(ctx, getResourceObject(), result);
+            if (batchRepoShadow != null) {
+                return batchRepoShadow;
+            }
+        }
+
         PrismObject<ShadowType> existingRepoShadow = beans.shadowManager.lookupLiveShadowByPrimaryId(ctx, primaryIdentifier,
                 objectClass, result);
 
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.provisioning.impl.shadows;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.crypto.EncryptionException;
+import com.evolveum.midpoint.provisioning.impl.ProvisioningContext;
+import com.evolveum.midpoint.provisioning.impl.resourceobjects.ResourceObjectFound;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ShadowUtil;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceConsistencyType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Repository shadows acquired in advance for a batch of resource objects found by a search.
+ * See {@link ResourceConsistencyType#getShadowAcquisitionBatchSize()}.
+ *
+ * Existing live shadows are looked up by a single query on (indexed) primary identifier values, and the missing ones
+ * are created by a single batch repository operation. {@link ShadowAcquisition} then takes the shadow from here instead
+ * of looking it up (or creating it) individually. If there is no shadow here - e.g. because the object was not
+ * initialized correctly, or because its shadow could not be created in the batch - the usual per-object processing
+ * takes place.
+ *
+ * Each shadow is provided only once. So, if an object occurs in the batch repeatedly, its subsequent occurrences
+ * are processed individually, i.e. seeing the shadow as it was updated by the processing of the first one.
+ */
+class ShadowAcquisitionBatch {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ShadowAcquisitionBatch.class);
+
+    /**
+     * Live shadows found in the repository, keyed by primary identifier value.
+     * They are checked (see {@link ShadowAcquisitionBatch#getShadow(ProvisioningContext, PrismObject, OperationResult)})
+     * before being provided.
+     */
+    @NotNull private final Map<String, PrismObject<ShadowType>> existingShadows = new HashMap<>();
+
+    /** Shadows created for this batch, keyed by primary identifier value. */
+    @NotNull private final Map<String, PrismObject<ShadowType>> createdShadows = new HashMap<>();
+
+    @NotNull private final ShadowsLocalBeans beans;
+
+    private ShadowAcquisitionBatch(@NotNull ShadowsLocalBeans beans) {
+        this.beans = beans;
+    }
+
+    /**
+     * Looks up and creates the shadows for the objects in the batch. Only objects that were correctly initialized
+     * and that belong to the object class being searched for are considered.
+     */
+    static @NotNull ShadowAcquisitionBatch prepare(@NotNull ProvisioningContext ctx,
+            @NotNull List<ResourceObjectFound> objects, @NotNull ShadowsLocalBeans beans, @NotNull OperationResult result)
+            throws SchemaException, ConfigurationException, EncryptionException {
+        ShadowAcquisitionBatch batch = new ShadowAcquisitionBatch(beans);
+
+        List<ProvisioningContext> contexts = new ArrayList<>();
+        List<PrismObject<ShadowType>> resourceObjects = new ArrayList<>();
+        List<String> primaryIdentifierValues = new ArrayList<>();
+        for (ResourceObjectFound object : objects) {
+            if (!object.getInitializationState().isOk()) {
+                continue;
+            }
+            PrismObject<ShadowType> resourceObject = object.getResourceObject();
+            if (!QNameUtil.match(resourceObject.asObjectable().getObjectClass(), ctx.getObjectClassNameRequired())) {
+                continue;
+            }
+            ProvisioningContext estimatedCtx = beans.shadowCaretaker.reapplyDefinitions(ctx, resourceObject);
+            String primaryIdentifierValue = beans.shadowManager.determinePrimaryIdentifierValue(estimatedCtx, resourceObject);
+            if (primaryIdentifierValue != null && !primaryIdentifierValues.contains(primaryIdentifierValue)) {
+                contexts.add(estimatedCtx);
+                resourceObjects.add(resourceObject);
+                primaryIdentifierValues.add(primaryIdentifierValue);
+            }
+        }
+
+        for (PrismObject<ShadowType> shadow :
+                beans.shadowManager.searchLiveShadowsByIndexedPrimaryIdValues(ctx, primaryIdentifierValues, result)) {
+            batch.existingShadows.put(shadow.asObjectable().getPrimaryIdentifierValue(), shadow);
+        }
+
+        List<ProvisioningContext> contextsToAdd = new ArrayList<>();
+        List<PrismObject<ShadowType>> resourceObjectsToAdd = new ArrayList<>();
+        List<String> primaryIdentifierValuesToAdd = new ArrayList<>();
+        for (int i = 0; i < primaryIdentifierValues.size(); i++) {
+            if (!batch.existingShadows.containsKey(primaryIdentifierValues.get(i))) {
+                contextsToAdd.add(contexts.get(i));
+                resourceObjectsToAdd.add(resourceObjects.get(i));
+                primaryIdentifierValuesToAdd.add(primaryIdentifierValues.get(i));
+            }
+        }
+        if (!resourceObjectsToAdd.isEmpty()) {
+            List<PrismObject<ShadowType>> addedShadows =
+                    beans.shadowManager.addDiscoveredRepositoryShadows(contextsToAdd, resourceObjectsToAdd, result);
+            for (int i = 0; i < addedShadows.size(); i++) {
+                if (addedShadows.get(i) != null) {
+                    batch.createdShadows.put(primaryIdentifierValuesToAdd.get(i), addedShadows.get(i));
+                }
+            }
+        }
+
+        LOGGER.trace("Prepared shadows for a batch of {} object(s): {} existing, {} created",
+                objects.size(), batch.existingShadows.size(), batch.createdShadows.size());
+        return batch;
+    }
+
+    /**
+     * Returns the shadow for given resource object, if it is available in the batch.
+     * The shadow is removed from the batch, so it is provided only once.
+     */
+    @Nullable PrismObject<ShadowType> getShadow(@NotNull ProvisioningContext ctx,
+            @NotNull PrismObject<ShadowType> resourceObject, @NotNull OperationResult result) throws SchemaException {
+        String primaryIdentifierValue = beans.shadowManager.determinePrimaryIdentifierValue(ctx, resourceObject);
+        if (primaryIdentifierValue == null) {
+            return null;
+        }
+        PrismObject<ShadowType> createdShadow = createdShadows.remove(primaryIdentifierValue);
+        if (createdShadow != null) {
+            LOGGER.trace("Using shadow created in batch: {}", createdShadow);
+            return createdShadow;
+        }
+        PrismObject<ShadowType> existingShadow = existingShadows.remove(primaryIdentifierValue);
+        if (existingShadow != null) {
+            LOGGER.trace("Using shadow found in batch: {}", ShadowUtil.shortDumpShadowLazily(existingShadow));
+            return beans.shadowManager.checkLiveShadow(existingShadow, result);
+        }
+        return null;
+    }
+
+    /**
+     * Deletes the shadows created for this batch that were not provided, i.e. whose objects were not processed.
+     * Called when the processing of the batch is over (even if it was stopped or failed), so that no shadows are
+     * left for objects that were not processed.
+     */
+    void discardUnusedShadows(@NotNull OperationResult result) {
+        existingShadows.clear();
+        if (!createdShadows.isEmpty()) {
+            LOGGER.trace("Discarding {} unused shadow(s) created in batch", createdShadows.size());
+            beans.shadowManager.deleteUnusedDiscoveredRepositoryShadows(createdShadows.values(), result);
+            createdShadows.clear();
+        }
+    }
+}
@@ -9,9 +9,11 @@ package com.evolveum.midpoint.provisioning.impl.shadows;
 
 import static java.util.Objects.requireNonNull;
 
+import java.util.List;
 import javax.xml.namespace.QName;
 
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
@@ -21,12 +23,15 @@ import com.evolveum.midpoint.prism.crypto.EncryptionException;
 import com.evolveum.midpoint.provisioning.api.GenericConnectorException;
 import com.evolveum.midpoint.provisioning.impl.CommonBeans;
 import com.evolveum.midpoint.provisioning.impl.ProvisioningContext;
+import com.evolveum.midpoint.provisioning.impl.resourceobjects.ResourceObjectFound;
 import com.evolveum.midpoint.provisioning.impl.shadows.ShadowAcquisition.ResourceObjectSupplier;
 import com.evolveum.midpoint.provisioning.util.ProvisioningUtil;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.ShadowUtil;
 import com.evolveum.midpoint.util.annotation.Experimental;
 import com.evolveum.midpoint.util.exception.*;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 
 /**
@@ -38,6 +43,11 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 @Component
 class ShadowAcquisitionHelper {
 
+    private static final Trace LOGGER = TraceManager.getTrace(ShadowAcquisitionHelper.class);
+
+    private static final String OP_PREPARE_BATCH = ShadowAcquisitionHelper.class.getName() + ".prepareBatch";
+    private static final String OP_FINISH_BATCH = ShadowAcquisitionHelper.class.getName() + ".finishBatch";
+
     @Autowired private CommonBeans commonBeans;
 
     /**
@@ -55,6 +65,19 @@ class ShadowAcquisitionHelper {
             PrismObject<ShadowType> resourceObject, boolean skipClassification, OperationResult result)
             throws SchemaException, ConfigurationException, ObjectNotFoundException, SecurityViolationException,
             CommunicationException, GenericConnectorException, ExpressionEvaluationException, EncryptionException {
+        return acquireRepoShadow(ctx, resourceObject, skipClassification, null, result);
+    }
+
+    /**
+     * As {@link #acquireRepoShadow(ProvisioningContext, PrismObject, boolean, OperationResult)}.
+     *
+     * @param batch Shadows acquired in advance for the batch the object belongs to (if any).
+     */
+    @NotNull PrismObject<ShadowType> acquireRepoShadow(ProvisioningContext ctx,
+            PrismObject<ShadowType> resourceObject, boolean skipClassification, @Nullable ShadowAcquisitionBatch batch,
+            OperationResult result)
+            throws SchemaException, ConfigurationException, ObjectNotFoundException, SecurityViolationException,
+            CommunicationException, GenericConnectorException, ExpressionEvaluationException, EncryptionException {
 
         PrismProperty<?> primaryIdentifier = requireNonNull(
                 ProvisioningUtil.getSingleValuedPrimaryIdentifier(resourceObject),
@@ -63,7 +86,8 @@ class ShadowAcquisitionHelper {
                 resourceObject.asObjectable().getObjectClass(),
                 () -> "No object class in " + ShadowUtil.shortDumpShadow(resourceObject));
 
-        return new ShadowAcquisition(ctx, primaryIdentifier, objectClass, () -> resourceObject, skipClassification, commonBeans)
+        return new ShadowAcquisition(
+                ctx, primaryIdentifier, objectClass, () -> resourceObject, skipClassification, batch, commonBeans)
                 .execute(result);
     }
 
@@ -72,7 +96,47 @@ class ShadowAcquisitionHelper {
             throws SchemaException, ConfigurationException, ObjectNotFoundException, CommunicationException,
             GenericConnectorException, ExpressionEvaluationException, EncryptionException, SecurityViolationException {
 
-        return new ShadowAcquisition(ctx, primaryIdentifier, objectClass, resourceObjectSupplier, false, commonBeans)
+        return new ShadowAcquisition(ctx, primaryIdentifier, objectClass, resourceObjectSupplier, false, null, commonBeans)
                 .execute(result);
     }
+
+    /**
+     * Acquires repository shadows for a batch of resource objects found by a search, see {@link ShadowAcquisitionBatch}.
+     * Returns null if that is not possible; the shadows are then acquired individually.
+     */
+    @Nullable ShadowAcquisitionBatch prepareBatch(ProvisioningContext ctx, List<ResourceObjectFound> objects,
+            OperationResult parentResult) {
+        OperationResult result = parentResult.subresult(OP_PREPARE_BATCH)
+                .setMinor()
+                .addParam("objects", objects.size())
+                .build();
+        try {
+            return ShadowAcquisitionBatch.prepare(ctx, objects, commonBeans.shadowsFacade.getLocalBeans(), result);
+        } catch (Exception e) {
+            LOGGER.warn("Couldn't acquire shadows for a batch of {} object(s), they will be acquired individually: {}",
+                    objects.size(), e.getMessage(), e);
+            result.recordHandledError(e);
+            return null;
+        } finally {
+            result.close();
+        }
+    }
+
+    /**
+     * Cleans up after a batch of objects was processed, see {@link ShadowAcquisitionBatch#discardUnusedShadows(OperationResult)}.
+     * Failures are only logged: the shadows left behind are correct, only unnecessary.
+     */
+    void finishBatch(@NotNull ShadowAcquisitionBatch batch, OperationResult parentResult) {
+        OperationResult result = parentResult.subresult(OP_FINISH_BATCH)
+                .setMinor()
+                .build();
+        try {
+            batch.discardUnusedShadows(result);
+        } catch (Exception e) {
+            LOGGER.warn("Couldn't discard unused shadows acquired for a batch: {}", e.getMessage(), e);
+            result.recordHandledError(e);
+        } finally {
+            result.close();
+        }
+    }
 }
@@ -15,6 +15,7 @@ import java.util.Objects;
 import com.google.common.base.MoreObjects;
 import org.apache.commons.collections4.CollectionUtils;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.crypto.EncryptionException;
@@ -81,11 +82,12 @@ public class ShadowedObjectFound implements InitializableMixin {
     /** Information used to initialize this object. */
     @NotNull private final InitializationContext ictx;
 
-    ShadowedObjectFound(ResourceObjectFound resourceObjectFound, ShadowsLocalBeans localBeans, ProvisioningContext ctx) {
+    ShadowedObjectFound(ResourceObjectFound resourceObjectFound, ShadowsLocalBeans localBeans, ProvisioningContext ctx,
+            @Nullable ShadowAcquisitionBatch acquisitionBatch) {
         this.resourceObject = resourceObjectFound.getResourceObject();
         this.primaryIdentifierValue = resourceObjectFound.getPrimaryIdentifierValue();
         this.initializationState = InitializationState.fromPreviousState(resourceObjectFound.getInitializationState());
-        this.ictx = new InitializationContext(localBeans, ctx);
+        this.ictx = new InitializationContext(localBeans, ctx, acquisitionBatch);
     }
 
     @Override
@@ -160,7 +162,7 @@ public class ShadowedObjectFound implements InitializableMixin {
         // Now find or create repository shadow, along with its classification (maybe it is not a good idea to merge the two).
         try {
             return ictx.localBeans.shadowAcquisitionHelper
-                    .acquireRepoShadow(estimatedCtx, resourceObject, false, result);
+                    .acquireRepoShadow(estimatedCtx, resourceObject, false, ictx.acquisitionBatch, result);
         } catch (Exception e) {
             // No need to log stack trace now. It will be logged at the place where the exception is processed.
             LOGGER.error("Couldn't acquire shadow for {}. Creating shadow in emergency mode. Error: {}", resourceObject, getClassWithMessage(e));
@@ -305,9 +307,14 @@ public class ShadowedObjectFound implements InitializableMixin {
         private final ShadowsLocalBeans localBeans;
         private final ProvisioningContext ctx;
 
-        private InitializationContext(ShadowsLocalBeans localBeans, ProvisioningContext ctx) {
+        /** Shadows acquired in advance for the batch this object belongs to (if any). */
+        @Nullable private final ShadowAcquisitionBatch acquisitionBatch;
+
+        private InitializationContext(ShadowsLocalBeans localBeans, ProvisioningContext ctx,
+                @Nullable ShadowAcquisitionBatch acquisitionBatch) {
             this.localBeans = localBeans;
             this.ctx = ctx;
+            this.acquisitionBatch = acquisitionBatch;
         }
     }
 }
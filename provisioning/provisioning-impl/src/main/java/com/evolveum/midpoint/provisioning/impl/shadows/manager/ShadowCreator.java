@@ -18,7 +18,10 @@ import com.evolveum.midpoint.provisioning.impl.shadows.ConstraintsChecker;
 import com.evolveum.midpoint.provisioning.impl.ProvisioningContext;
 import com.evolveum.midpoint.provisioning.impl.ProvisioningOperationState;
 import com.evolveum.midpoint.provisioning.util.ProvisioningUtil;
+import com.evolveum.midpoint.repo.api.BatchItemResult;
+import com.evolveum.midpoint.repo.api.PreconditionViolationException;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.api.VersionPrecondition;
 import com.evolveum.midpoint.schema.constants.SchemaConstants;
 import com.evolveum.midpoint.schema.processor.ResourceAttribute;
 import com.evolveum.midpoint.schema.processor.ResourceAttributeContainer;
@@ -44,7 +47,9 @@ import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
 
 import javax.xml.namespace.QName;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Creates shadows as needed.
@@ -82,6 +87,74 @@ class ShadowCreator {
         return repoShadow;
     }
 
+    /**
+     * Adds shadows for discovered resource objects by a single (batch) repository operation.
+     * The lists of contexts and resource objects must be of the same size.
+     *
+     * @return Shadows added, in the order of the resource objects. Null values represent shadows that could not be added
+     * (e.g. because of a conflict). It is up to the caller to deal with them.
+     */
+    @NotNull List<PrismObject<ShadowType>> addDiscoveredRepositoryShadows(@NotNull List<ProvisioningContext> contexts,
+            @NotNull List<PrismObject<ShadowType>> resourceObjects, OperationResult parentResult)
+            throws SchemaException, ConfigurationException, EncryptionException {
+        List<PrismObject<ShadowType>> repoShadows = new ArrayList<>(resourceObjects.size());
+        for (int i = 0; i < resourceObjects.size(); i++) {
+            PrismObject<ShadowType> repoShadow = createRepositoryShadow(contexts.get(i), resourceObjects.get(i));
+            ConstraintsChecker.onShadowAddOperation(repoShadow.asObjectable()); // TODO eventually replace by repo cache invalidation
+            repoShadows.add(repoShadow);
+        }
+        List<BatchItemResult> batchResults = repositoryService.addObjects(repoShadows, null, parentResult);
+        List<PrismObject<ShadowType>> addedShadows = new ArrayList<>(repoShadows.size());
+        boolean anyFailure = false;
+        boolean conflictsOnly = true;
+        for (int i = 0; i < repoShadows.size(); i++) {
+            PrismObject<ShadowType> repoShadow = repoShadows.get(i);
+            BatchItemResult batchResult = batchResults.get(i);
+            if (batchResult.isSuccess()) {
+                repoShadow.setOid(batchResult.getOid());
+                LOGGER.debug("Added new shadow (from resource object, in batch): {}", repoShadow);
+                addedShadows.add(repoShadow);
+            } else {
+                LOGGER.debug("Shadow {} could not be added in batch, it will be dealt with individually: {}",
+                        repoShadow, batchResult.getException().getMessage());
+                addedShadows.add(null);
+                anyFailure = true;
+                conflictsOnly = conflictsOnly && batchResult.getException() instanceof ObjectAlreadyExistsException;
+            }
+        }
+        if (anyFailure && conflictsOnly) {
+            // Someone (e.g. another worker or task) created the shadow between our check and our add attempt.
+            // This is resolved when the object is processed individually, just like in the single-object case.
+            parentResult.muteLastSubresultError();
+        }
+        return addedShadows;
+    }
+
+    /**
+     * Deletes shadows that were added by {@link #addDiscoveredRepositoryShadows(List, List, OperationResult)}
+     * but were not used, because the objects they were created for were not processed (e.g. the search was stopped).
+     *
+     * A shadow that was changed since it was added is kept, because someone else found it in the meanwhile
+     * and may rely on it. The version is checked by the repository within the deletion itself, so the shadow
+     * cannot be changed between the check and the deletion.
+     */
+    void deleteUnusedDiscoveredRepositoryShadows(@NotNull Collection<PrismObject<ShadowType>> repoShadows,
+            OperationResult result) {
+        for (PrismObject<ShadowType> repoShadow : repoShadows) {
+            try {
+                repositoryService.deleteObject(
+                        ShadowType.class, repoShadow.getOid(), new VersionPrecondition<>(repoShadow), result);
+                LOGGER.debug("Deleted unused shadow (added in batch): {}", repoShadow);
+            } catch (ObjectNotFoundException e) {
+                result.muteLastSubresultError();
+                LOGGER.trace("Unused shadow {} was already deleted", repoShadow);
+            } catch (PreconditionViolationException e) {
+                result.muteLastSubresultError();
+                LOGGER.debug("Unused shadow {} was changed since it was added, keeping it: {}", repoShadow, e.getMessage());
+            }
+        }
+    }
+
     void addNewProposedShadow(ProvisioningContext ctx, PrismObject<ShadowType> shadowToAdd,
             ProvisioningOperationState<AsynchronousOperationReturnValue<PrismObject<ShadowType>>> opState,
             Task task, OperationResult result)
@@ -160,7 +233,17 @@ class ShadowCreator {
             ProvisioningUtil.cleanupShadowActivation(repoShadowType);
 
         } else if (cachingStrategy == CachingStrategyType.PASSIVE) {
-            // Do not need to clear anything. Just store all attributes and add metadata.
+            // Store all cached attributes (plus the ones that are always stored) and add metadata.
+            CachingPolicyType cachingPolicy = ProvisioningUtil.getCachingPolicy(ctx);
+            if (cachingPolicy != null && !cachingPolicy.getCachedAttribute().isEmpty()) {
+                ResourceObjectDefinition objectDefinition = ctx.getObjectDefinitionRequired();
+                for (ResourceAttribute<?> attribute : List.copyOf(repoAttributesContainer.getAttributes())) {
+                    if (!ProvisioningUtil.shouldStoreAttributeInShadow(
+                            objectDefinition, attribute.getElementName(), cachingStrategy, cachingPolicy)) {
+                        repoAttributesContainer.remove(attribute);
+                    }
+                }
+            }
             CachingMetadataType cachingMetadata = new CachingMetadataType();
             cachingMetadata.setRetrievalTimestamp(clock.currentTimeXMLGregorianCalendar());
             repoShadowType.setCachingMetadata(cachingMetadata);
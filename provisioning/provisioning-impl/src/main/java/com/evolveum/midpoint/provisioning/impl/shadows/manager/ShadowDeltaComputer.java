@@ -27,7 +27,9 @@ import com.evolveum.midpoint.util.exception.*;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.CachingMetadataType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.CachingPolicyType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.CachingStrategyType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowAssociationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowLifecycleStateType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
 import org.jetbrains.annotations.NotNull;
@@ -65,10 +67,11 @@ public class ShadowDeltaComputer {
         ObjectDelta<ShadowType> computedShadowDelta = repoShadow.createModifyDelta();
 
         CachingStrategyType cachingStrategy = ProvisioningUtil.getCachingStrategy(ctx);
+        CachingPolicyType cachingPolicy = ProvisioningUtil.getCachingPolicy(ctx);
         Collection<QName> incompleteCacheableItems = new HashSet<>();
 
         processAttributes(ctx, repoShadow, resourceObject, resourceObjectDelta,
-                cachingStrategy, incompleteCacheableItems, computedShadowDelta);
+                cachingStrategy, cachingPolicy, incompleteCacheableItems, computedShadowDelta);
 
         addShadowNameDelta(repoShadow, resourceObject, computedShadowDelta);
         addAuxiliaryObjectClassDelta(repoShadow, resourceObject, computedShadowDelta);
@@ -78,6 +81,9 @@ public class ShadowDeltaComputer {
             addClearCachingMetadataDelta(repoShadow, computedShadowDelta);
         } else if (cachingStrategy == CachingStrategyType.PASSIVE) {
             addCachedActivationDeltas(repoShadow, resourceObject, computedShadowDelta);
+            if (ProvisioningUtil.isCachingAssociations(ctx)) {
+                addCachedAssociationsDelta(ctx, repoShadow, resourceObject, incompleteCacheableItems, computedShadowDelta);
+            }
             addCachingMetadataDelta(incompleteCacheableItems, computedShadowDelta);
         } else {
             throw new ConfigurationException("Unknown caching strategy "+cachingStrategy);
@@ -140,6 +146,30 @@ public class ShadowDeltaComputer {
         compareUpdateProperty(SchemaConstants.PATH_ACTIVATION_LOCKOUT_STATUS, repoShadow, resourceObject, computedShadowDelta);
     }
 
+    /**
+     * Replaces the associations in the shadow by the ones fetched from the resource. If they were not fetched,
+     * the shadow cannot be considered completely cached.
+     */
+    private void addCachedAssociationsDelta(ProvisioningContext ctx, PrismObject<ShadowType> repoShadow,
+            PrismObject<ShadowType> resourceObject, Collection<QName> incompleteCacheableItems,
+            ObjectDelta<ShadowType> computedShadowDelta) throws SchemaException {
+        PrismContainer<ShadowAssociationType> currentAssociations = resourceObject.findContainer(ShadowType.F_ASSOCIATION);
+        if (currentAssociations == null || currentAssociations.isIncomplete()) {
+            if (!ctx.getAssociationDefinitions().isEmpty()) {
+                incompleteCacheableItems.add(ShadowType.F_ASSOCIATION);
+            }
+            return;
+        }
+        PrismContainer<ShadowAssociationType> oldAssociations = repoShadow.findContainer(ShadowType.F_ASSOCIATION);
+        if (oldAssociations == null || !oldAssociations.equivalent(currentAssociations)) {
+            computedShadowDelta.addModifications(
+                    prismContext.deltaFor(ShadowType.class)
+                            .item(ShadowType.F_ASSOCIATION)
+                            .replace(PrismValueCollectionsUtil.cloneCollection(currentAssociations.getValues()))
+                            .asItemDeltas());
+        }
+    }
+
     private <T> void compareUpdateProperty(ItemPath itemPath, PrismObject<ShadowType> repoShadow, PrismObject<ShadowType> resourceObject,
             ObjectDelta<ShadowType> computedShadowDelta) {
         PrismProperty<T> currentProperty = resourceObject.findProperty(itemPath);
@@ -156,6 +186,7 @@ public class ShadowDeltaComputer {
             PrismObject<ShadowType> resourceObject,
             ObjectDelta<ShadowType> resourceObjectDelta,
             CachingStrategyType cachingStrategy,
+            CachingPolicyType cachingPolicy,
             Collection<QName> incompleteCacheableAttributes,
             ObjectDelta<ShadowType> computedShadowDelta)
             throws SchemaException, ConfigurationException, ExpressionEvaluationException, ObjectNotFoundException,
@@ -176,7 +207,8 @@ public class ShadowDeltaComputer {
                 PrismProperty<Object> currentResourceAttrProperty = (PrismProperty<Object>) currentResourceAttrItem;
                 ResourceAttributeDefinition<?> attrDef =
                         ocDef.findAttributeDefinitionRequired(currentResourceAttrProperty.getElementName());
-                if (ProvisioningUtil.shouldStoreAttributeInShadow(ocDef, attrDef.getItemName(), cachingStrategy)) {
+                if (ProvisioningUtil.shouldStoreAttributeInShadow(
+                        ocDef, attrDef.getItemName(), cachingStrategy, cachingPolicy)) {
                     if (!currentResourceAttrItem.isIncomplete()) {
                         processResourceAttribute(computedShadowDelta, repoShadowAttributes, currentResourceAttrProperty, attrDef);
                     } else {
@@ -207,8 +239,10 @@ public class ShadowDeltaComputer {
                 ResourceAttributeDefinition<?> attrDef = ocDef.findAttributeDefinition(oldRepoAttrProperty.getElementName());
                 PrismProperty<Object> currentAttribute = resourceObjectAttributes.findProperty(oldRepoAttrProperty.getElementName());
                 // note: incomplete attributes with no values are not here: they are found in resourceObjectAttributes container
-                if (attrDef == null || !ProvisioningUtil.shouldStoreAttributeInShadow(ocDef, attrDef.getItemName(), cachingStrategy) ||
-                        currentAttribute == null) {
+                if (attrDef == null
+                        || !ProvisioningUtil.shouldStoreAttributeInShadow(
+                                ocDef, attrDef.getItemName(), cachingStrategy, cachingPolicy)
+                        || currentAttribute == null) {
                     // No definition for this property it should not be there or no current value: remove it from the shadow
                     PropertyDelta<Object> oldRepoAttrPropDelta = oldRepoAttrProperty.createDelta();
                     oldRepoAttrPropDelta.addValuesToDelete(PrismValueCollectionsUtil.cloneCollection(oldRepoAttrProperty.getValues()));
@@ -96,6 +96,18 @@ class ShadowFinder {
             return null;
         }
 
+        return checkLiveShadow(liveShadow, result);
+    }
+
+    /**
+     * Checks the live shadow found (e.g. by {@link #searchLiveShadowsByIndexedPrimaryIdValues(ProvisioningContext,
+     * Collection, OperationResult)}) in the same way as {@link #lookupLiveShadowByPrimaryId(ProvisioningContext,
+     * PrismProperty, QName, OperationResult)} does.
+     *
+     * @return the shadow, or null if it does not exist anymore
+     */
+    PrismObject<ShadowType> checkLiveShadow(PrismObject<ShadowType> liveShadow, OperationResult result)
+            throws SchemaException {
         if (!checkExistsFlagForLiveShadow(liveShadow, result)) {
             return null;
         }
@@ -154,6 +166,35 @@ class ShadowFinder {
                 lazy(() -> "primary identifier value " + primaryIdentifierValue + " (impossible because of DB constraint)"));
     }
 
+    /**
+     * Searches for live shadows having any of given (normalized) primary identifier values, using a single query.
+     * The shadows found should be checked by {@link #checkLiveShadow(PrismObject, OperationResult)} before use.
+     */
+    @NotNull List<PrismObject<ShadowType>> searchLiveShadowsByIndexedPrimaryIdValues(ProvisioningContext ctx,
+            Collection<String> primaryIdentifierValues, OperationResult result) throws SchemaException {
+
+        if (primaryIdentifierValues.isEmpty()) {
+            return emptyList();
+        }
+
+        ObjectQuery query = prismContext.queryFor(ShadowType.class)
+                .item(ShadowType.F_PRIMARY_IDENTIFIER_VALUE).eq(primaryIdentifierValues.toArray())
+                .and().item(ShadowType.F_OBJECT_CLASS).eq(ctx.getObjectClassNameRequired())
+                .and().item(ShadowType.F_RESOURCE_REF).ref(ctx.getResourceOid())
+                .build();
+        LOGGER.trace("Searching for shadows by primaryIdentifierValues using filter:\n{}",
+                DebugUtil.debugDumpLazily(query, 1));
+
+        // Explicitly avoid all caches. We want to avoid shadow duplication.
+        Collection<SelectorOptions<GetOperationOptions>> options = schemaService.getOperationOptionsBuilder()
+                .staleness(0L)
+                .build();
+
+        return searchRepoShadows(query, options, result).stream()
+                .filter(ShadowUtil::isNotDead)
+                .collect(Collectors.toList());
+    }
+
     PrismObject<ShadowType> lookupLiveShadowByAllIds(ProvisioningContext ctx,
             ResourceAttributeContainer identifierContainer, OperationResult result)
             throws SchemaException, ConfigurationException {
@@ -143,6 +143,25 @@ public class ShadowManager {
         return shadowFinder.lookupLiveShadowByPrimaryId(ctx, primaryIdentifier, objectClass, result);
     }
 
+    /**
+     * Searches for live shadows by (normalized) primary identifier values, using a single query. Used to acquire shadows
+     * for a batch of resource objects. The shadows have to be checked by {@link #checkLiveShadow(PrismObject,
+     * OperationResult)} before use.
+     */
+    public @NotNull List<PrismObject<ShadowType>> searchLiveShadowsByIndexedPrimaryIdValues(ProvisioningContext ctx,
+            Collection<String> primaryIdentifierValues, OperationResult result) throws SchemaException {
+        return shadowFinder.searchLiveShadowsByIndexedPrimaryIdValues(ctx, primaryIdentifierValues, result);
+    }
+
+    /**
+     * Checks the live shadow found in the same way as {@link #lookupLiveShadowByPrimaryId(ProvisioningContext,
+     * PrismProperty, QName, OperationResult)} does. Returns null if the shadow does not exist anymore.
+     */
+    public PrismObject<ShadowType> checkLiveShadow(PrismObject<ShadowType> liveShadow, OperationResult result)
+            throws SchemaException {
+        return shadowFinder.checkLiveShadow(liveShadow, result);
+    }
+
     /**
      * Looks up live (or any other, if there's none) shadow by primary identifier(s).
      */
@@ -201,6 +220,26 @@ public class ShadowManager {
         return shadowCreator.addDiscoveredRepositoryShadow(ctx, resourceObject, result);
     }
 
+    /**
+     * Adds shadows for a batch of discovered resource objects, using a single repository operation.
+     * Nulls are returned for shadows that could not be added. See
+     * {@link ShadowCreator#addDiscoveredRepositoryShadows(List, List, OperationResult)}.
+     */
+    public @NotNull List<PrismObject<ShadowType>> addDiscoveredRepositoryShadows(@NotNull List<ProvisioningContext> contexts,
+            @NotNull List<PrismObject<ShadowType>> resourceObjects, OperationResult result)
+            throws SchemaException, ConfigurationException, EncryptionException {
+        return shadowCreator.addDiscoveredRepositoryShadows(contexts, resourceObjects, result);
+    }
+
+    /**
+     * Deletes shadows added by {@link #addDiscoveredRepositoryShadows(List, List, OperationResult)} that were not used
+     * after all. See {@link ShadowCreator#deleteUnusedDiscoveredRepositoryShadows(Collection, OperationResult)}.
+     */
+    public void deleteUnusedDiscoveredRepositoryShadows(@NotNull Collection<PrismObject<ShadowType>> repoShadows,
+            OperationResult result) {
+        shadowCreator.deleteUnusedDiscoveredRepositoryShadows(repoShadows, result);
+    }
+
     /**
      * Adds new shadow in the `proposed` state (if proposed shadows processing is enabled).
      * The new shadow is recorded into the `opState`.
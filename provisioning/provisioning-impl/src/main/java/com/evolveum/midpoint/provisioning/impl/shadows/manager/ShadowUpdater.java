@@ -233,8 +233,10 @@ class ShadowUpdater {
             PrismObject<ShadowType> resourceShadow, PrismObject<ShadowType> repoShadow) throws SchemaException, ConfigurationException {
         ResourceObjectDefinition objectDefinition = ctx.getObjectDefinitionRequired();
         CachingStrategyType cachingStrategy = ProvisioningUtil.getCachingStrategy(ctx);
+        CachingPolicyType cachingPolicy = ProvisioningUtil.getCachingPolicy(ctx);
         for (ResourceAttributeDefinition<?> attrDef : objectDefinition.getAttributeDefinitions()) {
-            if (ProvisioningUtil.shouldStoreAttributeInShadow(objectDefinition, attrDef.getItemName(), cachingStrategy)) {
+            if (ProvisioningUtil.shouldStoreAttributeInShadow(
+                    objectDefinition, attrDef.getItemName(), cachingStrategy, cachingPolicy)) {
                 ResourceAttribute<Object> resourceAttr = ShadowUtil.getAttribute(resourceShadow, attrDef.getItemName());
                 PrismProperty<Object> repoAttr = repoShadow.findProperty(ItemPath.create(ShadowType.F_ATTRIBUTES, attrDef.getItemName()));
                 PropertyDelta attrDelta;
@@ -462,6 +464,7 @@ class ShadowUpdater {
 
         ResourceObjectDefinition objectDefinition = ctx.getObjectDefinitionRequired(); // If type is not present, OC def is fine
         CachingStrategyType cachingStrategy = ProvisioningUtil.getCachingStrategy(ctx);
+        CachingPolicyType cachingPolicy = ProvisioningUtil.getCachingPolicy(ctx);
         Collection<ItemDelta<?, ?>> repoChanges = new ArrayList<>();
         for (ItemDelta itemDelta : objectChange) {
             if (ShadowType.F_ATTRIBUTES.equivalent(itemDelta.getParentPath())) {
@@ -497,7 +500,7 @@ class ShadowUpdater {
                             ShadowType.F_PRIMARY_IDENTIFIER_VALUE, normalizedNewPrimaryIdentifier);
                     repoChanges.add(primaryIdentifierDelta);
                 }
-                if (!ProvisioningUtil.shouldStoreAttributeInShadow(objectDefinition, attrName, cachingStrategy)) {
+                if (!ProvisioningUtil.shouldStoreAttributeInShadow(objectDefinition, attrName, cachingStrategy, cachingPolicy)) {
                     continue;
                 }
             } else if (ShadowType.F_ACTIVATION.equivalent(itemDelta.getParentPath())) {
@@ -31,8 +31,11 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 
 /**
- * Implements Async Update functionality. (Currently not much, but this might change as we'll implement multi-threading.
- * Then we'll maybe find some code common with LiveSynchronizer.)
+ * Implements Async Update functionality. (Currently not much. Maybe we'll find some code common with LiveSynchronizer.)
+ *
+ * Note that the changes can come from multiple threads, if the connector processes them in partitions
+ * (see the `partitions` configuration property of the async update connector). The order is then guaranteed only
+ * for changes with the same primary identifier; and the events can be acknowledged in any order.
  */
 @Component
 public class AsyncUpdater {
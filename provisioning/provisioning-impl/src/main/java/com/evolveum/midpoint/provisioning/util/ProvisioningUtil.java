@@ -357,7 +357,17 @@ public class ProvisioningUtil {
 
     public static boolean shouldStoreAttributeInShadow(ResourceObjectDefinition objectDefinition, QName attributeName,
             CachingStrategyType cachingStrategy) throws ConfigurationException {
-        if (cachingStrategy == null || cachingStrategy == CachingStrategyType.NONE) {
+        return shouldStoreAttributeInShadow(objectDefinition, attributeName, cachingStrategy, null);
+    }
+
+    /**
+     * As {@link #shouldStoreAttributeInShadow(ResourceObjectDefinition, QName, CachingStrategyType)} but respecting
+     * the list of cached attributes in the caching policy (if there is any).
+     */
+    public static boolean shouldStoreAttributeInShadow(ResourceObjectDefinition objectDefinition, QName attributeName,
+            CachingStrategyType cachingStrategy, @Nullable CachingPolicyType cachingPolicy) throws ConfigurationException {
+        if (cachingStrategy == null || cachingStrategy == CachingStrategyType.NONE
+                || cachingStrategy == CachingStrategyType.PASSIVE && !isAttributeCached(attributeName, cachingPolicy)) {
             if (objectDefinition.isPrimaryIdentifier(attributeName) || objectDefinition.isSecondaryIdentifier(attributeName)) {
                 return true;
             }
@@ -379,6 +389,12 @@ public class ProvisioningUtil {
         }
     }
 
+    private static boolean isAttributeCached(QName attributeName, @Nullable CachingPolicyType cachingPolicy) {
+        return cachingPolicy == null
+                || cachingPolicy.getCachedAttribute().isEmpty()
+                || QNameUtil.matchAny(attributeName, cachingPolicy.getCachedAttribute());
+    }
+
     public static boolean shouldStoreActivationItemInShadow(QName elementName, CachingStrategyType cachingStrategy) {    // MID-2585
         if (cachingStrategy == CachingStrategyType.PASSIVE) {
             return true;
@@ -538,9 +554,37 @@ public class ProvisioningUtil {
         }
     }
 
+    /**
+     * Returns the caching policy for the object type of the context (if defined there), or for the whole resource.
+     */
+    public static @Nullable CachingPolicyType getCachingPolicy(ProvisioningContext ctx) {
+        CachingPolicyType typeCaching = getObjectTypeCachingPolicy(ctx);
+        return typeCaching != null ? typeCaching : ctx.getResource().getCaching();
+    }
+
+    /**
+     * Returns the caching policy defined for the object type of the context itself (not inherited from the resource).
+     *
+     * Serving reads from the cache without the caller asking for it (time to live) and read-through searches
+     * are enabled only by this one, so that the resource-wide caching policy keeps its original meaning.
+     */
+    public static @Nullable CachingPolicyType getObjectTypeCachingPolicy(ProvisioningContext ctx) {
+        ResourceObjectDefinition objectDefinition = ctx.getObjectDefinition();
+        return objectDefinition != null ? objectDefinition.getDefinitionBean().getCaching() : null;
+    }
+
+    /**
+     * Are searches tolerating some staleness served from the repository (refreshing the stale shadows individually)?
+     * Only if passive caching is enabled by the caching policy of the object type itself.
+     */
+    public static boolean isReadThroughEnabled(ProvisioningContext ctx) {
+        return getObjectTypeCachingPolicy(ctx) != null
+                && getCachingStrategy(ctx) == CachingStrategyType.PASSIVE;
+    }
+
     public static CachingStrategyType getCachingStrategy(ProvisioningContext ctx) {
         ResourceType resource = ctx.getResource();
-        CachingPolicyType caching = resource.getCaching();
+        CachingPolicyType caching = getCachingPolicy(ctx);
         if (caching == null || caching.getCachingStrategy() == null) {
             ReadCapabilityType readCapabilityType = ResourceTypeUtil.getEnabledCapability(resource, ReadCapabilityType.class);
             if (readCapabilityType == null) {
@@ -555,6 +599,53 @@ public class ProvisioningUtil {
         return caching.getCachingStrategy();
     }
 
+    /** Are associations cached, i.e. kept up to date in the shadows? (See {@link CachingPolicyType#isCacheAssociations()}.) */
+    public static boolean isCachingAssociations(ProvisioningContext ctx) {
+        CachingPolicyType cachingPolicy = getCachingPolicy(ctx);
+        return getCachingStrategy(ctx) == CachingStrategyType.PASSIVE
+                && cachingPolicy != null
+                && Boolean.TRUE.equals(cachingPolicy.isCacheAssociations());
+    }
+
+    /**
+     * Returns definitions of the attributes that are not cached because of the {@link CachingPolicyType#getCachedAttribute()}
+     * restriction. Empty if the caching is not passive or if all attributes are cached.
+     */
+    public static @NotNull List<ResourceAttributeDefinition<?>> getUncachedAttributes(ProvisioningContext ctx)
+            throws ConfigurationException {
+        ResourceObjectDefinition objectDefinition = ctx.getObjectDefinition();
+        CachingPolicyType cachingPolicy = getCachingPolicy(ctx);
+        if (objectDefinition == null
+                || cachingPolicy == null
+                || cachingPolicy.getCachedAttribute().isEmpty()
+                || getCachingStrategy(ctx) != CachingStrategyType.PASSIVE) {
+            return List.of();
+        }
+        List<ResourceAttributeDefinition<?>> uncachedAttributes = new ArrayList<>();
+        for (ResourceAttributeDefinition<?> attrDef : objectDefinition.getAttributeDefinitions()) {
+            if (!shouldStoreAttributeInShadow(
+                    objectDefinition, attrDef.getItemName(), CachingStrategyType.PASSIVE, cachingPolicy)) {
+                uncachedAttributes.add(attrDef);
+            }
+        }
+        return uncachedAttributes;
+    }
+
+    /**
+     * Marks the attributes that are not cached (see {@link #getUncachedAttributes(ProvisioningContext)}) as incomplete
+     * in a shadow returned from the cache, so that the clients do not take their absence for the absence of values
+     * on the resource.
+     */
+    public static void markUncachedAttributesIncomplete(ProvisioningContext ctx, PrismObject<ShadowType> shadow)
+            throws SchemaException, ConfigurationException {
+        for (ResourceAttributeDefinition<?> attrDef : getUncachedAttributes(ctx)) {
+            ItemPath path = ItemPath.create(ShadowType.F_ATTRIBUTES, attrDef.getItemName());
+            LOGGER.trace("Marking item {} as incomplete because it's not cached", path);
+            //noinspection unchecked
+            shadow.findCreateItem(path, Item.class, attrDef, true).setIncomplete(true);
+        }
+    }
+
     public static boolean isResourceModification(ItemDelta modification) {
         QName firstPathName = modification.getPath().firstName();
         return isAttributeModification(firstPathName) || isNonAttributeResourceModification(firstPathName);
@@ -655,6 +746,14 @@ public class ProvisioningUtil {
         return operationRetryMaxAttempts;
     }
 
+    public static int getShadowAcquisitionBatchSize(ProvisioningContext ctx) {
+        ResourceConsistencyType consistency = ctx.getResource().getConsistency();
+        if (consistency == null || consistency.getShadowAcquisitionBatchSize() == null) {
+            return 1;
+        }
+        return Math.max(consistency.getShadowAcquisitionBatchSize(), 1);
+    }
+
     public static boolean isCompleted(OperationResultStatusType statusType) {
         return statusType != null && statusType != OperationResultStatusType.IN_PROGRESS && statusType != OperationResultStatusType.UNKNOWN;
     }
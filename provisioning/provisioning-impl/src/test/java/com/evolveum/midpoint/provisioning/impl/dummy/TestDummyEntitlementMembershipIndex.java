@@ -0,0 +1,290 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.provisioning.impl.dummy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import static com.evolveum.midpoint.schema.constants.SchemaConstants.RI_ACCOUNT_OBJECT_CLASS;
+import static com.evolveum.midpoint.schema.constants.SchemaConstants.RI_GROUP_OBJECT_CLASS;
+
+import java.io.File;
+import java.util.*;
+import java.util.stream.Collectors;
+import javax.xml.namespace.QName;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.icf.dummy.resource.DummyGroup;
+import com.evolveum.midpoint.CacheInvalidationContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
+import com.evolveum.midpoint.provisioning.impl.resourceobjects.EntitlementMembershipIndex;
+import com.evolveum.midpoint.repo.api.CacheDispatcher;
+import com.evolveum.midpoint.repo.api.CacheListener;
+import com.evolveum.midpoint.repo.api.TargetedCacheInvalidationDetails;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.DummyResourceContoller;
+import com.evolveum.midpoint.test.IntegrationTestTools;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Tests the entitlement membership index for object-to-subject associations,
+ * see {@link com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceObjectAssociationType#isMembershipIndex()}.
+ *
+ * The index use is detected by changing group membership directly on the dummy resource, i.e. without midPoint knowing:
+ * the index then provides stale associations. Checks that the index is used only by the task that prepared it,
+ * that changes of memberships by midPoint are applied to it (and invalidate it on other nodes), and that it is dropped
+ * when released, and when the resource or the index is invalidated by another node.
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+public class TestDummyEntitlementMembershipIndex extends AbstractDummyTest {
+
+    private static final File TEST_DIR = new File(TEST_DIR_DUMMY, "dummy-membership-index");
+    private static final File RESOURCE_DUMMY_FILE = new File(TEST_DIR, "resource-dummy.xml");
+
+    private static final String ACCOUNT_JIM_NAME = "idx-jim";
+    private static final List<String> GROUP_NAMES = List.of("idx-1", "idx-2", "idx-3", "idx-4", "idx-5");
+
+    @Autowired private CacheDispatcher cacheDispatcher;
+
+    /** The task of the (simulated) bulk processing run that prepares the index. */
+    private Task ownerTask;
+
+    private String jimOid;
+
+    /** Group shadow OIDs, keyed by name. */
+    private Map<String, String> groupOids;
+
+    @Override
+    protected File getResourceDummyFile() {
+        return RESOURCE_DUMMY_FILE;
+    }
+
+    @Test
+    public void test000Sanity() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        when();
+        OperationResult testResult = provisioningService.testResource(RESOURCE_DUMMY_OID, task, result);
+
+        then();
+        assertSuccess(testResult);
+    }
+
+    /** The index is used by the task that prepared it, but not by other tasks. */
+    @Test
+    public void test100IndexUsedByOwnerOnly() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("jim is a member of idx-1; all groups and jim have shadows");
+        DummyAccount jim = new DummyAccount(ACCOUNT_JIM_NAME);
+        jim.setEnabled(true);
+        dummyResource.addAccount(jim);
+        for (String groupName : GROUP_NAMES) {
+            DummyGroup group = new DummyGroup(groupName);
+            if (groupName.equals("idx-1")) {
+                group.addMember(ACCOUNT_JIM_NAME);
+            }
+            dummyResource.addGroup(group);
+        }
+        groupOids = searchShadowOids(RI_GROUP_OBJECT_CLASS, task, result);
+        jimOid = searchShadowOids(RI_ACCOUNT_OBJECT_CLASS, task, result).get(ACCOUNT_JIM_NAME);
+        ownerTask = createTask("owner");
+
+        when("the index is prepared, and jim is added to idx-2 directly on the resource");
+        provisioningService.prepareEntitlementMembershipIndex(RESOURCE_DUMMY_OID, ownerTask, result);
+        addMemberDirectly("idx-2");
+
+        then("the owner gets the memberships from the (stale) index");
+        assertSuccess(result);
+        assertGroups(ownerTask, "idx-1");
+
+        and("other tasks search for the memberships");
+        assertGroups(task, "idx-1", "idx-2");
+    }
+
+    /**
+     * A change of entitlements by midPoint is applied to the index (which is kept, as the stale membership shows),
+     * and other nodes are told to drop their index without invalidating the resource.
+     */
+    @Test
+    public void test110AdditionByMidPointUpdatesIndex() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given();
+        RecordingCacheListener listener = new RecordingCacheListener();
+        cacheDispatcher.registerCacheListener(listener);
+
+        try {
+            when("jim is added to idx-3 by midPoint");
+            modifyByMidPoint(
+                    IntegrationTestTools.createEntitleDelta(jimOid, getGroupAssociationName(), groupOids.get("idx-3"), prismContext),
+                    task, result);
+        } finally {
+            cacheDispatcher.unregisterCacheListener(listener);
+        }
+
+        then("the owner still uses the index, with the addition applied");
+        assertSuccess(result);
+        assertGroups(ownerTask, "idx-1", "idx-3");
+
+        and("the index (but not the resource) was invalidated on other nodes");
+        assertThat(listener.targetedInvalidations)
+                .as("cluster-wide invalidations of the index")
+                .contains(RESOURCE_DUMMY_OID);
+        assertThat(listener.resourceInvalidations)
+                .as("cluster-wide invalidations of the resource")
+                .doesNotContain(RESOURCE_DUMMY_OID);
+    }
+
+    /** A removal of a membership by midPoint is applied to the index. */
+    @Test
+    public void test115RemovalByMidPointUpdatesIndex() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        when("jim is removed from idx-1 by midPoint");
+        modifyByMidPoint(
+                IntegrationTestTools.createDetitleDelta(jimOid, getGroupAssociationName(), groupOids.get("idx-1"), prismContext),
+                task, result);
+
+        then("the owner still uses the index, with the removal applied");
+        assertSuccess(result);
+        assertGroups(ownerTask, "idx-3");
+    }
+
+    /** Invalidation of the resource (e.g. coming from another node) drops the index. */
+    @Test
+    public void test120ResourceInvalidationDropsIndex() throws Exception {
+        OperationResult result = getTestOperationResult();
+
+        given("the index is prepared again, and jim is added to idx-4 directly on the resource");
+        provisioningService.prepareEntitlementMembershipIndex(RESOURCE_DUMMY_OID, ownerTask, result);
+        addMemberDirectly("idx-4");
+        assertGroups(ownerTask, "idx-3");
+
+        when("the resource is invalidated from another node");
+        cacheDispatcher.dispatchInvalidation(
+                ResourceType.class, RESOURCE_DUMMY_OID, false, new CacheInvalidationContext(true, null));
+
+        then();
+        assertGroups(ownerTask, "idx-2", "idx-3", "idx-4");
+    }
+
+    /** Invalidation of the index coming from another node drops it; the local one (sent to other nodes) does not. */
+    @Test
+    public void test125IndexInvalidationFromOtherNodeDropsIndex() throws Exception {
+        OperationResult result = getTestOperationResult();
+
+        given("the index is prepared again, and jim is added to idx-5 directly on the resource");
+        provisioningService.prepareEntitlementMembershipIndex(RESOURCE_DUMMY_OID, ownerTask, result);
+        addMemberDirectly("idx-5");
+        assertGroups(ownerTask, "idx-2", "idx-3", "idx-4");
+
+        when("the index is invalidated locally (i.e. for other nodes)");
+        dispatchIndexInvalidation(false);
+
+        then("the index is still used");
+        assertGroups(ownerTask, "idx-2", "idx-3", "idx-4");
+
+        when("the index is invalidated from another node");
+        dispatchIndexInvalidation(true);
+
+        then("the index is dropped");
+        assertGroups(ownerTask, "idx-2", "idx-3", "idx-4", "idx-5");
+    }
+
+    /** The index is dropped when released by the owner. Repeated release does no harm. */
+    @Test
+    public void test130ReleaseDropsIndex() throws Exception {
+        OperationResult result = getTestOperationResult();
+
+        given("the index is prepared again, and jim is removed from idx-2 directly on the resource");
+        provisioningService.prepareEntitlementMembershipIndex(RESOURCE_DUMMY_OID, ownerTask, result);
+        dummyResource.getGroupByName("idx-2").removeMember(ACCOUNT_JIM_NAME);
+        assertGroups(ownerTask, "idx-2", "idx-3", "idx-4", "idx-5");
+
+        when();
+        provisioningService.releaseEntitlementMembershipIndex(RESOURCE_DUMMY_OID, ownerTask);
+        provisioningService.releaseEntitlementMembershipIndex(RESOURCE_DUMMY_OID, ownerTask);
+
+        then();
+        assertGroups(ownerTask, "idx-3", "idx-4", "idx-5");
+    }
+
+    private QName getGroupAssociationName() {
+        return dummyResourceCtl.getAttributeQName(DummyResourceContoller.DUMMY_ENTITLEMENT_GROUP_NAME);
+    }
+
+    private void modifyByMidPoint(ObjectDelta<ShadowType> delta, Task task, OperationResult result) throws Exception {
+        provisioningService.modifyObject(ShadowType.class, jimOid, delta.getModifications(), null, null, task, result);
+    }
+
+    private void dispatchIndexInvalidation(boolean fromRemoteNode) {
+        cacheDispatcher.dispatchInvalidation(ResourceType.class, RESOURCE_DUMMY_OID, false,
+                new CacheInvalidationContext(
+                        fromRemoteNode, new TargetedCacheInvalidationDetails(EntitlementMembershipIndex.class.getName())));
+    }
+
+    private Map<String, String> searchShadowOids(QName objectClassName, Task task,
+            OperationResult result) throws Exception {
+        return provisioningService.searchObjects(ShadowType.class,
+                        ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID, objectClassName),
+                        null, task, result)
+                .stream()
+                .collect(Collectors.toMap(shadow -> shadow.getName().getOrig(), PrismObject::getOid));
+    }
+
+    private void addMemberDirectly(String groupName) throws Exception {
+        dummyResource.getGroupByName(groupName).addMember(ACCOUNT_JIM_NAME);
+    }
+
+    private void assertGroups(Task task, String... expectedGroupNames) throws Exception {
+        PrismObject<ShadowType> account =
+                provisioningService.getObject(ShadowType.class, jimOid, null, task, getTestOperationResult());
+        Set<String> groups = account.asObjectable().getAssociation().stream()
+                .map(association -> association.getShadowRef().getOid())
+                .collect(Collectors.toSet());
+        assertThat(groups)
+                .as("groups of jim as seen by " + task)
+                .containsExactlyInAnyOrderElementsOf(
+                        Arrays.stream(expectedGroupNames)
+                                .map(groupOids::get)
+                                .collect(Collectors.toList()));
+    }
+
+    /** Records cluster-wide invalidations of resources, and those targeted at the index. */
+    private static class RecordingCacheListener implements CacheListener {
+
+        private final List<String> resourceInvalidations = Collections.synchronizedList(new ArrayList<>());
+        private final List<String> targetedInvalidations = Collections.synchronizedList(new ArrayList<>());
+
+        @Override
+        public <O extends ObjectType> void invalidate(Class<O> type, String oid, boolean clusterwide,
+                CacheInvalidationContext context) {
+            if (clusterwide && ResourceType.class.equals(type)) {
+                if (EntitlementMembershipIndex.class.getName().equals(TargetedCacheInvalidationDetails.getTargetCache(context))) {
+                    targetedInvalidations.add(oid);
+                } else {
+                    resourceInvalidations.add(oid);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,350 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.provisioning.impl.dummy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import static com.evolveum.midpoint.schema.constants.SchemaConstants.RI_ACCOUNT_OBJECT_CLASS;
+import static com.evolveum.midpoint.schema.constants.SchemaConstants.RI_GROUP_OBJECT_CLASS;
+import static com.evolveum.midpoint.test.DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME;
+import static com.evolveum.midpoint.test.DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_SHIP_NAME;
+import static com.evolveum.midpoint.test.DummyResourceContoller.DUMMY_ACCOUNT_ATTRIBUTE_WEAPON_NAME;
+
+import java.io.File;
+import java.util.*;
+import java.util.stream.Collectors;
+import javax.xml.namespace.QName;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.icf.dummy.resource.DummyGroup;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.schema.internals.InternalCounters;
+import com.evolveum.midpoint.schema.processor.ResourceAttributeDefinition;
+import com.evolveum.midpoint.schema.processor.ResourceObjectDefinition;
+import com.evolveum.midpoint.schema.processor.ResourceSchemaFactory;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Tests serving GET and search operations from the passive cache, see
+ * {@link com.evolveum.midpoint.xml.ns._public.common.common_3.CachingPolicyType}.
+ *
+ * Accounts cache only `fullname` and `ship` attributes (plus identifiers), and associations. The time to live is one hour.
+ * Groups are cached by the resource-wide caching policy only, which does not enable serving searches from the cache.
+ * Changes are made directly on the dummy resource, i.e. without midPoint knowing, so that it is visible whether the data
+ * come from the cache or from the resource. The time is moved by overriding the clock.
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+public class TestDummyReadThroughCaching extends AbstractDummyTest {
+
+    private static final File TEST_DIR = new File(TEST_DIR_DUMMY, "dummy-read-through-caching");
+    private static final File RESOURCE_DUMMY_FILE = new File(TEST_DIR, "resource-dummy.xml");
+
+    private static final String ACCOUNT_JACK_NAME = "rt-jack";
+    private static final String GROUP_CREW_NAME = "rt-crew";
+    private static final String GROUP_OFFICERS_NAME = "rt-officers";
+    private static final String GROUP_GUNNERS_NAME = "rt-gunners";
+
+    private String jackOid;
+
+    /** Group shadow OIDs, keyed by name. */
+    private Map<String, String> groupOids;
+
+    @Override
+    protected File getResourceDummyFile() {
+        return RESOURCE_DUMMY_FILE;
+    }
+
+    @AfterClass
+    public void resetClock() {
+        clock.resetOverride();
+    }
+
+    @Test
+    public void test000Sanity() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        when();
+        OperationResult testResult = provisioningService.testResource(RESOURCE_DUMMY_OID, task, result);
+
+        then();
+        assertSuccess(testResult);
+    }
+
+    /** Only the cached attributes and the associations are stored in the shadow. */
+    @Test
+    public void test100FillCache() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("jack is a member of rt-crew");
+        DummyAccount jack = new DummyAccount(ACCOUNT_JACK_NAME);
+        jack.setEnabled(true);
+        jack.replaceAttributeValue(DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME, "Jack Sparrow");
+        jack.replaceAttributeValue(DUMMY_ACCOUNT_ATTRIBUTE_SHIP_NAME, "Black Pearl");
+        jack.replaceAttributeValue(DUMMY_ACCOUNT_ATTRIBUTE_WEAPON_NAME, "sword");
+        dummyResource.addAccount(jack);
+        DummyGroup crew = new DummyGroup(GROUP_CREW_NAME);
+        crew.addMember(ACCOUNT_JACK_NAME);
+        dummyResource.addGroup(crew);
+        dummyResource.addGroup(new DummyGroup(GROUP_OFFICERS_NAME));
+        groupOids = searchShadowOids(RI_GROUP_OBJECT_CLASS, task, result);
+        jackOid = searchShadowOids(RI_ACCOUNT_OBJECT_CLASS, task, result).get(ACCOUNT_JACK_NAME);
+
+        when("jack is read from the resource");
+        getJack(GetOperationOptions.createStaleness(0L), result);
+
+        then();
+        assertSuccess(result);
+        PrismObject<ShadowType> repoShadow =
+                repositoryService.getObject(ShadowType.class, jackOid, null, result);
+        display("Repo shadow", repoShadow);
+        assertThat(getAttributeValues(repoShadow, DUMMY_ACCOUNT_ATTRIBUTE_SHIP_NAME))
+                .as("cached ship")
+                .containsExactly("Black Pearl");
+        assertThat(repoShadow.findProperty(getAttributePath(DUMMY_ACCOUNT_ATTRIBUTE_WEAPON_NAME)))
+                .as("cached weapon")
+                .isNull();
+        assertThat(getGroups(repoShadow)).as("cached groups").containsExactly(GROUP_CREW_NAME);
+        assertThat(repoShadow.asObjectable().getCachingMetadata()).as("caching metadata").isNotNull();
+    }
+
+    /**
+     * Within the time to live, the shadow is returned from the cache. The attributes that are not cached
+     * are marked as incomplete.
+     */
+    @Test
+    public void test110GetWithinTimeToLive() throws Exception {
+        OperationResult result = getTestOperationResult();
+
+        given("ship is changed on the resource");
+        dummyResource.getAccountByUsername(ACCOUNT_JACK_NAME)
+                .replaceAttributeValue(DUMMY_ACCOUNT_ATTRIBUTE_SHIP_NAME, "Interceptor");
+        rememberCounter(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
+
+        when();
+        PrismObject<ShadowType> shadow = getJack(null, result);
+
+        then();
+        assertSuccess(result);
+        assertCounterIncrement(InternalCounters.SHADOW_FETCH_OPERATION_COUNT, 0);
+        assertThat(getAttributeValues(shadow, DUMMY_ACCOUNT_ATTRIBUTE_SHIP_NAME))
+                .as("ship (cached)")
+                .containsExactly("Black Pearl");
+        PrismProperty<?> weapon = shadow.findProperty(getAttributePath(DUMMY_ACCOUNT_ATTRIBUTE_WEAPON_NAME));
+        assertThat(weapon).as("weapon").isNotNull();
+        assertThat(weapon.isIncomplete()).as("weapon incomplete").isTrue();
+        PrismProperty<?> fullName = shadow.findProperty(getAttributePath(DUMMY_ACCOUNT_ATTRIBUTE_FULLNAME_NAME));
+        assertThat(fullName.isIncomplete()).as("full name incomplete").isFalse();
+        assertThat(getGroups(shadow)).as("groups (cached)").containsExactly(GROUP_CREW_NAME);
+    }
+
+    /** If the caller explicitly requests an attribute that is not cached, the resource is contacted. */
+    @Test
+    public void test120GetRequestingUncachedAttribute() throws Exception {
+        OperationResult result = getTestOperationResult();
+
+        given();
+        Collection<SelectorOptions<GetOperationOptions>> options = schemaService.getOperationOptionsBuilder()
+                .item(getAttributePath(DUMMY_ACCOUNT_ATTRIBUTE_WEAPON_NAME)).retrieve()
+                .build();
+        rememberCounter(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
+
+        when();
+        PrismObject<ShadowType> shadow =
+                provisioningService.getObject(ShadowType.class, jackOid, options, getTestTask(), result);
+
+        then();
+        assertSuccess(result);
+        assertCounterIncrement(InternalCounters.SHADOW_FETCH_OPERATION_COUNT, 1);
+        assertThat(getAttributeValues(shadow, DUMMY_ACCOUNT_ATTRIBUTE_WEAPON_NAME))
+                .as("weapon")
+                .containsExactly("sword");
+        assertThat(getAttributeValues(shadow, DUMMY_ACCOUNT_ATTRIBUTE_SHIP_NAME))
+                .as("ship")
+                .containsExactly("Interceptor");
+    }
+
+    /** After the time to live, the resource is contacted. */
+    @Test
+    public void test130GetAfterTimeToLive() throws Exception {
+        OperationResult result = getTestOperationResult();
+
+        given("ship is changed on the resource, and two hours pass");
+        dummyResource.getAccountByUsername(ACCOUNT_JACK_NAME)
+                .replaceAttributeValue(DUMMY_ACCOUNT_ATTRIBUTE_SHIP_NAME, "Flying Dutchman");
+        clock.overrideDuration("PT2H");
+        rememberCounter(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
+
+        when();
+        PrismObject<ShadowType> shadow = getJack(null, result);
+
+        then();
+        assertSuccess(result);
+        assertCounterIncrement(InternalCounters.SHADOW_FETCH_OPERATION_COUNT, 1);
+        assertThat(getAttributeValues(shadow, DUMMY_ACCOUNT_ATTRIBUTE_SHIP_NAME))
+                .as("ship")
+                .containsExactly("Flying Dutchman");
+    }
+
+    /**
+     * The search is served from the repository; the stale shadow is refreshed from the resource, and it is not returned
+     * because it does not match the query anymore. The fresh shadow is returned from the cache.
+     */
+    @Test
+    public void test140SearchReadThrough() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("ship is changed on the resource, and two hours pass");
+        dummyResource.getAccountByUsername(ACCOUNT_JACK_NAME)
+                .replaceAttributeValue(DUMMY_ACCOUNT_ATTRIBUTE_SHIP_NAME, "Black Pearl");
+        clock.overrideDuration("PT2H");
+        Collection<SelectorOptions<GetOperationOptions>> options =
+                SelectorOptions.createCollection(GetOperationOptions.createStaleness(3600000L));
+        rememberCounter(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
+
+        when("searching by the cached (old) value");
+        List<PrismObject<ShadowType>> byOldValue = provisioningService.searchObjects(
+                ShadowType.class, createShipQuery("Flying Dutchman"), options, task, result);
+
+        then("the account is refreshed, and then it does not match");
+        assertSuccess(result);
+        assertCounterIncrement(InternalCounters.SHADOW_FETCH_OPERATION_COUNT, 1);
+        assertThat(byOldValue).as("accounts found by old value").isEmpty();
+
+        when("searching by the current value");
+        rememberCounter(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
+        List<PrismObject<ShadowType>> byNewValue = provisioningService.searchObjects(
+                ShadowType.class, createShipQuery("Black Pearl"), options, task, result);
+
+        then("the account is found in the cache");
+        assertSuccess(result);
+        assertCounterIncrement(InternalCounters.SHADOW_FETCH_OPERATION_COUNT, 0);
+        assertThat(byNewValue)
+                .as("accounts found by current value")
+                .extracting(PrismObject::getOid)
+                .containsExactly(jackOid);
+        PrismProperty<?> weapon =
+                byNewValue.get(0).findProperty(getAttributePath(DUMMY_ACCOUNT_ATTRIBUTE_WEAPON_NAME));
+        assertThat(weapon).as("weapon").isNotNull();
+        assertThat(weapon.isIncomplete()).as("weapon incomplete").isTrue();
+    }
+
+    /** Associations are served from the cache, and updated when read from the resource. */
+    @Test
+    public void test150AssociationsCached() throws Exception {
+        OperationResult result = getTestOperationResult();
+
+        given("jack is added to rt-officers on the resource");
+        dummyResource.getGroupByName(GROUP_OFFICERS_NAME).addMember(ACCOUNT_JACK_NAME);
+
+        expect("cached associations are returned within the time to live");
+        assertThat(getGroups(getJack(null, result))).as("groups (cached)").containsExactly(GROUP_CREW_NAME);
+
+        and("current associations are returned when asked for current data");
+        assertThat(getGroups(getJack(GetOperationOptions.createStaleness(0L), result)))
+                .as("groups (current)")
+                .containsExactlyInAnyOrder(GROUP_CREW_NAME, GROUP_OFFICERS_NAME);
+
+        and("they are cached then");
+        rememberCounter(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
+        assertThat(getGroups(getJack(null, result)))
+                .as("groups (cached)")
+                .containsExactlyInAnyOrder(GROUP_CREW_NAME, GROUP_OFFICERS_NAME);
+        assertCounterIncrement(InternalCounters.SHADOW_FETCH_OPERATION_COUNT, 0);
+        assertSuccess(result);
+    }
+
+    /**
+     * Searches for groups (cached only by the resource-wide policy) go to the resource even if they tolerate staleness,
+     * so they find also the objects that have no shadows yet.
+     */
+    @Test
+    public void test160SearchWithoutTypeCachingPolicyGoesToResource() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("a group is created on the resource, without midPoint knowing");
+        dummyResource.addGroup(new DummyGroup(GROUP_GUNNERS_NAME));
+
+        when("groups are searched for with the staleness of one hour");
+        rememberCounter(InternalCounters.SHADOW_FETCH_OPERATION_COUNT);
+        List<PrismObject<ShadowType>> groups = provisioningService.searchObjects(ShadowType.class,
+                ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID, RI_GROUP_OBJECT_CLASS),
+                SelectorOptions.createCollection(GetOperationOptions.createStaleness(3600_000L)), task, result);
+
+        then("the resource is searched, and the new group is found");
+        assertSuccess(result);
+        assertCounterIncrement(InternalCounters.SHADOW_FETCH_OPERATION_COUNT, 1);
+        assertThat(groups)
+                .as("groups found")
+                .extracting(group -> group.getName().getOrig())
+                .containsExactlyInAnyOrder(GROUP_CREW_NAME, GROUP_OFFICERS_NAME, GROUP_GUNNERS_NAME);
+    }
+
+    private PrismObject<ShadowType> getJack(GetOperationOptions rootOptions, OperationResult result) throws Exception {
+        return provisioningService.getObject(ShadowType.class, jackOid,
+                rootOptions != null ? SelectorOptions.createCollection(rootOptions) : null, getTestTask(), result);
+    }
+
+    private Map<String, String> searchShadowOids(QName objectClassName, Task task,
+            OperationResult result) throws Exception {
+        return provisioningService.searchObjects(ShadowType.class,
+                        ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID, objectClassName),
+                        null, task, result)
+                .stream()
+                .collect(Collectors.toMap(shadow -> shadow.getName().getOrig(), PrismObject::getOid));
+    }
+
+    private ObjectQuery createShipQuery(String ship) throws Exception {
+        PrismObject<ResourceType> resource = provisioningService.getObject(
+                ResourceType.class, RESOURCE_DUMMY_OID, null, getTestTask(), getTestOperationResult());
+        ResourceObjectDefinition accountDef = ResourceSchemaFactory.getCompleteSchemaRequired(resource.asObjectable())
+                .findObjectClassDefinitionRequired(RI_ACCOUNT_OBJECT_CLASS);
+        ResourceAttributeDefinition<?> shipDef = accountDef.findAttributeDefinitionRequired(
+                dummyResourceCtl.getAttributeQName(DUMMY_ACCOUNT_ATTRIBUTE_SHIP_NAME));
+        return prismContext.queryFor(ShadowType.class)
+                .item(ShadowType.F_RESOURCE_REF).ref(RESOURCE_DUMMY_OID)
+                .and().item(ShadowType.F_OBJECT_CLASS).eq(RI_ACCOUNT_OBJECT_CLASS)
+                .and().itemWithDef(shipDef, ShadowType.F_ATTRIBUTES, shipDef.getItemName()).eq(ship)
+                .build();
+    }
+
+    private ItemPath getAttributePath(String attributeName) {
+        return ItemPath.create(ShadowType.F_ATTRIBUTES, dummyResourceCtl.getAttributeQName(attributeName));
+    }
+
+    private Collection<?> getAttributeValues(PrismObject<ShadowType> shadow, String attributeName) {
+        PrismProperty<?> property = shadow.findProperty(getAttributePath(attributeName));
+        return property != null ? property.getRealValues() : List.of();
+    }
+
+    /** Returns names of the groups jack is associated with. */
+    private Set<String> getGroups(PrismObject<ShadowType> shadow) {
+        Map<String, String> groupNames = groupOids.entrySet().stream()
+                .collect(Collectors.toMap(Map.Entry::getValue, Map.Entry::getKey));
+        return shadow.asObjectable().getAssociation().stream()
+                .map(association -> groupNames.get(association.getShadowRef().getOid()))
+                .collect(Collectors.toSet());
+    }
+}
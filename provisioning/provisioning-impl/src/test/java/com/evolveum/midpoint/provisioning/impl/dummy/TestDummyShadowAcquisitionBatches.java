@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.provisioning.impl.dummy;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import static com.evolveum.midpoint.schema.constants.SchemaConstants.RI_ACCOUNT_OBJECT_CLASS;
+
+import java.io.File;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.testng.annotations.Test;
+
+import com.evolveum.icf.dummy.resource.DummyAccount;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.schema.ResultHandler;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.task.api.Task;
+import com.evolveum.midpoint.test.util.ParallelTestThread;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ShadowType;
+
+/**
+ * Tests acquisition of shadows in batches during resource searches,
+ * see {@link com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceConsistencyType#getShadowAcquisitionBatchSize()}.
+ *
+ * The batch size is 5. Checks that there is always exactly one shadow for each account found, even if searches run
+ * concurrently, and that no shadows are left for accounts that were not processed because the search was stopped.
+ */
+@ContextConfiguration(locations = "classpath:ctx-provisioning-test-main.xml")
+@DirtiesContext
+public class TestDummyShadowAcquisitionBatches extends AbstractDummyTest {
+
+    private static final File TEST_DIR = new File(TEST_DIR_DUMMY, "dummy-acquisition-batches");
+    private static final File RESOURCE_DUMMY_FILE = new File(TEST_DIR, "resource-dummy.xml");
+
+    private static final long WAIT_TIMEOUT = 60000L;
+    private static final int CONCURRENT_SEARCHES = 4;
+
+    @Override
+    protected File getResourceDummyFile() {
+        return RESOURCE_DUMMY_FILE;
+    }
+
+    @Test
+    public void test000Sanity() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        when();
+        OperationResult testResult = provisioningService.testResource(RESOURCE_DUMMY_OID, task, result);
+
+        then();
+        assertSuccess(testResult);
+    }
+
+    /** Shadows for new accounts are created, the existing shadow (daemon) is used. */
+    @Test
+    public void test100SearchNewAccounts() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("12 new accounts (i.e. more than two batches)");
+        addAccounts("new", 12);
+
+        when();
+        List<PrismObject<ShadowType>> shadows =
+                provisioningService.searchObjects(ShadowType.class, createAccountQuery(), null, task, result);
+
+        then();
+        assertSuccess(result);
+        assertThat(shadows).as("shadows found").hasSize(13);
+        assertOneRepoShadowPerAccount();
+        assertThat(shadows)
+                .as("daemon shadow")
+                .filteredOn(shadow -> ACCOUNT_DAEMON_USERNAME.equals(shadow.getName().getOrig()))
+                .singleElement()
+                .extracting(PrismObject::getOid)
+                .isEqualTo(ACCOUNT_DAEMON_OID);
+    }
+
+    /** All shadows exist now, so they are all found in the repository and none are created. */
+    @Test
+    public void test110SearchAgain() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given();
+        Map<String, String> oidsBefore = getRepoShadowOids();
+
+        when();
+        List<PrismObject<ShadowType>> shadows =
+                provisioningService.searchObjects(ShadowType.class, createAccountQuery(), null, task, result);
+
+        then();
+        assertSuccess(result);
+        assertThat(shadows).as("shadows found").hasSize(13);
+        assertThat(getRepoShadowOids()).as("repo shadows").isEqualTo(oidsBefore);
+        for (PrismObject<ShadowType> shadow : shadows) {
+            assertThat(shadow.getOid())
+                    .as("OID of " + shadow)
+                    .isEqualTo(oidsBefore.get(shadow.getName().getOrig()));
+        }
+    }
+
+    /**
+     * Concurrent searches try to create the same shadows. Conflicts are resolved by individual acquisition,
+     * so there must be no duplicate shadows, and no errors.
+     */
+    @Test
+    public void test120ConcurrentSearches() throws Exception {
+        given("23 new accounts");
+        addAccounts("concurrent", 23);
+
+        when();
+        String testName = getTestNameShort();
+        ParallelTestThread[] threads = multithread(
+                (i) -> {
+                    Task localTask = createTask(testName + "-thread-" + i);
+                    OperationResult localResult = localTask.getResult();
+                    List<PrismObject<ShadowType>> shadows = provisioningService.searchObjects(
+                            ShadowType.class, createAccountQuery(), null, localTask, localResult);
+                    localResult.computeStatusIfUnknown();
+                    assertThat(localResult.isError()).as("error in " + localResult).isFalse();
+                    assertThat(shadows).as("shadows found by thread " + i).hasSize(36);
+                }, CONCURRENT_SEARCHES, 10);
+
+        then();
+        waitForThreads(threads, WAIT_TIMEOUT);
+        assertOneRepoShadowPerAccount();
+    }
+
+    /**
+     * The search is stopped in the middle of a batch. Shadows are kept only for the accounts that were processed,
+     * not for the rest of the batch nor for the following batches.
+     */
+    @Test
+    public void test130StopInTheMiddleOfBatch() throws Exception {
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        given("10 new accounts, found after all the existing ones");
+        List<String> names = addAccounts("stop", 10);
+
+        when("the search is stopped after the second new account");
+        Set<String> processed = new HashSet<>();
+        ResultHandler<ShadowType> handler = (shadow, lResult) -> {
+            String name = shadow.getName().getOrig();
+            if (names.contains(name)) {
+                processed.add(name);
+            }
+            return processed.size() < 2;
+        };
+        provisioningService.searchObjectsIterative(ShadowType.class, createAccountQuery(), null, handler, task, result);
+
+        then();
+        result.computeStatusIfUnknown();
+        assertThat(result.isError()).as("error in " + result).isFalse();
+        assertThat(processed).as("processed accounts").containsExactlyInAnyOrder(names.get(0), names.get(1));
+        Set<String> withShadows = new HashSet<>(getRepoShadowOids().keySet());
+        withShadows.retainAll(names);
+        assertThat(withShadows).as("new accounts having shadows").isEqualTo(processed);
+
+        when("the search is repeated without stopping");
+        OperationResult secondResult = createOperationResult("second search");
+        provisioningService.searchObjects(ShadowType.class, createAccountQuery(), null, task, secondResult);
+
+        then("all accounts have their shadows");
+        assertSuccess(secondResult);
+        assertThat(getRepoShadowOids().keySet()).as("accounts with shadows").containsAll(names);
+        assertOneRepoShadowPerAccount();
+    }
+
+    private List<String> addAccounts(String prefix, int count) throws Exception {
+        List<String> names = IntStream.range(0, count)
+                .mapToObj(i -> String.format("%s-%02d", prefix, i))
+                .collect(Collectors.toList());
+        for (String name : names) {
+            DummyAccount account = new DummyAccount(name);
+            account.setEnabled(true);
+            dummyResource.addAccount(account);
+        }
+        return names;
+    }
+
+    private ObjectQuery createAccountQuery() {
+        return ObjectQueryUtil.createResourceAndObjectClassQuery(RESOURCE_DUMMY_OID, RI_ACCOUNT_OBJECT_CLASS);
+    }
+
+    private List<PrismObject<ShadowType>> getRepoShadows() throws Exception {
+        return repositoryService.searchObjects(ShadowType.class, createAccountQuery(), null, getTestOperationResult());
+    }
+
+    /** Returns OIDs of the repo shadows, keyed by name. */
+    private Map<String, String> getRepoShadowOids() throws Exception {
+        return getRepoShadows().stream()
+                .collect(Collectors.toMap(shadow -> shadow.getName().getOrig(), PrismObject::getOid));
+    }
+
+    private void assertOneRepoShadowPerAccount() throws Exception {
+        List<PrismObject<ShadowType>> repoShadows = getRepoShadows();
+        display("Repo shadows", repoShadows);
+        Set<String> accountNames = dummyResource.listAccounts().stream()
+                .map(DummyAccount::getName)
+                .collect(Collectors.toSet());
+        assertThat(repoShadows)
+                .as("repo shadows")
+                .extracting(shadow -> shadow.getName().getOrig())
+                .doesNotHaveDuplicates()
+                .containsExactlyInAnyOrderElementsOf(accountNames);
+    }
+}
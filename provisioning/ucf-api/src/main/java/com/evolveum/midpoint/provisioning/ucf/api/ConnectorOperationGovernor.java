@@ -0,0 +1,451 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.provisioning.ucf.api;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BooleanSupplier;
+import java.util.function.LongSupplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.VisibleForTesting;
+
+import com.evolveum.midpoint.schema.statistics.ProvisioningOperation;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ConnectorGovernorType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ConnectorOperationLimitsType;
+
+import static com.evolveum.midpoint.util.MiscUtil.or0;
+
+/**
+ * Limits the connector operations executed on a resource (on this node): the number of operations in flight
+ * and the number of operations started per second, both for the resource as a whole and for individual
+ * operation types. See {@link ConnectorGovernorType}.
+ *
+ * 1. The callers that cannot proceed wait in the order of their arrival. A caller is let through only if no earlier
+ * caller that could proceed is waiting. (An earlier caller blocked by the limit of its own operation type does not
+ * block callers of other operation types.)
+ * 2. If adaptive, the limits are scaled down by half when an operation signals that the resource is overloaded
+ * (a communication failure or a latency above the threshold), and scaled up by a small constant after each
+ * successful operation. Only operations started after the last decrease can cause another decrease, so a single
+ * burst of failures halves the limits only once.
+ * 3. When the configuration changes, the limits are updated in place, see {@link #update(ConnectorGovernorType)}.
+ * The operations in flight are still counted, so the new limits apply to them as well.
+ *
+ * Permits are reentrant per thread: a nested request is granted without consuming the capacity.
+ *
+ * A suspended operation (e.g. a search that returned an object to the caller) releases its permit, and acquires
+ * a new one when it resumes, see {@link #acquireForResume(ProvisioningOperation, BooleanSupplier)}. Resuming is subject
+ * to the concurrency limits but not to the rate limits: the operation was counted when it started.
+ */
+public class ConnectorOperationGovernor {
+
+    private static final Trace LOGGER = TraceManager.getTrace(ConnectorOperationGovernor.class);
+
+    /** How often a waiting thread checks whether its task can still run (in milliseconds). */
+    private static final long CAN_RUN_CHECK_INTERVAL = 1000L;
+
+    /** The lowest scale the adaptive limits can get to. */
+    private static final double MIN_SCALE = 0.05;
+
+    /** Multiplicative decrease of the scale on overload. */
+    private static final double DECREASE_FACTOR = 0.5;
+
+    /** Additive increase of the scale after a successful operation. */
+    private static final double INCREASE_STEP = 0.01;
+
+    @NotNull private final String resourceOid;
+
+    /** Source of the current time (in milliseconds). Replaceable for tests. */
+    @NotNull private final LongSupplier clock;
+
+    /** The configuration currently applied. Guarded by this. */
+    @NotNull private ConnectorGovernorType configuration;
+
+    /**
+     * The configuration object last checked by {@link #update(ConnectorGovernorType)}. Resources are cached
+     * as immutable objects, so the same configuration object is usually presented for each operation; it is then
+     * not compared again.
+     */
+    private volatile ConnectorGovernorType lastCheckedConfiguration;
+
+    @NotNull private final Limiter resourceLimiter = new Limiter();
+
+    /**
+     * Limiters for individual operation types, keyed by operation name (e.g. `search`). They are created on first use,
+     * even if the operation type is not limited, so that its operations are counted if it becomes limited later.
+     * Guarded by this.
+     */
+    @NotNull private final Map<String, Limiter> operationLimiters = new HashMap<>();
+
+    /** Guarded by this. */
+    private boolean adaptive;
+
+    /** Zero means that the latency is not considered. Guarded by this. */
+    private long latencyThreshold;
+
+    /** Callers waiting for a permit, in the order of arrival. Guarded by this. */
+    @NotNull private final List<Waiter> waiters = new ArrayList<>();
+
+    /** Whether the current thread holds a permit. */
+    private final ThreadLocal<Boolean> holdingPermit = new ThreadLocal<>();
+
+    public ConnectorOperationGovernor(@NotNull String resourceOid, @NotNull ConnectorGovernorType configuration) {
+        this(resourceOid, configuration, System::currentTimeMillis);
+    }
+
+    @VisibleForTesting
+    ConnectorOperationGovernor(
+            @NotNull String resourceOid, @NotNull ConnectorGovernorType configuration, @NotNull LongSupplier clock) {
+        this.resourceOid = resourceOid;
+        this.clock = clock;
+        this.configuration = configuration.clone();
+        applyConfiguration();
+        this.lastCheckedConfiguration = configuration;
+    }
+
+    /**
+     * Applies the configuration, if it differs from the current one. The scale of the adaptive limits is kept,
+     * unless the adaptivity is switched off.
+     */
+    public void update(@NotNull ConnectorGovernorType configuration) {
+        if (configuration == lastCheckedConfiguration) {
+            return;
+        }
+        synchronized (this) {
+            if (!this.configuration.equals(configuration)) {
+                LOGGER.debug("Updating connector operation governor for {}", resourceOid);
+                this.configuration = configuration.clone();
+                applyConfiguration();
+                notifyAll(); // the limits may have been raised
+            }
+            lastCheckedConfiguration = configuration;
+        }
+    }
+
+    /** Sets the limits according to {@link #configuration}. Must be guarded by this (or called from the constructor). */
+    private void applyConfiguration() {
+        resourceLimiter.setLimits(
+                or0(configuration.getMaxConcurrentOperations()),
+                configuration.getMaxOperationsPerSecond());
+        operationLimiters.forEach((name, limiter) -> limiter.setLimits(0, null));
+        for (ConnectorOperationLimitsType limits : configuration.getOperation()) {
+            if (limits.getOperationType() != null) {
+                operationLimiters.computeIfAbsent(limits.getOperationType(), k -> new Limiter())
+                        .setLimits(or0(limits.getMaxConcurrentOperations()), limits.getMaxOperationsPerSecond());
+            }
+        }
+        adaptive = Boolean.TRUE.equals(configuration.isAdaptive());
+        if (!adaptive) {
+            resourceLimiter.scale = 1.0;
+            operationLimiters.values().forEach(limiter -> limiter.scale = 1.0);
+        }
+        latencyThreshold = or0(configuration.getLatencyThreshold());
+    }
+
+    /**
+     * Acquires a permit for given operation. Blocks until the limits allow the operation to start.
+     *
+     * @throws PermitNotAcquiredException If the task was asked to stop, or the thread was interrupted, while waiting.
+     * The operation must not be started then.
+     */
+    public @NotNull Permit acquire(@NotNull ProvisioningOperation operation, @NotNull BooleanSupplier canRunSupplier) {
+        return acquire(operation, true, canRunSupplier);
+    }
+
+    /**
+     * Acquires a permit for an operation that was started before, then suspended, and is being resumed now.
+     * Only the concurrency limits apply: the operation was counted towards the rate limits when it started.
+     * (Otherwise a search would be throttled per returned object, as it resumes after each one.)
+     *
+     * @throws PermitNotAcquiredException If the task was asked to stop, or the thread was interrupted, while waiting.
+     */
+    public @NotNull Permit acquireForResume(
+            @NotNull ProvisioningOperation operation, @NotNull BooleanSupplier canRunSupplier) {
+        return acquire(operation, false, canRunSupplier);
+    }
+
+    private @NotNull Permit acquire(
+            @NotNull ProvisioningOperation operation, boolean rateLimited, @NotNull BooleanSupplier canRunSupplier) {
+        if (holdingPermit.get() != null) {
+            return Permit.NONE;
+        }
+        long start = clock.getAsLong();
+        Limiter operationLimiter;
+        synchronized (this) {
+            operationLimiter = operationLimiters.computeIfAbsent(operation.getName(), k -> new Limiter());
+            Waiter waiter = new Waiter(operationLimiter, rateLimited);
+            waiters.add(waiter);
+            try {
+                for (;;) {
+                    long delay = getDelay(waiter, clock.getAsLong());
+                    if (delay == 0) {
+                        break;
+                    }
+                    if (!canRunSupplier.getAsBoolean()) {
+                        LOGGER.trace("Task cannot run, not waiting for the {} permit on {} anymore", operation, resourceOid);
+                        throw new PermitNotAcquiredException(
+                                "Task is being stopped, not starting " + operation + " operation on " + resourceOid);
+                    }
+                    try {
+                        wait(delay > 0 ? Math.min(delay, CAN_RUN_CHECK_INTERVAL) : CAN_RUN_CHECK_INTERVAL);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new PermitNotAcquiredException(
+                                "Interrupted while waiting to start " + operation + " operation on " + resourceOid, e);
+                    }
+                }
+                long now = clock.getAsLong();
+                resourceLimiter.onStart(now, rateLimited);
+                operationLimiter.onStart(now, rateLimited);
+            } finally {
+                waiters.remove(waiter);
+                notifyAll(); // the waiters behind us may be able to proceed now
+            }
+        }
+        holdingPermit.set(true);
+        long acquiredAt = clock.getAsLong();
+        long waitTime = acquiredAt - start;
+        if (waitTime > 0) {
+            LOGGER.trace("Waited {} ms for the {} permit on {}", waitTime, operation, resourceOid);
+        }
+        return new GovernedPermit(operationLimiter, waitTime, acquiredAt);
+    }
+
+    /**
+     * Returns 0 if the waiter can proceed now, a positive number of milliseconds if it can proceed after that time
+     * (because of the rate limits), and -1 if it has to wait for a permit to be released.
+     *
+     * A waiter that is not rate limited still respects the arrival order with regard to the concurrency limits.
+     */
+    private long getDelay(Waiter waiter, long now) {
+        if (!resourceLimiter.hasFreeCapacity() || !waiter.hasFreeCapacity()) {
+            return -1;
+        }
+        for (Waiter other : waiters) {
+            if (other == waiter) {
+                break;
+            } else if (other.hasFreeCapacity()) {
+                return -1; // the earlier caller goes first
+            }
+        }
+        if (!waiter.rateLimited) {
+            return 0;
+        }
+        return Math.max(
+                resourceLimiter.getRateDelay(now),
+                waiter.operationLimiter.getRateDelay(now));
+    }
+
+    private synchronized void release(@NotNull Limiter operationLimiter, long acquiredAt, boolean overloaded) {
+        long now = clock.getAsLong();
+        boolean overloadSignal = adaptive &&
+                (overloaded || latencyThreshold > 0 && now - acquiredAt > latencyThreshold);
+        resourceLimiter.onEnd(acquiredAt, now, overloadSignal, adaptive);
+        operationLimiter.onEnd(acquiredAt, now, overloadSignal, adaptive);
+        notifyAll();
+    }
+
+    /** Effective (i.e. scaled) maximum number of concurrent operations of given type, or of all types (if null). */
+    @VisibleForTesting
+    synchronized int getEffectiveMaxConcurrent(@Nullable ProvisioningOperation operation) {
+        Limiter limiter = operation != null ? operationLimiters.get(operation.getName()) : resourceLimiter;
+        return limiter != null && limiter.maxConcurrent > 0 ? limiter.getEffectiveMaxConcurrent() : 0;
+    }
+
+    @VisibleForTesting
+    synchronized int getWaitingCount() {
+        return waiters.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "ConnectorOperationGovernor{" +
+                "resourceOid='" + resourceOid + '\'' +
+                ", resourceLimiter=" + resourceLimiter +
+                ", operationLimiters=" + operationLimiters +
+                '}';
+    }
+
+    /**
+     * Permit to execute a connector operation. Must be closed when the operation ends (or is suspended).
+     * The pattern is the same as for {@link com.evolveum.midpoint.task.api.ExecutionSlot}.
+     */
+    public interface Permit extends AutoCloseable {
+
+        /** Permit that does not hold any capacity, e.g. a nested one. */
+        Permit NONE = new Permit() {
+            @Override
+            public long getWaitTime() {
+                return 0;
+            }
+
+            @Override
+            public void markOverloaded() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+
+        /** How long (in milliseconds) the caller waited for the permit. */
+        long getWaitTime();
+
+        /**
+         * Records that the operation failed in a way signalling that the resource is overloaded.
+         * Taken into account when the permit is closed.
+         */
+        void markOverloaded();
+
+        /** Releases the permit. Must be called from the thread that acquired it. */
+        @Override
+        void close();
+    }
+
+    /** Thrown if the permit could not be acquired because the task is being stopped or the thread was interrupted. */
+    public static class PermitNotAcquiredException extends SystemException {
+
+        PermitNotAcquiredException(String message) {
+            super(message);
+        }
+
+        PermitNotAcquiredException(String message, Throwable cause) {
+            super(message, cause);
+        }
+    }
+
+    private class GovernedPermit implements Permit {
+
+        @NotNull private final Limiter operationLimiter;
+        private final long waitTime;
+        private final long acquiredAt;
+        private boolean overloaded;
+        private boolean closed;
+
+        private GovernedPermit(@NotNull Limiter operationLimiter, long waitTime, long acquiredAt) {
+            this.operationLimiter = operationLimiter;
+            this.waitTime = waitTime;
+            this.acquiredAt = acquiredAt;
+        }
+
+        @Override
+        public long getWaitTime() {
+            return waitTime;
+        }
+
+        @Override
+        public void markOverloaded() {
+            overloaded = true;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            holdingPermit.remove();
+            release(operationLimiter, acquiredAt, overloaded);
+        }
+    }
+
+    /** Caller waiting for a permit. */
+    private static class Waiter {
+
+        @NotNull private final Limiter operationLimiter;
+
+        /** False for resumed operations. */
+        private final boolean rateLimited;
+
+        private Waiter(@NotNull Limiter operationLimiter, boolean rateLimited) {
+            this.operationLimiter = operationLimiter;
+            this.rateLimited = rateLimited;
+        }
+
+        private boolean hasFreeCapacity() {
+            return operationLimiter.hasFreeCapacity();
+        }
+    }
+
+    /** Limits for the resource or for an operation type. Guarded by the governor. */
+    private static class Limiter {
+
+        /** Zero means not limited. */
+        private int maxConcurrent;
+
+        /** Null means not limited. */
+        @Nullable private Double maxPerSecond;
+
+        /** Scale of the limits, from {@link #MIN_SCALE} to 1. Changed only for adaptive governors. */
+        private double scale = 1.0;
+
+        /** When was the scale last decreased. */
+        private long lastDecrease;
+
+        private int inFlight;
+
+        /** The earliest time when the next operation can start, because of the rate limit. */
+        private long nextStart;
+
+        private void setLimits(int maxConcurrent, @Nullable Double maxPerSecond) {
+            this.maxConcurrent = maxConcurrent;
+            this.maxPerSecond = maxPerSecond != null && maxPerSecond > 0 ? maxPerSecond : null;
+            if (this.maxPerSecond == null) {
+                nextStart = 0;
+            }
+        }
+
+        private boolean hasFreeCapacity() {
+            return maxConcurrent <= 0 || inFlight < getEffectiveMaxConcurrent();
+        }
+
+        private int getEffectiveMaxConcurrent() {
+            return Math.max(1, (int) Math.round(maxConcurrent * scale));
+        }
+
+        private long getRateDelay(long now) {
+            return Math.max(nextStart - now, 0);
+        }
+
+        private void onStart(long now, boolean rateLimited) {
+            inFlight++;
+            if (rateLimited && maxPerSecond != null) {
+                nextStart = Math.max(nextStart, now) + (long) (1000.0 / (maxPerSecond * scale));
+            }
+        }
+
+        private void onEnd(long startedAt, long now, boolean overloadSignal, boolean adaptive) {
+            inFlight--;
+            if (overloadSignal) {
+                if (startedAt > lastDecrease) {
+                    scale = Math.max(scale * DECREASE_FACTOR, MIN_SCALE);
+                    lastDecrease = now;
+                    LOGGER.debug("Decreased the connector operation limits scale to {}: {}", scale, this);
+                }
+            } else if (adaptive && scale < 1.0) {
+                scale = Math.min(scale + INCREASE_STEP, 1.0);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return "Limiter{" +
+                    "maxConcurrent=" + maxConcurrent +
+                    ", maxPerSecond=" + maxPerSecond +
+                    ", scale=" + scale +
+                    ", inFlight=" + inFlight +
+                    '}';
+        }
+    }
+}
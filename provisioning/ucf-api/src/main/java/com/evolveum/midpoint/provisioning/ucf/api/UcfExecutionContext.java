@@ -37,6 +37,10 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ResourceType;
  *
  * 2. Lets the called method know if the task was suspended (see {@link #canRun()}).
  *
+ * 3. Applies the limits of the {@link ConnectorOperationGovernor} (if present) to the operations: a permit is acquired
+ * when an operation starts or resumes, and released when it is suspended or ends. Only the start counts towards
+ * the rate limits.
+ *
  * Because of a complex nature of some operations (search and sync) this task has to keep some information
  * about the current operation being executed.
  */
@@ -57,17 +61,33 @@ public class UcfExecutionContext {
      */
     private ConnIdOperation currentOperation;
 
+    /** Limits the operations on the resource. Null if there are no limits. */
+    @Nullable private final ConnectorOperationGovernor governor;
+
+    /** Permit held by the current operation. */
+    @NotNull private ConnectorOperationGovernor.Permit currentPermit = ConnectorOperationGovernor.Permit.NONE;
+
     public UcfExecutionContext(
             @NotNull LightweightIdentifierGenerator lightweightIdentifierGenerator,
             @NotNull ResourceType resource,
             Task task) {
+        this(lightweightIdentifierGenerator, resource, task, null);
+    }
+
+    public UcfExecutionContext(
+            @NotNull LightweightIdentifierGenerator lightweightIdentifierGenerator,
+            @NotNull ResourceType resource,
+            Task task,
+            @Nullable ConnectorOperationGovernor governor) {
         this.lightweightIdentifierGenerator = lightweightIdentifierGenerator;
         this.resource = resource;
         this.task = task;
+        this.governor = governor;
     }
 
     public @NotNull ConnIdOperation recordIcfOperationStart(@NotNull ProvisioningOperation operationKind,
             @Nullable ResourceObjectDefinition objectClassDef, @Nullable String uid) {
+        long waitTime = acquirePermit(operationKind, false);
         ConnIdOperation operation = ConnIdOperation.ConnIdOperationBuilder.aConnIdOperation()
                 .withIdentifier(lightweightIdentifierGenerator.generate().toString())
                 .withOperation(operationKind)
@@ -75,6 +95,7 @@ public class UcfExecutionContext {
                 .withObjectClassDef(objectClassDef != null ? objectClassDef.getObjectClassDefinition() : null)
                 .withUid(uid)
                 .build();
+        operation.addWaitTime(waitTime);
 
         LOGGER.trace("recordIcfOperationStart: {} in {}", operation, task);
         if (currentOperation != null) {
@@ -98,6 +119,7 @@ public class UcfExecutionContext {
     }
 
     public void recordIcfOperationSuspend(@NotNull ConnIdOperation operation) {
+        releasePermit(false);
         ResourceObjectClassDefinition objectClassDef = operation.getObjectClassDef();
         if (operation != currentOperation) {
             LOGGER.warn("Suspending operation other than current: suspending {}, recorded current {}, task {}",
@@ -113,7 +135,18 @@ public class UcfExecutionContext {
         recordState("Returned from " + operation + " of " + getObjectClassName(objectClassDef) + " on " + getResourceName());
     }
 
+    /**
+     * If the permit cannot be acquired (because the task is being stopped), the operation is still recorded as resumed,
+     * so that it can be ended in the usual way; the exception is then rethrown to abort the operation.
+     */
     public void recordIcfOperationResume(ConnIdOperation operation) {
+        ConnectorOperationGovernor.PermitNotAcquiredException notAcquired = null;
+        try {
+            operation.addWaitTime(
+                    acquirePermit(operation.getOperation(), true));
+        } catch (ConnectorOperationGovernor.PermitNotAcquiredException e) {
+            notAcquired = e;
+        }
         operation.onResume();
         if (currentOperation != null) {
             LOGGER.warn("Unfinished operation: {} in {}", currentOperation, task);
@@ -126,10 +159,22 @@ public class UcfExecutionContext {
         }
         currentOperation = operation;
         recordState("Continuing " + operation + " of " + getObjectClassName(operation.getObjectClassDef()) + " on " + getResourceName());
+        if (notAcquired != null) {
+            throw notAcquired;
+        }
     }
 
     public void recordIcfOperationEnd(ConnIdOperation operation, Throwable ex) {
+        recordIcfOperationEnd(operation, ex, false);
+    }
+
+    /**
+     * @param overloaded Whether the exception signals that the resource is overloaded (e.g. a connection failure
+     * or a timeout). Used by the {@link ConnectorOperationGovernor}.
+     */
+    public void recordIcfOperationEnd(ConnIdOperation operation, Throwable ex, boolean overloaded) {
         LOGGER.trace("recordIcfOperationEnd: operation={}, currentOperation={}, task={}", operation, currentOperation, task);
+        releasePermit(overloaded);
         operation.onEnd();
 
         boolean relevant;
@@ -170,6 +215,26 @@ public class UcfExecutionContext {
         currentOperation = null;
     }
 
+    private long acquirePermit(@NotNull ProvisioningOperation operationKind, boolean resuming) {
+        if (governor == null) {
+            return 0;
+        }
+        currentPermit.close(); // in case the previous operation was not finished
+        currentPermit = ConnectorOperationGovernor.Permit.NONE;
+        currentPermit = resuming ?
+                governor.acquireForResume(operationKind, this::canRun) :
+                governor.acquire(operationKind, this::canRun);
+        return currentPermit.getWaitTime();
+    }
+
+    private void releasePermit(boolean overloaded) {
+        if (overloaded) {
+            currentPermit.markOverloaded();
+        }
+        currentPermit.close();
+        currentPermit = ConnectorOperationGovernor.Permit.NONE;
+    }
+
     private String getResourceName() {
         return getOrig(resource.getName());
     }
@@ -0,0 +1,422 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.provisioning.ucf.api;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.provisioning.ucf.api.ConnectorOperationGovernor.Permit;
+import com.evolveum.midpoint.provisioning.ucf.api.ConnectorOperationGovernor.PermitNotAcquiredException;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.statistics.ProvisioningOperation;
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ConnectorGovernorType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ConnectorOperationLimitsType;
+
+/**
+ * Tests {@link ConnectorOperationGovernor}: order of waiting callers, rate limiting, adaptive decrease and recovery
+ * of the limits, reentrancy, reconfiguration, giving up when the task is stopped, and resuming of suspended operations.
+ *
+ * Permits held concurrently are acquired by separate threads (see {@link Holder}), because the permits are reentrant
+ * per thread.
+ */
+public class TestConnectorOperationGovernor extends AbstractUnitTest {
+
+    private static final String RESOURCE_OID = "10000000-0000-0000-0000-000000000000";
+
+    private static final long WAIT_TIMEOUT = 10000L;
+
+    private static final BooleanSupplier CAN_RUN = () -> true;
+
+    @BeforeSuite
+    public void setup() throws SchemaException, SAXException, IOException {
+        PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+    }
+
+    /** The waiting callers are let through in the order of their arrival. */
+    @Test
+    public void test100FifoOrder() throws Exception {
+        given("the only permit is held");
+        ConnectorOperationGovernor governor = createGovernor(new ConnectorGovernorType().maxConcurrentOperations(1));
+        Permit permit = governor.acquire(ProvisioningOperation.ICF_GET, CAN_RUN);
+
+        when("three callers arrive one after another");
+        List<Integer> order = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            int index = i;
+            Thread thread = new Thread(() -> {
+                governor.acquire(ProvisioningOperation.ICF_GET, CAN_RUN).close();
+                order.add(index);
+            });
+            thread.start();
+            threads.add(thread);
+            waitForWaitingCount(governor, i + 1);
+        }
+        permit.close();
+        for (Thread thread : threads) {
+            thread.join(WAIT_TIMEOUT);
+        }
+
+        then();
+        assertThat(order).as("order of acquisition").containsExactly(0, 1, 2);
+    }
+
+    /** A caller blocked by the limit of its own operation type does not block callers of other types. */
+    @Test
+    public void test110OperationLimitDoesNotBlockOthers() throws Exception {
+        given("the only search permit is held, and another search is waiting");
+        ConnectorOperationGovernor governor = createGovernor(
+                new ConnectorGovernorType()
+                        .operation(new ConnectorOperationLimitsType()
+                                .operationType(ProvisioningOperation.ICF_SEARCH.getName())
+                                .maxConcurrentOperations(1)));
+        Holder search1 = new Holder(governor, ProvisioningOperation.ICF_SEARCH).startAndWait();
+        Holder search2 = new Holder(governor, ProvisioningOperation.ICF_SEARCH);
+        search2.start();
+        waitForWaitingCount(governor, 1);
+
+        when("get is requested");
+        Holder get = new Holder(governor, ProvisioningOperation.ICF_GET).startAndWait();
+
+        then("get is let through, the second search still waits");
+        assertThat(search2.isAcquired()).as("second search acquired").isFalse();
+
+        when("the first search ends");
+        search1.release(false);
+
+        then("the second search is let through");
+        search2.waitForAcquisition();
+        search2.release(false);
+        get.release(false);
+    }
+
+    @Test
+    public void test120RateLimit() {
+        given("20 operations per second are allowed");
+        ConnectorOperationGovernor governor =
+                new ConnectorOperationGovernor(RESOURCE_OID, new ConnectorGovernorType().maxOperationsPerSecond(20.0));
+
+        when("5 operations are executed");
+        long start = System.currentTimeMillis();
+        long waitTime = 0;
+        for (int i = 0; i < 5; i++) {
+            Permit permit = governor.acquire(ProvisioningOperation.ICF_GET, CAN_RUN);
+            waitTime += permit.getWaitTime();
+            permit.close();
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        then("they take at least 4 intervals of 50 ms");
+        assertThat(duration).as("duration").isGreaterThanOrEqualTo(190);
+        assertThat(waitTime).as("wait time").isGreaterThan(0);
+    }
+
+    /**
+     * An overloaded operation halves the limit, but only if it started after the last decrease.
+     * Successful operations then restore the limit gradually.
+     */
+    @Test
+    public void test130AdaptiveDecreaseAndRecovery() throws Exception {
+        given();
+        AtomicLong clock = new AtomicLong(1000);
+        ConnectorOperationGovernor governor = createGovernor(
+                new ConnectorGovernorType().maxConcurrentOperations(10).adaptive(true), clock);
+        Holder first = new Holder(governor, ProvisioningOperation.ICF_GET).startAndWait();
+        Holder second = new Holder(governor, ProvisioningOperation.ICF_GET).startAndWait();
+
+        when("two operations started at the same time report overload");
+        clock.set(1010);
+        first.release(true);
+        second.release(true);
+
+        then("the limit is decreased only once");
+        assertThat(governor.getEffectiveMaxConcurrent(null)).as("limit").isEqualTo(5);
+
+        when("an operation started after the decrease reports overload");
+        clock.set(1020);
+        Holder third = new Holder(governor, ProvisioningOperation.ICF_GET).startAndWait();
+        clock.set(1030);
+        third.release(true);
+
+        then("the limit is decreased again");
+        assertThat(governor.getEffectiveMaxConcurrent(null)).as("limit").isEqualTo(3);
+
+        when("25 operations succeed");
+        executeSuccessfully(governor, 25);
+
+        then("the limit is increased by 0.01 of the maximum each time");
+        assertThat(governor.getEffectiveMaxConcurrent(null)).as("limit").isEqualTo(5);
+
+        when("many more operations succeed");
+        executeSuccessfully(governor, 100);
+
+        then("the limit gets back to the maximum, not above it");
+        assertThat(governor.getEffectiveMaxConcurrent(null)).as("limit").isEqualTo(10);
+    }
+
+    @Test
+    public void test140AdaptiveDecreaseOnLatency() {
+        given();
+        AtomicLong clock = new AtomicLong(1000);
+        ConnectorOperationGovernor governor = createGovernor(
+                new ConnectorGovernorType().maxConcurrentOperations(10).adaptive(true).latencyThreshold(100), clock);
+
+        when("an operation is faster than the threshold");
+        Permit fast = governor.acquire(ProvisioningOperation.ICF_GET, CAN_RUN);
+        clock.addAndGet(50);
+        fast.close();
+
+        then();
+        assertThat(governor.getEffectiveMaxConcurrent(null)).as("limit").isEqualTo(10);
+
+        when("an operation is slower than the threshold");
+        Permit slow = governor.acquire(ProvisioningOperation.ICF_GET, CAN_RUN);
+        clock.addAndGet(200);
+        slow.close();
+
+        then();
+        assertThat(governor.getEffectiveMaxConcurrent(null)).as("limit").isEqualTo(5);
+    }
+
+    @Test
+    public void test150NoDecreaseIfNotAdaptive() {
+        given();
+        ConnectorOperationGovernor governor = createGovernor(new ConnectorGovernorType().maxConcurrentOperations(10));
+
+        when();
+        Permit permit = governor.acquire(ProvisioningOperation.ICF_GET, CAN_RUN);
+        permit.markOverloaded();
+        permit.close();
+
+        then();
+        assertThat(governor.getEffectiveMaxConcurrent(null)).as("limit").isEqualTo(10);
+    }
+
+    /** A nested request is granted without consuming the capacity. Closing the nested permit releases nothing. */
+    @Test
+    public void test160Reentrancy() throws Exception {
+        given();
+        ConnectorOperationGovernor governor = createGovernor(new ConnectorGovernorType().maxConcurrentOperations(1));
+        Permit outer = governor.acquire(ProvisioningOperation.ICF_SEARCH, CAN_RUN);
+
+        when("a nested permit is acquired and closed");
+        Permit nested = governor.acquire(ProvisioningOperation.ICF_GET, CAN_RUN);
+        nested.close();
+
+        then("the outer permit is still held");
+        assertThat(nested).as("nested permit").isSameAs(Permit.NONE);
+        Holder other = new Holder(governor, ProvisioningOperation.ICF_GET);
+        other.start();
+        waitForWaitingCount(governor, 1);
+
+        when("the outer permit is closed (twice)");
+        outer.close();
+        outer.close();
+
+        then("the other thread gets the permit, and this thread can get a new one afterwards");
+        other.waitForAcquisition();
+        other.release(false);
+        Permit next = governor.acquire(ProvisioningOperation.ICF_GET, CAN_RUN);
+        assertThat(next).as("next permit").isNotSameAs(Permit.NONE);
+        next.close();
+    }
+
+    @Test
+    public void test170StoppedWhileWaiting() throws Exception {
+        given("the only permit is held");
+        ConnectorOperationGovernor governor = createGovernor(new ConnectorGovernorType().maxConcurrentOperations(1));
+        Holder holder = new Holder(governor, ProvisioningOperation.ICF_GET).startAndWait();
+
+        expect("a caller whose task is stopped gets an exception");
+        assertThatThrownBy(() -> governor.acquire(ProvisioningOperation.ICF_GET, () -> false))
+                .isInstanceOf(PermitNotAcquiredException.class);
+        assertThat(governor.getWaitingCount()).as("waiting callers").isZero();
+
+        and("so does an interrupted caller");
+        Thread.currentThread().interrupt();
+        assertThatThrownBy(() -> governor.acquire(ProvisioningOperation.ICF_GET, CAN_RUN))
+                .isInstanceOf(PermitNotAcquiredException.class)
+                .hasCauseInstanceOf(InterruptedException.class);
+        assertThat(Thread.interrupted()).as("interrupted flag").isTrue();
+
+        holder.release(false);
+    }
+
+    /** Changed limits apply to the operations in flight as well. Equal configuration changes nothing. */
+    @Test
+    public void test180Reconfiguration() throws Exception {
+        given("two operations are in flight");
+        AtomicLong clock = new AtomicLong(1000);
+        ConnectorOperationGovernor governor = createGovernor(
+                new ConnectorGovernorType().maxConcurrentOperations(2).adaptive(true), clock);
+        Holder first = new Holder(governor, ProvisioningOperation.ICF_GET).startAndWait();
+        Holder second = new Holder(governor, ProvisioningOperation.ICF_GET).startAndWait();
+
+        when("the limit is lowered to one, and one operation ends");
+        governor.update(new ConnectorGovernorType().maxConcurrentOperations(1).adaptive(true));
+        first.release(false);
+
+        then("a new operation has to wait for the other one");
+        Holder third = new Holder(governor, ProvisioningOperation.ICF_GET);
+        third.start();
+        waitForWaitingCount(governor, 1);
+        second.release(false);
+        third.waitForAcquisition();
+
+        when("an overload is reported, and an equal configuration is presented");
+        clock.set(2000);
+        third.release(true);
+        assertThat(governor.getEffectiveMaxConcurrent(null)).as("limit").isEqualTo(1);
+        governor.update(new ConnectorGovernorType().maxConcurrentOperations(10).adaptive(true));
+        clock.set(3000);
+        Permit permit = governor.acquire(ProvisioningOperation.ICF_GET, CAN_RUN);
+        clock.set(3010);
+        permit.markOverloaded();
+        permit.close();
+        governor.update(new ConnectorGovernorType().maxConcurrentOperations(10).adaptive(true));
+
+        then("the scale is kept");
+        assertThat(governor.getEffectiveMaxConcurrent(null)).as("limit").isEqualTo(3);
+
+        when("adaptivity is switched off");
+        governor.update(new ConnectorGovernorType().maxConcurrentOperations(10));
+
+        then("the limit is reset");
+        assertThat(governor.getEffectiveMaxConcurrent(null)).as("limit").isEqualTo(10);
+    }
+
+    /**
+     * Resumed operations (e.g. a search after each returned object) are not rate limited, as they were counted
+     * when started. They are still subject to the concurrency limits.
+     */
+    @Test
+    public void test190ResumeIsNotRateLimited() throws Exception {
+        given("20 operations per second and one concurrent operation are allowed, a search is started and suspended");
+        ConnectorOperationGovernor governor = new ConnectorOperationGovernor(RESOURCE_OID,
+                new ConnectorGovernorType().maxOperationsPerSecond(20.0).maxConcurrentOperations(1));
+        governor.acquire(ProvisioningOperation.ICF_SEARCH, CAN_RUN).close();
+
+        when("the search is resumed and suspended 10 times");
+        long start = System.currentTimeMillis();
+        long waitTime = 0;
+        for (int i = 0; i < 10; i++) {
+            Permit permit = governor.acquireForResume(ProvisioningOperation.ICF_SEARCH, CAN_RUN);
+            waitTime += permit.getWaitTime();
+            permit.close();
+        }
+        long duration = System.currentTimeMillis() - start;
+
+        then("the resumes do not wait for the rate limit (10 of them would take at least 450 ms)");
+        assertThat(duration).as("duration").isLessThan(250);
+        assertThat(waitTime).as("wait time").isLessThan(250);
+
+        when("the only permit is held by another operation");
+        Holder holder = new Holder(governor, ProvisioningOperation.ICF_GET).startAndWait();
+        CountDownLatch resumed = new CountDownLatch(1);
+        Thread resuming = new Thread(() -> {
+            governor.acquireForResume(ProvisioningOperation.ICF_SEARCH, CAN_RUN).close();
+            resumed.countDown();
+        });
+        resuming.start();
+
+        then("the resume waits for it");
+        waitForWaitingCount(governor, 1);
+        holder.release(false);
+        assertThat(resumed.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS)).as("resumed").isTrue();
+        resuming.join(WAIT_TIMEOUT);
+    }
+
+    private ConnectorOperationGovernor createGovernor(ConnectorGovernorType configuration) {
+        return createGovernor(configuration, new AtomicLong(1000));
+    }
+
+    private ConnectorOperationGovernor createGovernor(ConnectorGovernorType configuration, AtomicLong clock) {
+        return new ConnectorOperationGovernor(RESOURCE_OID, configuration, clock::get);
+    }
+
+    private void executeSuccessfully(ConnectorOperationGovernor governor, int count) {
+        for (int i = 0; i < count; i++) {
+            governor.acquire(ProvisioningOperation.ICF_GET, CAN_RUN).close();
+        }
+    }
+
+    private void waitForWaitingCount(ConnectorOperationGovernor governor, int expected) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (governor.getWaitingCount() < expected && System.currentTimeMillis() < deadline) {
+            //noinspection BusyWait
+            Thread.sleep(10);
+        }
+        assertThat(governor.getWaitingCount()).as("waiting callers").isEqualTo(expected);
+    }
+
+    /** Thread that acquires a permit and holds it until asked to release it. */
+    private static class Holder extends Thread {
+
+        private final ConnectorOperationGovernor governor;
+        private final ProvisioningOperation operation;
+        private final CountDownLatch acquired = new CountDownLatch(1);
+        private final CountDownLatch released = new CountDownLatch(1);
+        private volatile boolean overloaded;
+
+        private Holder(ConnectorOperationGovernor governor, ProvisioningOperation operation) {
+            this.governor = governor;
+            this.operation = operation;
+        }
+
+        @Override
+        public void run() {
+            Permit permit = governor.acquire(operation, CAN_RUN);
+            acquired.countDown();
+            try {
+                released.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            if (overloaded) {
+                permit.markOverloaded();
+            }
+            permit.close();
+        }
+
+        private Holder startAndWait() throws InterruptedException {
+            start();
+            waitForAcquisition();
+            return this;
+        }
+
+        private boolean isAcquired() {
+            return acquired.getCount() == 0;
+        }
+
+        private void waitForAcquisition() throws InterruptedException {
+            assertThat(acquired.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS)).as("permit acquired").isTrue();
+        }
+
+        private void release(boolean overloaded) throws InterruptedException {
+            this.overloaded = overloaded;
+            released.countDown();
+            join(WAIT_TIMEOUT);
+        }
+    }
+}
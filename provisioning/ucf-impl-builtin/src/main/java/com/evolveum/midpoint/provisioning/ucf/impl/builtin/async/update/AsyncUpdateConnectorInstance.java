@@ -158,8 +158,11 @@ public class AsyncUpdateConnectorInstance extends AbstractManagedConnectorInstan
         }
 
         Authentication authentication = securityContextManager.getAuthentication();
+        int partitions = ObjectUtils.defaultIfNull(configuration.getPartitions(), 0);
+        PartitionedChangeProcessor partitionedProcessor =
+                partitions > 1 ? new PartitionedChangeProcessor(partitions, "AsyncUpdate-" + getInstanceName()) : null;
         TransformationalAsyncUpdateMessageListener transformationalListener =
-                new TransformationalAsyncUpdateMessageListener(changeListener, authentication, this);
+                new TransformationalAsyncUpdateMessageListener(changeListener, authentication, this, partitionedProcessor);
         ConnectorListener newListener = new ConnectorListener(this, transformationalListener);
 
         boolean success = listener.compareAndSet(null, newListener);
@@ -168,9 +171,16 @@ public class AsyncUpdateConnectorInstance extends AbstractManagedConnectorInstan
             try {
                 newListener.listenForChanges(configuration, canRunSupplier);
             } finally {
+                if (partitionedProcessor != null) {
+                    // The changes already received must be passed to the change listener before we return.
+                    partitionedProcessor.close();
+                }
                 listener.set(null);
             }
         } else {
+            if (partitionedProcessor != null) {
+                partitionedProcessor.close();
+            }
             throw new IllegalStateException("Another listening has been started in " + this);
         }
     }
@@ -24,6 +24,7 @@ public class ConnectorConfiguration {
     private ExpressionType transformExpression;
     private AsyncUpdateErrorHandlingActionType errorHandlingAction;
     private ActivityTracingDefinitionType processTracingConfiguration;
+    private Integer partitions;
 
     @ConfigurationItem
     public AsyncUpdateSourcesType getSources() {
@@ -61,6 +62,22 @@ public class ConnectorConfiguration {
         this.processTracingConfiguration = processTracingConfiguration;
     }
 
+    /**
+     * Number of partitions in which the changes are processed concurrently. Changes are assigned to partitions
+     * by their primary identifier, so changes related to the same object are processed in the order of their arrival.
+     * If not specified (or lower than 2), the changes are processed in the thread that received the message.
+     *
+     * See {@link PartitionedChangeProcessor}.
+     */
+    @ConfigurationItem
+    public Integer getPartitions() {
+        return partitions;
+    }
+
+    public void setPartitions(Integer partitions) {
+        this.partitions = partitions;
+    }
+
     public void validate() {
         if (getAllSources().isEmpty()) {
             throw new IllegalStateException("No asynchronous update sources were configured");
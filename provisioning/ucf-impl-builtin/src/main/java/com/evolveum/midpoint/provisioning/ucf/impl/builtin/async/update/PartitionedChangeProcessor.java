@@ -0,0 +1,139 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.provisioning.ucf.impl.builtin.async.update;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.VisibleForTesting;
+
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Processes changes (produced from asynchronous update messages) concurrently, in a given number of partitions.
+ * See {@link ConnectorConfiguration#getPartitions()}.
+ *
+ * 1. A change is assigned to a partition by its key (the primary identifier value). Each partition is served by a single
+ * thread, so the changes with the same key are processed in the order of their submission.
+ * 2. Each partition has a bounded queue. When it is full, the submitter waits. So the messages are not taken from the
+ * source faster than they can be processed.
+ *
+ * The changes can complete out of order (across partitions). The sources that acknowledge the messages cumulatively
+ * must take care of that - see e.g. `AcknowledgementWatermark` in the sources package.
+ */
+class PartitionedChangeProcessor {
+
+    private static final Trace LOGGER = TraceManager.getTrace(PartitionedChangeProcessor.class);
+
+    /** Maximum number of changes waiting in a partition. */
+    private static final int PARTITION_QUEUE_SIZE = 100;
+
+    /** How long to wait for the partitions to finish their work when closing (in milliseconds). */
+    private static final long CLOSE_TIMEOUT = 60000L;
+
+    @NotNull private final List<Partition> partitions = new ArrayList<>();
+
+    private final long closeTimeout;
+
+    PartitionedChangeProcessor(int count, @NotNull String name) {
+        this(count, name, CLOSE_TIMEOUT);
+    }
+
+    @VisibleForTesting
+    PartitionedChangeProcessor(int count, @NotNull String name, long closeTimeout) {
+        this.closeTimeout = closeTimeout;
+        for (int i = 0; i < count; i++) {
+            partitions.add(new Partition(name + "-partition-" + i));
+        }
+        LOGGER.debug("Started {} partition(s) for {}", count, name);
+    }
+
+    /** Submits the processing of a change. Blocks if the respective partition is full. */
+    void submit(@Nullable Object key, @NotNull Runnable processing) throws InterruptedException {
+        Partition partition = partitions.get(Math.floorMod(Objects.hashCode(key), partitions.size()));
+        LOGGER.trace("Submitting change with key {} to {}", key, partition);
+        partition.submit(processing);
+    }
+
+    /**
+     * Lets the partitions process the changes submitted so far, and stops them. Waits at most {@link #CLOSE_TIMEOUT}
+     * (by default; altogether); the partitions that are not finished by then are interrupted, and their pending changes are dropped.
+     */
+    void close() {
+        for (Partition partition : partitions) {
+            partition.executor.shutdown();
+        }
+        boolean interrupted = false;
+        long deadline = System.currentTimeMillis() + closeTimeout;
+        for (Partition partition : partitions) {
+            try {
+                if (!interrupted
+                        && partition.executor.awaitTermination(
+                                Math.max(deadline - System.currentTimeMillis(), 1), TimeUnit.MILLISECONDS)) {
+                    continue;
+                }
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+            List<Runnable> dropped = partition.executor.shutdownNow();
+            partition.free.release(dropped.size()); // not to leave a submitter waiting forever
+            LOGGER.warn("{} did not finish in time, interrupting it; dropped pending changes: {}", partition, dropped.size());
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static class Partition {
+
+        @NotNull private final String name;
+
+        /** Free places in the queue of the executor. */
+        @NotNull private final Semaphore free = new Semaphore(PARTITION_QUEUE_SIZE);
+
+        /** Single thread, so the changes are processed in the order of submission. */
+        @NotNull private final ExecutorService executor;
+
+        private Partition(@NotNull String name) {
+            this.name = name;
+            this.executor = Executors.newSingleThreadExecutor(r -> new Thread(r, name));
+        }
+
+        private void submit(@NotNull Runnable processing) throws InterruptedException {
+            free.acquire();
+            try {
+                executor.execute(() -> {
+                    try {
+                        processing.run();
+                    } catch (Throwable t) {
+                        LoggingUtils.logUnexpectedException(LOGGER, "Unexpected exception while processing a change in {}", t, this);
+                    } finally {
+                        free.release();
+                    }
+                });
+            } catch (RuntimeException e) {
+                free.release(); // rejected, e.g. because of being closed
+                throw e;
+            }
+        }
+
+        @Override
+        public String toString() {
+            return name;
+        }
+    }
+}
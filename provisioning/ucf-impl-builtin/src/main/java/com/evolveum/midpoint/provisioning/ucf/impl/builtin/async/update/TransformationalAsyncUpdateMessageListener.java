@@ -60,6 +60,7 @@ public class TransformationalAsyncUpdateMessageListener implements AsyncUpdateMe
 
     private static final String OP_ON_MESSAGE = TransformationalAsyncUpdateMessageListener.class.getName() + ".onMessage";
     private static final String OP_ON_MESSAGE_PREPARATION = TransformationalAsyncUpdateMessageListener.class.getName() + ".onMessagePreparation";
+    private static final String OP_ON_CHANGE = TransformationalAsyncUpdateMessageListener.class.getName() + ".onChange";
 
     private static final String VAR_MESSAGE = "message";
 
@@ -67,15 +68,20 @@ public class TransformationalAsyncUpdateMessageListener implements AsyncUpdateMe
     @Nullable private final Authentication authentication;
     @NotNull private final AsyncUpdateConnectorInstance connectorInstance;
 
+    /** If present, the changes are processed in partitions, i.e. not in the thread that received the message. */
+    @Nullable private final PartitionedChangeProcessor partitionedProcessor;
+
     private final AtomicInteger messagesSeen = new AtomicInteger(0);
     private final AtomicInteger changesProduced = new AtomicInteger(0);
 
     TransformationalAsyncUpdateMessageListener(@NotNull UcfAsyncUpdateChangeListener changeListener,
             @Nullable Authentication authentication,
-            @NotNull AsyncUpdateConnectorInstance connectorInstance) {
+            @NotNull AsyncUpdateConnectorInstance connectorInstance,
+            @Nullable PartitionedChangeProcessor partitionedProcessor) {
         this.changeListener = changeListener;
         this.authentication = authentication;
         this.connectorInstance = connectorInstance;
+        this.partitionedProcessor = partitionedProcessor;
     }
 
     @Override
@@ -89,11 +95,7 @@ public class TransformationalAsyncUpdateMessageListener implements AsyncUpdateMe
         try {
             securityContextManager.setupPreAuthenticatedSecurityContext(authentication);
 
-            Task task = connectorInstance.getTaskManager().createTaskInstance(OP_ON_MESSAGE_PREPARATION);
-            task.setChannel(CHANNEL_ASYNC_UPDATE_URI);
-            if (authentication != null && authentication.getPrincipal() instanceof MidPointPrincipal) {
-                task.setOwner(((MidPointPrincipal) authentication.getPrincipal()).getFocus().asPrismObject().clone());
-            }
+            Task task = createTask(OP_ON_MESSAGE_PREPARATION);
             Tracer tracer = connectorInstance.getTracer();
 
             OperationResult result = task.getResult();
@@ -151,10 +153,19 @@ public class TransformationalAsyncUpdateMessageListener implements AsyncUpdateMe
                         // intentionally in this order - to process changes even after failure
                         // (if listener wants to fail fast, it can throw an exception)
                         UcfAsyncUpdateChange change = createChange(changeBean, result, changeSequentialNumber, aggregatedSink);
-                        changeListener.onChange(change, task, result);
+                        if (partitionedProcessor != null) {
+                            partitionedProcessor.submit(
+                                    change.getPrimaryIdentifierRealValue(),
+                                    () -> processChangeInPartition(change, aggregatedSink));
+                        } else {
+                            changeListener.onChange(change, task, result);
+                        }
                     }
                 }
             } catch (Exception e) {
+                if (e instanceof InterruptedException) {
+                    Thread.currentThread().interrupt();
+                }
                 LoggingUtils.logUnexpectedException(LOGGER, "Got exception while processing asynchronous message in {}", e, task);
                 result.recordFatalError(e.getMessage(), e);
 
@@ -176,6 +187,42 @@ public class TransformationalAsyncUpdateMessageListener implements AsyncUpdateMe
         }
     }
 
+    /**
+     * Processes a change in a partition thread. The message processing (in the receiving thread) may be already finished,
+     * so we use our own task, result, and security context here. Note that the tracing is not supported for this part.
+     */
+    private void processChangeInPartition(UcfAsyncUpdateChange change, AcknowledgementSink acknowledgementSink) {
+        SecurityContextManager securityContextManager = connectorInstance.getSecurityContextManager();
+        Authentication oldAuthentication = securityContextManager.getAuthentication();
+        try {
+            securityContextManager.setupPreAuthenticatedSecurityContext(authentication);
+            Task task = createTask(OP_ON_CHANGE);
+            OperationResult result = task.getResult();
+            try {
+                changeListener.onChange(change, task, result);
+            } catch (RuntimeException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Got exception while processing asynchronous change in {}", e, task);
+                result.recordFatalError(e.getMessage(), e);
+                UcfAsyncUpdateChange errorChange = new UcfAsyncUpdateChange(
+                        change.getLocalSequenceNumber(), UcfErrorState.error(e), acknowledgementSink);
+                changeListener.onChange(errorChange, task, result);
+            } finally {
+                result.computeStatusIfUnknown();
+            }
+        } finally {
+            securityContextManager.setupPreAuthenticatedSecurityContext(oldAuthentication);
+        }
+    }
+
+    private Task createTask(String operation) {
+        Task task = connectorInstance.getTaskManager().createTaskInstance(operation);
+        task.setChannel(CHANNEL_ASYNC_UPDATE_URI);
+        if (authentication != null && authentication.getPrincipal() instanceof MidPointPrincipal) {
+            task.setOwner(((MidPointPrincipal) authentication.getPrincipal()).getFocus().asPrismObject().clone());
+        }
+        return task;
+    }
+
     private AcknowledgementSink createAggregatingAcknowledgeSink(AcknowledgementSink sink, int expectedReplies) {
         if (expectedReplies > 1) {
             return new AggregatingAcknowledgeSink(sink, expectedReplies);
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.provisioning.ucf.impl.builtin.async.update.sources;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Keeps track of messages received from a source that acknowledges them cumulatively, i.e. where acknowledging a message
+ * acknowledges also all the messages received before it (like JMS in `CLIENT_ACKNOWLEDGE` mode).
+ *
+ * As the messages can be processed out of order (by worker threads or partitions), a message can be acknowledged
+ * only after all the messages received before it are processed. The last such message is the "watermark".
+ *
+ * The completions are recorded by the processing threads, but the acknowledgement itself is left to the consuming thread
+ * (see {@link #pollToAcknowledge()}), as the sources usually allow only that thread to work with the session.
+ *
+ * A message whose processing was not successful stops the watermark. The consuming thread then waits until the other
+ * messages are processed (see {@link #awaitSettled(long)}), acknowledges the watermark, lets the source redeliver
+ * the rest of the messages (e.g. by recovering the session), and starts again from {@link #reset()}.
+ *
+ * The number of messages above the watermark is limited, see {@link #awaitCapacity(long)}.
+ */
+class AcknowledgementWatermark<M> {
+
+    private static final Trace LOGGER = TraceManager.getTrace(AcknowledgementWatermark.class);
+
+    /** Default maximum number of messages above the watermark. */
+    static final int DEFAULT_MAX_PENDING = 1000;
+
+    private final int maxPending;
+
+    /** Messages above the watermark, keyed by sequence number, in the order of arrival. Guarded by this. */
+    @NotNull private final Map<Long, Entry<M>> pending = new LinkedHashMap<>();
+
+    /** Guarded by this. */
+    private long lastSequenceNumber;
+
+    /** The watermark that was not acknowledged yet. Guarded by this. */
+    @Nullable private M toAcknowledge;
+
+    /** Number of messages (above the watermark) that are still being processed. Guarded by this. */
+    private int inProgress;
+
+    /** True if the processing of a message (above the watermark) failed. Guarded by this. */
+    private boolean failed;
+
+    AcknowledgementWatermark() {
+        this(DEFAULT_MAX_PENDING);
+    }
+
+    AcknowledgementWatermark(int maxPending) {
+        this.maxPending = maxPending;
+    }
+
+    /** Registers a received message. Returns its sequence number. */
+    synchronized long register(@NotNull M message) {
+        long sequenceNumber = ++lastSequenceNumber;
+        pending.put(sequenceNumber, new Entry<>(message));
+        inProgress++;
+        return sequenceNumber;
+    }
+
+    /**
+     * Records that the processing of given message is complete. Can be called from any thread.
+     *
+     * Completions of messages that are not known (e.g. because they were dropped by {@link #reset()}) are ignored.
+     */
+    synchronized void complete(long sequenceNumber, boolean success) {
+        Entry<M> entry = pending.get(sequenceNumber);
+        if (entry == null || entry.state != State.PENDING) {
+            LOGGER.debug("Ignoring completion of message #{} that is not pending: {}", sequenceNumber, entry);
+            return;
+        }
+        entry.state = success ? State.SUCCEEDED : State.FAILED;
+        inProgress--;
+        if (!success) {
+            failed = true;
+        }
+
+        for (Iterator<Entry<M>> iterator = pending.values().iterator(); iterator.hasNext(); ) {
+            Entry<M> first = iterator.next();
+            if (first.state != State.SUCCEEDED) {
+                break;
+            }
+            toAcknowledge = first.message;
+            iterator.remove();
+        }
+        LOGGER.trace("Message #{} completed (success: {}), messages above the watermark: {}",
+                sequenceNumber, success, pending.size());
+        notifyAll();
+    }
+
+    /** Returns the message that is to be acknowledged now (i.e. the new watermark), or null if it has not moved since. */
+    synchronized @Nullable M pollToAcknowledge() {
+        M message = toAcknowledge;
+        toAcknowledge = null;
+        return message;
+    }
+
+    /** True if the processing of a message failed, so the rest of the messages should be redelivered. */
+    synchronized boolean isFailed() {
+        return failed;
+    }
+
+    /**
+     * Waits until another message can be registered, i.e. the number of messages above the watermark is below the limit.
+     * Returns immediately if a processing failed, as the messages are not going to be acknowledged anyway.
+     *
+     * @return true if a message can be registered, false if the time is up (or a processing failed)
+     */
+    synchronized boolean awaitCapacity(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (!failed && pending.size() >= maxPending) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return !failed;
+    }
+
+    /**
+     * Waits until no registered message is being processed.
+     *
+     * @return true if so, false if the time is up
+     */
+    synchronized boolean awaitSettled(long timeout) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeout;
+        while (inProgress > 0) {
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    /**
+     * Forgets all messages above the watermark, after the source was told to redeliver them.
+     * The sequence numbers are not reused, so late completions of the forgotten messages are ignored.
+     */
+    synchronized void reset() {
+        LOGGER.debug("Resetting the watermark; forgetting {} message(s), {} of them in progress", pending.size(), inProgress);
+        pending.clear();
+        toAcknowledge = null;
+        inProgress = 0;
+        failed = false;
+        notifyAll();
+    }
+
+    synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    private enum State {
+        PENDING, SUCCEEDED, FAILED
+    }
+
+    private static class Entry<M> {
+
+        @NotNull private final M message;
+        @NotNull private State state = State.PENDING;
+
+        private Entry(@NotNull M message) {
+            this.message = message;
+        }
+
+        @Override
+        public String toString() {
+            return state.toString();
+        }
+    }
+}
@@ -10,6 +10,8 @@ package com.evolveum.midpoint.provisioning.ucf.impl.builtin.async.update.sources
 import static javax.jms.Session.CLIENT_ACKNOWLEDGE;
 
 import java.util.Enumeration;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import javax.jms.*;
 import javax.naming.InitialContext;
 
@@ -37,7 +39,12 @@ import com.evolveum.prism.xml.ns._public.types_3.ProtectedStringType;
  * Async Update source for JMS API.
  *
  * An experimental implementation. Very primitive; suitable basically for testing and demonstration purposes.
- * In particular, it does NOT work with multiple worker threads.
+ *
+ * As the messages are acknowledged cumulatively (in the `CLIENT_ACKNOWLEDGE` mode), and their processing can complete
+ * out of order (with multiple worker threads or partitions), the acknowledgements go through {@link AcknowledgementWatermark}.
+ * The messages are received synchronously, by a dedicated thread that is also the only one that acknowledges them.
+ * When the processing of a message fails, the session is recovered, so the unacknowledged messages are redelivered.
+ * (The broker's redelivery policy - delays, maximum delivery attempts - applies here.)
  */
 @Experimental
 public class JmsAsyncUpdateSource implements ActiveAsyncUpdateSource {
@@ -66,8 +73,15 @@ public class JmsAsyncUpdateSource implements ActiveAsyncUpdateSource {
 
     private class ListeningActivityImpl implements ListeningActivity {
 
+        /** How long the consuming thread waits for a message or a completion before checking the state again. */
+        private static final long POLL_INTERVAL = 1000L;
+
         // the following items are initialized only once; in the constructor
         private Connection connection;
+        private ExecutorService consumerExecutor;
+
+        /** Completions are recorded by the processing threads; acknowledgements are issued by the consuming thread. */
+        @NotNull private final AcknowledgementWatermark<Message> watermark = new AcknowledgementWatermark<>();
 
         private volatile boolean closed;
 
@@ -81,29 +95,14 @@ public class JmsAsyncUpdateSource implements ActiveAsyncUpdateSource {
                 connection = connectionFactory.createConnection(configuration.getUsername(), decrypt(configuration.getPassword()));
                 Session session = connection.createSession(false, CLIENT_ACKNOWLEDGE);
                 MessageConsumer consumer = session.createConsumer(destination);
-                consumer.setMessageListener(message -> {
-                    try {
-                        listener.onMessage(createAsyncUpdateMessage(message), (release, result) -> {
-                            // TODO This has to be done in the correct thread!!!
-                            if (release) {
-                                try {
-                                    message.acknowledge();
-                                } catch (JMSException e) {
-                                    LoggingUtils.logUnexpectedException(LOGGER, "Message could not be acknowledged", e);
-                                }
-                            } else {
-                                LOGGER.debug("Message processing was not successful. Message will not be acknowledged.");
-                            }
-                        });
-                    } catch (JMSException e) {
-                        throw new SystemException("Couldn't process JMS message: " + e.getMessage(), e);
-                    }
-                });
                 connection.setExceptionListener(exception -> {
                     LOGGER.warn("JMS exception detected: {}", exception.getMessage(), exception);
                     stop();
                 });
                 connection.start();
+                consumerExecutor = Executors.newSingleThreadExecutor(
+                        r -> new Thread(r, "JMS-consumer-" + configuration.getName()));
+                consumerExecutor.execute(() -> consume(session, consumer, listener));
                 LOGGER.info("Opened consumer {}", consumer);
             } catch (Throwable t) {
                 silentlyCloseActiveConnection();
@@ -111,9 +110,65 @@ public class JmsAsyncUpdateSource implements ActiveAsyncUpdateSource {
             }
         }
 
+        /**
+         * Receives the messages, and acknowledges them (or recovers the session), all in a single thread - as JMS requires
+         * for the session and the objects created by it. The messages themselves can be processed in other threads.
+         */
+        private void consume(Session session, MessageConsumer consumer, AsyncUpdateMessageListener listener) {
+            try {
+                while (!closed) {
+                    acknowledgeWatermark();
+                    if (watermark.isFailed()) {
+                        // Let the messages in progress complete, so they are not redelivered while still being processed.
+                        if (watermark.awaitSettled(POLL_INTERVAL)) {
+                            acknowledgeWatermark();
+                            LOGGER.debug("Message processing was not successful. Recovering the session, so the message "
+                                    + "(and the ones received after it) will be redelivered.");
+                            session.recover();
+                            watermark.reset();
+                        }
+                    } else if (watermark.awaitCapacity(POLL_INTERVAL)) {
+                        Message message = consumer.receive(POLL_INTERVAL);
+                        if (message != null) {
+                            processMessage(message, listener);
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                LOGGER.debug("Consuming thread for {} was interrupted", this);
+            } catch (Throwable t) {
+                if (!closed) {
+                    LoggingUtils.logUnexpectedException(LOGGER, "Couldn't consume messages in {}", t, this);
+                    stop();
+                }
+            }
+        }
+
+        private void processMessage(Message message, AsyncUpdateMessageListener listener) {
+            long sequenceNumber = watermark.register(message);
+            try {
+                listener.onMessage(createAsyncUpdateMessage(message),
+                        (release, result) -> watermark.complete(sequenceNumber, release));
+            } catch (JMSException | RuntimeException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't process JMS message", e);
+                watermark.complete(sequenceNumber, false); // ignored if the listener has already completed it
+            }
+        }
+
+        private void acknowledgeWatermark() throws JMSException {
+            Message toAcknowledge = watermark.pollToAcknowledge();
+            if (toAcknowledge != null) {
+                toAcknowledge.acknowledge();
+            }
+        }
+
         @Override
         public void stop() {
             silentlyCloseActiveConnection();
+            if (consumerExecutor != null) {
+                // The consuming thread ends on its own, as the connection is closed now.
+                consumerExecutor.shutdown();
+            }
         }
 
         @Override
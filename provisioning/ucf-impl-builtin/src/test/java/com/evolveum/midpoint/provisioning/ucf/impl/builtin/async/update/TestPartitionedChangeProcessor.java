@@ -0,0 +1,127 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.provisioning.ucf.impl.builtin.async.update;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+
+/**
+ * Tests {@link PartitionedChangeProcessor}: ordering of changes with the same key, and closing.
+ */
+public class TestPartitionedChangeProcessor extends AbstractUnitTest {
+
+    private static final long WAIT_TIMEOUT = 10000L;
+
+    /** Changes with the same key are processed in the order of their submission. */
+    @Test
+    public void test100PerKeyOrdering() throws Exception {
+        given("a processor with four partitions");
+        PartitionedChangeProcessor processor = new PartitionedChangeProcessor(4, "test100");
+        Map<Integer, List<Integer>> processed = new ConcurrentHashMap<>();
+
+        when("changes for ten keys are submitted, interleaved");
+        for (int i = 0; i < 50; i++) {
+            for (int key = 0; key < 10; key++) {
+                int index = i;
+                Integer keyValue = key;
+                processor.submit(keyValue, () -> {
+                    sleepRandomly();
+                    processed.computeIfAbsent(keyValue, k -> new ArrayList<>()).add(index);
+                });
+            }
+        }
+        processor.close();
+
+        then("the changes for each key were processed in order");
+        assertThat(processed).as("processed changes").hasSize(10);
+        for (Map.Entry<Integer, List<Integer>> entry : processed.entrySet()) {
+            assertThat(entry.getValue()).as("changes for key " + entry.getKey())
+                    .hasSize(50)
+                    .isSorted();
+        }
+    }
+
+    /** A failing change does not stop the partition. */
+    @Test
+    public void test110FailingChange() throws Exception {
+        given("a processor with two partitions");
+        PartitionedChangeProcessor processor = new PartitionedChangeProcessor(2, "test110");
+        AtomicInteger processed = new AtomicInteger();
+
+        when("a failing change is submitted, followed by regular ones with the same key");
+        processor.submit("key", () -> {
+            throw new IllegalStateException("Simulated failure");
+        });
+        for (int i = 0; i < 5; i++) {
+            processor.submit("key", processed::incrementAndGet);
+        }
+        processor.close();
+
+        then("the regular changes were processed");
+        assertThat(processed.get()).as("processed changes").isEqualTo(5);
+    }
+
+    /** Closing does not wait forever for a stuck change; the stuck partition is interrupted. */
+    @Test
+    public void test120CloseWithStuckChange() throws Exception {
+        given("a processor with a stuck change and a change waiting behind it");
+        PartitionedChangeProcessor processor = new PartitionedChangeProcessor(1, "test120", 500);
+        CountDownLatch started = new CountDownLatch(1);
+        AtomicBoolean interrupted = new AtomicBoolean();
+        AtomicBoolean waitingProcessed = new AtomicBoolean();
+        processor.submit("key", () -> {
+            started.countDown();
+            try {
+                new CountDownLatch(1).await();
+            } catch (InterruptedException e) {
+                interrupted.set(true);
+            }
+        });
+        processor.submit("key", () -> waitingProcessed.set(true));
+        assertThat(started.await(WAIT_TIMEOUT, TimeUnit.MILLISECONDS)).as("stuck change started").isTrue();
+
+        when("the processor is closed");
+        long start = System.currentTimeMillis();
+        processor.close();
+        long duration = System.currentTimeMillis() - start;
+
+        then("closing returned after the timeout, the stuck change was interrupted, the waiting one was dropped");
+        assertThat(duration).as("closing duration").isLessThan(WAIT_TIMEOUT);
+        waitFor(interrupted);
+        assertThat(waitingProcessed.get()).as("waiting change processed").isFalse();
+    }
+
+    private void sleepRandomly() {
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextInt(2));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void waitFor(AtomicBoolean flag) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+        while (!flag.get() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(flag.get()).as("flag set").isTrue();
+    }
+}
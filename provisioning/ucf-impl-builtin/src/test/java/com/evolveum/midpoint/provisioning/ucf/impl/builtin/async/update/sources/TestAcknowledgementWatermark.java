@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.provisioning.ucf.impl.builtin.async.update.sources;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+
+/**
+ * Tests {@link AcknowledgementWatermark}: out-of-order completion, failure and reset, and the limit of pending messages.
+ */
+public class TestAcknowledgementWatermark extends AbstractUnitTest {
+
+    private static final long WAIT_TIMEOUT = 10000L;
+
+    /** The watermark moves only when all the messages received before it are processed. */
+    @Test
+    public void test100OutOfOrderCompletion() {
+        given("three messages are registered");
+        AcknowledgementWatermark<String> watermark = new AcknowledgementWatermark<>();
+        long m1 = watermark.register("m1");
+        long m2 = watermark.register("m2");
+        long m3 = watermark.register("m3");
+
+        when("the second message completes");
+        watermark.complete(m2, true);
+
+        then("nothing is to be acknowledged");
+        assertThat(watermark.pollToAcknowledge()).as("message to acknowledge").isNull();
+
+        when("the first message completes");
+        watermark.complete(m1, true);
+
+        then("the second message is to be acknowledged (only once)");
+        assertThat(watermark.pollToAcknowledge()).as("message to acknowledge").isEqualTo("m2");
+        assertThat(watermark.pollToAcknowledge()).as("message to acknowledge").isNull();
+
+        when("the third message completes");
+        watermark.complete(m3, true);
+
+        then("the third message is to be acknowledged");
+        assertThat(watermark.pollToAcknowledge()).as("message to acknowledge").isEqualTo("m3");
+        assertThat(watermark.getPendingCount()).as("pending messages").isZero();
+        assertThat(watermark.isFailed()).as("failed").isFalse();
+    }
+
+    /** A failed message stops the watermark until the reset; the completions of forgotten messages are ignored. */
+    @Test
+    public void test110FailureAndReset() throws Exception {
+        given("three messages are registered");
+        AcknowledgementWatermark<String> watermark = new AcknowledgementWatermark<>();
+        long m1 = watermark.register("m1");
+        long m2 = watermark.register("m2");
+        long m3 = watermark.register("m3");
+
+        when("the second message fails and the first one succeeds");
+        watermark.complete(m2, false);
+        watermark.complete(m1, true);
+
+        then("the first message is to be acknowledged, the watermark is failed");
+        assertThat(watermark.pollToAcknowledge()).as("message to acknowledge").isEqualTo("m1");
+        assertThat(watermark.isFailed()).as("failed").isTrue();
+        assertThat(watermark.awaitCapacity(0)).as("capacity available").isFalse();
+        assertThat(watermark.awaitSettled(0)).as("settled").isFalse();
+
+        when("the third message succeeds");
+        watermark.complete(m3, true);
+
+        then("the watermark stays at the failed message, all messages are settled");
+        assertThat(watermark.pollToAcknowledge()).as("message to acknowledge").isNull();
+        assertThat(watermark.awaitSettled(0)).as("settled").isTrue();
+
+        when("the watermark is reset and a late completion comes");
+        watermark.reset();
+        watermark.complete(m2, true);
+
+        then("the completion is ignored");
+        assertThat(watermark.isFailed()).as("failed").isFalse();
+        assertThat(watermark.pollToAcknowledge()).as("message to acknowledge").isNull();
+        assertThat(watermark.getPendingCount()).as("pending messages").isZero();
+
+        when("a redelivered message is registered and completed");
+        long m2again = watermark.register("m2");
+        watermark.complete(m2again, true);
+
+        then("it is to be acknowledged");
+        assertThat(watermark.pollToAcknowledge()).as("message to acknowledge").isEqualTo("m2");
+    }
+
+    /** Messages being processed while the watermark is reset are forgotten; their completions are ignored. */
+    @Test
+    public void test120CompletionAfterReset() {
+        given("a message is registered, and the watermark is reset");
+        AcknowledgementWatermark<String> watermark = new AcknowledgementWatermark<>();
+        long m1 = watermark.register("m1");
+        watermark.reset();
+
+        when("the message completes (unsuccessfully)");
+        watermark.complete(m1, false);
+
+        then("the completion is ignored");
+        assertThat(watermark.isFailed()).as("failed").isFalse();
+        assertThat(watermark.pollToAcknowledge()).as("message to acknowledge").isNull();
+    }
+
+    /** The number of messages above the watermark is limited. */
+    @Test
+    public void test130Capacity() throws Exception {
+        given("the limit of two messages is reached");
+        AcknowledgementWatermark<String> watermark = new AcknowledgementWatermark<>(2);
+        long m1 = watermark.register("m1");
+        watermark.register("m2");
+
+        expect("no capacity is available");
+        assertThat(watermark.awaitCapacity(100)).as("capacity available").isFalse();
+
+        when("a thread waits for the capacity, and the first message completes");
+        AtomicBoolean available = new AtomicBoolean();
+        Thread waiting = new Thread(() -> {
+            try {
+                available.set(watermark.awaitCapacity(WAIT_TIMEOUT));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        waiting.start();
+        watermark.complete(m1, true);
+        waiting.join(WAIT_TIMEOUT);
+
+        then("the waiting thread is let through");
+        assertThat(waiting.isAlive()).as("waiting thread alive").isFalse();
+        assertThat(available.get()).as("capacity available").isTrue();
+        assertThat(watermark.getPendingCount()).as("pending messages").isEqualTo(1);
+    }
+}
@@ -330,6 +330,27 @@ public class ConnIdUtil {
         return null;
     }
 
+    /**
+     * Does the exception (or any of its causes) signal that the resource is overloaded or unreachable?
+     * (Used to adapt the limits of the connector operation governor.)
+     */
+    static boolean isOverloadSignal(Throwable ex) {
+        for (Throwable t = ex; t != null; t = t.getCause() != t ? t.getCause() : null) {
+            if (t instanceof ConnectionBrokenException
+                    || t instanceof ConnectionFailedException
+                    || t instanceof ConnectorIOException
+                    || t instanceof OperationTimeoutException
+                    || t instanceof RetryableException
+                    || t instanceof ConnectException
+                    || t instanceof java.net.SocketTimeoutException
+                    || t instanceof javax.naming.CommunicationException
+                    || t instanceof ServiceUnavailableException) {
+                return true;
+            }
+        }
+        return false;
+    }
+
     private static Exception lookForKnownCause(Throwable ex, OperationResult parentResult) {
         if (ex.getClass().getPackage().equals(SchemaException.class.getPackage())) {
             // Common midPoint exceptions, pass through
@@ -2236,7 +2236,7 @@ public class ConnectorInstanceConnIdImpl implements ConnectorInstance {
 
     void recordIcfOperationEnd(UcfExecutionContext reporter, ConnIdOperation operation, Throwable ex) {
         if (reporter != null) {
-            reporter.recordIcfOperationEnd(operation, ex);
+            reporter.recordIcfOperationEnd(operation, ex, ConnIdUtil.isOverloadSignal(ex));
         } else {
             LOGGER.warn("Couldn't record ConnId operation end as reporter is null.");
         }
@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.api;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.util.annotation.Experimental;
+
+/**
+ * Result for a single object of batch repository operation, see {@link RepositoryService#addObjects}
+ * and {@link RepositoryService#modifyObjects}.
+ * Failure of one object does not fail the whole batch, the exception is stored here instead.
+ *
+ * EXPERIMENTAL.
+ */
+@Experimental
+public class BatchItemResult {
+
+    private final String oid;
+    private final ModifyObjectResult<?> modifyObjectResult;
+    private final Exception exception;
+
+    private BatchItemResult(String oid, ModifyObjectResult<?> modifyObjectResult, Exception exception) {
+        this.oid = oid;
+        this.modifyObjectResult = modifyObjectResult;
+        this.exception = exception;
+    }
+
+    public static BatchItemResult added(@NotNull String oid) {
+        return new BatchItemResult(oid, null, null);
+    }
+
+    public static BatchItemResult modified(@NotNull String oid, @NotNull ModifyObjectResult<?> modifyObjectResult) {
+        return new BatchItemResult(oid, modifyObjectResult, null);
+    }
+
+    public static BatchItemResult failed(@Nullable String oid, @NotNull Exception exception) {
+        return new BatchItemResult(oid, null, exception);
+    }
+
+    /** OID of the added/modified object, can be null for failed add of object without OID. */
+    public String getOid() {
+        return oid;
+    }
+
+    /** Modification result for successful modifications, null otherwise. */
+    public ModifyObjectResult<?> getModifyObjectResult() {
+        return modifyObjectResult;
+    }
+
+    /**
+     * Exception for failed object, typically {@link com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException},
+     * {@link com.evolveum.midpoint.util.exception.ObjectNotFoundException}
+     * or {@link com.evolveum.midpoint.util.exception.SchemaException}.
+     */
+    public Exception getException() {
+        return exception;
+    }
+
+    public boolean isSuccess() {
+        return exception == null;
+    }
+
+    @Override
+    public String toString() {
+        return "BatchItemResult{" +
+                "oid=" + oid +
+                (exception != null ? ", exception=" + exception : "") +
+                '}';
+    }
+}
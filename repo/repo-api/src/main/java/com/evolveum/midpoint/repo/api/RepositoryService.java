@@ -6,14 +6,16 @@
  */
 package com.evolveum.midpoint.repo.api;
 
-import java.util.Collection;
+import java.util.*;
 
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.prism.Containerable;
+import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.perf.PerformanceMonitor;
 import com.evolveum.midpoint.repo.api.query.ObjectFilterExpressionEvaluator;
@@ -112,10 +114,12 @@ public interface RepositoryService {
 
     String OP_ADD_OBJECT = "addObject";
     String OP_ADD_OBJECT_OVERWRITE = "addObjectOverwrite"; // addObject with overwrite option
+    String OP_ADD_OBJECTS = "addObjects";
     String OP_DELETE_OBJECT = "deleteObject";
     String OP_COUNT_OBJECTS = "countObjects";
     String OP_MODIFY_OBJECT = "modifyObject";
     String OP_MODIFY_OBJECT_DYNAMICALLY = "modifyObjectDynamically";
+    String OP_MODIFY_OBJECTS = "modifyObjects";
     String OP_GET_VERSION = "getVersion";
     String OP_IS_DESCENDANT = "isDescendant";
     String OP_IS_ANCESTOR = "isAncestor";
@@ -123,6 +127,7 @@ public interface RepositoryService {
     String OP_RETURN_UNUSED_VALUES_TO_SEQUENCE = "returnUnusedValuesToSequence";
     String OP_EXECUTE_QUERY_DIAGNOSTICS = "executeQueryDiagnostics";
     String OP_GET_OBJECT = "getObject";
+    String OP_GET_OBJECTS = "getObjects";
     String OP_SEARCH_SHADOW_OWNER = "searchShadowOwner";
     String OP_SEARCH_OBJECTS = "searchObjects";
     String OP_SEARCH_OBJECTS_ITERATIVE = "searchObjectsIterative";
@@ -173,6 +178,63 @@ public interface RepositoryService {
             Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult)
             throws ObjectNotFoundException, SchemaException;
 
+    /**
+     * Returns objects for provided OIDs.
+     *
+     * Unlike {@link #getObject}, this does not fail if some of the objects do not exist,
+     * these are simply not present in the returned list.
+     * Returned objects are ordered in the same way as the provided OIDs, duplicate OIDs
+     * are returned only once.
+     *
+     * Default implementation uses {@link #searchObjects} with OID filter, which means a single
+     * search instead of a call per OID; implementations are encouraged to provide more efficient
+     * version, if possible.
+     *
+     * @param oids OIDs of the objects to get
+     * @param parentResult parent OperationResult (in/out)
+     * @return existing objects fetched from repository, in the order of provided OIDs
+     * @throws SchemaException error dealing with storage schema
+     * @throws IllegalArgumentException wrong OID format, etc.
+     */
+    @NotNull
+    default <O extends ObjectType> SearchResultList<PrismObject<O>> getObjects(
+            @NotNull Class<O> type,
+            @NotNull Collection<String> oids,
+            @Nullable Collection<SelectorOptions<GetOperationOptions>> options,
+            @NotNull OperationResult parentResult)
+            throws SchemaException {
+        if (oids.isEmpty()) {
+            return new SearchResultList<>();
+        }
+
+        ObjectQuery query = PrismContext.get().queryFor(type)
+                .id(oids.toArray(String[]::new))
+                .build();
+        SearchResultList<PrismObject<O>> objects = searchObjects(type, query, options, parentResult);
+        return sortByOids(objects, oids);
+    }
+
+    /**
+     * Orders provided objects by the order of provided OIDs, intended for {@link #getObjects}.
+     * OIDs without matching object are ignored.
+     */
+    static <O extends ObjectType> @NotNull SearchResultList<PrismObject<O>> sortByOids(
+            @NotNull Collection<PrismObject<O>> objects, @NotNull Collection<String> oids) {
+        Map<String, PrismObject<O>> objectsByOid = new HashMap<>();
+        for (PrismObject<O> object : objects) {
+            objectsByOid.put(object.getOid(), object);
+        }
+
+        SearchResultList<PrismObject<O>> result = new SearchResultList<>();
+        for (String oid : new LinkedHashSet<>(oids)) {
+            PrismObject<O> object = objectsByOid.get(oid);
+            if (object != null) {
+                result.add(object);
+            }
+        }
+        return result;
+    }
+
     /**
      * Returns object version for provided OID.
      * <p>
@@ -317,6 +379,67 @@ public interface RepositoryService {
         @NotNull Collection<? extends ItemDelta<?, ?>> get(T object) throws SchemaException;
     }
 
+    /**
+     * Adds multiple objects, possibly more efficiently than calling {@link #addObject} for each one.
+     * Implementation can add the objects in fewer transactions, but failure of a single object
+     * (e.g. {@link ObjectAlreadyExistsException}) must not prevent adding of other objects.
+     *
+     * Default implementation simply calls {@link #addObject} for each object.
+     *
+     * @param objects objects to create
+     * @param options add options, the same for all objects
+     * @param parentResult parent OperationResult (in/out)
+     * @return result for each object, in the same order as provided objects
+     */
+    @Experimental
+    @NotNull
+    default List<BatchItemResult> addObjects(
+            @NotNull List<? extends PrismObject<? extends ObjectType>> objects,
+            @Nullable RepoAddOptions options,
+            @NotNull OperationResult parentResult) {
+        List<BatchItemResult> results = new ArrayList<>();
+        for (PrismObject<? extends ObjectType> object : objects) {
+            try {
+                results.add(BatchItemResult.added(addObject(object, options, parentResult)));
+            } catch (ObjectAlreadyExistsException | SchemaException e) {
+                results.add(BatchItemResult.failed(object.getOid(), e));
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Modifies multiple objects using provided modify deltas, possibly more efficiently than
+     * calling {@link #modifyObject} for each delta.
+     * Implementation can modify the objects in fewer transactions, but failure of a single object
+     * (e.g. {@link ObjectNotFoundException}) must not prevent modification of other objects.
+     *
+     * Default implementation simply calls {@link #modifyObject} for each delta.
+     *
+     * @param deltas modify deltas with OIDs, for each object there should be at most one delta
+     * @param options modify options, the same for all objects
+     * @param parentResult parent OperationResult (in/out)
+     * @return result for each delta, in the same order as provided deltas
+     */
+    @Experimental
+    @NotNull
+    default List<BatchItemResult> modifyObjects(
+            @NotNull List<? extends ObjectDelta<? extends ObjectType>> deltas,
+            @Nullable RepoModifyOptions options,
+            @NotNull OperationResult parentResult) {
+        List<BatchItemResult> results = new ArrayList<>();
+        for (ObjectDelta<? extends ObjectType> delta : deltas) {
+            try {
+                results.add(BatchItemResult.modified(delta.getOid(),
+                        modifyObject(delta.getObjectTypeClass(), delta.getOid(),
+                                delta.getModifications(), options, parentResult)));
+            } catch (ObjectNotFoundException | ObjectAlreadyExistsException | SchemaException e) {
+                results.add(BatchItemResult.failed(delta.getOid(), e));
+            }
+        }
+        return results;
+    }
+
     /**
      * <p>Deletes object with specified OID.</p>
      * <p>
@@ -330,6 +453,22 @@ public interface RepositoryService {
      */
     @NotNull <T extends ObjectType> DeleteObjectResult deleteObject(Class<T> type, String oid, OperationResult parentResult) throws ObjectNotFoundException;
 
+    /**
+     * Deletes object with specified OID, but only if the precondition holds for the current state of the object.
+     * The precondition is checked within the same transaction as the deletion, so the object cannot be changed
+     * in the meanwhile.
+     *
+     * @param precondition precondition to check; if null, this is the same as {@link #deleteObject(Class, String, OperationResult)}
+     * @throws ObjectNotFoundException specified object does not exist
+     * @throws PreconditionViolationException the precondition does not hold, the object was not deleted
+     */
+    @NotNull <T extends ObjectType> DeleteObjectResult deleteObject(
+            @NotNull Class<T> type,
+            @NotNull String oid,
+            @Nullable ModificationPrecondition<T> precondition,
+            @NotNull OperationResult parentResult)
+            throws ObjectNotFoundException, PreconditionViolationException;
+
     // Counting/searching
 
     <T extends Containerable> int countContainers(Class<T> type, ObjectQuery query,
@@ -408,9 +547,11 @@ public interface RepositoryService {
      *
      * [NOTE]
      * ====
-     * New repository uses single reliable iteration method similar to strictly sequential paging
+     * New repository uses reliable iteration method similar to strictly sequential paging
      * and supports custom ordering (currently only one).
-     * New repository ignores strictlySequential parameter and related get options completely.
+     * Alternatively, it can use server-side cursor in a single transaction (SINGLE_TRANSACTION
+     * iteration method or repository configuration), which supports ordering by multiple paths.
+     * Other paging methods are treated the same and strictlySequential parameter is ignored.
      *
      * In old repository there are three iteration methods (see IterationMethodType):
      *
@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.api;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.CacheInvalidationContext;
+
+/**
+ * Marks an invalidation event that is meant for a single cache only, identified by the name of its class.
+ * It is used by caches that keep data derived from an object (e.g. an index of resource objects, keyed by resource OID)
+ * and need to invalidate them cluster-wide without invalidating the object itself in all other caches.
+ *
+ * Such events are delivered only to the target cache, see `CacheRegistryImpl`. Unlike other details,
+ * the target is distributed throughout the cluster.
+ */
+public class TargetedCacheInvalidationDetails implements CacheInvalidationDetails {
+
+    @NotNull private final String targetCache;
+
+    public TargetedCacheInvalidationDetails(@NotNull String targetCache) {
+        this.targetCache = targetCache;
+    }
+
+    public @NotNull String getTargetCache() {
+        return targetCache;
+    }
+
+    /** Returns the target cache of the event, or null if the event is meant for all caches. */
+    public static @Nullable String getTargetCache(@Nullable CacheInvalidationContext context) {
+        if (context != null && context.getDetails() instanceof TargetedCacheInvalidationDetails) {
+            return ((TargetedCacheInvalidationDetails) context.getDetails()).targetCache;
+        } else {
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "TargetedCacheInvalidationDetails{targetCache=" + targetCache + '}';
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.api;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.UnaryOperator;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.task.ActivityPath;
+import com.evolveum.midpoint.util.annotation.Experimental;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkBucketContentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
+
+/**
+ * Alternative storage of work buckets of distributed activities, with one record per bucket.
+ *
+ * By default, buckets are stored in the activity state of the coordinator task and all workers
+ * contend for the modification of that single object. Repository supporting this interface
+ * can store the buckets separately, so the bucket operations touch only the bucket in question
+ * and the workers do not wait for each other.
+ *
+ * Buckets are identified by coordinator task OID, activity path and sequential number.
+ * The store is used only if {@link #isEnabled()} returns true, which must be the same on all nodes.
+ * Other parts of the bucketing state (e.g. work complete and scavenging flags) are still kept
+ * in the coordinator task.
+ */
+@Experimental
+public interface WorkBucketStore {
+
+    /** Returns true if the buckets should be stored here and not in the coordinator task. */
+    boolean isEnabled();
+
+    /**
+     * Returns bucket delegated to the given worker (the one with the lowest sequential number), or null if there is none.
+     */
+    @Nullable WorkBucketType findDelegatedBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull String workerOid, @NotNull OperationResult parentResult) throws SchemaException;
+
+    /**
+     * Finds the first READY bucket and delegates it to the given worker.
+     * Buckets being claimed concurrently by other workers are skipped, not waited for.
+     *
+     * @return the claimed bucket (DELEGATED) or null if there is no READY bucket
+     */
+    @Nullable WorkBucketType claimReadyBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull String workerOid, @NotNull OperationResult parentResult) throws SchemaException;
+
+    /**
+     * Creates new buckets following the last existing one and delegates the first of them to the given worker.
+     * Creation of buckets is serialized for the activity; if a READY bucket appeared in the meantime
+     * (created by another worker), it is claimed instead and no buckets are created.
+     *
+     * @return the claimed bucket (DELEGATED) or null if the factory returned no buckets, i.e. there are no more of them
+     */
+    @Nullable WorkBucketType createAndClaimBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull String workerOid, @NotNull NewBucketsFactory factory, @NotNull OperationResult parentResult)
+            throws SchemaException;
+
+    /**
+     * Marks the bucket as COMPLETE. If worker OID is provided, the bucket must be delegated to that worker.
+     *
+     * @return false if there is no such (delegated) bucket
+     */
+    boolean completeBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath, int sequentialNumber,
+            @Nullable String workerOid, @NotNull OperationResult parentResult);
+
+    /**
+     * Replaces the content of the bucket delegated to the given worker by a narrower one. The rest of the original
+     * content must be covered by the next bucket, so this is possible only if:
+     *
+     * 1. the bucket is the last one (the next buckets will be derived from it when created), or
+     * 2. the next bucket is READY; its content is then replaced by the one provided by the `nextContentFunction`.
+     *
+     * This is serialized with the creation of new buckets.
+     *
+     * @param nextContentFunction Provides the content of the next bucket, given its current content.
+     * May return null if the next bucket cannot be extended.
+     * @return false if there is no such bucket or if it cannot be narrowed
+     */
+    boolean narrowBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            int sequentialNumber, @NotNull String workerOid, @NotNull AbstractWorkBucketContentType newContent,
+            @NotNull UnaryOperator<AbstractWorkBucketContentType> nextContentFunction,
+            @NotNull OperationResult parentResult) throws SchemaException;
+
+    /**
+     * Returns buckets delegated to the given worker to the READY state.
+     *
+     * @param sequentialNumber bucket to be released, or null if all buckets of the worker should be released
+     * @return number of released buckets
+     */
+    int releaseBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath, @NotNull String workerOid,
+            @Nullable Integer sequentialNumber, @NotNull OperationResult parentResult);
+
+    /**
+     * Returns buckets delegated to workers other than the live ones to the READY state.
+     *
+     * @return number of reclaimed buckets
+     */
+    int reclaimBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull Set<String> liveWorkerOids, @NotNull OperationResult parentResult);
+
+    /** Returns true if there is at least one bucket of the activity in given state. Cheaper than counting the buckets. */
+    boolean hasBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull WorkBucketStateType state, @NotNull OperationResult parentResult);
+
+    /** Returns the number of buckets in individual states. States without buckets are not present. */
+    @NotNull Map<WorkBucketStateType, Integer> countBuckets(@NotNull String coordinatorOid,
+            @NotNull ActivityPath activityPath, @NotNull OperationResult parentResult);
+
+    /** Returns all buckets of the activity, sorted by sequential number. Meant for diagnostics and tests. */
+    @NotNull List<WorkBucketType> getBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull OperationResult parentResult) throws SchemaException;
+
+    /**
+     * Deletes buckets of the activity, or of all activities of the coordinator task if activity path is null.
+     */
+    void deleteBuckets(@NotNull String coordinatorOid, @Nullable ActivityPath activityPath,
+            @NotNull OperationResult parentResult);
+
+    /** Creates new buckets following the provided last bucket (null if there are no buckets yet). */
+    @FunctionalInterface
+    interface NewBucketsFactory {
+        @NotNull List<WorkBucketType> createNewBuckets(@Nullable WorkBucketType lastBucket) throws SchemaException;
+    }
+}
@@ -23,6 +23,7 @@ import com.evolveum.midpoint.CacheInvalidationContext;
 import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.api.*;
 import com.evolveum.midpoint.repo.api.perf.PerformanceMonitor;
@@ -36,6 +37,7 @@ import com.evolveum.midpoint.repo.cache.handlers.ModificationOpHandler;
 import com.evolveum.midpoint.repo.cache.handlers.SearchOpHandler;
 import com.evolveum.midpoint.repo.cache.invalidation.Invalidator;
 import com.evolveum.midpoint.repo.cache.local.LocalRepoCacheCollection;
+import com.evolveum.midpoint.repo.cache.local.LocalRepoCacheScope;
 import com.evolveum.midpoint.schema.*;
 import com.evolveum.midpoint.schema.cache.CacheConfigurationManager;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -77,19 +79,37 @@ public class RepositoryCache implements RepositoryService, Cache {
     }
 
     /**
-     * Enters thread-local caches.
+     * Enters local caches: creates a new cache scope for the current thread or re-enters the current one.
      */
     public static void enterLocalCaches(CacheConfigurationManager mgr) {
         LocalRepoCacheCollection.enter(mgr);
     }
 
     /**
-     * Exits thread-local caches.
+     * Binds existing local cache scope (obtained by {@link #getLocalCacheScope()}, typically in another thread)
+     * to the current thread. Must be paired with {@link #exitLocalCaches()}.
+     *
+     * @throws IllegalStateException If the scope was already closed, i.e. exited by all threads bound to it.
+     */
+    public static void joinLocalCaches(@NotNull LocalRepoCacheScope scope) {
+        LocalRepoCacheCollection.join(scope);
+    }
+
+    /**
+     * Exits local caches entered by {@link #enterLocalCaches(CacheConfigurationManager)}
+     * or joined by {@link #joinLocalCaches(LocalRepoCacheScope)}.
      */
     public static void exitLocalCaches() {
         LocalRepoCacheCollection.exit();
     }
 
+    /**
+     * Returns local cache scope of the current thread, if there's any.
+     */
+    public static @Nullable LocalRepoCacheScope getLocalCacheScope() {
+        return LocalRepoCacheCollection.getCurrentScope();
+    }
+
     //region --- GET, SEARCH and COUNT operations ------------------------------------------------------------------
 
     @NotNull
@@ -100,6 +120,14 @@ public class RepositoryCache implements RepositoryService, Cache {
         return getObjectOpHandler.getObject(type, oid, options, parentResult);
     }
 
+    @NotNull
+    @Override
+    public <T extends ObjectType> SearchResultList<PrismObject<T>> getObjects(@NotNull Class<T> type,
+            @NotNull Collection<String> oids, Collection<SelectorOptions<GetOperationOptions>> options,
+            @NotNull OperationResult parentResult) throws SchemaException {
+        return getObjectOpHandler.getObjects(type, oids, options, parentResult);
+    }
+
     @Override
     public <T extends ObjectType> String getVersion(Class<T> type, String oid, OperationResult parentResult)
             throws ObjectNotFoundException, SchemaException {
@@ -156,6 +184,20 @@ public class RepositoryCache implements RepositoryService, Cache {
         return modificationOpHandler.addObject(object, options, parentResult);
     }
 
+    @NotNull
+    @Override
+    public List<BatchItemResult> addObjects(@NotNull List<? extends PrismObject<? extends ObjectType>> objects,
+            RepoAddOptions options, @NotNull OperationResult parentResult) {
+        return modificationOpHandler.addObjects(objects, options, parentResult);
+    }
+
+    @NotNull
+    @Override
+    public List<BatchItemResult> modifyObjects(@NotNull List<? extends ObjectDelta<? extends ObjectType>> deltas,
+            RepoModifyOptions options, @NotNull OperationResult parentResult) {
+        return modificationOpHandler.modifyObjects(deltas, options, parentResult);
+    }
+
     @NotNull
     public <T extends ObjectType> ModifyObjectResult<T> modifyObject(
             @NotNull Class<T> type, @NotNull String oid, @NotNull Collection<? extends ItemDelta<?, ?>> modifications,
@@ -207,7 +249,20 @@ public class RepositoryCache implements RepositoryService, Cache {
     @Override
     public <T extends ObjectType> DeleteObjectResult deleteObject(Class<T> type, String oid, OperationResult parentResult)
             throws ObjectNotFoundException {
-        return modificationOpHandler.deleteObject(type, oid, parentResult);
+        try {
+            return modificationOpHandler.deleteObject(type, oid, null, parentResult);
+        } catch (PreconditionViolationException e) {
+            throw new AssertionError(e); // with null precondition we couldn't get this exception
+        }
+    }
+
+    @NotNull
+    @Override
+    public <T extends ObjectType> DeleteObjectResult deleteObject(
+            @NotNull Class<T> type, @NotNull String oid,
+            ModificationPrecondition<T> precondition, @NotNull OperationResult parentResult)
+            throws ObjectNotFoundException, PreconditionViolationException {
+        return modificationOpHandler.deleteObject(type, oid, precondition, parentResult);
     }
 
     @Override
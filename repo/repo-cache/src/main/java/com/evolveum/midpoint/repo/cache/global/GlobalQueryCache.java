@@ -9,6 +9,7 @@ package com.evolveum.midpoint.repo.cache.global;
 
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.repo.cache.local.QueryKey;
+import com.evolveum.midpoint.repo.cache.local.QueryKeyTypeIndex;
 import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.schema.cache.CacheType;
 import com.evolveum.midpoint.util.logging.Trace;
@@ -26,9 +27,11 @@ import javax.annotation.PreDestroy;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
-import java.util.function.Predicate;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import static com.evolveum.midpoint.repo.cache.handlers.SearchOpHandler.QUERY_RESULT_SIZE_LIMIT;
 
@@ -43,8 +46,28 @@ public class GlobalQueryCache extends AbstractGlobalCache {
 
     private static final String CACHE_NAME = "queryCache";
 
+    /** How often (in puts) we check whether the type index contains too many evicted/expired keys. */
+    private static final int TYPE_INDEX_PRUNE_CHECK_INTERVAL = 1000;
+
     private org.cache2k.Cache<QueryKey, GlobalCacheQueryValue> cache;
 
+    /**
+     * Keys by type for invalidation, see {@link #getInvalidationCandidates(Class)}.
+     * Keys of entries expired or evicted by the cache itself are pruned occasionally.
+     */
+    private final QueryKeyTypeIndex typeIndex = new QueryKeyTypeIndex();
+
+    /**
+     * Puts (adding the key to the index and the entry to the cache) use read lock and can run
+     * concurrently. Removals and pruning of the index use write lock: pruning never sees the key
+     * in the index without the entry in the cache just because the put is not finished yet,
+     * and removal cannot interleave with a put of the same key, leaving the entry in the cache
+     * without the key in the index (such an entry would never be invalidated).
+     */
+    private final ReadWriteLock typeIndexLock = new ReentrantReadWriteLock();
+
+    private final AtomicInteger putsSincePruneCheck = new AtomicInteger();
+
     public void initialize() {
         if (cache != null) {
             LOGGER.warn("Global query cache was already initialized -- ignoring this request.");
@@ -92,7 +115,13 @@ public class GlobalQueryCache extends AbstractGlobalCache {
 
     public void remove(QueryKey cacheKey) {
         if (cache != null) {
-            cache.remove(cacheKey);
+            typeIndexLock.writeLock().lock();
+            try {
+                cache.remove(cacheKey);
+                typeIndex.remove(cacheKey);
+            } finally {
+                typeIndexLock.writeLock().unlock();
+            }
         }
     }
 
@@ -102,17 +131,43 @@ public class GlobalQueryCache extends AbstractGlobalCache {
             if (cacheObject.size() > QUERY_RESULT_SIZE_LIMIT) {
                 throw new IllegalStateException("Trying to cache result list greater than " + QUERY_RESULT_SIZE_LIMIT + ": " + cacheObject.size());
             }
-            //noinspection unchecked
-            cache.put(key, new GlobalCacheQueryValue(cacheObject));
+            typeIndexLock.readLock().lock();
+            try {
+                typeIndex.add(key);
+                //noinspection unchecked
+                cache.put(key, new GlobalCacheQueryValue(cacheObject));
+            } finally {
+                typeIndexLock.readLock().unlock();
+            }
+            if (putsSincePruneCheck.incrementAndGet() >= TYPE_INDEX_PRUNE_CHECK_INTERVAL) {
+                putsSincePruneCheck.set(0);
+                pruneTypeIndexIfNeeded();
+            }
         }
     }
 
-    public void deleteMatching(Predicate<Map.Entry<QueryKey, GlobalCacheQueryValue>> predicate) {
-        if (cache != null) {
-            cache.asMap().entrySet().removeIf(predicate);
+    private void pruneTypeIndexIfNeeded() {
+        int cacheSize = size();
+        int indexSize = typeIndex.size();
+        if (indexSize > 2 * cacheSize) {
+            typeIndexLock.writeLock().lock();
+            try {
+                typeIndex.retainIf(key -> cache.containsKey(key));
+            } finally {
+                typeIndexLock.writeLock().unlock();
+            }
+            LOGGER.trace("Pruned query cache type index from {} keys, cache size is {}", indexSize, cacheSize);
         }
     }
 
+    /**
+     * Returns keys of cached queries that may be affected by a change of object of given type.
+     * Some keys may be already evicted from the cache, for these {@link #get} returns null.
+     */
+    public List<QueryKey<?>> getInvalidationCandidates(Class<?> changedType) {
+        return typeIndex.getCandidates(changedType);
+    }
+
     @Override
     protected CacheType getCacheType() {
         return CacheType.GLOBAL_REPO_QUERY_CACHE;
@@ -125,7 +180,13 @@ public class GlobalQueryCache extends AbstractGlobalCache {
     @Override
     public void clear() {
         if (cache != null) {
-            cache.clear();
+            typeIndexLock.writeLock().lock();
+            try {
+                cache.clear();
+                typeIndex.clear();
+            } finally {
+                typeIndexLock.writeLock().unlock();
+            }
         }
     }
 
@@ -9,6 +9,8 @@ package com.evolveum.midpoint.repo.cache.handlers;
 
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.repo.cache.global.AbstractGlobalCache;
+import com.evolveum.midpoint.repo.cache.local.LocalRepoCacheCollection;
+import com.evolveum.midpoint.repo.cache.local.LocalRepoCacheScope;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -20,6 +22,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.Collection;
+import java.util.function.BiConsumer;
 
 import static com.evolveum.midpoint.repo.cache.other.MonitoringUtil.log;
 import static com.evolveum.midpoint.schema.GetOperationOptions.isReadOnly;
@@ -130,6 +133,7 @@ abstract class CachedOpExecution<RT extends RepositoryOperationTraceType, LC ext
     void reportLocalAndGlobalPass(PassReason passReason) {
         if (local.cache != null) {
             local.cache.registerPass();
+            registerInLocalScope(LocalRepoCacheScope::registerPass);
         }
         CachePerformanceCollector.INSTANCE.registerPass(getLocalCacheClass(), type, local.statisticsLevel);
         CachePerformanceCollector.INSTANCE.registerPass(getGlobalCacheClass(), type, global.statisticsLevel);
@@ -152,6 +156,7 @@ abstract class CachedOpExecution<RT extends RepositoryOperationTraceType, LC ext
 
     void reportLocalPass() {
         local.cache.registerPass();
+        registerInLocalScope(LocalRepoCacheScope::registerPass);
         CachePerformanceCollector.INSTANCE.registerPass(getLocalCacheClass(), type, local.statisticsLevel);
         log("Cache: PASS:CONFIGURATION {} {}", local.tracePass, opName, getDescription());
         if (trace != null) {
@@ -161,6 +166,7 @@ abstract class CachedOpExecution<RT extends RepositoryOperationTraceType, LC ext
 
     void reportLocalMiss() {
         local.cache.registerMiss();
+        registerInLocalScope(LocalRepoCacheScope::registerMiss);
         CachePerformanceCollector.INSTANCE.registerMiss(getLocalCacheClass(), type, local.statisticsLevel);
         log("Cache: MISS {} {}", local.traceMiss, opName, getDescription());
         if (trace != null) {
@@ -170,6 +176,7 @@ abstract class CachedOpExecution<RT extends RepositoryOperationTraceType, LC ext
 
     private void reportLocalHitNoClone() {
         local.cache.registerHit();
+        registerInLocalScope(LocalRepoCacheScope::registerHit);
         CachePerformanceCollector.INSTANCE.registerHit(getLocalCacheClass(), type, local.statisticsLevel);
         log("Cache: HIT {} {}", false, opName, getDescription());
         if (trace != null) {
@@ -179,6 +186,7 @@ abstract class CachedOpExecution<RT extends RepositoryOperationTraceType, LC ext
 
     private void reportLocalHitWithClone() {
         local.cache.registerHit();
+        registerInLocalScope(LocalRepoCacheScope::registerHit);
         CachePerformanceCollector.INSTANCE.registerHit(getLocalCacheClass(), type, local.statisticsLevel);
         log("Cache: HIT(clone) {} {}", false, opName, getDescription());
         if (trace != null) {
@@ -226,6 +234,13 @@ abstract class CachedOpExecution<RT extends RepositoryOperationTraceType, LC ext
         }
     }
 
+    private void registerInLocalScope(BiConsumer<LocalRepoCacheScope, Class<?>> registration) {
+        LocalRepoCacheScope scope = LocalRepoCacheCollection.getCurrentScope();
+        if (scope != null) {
+            registration.accept(scope, getLocalCacheClass());
+        }
+    }
+
     CacheUseTraceType createUse(CacheUseCategoryTraceType category) {
         return new CacheUseTraceType(prismContext).category(category);
     }
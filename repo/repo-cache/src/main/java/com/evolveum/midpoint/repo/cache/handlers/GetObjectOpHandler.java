@@ -11,18 +11,20 @@ import static com.evolveum.midpoint.repo.cache.RepositoryCache.CLASS_NAME_WITH_D
 import static com.evolveum.midpoint.repo.cache.other.MonitoringUtil.repoOpEnd;
 import static com.evolveum.midpoint.repo.cache.other.MonitoringUtil.repoOpStart;
 import static com.evolveum.midpoint.schema.GetOperationOptions.isAllowNotFound;
+import static com.evolveum.midpoint.schema.GetOperationOptions.isReadOnly;
 import static com.evolveum.midpoint.schema.SelectorOptions.findRootOptions;
 import static com.evolveum.midpoint.schema.util.TraceUtil.isAtLeastMinimal;
 
-import java.util.Collection;
-import java.util.Objects;
+import java.util.*;
 
 import org.jetbrains.annotations.NotNull;
 import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.repo.cache.global.GlobalCacheObjectValue;
+import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
@@ -38,6 +40,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.TracingLevelType;
 public class GetObjectOpHandler extends CachedOpHandler {
 
     private static final String GET_OBJECT = CLASS_NAME_WITH_DOT + "getObject";
+    private static final String GET_OBJECTS = CLASS_NAME_WITH_DOT + "getObjects";
 
     @NotNull
     public <T extends ObjectType> PrismObject<T> getObject(Class<T> type, String oid,
@@ -119,6 +122,124 @@ public class GetObjectOpHandler extends CachedOpHandler {
         }
     }
 
+    /**
+     * Bulk version of {@link #getObject}: objects available in local or global cache are served
+     * from there, all the remaining ones are fetched from the repository using single call.
+     *
+     * Global cache entries that require version check are treated as misses, because checking
+     * the version means a repository round-trip anyway.
+     */
+    @NotNull
+    public <T extends ObjectType> SearchResultList<PrismObject<T>> getObjects(Class<T> type, Collection<String> oids,
+            Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult)
+            throws SchemaException {
+
+        OperationResult result = parentResult.subresult(GET_OBJECTS)
+                .addQualifier(type.getSimpleName())
+                .addParam("type", type)
+                .addArbitraryObjectCollectionAsParam("oids", oids)
+                .addArbitraryObjectCollectionAsParam("options", options)
+                .build();
+
+        try {
+            PassReason passReason = PassReason.determine(options, type);
+            if (passReason != null) {
+                return getObjectsInternal(type, oids, options, result);
+            }
+
+            CacheSetAccessInfo<T> caches = cacheSetAccessInfoFactory.determine(type);
+            Map<String, PrismObject<T>> cachedObjects = new HashMap<>();
+            List<String> oidsToLoad = new ArrayList<>();
+            boolean readOnly = isReadOnly(findRootOptions(options));
+            for (String oid : new LinkedHashSet<>(oids)) {
+                GetObjectOpExecution<T> exec =
+                        new GetObjectOpExecution<>(type, oid, options, result, null, null, prismContext, caches);
+                PrismObject<T> cachedObject = getFromCaches(exec);
+                if (cachedObject != null) {
+                    cachedObjects.put(oid, cachedObject);
+                } else {
+                    oidsToLoad.add(oid);
+                }
+            }
+
+            List<PrismObject<T>> objects = new ArrayList<>();
+            for (PrismObject<T> cachedObject : cachedObjects.values()) {
+                objects.add(readOnly ? cachedObject : cachedObject.clone());
+            }
+
+            if (!oidsToLoad.isEmpty()) {
+                for (PrismObject<T> object : getObjectsInternal(type, oidsToLoad, options, result)) {
+                    PrismObject<T> immutable = toImmutable(object);
+                    cacheUpdater.storeImmutableObjectToObjectLocal(immutable, caches);
+                    cacheUpdater.storeImmutableObjectToObjectGlobal(immutable);
+                    cacheUpdater.storeObjectToVersionGlobal(immutable, caches.globalVersion);
+                    cacheUpdater.storeObjectToVersionLocal(immutable, caches.localVersion);
+                    objects.add(readOnly ? immutable : object.cloneIfImmutable());
+                }
+            }
+
+            result.addReturn("cached", cachedObjects.size());
+            result.addReturn("loaded", objects.size() - cachedObjects.size());
+            return RepositoryService.sortByOids(objects, oids);
+        } catch (Throwable t) {
+            result.recordFatalError(t);
+            throw t;
+        } finally {
+            result.close();
+        }
+    }
+
+    /**
+     * Returns immutable object from local or global cache (also storing it to the local one, if found
+     * in the global cache) or null if the object has to be fetched from the repository.
+     */
+    private <T extends ObjectType> PrismObject<T> getFromCaches(GetObjectOpExecution<T> exec) {
+        if (!exec.local.available) {
+            exec.reportLocalNotAvailable();
+        } else if (!exec.local.supports) {
+            exec.reportLocalPass();
+        } else {
+            PrismObject<T> cachedObject = exec.local.cache.get(exec.oid);
+            if (cachedObject != null) {
+                exec.reportLocalHit();
+                return cachedObject;
+            } else {
+                exec.reportLocalMiss();
+            }
+        }
+
+        if (!exec.global.available) {
+            exec.reportGlobalNotAvailable();
+            return null;
+        } else if (!exec.global.supports) {
+            exec.reportGlobalPass();
+            return null;
+        }
+
+        GlobalCacheObjectValue<T> cachedValue = globalObjectCache.get(exec.oid);
+        if (cachedValue == null || cachedValue.shouldCheckVersion()) {
+            exec.reportGlobalMiss();
+            return null;
+        } else {
+            exec.reportGlobalHit();
+            PrismObject<T> cachedObject = cachedValue.getObject();
+            cacheUpdater.storeImmutableObjectToAllLocal(cachedObject, exec.caches);
+            return cachedObject;
+        }
+    }
+
+    @NotNull
+    private <T extends ObjectType> SearchResultList<PrismObject<T>> getObjectsInternal(Class<T> type,
+            Collection<String> oids, Collection<SelectorOptions<GetOperationOptions>> options,
+            OperationResult parentResult) throws SchemaException {
+        Long startTime = repoOpStart();
+        try {
+            return repositoryService.getObjects(type, oids, options, parentResult);
+        } finally {
+            repoOpEnd(startTime);
+        }
+    }
+
     private <T extends ObjectType> GetObjectOpExecution<T> initializeExecution(Class<T> type, String oid,
             Collection<SelectorOptions<GetOperationOptions>> options, OperationResult parentResult) {
         OperationResult result = parentResult.subresult(GET_OBJECT)
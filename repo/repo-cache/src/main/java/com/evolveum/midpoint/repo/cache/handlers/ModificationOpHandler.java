@@ -9,6 +9,7 @@ package com.evolveum.midpoint.repo.cache.handlers;
 
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.delta.ObjectDelta;
 import com.evolveum.midpoint.repo.api.*;
 import com.evolveum.midpoint.repo.cache.other.MonitoringUtil;
 import com.evolveum.midpoint.schema.DeltaConvertor;
@@ -24,6 +25,7 @@ import org.springframework.stereotype.Component;
 
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Random;
 
 import static com.evolveum.midpoint.repo.cache.RepositoryCache.CLASS_NAME_WITH_DOT;
@@ -40,6 +42,8 @@ public class ModificationOpHandler extends BaseOpHandler {
     private static final String ADD_OBJECT = CLASS_NAME_WITH_DOT + "addObject";
     private static final String MODIFY_OBJECT = CLASS_NAME_WITH_DOT + "modifyObject";
     private static final String DELETE_OBJECT = CLASS_NAME_WITH_DOT + "deleteObject";
+    private static final String ADD_OBJECTS = CLASS_NAME_WITH_DOT + "addObjects";
+    private static final String MODIFY_OBJECTS = CLASS_NAME_WITH_DOT + "modifyObjects";
     private static final String ADVANCE_SEQUENCE = CLASS_NAME_WITH_DOT + "advanceSequence";
     private static final String RETURN_UNUSED_VALUES_TO_SEQUENCE = CLASS_NAME_WITH_DOT + "returnUnusedValuesToSequence";
     private static final String ADD_DIAGNOSTIC_INFORMATION = CLASS_NAME_WITH_DOT + "addDiagnosticInformation";
@@ -149,8 +153,83 @@ public class ModificationOpHandler extends BaseOpHandler {
     }
 
     @NotNull
-    public <T extends ObjectType> DeleteObjectResult deleteObject(Class<T> type, String oid, OperationResult parentResult)
-            throws ObjectNotFoundException {
+    public List<BatchItemResult> addObjects(@NotNull List<? extends PrismObject<? extends ObjectType>> objects,
+            RepoAddOptions options, @NotNull OperationResult parentResult) {
+        OperationResult result = parentResult.subresult(ADD_OBJECTS)
+                .addParam("count", objects.size())
+                .addParam("overwrite", RepoAddOptions.isOverwrite(options))
+                .addArbitraryObjectAsParam("options", options)
+                .build();
+        try {
+            List<BatchItemResult> batchResults;
+            Long startTime = MonitoringUtil.repoOpStart();
+            try {
+                batchResults = repositoryService.addObjects(objects, options, result);
+            } finally {
+                MonitoringUtil.repoOpEnd(startTime);
+            }
+            // As in addObject, objects are not cached, only invalidated.
+            for (int i = 0; i < batchResults.size(); i++) {
+                BatchItemResult batchResult = batchResults.get(i);
+                if (batchResult.isSuccess()) {
+                    invalidateAfterAdd(objects.get(i), batchResult.getOid(), options, result);
+                }
+            }
+            return batchResults;
+        } catch (Throwable t) {
+            result.recordFatalError(t);
+            throw t;
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    private <T extends ObjectType> void invalidateAfterAdd(
+            PrismObject<T> object, String oid, RepoAddOptions options, OperationResult result) {
+        if (options != null && options.isOverwrite()) {
+            invalidator.invalidateCacheEntries(object.getCompileTimeClass(), oid,
+                    new ModifyObjectResult<>(object.getUserData(RepositoryService.KEY_ORIGINAL_OBJECT), object,
+                            Collections.emptyList()), result);
+        } else {
+            invalidator.invalidateCacheEntries(object.getCompileTimeClass(), oid, new AddObjectResult<>(object), result);
+        }
+    }
+
+    @NotNull
+    public List<BatchItemResult> modifyObjects(@NotNull List<? extends ObjectDelta<? extends ObjectType>> deltas,
+            RepoModifyOptions options, @NotNull OperationResult parentResult) {
+        OperationResult result = parentResult.subresult(MODIFY_OBJECTS)
+                .addParam("count", deltas.size())
+                .addArbitraryObjectAsParam("options", options)
+                .build();
+        List<BatchItemResult> batchResults = null;
+        try {
+            Long startTime = MonitoringUtil.repoOpStart();
+            try {
+                batchResults = repositoryService.modifyObjects(deltas, options, result);
+                return batchResults;
+            } finally {
+                MonitoringUtil.repoOpEnd(startTime);
+                // like in modifyObject, failed modifications are invalidated too, just to be sure
+                for (int i = 0; i < deltas.size(); i++) {
+                    ObjectDelta<? extends ObjectType> delta = deltas.get(i);
+                    BatchItemResult batchResult = batchResults != null ? batchResults.get(i) : null;
+                    invalidator.invalidateCacheEntries(delta.getObjectTypeClass(), delta.getOid(),
+                            batchResult != null ? batchResult.getModifyObjectResult() : null, result);
+                }
+            }
+        } catch (Throwable t) {
+            result.recordFatalError(t);
+            throw t;
+        } finally {
+            result.computeStatusIfUnknown();
+        }
+    }
+
+    @NotNull
+    public <T extends ObjectType> DeleteObjectResult deleteObject(Class<T> type, String oid,
+            ModificationPrecondition<T> precondition, OperationResult parentResult)
+            throws ObjectNotFoundException, PreconditionViolationException {
         OperationResult result = parentResult.subresult(DELETE_OBJECT)
                 .addQualifier(type.getSimpleName())
                 .addParam("type", type)
@@ -168,7 +247,7 @@ public class ModificationOpHandler extends BaseOpHandler {
         DeleteObjectResult deleteInfo = null;
         try {
             try {
-                deleteInfo = repositoryService.deleteObject(type, oid, result);
+                deleteInfo = repositoryService.deleteObject(type, oid, precondition, result);
             } finally {
                 MonitoringUtil.repoOpEnd(startTime);
                 invalidator.invalidateCacheEntries(type, oid, deleteInfo, result);
@@ -28,6 +28,7 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.FunctionLibraryType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
 
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SystemConfigurationType;
 
@@ -37,7 +38,6 @@ import org.springframework.stereotype.Component;
 
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 
 import static com.evolveum.midpoint.repo.cache.RepositoryCache.*;
 import static com.evolveum.midpoint.repo.cache.local.LocalRepoCacheCollection.*;
@@ -50,9 +50,14 @@ public class Invalidator {
 
     public static final Trace LOGGER = TraceManager.getTrace(Invalidator.class);
 
+    /**
+     * Changes of these types must be propagated to other nodes even if they are not cached globally.
+     * Orgs are here because of the org hierarchy index in the native repository.
+     */
     private static final List<Class<?>> TYPES_ALWAYS_INVALIDATED_CLUSTERWIDE = Arrays.asList(
             SystemConfigurationType.class,
-            FunctionLibraryType.class);
+            FunctionLibraryType.class,
+            OrgType.class);
 
     @Autowired private GlobalQueryCache globalQueryCache;
     @Autowired private GlobalObjectCache globalObjectCache;
@@ -69,6 +74,9 @@ public class Invalidator {
 
     @NotNull private final Set<InvalidationEventListener> listeners = ConcurrentHashMap.newKeySet();
 
+    @NotNull private final QueryInvalidationStatistics localQueryInvalidationStatistics = new QueryInvalidationStatistics();
+    @NotNull private final QueryInvalidationStatistics globalQueryInvalidationStatistics = new QueryInvalidationStatistics();
+
     // This is what is called from cache dispatcher (on local node with the full context; on remote nodes with reduced context)
     public void invalidate(Class<?> type, String oid, CacheInvalidationContext context) {
         if (type == null) {
@@ -125,50 +133,59 @@ public class Invalidator {
 
     private <T extends ObjectType> void clearQueryResultsLocally(LocalQueryCache cache, Class<T> type, String oid,
             Object additionalInfo, MatchingRuleRegistry matchingRuleRegistry) {
-        // TODO implement more efficiently
-
         ChangeDescription change = ChangeDescription.getFrom(type, oid, additionalInfo, true);
 
         long start = System.currentTimeMillis();
-        int all = 0;
+        int scanned = 0;
         int removed = 0;
-        Iterator<Map.Entry<QueryKey, SearchResultList>> iterator = cache.getEntryIterator();
-        while (iterator.hasNext()) {
-            Map.Entry<QueryKey, SearchResultList> entry = iterator.next();
-            QueryKey<?> queryKey = entry.getKey();
-            all++;
-            if (change.mayAffect(queryKey, entry.getValue(), matchingRuleRegistry)) {
+        for (QueryKey<?> queryKey : cache.getInvalidationCandidates(type)) {
+            SearchResultList<?> list = cache.get(queryKey);
+            if (list == null) {
+                continue;
+            }
+            scanned++;
+            if (change.mayAffect(queryKey, list, matchingRuleRegistry)) {
                 LOGGER.trace("Removing (from local cache) query for type={}, change={}: {}", type, change, queryKey.getQuery());
-                iterator.remove();
+                cache.remove(queryKey);
                 removed++;
             }
         }
-        LOGGER.trace("Removed (from local cache) {} (of {}) query result entries of type {} in {} ms", removed, all, type, System.currentTimeMillis() - start);
+        localQueryInvalidationStatistics.record(scanned, removed);
+        LOGGER.trace("Removed (from local cache) {} (of {} scanned) query result entries of type {} in {} ms",
+                removed, scanned, type, System.currentTimeMillis() - start);
     }
 
     private <T extends ObjectType> void clearQueryResultsGlobally(Class<T> type, String oid, CacheInvalidationContext context) {
-        // TODO implement more efficiently
-
         // Safe invalidation means we evict queries without looking at details of the change.
         boolean safeIfUnknown = !context.isFromRemoteNode() || globalQueryCache.shouldDoSafeRemoteInvalidationFor(type);
         ChangeDescription change = ChangeDescription.getFrom(type, oid, context, safeIfUnknown);
 
         long start = System.currentTimeMillis();
-        AtomicInteger all = new AtomicInteger(0);
-        AtomicInteger removed = new AtomicInteger(0);
-
-        globalQueryCache.deleteMatching(entry -> {
-            QueryKey queryKey = entry.getKey();
-            all.incrementAndGet();
-            if (change.mayAffect(queryKey, entry.getValue().getResult(), matchingRuleRegistry)) {
+        int scanned = 0;
+        int removed = 0;
+        for (QueryKey<?> queryKey : globalQueryCache.getInvalidationCandidates(type)) {
+            SearchResultList<?> list = globalQueryCache.get(queryKey);
+            if (list == null) {
+                continue; // evicted or expired meanwhile
+            }
+            scanned++;
+            if (change.mayAffect(queryKey, list, matchingRuleRegistry)) {
                 LOGGER.trace("Removing (from global cache) query for type={}, change={}: {}", type, change, queryKey.getQuery());
-                removed.incrementAndGet();
-                return true;
-            } else {
-                return false;
+                globalQueryCache.remove(queryKey);
+                removed++;
             }
-        });
-        LOGGER.trace("Removed (from global cache) {} (of {}) query result entries of type {} in {} ms", removed, all, type, System.currentTimeMillis() - start);
+        }
+        globalQueryInvalidationStatistics.record(scanned, removed);
+        LOGGER.trace("Removed (from global cache) {} (of {} scanned) query result entries of type {} in {} ms",
+                removed, scanned, type, System.currentTimeMillis() - start);
+    }
+
+    public @NotNull QueryInvalidationStatistics getLocalQueryInvalidationStatistics() {
+        return localQueryInvalidationStatistics;
+    }
+
+    public @NotNull QueryInvalidationStatistics getGlobalQueryInvalidationStatistics() {
+        return globalQueryInvalidationStatistics;
     }
 
     public void registerInvalidationEventsListener(InvalidationEventListener listener) {
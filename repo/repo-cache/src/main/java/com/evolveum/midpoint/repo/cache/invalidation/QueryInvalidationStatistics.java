@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.cache.invalidation;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts work done by query cache invalidation, so the efficiency of the type index
+ * can be seen: only the scanned entries are matched against the change.
+ * Thread-safe, one instance for local caches (all threads) and one for the global cache.
+ */
+public class QueryInvalidationStatistics {
+
+    private final AtomicLong invalidations = new AtomicLong();
+    private final AtomicLong scannedEntries = new AtomicLong();
+    private final AtomicLong evictedEntries = new AtomicLong();
+
+    void record(int scanned, int evicted) {
+        invalidations.incrementAndGet();
+        scannedEntries.addAndGet(scanned);
+        evictedEntries.addAndGet(evicted);
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /** Entries matched against the change, i.e. candidates from the type index still present in the cache. */
+    public long getScannedEntries() {
+        return scannedEntries.get();
+    }
+
+    public long getEvictedEntries() {
+        return evictedEntries.get();
+    }
+
+    public void reset() {
+        invalidations.set(0);
+        scannedEntries.set(0);
+        evictedEntries.set(0);
+    }
+
+    @Override
+    public String toString() {
+        return "invalidations=" + invalidations
+                + ", scanned=" + scannedEntries
+                + ", evicted=" + evictedEntries;
+    }
+}
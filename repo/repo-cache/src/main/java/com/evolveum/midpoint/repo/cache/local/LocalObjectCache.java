@@ -17,7 +17,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Thread-local cache for storing objects.
+ * Local cache for storing objects, living in {@link LocalRepoCacheScope}.
  */
 public class LocalObjectCache extends AbstractThreadLocalCache {
 
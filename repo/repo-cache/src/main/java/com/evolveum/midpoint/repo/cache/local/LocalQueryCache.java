@@ -9,7 +9,7 @@ package com.evolveum.midpoint.repo.cache.local;
 
 import static com.evolveum.midpoint.repo.cache.handlers.SearchOpHandler.QUERY_RESULT_SIZE_LIMIT;
 
-import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
@@ -23,7 +23,7 @@ import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
 /**
- * Thread-local cache for storing query results.
+ * Local cache for storing query results, living in {@link LocalRepoCacheScope}.
  */
 public class LocalQueryCache extends AbstractThreadLocalCache {
 
@@ -31,6 +31,9 @@ public class LocalQueryCache extends AbstractThreadLocalCache {
 
     private final Map<QueryKey, SearchResultList> data = new ConcurrentHashMap<>();
 
+    /** Keys by type for invalidation, see {@link #getInvalidationCandidates(Class)}. */
+    private final QueryKeyTypeIndex typeIndex = new QueryKeyTypeIndex();
+
     public <T extends ObjectType> SearchResultList<PrismObject<T>> get(QueryKey key) {
         //noinspection unchecked
         return data.get(key);
@@ -41,11 +44,19 @@ public class LocalQueryCache extends AbstractThreadLocalCache {
         if (list.size() > QUERY_RESULT_SIZE_LIMIT) {
             throw new IllegalStateException("Trying to cache result list greater than " + QUERY_RESULT_SIZE_LIMIT + ": " + list.size());
         }
-        data.put(key, list);
+        // The index is updated within the atomic map operation, so concurrent put and remove
+        // of the same key cannot leave the entry in the cache without the key in the index.
+        data.compute(key, (k, old) -> {
+            typeIndex.add(key);
+            return list;
+        });
     }
 
     public void remove(QueryKey key) {
-        data.remove(key);
+        data.compute(key, (k, old) -> {
+            typeIndex.remove(key);
+            return null;
+        });
     }
 
     @Override
@@ -65,16 +76,7 @@ public class LocalQueryCache extends AbstractThreadLocalCache {
         }
     }
 
-    @SuppressWarnings("SameParameterValue")
-    static int getTotalCachedObjects(ConcurrentHashMap<Thread, LocalQueryCache> cacheInstances) {
-        int rv = 0;
-        for (LocalQueryCache cacheInstance : cacheInstances.values()) {
-            rv += cacheInstance.getCachedObjects();
-        }
-        return rv;
-    }
-
-    private int getCachedObjects() {
+    int getCachedObjects() {
         int rv = 0;
         for (SearchResultList value : data.values()) {
             rv += value.size();
@@ -82,7 +84,8 @@ public class LocalQueryCache extends AbstractThreadLocalCache {
         return rv;
     }
 
-    public Iterator<Map.Entry<QueryKey, SearchResultList>> getEntryIterator() {
-        return data.entrySet().iterator();
+    /** Returns keys of cached queries that may be affected by a change of object of given type. */
+    public List<QueryKey<?>> getInvalidationCandidates(Class<?> changedType) {
+        return typeIndex.getCandidates(changedType);
     }
 }
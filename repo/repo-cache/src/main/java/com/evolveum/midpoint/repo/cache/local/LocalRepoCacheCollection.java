@@ -9,21 +9,29 @@ package com.evolveum.midpoint.repo.cache.local;
 
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.schema.cache.CacheConfigurationManager;
-import com.evolveum.midpoint.util.caching.CacheConfiguration;
 import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInformationType;
 
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
-import static com.evolveum.midpoint.schema.cache.CacheType.*;
-
 /**
- * Set of three thread-local repo caches (object, version, query).
+ * Local repo caches (object, version, query) grouped in {@link LocalRepoCacheScope} instances.
+ *
+ * The scope current for a thread is kept in a {@link ThreadLocal} (no global map keyed by threads,
+ * so it works with any kind of threads, including virtual ones) as a stack of bindings:
+ *
+ * - {@link #enter(CacheConfigurationManager)} creates a new scope, or re-enters the current one if there is any,
+ * - {@link #join(LocalRepoCacheScope)} binds an existing scope (e.g. taken by {@link #getCurrentScope()}
+ * in the thread that handed the work over) to the current thread, on top of any current scope,
+ * - {@link #exit()} reverts the last enter or join; the scope is closed when no thread is bound to it anymore.
  */
 @Component
 public class LocalRepoCacheCollection {
@@ -32,76 +40,139 @@ public class LocalRepoCacheCollection {
 
     @Autowired private PrismContext prismContext;
 
-    private static final ConcurrentHashMap<Thread, LocalObjectCache> LOCAL_OBJECT_CACHE_INSTANCE = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<Thread, LocalVersionCache> LOCAL_VERSION_CACHE_INSTANCE = new ConcurrentHashMap<>();
-    private static final ConcurrentHashMap<Thread, LocalQueryCache> LOCAL_QUERY_CACHE_INSTANCE = new ConcurrentHashMap<>();
+    private static final ThreadLocal<Binding> CURRENT_BINDING = new ThreadLocal<>();
+
+    /** All open scopes, for diagnostics and for closing them on destroy. */
+    private static final Set<LocalRepoCacheScope> OPEN_SCOPES = ConcurrentHashMap.newKeySet();
 
     public static LocalObjectCache getLocalObjectCache() {
-        return LOCAL_OBJECT_CACHE_INSTANCE.get(Thread.currentThread());
+        LocalRepoCacheScope scope = getCurrentScope();
+        return scope != null ? scope.getObjectCache() : null;
     }
 
     public static LocalVersionCache getLocalVersionCache() {
-        return LOCAL_VERSION_CACHE_INSTANCE.get(Thread.currentThread());
+        LocalRepoCacheScope scope = getCurrentScope();
+        return scope != null ? scope.getVersionCache() : null;
     }
 
     public static LocalQueryCache getLocalQueryCache() {
-        return LOCAL_QUERY_CACHE_INSTANCE.get(Thread.currentThread());
+        LocalRepoCacheScope scope = getCurrentScope();
+        return scope != null ? scope.getQueryCache() : null;
+    }
+
+    /** Returns the open scope of the current thread, if there's any. */
+    public static @Nullable LocalRepoCacheScope getCurrentScope() {
+        Binding binding = CURRENT_BINDING.get();
+        return binding != null && !binding.scope.isClosed() ? binding.scope : null;
     }
 
+    /**
+     * Closes all open scopes. Bindings of other threads can't be removed from here, but these threads
+     * see no local caches from now on (and cannot join the scopes), and they remove the bindings by their (pending) exits.
+     */
     public static void destroy() {
-        LocalObjectCache.destroy(LOCAL_OBJECT_CACHE_INSTANCE, LOGGER);
-        LocalVersionCache.destroy(LOCAL_VERSION_CACHE_INSTANCE, LOGGER);
-        LocalQueryCache.destroy(LOCAL_QUERY_CACHE_INSTANCE, LOGGER);
+        OPEN_SCOPES.forEach(LocalRepoCacheScope::close);
+        OPEN_SCOPES.clear();
+        CURRENT_BINDING.remove();
     }
 
     public static void enter(CacheConfigurationManager mgr) {
-        // let's compute configuration first -- an exception can be thrown there; so if it happens, none of the caches
-        // will be entered into upon exit of this method
-        CacheConfiguration objectCacheConfig = mgr.getConfiguration(LOCAL_REPO_OBJECT_CACHE);
-        CacheConfiguration versionCacheConfig = mgr.getConfiguration(LOCAL_REPO_VERSION_CACHE);
-        CacheConfiguration queryCacheConfig = mgr.getConfiguration(LOCAL_REPO_QUERY_CACHE);
-
-        LocalObjectCache.enter(LOCAL_OBJECT_CACHE_INSTANCE, LocalObjectCache.class, objectCacheConfig, LOGGER);
-        LocalVersionCache.enter(LOCAL_VERSION_CACHE_INSTANCE, LocalVersionCache.class, versionCacheConfig, LOGGER);
-        LocalQueryCache.enter(LOCAL_QUERY_CACHE_INSTANCE, LocalQueryCache.class, queryCacheConfig, LOGGER);
+        Binding binding = CURRENT_BINDING.get();
+        if (binding != null) {
+            binding.depth++;
+            LOGGER.trace("Cache: ENTER (depth {}) for thread {}: {}",
+                    binding.depth, Thread.currentThread().getName(), binding.scope);
+        } else {
+            // The scope is created first -- an exception can be thrown there; so if it happens,
+            // the thread is not bound to any scope upon exit of this method.
+            LocalRepoCacheScope scope = LocalRepoCacheScope.create(mgr);
+            OPEN_SCOPES.add(scope);
+            CURRENT_BINDING.set(new Binding(scope, null));
+            LOGGER.trace("Cache: ENTER (new scope) for thread {}", Thread.currentThread().getName());
+        }
+    }
+
+    /**
+     * Binds existing scope to the current thread, so it shares the cached data with the other threads
+     * bound to the scope. Must be paired with {@link #exit()}.
+     *
+     * @throws IllegalStateException If the scope is already closed, i.e. all threads exited it (or it was destroyed).
+     */
+    public static void join(@NotNull LocalRepoCacheScope scope) {
+        if (!scope.bind()) {
+            throw new IllegalStateException("Cannot join closed local repo cache scope: " + scope);
+        }
+        CURRENT_BINDING.set(new Binding(scope, CURRENT_BINDING.get()));
+        LOGGER.trace("Cache: JOIN for thread {}: {}", Thread.currentThread().getName(), scope);
     }
 
     public static void exit() {
-        LocalObjectCache.exit(LOCAL_OBJECT_CACHE_INSTANCE, LOGGER);
-        LocalVersionCache.exit(LOCAL_VERSION_CACHE_INSTANCE, LOGGER);
-        LocalQueryCache.exit(LOCAL_QUERY_CACHE_INSTANCE, LOGGER);
+        Binding binding = CURRENT_BINDING.get();
+        if (binding == null) {
+            LOGGER.error("Cache: Attempt to exit cache that does not exist or has been already destroyed for thread {}",
+                    Thread.currentThread().getName());
+            return;
+        }
+        if (--binding.depth > 0) {
+            LOGGER.trace("Cache: EXIT (depth {}) for thread {}", binding.depth, Thread.currentThread().getName());
+            return;
+        }
+        if (binding.previous != null) {
+            CURRENT_BINDING.set(binding.previous);
+        } else {
+            CURRENT_BINDING.remove();
+        }
+        if (binding.scope.unbind()) {
+            OPEN_SCOPES.remove(binding.scope);
+        }
+        LOGGER.trace("Cache: EXIT (unbound) for thread {}: {}", Thread.currentThread().getName(), binding.scope);
     }
 
     public static boolean exists() {
-        return LocalObjectCache.exists(LOCAL_OBJECT_CACHE_INSTANCE) ||
-                LocalVersionCache.exists(LOCAL_VERSION_CACHE_INSTANCE) ||
-                LocalQueryCache.exists(LOCAL_QUERY_CACHE_INSTANCE);
+        return getCurrentScope() != null;
     }
 
     public static String debugDump() {
-        // TODO
-        return LocalObjectCache.debugDump(LOCAL_OBJECT_CACHE_INSTANCE) + "\n" +
-                LocalVersionCache.debugDump(LOCAL_VERSION_CACHE_INSTANCE) + "\n" +
-                LocalQueryCache.debugDump(LOCAL_QUERY_CACHE_INSTANCE);
+        LocalRepoCacheScope scope = getCurrentScope();
+        return scope != null ? scope.toString() : "(no local repo cache scope)";
     }
 
     public void getStateInformation(List<SingleCacheStateInformationType> rv) {
+        int objects = 0;
+        int versions = 0;
+        int queries = 0;
+        int queryObjects = 0;
+        for (LocalRepoCacheScope scope : OPEN_SCOPES) {
+            objects += scope.getObjectCacheSize();
+            versions += scope.getVersionCacheSize();
+            queries += scope.getQueryCacheSize();
+            queryObjects += scope.getQueryCachedObjects();
+        }
         rv.add(new SingleCacheStateInformationType(prismContext)
                 .name(LocalObjectCache.class.getName())
-                .size(LocalObjectCache.getTotalSize(LOCAL_OBJECT_CACHE_INSTANCE)));
+                .size(objects));
         rv.add(new SingleCacheStateInformationType(prismContext)
                 .name(LocalVersionCache.class.getName())
-                .size(LocalVersionCache.getTotalSize(LOCAL_VERSION_CACHE_INSTANCE)));
+                .size(versions));
         rv.add(new SingleCacheStateInformationType(prismContext)
                 .name(LocalQueryCache.class.getName())
-                .size(LocalQueryCache.getTotalSize(LOCAL_QUERY_CACHE_INSTANCE))
-                .secondarySize(LocalQueryCache.getTotalCachedObjects(LOCAL_QUERY_CACHE_INSTANCE)));
-
+                .size(queries)
+                .secondarySize(queryObjects));
     }
 
     public void dumpContent() {
-        LocalObjectCache.dumpContent(LOCAL_OBJECT_CACHE_INSTANCE);
-        LocalVersionCache.dumpContent(LOCAL_VERSION_CACHE_INSTANCE);
-        LocalQueryCache.dumpContent(LOCAL_QUERY_CACHE_INSTANCE);
+        OPEN_SCOPES.forEach(LocalRepoCacheScope::dumpContent);
+    }
+
+    /** Binding of a scope to a thread. Accessed only by the thread itself. */
+    private static class Binding {
+        @NotNull private final LocalRepoCacheScope scope;
+        @Nullable private final Binding previous;
+        private int depth = 1;
+
+        private Binding(@NotNull LocalRepoCacheScope scope, @Nullable Binding previous) {
+            this.scope = scope;
+            this.previous = previous;
+        }
     }
 }
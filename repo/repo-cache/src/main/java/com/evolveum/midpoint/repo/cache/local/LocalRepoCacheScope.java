@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.cache.local;
+
+import static com.evolveum.midpoint.schema.cache.CacheType.*;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.schema.cache.CacheConfigurationManager;
+import com.evolveum.midpoint.schema.statistics.CachePerformanceInformationUtil;
+import com.evolveum.midpoint.util.caching.AbstractThreadLocalCache;
+import com.evolveum.midpoint.util.caching.CacheConfiguration;
+import com.evolveum.midpoint.util.caching.CachePerformanceCollector;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.CachesPerformanceInformationType;
+
+/**
+ * Scope of local repo caches (object, version, query), typically one operation or one processed item.
+ *
+ * The scope is bound to the current thread by {@link LocalRepoCacheCollection#enter} and it can be
+ * bound to other threads cooperating on the same work by {@link LocalRepoCacheCollection#join}.
+ * The scope lives as long as it is bound to at least one thread, or until it's closed by
+ * {@link LocalRepoCacheCollection#destroy()}. Once closed, it cannot be bound again: the number of bound
+ * threads is changed only by compare-and-set, so a join racing with the last exit either binds the scope
+ * before it's closed, or fails. Cache contents are thread-safe (concurrent maps), so the sharing is safe,
+ * although the cooperating threads see each other's cached data - which is the point.
+ *
+ * The scope collects its own hit/miss/pass statistics, in the same form as the global
+ * {@link CachePerformanceCollector}, so they can be converted by {@link CachePerformanceInformationUtil}.
+ */
+public class LocalRepoCacheScope {
+
+    private static final Trace LOGGER = TraceManager.getTrace(LocalRepoCacheScope.class);
+
+    @NotNull private final LocalObjectCache objectCache;
+    @NotNull private final LocalVersionCache versionCache;
+    @NotNull private final LocalQueryCache queryCache;
+
+    /** Name of the thread that created the scope, for diagnostics. */
+    @NotNull private final String ownerThreadName;
+
+    /** Number of threads the scope is currently bound to. Zero means the scope is closed (forever). */
+    private final AtomicInteger boundThreads = new AtomicInteger(1);
+
+    @NotNull private final Map<String, CachePerformanceCollector.CacheData> performanceMap = new ConcurrentHashMap<>();
+
+    private LocalRepoCacheScope(@NotNull LocalObjectCache objectCache, @NotNull LocalVersionCache versionCache,
+            @NotNull LocalQueryCache queryCache) {
+        this.objectCache = objectCache;
+        this.versionCache = versionCache;
+        this.queryCache = queryCache;
+        this.ownerThreadName = Thread.currentThread().getName();
+    }
+
+    static @NotNull LocalRepoCacheScope create(@NotNull CacheConfigurationManager mgr) {
+        // let's compute configuration first -- an exception can be thrown there
+        CacheConfiguration objectCacheConfig = mgr.getConfiguration(LOCAL_REPO_OBJECT_CACHE);
+        CacheConfiguration versionCacheConfig = mgr.getConfiguration(LOCAL_REPO_VERSION_CACHE);
+        CacheConfiguration queryCacheConfig = mgr.getConfiguration(LOCAL_REPO_QUERY_CACHE);
+
+        return new LocalRepoCacheScope(
+                createCache(LocalObjectCache::new, objectCacheConfig),
+                createCache(LocalVersionCache::new, versionCacheConfig),
+                createCache(LocalQueryCache::new, queryCacheConfig));
+    }
+
+    private static <C extends AbstractThreadLocalCache> C createCache(Supplier<C> constructor, CacheConfiguration config) {
+        C cache = constructor.get();
+        cache.setConfiguration(config);
+        return cache;
+    }
+
+    public @NotNull LocalObjectCache getObjectCache() {
+        return objectCache;
+    }
+
+    public @NotNull LocalVersionCache getVersionCache() {
+        return versionCache;
+    }
+
+    public @NotNull LocalQueryCache getQueryCache() {
+        return queryCache;
+    }
+
+    /**
+     * Binds the scope to one more thread. Returns false if the scope is already closed.
+     * (The scope is created as bound to the creating thread.)
+     */
+    boolean bind() {
+        for (;;) {
+            int current = boundThreads.get();
+            if (current <= 0) {
+                return false;
+            }
+            if (boundThreads.compareAndSet(current, current + 1)) {
+                return true;
+            }
+        }
+    }
+
+    /** Unbinds the scope from one thread. Returns true if this was the last thread, i.e. the scope is closed now. */
+    boolean unbind() {
+        for (;;) {
+            int current = boundThreads.get();
+            if (current <= 0) {
+                return false; // closed by destroy
+            }
+            if (boundThreads.compareAndSet(current, current - 1)) {
+                if (current == 1) {
+                    logClosing();
+                    return true;
+                } else {
+                    return false;
+                }
+            }
+        }
+    }
+
+    /** Closes the scope regardless of the threads bound to it. */
+    void close() {
+        if (boundThreads.getAndSet(0) > 0) {
+            logClosing();
+        }
+    }
+
+    private void logClosing() {
+        LOGGER.debug("Closing local repo cache scope of {}: {}, performance: {}",
+                ownerThreadName, description(), performanceMap);
+    }
+
+    public boolean isClosed() {
+        return boundThreads.get() <= 0;
+    }
+
+    //region Statistics
+    public void registerHit(@NotNull Class<?> cacheClass) {
+        getCacheData(cacheClass).hits.incrementAndGet();
+    }
+
+    public void registerMiss(@NotNull Class<?> cacheClass) {
+        getCacheData(cacheClass).misses.incrementAndGet();
+    }
+
+    public void registerPass(@NotNull Class<?> cacheClass) {
+        getCacheData(cacheClass).passes.incrementAndGet();
+    }
+
+    private CachePerformanceCollector.CacheData getCacheData(Class<?> cacheClass) {
+        return performanceMap.computeIfAbsent(cacheClass.getSimpleName(), k -> new CachePerformanceCollector.CacheData());
+    }
+
+    /** Returns statistics for this scope only (from all threads bound to it), keyed by cache class simple name. */
+    public @NotNull Map<String, CachePerformanceCollector.CacheData> getPerformanceMap() {
+        return performanceMap;
+    }
+
+    public @NotNull CachesPerformanceInformationType getPerformanceInformation() {
+        return CachePerformanceInformationUtil.toCachesPerformanceInformationType(performanceMap);
+    }
+    //endregion
+
+    //region Diagnostics
+    int getObjectCacheSize() {
+        return objectCache.getSize();
+    }
+
+    int getVersionCacheSize() {
+        return versionCache.getSize();
+    }
+
+    int getQueryCacheSize() {
+        return queryCache.getSize();
+    }
+
+    int getQueryCachedObjects() {
+        return queryCache.getCachedObjects();
+    }
+
+    String description() {
+        return objectCache.description() + " " + versionCache.description() + " " + queryCache.description();
+    }
+
+    void dumpContent() {
+        objectCache.dumpContent(ownerThreadName);
+        versionCache.dumpContent(ownerThreadName);
+        queryCache.dumpContent(ownerThreadName);
+    }
+
+    @Override
+    public String toString() {
+        return "LocalRepoCacheScope{" +
+                "owner=" + ownerThreadName +
+                ", threads=" + boundThreads +
+                ", " + description() +
+                '}';
+    }
+    //endregion
+}
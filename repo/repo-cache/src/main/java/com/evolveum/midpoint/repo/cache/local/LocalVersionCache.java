@@ -16,7 +16,7 @@ import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
- * Thread-local cache for object version.
+ * Local cache for object version, living in {@link LocalRepoCacheScope}.
  */
 public class LocalVersionCache extends AbstractThreadLocalCache {
 
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.cache.local;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Index of query cache keys by the query type.
+ * It is used by invalidation to visit only the queries that can be affected by a change
+ * of an object of some type, instead of visiting all the cached queries.
+ *
+ * Query can be affected by the change if its type is the type of the changed object
+ * or any of its supertypes, e.g. `UserType` change can affect queries for `UserType`,
+ * `FocusType`, `AssignmentHolderType` and `ObjectType`.
+ * Hence the candidates are found by walking up the class hierarchy of the changed type,
+ * which is a couple of map lookups.
+ *
+ * The index does not contain the cached values, it must be kept in sync with the cache.
+ * Keys removed from the cache by other means (e.g. expiration) can be left in the index,
+ * but these must be pruned by {@link #retainIf} eventually.
+ */
+public class QueryKeyTypeIndex {
+
+    private final Map<Class<?>, Set<QueryKey<?>>> keysByType = new ConcurrentHashMap<>();
+
+    public void add(@NotNull QueryKey<?> key) {
+        keysByType.computeIfAbsent(key.getType(), k -> ConcurrentHashMap.newKeySet())
+                .add(key);
+    }
+
+    public void remove(@NotNull QueryKey<?> key) {
+        Set<QueryKey<?>> keys = keysByType.get(key.getType());
+        if (keys != null) {
+            keys.remove(key);
+        }
+    }
+
+    /**
+     * Returns keys of queries that may be affected by a change of an object of provided type.
+     * Null type means any type, all keys are returned.
+     * Returned list is a copy, so it is safe to remove the keys while iterating over it.
+     */
+    public @NotNull List<QueryKey<?>> getCandidates(@Nullable Class<?> changedType) {
+        List<QueryKey<?>> candidates = new ArrayList<>();
+        if (changedType == null) {
+            keysByType.values().forEach(candidates::addAll);
+            return candidates;
+        }
+
+        for (Class<?> type = changedType;
+                type != null && ObjectType.class.isAssignableFrom(type);
+                type = type.getSuperclass()) {
+            Set<QueryKey<?>> keys = keysByType.get(type);
+            if (keys != null) {
+                candidates.addAll(keys);
+            }
+        }
+        return candidates;
+    }
+
+    /** Removes all the keys not matching the predicate, e.g. keys no longer present in the cache. */
+    public void retainIf(@NotNull Predicate<QueryKey<?>> predicate) {
+        keysByType.values().forEach(keys -> keys.removeIf(predicate.negate()));
+    }
+
+    public int size() {
+        int size = 0;
+        for (Set<QueryKey<?>> keys : keysByType.values()) {
+            size += keys.size();
+        }
+        return size;
+    }
+
+    public void clear() {
+        keysByType.clear();
+    }
+}
@@ -7,8 +7,8 @@
 
 package com.evolveum.midpoint.repo.cache.registry;
 
-import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.jetbrains.annotations.Nullable;
 import org.springframework.stereotype.Component;
@@ -36,7 +36,8 @@ public class CacheDispatcherImpl implements CacheDispatcher {
 
     private static final Trace LOGGER = TraceManager.getTrace(CacheDispatcherImpl.class);
 
-    private final List<CacheListener> cacheListeners = new ArrayList<>();
+    /** Listeners can be (un)registered also while the invalidations are being dispatched, e.g. by running activities. */
+    private final List<CacheListener> cacheListeners = new CopyOnWriteArrayList<>();
 
     @Override
     public synchronized void registerCacheListener(CacheListener cacheListener) {
@@ -20,6 +20,7 @@ import com.evolveum.midpoint.repo.api.Cache;
 import com.evolveum.midpoint.repo.api.CacheDispatcher;
 import com.evolveum.midpoint.repo.api.CacheListener;
 import com.evolveum.midpoint.repo.api.CacheRegistry;
+import com.evolveum.midpoint.repo.api.TargetedCacheInvalidationDetails;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.CachesStateInformationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 
@@ -64,8 +65,11 @@ public class CacheRegistryImpl implements CacheListener, CacheRegistry {
             CacheInvalidationContext context) {
         // We currently ignore clusterwide parameter, because it's used by ClusterCacheListener only.
         // So we assume that the invalidation event - from this point on - is propagated only locally.
+        String targetCache = TargetedCacheInvalidationDetails.getTargetCache(context);
         for (Cache cache : caches) {
-            cache.invalidate(type, oid, context);
+            if (targetCache == null || targetCache.equals(cache.getClass().getName())) {
+                cache.invalidate(type, oid, context);
+            }
         }
     }
 
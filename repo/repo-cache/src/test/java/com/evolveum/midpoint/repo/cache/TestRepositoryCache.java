@@ -7,6 +7,7 @@
 package com.evolveum.midpoint.repo.cache;
 
 import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
 import static org.testng.AssertJUnit.assertEquals;
 import static org.testng.AssertJUnit.fail;
 
@@ -15,9 +16,12 @@ import static com.evolveum.midpoint.prism.util.PrismTestUtil.getPrismContext;
 import static com.evolveum.midpoint.repo.sqale.SqaleRepositoryService.REPOSITORY_IMPL_NAME;
 
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 import javax.annotation.PostConstruct;
 
 import org.apache.commons.lang3.StringUtils;
@@ -39,9 +43,15 @@ import com.evolveum.midpoint.repo.cache.global.GlobalCacheObjectValue;
 import com.evolveum.midpoint.repo.cache.global.GlobalObjectCache;
 import com.evolveum.midpoint.repo.cache.global.GlobalQueryCache;
 import com.evolveum.midpoint.repo.cache.global.GlobalVersionCache;
+import com.evolveum.midpoint.repo.cache.invalidation.Invalidator;
+import com.evolveum.midpoint.repo.cache.invalidation.QueryInvalidationStatistics;
+import com.evolveum.midpoint.repo.cache.local.LocalObjectCache;
+import com.evolveum.midpoint.repo.cache.local.LocalRepoCacheCollection;
+import com.evolveum.midpoint.repo.cache.local.LocalRepoCacheScope;
 import com.evolveum.midpoint.repo.cache.local.QueryKey;
 import com.evolveum.midpoint.repo.sqale.SqaleRepositoryService;
 import com.evolveum.midpoint.schema.*;
+import com.evolveum.midpoint.schema.cache.CacheConfigurationManager;
 import com.evolveum.midpoint.schema.constants.MidPointConstants;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.statistics.CachePerformanceInformationUtil;
@@ -69,6 +79,8 @@ public class TestRepositoryCache extends AbstractSpringTest implements InfraTest
     @Autowired GlobalObjectCache globalObjectCache;
     @Autowired GlobalVersionCache globalVersionCache;
     @Autowired GlobalQueryCache globalQueryCache;
+    @Autowired Invalidator invalidator;
+    @Autowired CacheConfigurationManager cacheConfigurationManager;
     @Autowired PrismContext prismContext;
 
     @SuppressWarnings("unused") // used when heap dumps are uncommented
@@ -129,6 +141,90 @@ public class TestRepositoryCache extends AbstractSpringTest implements InfraTest
         testSearchCachedObjectsIterative(ArchetypeType.class);
     }
 
+    /**
+     * Bulk get of cached objects: the first call loads all the objects by a single repository call,
+     * the second one is served from the cache, and after evicting one object only that one is loaded.
+     */
+    @Test
+    public void test240GetObjectsCached() throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        OperationResult result = createOperationResult();
+
+        given("three archetypes, caches and statistics are clean");
+        deleteExistingObjects(ArchetypeType.class, result);
+        List<String> oids = new ArrayList<>();
+        for (PrismObject<ArchetypeType> archetype : generateObjects(ArchetypeType.class, 3, result)) {
+            oids.add(archetype.getOid());
+        }
+        List<String> requestedOids = new ArrayList<>(oids);
+        requestedOids.add(1, UUID.randomUUID().toString()); // non-existing one
+        clearStatistics();
+        clearCaches();
+
+        when("objects are requested for the first time (all misses)");
+        SearchResultList<PrismObject<ArchetypeType>> objects1 =
+                repositoryCache.getObjects(ArchetypeType.class, requestedOids, null, result);
+
+        then("existing objects are returned in the order of OIDs, loaded by single repository call");
+        assertObjectOids(objects1, oids);
+        assertGetObjectsReturns(result, 0, 3);
+        assertGetObjectsOperations(1);
+        oids.forEach(oid -> assertObjectAndVersionCached(oid, true));
+        objects1.get(0).asObjectable().setDescription("garbage");
+
+        when("objects are requested for the second time (all hits)");
+        SearchResultList<PrismObject<ArchetypeType>> objects2 =
+                repositoryCache.getObjects(ArchetypeType.class, requestedOids, null, result);
+
+        then("objects are served from the cache and are not influenced by previous alterations");
+        assertObjectOids(objects2, oids);
+        assertGetObjectsReturns(result, 3, 0);
+        assertGetObjectsOperations(1);
+        assertThat(objects2.get(0).asObjectable().getDescription()).as("description").isNull();
+
+        when("one object is evicted and objects are requested again (partial hit)");
+        globalObjectCache.remove(oids.get(2));
+        SearchResultList<PrismObject<ArchetypeType>> objects3 =
+                repositoryCache.getObjects(ArchetypeType.class, requestedOids, null, result);
+
+        then("only the evicted object is loaded from the repository");
+        assertObjectOids(objects3, oids);
+        assertGetObjectsReturns(result, 2, 1);
+        assertGetObjectsOperations(2);
+        assertObjectIsCached(oids.get(2));
+
+        dumpStatistics();
+        assertGetOperations(0);
+    }
+
+    /**
+     * Bulk get of objects that are not cached: each call goes to the repository, and nothing is cached.
+     */
+    @Test
+    public void test245GetObjectsUncached() throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
+        OperationResult result = createOperationResult();
+
+        given("three users, caches and statistics are clean");
+        deleteExistingObjects(UserType.class, result);
+        List<String> oids = new ArrayList<>();
+        for (PrismObject<UserType> user : generateObjects(UserType.class, 3, result)) {
+            oids.add(user.getOid());
+        }
+        clearStatistics();
+        clearCaches();
+
+        when("objects are requested twice");
+        SearchResultList<PrismObject<UserType>> objects1 = repositoryCache.getObjects(UserType.class, oids, null, result);
+        SearchResultList<PrismObject<UserType>> objects2 = repositoryCache.getObjects(UserType.class, oids, null, result);
+
+        then("both calls go to the repository and nothing is cached");
+        assertObjectOids(objects1, oids);
+        assertObjectOids(objects2, oids);
+        dumpStatistics();
+        assertGetObjectsOperations(2);
+        assertGetOperations(0);
+        oids.forEach(oid -> assertObjectAndVersionCached(oid, false));
+    }
+
     /**
      * MID-6250
      */
@@ -304,6 +400,253 @@ public class TestRepositoryCache extends AbstractSpringTest implements InfraTest
         assertThat(data.overSizedQueries.get()).as("over-sized counter").isEqualTo(2); // search + searchIterative
     }
 
+    /**
+     * Query cache invalidation should match the change only against the queries
+     * of the changed type (or its supertypes), not against all the cached queries.
+     */
+    @Test
+    public void test340QueryInvalidationScansOnlyQueriesOfChangedType()
+            throws ObjectAlreadyExistsException, SchemaException, ObjectNotFoundException {
+        OperationResult result = createOperationResult();
+
+        given("archetypes and three different cached archetype queries");
+        deleteExistingObjects(ArchetypeType.class, result);
+        clearStatistics();
+        clearCaches();
+        List<PrismObject<ArchetypeType>> archetypes =
+                new ArrayList<>(generateObjects(ArchetypeType.class, 3, result));
+        List<ObjectQuery> queries = new ArrayList<>();
+        queries.add(null);
+        for (int i = 0; i < 2; i++) {
+            queries.add(prismContext.queryFor(ArchetypeType.class)
+                    .item(ArchetypeType.F_NAME).eqPoly("T:" + i).matchingOrig()
+                    .build());
+        }
+        for (ObjectQuery query : queries) {
+            repositoryCache.searchObjects(ArchetypeType.class, query, null, result);
+            assertQueryIsCached(ArchetypeType.class, query);
+        }
+        QueryInvalidationStatistics statistics = invalidator.getGlobalQueryInvalidationStatistics();
+        statistics.reset();
+
+        when("user is added");
+        PrismObject<UserType> user = getPrismContext().createObject(UserType.class);
+        user.asObjectable().setName(PolyStringType.fromOrig("user-340"));
+        repositoryCache.addObject(user, null, result);
+
+        then("no archetype query is scanned nor evicted");
+        display("Statistics after user add: " + statistics);
+        assertThat(statistics.getInvalidations()).as("invalidations").isGreaterThan(0);
+        assertThat(statistics.getScannedEntries()).as("scanned entries").isZero();
+        for (ObjectQuery query : queries) {
+            assertQueryIsCached(ArchetypeType.class, query);
+        }
+
+        when("archetype is modified");
+        statistics.reset();
+        repositoryCache.modifyObject(ArchetypeType.class, archetypes.get(0).getOid(),
+                prismContext.deltaFor(ArchetypeType.class)
+                        .item(ArchetypeType.F_DESCRIPTION).replace("changed")
+                        .asItemDeltas(),
+                result);
+
+        then("only archetype queries are scanned and the query without filter is evicted");
+        display("Statistics after archetype modify: " + statistics);
+        assertThat(statistics.getScannedEntries()).as("scanned entries").isEqualTo(queries.size());
+        assertThat(statistics.getEvictedEntries()).as("evicted entries").isGreaterThan(0);
+        assertQueryIsNotCached(ArchetypeType.class, null);
+    }
+
+    /**
+     * Concurrent put and remove of the same query must not leave the query cached
+     * without its key in the type index, otherwise it would never be invalidated.
+     */
+    @Test
+    public void test345ConcurrentQueryPutAndRemoveKeepTypeIndex() throws Exception {
+        given("a couple of query keys");
+        clearCaches();
+        List<QueryKey<ArchetypeType>> keys = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            keys.add(new QueryKey<>(ArchetypeType.class,
+                    prismContext.queryFor(ArchetypeType.class)
+                            .item(ArchetypeType.F_NAME).eqPoly("Q:" + i).matchingOrig()
+                            .build()));
+        }
+        SearchResultList<PrismObject<ArchetypeType>> emptyResult = new SearchResultList<>();
+        emptyResult.freeze();
+
+        when("keys are concurrently put and removed");
+        int threads = 4;
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            boolean putting = t % 2 == 0;
+            Thread worker = new Thread(() -> {
+                try {
+                    for (int round = 0; round < 10000; round++) {
+                        QueryKey<ArchetypeType> key = keys.get(round % keys.size());
+                        if (putting) {
+                            globalQueryCache.put(key, emptyResult);
+                        } else {
+                            globalQueryCache.remove(key);
+                        }
+                    }
+                } catch (Throwable e) {
+                    failure.compareAndSet(null, e);
+                }
+            });
+            workers.add(worker);
+            worker.start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+
+        then("every cached query is known to the invalidation");
+        assertThat(failure.get()).as("failure in worker thread").isNull();
+        List<QueryKey<?>> candidates = globalQueryCache.getInvalidationCandidates(ArchetypeType.class);
+        for (QueryKey<ArchetypeType> key : keys) {
+            if (globalQueryCache.get(key) != null) {
+                assertThat(candidates).as("invalidation candidates").contains(key);
+            }
+        }
+        clearCaches();
+    }
+
+    /**
+     * Local cache scope is re-entered by nested calls and it's not visible to other threads (unless they join it).
+     */
+    @Test
+    public void test350LocalCacheScopeNesting() throws Exception {
+        given("no local caches");
+        assertThat(LocalRepoCacheCollection.exists()).isFalse();
+
+        when("caches are entered twice");
+        RepositoryCache.enterLocalCaches(cacheConfigurationManager);
+        LocalObjectCache objectCache = LocalRepoCacheCollection.getLocalObjectCache();
+        RepositoryCache.enterLocalCaches(cacheConfigurationManager);
+
+        then("the same caches are used");
+        assertThat(objectCache).isNotNull();
+        assertThat(LocalRepoCacheCollection.getLocalObjectCache()).isSameAs(objectCache);
+
+        when("another thread looks for the caches");
+        AtomicReference<LocalObjectCache> seenByOtherThread = new AtomicReference<>();
+        AtomicBoolean existsInOtherThread = new AtomicBoolean(true);
+        Thread other = new Thread(() -> {
+            seenByOtherThread.set(LocalRepoCacheCollection.getLocalObjectCache());
+            existsInOtherThread.set(LocalRepoCacheCollection.exists());
+        });
+        other.start();
+        other.join();
+
+        then("it does not see them");
+        assertThat(seenByOtherThread.get()).isNull();
+        assertThat(existsInOtherThread.get()).isFalse();
+
+        when("caches are exited once");
+        RepositoryCache.exitLocalCaches();
+
+        then("they are still there");
+        assertThat(LocalRepoCacheCollection.getLocalObjectCache()).isSameAs(objectCache);
+
+        when("caches are exited again");
+        RepositoryCache.exitLocalCaches();
+
+        then("they are gone");
+        assertThat(LocalRepoCacheCollection.exists()).isFalse();
+        assertThat(LocalRepoCacheCollection.getLocalObjectCache()).isNull();
+    }
+
+    /**
+     * Local cache scope can be joined by other threads: they share the caches and the statistics,
+     * and the scope is closed only when the last thread exits it. A closed scope cannot be joined.
+     */
+    @Test
+    public void test352LocalCacheScopeSharing() throws Exception {
+        given("an archetype and a local cache scope");
+        OperationResult result = createOperationResult();
+        String oid = generateObjects(ArchetypeType.class, 1, result).iterator().next().getOid();
+        RepositoryCache.enterLocalCaches(cacheConfigurationManager);
+        LocalRepoCacheScope scope = RepositoryCache.getLocalCacheScope();
+        assertThat(scope).isNotNull();
+
+        when("the scope is joined by another thread that reads the archetype");
+        AtomicReference<LocalRepoCacheScope> seenByWorker = new AtomicReference<>();
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Thread worker = new Thread(() -> {
+            RepositoryCache.joinLocalCaches(scope);
+            try {
+                seenByWorker.set(RepositoryCache.getLocalCacheScope());
+                repositoryCache.getObject(ArchetypeType.class, oid, null, new OperationResult("worker"));
+            } catch (Throwable t) {
+                failure.set(t);
+            } finally {
+                RepositoryCache.exitLocalCaches();
+            }
+        });
+        worker.start();
+        worker.join();
+
+        then("the worker sees the same scope, its operation is counted there, and the scope stays open");
+        assertThat(failure.get()).as("failure in worker thread").isNull();
+        assertThat(seenByWorker.get()).isSameAs(scope);
+        CachePerformanceCollector.CacheData objectCacheData =
+                scope.getPerformanceMap().get(LocalObjectCache.class.getSimpleName());
+        assertThat(objectCacheData).as("local object cache statistics of the scope").isNotNull();
+        assertThat(objectCacheData.hits.get() + objectCacheData.misses.get() + objectCacheData.passes.get())
+                .as("local object cache operations in the scope")
+                .isEqualTo(1);
+        assertThat(scope.isClosed()).isFalse();
+        assertThat(RepositoryCache.getLocalCacheScope()).isSameAs(scope);
+
+        when("the scope is exited by its creator");
+        RepositoryCache.exitLocalCaches();
+
+        then("the scope is closed and cannot be joined anymore");
+        assertThat(scope.isClosed()).isTrue();
+        assertThat(RepositoryCache.getLocalCacheScope()).isNull();
+        assertThatThrownBy(() -> RepositoryCache.joinLocalCaches(scope))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(RepositoryCache.getLocalCacheScope()).isNull();
+    }
+
+    /**
+     * Destroying local caches closes scopes of all threads, also of those still inside them.
+     */
+    @Test
+    public void test355DestroyClosesLocalCachesOfOtherThreads() throws Exception {
+        given("another thread inside local caches");
+        CountDownLatch entered = new CountDownLatch(1);
+        CountDownLatch destroyed = new CountDownLatch(1);
+        AtomicBoolean existedBeforeDestroy = new AtomicBoolean();
+        AtomicBoolean existsAfterDestroy = new AtomicBoolean(true);
+        Thread other = new Thread(() -> {
+            RepositoryCache.enterLocalCaches(cacheConfigurationManager);
+            try {
+                existedBeforeDestroy.set(LocalRepoCacheCollection.exists());
+                entered.countDown();
+                destroyed.await();
+                existsAfterDestroy.set(LocalRepoCacheCollection.exists());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                RepositoryCache.exitLocalCaches();
+            }
+        });
+        other.start();
+        assertThat(entered.await(10, TimeUnit.SECONDS)).as("other thread entered caches").isTrue();
+
+        when("local caches are destroyed");
+        LocalRepoCacheCollection.destroy();
+        destroyed.countDown();
+        other.join();
+
+        then("the other thread does not see its caches anymore");
+        assertThat(existedBeforeDestroy.get()).isTrue();
+        assertThat(existsAfterDestroy.get()).isFalse();
+    }
+
     // Must be executed last, because naive deletion such large number of archetypes fails on OOM
     @Test
     public void test900HeapUsage() throws Exception {
@@ -669,6 +1012,26 @@ public class TestRepositoryCache extends AbstractSpringTest implements InfraTest
         assertOperations(RepositoryService.OP_GET_OBJECT, expectedCount);
     }
 
+    private <T extends ObjectType> void assertObjectOids(List<PrismObject<T>> objects, List<String> expectedOids) {
+        List<String> oids = new ArrayList<>();
+        objects.forEach(o -> oids.add(o.getOid()));
+        assertThat(oids).as("OIDs of returned objects").containsExactlyElementsOf(expectedOids);
+    }
+
+    /** Checks the numbers of cached and loaded objects as reported by the last getObjects call. */
+    private void assertGetObjectsReturns(OperationResult result, int cached, int loaded) {
+        OperationResult subresult = result.getLastSubresult();
+        assertThat(subresult.getReturnSingle("cached")).as("cached objects").isEqualTo(String.valueOf(cached));
+        assertThat(subresult.getReturnSingle("loaded")).as("loaded objects").isEqualTo(String.valueOf(loaded));
+    }
+
+    /** Old repository uses the default (search-based) implementation of getObjects. */
+    private void assertGetObjectsOperations(int expectedCount) {
+        assertOperations(
+                isNewRepoUsed ? RepositoryService.OP_GET_OBJECTS : RepositoryService.OP_SEARCH_OBJECTS,
+                expectedCount);
+    }
+
     private void assertOperations(String operation, int expectedCount) {
         assertEquals("Wrong # of operations: " + operation, expectedCount, getOperationCount(operation));
     }
@@ -254,7 +254,12 @@ public class ActivityTreeStateOverview {
                 LOGGER.debug("Updated bucket progress ({}) is 'before' the stored one ({}) - not updating",
                         bucketProgress, entry.getBucketProgress());
             } else {
-                entry.setBucketProgress(bucketProgress.clone());
+                BucketProgressOverviewType updated = bucketProgress.clone();
+                if (updated.getCompleteBuckets() == null && entry.getBucketProgress() != null) {
+                    // Complete buckets are not always counted (see BucketingManager), so let's keep the last known number.
+                    updated.setCompleteBuckets(entry.getBucketProgress().getCompleteBuckets());
+                }
+                entry.setBucketProgress(updated);
             }
             findOrCreateTaskEntry(entry, run.getRunningTask().getSelfReference())
                     .progress(run.isProgressSupported() ?
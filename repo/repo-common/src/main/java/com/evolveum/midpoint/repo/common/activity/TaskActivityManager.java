@@ -263,6 +263,7 @@ public class TaskActivityManager {
                     .item(TaskType.F_ACTIVITY_STATE).replace()
                     .asItemDeltas();
             plainRepositoryService.modifyObject(TaskType.class, taskOid, modifications, result);
+            beans.bucketingManager.deleteBucketsFromStore(taskOid, null, result);
             LOGGER.info("Deleted complete task activity state in {}", taskOid);
         } catch (CommonException e) {
             LoggingUtils.logUnexpectedException(LOGGER, "Couldn't delete activity state in {}", e, taskOid);
@@ -304,6 +305,7 @@ public class TaskActivityManager {
                         .asItemDeltas();
             }
             plainRepositoryService.modifyObject(TaskType.class, task.getOid(), itemDeltas, result);
+            beans.bucketingManager.deleteBucketsFromStore(task.getOid(), activityPath, result);
             LOGGER.info("Deleted activity state for '{}' in {}", activityPath, task);
         } catch (CommonException e) {
             LoggingUtils.logUnexpectedException(LOGGER, "Couldn't delete state for activity path '{}' in {}", e, activityPath, task);
@@ -329,6 +331,7 @@ public class TaskActivityManager {
                                 .asItemDeltas());
             }
             plainRepositoryService.modifyObject(TaskType.class, task.getOid(), itemDeltas, result);
+            beans.bucketingManager.deleteBucketsFromStore(task.getOid(), activityPath, result);
             LOGGER.info("Purged activity state for '{}' in {}", activityPath, task);
         } catch (CommonException e) {
             LoggingUtils.logUnexpectedException(LOGGER, "Couldn't delete state for activity path '{}' in {}", e, activityPath, task);
@@ -76,6 +76,22 @@ public class ActivityDistributionDefinition implements DebugDumpable, Cloneable
         return or0(bean.getWorkerThreads());
     }
 
+    public boolean isVirtualWorkerThreads() {
+        return bean.getWorkerThreadsKind() == WorkerThreadsKindType.VIRTUAL;
+    }
+
+    public WorkerThreadsScalingDefinitionType getWorkerThreadsScaling() {
+        return bean.getWorkerThreadsScaling();
+    }
+
+    public int getPrefetchDepth() {
+        return or0(bean.getPrefetchDepth());
+    }
+
+    public int getBatchSize() {
+        return Math.max(or0(bean.getBatchSize()), 1);
+    }
+
     void applyChangeTailoring(@NotNull ActivityTailoringType tailoring) {
         if (tailoring.getDistribution() != null) {
             bean = TailoringUtil.getTailoredBean(bean, tailoring.getDistribution());
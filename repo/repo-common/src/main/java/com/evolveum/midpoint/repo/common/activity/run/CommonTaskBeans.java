@@ -11,6 +11,7 @@ import com.evolveum.midpoint.audit.api.AuditService;
 import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.match.MatchingRuleRegistry;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
 import com.evolveum.midpoint.repo.common.activity.ActivityListener;
 import com.evolveum.midpoint.repo.common.activity.TaskActivityManager;
 import com.evolveum.midpoint.repo.common.activity.definition.WorkDefinitionFactory;
@@ -27,6 +28,7 @@ import com.evolveum.midpoint.task.api.TaskManager;
 import com.evolveum.midpoint.task.api.Tracer;
 
 import com.google.common.base.MoreObjects;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Component;
@@ -61,9 +63,17 @@ public class CommonTaskBeans {
 
     @Autowired(required = false) private AdvancedActivityRunSupport advancedActivityRunSupport;
 
+    /** Present only if the repository supports it; see {@link #getEnabledWorkBucketStore()}. */
+    @Autowired(required = false) private WorkBucketStore workBucketStore;
+
     AdvancedActivityRunSupport getAdvancedActivityRunSupport() {
         return MoreObjects.firstNonNull(
                 advancedActivityRunSupport,
                 NoOpAdvancedActivityRunSupport.INSTANCE);
     }
+
+    /** Returns the bucket store if buckets of workers are to be kept there, or null if they are kept in the coordinator. */
+    public @Nullable WorkBucketStore getEnabledWorkBucketStore() {
+        return workBucketStore != null && workBucketStore.isEnabled() ? workBucketStore : null;
+    }
 }
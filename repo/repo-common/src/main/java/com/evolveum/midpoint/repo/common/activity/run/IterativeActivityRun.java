@@ -12,12 +12,14 @@ import static com.evolveum.midpoint.schema.result.OperationResultStatus.PARTIAL_
 import static com.evolveum.midpoint.schema.util.task.ActivityItemProcessingStatisticsUtil.*;
 import static com.evolveum.midpoint.task.api.TaskRunResult.TaskRunResultStatus.PERMANENT_ERROR;
 
+import java.util.List;
 import java.util.Objects;
 
 import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 
 import com.evolveum.midpoint.repo.common.activity.run.processing.ItemProcessingRequest;
 import com.evolveum.midpoint.repo.common.activity.run.processing.ProcessingCoordinator;
+import com.evolveum.midpoint.repo.common.activity.run.processing.WorkerThreadsScaler;
 import com.evolveum.midpoint.repo.common.expression.ExpressionUtil;
 import com.evolveum.midpoint.repo.common.activity.run.reports.ConnIdOperationsReport;
 import com.evolveum.midpoint.repo.common.activity.run.reports.ItemsReport;
@@ -35,6 +37,7 @@ import org.apache.commons.lang3.StringUtils;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import com.evolveum.midpoint.repo.common.activity.definition.ActivityDistributionDefinition;
 import com.evolveum.midpoint.repo.common.activity.definition.WorkDefinition;
 import com.evolveum.midpoint.repo.common.activity.handlers.ActivityHandler;
 import com.evolveum.midpoint.repo.common.activity.run.state.ActivityBucketManagementStatistics;
@@ -42,6 +45,7 @@ import com.evolveum.midpoint.repo.common.activity.run.state.ActivityItemProcessi
 import com.evolveum.midpoint.repo.common.activity.run.state.ActivityState;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.GetBucketOperationOptions;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.GetBucketOperationOptions.GetBucketOperationOptionsBuilder;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.ItemSampler;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
 import com.evolveum.midpoint.schema.util.task.BucketingUtil;
@@ -156,6 +160,9 @@ public abstract class IterativeActivityRun<
      */
     private Integer numberOfBucketsAnnounced;
 
+    /** Adjusts the number of worker threads at bucket boundaries, if configured so. */
+    @Nullable private final WorkerThreadsScaler workerThreadsScaler;
+
     public IterativeActivityRun(@NotNull ActivityRunInstantiationContext<WD, AH> context, @NotNull String shortName) {
         super(context);
         this.transientRunStatistics = new TransientActivityRunStatistics();
@@ -165,22 +172,39 @@ public abstract class IterativeActivityRun<
         this.errorHandlingStrategyExecutor = new ErrorHandlingStrategyExecutor(getActivity(), getRunningTask(),
                 getDefaultErrorAction(), beans);
         this.globalConnIdOperationsListener = new GlobalConnIdOperationsListener();
+        this.workerThreadsScaler = createWorkerThreadsScaler();
 
         getReportingDefinition().applyDefaults(reportingCharacteristics);
     }
 
+    private @Nullable WorkerThreadsScaler createWorkerThreadsScaler() {
+        WorkerThreadsScalingDefinitionType scaling = getActivity().getDistributionDefinition().getWorkerThreadsScaling();
+        if (scaling == null) {
+            return null;
+        }
+        int workerThreads = getWorkerThreadsCount();
+        if (workerThreads == 0) {
+            // Items are processed in the coordinator thread; there is nothing to scale.
+            LOGGER.debug("Worker threads scaling is ignored for {}, as there are no worker threads", shortName);
+            return null;
+        }
+        return new WorkerThreadsScaler(scaling, workerThreads, beans.taskManager);
+    }
+
     protected final @NotNull ActivityRunResult runLocally(OperationResult result)
             throws ActivityRunException, CommonException {
 
         LOGGER.trace("{}: Starting with local coordinator task {}", shortName, getRunningTask());
 
         String originalChannel = getRunningTask().getChannel();
+        boolean beforeRunCalled = false;
         try {
             enableGlobalConnIdOperationsListener();
             overrideTaskChannelIfNeeded();
 
             transientRunStatistics.recordRunStart(getStartTimestampRequired());
 
+            beforeRunCalled = true;
             beforeRun(result);
             setTaskObjectRef(result); // this method is intentionally run after "beforeRun" (we need the resource ref)
 
@@ -196,12 +220,23 @@ public abstract class IterativeActivityRun<
             return runResult;
 
         } finally {
+            if (beforeRunCalled) {
+                cleanupAfterRunSafely(result);
+            }
             disableGlobalConnIdOperationsListener();
             cancelTaskChannelOverride(originalChannel);
             getActivityState().getConnIdOperationsReport().flush(getRunningTask(), result);
         }
     }
 
+    private void cleanupAfterRunSafely(OperationResult result) {
+        try {
+            cleanupAfterRun(result);
+        } catch (RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't clean up after the run of {}", e, this);
+        }
+    }
+
     private void cancelTaskChannelOverride(String originalChannel) {
         getRunningTask().setChannel(originalChannel);
     }
@@ -331,6 +366,7 @@ public abstract class IterativeActivityRun<
                     .withImplicitSegmentationResolver(this)
                     .withIsScavenger(isScavenger(task))
                     .withBucketProgressConsumer(bucketProgressHolder)
+                    .withItemSampler(isSampledSegmentation() ? createItemSampler(result) : null)
                     .build();
             bucket = beans.bucketingManager.getWorkBucket(bucketingSituation.coordinatorTaskOid,
                     bucketingSituation.workerTaskOid, activity.getPath(), options, getLiveBucketManagementStatistics(), result);
@@ -352,6 +388,22 @@ public abstract class IterativeActivityRun<
         return bucket;
     }
 
+    private boolean isSampledSegmentation() {
+        ActivityDistributionDefinition distributionDefinition = activity.getDefinition().getDistributionDefinition();
+        return BucketingUtil.getWorkSegmentationConfiguration(distributionDefinition.getBuckets())
+                instanceof SampledWorkSegmentationType;
+    }
+
+    /**
+     * Creates an object that samples the items to be processed (in the whole activity, i.e. not restricted to a bucket).
+     * Needed for {@link SampledWorkSegmentationType}.
+     *
+     * @return null if sampling is not supported by this activity
+     */
+    protected @Nullable ItemSampler createItemSampler(OperationResult result) throws CommonException, ActivityRunException {
+        return null;
+    }
+
     private void announceNumberOfBuckets(BucketProgressOverviewType bucketProgress, OperationResult result)
             throws ActivityRunException {
         if (bucketProgress != null && !Objects.equals(bucketProgress.getTotalBuckets(), numberOfBucketsAnnounced)) {
@@ -387,8 +439,18 @@ public abstract class IterativeActivityRun<
             getRunningTask()
                     .updateAndStoreStatisticsIntoRepository(true, result); // Contains implicit task flush
 
+            BucketProgressOverviewType bucketProgress = bucketProgressHolder.getValue();
+            if (bucketProgress == null) {
+                // Buckets kept out of the coordinator task are not counted on each completion.
+                updateItemProgressInTreeOverviewIfTimePassed(result);
+                return;
+            }
+            if (bucketProgress.getTotalBuckets() == null) {
+                // Buckets kept out of the coordinator task do not know the total, it was announced when getting the bucket.
+                bucketProgress.setTotalBuckets(numberOfBucketsAnnounced);
+            }
             getTreeStateOverview()
-                    .updateBucketAndItemProgress(this, bucketProgressHolder.getValue(), result);
+                    .updateBucketAndItemProgress(this, bucketProgress, result);
 
         } catch (CommonException e) {
             throw new ActivityRunException("Couldn't complete work bucket", FATAL_ERROR, PERMANENT_ERROR, e);
@@ -450,6 +512,8 @@ public abstract class IterativeActivityRun<
 
         beforeBucketProcessing(result);
 
+        narrowBucketIfTooLarge(result);
+
         setExpectedInCurrentBucket(result);
 
         coordinator = setupCoordinatorAndWorkerThreads();
@@ -473,6 +537,10 @@ public abstract class IterativeActivityRun<
         if (complete) {
             record.end(getLiveItemProcessing());
 
+            if (workerThreadsScaler != null) {
+                workerThreadsScaler.bucketCompleted(record.getTotalSize(), record.getDuration());
+            }
+
             completeWorkBucketAndUpdateStatistics(result);
 
             // We want to report bucket as completed only after it's really marked as completed.
@@ -482,6 +550,49 @@ public abstract class IterativeActivityRun<
         return complete;
     }
 
+    /**
+     * If the current bucket contains much more items than expected (when it was created), narrows it to the expected size.
+     * The rest of the items will be processed in subsequent buckets. See {@link SampledWorkSegmentationType#getSplitThreshold()}.
+     */
+    private void narrowBucketIfTooLarge(OperationResult result) throws ActivityRunException, CommonException {
+        Double splitThreshold = getSplitThreshold();
+        Integer estimatedSize = bucket.getEstimatedSize();
+        if (!isWorker() || splitThreshold == null || estimatedSize == null) {
+            return;
+        }
+
+        Integer currentSize = determineCurrentBucketSize(result);
+        if (currentSize == null || currentSize <= splitThreshold * estimatedSize) {
+            return;
+        }
+
+        ItemSampler sampler = createItemSampler(result);
+        if (sampler == null) {
+            return;
+        }
+
+        assert bucketingSituation.workerTaskOid != null;
+        WorkBucketType narrowed = beans.bucketingManager.narrowWorkBucket(bucketingSituation.coordinatorTaskOid,
+                bucketingSituation.workerTaskOid, activity.getPath(), bucket,
+                activity.getDefinition().getDistributionDefinition(), sampler, getLiveBucketManagementStatistics(), result);
+        if (narrowed != null) {
+            LOGGER.info("Bucket #{} contains {} items instead of estimated {}; narrowed it to {}",
+                    bucket.getSequentialNumber(), currentSize, estimatedSize, narrowed.getContent());
+            bucket = narrowed;
+            prepareItemSourceForCurrentBucket(result);
+        } else {
+            LOGGER.debug("Bucket #{} contains {} items instead of estimated {} but couldn't be narrowed",
+                    bucket.getSequentialNumber(), currentSize, estimatedSize);
+        }
+    }
+
+    private Double getSplitThreshold() {
+        AbstractWorkSegmentationType segmentation = BucketingUtil.getWorkSegmentationConfiguration(
+                activity.getDefinition().getDistributionDefinition().getBuckets());
+        return segmentation instanceof SampledWorkSegmentationType ?
+                ((SampledWorkSegmentationType) segmentation).getSplitThreshold() : null;
+    }
+
     /**
      * Prepares the item source. E.g. for search-iterative tasks we prepare object type, query, and options here.
      *
@@ -633,7 +744,8 @@ public abstract class IterativeActivityRun<
      * Creates the processing coordinator and worker threads.
      */
     private ProcessingCoordinator<I> setupCoordinatorAndWorkerThreads() {
-        ProcessingCoordinator<I> coordinator = new ProcessingCoordinator<>(getWorkerThreadsCount(), this);
+        int threads = workerThreadsScaler != null ? workerThreadsScaler.getThreads() : getWorkerThreadsCount();
+        ProcessingCoordinator<I> coordinator = new ProcessingCoordinator<>(threads, this);
         coordinator.createWorkerThreads();
         return coordinator;
     }
@@ -646,6 +758,10 @@ public abstract class IterativeActivityRun<
         return coordinator.isMultithreaded();
     }
 
+    public @Nullable WorkerThreadsScaler getWorkerThreadsScaler() {
+        return workerThreadsScaler;
+    }
+
     private Integer getWorkerThreadsCount() {
         return getActivity().getDistributionDefinition().getWorkerThreads();
     }
@@ -777,6 +893,21 @@ public abstract class IterativeActivityRun<
     public abstract boolean processItem(@NotNull ItemProcessingRequest<I> request, @NotNull RunningTask workerTask,
             OperationResult result) throws ActivityRunException, CommonException;
 
+    /**
+     * Executes batch-capable steps (e.g. repository searches) for a micro-batch of requests at once.
+     * Called in the worker thread right before the requests are processed one by one by
+     * {@link #processItem(ItemProcessingRequest, RunningTask, OperationResult)}.
+     *
+     * Used only if micro-batching is configured (see {@link ActivityDistributionDefinitionType#getBatchSize()})
+     * and worker threads are used. The requests were not checked in any way yet, so some of them may be skipped
+     * later, e.g. as already processed or filtered out.
+     *
+     * This is purely an optimization: any exception thrown is logged and ignored.
+     */
+    public void prepareItemBatch(@NotNull List<ItemProcessingRequest<I>> requests, @NotNull RunningTask workerTask,
+            OperationResult result) throws CommonException {
+    }
+
     @Override
     protected final @NotNull ActivityState determineActivityStateForCounters(@NotNull OperationResult result)
             throws SchemaException, ObjectNotFoundException {
@@ -818,6 +949,7 @@ public abstract class IterativeActivityRun<
                             .sequentialNumber(bucket.getSequentialNumber())
                             .content(bucket.getContent())
                             .size(processingRecord.getTotalSize())
+                            .estimatedSize(bucket.getEstimatedSize())
                             .itemsSuccessfullyProcessed(processingRecord.success)
                             .itemsFailed(processingRecord.failure)
                             .itemsSkipped(processingRecord.skip)
@@ -834,7 +966,8 @@ public abstract class IterativeActivityRun<
                     new BucketProcessingRecordType()
                             .sequentialNumber(bucket.getSequentialNumber())
                             .content(bucket.getContent())
-                            .size(size),
+                            .size(size)
+                            .estimatedSize(bucket.getEstimatedSize()),
                     getRunningTask(), result);
         }
     }
@@ -56,6 +56,15 @@ public interface IterativeActivityRunSpecifics extends ImplicitSegmentationResol
     default void afterRun(OperationResult opResult) throws CommonException, ActivityRunException {
     }
 
+    /**
+     * Called after the run, even if it failed or was interrupted; but only if {@link #beforeRun(OperationResult)}
+     * was called (even if it failed). Should release the resources acquired there.
+     *
+     * Exceptions are logged and otherwise ignored.
+     */
+    default void cleanupAfterRun(OperationResult opResult) {
+    }
+
     /**
      * Called before bucket is processed.
      *
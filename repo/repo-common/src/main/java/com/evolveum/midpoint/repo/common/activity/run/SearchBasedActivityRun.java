@@ -17,6 +17,10 @@ import com.evolveum.midpoint.repo.common.activity.definition.WorkDefinition;
 import com.evolveum.midpoint.repo.common.activity.run.processing.ContainerableProcessingRequest;
 import com.evolveum.midpoint.repo.common.activity.run.processing.ItemPreprocessor;
 import com.evolveum.midpoint.repo.common.activity.run.processing.ItemProcessingRequest;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.ItemSampler;
+import com.evolveum.midpoint.repo.common.activity.run.sources.RepoObjectSampler;
+import com.evolveum.midpoint.repo.common.activity.run.sources.PrefetchingItemSource;
+import com.evolveum.midpoint.repo.common.activity.run.sources.RepoObjectSource;
 import com.evolveum.midpoint.repo.common.activity.run.sources.SearchableItemSource;
 import com.evolveum.midpoint.repo.common.activity.handlers.ActivityHandler;
 import com.evolveum.midpoint.repo.common.expression.ExpressionUtil;
@@ -149,6 +153,16 @@ public abstract class SearchBasedActivityRun<
     }
 
     private SearchableItemSource createSearchableItemSource() {
+        SearchableItemSource source = createBasicSearchableItemSource();
+        int prefetchDepth = getActivity().getDistributionDefinition().getPrefetchDepth();
+        if (prefetchDepth > 0) {
+            return new PrefetchingItemSource(source, prefetchDepth);
+        } else {
+            return source;
+        }
+    }
+
+    private SearchableItemSource createBasicSearchableItemSource() {
         if (searchSpecification.isUseRepository() || !advancedSupportAvailable()) {
             return beans.repositoryItemSourceFactory
                     .getItemSourceFor(searchSpecification.getType());
@@ -371,6 +385,32 @@ public abstract class SearchBasedActivityRun<
                 !ShadowType.class.equals(simpleSearchSpecification.getType());
     }
 
+    /**
+     * Sampling is done directly in the repository, so it is not available for resource objects
+     * (and for non-object containerables).
+     */
+    @Override
+    protected final @Nullable ItemSampler createItemSampler(OperationResult result)
+            throws CommonException, ActivityRunException {
+        SearchSpecification<C> spec = createCustomizedSearchSpecification(result);
+        if (!ObjectType.class.isAssignableFrom(spec.getType())) {
+            LOGGER.warn("Sampled segmentation is not supported for {}", spec.getType());
+            return null;
+        }
+        if (spec.concernsShadows() && !spec.isUseRepository() && advancedSupportAvailable()
+                && !spec.isNoFetch() && !spec.isRaw()) {
+            LOGGER.warn("Sampled segmentation is not supported for resource objects");
+            return null;
+        }
+        ObjectQuery query = spec.getQuery();
+        if (query != null && ExpressionUtil.hasExpressions(query.getFilter()) && advancedSupportAvailable()) {
+            query = beans.getAdvancedActivityRunSupport()
+                    .evaluateQueryExpressions(query, null, getRunningTask(), result);
+        }
+        return new RepoObjectSampler(
+                RepoObjectSource.getObjectType(spec.getType()), query, beans.repositoryService, result);
+    }
+
     private void resolveExpressionsInQuery(OperationResult result) throws CommonException {
         if (ExpressionUtil.hasExpressions(searchSpecification.getQuery().getFilter())) {
             searchSpecification.setQuery(
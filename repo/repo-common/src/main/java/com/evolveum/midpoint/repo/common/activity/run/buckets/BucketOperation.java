@@ -31,6 +31,7 @@ import com.evolveum.midpoint.prism.PrismContext;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
 import com.evolveum.midpoint.repo.common.activity.run.state.ActivityBucketManagementStatistics;
 import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
 import com.evolveum.midpoint.schema.util.task.ActivityPath;
@@ -42,7 +43,7 @@ import com.evolveum.midpoint.util.logging.Trace;
 import com.evolveum.midpoint.util.logging.TraceManager;
 
 /**
- * Represents a bucket operation (get, complete, release).
+ * Represents a bucket operation (get, complete, release, narrow).
  */
 class BucketOperation implements DebugDumpable {
 
@@ -79,6 +80,12 @@ class BucketOperation implements DebugDumpable {
      */
     @NotNull final PassingHolder<BucketProgressOverviewType> bucketProgressHolder;
 
+    /**
+     * Store of the buckets, if they are not kept in the coordinator task. Used only for workers;
+     * in the standalone case there is no contention, so the buckets are always in the task.
+     */
+    @Nullable final WorkBucketStore bucketStore;
+
     // Useful beans
 
     final CommonTaskBeans beans;
@@ -98,6 +105,7 @@ class BucketOperation implements DebugDumpable {
         this.taskManager = beans.taskManager;
         this.plainRepositoryService = beans.plainRepositoryService;
         this.prismContext = beans.prismContext;
+        this.bucketStore = workerTaskOid != null ? beans.getEnabledWorkBucketStore() : null;
     }
 
     public boolean isStandalone() {
@@ -158,6 +166,18 @@ class BucketOperation implements DebugDumpable {
         }
     }
 
+    static Collection<ItemDelta<?, ?>> bucketContentReplaceDeltas(@NotNull ItemPath statePath,
+            @NotNull WorkBucketType bucket, @NotNull AbstractWorkBucketContentType newContent) {
+        try {
+            return PrismContext.get().deltaFor(TaskType.class)
+                    .item(createBucketPath(statePath, bucket).append(WorkBucketType.F_CONTENT))
+                    .replace(newContent.clone())
+                    .asItemDeltas();
+        } catch (SchemaException e) {
+            throw new IllegalStateException("Unexpected schema exception: " + e.getMessage(), e);
+        }
+    }
+
     Collection<ItemDelta<?, ?>> bucketDeleteDeltas(ItemPath statePath, WorkBucketType bucket) {
         try {
             return prismContext.deltaFor(TaskType.class)
@@ -9,6 +9,8 @@ package com.evolveum.midpoint.repo.common.activity.run.buckets;
 
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Consumer;
 
 import com.evolveum.midpoint.prism.Containerable;
@@ -21,9 +23,13 @@ import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
 import com.evolveum.midpoint.repo.common.activity.definition.ActivityDistributionDefinition;
 import com.evolveum.midpoint.repo.common.activity.run.state.ActivityBucketManagementStatistics;
 import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.BucketContentFactory;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.BucketFactory;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.ItemSampler;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.content.WorkBucketContentHandler;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.content.WorkBucketContentHandlerRegistry;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -34,6 +40,7 @@ import com.evolveum.midpoint.util.annotation.Experimental;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkBucketContentType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkSegmentationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
 
@@ -43,7 +50,8 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
  * 1. Obtains new buckets to be processed: {@link #getWorkBucket(String, String, ActivityPath, GetBucketOperationOptions, ActivityBucketManagementStatistics, OperationResult)}.
  * 2. Marks buckets as complete: {@link #completeWorkBucket(String, String, ActivityPath, int, ActivityBucketManagementStatistics, Consumer, OperationResult)}.
  * 3. Releases work buckets in case they are not going to be processed: {@link #releaseWorkBucket(String, String, ActivityPath, int, ActivityBucketManagementStatistics, OperationResult)}.
- * 4. Computes query narrowing for given work bucket: {@link #narrowQueryForWorkBucket(Class, ObjectQuery, ActivityDistributionDefinition, ItemDefinitionProvider, WorkBucketType)}.
+ * 4. Narrows buckets that turned out to be too large: {@link #narrowWorkBucket(String, String, ActivityPath, WorkBucketType, ActivityDistributionDefinition, ItemSampler, ActivityBucketManagementStatistics, OperationResult)}.
+ * 5. Computes query narrowing for given work bucket: {@link #narrowQueryForWorkBucket(Class, ObjectQuery, ActivityDistributionDefinition, ItemDefinitionProvider, WorkBucketType)}.
  *
  * (The last method should be probably moved to a separate class.)
  */
@@ -53,6 +61,15 @@ public class BucketingManager {
     @Autowired private CommonTaskBeans beans;
     @Autowired private WorkBucketContentHandlerRegistry handlerRegistry;
 
+    /**
+     * How often are the buckets kept outside the coordinator task counted for the purpose of progress reporting
+     * (in milliseconds). The counting is not cheap, and it does not need to be precise.
+     */
+    private static final long BUCKET_COUNT_INTERVAL = 10000L;
+
+    /** When were the buckets last counted on this node; keyed by coordinator task OID and activity path. */
+    private final Map<String, Long> lastBucketCountTimestamps = new ConcurrentHashMap<>();
+
     /**
      * Obtains work bucket. If no free work buckets are currently present it tries to create one.
      * If there is already delegated work bucket for given worker task, it is returned.
@@ -103,6 +120,67 @@ public class BucketingManager {
                 .execute(result);
     }
 
+    /**
+     * Narrows the work bucket delegated to the worker so that it contains (approximately) the estimated number of items.
+     * The rest of the bucket will be covered by the next bucket.
+     *
+     * Possible only for segmentation strategies supporting this (see {@link BucketContentFactory#createNarrowedBucketContent(
+     * AbstractWorkBucketContentType, int)}), and only if the bucket is the last one or if the next bucket is still ready,
+     * so it can take over the rest of the bucket. See {@link NarrowBucketOperation}.
+     *
+     * @return the narrowed bucket, or null if the bucket was not narrowed
+     */
+    public @Nullable WorkBucketType narrowWorkBucket(@NotNull String coordinatorTaskOid, @NotNull String workerTaskOid,
+            @NotNull ActivityPath activityPath, @NotNull WorkBucketType bucket,
+            @Nullable ActivityDistributionDefinition distributionDefinition, @NotNull ItemSampler itemSampler,
+            ActivityBucketManagementStatistics statistics, @NotNull OperationResult result)
+            throws ObjectNotFoundException, SchemaException {
+        Integer estimatedSize = bucket.getEstimatedSize();
+        if (estimatedSize == null || bucket.getContent() == null) {
+            return null;
+        }
+        BucketContentFactory contentFactory =
+                BucketFactory.create(distributionDefinition, null, itemSampler, beans)
+                        .getContentFactory();
+        AbstractWorkBucketContentType narrowedContent =
+                contentFactory.createNarrowedBucketContent(bucket.getContent(), estimatedSize);
+        if (narrowedContent == null) {
+            return null;
+        }
+        boolean narrowed = new NarrowBucketOperation(coordinatorTaskOid, workerTaskOid, activityPath, statistics, beans,
+                bucket.getSequentialNumber(), narrowedContent,
+                nextContent -> contentFactory.createAdjoiningBucketContent(narrowedContent, nextContent))
+                .execute(result);
+        return narrowed ?
+                bucket.clone().content(narrowedContent) :
+                null;
+    }
+
+    /**
+     * Deletes buckets of the activity (or all activities if path is null) if they are kept outside the coordinator task.
+     * Buckets kept in the task are deleted along with its activity state.
+     */
+    public void deleteBucketsFromStore(@NotNull String coordinatorTaskOid, @Nullable ActivityPath activityPath,
+            @NotNull OperationResult result) {
+        WorkBucketStore bucketStore = beans.getEnabledWorkBucketStore();
+        if (bucketStore != null) {
+            bucketStore.deleteBuckets(coordinatorTaskOid, activityPath, result);
+        }
+        lastBucketCountTimestamps.keySet().removeIf(key -> key.startsWith(coordinatorTaskOid + ":"));
+    }
+
+    /**
+     * Returns true if the buckets of given activity (kept outside the coordinator task) should be counted now.
+     * At most one caller on this node gets true in {@link #BUCKET_COUNT_INTERVAL}.
+     */
+    boolean isBucketCountDue(@NotNull String coordinatorTaskOid, @NotNull ActivityPath activityPath) {
+        String key = coordinatorTaskOid + ":" + activityPath;
+        long now = System.currentTimeMillis();
+        Long last = lastBucketCountTimestamps.putIfAbsent(key, now);
+        return last == null ||
+                now - last >= BUCKET_COUNT_INTERVAL && lastBucketCountTimestamps.replace(key, last, now);
+    }
+
     /**
      * Narrows a query by taking specified bucket into account.
      */
@@ -7,9 +7,12 @@
 
 package com.evolveum.midpoint.repo.common.activity.run.buckets;
 
+import static com.evolveum.midpoint.util.MiscUtil.stateCheck;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 
@@ -23,6 +26,7 @@ import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.util.CloneUtil;
 import com.evolveum.midpoint.repo.api.ModifyObjectResult;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
 import com.evolveum.midpoint.repo.common.activity.run.state.ActivityBucketManagementStatistics;
 import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -56,6 +60,11 @@ public class CompleteBucketOperation extends BucketOperation {
             throws ObjectAlreadyExistsException, ObjectNotFoundException, SchemaException {
 
         LOGGER.trace("Completing work bucket #{} in {} (worker {})", sequentialNumber, coordinatorTaskOid, workerTaskOid);
+        if (bucketStore != null) {
+            executeInStore(bucketStore, result);
+            return;
+        }
+
         ModifyObjectResult<TaskType> modifyObjectResult =
                 plainRepositoryService.modifyObjectDynamically(TaskType.class, coordinatorTaskOid, null,
                         this::computeCompletionModifications, null, result);
@@ -64,6 +73,28 @@ public class CompleteBucketOperation extends BucketOperation {
         statisticsKeeper.register(BucketingConstants.COMPLETE_WORK_BUCKET);
     }
 
+    /**
+     * Single update of the bucket in question, no conflicts on the coordinator task.
+     * Completed buckets are not compressed, as they do not slow down other bucket operations here.
+     *
+     * The total number of buckets is not known here, so it's not reported in the progress. Complete buckets are counted
+     * only from time to time (see {@link BucketingManager#isBucketCountDue(String, ActivityPath)}); if they are not,
+     * no progress is reported at all.
+     */
+    private void executeInStore(@NotNull WorkBucketStore bucketStore, OperationResult result) {
+        boolean completed = bucketStore.completeBucket(coordinatorTaskOid, activityPath, sequentialNumber, workerTaskOid, result);
+        stateCheck(completed, "Bucket #%s in %s is not delegated to %s", sequentialNumber, coordinatorTaskOid, workerTaskOid);
+
+        if (beans.bucketingManager.isBucketCountDue(coordinatorTaskOid, activityPath)) {
+            Map<WorkBucketStateType, Integer> counts = bucketStore.countBuckets(coordinatorTaskOid, activityPath, result);
+            bucketProgressHolder.accept(
+                    new BucketProgressOverviewType()
+                            .completeBuckets(counts.getOrDefault(WorkBucketStateType.COMPLETE, 0)));
+            bucketProgressHolder.passValue();
+        }
+        statisticsKeeper.register(BucketingConstants.COMPLETE_WORK_BUCKET);
+    }
+
     private @NotNull Collection<ItemDelta<?, ?>> computeCompletionModifications(@NotNull TaskType task) {
 
         ActivityStateType activityState = ActivityStateUtil.getActivityStateRequired(task.getActivityState(), activityPath);
@@ -32,6 +32,7 @@ import org.jetbrains.annotations.Nullable;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.repo.api.ModifyObjectResult;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
 import com.evolveum.midpoint.repo.common.activity.run.state.ActivityBucketManagementStatistics;
 import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.BucketFactory;
@@ -87,6 +88,7 @@ public class GetBucketOperation extends BucketOperation {
         bucketFactory = BucketFactory.create(
                 options.getDistributionDefinition(),
                 options.getImplicitSegmentationResolver(),
+                options.getItemSampler(),
                 beans);
 
         this.bucketsToGet = determineBucketsToGet();
@@ -122,7 +124,7 @@ public class GetBucketOperation extends BucketOperation {
         }
 
         if (attempt.getBucketToUse() != null) {
-            recordNonNullReturn(attempt);
+            recordNonNullReturn(attempt.getSituationRequired(), attempt.getBucketToUse());
             return attempt.getBucketToUse();
         }
 
@@ -137,6 +139,10 @@ public class GetBucketOperation extends BucketOperation {
     private WorkBucketType getBucketMultiNode(OperationResult result)
             throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException, InterruptedException {
 
+        if (bucketStore != null) {
+            return getBucketMultiNodeFromStore(bucketStore, result);
+        }
+
         for (;;) {
 
             Holder<GetBucketOperationAttempt> lastAttemptHolder = new Holder<>();
@@ -161,7 +167,7 @@ public class GetBucketOperation extends BucketOperation {
                     Objects.requireNonNull(lastAttemptHolder.getValue(), "no last attempt recorded");
 
             if (lastAttempt.getBucketToUse() != null) {
-                recordNonNullReturn(lastAttempt);
+                recordNonNullReturn(lastAttempt.getSituationRequired(), lastAttempt.getBucketToUse());
                 return lastAttempt.getBucketToUse();
             }
 
@@ -193,21 +199,135 @@ public class GetBucketOperation extends BucketOperation {
         }
     }
 
+    /**
+     * Variant of {@link #getBucketMultiNode(OperationResult)} for buckets kept in {@link WorkBucketStore}.
+     * Each step touches only the bucket(s) in question, so the workers do not conflict on the coordinator task.
+     * Waiting for free buckets and scavenging work the same way.
+     */
+    private WorkBucketType getBucketMultiNodeFromStore(@NotNull WorkBucketStore store, OperationResult result)
+            throws SchemaException, ObjectAlreadyExistsException, ObjectNotFoundException, InterruptedException {
+
+        for (;;) {
+
+            Holder<Situation> situationHolder = new Holder<>();
+            WorkBucketType bucket = getBucketFromStore(store, situationHolder, result);
+
+            reportProgressFromStore(store, result);
+
+            if (bucket != null) {
+                recordNonNullReturn(situationHolder.getValue(), bucket);
+                return bucket;
+            }
+
+            // Nothing found!
+
+            if (!options.isScavenger()) {
+                markScavengingIfNotYet(result);
+                recordNothingFoundForNonScavenger();
+                return null;
+            }
+
+            boolean definite = !store.hasBuckets(coordinatorTaskOid, activityPath, WorkBucketStateType.DELEGATED, result);
+            if (definite || options.getFreeBucketWaitTime() == 0L) {
+                markWorkComplete(result);
+                recordNothingFoundDefinite();
+                return null;
+            }
+
+            long toWait = getRemainingTimeToWait();
+            if (toWait <= 0) {
+                markWorkComplete(result);
+                recordNothingFoundWithWaitTimeElapsed();
+                return null;
+            }
+
+            sleep(toWait);
+            reclaimWronglyAllocatedBuckets(result);
+        }
+    }
+
+    /**
+     * Reports the bucket progress. Counting the buckets is not cheap, so complete buckets are counted
+     * only from time to time, see {@link BucketingManager#isBucketCountDue(String, ActivityPath)}.
+     */
+    private void reportProgressFromStore(@NotNull WorkBucketStore store, OperationResult result) {
+        BucketProgressOverviewType progress = new BucketProgressOverviewType()
+                .totalBuckets(bucketFactory.estimateNumberOfBuckets());
+        if (beans.bucketingManager.isBucketCountDue(coordinatorTaskOid, activityPath)) {
+            progress.setCompleteBuckets(
+                    store.countBuckets(coordinatorTaskOid, activityPath, result)
+                            .getOrDefault(WorkBucketStateType.COMPLETE, 0));
+        }
+        bucketProgressHolder.accept(progress);
+        bucketProgressHolder.passValue();
+    }
+
+    /**
+     * Returns bucket delegated to this worker; or claims a READY one; or creates new ones.
+     *
+     * When sampling, all buckets but the last one obtained are skipped, i.e. marked as COMPLETE without processing.
+     * A bucket is skipped only after the next one is obtained: if there is no next one, the last obtained bucket
+     * is returned to be processed.
+     */
+    private @Nullable WorkBucketType getBucketFromStore(@NotNull WorkBucketStore store,
+            @NotNull Holder<Situation> situationHolder, OperationResult result) throws SchemaException {
+        assert workerTaskOid != null;
+
+        WorkBucketType delegated = store.findDelegatedBucket(coordinatorTaskOid, activityPath, workerTaskOid, result);
+        if (delegated != null) {
+            situationHolder.setValue(Situation.FOUND_DELEGATED_TO_ME);
+            return delegated;
+        }
+
+        WorkBucketType bucket = null;
+        for (int i = 0; i < bucketsToGet; i++) {
+            Holder<Situation> nextSituationHolder = new Holder<>();
+            WorkBucketType next = claimOrCreateBucketInStore(store, nextSituationHolder, result);
+            if (next == null) {
+                break;
+            }
+            if (bucket != null) {
+                LOGGER.debug("Marking bucket as COMPLETE because of sampling: {}", bucket);
+                store.completeBucket(coordinatorTaskOid, activityPath, bucket.getSequentialNumber(), workerTaskOid, result);
+            }
+            bucket = next;
+            situationHolder.setValue(nextSituationHolder.getValue());
+        }
+        return bucket;
+    }
+
+    private @Nullable WorkBucketType claimOrCreateBucketInStore(@NotNull WorkBucketStore store,
+            @NotNull Holder<Situation> situationHolder, OperationResult result) throws SchemaException {
+        assert workerTaskOid != null;
+        WorkBucketType ready = store.claimReadyBucket(coordinatorTaskOid, activityPath, workerTaskOid, result);
+        if (ready != null) {
+            situationHolder.setValue(Situation.FOUND_READY);
+            return ready;
+        }
+        WorkBucketType created = store.createAndClaimBuckets(coordinatorTaskOid, activityPath, workerTaskOid,
+                lastBucket -> bucketFactory.createNewBuckets(
+                        lastBucket != null ? List.of(lastBucket) : List.of(), 1),
+                result);
+        if (created != null) {
+            situationHolder.setValue(Situation.CREATED_NEW);
+        }
+        return created;
+    }
+
     /**
      * Recording situation when there is a bucket to be returned.
      * (The cases where there is no bucket are treated separately for standalone/workers cases.
      */
-    private void recordNonNullReturn(@NotNull GetBucketOperationAttempt attempt) {
-        @NotNull Situation situation = attempt.getSituationRequired();
+    private void recordNonNullReturn(@NotNull Situation situation, @NotNull WorkBucketType bucket) {
         switch (situation) {
             case FOUND_DELEGATED_TO_ME:
-                recordFoundDelegated(attempt);
+                recordFoundDelegated(bucket);
                 break;
             case FOUND_READY:
-                recordFoundReady(attempt);
+                recordFoundReady(bucket);
                 break;
             case CREATED_NEW:
-                recordCreatedNew(attempt);
+                recordCreatedNew(bucket);
                 break;
             default:
                 throw new AssertionError(situation);
@@ -275,22 +395,22 @@ public class GetBucketOperation extends BucketOperation {
         return waitUntil - System.currentTimeMillis();
     }
 
-    private void recordFoundDelegated(@NotNull GetBucketOperationAttempt attempt) {
-        LOGGER.trace("Returning already delegated bucket for {}: {}", workerTaskOid, attempt.getBucketToUse());
+    private void recordFoundDelegated(@NotNull WorkBucketType bucket) {
+        LOGGER.trace("Returning already delegated bucket for {}: {}", workerTaskOid, bucket);
         statisticsKeeper.register(GET_WORK_BUCKET_FOUND_DELEGATED);
     }
 
-    private void recordFoundReady(@NotNull GetBucketOperationAttempt attempt) {
+    private void recordFoundReady(@NotNull WorkBucketType bucket) {
         CONTENTION_LOGGER.trace("Existing bucket acquired after {} ms (conflicts: {}) in {}: {}",
                 System.currentTimeMillis() - statisticsKeeper.start, statisticsKeeper.conflictCount, workerTaskOid,
-                attempt.getBucketToUse());
+                bucket);
         statisticsKeeper.register(GET_WORK_BUCKET_FOUND_READY);
     }
 
-    private void recordCreatedNew(@NotNull GetBucketOperationAttempt attempt) {
+    private void recordCreatedNew(@NotNull WorkBucketType bucket) {
         CONTENTION_LOGGER.trace("New bucket(s) acquired after {} ms (retries: {}) in {}: {}",
                 System.currentTimeMillis() - statisticsKeeper.start, statisticsKeeper.conflictCount, workerTaskOid,
-                attempt.getBucketToUse());
+                bucket);
         statisticsKeeper.register(GET_WORK_BUCKET_CREATED_NEW);
     }
 
@@ -322,6 +442,16 @@ public class GetBucketOperation extends BucketOperation {
             throws SchemaException, ObjectNotFoundException, ObjectAlreadyExistsException {
 
         Set<String> liveWorkers = getLiveWorkers(result);
+        if (bucketStore != null) {
+            int reclaimed = bucketStore.reclaimBuckets(coordinatorTaskOid, activityPath, liveWorkers, result);
+            if (reclaimed > 0) {
+                LOGGER.info("Reclaimed {} buckets in {}", reclaimed, coordinatorTaskOid);
+            } else {
+                LOGGER.debug("Reclaimed no buckets in {}", coordinatorTaskOid);
+            }
+            return;
+        }
+
         Holder<Integer> reclaimingHolder = new Holder<>(0);
 
         plainRepositoryService.modifyObjectDynamically(TaskType.class, coordinatorTaskOid, null,
@@ -16,6 +16,7 @@ import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.repo.common.activity.definition.ActivityDistributionDefinition;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.ImplicitSegmentationResolver;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.ItemSampler;
 import com.evolveum.midpoint.util.DebugDumpable;
 import com.evolveum.midpoint.util.DebugUtil;
 
@@ -23,6 +24,7 @@ public class GetBucketOperationOptions implements DebugDumpable {
 
     @Nullable private final ActivityDistributionDefinition distributionDefinition;
     @Nullable private final ImplicitSegmentationResolver implicitSegmentationResolver;
+    @Nullable private final ItemSampler itemSampler;
     @Nullable private final Supplier<Boolean> canRun;
     private final boolean isScavenger;
     private final long freeBucketWaitTime;
@@ -30,12 +32,13 @@ public class GetBucketOperationOptions implements DebugDumpable {
     @Nullable private final Consumer<BucketProgressOverviewType> bucketProgressConsumer;
 
     private GetBucketOperationOptions(@Nullable ActivityDistributionDefinition distributionDefinition,
-            @Nullable ImplicitSegmentationResolver implicitSegmentationResolver,
+            @Nullable ImplicitSegmentationResolver implicitSegmentationResolver, @Nullable ItemSampler itemSampler,
             @Nullable Supplier<Boolean> canRun, boolean isScavenger,
             long freeBucketWaitTime, boolean executeInitialWait,
             @Nullable Consumer<BucketProgressOverviewType> bucketProgressConsumer) {
         this.distributionDefinition = distributionDefinition;
         this.implicitSegmentationResolver = implicitSegmentationResolver;
+        this.itemSampler = itemSampler;
         this.canRun = canRun;
         this.isScavenger = isScavenger;
         this.freeBucketWaitTime = freeBucketWaitTime;
@@ -59,6 +62,10 @@ public class GetBucketOperationOptions implements DebugDumpable {
         return implicitSegmentationResolver;
     }
 
+    public @Nullable ItemSampler getItemSampler() {
+        return itemSampler;
+    }
+
     public @Nullable Supplier<Boolean> getCanRun() {
         return canRun;
     }
@@ -88,6 +95,7 @@ public class GetBucketOperationOptions implements DebugDumpable {
     public static final class GetBucketOperationOptionsBuilder {
         private ActivityDistributionDefinition distributionDefinition;
         private ImplicitSegmentationResolver implicitSegmentationResolver;
+        private ItemSampler itemSampler;
         private Supplier<Boolean> canRun = () -> true;
         private boolean isScavenger;
         private long freeBucketWaitTime;
@@ -111,6 +119,11 @@ public class GetBucketOperationOptions implements DebugDumpable {
             return this;
         }
 
+        public GetBucketOperationOptionsBuilder withItemSampler(ItemSampler itemSampler) {
+            this.itemSampler = itemSampler;
+            return this;
+        }
+
         public GetBucketOperationOptionsBuilder withCanRun(Supplier<Boolean> canRun) {
             this.canRun = canRun;
             return this;
@@ -137,7 +150,7 @@ public class GetBucketOperationOptions implements DebugDumpable {
         }
 
         public GetBucketOperationOptions build() {
-            return new GetBucketOperationOptions(distributionDefinition, implicitSegmentationResolver, canRun,
+            return new GetBucketOperationOptions(distributionDefinition, implicitSegmentationResolver, itemSampler, canRun,
                     isScavenger, freeBucketWaitTime, executeInitialWait, bucketProgressConsumer);
         }
     }
@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.common.activity.run.buckets;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.function.UnaryOperator;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.prism.delta.ItemDelta;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.repo.api.ModifyObjectResult;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
+import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
+import com.evolveum.midpoint.repo.common.activity.run.state.ActivityBucketManagementStatistics;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.task.ActivityPath;
+import com.evolveum.midpoint.schema.util.task.ActivityStateUtil;
+import com.evolveum.midpoint.schema.util.task.BucketingUtil;
+import com.evolveum.midpoint.schema.util.task.work.BucketingConstants;
+import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
+import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkBucketContentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
+
+/**
+ * Replaces the content of a bucket delegated to a worker by a narrower one. The rest of the original bucket
+ * must be covered by the next bucket:
+ *
+ * 1. If the bucket is the last one, the rest becomes a part of the bucket(s) created later, as they are derived from it.
+ * 2. If the next bucket is READY, it is extended to cover the rest.
+ *
+ * Otherwise (the next bucket is being processed or is complete), the operation does nothing.
+ */
+public class NarrowBucketOperation extends BucketOperation {
+
+    private static final Trace LOGGER = TraceManager.getTrace(NarrowBucketOperation.class);
+
+    private final int sequentialNumber;
+
+    @NotNull private final AbstractWorkBucketContentType newContent;
+
+    /** Provides the content of the next bucket (extended to cover the rest of this one), given its current content. */
+    @NotNull private final UnaryOperator<AbstractWorkBucketContentType> nextContentFunction;
+
+    /** Was the bucket narrowed? */
+    private boolean narrowed;
+
+    NarrowBucketOperation(@NotNull String coordinatorTaskOid, @NotNull String workerTaskOid,
+            @NotNull ActivityPath activityPath, ActivityBucketManagementStatistics collector, CommonTaskBeans beans,
+            int sequentialNumber, @NotNull AbstractWorkBucketContentType newContent,
+            @NotNull UnaryOperator<AbstractWorkBucketContentType> nextContentFunction) {
+        super(coordinatorTaskOid, workerTaskOid, activityPath, collector, null, beans);
+        this.sequentialNumber = sequentialNumber;
+        this.newContent = newContent;
+        this.nextContentFunction = nextContentFunction;
+    }
+
+    /**
+     * @return true if the bucket was narrowed
+     */
+    public boolean execute(OperationResult result) throws ObjectNotFoundException, SchemaException {
+
+        if (bucketStore != null) {
+            executeInStore(bucketStore, result);
+        } else {
+            ModifyObjectResult<TaskType> modifyObjectResult;
+            try {
+                modifyObjectResult = plainRepositoryService.modifyObjectDynamically(TaskType.class, coordinatorTaskOid,
+                        null, this::computeNarrowingModifications, null, result);
+            } catch (ObjectAlreadyExistsException e) {
+                throw new SystemException("Unexpected ObjectAlreadyExistsException: " + e.getMessage(), e);
+            }
+            statisticsKeeper.addToConflictCounts(modifyObjectResult);
+        }
+
+        LOGGER.trace("Bucket #{} in {} narrowed: {}", sequentialNumber, coordinatorTaskOid, narrowed);
+        statisticsKeeper.register(BucketingConstants.NARROW_WORK_BUCKET);
+        return narrowed;
+    }
+
+    private void executeInStore(@NotNull WorkBucketStore bucketStore, OperationResult result) throws SchemaException {
+        assert workerTaskOid != null;
+        narrowed = bucketStore.narrowBucket(
+                coordinatorTaskOid, activityPath, sequentialNumber, workerTaskOid, newContent, nextContentFunction, result);
+    }
+
+    private @NotNull Collection<ItemDelta<?, ?>> computeNarrowingModifications(@NotNull TaskType task) {
+        List<WorkBucketType> currentBuckets = BucketingUtil.getBuckets(task.getActivityState(), activityPath);
+        WorkBucketType bucket = BucketingUtil.findBucketByNumberRequired(currentBuckets, sequentialNumber);
+        checkBucketReadyOrDelegated(bucket);
+
+        ItemPath statePath = ActivityStateUtil.getStateItemPath(task.getActivityState(), activityPath);
+        WorkBucketType nextBucket = BucketingUtil.findBucketByNumber(currentBuckets, sequentialNumber + 1);
+        if (nextBucket == null) {
+            narrowed = true;
+            return bucketContentReplaceDeltas(statePath, bucket, newContent);
+        }
+
+        AbstractWorkBucketContentType nextContent =
+                nextBucket.getState() == WorkBucketStateType.READY ? nextContentFunction.apply(nextBucket.getContent()) : null;
+        narrowed = nextContent != null;
+        if (!narrowed) {
+            LOGGER.trace("Bucket #{} is followed by non-ready or non-extensible bucket in {}, not narrowing it",
+                    sequentialNumber, task);
+            return List.of();
+        }
+        List<ItemDelta<?, ?>> deltas = new ArrayList<>(bucketContentReplaceDeltas(statePath, bucket, newContent));
+        deltas.addAll(bucketContentReplaceDeltas(statePath, nextBucket, nextContent));
+        return deltas;
+    }
+
+    @Override
+    protected void extendDebugDump(StringBuilder sb, int indent) {
+        sb.append("\n");
+        DebugUtil.debugDumpWithLabelLn(sb, "sequentialNumber", sequentialNumber, indent + 1);
+        DebugUtil.debugDumpWithLabel(sb, "newContent", newContent, indent + 1);
+    }
+}
@@ -7,6 +7,8 @@
 
 package com.evolveum.midpoint.repo.common.activity.run.buckets;
 
+import static com.evolveum.midpoint.util.MiscUtil.stateCheck;
+
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -16,6 +18,7 @@ import org.jetbrains.annotations.NotNull;
 import com.evolveum.midpoint.prism.delta.ItemDelta;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.repo.api.ModifyObjectResult;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
 import com.evolveum.midpoint.repo.common.activity.run.state.ActivityBucketManagementStatistics;
 import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
 import com.evolveum.midpoint.schema.result.OperationResult;
@@ -51,6 +54,11 @@ public class ReleaseBucketsOperation extends BucketOperation {
     public void execute(OperationResult result)
             throws ObjectNotFoundException, SchemaException {
 
+        if (bucketStore != null) {
+            executeInStore(bucketStore, result);
+            return;
+        }
+
         ModifyObjectResult<TaskType> modifyObjectResult;
         try {
             modifyObjectResult = plainRepositoryService.modifyObjectDynamically(TaskType.class, coordinatorTaskOid, null,
@@ -63,6 +71,16 @@ public class ReleaseBucketsOperation extends BucketOperation {
         statisticsKeeper.register(BucketingConstants.RELEASE_WORK_BUCKET);
     }
 
+    /** Single update of the bucket(s) in question, no conflicts on the coordinator task. */
+    private void executeInStore(@NotNull WorkBucketStore bucketStore, OperationResult result) {
+        assert workerTaskOid != null;
+        int released = bucketStore.releaseBuckets(coordinatorTaskOid, activityPath, workerTaskOid, sequentialNumber, result);
+        LOGGER.trace("Released {} bucket(s) in {} (delegated to {})", released, coordinatorTaskOid, workerTaskOid);
+        stateCheck(sequentialNumber == null || released > 0,
+                "Bucket #%s in %s is not delegated to %s", sequentialNumber, coordinatorTaskOid, workerTaskOid);
+        statisticsKeeper.register(BucketingConstants.RELEASE_WORK_BUCKET);
+    }
+
     private @NotNull Collection<ItemDelta<?, ?>> computeReleaseModifications(@NotNull TaskType task) {
         assert workerTaskOid != null;
 
@@ -10,6 +10,7 @@ package com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkBucketContentType;
 
+import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 /**
@@ -31,4 +32,34 @@ public interface BucketContentFactory {
      * @return null if the number cannot be determined
      */
     Integer estimateNumberOfBuckets();
+
+    /**
+     * Estimates the number of items in a bucket created by this factory.
+     *
+     * @return null if the number cannot be determined
+     */
+    default @Nullable Integer estimateBucketSize() {
+        return null;
+    }
+
+    /**
+     * Creates a content of the bucket narrowed to (approximately) the given number of items, having the same start.
+     *
+     * @return null if the narrowing is not supported or not possible
+     */
+    default @Nullable AbstractWorkBucketContentType createNarrowedBucketContent(
+            @NotNull AbstractWorkBucketContentType content, int size) throws SchemaException {
+        return null;
+    }
+
+    /**
+     * Creates a content of the bucket that follows a narrowed one, extended so that it covers the rest
+     * of the narrowed bucket, i.e. so that it starts where the narrowed bucket ends now.
+     *
+     * @return null if this is not supported
+     */
+    default @Nullable AbstractWorkBucketContentType createAdjoiningBucketContent(
+            @NotNull AbstractWorkBucketContentType narrowedContent, @NotNull AbstractWorkBucketContentType nextContent) {
+        return null;
+    }
 }
@@ -32,11 +32,12 @@ public class BucketContentFactoryGenerator {
             = new HashMap<>();
 
     {
-        registerSupplier(NumericWorkSegmentationType.class, (cfg, ctx) -> new NumericBucketContentFactory(cfg));
-        registerSupplier(StringWorkSegmentationType.class, (cfg, ctx) -> new StringBucketContentFactory(cfg));
-        registerSupplier(OidWorkSegmentationType.class, (cfg, ctx) -> new StringBucketContentFactory(cfg));
-        registerSupplier(ExplicitWorkSegmentationType.class, (cfg, ctx) -> new ExplicitBucketContentFactory(cfg));
+        registerSupplier(NumericWorkSegmentationType.class, (cfg, ctx, sampler) -> new NumericBucketContentFactory(cfg));
+        registerSupplier(StringWorkSegmentationType.class, (cfg, ctx, sampler) -> new StringBucketContentFactory(cfg));
+        registerSupplier(OidWorkSegmentationType.class, (cfg, ctx, sampler) -> new StringBucketContentFactory(cfg));
+        registerSupplier(ExplicitWorkSegmentationType.class, (cfg, ctx, sampler) -> new ExplicitBucketContentFactory(cfg));
         registerSupplier(ImplicitWorkSegmentationType.class, this::createContentFactoryInImplicitCase);
+        registerSupplier(SampledWorkSegmentationType.class, this::createContentFactoryInSampledCase);
     }
 
     /**
@@ -44,15 +45,16 @@ public class BucketContentFactoryGenerator {
      */
     @NotNull
     public BucketContentFactory createContentFactory(@Nullable BucketsDefinitionType bucketing,
-            @Nullable ImplicitSegmentationResolver implicitSegmentationResolver) {
+            @Nullable ImplicitSegmentationResolver implicitSegmentationResolver, @Nullable ItemSampler itemSampler) {
         return createContentFactory(
                 BucketingUtil.getWorkSegmentationConfiguration(bucketing),
-                implicitSegmentationResolver);
+                implicitSegmentationResolver,
+                itemSampler);
     }
 
     @NotNull
     private BucketContentFactory createContentFactory(@Nullable AbstractWorkSegmentationType segmentationConfig,
-            @Nullable ImplicitSegmentationResolver implicitSegmentationResolver) {
+            @Nullable ImplicitSegmentationResolver implicitSegmentationResolver, @Nullable ItemSampler itemSampler) {
         if (segmentationConfig == null) {
             return new NullBucketContentFactory();
         }
@@ -65,7 +67,7 @@ public class BucketContentFactoryGenerator {
         if (supplier == null) {
             throw new IllegalStateException("Unknown or unsupported work state management configuration: " + segmentationConfig);
         } else {
-            return supplier.supply(segmentationConfig, implicitSegmentationResolver);
+            return supplier.supply(segmentationConfig, implicitSegmentationResolver, itemSampler);
         }
     }
 
@@ -76,11 +78,18 @@ public class BucketContentFactoryGenerator {
 
     private @NotNull BucketContentFactory createContentFactoryInImplicitCase(
             @NotNull ImplicitWorkSegmentationType configuration,
-            ImplicitSegmentationResolver resolver) {
+            ImplicitSegmentationResolver resolver, ItemSampler itemSampler) {
         argCheck(resolver != null, "No bucketing context for implicit work segmentation");
         return createContentFactory(
                 resolver.resolveImplicitSegmentation(configuration),
-                null // We no longer need the resolver (this also avoids endless loops)
-        );
+                null, // We no longer need the resolver (this also avoids endless loops)
+                itemSampler);
+    }
+
+    private @NotNull BucketContentFactory createContentFactoryInSampledCase(
+            @NotNull SampledWorkSegmentationType configuration,
+            ImplicitSegmentationResolver resolver, ItemSampler itemSampler) {
+        argCheck(itemSampler != null, "Sampled work segmentation is not supported by this activity");
+        return new SampledBucketContentFactory(configuration, itemSampler);
     }
 }
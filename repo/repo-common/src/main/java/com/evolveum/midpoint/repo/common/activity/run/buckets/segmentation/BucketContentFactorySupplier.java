@@ -17,7 +17,8 @@ public interface BucketContentFactorySupplier<ST extends AbstractWorkSegmentatio
 
     /**
      * Creates bucket content factory with a given segmentation config in given context.
-     * The context is currently taken into account only for implicit segmentation configuration.
+     * The context is currently taken into account only for implicit and sampled segmentation configuration.
      */
-    @NotNull CF supply(ST segmentationConfig, @Nullable ImplicitSegmentationResolver implicitSegmentationResolver);
+    @NotNull CF supply(ST segmentationConfig, @Nullable ImplicitSegmentationResolver implicitSegmentationResolver,
+            @Nullable ItemSampler itemSampler);
 }
@@ -35,12 +35,18 @@ public class BucketFactory {
 
     public static BucketFactory create(@Nullable ActivityDistributionDefinition distributionDefinition,
             @Nullable ImplicitSegmentationResolver implicitSegmentationResolver, @NotNull CommonTaskBeans beans) {
+        return create(distributionDefinition, implicitSegmentationResolver, null, beans);
+    }
+
+    public static BucketFactory create(@Nullable ActivityDistributionDefinition distributionDefinition,
+            @Nullable ImplicitSegmentationResolver implicitSegmentationResolver, @Nullable ItemSampler itemSampler,
+            @NotNull CommonTaskBeans beans) {
 
         @Nullable BucketsDefinitionType bucketingConfig =
                 distributionDefinition != null ? distributionDefinition.getBuckets() : null;
 
         return new BucketFactory(
-                beans.contentFactoryCreator.createContentFactory(bucketingConfig, implicitSegmentationResolver),
+                beans.contentFactoryCreator.createContentFactory(bucketingConfig, implicitSegmentationResolver, itemSampler),
                 bucketingConfig);
     }
 
@@ -61,11 +67,13 @@ public class BucketFactory {
         List<WorkBucketType> newBuckets = new ArrayList<>(newBucketsContent.size());
         WorkBucketType lastBucket = BucketingUtil.getLastBucket(currentBuckets);
         int sequentialNumber = lastBucket != null ? lastBucket.getSequentialNumber() + 1 : 1;
+        Integer estimatedSize = contentFactory.estimateBucketSize();
         for (AbstractWorkBucketContentType newBucketContent : newBucketsContent) {
             newBuckets.add(
                     new WorkBucketType(PrismContext.get())
                             .sequentialNumber(sequentialNumber++)
-                            .content(newBucketContent));
+                            .content(newBucketContent)
+                            .estimatedSize(estimatedSize));
         }
         return newBuckets;
     }
@@ -0,0 +1,45 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation;
+
+import javax.xml.namespace.QName;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.util.exception.CommonException;
+
+/**
+ * Looks into the items to be processed by an activity, so the buckets can be created according to the actual data.
+ * See {@link SampledBucketContentFactory}.
+ *
+ * Provided by the activity run (for the duration of a single bucketing operation) if it supports it.
+ * Items are considered regardless of any bucket, i.e. as if the activity was not bucketed at all.
+ */
+public interface ItemSampler {
+
+    /**
+     * Returns the number of items to be processed by the activity, or null if it cannot be determined.
+     */
+    @Nullable Integer countItems() throws CommonException;
+
+    /**
+     * Returns the discriminator value of the item at given position, when items having the discriminator value
+     * in the interval of [from, to) are sorted by the discriminator. Null boundary means "unbounded".
+     *
+     * The boundaries are compared using the matching rule (if any), and the value returned must be in the form
+     * compared by it, so it can be used as a boundary of a bucket.
+     *
+     * @param matchingRule Matching rule configured for the segmentation, if any.
+     * @param position Position of the item, starting at 0.
+     * @return null if there is no such item
+     */
+    @Nullable String getDiscriminatorValue(@NotNull ItemPath discriminator, @Nullable QName matchingRule,
+            @Nullable String from, @Nullable String to, int position) throws CommonException;
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation;
+
+import java.util.Objects;
+import javax.xml.namespace.QName;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.PrismConstants;
+import com.evolveum.midpoint.prism.path.ItemName;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.BaseBucketContentFactory;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.LoggingUtils;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkBucketContentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SampledWorkSegmentationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.StringIntervalWorkBucketContentType;
+
+/**
+ * Creates string interval buckets containing (approximately) the same number of items, regardless of the distribution
+ * of discriminator values.
+ *
+ * The upper boundary of each bucket is the discriminator value of the item that follows the bucket size
+ * items after the lower boundary, as found by {@link ItemSampler} at the time of bucket creation. The lower boundary
+ * is the upper boundary of the previous bucket, so the buckets cover the whole space even if the data change
+ * between the creation of individual buckets, or if the buckets are created by different workers.
+ * The last bucket is open-ended.
+ */
+public class SampledBucketContentFactory extends BaseBucketContentFactory<SampledWorkSegmentationType> {
+
+    private static final Trace LOGGER = TraceManager.getTrace(SampledBucketContentFactory.class);
+
+    @NotNull private final ItemSampler sampler;
+    @NotNull private final ItemPath discriminator;
+    @Nullable private final QName matchingRule;
+
+    /** Number of items to be processed. Determined lazily, as it's needed only if the bucket size is not configured. */
+    private Integer numberOfItems;
+
+    SampledBucketContentFactory(@NotNull SampledWorkSegmentationType segmentationConfig, @NotNull ItemSampler sampler) {
+        super(segmentationConfig);
+        this.sampler = sampler;
+        this.discriminator = segmentationConfig.getDiscriminator() != null ?
+                segmentationConfig.getDiscriminator().getItemPath() :
+                ItemName.fromQName(PrismConstants.T_ID);
+        this.matchingRule = segmentationConfig.getMatchingRule() != null ?
+                QNameUtil.uriToQName(segmentationConfig.getMatchingRule(), PrismConstants.NS_MATCHING_RULE) :
+                null;
+    }
+
+    @Override
+    public @Nullable StringIntervalWorkBucketContentType createNextBucketContent(
+            AbstractWorkBucketContentType lastBucketContent, Integer lastBucketSequentialNumber) {
+        String from;
+        if (lastBucketSequentialNumber != null) {
+            if (!(lastBucketContent instanceof StringIntervalWorkBucketContentType)) {
+                throw new IllegalStateException("Null or unsupported bucket content: " + lastBucketContent);
+            }
+            from = ((StringIntervalWorkBucketContentType) lastBucketContent).getTo();
+            if (from == null) {
+                return null; // the last bucket was open-ended, so there are no more buckets
+            }
+        } else {
+            from = null;
+        }
+
+        String to = getDiscriminatorValue(from, null, getBucketSize());
+        if (to != null && to.equals(from)) {
+            // More than bucket size items have the same discriminator value. We cannot split them.
+            LOGGER.warn("Couldn't find a boundary for bucket after '{}' because of too many items with the same value "
+                    + "of {}, the bucket will be open-ended", from, discriminator);
+            to = null;
+        }
+        return new StringIntervalWorkBucketContentType()
+                .from(from)
+                .to(to);
+    }
+
+    @Override
+    public @Nullable StringIntervalWorkBucketContentType createNarrowedBucketContent(
+            @NotNull AbstractWorkBucketContentType content, int size) {
+        if (!(content instanceof StringIntervalWorkBucketContentType)) {
+            return null;
+        }
+        StringIntervalWorkBucketContentType interval = (StringIntervalWorkBucketContentType) content;
+        String newTo = getDiscriminatorValue(interval.getFrom(), interval.getTo(), size);
+        if (newTo == null || newTo.equals(interval.getFrom())) {
+            return null;
+        } else {
+            return interval.clone()
+                    .to(newTo);
+        }
+    }
+
+    /** The next bucket starts where the narrowed one ends now. */
+    @Override
+    public @Nullable StringIntervalWorkBucketContentType createAdjoiningBucketContent(
+            @NotNull AbstractWorkBucketContentType narrowedContent, @NotNull AbstractWorkBucketContentType nextContent) {
+        if (!(narrowedContent instanceof StringIntervalWorkBucketContentType)
+                || !(nextContent instanceof StringIntervalWorkBucketContentType)) {
+            return null;
+        }
+        return ((StringIntervalWorkBucketContentType) nextContent).clone()
+                .from(((StringIntervalWorkBucketContentType) narrowedContent).getTo());
+    }
+
+    private String getDiscriminatorValue(String from, String to, int position) {
+        try {
+            return sampler.getDiscriminatorValue(discriminator, matchingRule, from, to, position);
+        } catch (CommonException e) {
+            throw new SystemException("Couldn't sample items to determine bucket boundary: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public @NotNull Integer estimateBucketSize() {
+        return getBucketSize();
+    }
+
+    private int getBucketSize() {
+        if (segmentationConfig.getBucketSize() != null) {
+            return segmentationConfig.getBucketSize();
+        } else if (segmentationConfig.getNumberOfBuckets() != null) {
+            int numberOfBuckets = segmentationConfig.getNumberOfBuckets();
+            return Math.max(1, (getNumberOfItems() + numberOfBuckets - 1) / numberOfBuckets);
+        } else {
+            throw new IllegalStateException("Neither bucketSize nor numberOfBuckets is specified");
+        }
+    }
+
+    private int getNumberOfItems() {
+        if (numberOfItems == null) {
+            try {
+                numberOfItems = Objects.requireNonNull(sampler.countItems(), "Couldn't determine the number of items");
+            } catch (CommonException e) {
+                throw new SystemException("Couldn't count items to determine bucket size: " + e.getMessage(), e);
+            }
+        }
+        return numberOfItems;
+    }
+
+    @Override
+    public Integer estimateNumberOfBuckets() {
+        if (segmentationConfig.getNumberOfBuckets() != null) {
+            return segmentationConfig.getNumberOfBuckets();
+        }
+        try {
+            int bucketSize = getBucketSize();
+            return Math.max(1, (getNumberOfItems() + bucketSize - 1) / bucketSize);
+        } catch (RuntimeException e) {
+            LoggingUtils.logUnexpectedException(LOGGER, "Couldn't estimate the number of buckets", e);
+            return null;
+        }
+    }
+}
@@ -14,6 +14,7 @@ import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkBucketContentType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractWorkSegmentationType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.OidWorkSegmentationType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SampledWorkSegmentationType;
 import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
 
 import org.jetbrains.annotations.NotNull;
@@ -28,7 +29,8 @@ public abstract class BaseWorkBucketContentHandler implements WorkBucketContentH
         ItemPathType discriminatorPathType = configuration.getDiscriminator();
         if (discriminatorPathType != null) {
             return discriminatorPathType.getItemPath();
-        } else if (configuration instanceof OidWorkSegmentationType) {
+        } else if (configuration instanceof OidWorkSegmentationType
+                || configuration instanceof SampledWorkSegmentationType) {
             return ItemName.fromQName(PrismConstants.T_ID);
         } else {
             throw new IllegalStateException("No buckets discriminator defined; bucket content = " + content);
@@ -10,12 +10,16 @@ package com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.cont
 import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.ItemDefinition;
 import com.evolveum.midpoint.prism.PrismConstants;
+import com.evolveum.midpoint.prism.PrismContainerDefinition;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.ItemDefinitionProvider;
 import com.evolveum.midpoint.util.QNameUtil;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.xml.namespace.QName;
 import java.util.ArrayList;
@@ -42,6 +46,10 @@ public abstract class IntervalWorkBucketContentHandler extends BaseWorkBucketCon
         QName matchingRuleName = configuration.getMatchingRule() != null
                 ? QNameUtil.uriToQName(configuration.getMatchingRule(), PrismConstants.NS_MATCHING_RULE)
                 : null;
+        if (configuration instanceof SampledWorkSegmentationType) {
+            matchingRuleName = getSampledSegmentationMatchingRule(matchingRuleName,
+                    discriminatorDefinition != null ? discriminatorDefinition : findDefinition(type, discriminator));
+        }
 
         List<ObjectFilter> filters = new ArrayList<>();
         if (getFrom(content) != null) {
@@ -57,6 +65,32 @@ public abstract class IntervalWorkBucketContentHandler extends BaseWorkBucketCon
         return filters;
     }
 
+    /**
+     * Polystring discriminators of the sampled segmentation are compared by their original form by default,
+     * because the items are sampled (sorted) by it. Comparing both forms (the default for polystrings) could leave
+     * out items whose original and normalized forms are ordered differently with respect to a bucket boundary.
+     */
+    public static @Nullable QName getSampledSegmentationMatchingRule(@Nullable QName configuredMatchingRule,
+            @Nullable ItemDefinition<?> discriminatorDefinition) {
+        if (configuredMatchingRule != null) {
+            return configuredMatchingRule;
+        } else if (discriminatorDefinition != null
+                && QNameUtil.match(discriminatorDefinition.getTypeName(), PolyStringType.COMPLEX_TYPE)) {
+            return PrismConstants.POLY_STRING_ORIG_MATCHING_RULE_NAME;
+        } else {
+            return null;
+        }
+    }
+
+    private @Nullable ItemDefinition<?> findDefinition(Class<? extends Containerable> type, ItemPath discriminator) {
+        if (type == null || QNameUtil.match(discriminator.firstToQName(), PrismConstants.T_ID)) {
+            return null;
+        }
+        PrismContainerDefinition<?> containerDefinition =
+                prismContext.getSchemaRegistry().findContainerDefinitionByCompileTimeClass(type);
+        return containerDefinition != null ? containerDefinition.findItemDefinition(discriminator) : null;
+    }
+
     protected abstract boolean hasNoBoundaries(AbstractWorkBucketContentType bucketContent);
 
     protected abstract Object getFrom(AbstractWorkBucketContentType content);
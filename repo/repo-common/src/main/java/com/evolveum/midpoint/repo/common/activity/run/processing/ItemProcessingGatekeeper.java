@@ -33,6 +33,7 @@ import com.evolveum.midpoint.schema.statistics.IterationItemInformation;
 import com.evolveum.midpoint.schema.statistics.IterativeOperationStartInfo;
 import com.evolveum.midpoint.schema.statistics.Operation;
 import com.evolveum.midpoint.task.api.ConnIdOperationsListener;
+import com.evolveum.midpoint.task.api.ExecutionSlot;
 import com.evolveum.midpoint.task.api.RunningTask;
 import com.evolveum.midpoint.task.api.Tracer;
 import com.evolveum.midpoint.util.annotation.Experimental;
@@ -144,6 +145,8 @@ class ItemProcessingGatekeeper<I> {
         OperationResult result = parentResult.subresult(OP_PROCESS)
                 .build();
 
+        // Waits if the task used up its share of the node capacity (if fair-share scheduling is enabled).
+        ExecutionSlot executionSlot = workerTask.acquireExecutionSlot();
         try {
             workerTask.setExecutionSupport(activityRun);
 
@@ -197,6 +200,8 @@ class ItemProcessingGatekeeper<I> {
 
         } finally {
 
+            executionSlot.close();
+
             result.close();
             cleanupAndSummarizeResults(parentResult);
 
@@ -395,8 +400,10 @@ class ItemProcessingGatekeeper<I> {
     }
 
     private Operation recordIterativeOperationStart() {
+        IterativeOperationStartInfo startInfo = new IterativeOperationStartInfo(iterationItemInformation);
+        startInfo.setQueueWaitNanos(request.getQueueWaitNanos(startInfo.getStartTimeNanos()));
         return activityRun.getActivityState().getLiveItemProcessingStatistics()
-                .recordOperationStart(new IterativeOperationStartInfo(iterationItemInformation));
+                .recordOperationStart(startInfo);
     }
 
     private void recordIterativeOperationEnd(Operation operation) {
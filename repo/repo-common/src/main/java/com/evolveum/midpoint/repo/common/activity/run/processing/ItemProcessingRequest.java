@@ -57,6 +57,12 @@ public abstract class ItemProcessingRequest<I> implements AcknowledgementSink {
     @Experimental // maybe will be removed
     @NotNull protected final String identifier;
 
+    /**
+     * When was this request put into the queue of requests waiting for worker threads ({@link System#nanoTime()} value).
+     * Zero if the request was not queued (e.g. when processed by the coordinator thread itself).
+     */
+    private volatile long queuedNanos;
+
     public ItemProcessingRequest(int sequentialNumber, @NotNull I item,
             @NotNull IterativeActivityRun<I, ?, ?, ?> activityRun) {
         this.sequentialNumber = sequentialNumber;
@@ -91,6 +97,15 @@ public abstract class ItemProcessingRequest<I> implements AcknowledgementSink {
 
     public abstract @NotNull IterationItemInformation getIterationItemInformation();
 
+    void markQueued() {
+        queuedNanos = System.nanoTime();
+    }
+
+    /** Returns the time spent in the queue before being picked up for processing, or zero if it was not queued at all. */
+    long getQueueWaitNanos(long processingStartNanos) {
+        return queuedNanos != 0 ? Math.max(processingStartNanos - queuedNanos, 0) : 0;
+    }
+
     public boolean process(RunningTask workerTask, OperationResult result) {
         ItemProcessingGatekeeper<I> gatekeeper = new ItemProcessingGatekeeper<>(this, activityRun, workerTask);
         return gatekeeper.process(result);
@@ -14,6 +14,7 @@ import java.util.concurrent.atomic.AtomicBoolean;
 import com.evolveum.midpoint.repo.common.activity.run.IterativeActivityRun;
 import com.evolveum.midpoint.task.api.RunningLightweightTask;
 
+import com.evolveum.midpoint.util.exception.CommonException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.util.logging.LoggingUtils;
@@ -35,14 +36,23 @@ public class ProcessingCoordinator<I> {
 
     private static final Trace LOGGER = TraceManager.getTrace(ProcessingCoordinator.class);
 
+    /**
+     * Maximal time a worker waits for a request before re-checking whether it can run.
+     * Offered requests (as well as the end of processing) are signalled to waiting workers immediately.
+     */
     private static final long WORKER_THREAD_WAIT_FOR_REQUEST = 100L;
 
     private static final String OP_HANDLE_ASYNCHRONOUSLY = ProcessingCoordinator.class.getName() + ".handleAsynchronously";
     private static final String OP_EXECUTE_WORKER = ProcessingCoordinator.class.getName() + ".executeWorker";
+    private static final String OP_PREPARE_BATCH = ProcessingCoordinator.class.getName() + ".prepareBatch";
 
     @NotNull private final RunningTask coordinatorTask;
 
     private final int threadsCount;
+
+    /** Maximal number of requests a worker takes at once. See {@link IterativeActivityRun#prepareItemBatch(List, RunningTask, OperationResult)}. */
+    private final int batchSize;
+
     private final boolean multithreaded;
     private final List<OperationResult> workerSpecificResults;
     private final RequestsBuffer<I> requestsBuffer;
@@ -67,10 +77,11 @@ public class ProcessingCoordinator<I> {
         this.activityRun = activityRun;
 
         this.threadsCount = threadsCount;
+        this.batchSize = activityRun.getActivity().getDistributionDefinition().getBatchSize();
         if (threadsCount > 0) {
             multithreaded = true;
             workerSpecificResults = new ArrayList<>(threadsCount);
-            requestsBuffer = new RequestsBuffer<>(threadsCount);
+            requestsBuffer = new RequestsBuffer<>(threadsCount, batchSize);
         } else {
             multithreaded = false;
             workerSpecificResults = null;
@@ -157,6 +168,10 @@ public class ProcessingCoordinator<I> {
         // remove subtasks that could have been created previously
         coordinatorTask.deleteLightweightAsynchronousSubtasks();
 
+        // Virtual threads are cheap, so there can be many of them - e.g. hundreds of in-flight connector operations.
+        // Thread-bound state (caches, statistics, expression environment) is set up for each worker separately.
+        boolean virtual = activityRun.getActivity().getDistributionDefinition().isVirtualWorkerThreads();
+
         for (int i = 0; i < threadsCount; i++) {
             // we intentionally do not put worker specific result under main operation result until the handler is done
             // (because of concurrency issues - adding subresults vs e.g. putting main result into the task)
@@ -167,9 +182,9 @@ public class ProcessingCoordinator<I> {
             RunningLightweightTask subtask = coordinatorTask.createSubtask(new WorkerHandler(workerSpecificResult));
             subtask.setCategory(coordinatorTask.getCategory());
             subtask.setResult(new OperationResult(OP_EXECUTE_WORKER, OperationResultStatus.IN_PROGRESS, (String) null));
-            subtask.setName("Worker thread " + (i+1) + " of " + threadsCount);
+            subtask.setName((virtual ? "Virtual worker thread " : "Worker thread ") + (i+1) + " of " + threadsCount);
             subtask.setExecutionEnvironment(CloneUtil.clone(coordinatorTask.getExecutionEnvironment()));
-            subtask.startLightweightHandler();
+            subtask.startLightweightHandler(virtual);
             LOGGER.trace("Worker subtask {} created", subtask);
         }
     }
@@ -187,10 +202,18 @@ public class ProcessingCoordinator<I> {
         LOGGER.trace("ProcessingCoordinator: finishing processing. Coordinator task canRun = {}", coordinatorTask.canRun());
 
         allItemsSubmitted.set(true);
+        wakeUpWaitingWorkers();
         waitForWorkersFinish(result);
         nackQueuedRequests(result);
     }
 
+    private void wakeUpWaitingWorkers() {
+        if (multithreaded) {
+            assert requestsBuffer != null;
+            requestsBuffer.wakeUpWaitingWorkers();
+        }
+    }
+
     private void waitForWorkersFinish(OperationResult result) {
         LOGGER.debug("Waiting for workers to finish");
         activityRun.getBeans().taskManager
@@ -221,42 +244,49 @@ public class ProcessingCoordinator<I> {
             assert requestsBuffer != null;
 
             // temporary hack: how to see thread name for this task
-            workerTask.setName(workerTask.getName().getOrig() + " (" + Thread.currentThread().getName() + ")");
+            Thread thread = Thread.currentThread();
+            String threadName = !thread.getName().isEmpty() ? thread.getName() : "#" + thread.getId(); // virtual threads are unnamed
+            workerTask.setName(workerTask.getName().getOrig() + " (" + threadName + ")");
             workerSpecificResult.addArbitraryObjectAsContext("subtaskName", workerTask.getName());
 
             String taskIdentifier = workerTask.getTaskIdentifier();
 
+            WorkerThreadsScaler scaler = activityRun.getWorkerThreadsScaler();
+            if (scaler != null) {
+                workerTask.registerConnIdOperationsListener(scaler);
+            }
+
             while (canRun(workerTask)) {
 
                 workerTask.refreshThreadLocalStatistics();
-                ItemProcessingRequest<I> request = requestsBuffer.poll(taskIdentifier);
+                List<ItemProcessingRequest<I>> batch;
+                try {
+                    batch = pollBatch(taskIdentifier);
+                } catch (InterruptedException e) {
+                    LOGGER.trace("Waiting interrupted, exiting");
+                    break;
+                }
 
-                if (request != null) {
+                if (!batch.isEmpty()) {
                     try {
-                        if (!request.process(workerTask, workerSpecificResult)) {
-                            stopRequestedByAnyWorker.set(true);
-                        }
+                        processBatch(batch, workerTask, scaler);
                     } finally {
-                        requestsBuffer.markProcessed(request, taskIdentifier);
-                        treatOperationResultAfterOperation();
+                        requestsBuffer.markProcessed(batch, taskIdentifier);
                     }
                 } else {
                     if (allItemsSubmitted.get()) {
                         LOGGER.trace("Queue is empty and nothing more is expected - exiting");
                         break;
                     } else {
-                        LOGGER.trace("No requests to be processed but expecting some to come. Waiting for {} msec", WORKER_THREAD_WAIT_FOR_REQUEST);
-                        try {
-                            //noinspection BusyWait
-                            Thread.sleep(WORKER_THREAD_WAIT_FOR_REQUEST);
-                        } catch (InterruptedException e) {
-                            LOGGER.trace("Waiting interrupted, exiting");
-                            break;
-                        }
+                        LOGGER.trace("No requests to be processed but expecting some to come. Trying again.");
                     }
                 }
             }
 
+            if (scaler != null) {
+                workerTask.unregisterConnIdOperationsListener(scaler);
+            }
+
             int reservedRequests = requestsBuffer.getReservedRequestsCount(taskIdentifier);
             if (reservedRequests > 0) {
                 LOGGER.warn("Worker task exiting but it has {} reserved (pre-assigned) change requests", reservedRequests);
@@ -264,6 +294,79 @@ public class ProcessingCoordinator<I> {
             workerTask.refreshThreadLocalStatistics();
         }
 
+        /**
+         * Waits for a request, and then takes any other requests that are immediately available - up to the batch size.
+         * (So we never wait for a batch to fill up.)
+         */
+        private List<ItemProcessingRequest<I>> pollBatch(String taskIdentifier) throws InterruptedException {
+            assert requestsBuffer != null;
+            ItemProcessingRequest<I> first = requestsBuffer.poll(taskIdentifier, WORKER_THREAD_WAIT_FOR_REQUEST);
+            if (first == null) {
+                return List.of();
+            }
+            List<ItemProcessingRequest<I>> batch = new ArrayList<>(batchSize);
+            batch.add(first);
+            while (batch.size() < batchSize) {
+                ItemProcessingRequest<I> next = requestsBuffer.pollImmediately(taskIdentifier);
+                if (next == null) {
+                    break;
+                }
+                batch.add(next);
+            }
+            return batch;
+        }
+
+        /**
+         * Processes the requests one by one, after batch-capable steps were executed for all of them.
+         * Requests that cannot be processed (because the processing was stopped while processing the earlier ones)
+         * are acknowledged as not processed.
+         */
+        private void processBatch(List<ItemProcessingRequest<I>> batch, RunningTask workerTask,
+                WorkerThreadsScaler scaler) {
+            assert requestsBuffer != null;
+            if (batch.size() > 1) {
+                prepareBatch(batch, workerTask);
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                ItemProcessingRequest<I> request = batch.get(i);
+                if (i > 0 && !canRun(workerTask)) {
+                    LOGGER.trace("Processing was stopped, not processing {}", request);
+                    request.acknowledge(false, workerSpecificResult);
+                    continue;
+                }
+                try {
+                    if (!request.process(workerTask, workerSpecificResult)) {
+                        stopRequestedByAnyWorker.set(true);
+                        requestsBuffer.wakeUpWaitingWorkers();
+                    }
+                } finally {
+                    treatOperationResultAfterOperation();
+                    if (scaler != null) {
+                        scaler.sampleResources();
+                    }
+                }
+            }
+        }
+
+        /**
+         * Batch preparation is only an optimization: the items are processed (and errors are treated) individually
+         * in any case. So any failure here is only logged.
+         */
+        private void prepareBatch(List<ItemProcessingRequest<I>> batch, RunningTask workerTask) {
+            OperationResult result = workerSpecificResult.createMinorSubresult(OP_PREPARE_BATCH);
+            result.addParam("size", batch.size());
+            try {
+                activityRun.prepareItemBatch(batch, workerTask, result);
+            } catch (CommonException | RuntimeException e) {
+                LoggingUtils.logUnexpectedException(LOGGER, "Couldn't prepare a batch of {} items in {}, continuing "
+                        + "with processing of individual items", e, batch.size(), workerTask);
+                result.recordWarning("Couldn't prepare the batch: " + e.getMessage(), e);
+            } finally {
+                result.computeStatusIfUnknown();
+            }
+            treatOperationResultAfterOperation();
+        }
+
         private void treatOperationResultAfterOperation() {
             workerSpecificResult.computeStatus(true);
             // We do NOT try to summarize/cleanup the whole results hierarchy.
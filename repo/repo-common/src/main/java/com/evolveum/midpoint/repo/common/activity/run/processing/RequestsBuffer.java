@@ -8,8 +8,8 @@
 package com.evolveum.midpoint.repo.common.activity.run.processing;
 
 import java.util.*;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -33,6 +33,15 @@ import com.evolveum.midpoint.util.logging.TraceManager;
  * <p>Reservation is represented by a queue of requests waiting to be processed by specified subtask. A request gets
  * onto this queue if it's fetched from the global queue but cannot be processed because it is bound to a subtask different
  * from the current one. So it's put into "owning" task reserved requests queue. See {@link #reserve(ProcessChangeRequest, String)}.</p>
+ *
+ * <p>Producers do not use any lock: the global queue is a non-blocking one, and producers and consumers
+ * wait (parked) on semaphores counting free slots and available requests, respectively. So an idle worker gets
+ * the request as soon as it is offered. A consumer takes the request from the global queue and binds it
+ * in a single synchronized block: otherwise a later request with the same correlation value could be taken by another
+ * worker and bound to it first, i.e. processed out of order. Nothing waits inside the synchronized blocks.</p>
+ *
+ * <p>A worker cannot get a reservation while it waits for a request from the global queue: it is bound to some
+ * identifier only while processing a request or while having some requests reserved - and these are taken first.</p>
  */
 @SuppressWarnings("JavadocReference")
 class RequestsBuffer<I> {
@@ -42,9 +51,24 @@ class RequestsBuffer<I> {
     private static final long REQUEST_QUEUE_OFFER_TIMEOUT = 1000L;
 
     /**
-     * Global queue of waiting requests.
+     * Global queue of waiting requests. Its size is limited by {@link #freeSlots}.
+     */
+    private final Queue<ItemProcessingRequest<I>> globalQueue = new ConcurrentLinkedQueue<>();
+
+    /** Number of requests that can be put into {@link #globalQueue}. Producers wait on this one. */
+    private final Semaphore freeSlots;
+
+    /**
+     * Number of requests in {@link #globalQueue} not yet claimed by consumers. Workers wait on this one.
+     * (After {@link #wakeUpWaitingWorkers()} it can be higher.)
      */
-    private final BlockingQueue<ItemProcessingRequest<I>> globalQueue;
+    private final Semaphore availableRequests = new Semaphore(0);
+
+    /** Workers can be waiting at most this number of threads. Used to wake them all up. */
+    private final int threadsCount;
+
+    /** Number of all reserved requests. Allows workers to avoid locking if there are none. */
+    private final AtomicInteger reservedRequestsCount = new AtomicInteger();
 
     /**
      * Current bindings of resource objects (their identifiers) to subtasks.
@@ -62,53 +86,71 @@ class RequestsBuffer<I> {
      */
     private final Map<String, PriorityQueue<ItemProcessingRequest<I>>> reservedRequestsQueueMap = new HashMap<>();
 
-    RequestsBuffer(int threadsCount) {
-        int globalQueueSize = threadsCount*2; // actually, size of threadsCount should be sufficient but it doesn't hurt if queue is larger
-        globalQueue = new ArrayBlockingQueue<>(globalQueueSize);
+    RequestsBuffer(int threadsCount, int batchSize) {
+        this.threadsCount = threadsCount;
+        // actually, size of threadsCount (times batch size) should be sufficient but it doesn't hurt if queue is larger
+        int globalQueueSize = threadsCount * batchSize * 2;
+        freeSlots = new Semaphore(globalQueueSize);
     }
 
     /**
-     * Offers a request for processing.
+     * Offers a request for processing. Waits (for limited time) if the queue is full.
      *
      * This method is intentionally NOT synchronized.
      *
+     * The request is marked as queued only when it gets into the queue, so the queue wait time does not include
+     * the time spent waiting for a free slot (i.e. the back-pressure on the producer).
+     *
      * @throws InterruptedException If present, the request was not put into the queue.
      */
     boolean offer(ItemProcessingRequest<I> request) throws InterruptedException {
-        return globalQueue.offer(request, REQUEST_QUEUE_OFFER_TIMEOUT, TimeUnit.MILLISECONDS);
+        if (!freeSlots.tryAcquire(REQUEST_QUEUE_OFFER_TIMEOUT, TimeUnit.MILLISECONDS)) {
+            return false;
+        }
+        request.markQueued();
+        globalQueue.add(request);
+        availableRequests.release();
+        return true;
     }
 
     /**
-     * Tries to obtain a request to be processed by the specified subtask.
-     * Does NOT wait, it just checks reserved requests and global queues.
+     * Tries to obtain a request to be processed by the specified subtask. Checks reserved requests first,
+     * then waits for a request in the global queue - at most for specified time, or until woken up by
+     * {@link #wakeUpWaitingWorkers()}.
      *
      * Post-conditions:
-     * - Returns null only if there are no reserved nor globally available requests.
+     * - Returns null only if there are no reserved nor globally available requests (within the time limit).
      * - If the request is not null, the primary identifier of the request is (successfully) bound to the specified task.
      */
-    synchronized ItemProcessingRequest<I> poll(String taskIdentifier) {
+    ItemProcessingRequest<I> poll(String taskIdentifier, long timeout) throws InterruptedException {
 
         ItemProcessingRequest<I> reserved = getNextReservedRequest(taskIdentifier);
         if (reserved != null) {
             LOGGER.trace("Got reserved (pre-assigned) request: {}", reserved);
-            if (bind(reserved, taskIdentifier)) {
-                return reserved;
-            } else {
-                throw new IllegalStateException("A reserved request couldn't be bound to the current task. Request = " +
-                        reserved + ", task = " + taskIdentifier);
-            }
+            return reserved;
         }
 
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeout);
         for (;;) {
-            ItemProcessingRequest<I> request = globalQueue.poll();
+            long remaining = deadline - System.nanoTime();
+            if (!availableRequests.tryAcquire(Math.max(remaining, 0), TimeUnit.NANOSECONDS)) {
+                return null; // Nothing in the queue for now. OK, let's try next time.
+            }
+
+            ItemProcessingRequest<I> request;
+            boolean bound;
+            synchronized (this) {
+                request = globalQueue.poll();
+                bound = request != null && bind(request, taskIdentifier);
+            }
             LOGGER.trace("Got request from global queue: {}", request);
 
             if (request == null) {
-                // Nothing in the queue for now. OK, let's try next time.
-                return null;
+                return null; // We were woken up, and there's nothing to process.
             }
+            freeSlots.release();
 
-            if (bind(request, taskIdentifier)) {
+            if (bound) {
                 return request;
             } else {
                 // The request couldn't be bound to the specified task. We have to go and try another one.
@@ -116,18 +158,67 @@ class RequestsBuffer<I> {
         }
     }
 
+    /**
+     * Takes a request that is available right now (reserved or in the global queue), without waiting.
+     * Used to fill up a batch after the first request was obtained by {@link #poll(String, long)}.
+     *
+     * Unlike {@link #poll(String, long)} with zero timeout, this method does not acquire a permit unless it has got
+     * a request. So it does not consume the permits released by {@link #wakeUpWaitingWorkers()}: those are meant for the
+     * workers that are waiting.
+     */
+    ItemProcessingRequest<I> pollImmediately(String taskIdentifier) {
+        for (;;) {
+            ItemProcessingRequest<I> reserved = getNextReservedRequest(taskIdentifier);
+            if (reserved != null) {
+                LOGGER.trace("Got reserved (pre-assigned) request: {}", reserved);
+                return reserved;
+            }
+
+            ItemProcessingRequest<I> request;
+            boolean bound;
+            synchronized (this) {
+                request = globalQueue.poll();
+                bound = request != null && bind(request, taskIdentifier);
+            }
+            if (request == null) {
+                return null;
+            }
+            LOGGER.trace("Got request from global queue (immediately): {}", request);
+
+            // The producer may not have released the permit for this request yet. In that case, the permit will remain
+            // available without a request, just like after the wake-up: a worker acquiring it finds nothing.
+            //noinspection ResultOfMethodCallIgnored
+            availableRequests.tryAcquire();
+            freeSlots.release();
+
+            if (bound) {
+                return request;
+            }
+        }
+    }
+
+    /**
+     * Wakes up all workers waiting for a request, e.g. because no more requests will come.
+     */
+    void wakeUpWaitingWorkers() {
+        availableRequests.release(threadsCount);
+    }
+
     /**
      * Binds a request identifier to specified subtask, if possible i.e. if the request identifier is not bound to another task.
      * If the request identifier is bound to another task, the request is assigned to it.
      *
+     * Must be called in the same synchronized block in which the request was taken from the global queue.
+     *
      * @return true if the request was successfully bound to the current task;
      *         false if it was reassigned (so this task has to fetch another request).
      */
     private boolean bind(ItemProcessingRequest<I> request, String taskIdentifier) {
-        if (!(request instanceof CorrelatableProcessingRequest)) {
-            return true;
-        }
+        return !(request instanceof CorrelatableProcessingRequest)
+                || bindCorrelatable(request, taskIdentifier);
+    }
 
+    private boolean bindCorrelatable(ItemProcessingRequest<I> request, String taskIdentifier) {
         Object correlationValue = ((CorrelatableProcessingRequest) request).getCorrelationValue();
         if (correlationValue == null) {
             LOGGER.warn("Null correlationValue in request {}", request);
@@ -153,38 +244,57 @@ class RequestsBuffer<I> {
     }
 
     /**
-     * Gets a change reserved for given task (if there's any).
+     * Gets a change reserved for given task (if there's any), and binds it to the task.
      * REMOVES the reservation.
      *
      * @return Change reserved for given task; or null if there's nothing there.
      */
     private ItemProcessingRequest<I> getNextReservedRequest(String taskIdentifier) {
-        Queue<ItemProcessingRequest<I>> reservedRequests = reservedRequestsQueueMap.get(taskIdentifier);
-        if (reservedRequests != null) {
-            return reservedRequests.poll();
-        } else {
+        if (reservedRequestsCount.get() == 0) {
             return null;
         }
+        synchronized (this) {
+            Queue<ItemProcessingRequest<I>> reservedRequests = reservedRequestsQueueMap.get(taskIdentifier);
+            ItemProcessingRequest<I> reserved = reservedRequests != null ? reservedRequests.poll() : null;
+            if (reserved == null) {
+                return null;
+            }
+            reservedRequestsCount.decrementAndGet();
+            if (bindCorrelatable(reserved, taskIdentifier)) {
+                return reserved;
+            } else {
+                throw new IllegalStateException("A reserved request couldn't be bound to the current task. Request = " +
+                        reserved + ", task = " + taskIdentifier);
+            }
+        }
     }
 
     private void reserve(ItemProcessingRequest<I> request, String owningTaskIdentifier) {
         reservedRequestsQueueMap
                 .computeIfAbsent(owningTaskIdentifier, key -> new PriorityQueue<>())
                 .offer(request);
+        reservedRequestsCount.incrementAndGet();
     }
 
     /**
-     * Marks specified request as processed: Unbinds its primary identifier from the calling subtask.
+     * Marks specified requests (a micro-batch) as processed: Unbinds their primary identifiers from the calling subtask.
+     * Each identifier is unbound only once,
+     * as the batch can contain more requests related to the same identifier. (They had to be kept bound
+     * until the whole batch was processed, in order to preserve their ordering with respect to other workers.)
      */
-    synchronized void markProcessed(ItemProcessingRequest<I> request, String taskIdentifier) {
-        unbind(request, taskIdentifier);
+    void markProcessed(Collection<ItemProcessingRequest<I>> requests, String taskIdentifier) {
+        Set<Object> unboundValues = new HashSet<>();
+        synchronized (this) {
+            for (ItemProcessingRequest<I> request : requests) {
+                if (request instanceof CorrelatableProcessingRequest
+                        && unboundValues.add(((CorrelatableProcessingRequest) request).getCorrelationValue())) {
+                    unbind(request, taskIdentifier);
+                }
+            }
+        }
     }
 
     private void unbind(ItemProcessingRequest<I> request, String taskIdentifier) {
-        if (!(request instanceof CorrelatableProcessingRequest)) {
-            return;
-        }
-
         Object correlationValue = ((CorrelatableProcessingRequest) request).getCorrelationValue();
         LOGGER.trace("Trying to unbind {} from {}", correlationValue, taskIdentifier);
         if (correlationValue == null) {
@@ -226,6 +336,7 @@ class RequestsBuffer<I> {
 
         nackAll(globalQueue, nackCounter, result);
         reservedRequestsQueueMap.values().forEach(queue -> nackAll(queue, nackCounter, result));
+        reservedRequestsCount.set(0);
 
         return nackCounter.get();
     }
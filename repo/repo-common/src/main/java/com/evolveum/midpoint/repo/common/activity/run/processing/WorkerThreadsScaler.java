@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.common.activity.run.processing;
+
+import static java.util.Objects.requireNonNullElse;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.jetbrains.annotations.VisibleForTesting;
+
+import com.evolveum.midpoint.schema.reporting.ConnIdOperation;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.task.api.ConnIdOperationsListener;
+import com.evolveum.midpoint.task.api.TaskManager;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkerThreadsScalingDefinitionType;
+
+/**
+ * Adjusts the number of worker threads of an activity run at bucket boundaries.
+ *
+ * Simple hill climbing with additive increase and multiplicative decrease:
+ *
+ * 1. If an overload was detected during the bucket - repository connection pool saturation, or too many failed
+ * or too slow connector operations - the number of threads is decreased by one quarter (at least by one).
+ * 2. If the throughput dropped after the last increase, the increase is reverted.
+ * 3. Otherwise, the number of threads is increased by one.
+ *
+ * Always kept within configured limits. See {@link WorkerThreadsScalingDefinitionType}.
+ * Not used for activities without worker threads: processing in the coordinator thread is never changed to multithreaded.
+ *
+ * Thread safety: measurements are collected from worker threads, decisions are made in the coordinator thread.
+ */
+public class WorkerThreadsScaler implements ConnIdOperationsListener {
+
+    private static final Trace LOGGER = TraceManager.getTrace(WorkerThreadsScaler.class);
+
+    /** How often we sample the repository connection pool. */
+    private static final long POOL_SAMPLING_INTERVAL = 1000L;
+
+    /** Throughput drop (relative) that is considered significant, i.e. not a random fluctuation. */
+    private static final double SIGNIFICANT_THROUGHPUT_DROP = 0.05;
+
+    /** Provides repository connection pool statistics: active, idle, waiting, total, max. Returns null if not available. */
+    @NotNull private final Supplier<Number[]> poolStatsSupplier;
+
+    private final int minThreads;
+    private final int maxThreads;
+    private final double maxConnectionPoolUsage;
+    private final double maxConnectorErrorRate;
+    private final double maxConnectorLatencyIncrease;
+
+    /** Number of threads to be used for the next bucket. */
+    private int threads;
+
+    /** Whether the last adjustment was an increase (so it can be reverted if it did not help). */
+    private boolean lastAdjustmentWasIncrease;
+
+    /** Throughput (items per second) in the last bucket. Null if not known yet. */
+    private Double lastThroughput;
+
+    /** Average duration of connector operations in the last bucket. Null if there were none. */
+    private Double lastConnectorLatency;
+
+    // Measurements for the current bucket
+
+    private final LongAdder connectorOperations = new LongAdder();
+    private final LongAdder connectorErrors = new LongAdder();
+    private final DoubleAdder connectorDuration = new DoubleAdder();
+    private final AtomicLong lastPoolSampleTimestamp = new AtomicLong();
+    private volatile boolean poolSaturated;
+
+    public WorkerThreadsScaler(@NotNull WorkerThreadsScalingDefinitionType definition, int initialThreads,
+            @NotNull TaskManager taskManager) {
+        this(definition, initialThreads, taskManager::getDBPoolStats);
+    }
+
+    @VisibleForTesting
+    WorkerThreadsScaler(@NotNull WorkerThreadsScalingDefinitionType definition, int initialThreads,
+            @NotNull Supplier<Number[]> poolStatsSupplier) {
+        this.poolStatsSupplier = poolStatsSupplier;
+        this.minThreads = Math.max(requireNonNullElse(definition.getMinThreads(), 1), 1);
+        this.maxThreads = Math.max(requireNonNullElse(definition.getMaxThreads(), 2 * initialThreads), minThreads);
+        this.maxConnectionPoolUsage = requireNonNullElse(definition.getMaxConnectionPoolUsage(), 0.8);
+        this.maxConnectorErrorRate = requireNonNullElse(definition.getMaxConnectorErrorRate(), 0.05);
+        this.maxConnectorLatencyIncrease = requireNonNullElse(definition.getMaxConnectorLatencyIncrease(), 1.5);
+        this.threads = limit(initialThreads);
+    }
+
+    /** Number of threads to be used for the next bucket. */
+    public int getThreads() {
+        return threads;
+    }
+
+    /** Called by worker threads after processing an item. Samples the repository connection pool (from time to time). */
+    void sampleResources() {
+        long now = System.currentTimeMillis();
+        long lastSample = lastPoolSampleTimestamp.get();
+        if (now - lastSample < POOL_SAMPLING_INTERVAL || !lastPoolSampleTimestamp.compareAndSet(lastSample, now)) {
+            return;
+        }
+        Number[] stats = poolStatsSupplier.get();
+        if (stats == null) {
+            return;
+        }
+        // active, idle, waiting, total, max
+        int active = stats[0].intValue();
+        int waiting = stats[2].intValue();
+        int max = stats[4].intValue();
+        if (waiting > 0 || max > 0 && active >= max * maxConnectionPoolUsage) {
+            LOGGER.trace("Connection pool saturated: active={}, waiting={}, max={}", active, waiting, max);
+            poolSaturated = true;
+        }
+    }
+
+    @Override
+    public void onConnIdOperationEnd(@NotNull ConnIdOperation operation) {
+        connectorOperations.increment();
+        connectorDuration.add(operation.getDuration());
+        if (operation.getStatus() == OperationResultStatus.FATAL_ERROR
+                || operation.getStatus() == OperationResultStatus.PARTIAL_ERROR) {
+            connectorErrors.increment();
+        }
+    }
+
+    /**
+     * Evaluates measurements for the bucket that has just been completed, and determines the number of threads
+     * for the next one.
+     */
+    public void bucketCompleted(int items, long duration) {
+        if (items == 0 || duration <= 0) {
+            resetMeasurements();
+            return; // nothing to learn from
+        }
+        double throughput = items * 1000.0 / duration;
+        Double connectorLatency = getConnectorLatency();
+        String overloadReason = getOverloadReason(connectorLatency);
+
+        int previous = threads;
+        if (overloadReason != null) {
+            threads = limit(threads - Math.max(threads / 4, 1));
+            lastAdjustmentWasIncrease = false;
+        } else if (lastAdjustmentWasIncrease && lastThroughput != null
+                && throughput < lastThroughput * (1 - SIGNIFICANT_THROUGHPUT_DROP)) {
+            threads = limit(threads - 1);
+            lastAdjustmentWasIncrease = false;
+        } else {
+            threads = limit(threads + 1);
+            lastAdjustmentWasIncrease = threads > previous;
+        }
+
+        LOGGER.debug("Worker threads: {} -> {}; throughput {} items/s (previously {}), connector latency {} ms "
+                        + "(previously {}), overload: {}",
+                previous, threads, throughput, lastThroughput, connectorLatency, lastConnectorLatency, overloadReason);
+
+        lastThroughput = throughput;
+        lastConnectorLatency = connectorLatency;
+        resetMeasurements();
+    }
+
+    private @Nullable String getOverloadReason(Double connectorLatency) {
+        if (poolSaturated) {
+            return "repository connection pool saturated";
+        }
+        long operations = connectorOperations.sum();
+        if (operations > 0 && (double) connectorErrors.sum() / operations > maxConnectorErrorRate) {
+            return "connector error rate " + connectorErrors.sum() + "/" + operations;
+        }
+        if (connectorLatency != null && lastConnectorLatency != null
+                && connectorLatency > lastConnectorLatency * maxConnectorLatencyIncrease) {
+            return "connector latency grew from " + lastConnectorLatency + " to " + connectorLatency + " ms";
+        }
+        return null;
+    }
+
+    private Double getConnectorLatency() {
+        long operations = connectorOperations.sum();
+        return operations > 0 ? connectorDuration.sum() / operations : null;
+    }
+
+    private void resetMeasurements() {
+        connectorOperations.reset();
+        connectorErrors.reset();
+        connectorDuration.reset();
+        poolSaturated = false;
+    }
+
+    private int limit(int value) {
+        return Math.min(Math.max(value, minThreads), maxThreads);
+    }
+}
@@ -70,7 +70,8 @@ public class BucketsReport extends AbstractReport {
         ANALYSIS(List.of(
                 BucketProcessingRecordType.F_SEQUENTIAL_NUMBER,
                 BucketProcessingRecordType.F_CONTENT,
-                BucketProcessingRecordType.F_SIZE));
+                BucketProcessingRecordType.F_SIZE,
+                BucketProcessingRecordType.F_ESTIMATED_SIZE));
 
         @NotNull private final Collection<ItemName> itemsIncluded;
 
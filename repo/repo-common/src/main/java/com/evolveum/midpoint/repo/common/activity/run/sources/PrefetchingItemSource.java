@@ -0,0 +1,236 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.common.activity.run.sources;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.prism.Containerable;
+import com.evolveum.midpoint.prism.util.CloneUtil;
+import com.evolveum.midpoint.repo.common.activity.run.SearchSpecification;
+import com.evolveum.midpoint.schema.ContainerableResultHandler;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.task.api.RunningLightweightTask;
+import com.evolveum.midpoint.task.api.RunningTask;
+import com.evolveum.midpoint.util.exception.CommonException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Decorates a {@link SearchableItemSource} by running the search in a separate (lightweight) fetcher thread
+ * that stays up to `prefetchDepth` items ahead of the consumer.
+ *
+ * The handler is still invoked in the thread that called {@link #searchIterative}, so the processing coordinator
+ * is used in the same way as without prefetching. But fetching and parsing the items (e.g. `fullObject` in the repository)
+ * overlaps with submitting them and with updating the task statistics.
+ *
+ * Back-pressure: If the handler blocks (e.g. because the requests buffer is full), the prefetch queue fills up
+ * and the fetcher waits.
+ */
+public class PrefetchingItemSource implements SearchableItemSource {
+
+    private static final Trace LOGGER = TraceManager.getTrace(PrefetchingItemSource.class);
+
+    private static final String OP_PREFETCH = PrefetchingItemSource.class.getName() + ".prefetch";
+
+    /** How long we wait for the queue before re-checking whether we can continue. */
+    private static final long QUEUE_WAIT_INTERVAL = 100L;
+
+    @NotNull private final SearchableItemSource delegate;
+
+    private final int prefetchDepth;
+
+    public PrefetchingItemSource(@NotNull SearchableItemSource delegate, int prefetchDepth) {
+        this.delegate = delegate;
+        this.prefetchDepth = prefetchDepth;
+    }
+
+    @Override
+    public Integer count(@NotNull SearchSpecification<?> searchSpecification, @NotNull RunningTask task,
+            @NotNull OperationResult result) throws CommonException {
+        return delegate.count(searchSpecification, task, result);
+    }
+
+    @Override
+    public <C extends Containerable> void searchIterative(@NotNull SearchSpecification<C> searchSpecification,
+            @NotNull ContainerableResultHandler<C> handler, @NotNull RunningTask task, @NotNull OperationResult result)
+            throws CommonException {
+        new Prefetch<>(searchSpecification, task).execute(handler, result);
+    }
+
+    /** Single prefetching search. */
+    private class Prefetch<C extends Containerable> {
+
+        /** Marks the end of the search (either regular or not). */
+        private final Object endMarker = new Object();
+
+        @NotNull private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(prefetchDepth);
+
+        @NotNull private final SearchSpecification<C> searchSpecification;
+        @NotNull private final RunningTask task;
+
+        /** Set when the consumer no longer wants any items. */
+        @NotNull private final AtomicBoolean stopped = new AtomicBoolean();
+
+        /** Exception thrown by the search, if any. Set before the end marker is put into the queue. */
+        private volatile Throwable searchException;
+
+        /** Written by the fetcher thread. Handed over to the caller's result only after the fetcher finishes. */
+        @NotNull private final OperationResult fetcherResult = new OperationResult(OP_PREFETCH);
+
+        /** Released when the fetcher thread no longer touches {@link #fetcherResult}. */
+        @NotNull private final CountDownLatch fetcherFinished = new CountDownLatch(1);
+
+        Prefetch(@NotNull SearchSpecification<C> searchSpecification, @NotNull RunningTask task) {
+            this.searchSpecification = searchSpecification;
+            this.task = task;
+        }
+
+        void execute(ContainerableResultHandler<C> handler, OperationResult result) throws CommonException {
+            startFetcher();
+            try {
+                for (;;) {
+                    Object item = queue.poll(QUEUE_WAIT_INTERVAL, TimeUnit.MILLISECONDS);
+                    if (item == endMarker) {
+                        break;
+                    } else if (item != null && !stopped.get()) {
+                        //noinspection unchecked
+                        if (!handler.handle((C) item, result)) {
+                            LOGGER.trace("Handler requested the search to stop");
+                            stopped.set(true);
+                        }
+                    } else if (!task.canRun()) {
+                        stopped.set(true);
+                    }
+                    // Items that arrive after the stop are simply thrown away; we wait for the end marker.
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SystemException("Interrupted while waiting for prefetched items", e);
+            } finally {
+                // Whatever the reason of leaving (including an exception thrown by the handler), the fetcher must not
+                // wait for us any longer.
+                stopped.set(true);
+                waitForFetcher();
+                fetcherResult.computeStatusIfUnknown();
+                result.addSubresult(fetcherResult);
+            }
+            rethrowSearchException();
+        }
+
+        private void startFetcher() {
+            RunningLightweightTask fetcherTask = task.createSubtask(this::fetch);
+            fetcherTask.setCategory(task.getCategory());
+            fetcherTask.setResult(new OperationResult(OP_PREFETCH, OperationResultStatus.IN_PROGRESS, (String) null));
+            fetcherTask.setName("Prefetching thread (depth " + prefetchDepth + ")");
+            fetcherTask.setExecutionEnvironment(CloneUtil.clone(task.getExecutionEnvironment()));
+            fetcherTask.startLightweightHandler();
+            LOGGER.trace("Fetcher subtask {} created", fetcherTask);
+        }
+
+        /** Executes in the fetcher thread. */
+        private void fetch(RunningLightweightTask fetcherTask) {
+            try {
+                delegate.searchIterative(
+                        searchSpecification,
+                        (item, localResult) -> put(item, fetcherTask),
+                        fetcherTask,
+                        fetcherResult);
+            } catch (Throwable t) {
+                fetcherResult.recordFatalError(t);
+                searchException = t;
+            } finally {
+                putEndMarker();
+                fetcherFinished.countDown();
+            }
+        }
+
+        /**
+         * The fetcher stops soon after {@link #stopped} is set: the handler refuses further items and the end marker
+         * is put into a cleared queue. We wait for it even if interrupted, as the fetcher result must not be touched
+         * by two threads.
+         */
+        private void waitForFetcher() {
+            boolean interrupted = false;
+            for (;;) {
+                try {
+                    if (fetcherFinished.await(QUEUE_WAIT_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        break;
+                    }
+                    LOGGER.trace("Waiting for the fetcher to finish");
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        private boolean put(Object item, RunningTask fetcherTask) {
+            try {
+                while (canFetch(fetcherTask)) {
+                    if (queue.offer(item, QUEUE_WAIT_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+                return false;
+            } catch (InterruptedException e) {
+                LOGGER.trace("Interrupted while prefetching, stopping the search");
+                return false;
+            }
+        }
+
+        private boolean canFetch(RunningTask fetcherTask) {
+            return !stopped.get() && fetcherTask.canRun() && task.canRun();
+        }
+
+        /**
+         * The consumer reads the queue until it gets the end marker. If it has given up (e.g. after being interrupted
+         * or after the handler failed), or if the task is stopping, nobody is interested in the prefetched items any more,
+         * so we can throw them away.
+         */
+        private void putEndMarker() {
+            for (;;) {
+                try {
+                    if (queue.offer(endMarker, QUEUE_WAIT_INTERVAL, TimeUnit.MILLISECONDS)) {
+                        return;
+                    }
+                } catch (InterruptedException e) {
+                    LOGGER.trace("Interrupted while putting the end marker, trying again");
+                }
+                if (stopped.get() || !task.canRun()) {
+                    queue.clear();
+                }
+            }
+        }
+
+        private void rethrowSearchException() throws CommonException {
+            Throwable t = searchException;
+            if (t == null) {
+                return;
+            }
+            if (t instanceof CommonException) {
+                throw (CommonException) t;
+            } else if (t instanceof RuntimeException) {
+                throw (RuntimeException) t;
+            } else if (t instanceof Error) {
+                throw (Error) t;
+            } else {
+                throw new SystemException(t.getMessage(), t);
+            }
+        }
+    }
+}
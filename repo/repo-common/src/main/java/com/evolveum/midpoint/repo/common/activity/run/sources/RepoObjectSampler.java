@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.common.activity.run.sources;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.xml.namespace.QName;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.ItemDefinition;
+import com.evolveum.midpoint.prism.PrismConstants;
+import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.PrismObject;
+import com.evolveum.midpoint.prism.PrismObjectDefinition;
+import com.evolveum.midpoint.prism.PrismProperty;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.prism.query.ObjectFilter;
+import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.prism.query.OrderDirection;
+import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.ItemSampler;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.content.IntervalWorkBucketContentHandler;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
+import com.evolveum.midpoint.util.QNameUtil;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+import com.evolveum.prism.xml.ns._public.types_3.PolyStringType;
+
+/**
+ * Samples objects in the repository: counts them and finds the discriminator value at given position
+ * by a search ordered by the discriminator with offset and a single object to be returned.
+ *
+ * Polystring discriminators are sorted and compared by their original form (that is also what is returned).
+ *
+ * Bound to the operation result of the bucketing operation it is created for.
+ */
+public class RepoObjectSampler implements ItemSampler {
+
+    @NotNull private final Class<? extends ObjectType> type;
+    @Nullable private final ObjectQuery query;
+    @NotNull private final RepositoryService repositoryService;
+    @NotNull private final OperationResult result;
+
+    public RepoObjectSampler(@NotNull Class<? extends ObjectType> type, @Nullable ObjectQuery query,
+            @NotNull RepositoryService repositoryService, @NotNull OperationResult result) {
+        this.type = type;
+        this.query = query;
+        this.repositoryService = repositoryService;
+        this.result = result;
+    }
+
+    @Override
+    public @NotNull Integer countItems() throws SchemaException {
+        return repositoryService.countObjects(type, query, null, result);
+    }
+
+    @Override
+    public @Nullable String getDiscriminatorValue(@NotNull ItemPath discriminator, @Nullable QName matchingRule,
+            @Nullable String from, @Nullable String to, int position) throws SchemaException, ConfigurationException {
+        PrismContext prismContext = PrismContext.get();
+        QName effectiveMatchingRule = getEffectiveMatchingRule(discriminator, matchingRule);
+        List<ObjectFilter> intervalFilters = new ArrayList<>();
+        if (from != null) {
+            intervalFilters.add(prismContext.queryFor(type)
+                    .item(discriminator).ge(from).matching(effectiveMatchingRule)
+                    .buildFilter());
+        }
+        if (to != null) {
+            intervalFilters.add(prismContext.queryFor(type)
+                    .item(discriminator).lt(to).matching(effectiveMatchingRule)
+                    .buildFilter());
+        }
+        ObjectQuery sampleQuery = ObjectQueryUtil.addConjunctions(
+                query != null ? query.clone() : prismContext.queryFactory().createQuery(),
+                intervalFilters);
+        sampleQuery.setPaging(
+                prismContext.queryFactory().createPaging(position, 1, discriminator, OrderDirection.ASCENDING));
+
+        List<? extends PrismObject<? extends ObjectType>> objects =
+                repositoryService.searchObjects(type, sampleQuery, GetOperationOptions.createReadOnlyCollection(), result);
+        return !objects.isEmpty() ? getDiscriminatorValue(objects.get(0), discriminator) : null;
+    }
+
+    /**
+     * The repository sorts polystrings by their original form, so they must be compared by it as well.
+     * The same rule is used when the bucket filters are created.
+     */
+    private @Nullable QName getEffectiveMatchingRule(@NotNull ItemPath discriminator, @Nullable QName matchingRule)
+            throws ConfigurationException {
+        if (QNameUtil.match(discriminator.firstToQName(), PrismConstants.T_ID)) {
+            return matchingRule;
+        }
+        PrismObjectDefinition<? extends ObjectType> objectDefinition =
+                PrismContext.get().getSchemaRegistry().findObjectDefinitionByCompileTimeClass(type);
+        ItemDefinition<?> discriminatorDefinition =
+                objectDefinition != null ? objectDefinition.findItemDefinition(discriminator) : null;
+        QName effectiveMatchingRule =
+                IntervalWorkBucketContentHandler.getSampledSegmentationMatchingRule(matchingRule, discriminatorDefinition);
+        if (discriminatorDefinition != null
+                && QNameUtil.match(discriminatorDefinition.getTypeName(), PolyStringType.COMPLEX_TYPE)
+                && !QNameUtil.match(effectiveMatchingRule, PrismConstants.POLY_STRING_ORIG_MATCHING_RULE_NAME)) {
+            throw new ConfigurationException("Polystring discriminator " + discriminator + " can be compared only by its "
+                    + "original form in sampled segmentation, as the items are sorted by it; configured matching rule: "
+                    + matchingRule);
+        }
+        return effectiveMatchingRule;
+    }
+
+    private String getDiscriminatorValue(PrismObject<? extends ObjectType> object, ItemPath discriminator) {
+        if (discriminator.size() == 1 && QNameUtil.match(discriminator.firstToQName(), PrismConstants.T_ID)) {
+            return object.getOid();
+        }
+        PrismProperty<?> property = object.findProperty(discriminator);
+        Object value = property != null ? property.getRealValue() : null;
+        if (value == null) {
+            throw new IllegalStateException("No value of discriminator " + discriminator + " in " + object);
+        } else if (value instanceof PolyString) {
+            return ((PolyString) value).getOrig();
+        } else {
+            return value.toString();
+        }
+    }
+}
@@ -21,6 +21,7 @@ import com.evolveum.midpoint.repo.common.activity.run.ActivityRunException;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.statistics.Operation;
 import com.evolveum.midpoint.schema.util.task.ActivityItemProcessingStatisticsUtil;
+import com.evolveum.midpoint.schema.util.task.DurationHistogramUtil;
 
 import com.evolveum.midpoint.util.annotation.Experimental;
 
@@ -174,6 +175,7 @@ public class ActivityItemProcessingStatistics extends Initializable {
             Throwable exception) {
         removeFromCurrentOperations(value, operation);
         addToProcessedItemSet(value, operation, outcome, exception);
+        addToItemTypeStatistics(value, operation);
         if (areRunRecordsSupported()) {
             updateMatchingRunRecord(getActivityRunStartTimestamp(), operation.getEndTimestamp());
         }
@@ -195,12 +197,32 @@ public class ActivityItemProcessingStatistics extends Initializable {
         itemSet.setCount(or0(itemSet.getCount()) + 1);
 
         itemSet.setDuration(or0(itemSet.getDuration()) + operation.getDurationRounded());
+        if (itemSet.getDurationHistogram() == null) {
+            itemSet.setDurationHistogram(new DurationHistogramType());
+        }
+        DurationHistogramUtil.record(itemSet.getDurationHistogram(), operation.getDurationRounded());
+        if (operation.startInfo.getQueueWaitNanos() > 0) {
+            itemSet.setQueueWaitDuration(or0(itemSet.getQueueWaitDuration()) + operation.getQueueWaitDurationRounded());
+        }
         ProcessedItemType processedItemClone = operation.processedItem.cloneWithoutId(); // mainly to remove the parent
         processedItemClone.setEndTimestamp(XmlTypeConverter.createXMLGregorianCalendar(operation.endTimeMillis));
         if (exception != null) {
             processedItemClone.setMessage(exception.getMessage());
         }
         itemSet.setLastItem(processedItemClone);
+        ActivityItemProcessingStatisticsUtil.addToSlowest(part.getSlowest(), processedItemClone);
+    }
+
+    /** Updates the statistics for the type of the processed item. */
+    private void addToItemTypeStatistics(ActivityItemProcessingStatisticsType part, OperationImpl operation) {
+        ItemTypeProcessingStatisticsType typeStatistics = ActivityItemProcessingStatisticsUtil.findOrCreateItemTypeStatistics(
+                part.getItemType(), operation.processedItem.getType());
+        typeStatistics.setCount(or0(typeStatistics.getCount()) + 1);
+        typeStatistics.setDuration(or0(typeStatistics.getDuration()) + operation.getDurationRounded());
+        if (typeStatistics.getDurationHistogram() == null) {
+            typeStatistics.setDurationHistogram(new DurationHistogramType());
+        }
+        DurationHistogramUtil.record(typeStatistics.getDurationHistogram(), operation.getDurationRounded());
     }
 
     /** Finds item set, creating _and adding to the list_ if necessary. */
@@ -307,6 +329,11 @@ public class ActivityItemProcessingStatistics extends Initializable {
             }
         }
 
+        /** Time spent in the queue before the processing started, in milliseconds (rounded like the duration). */
+        double getQueueWaitDurationRounded() {
+            return Math.round(startInfo.getQueueWaitNanos() / 10000.0) / 100.0;
+        }
+
         @Override
         public long getEndTimeMillis() {
             return endTimeMillis;
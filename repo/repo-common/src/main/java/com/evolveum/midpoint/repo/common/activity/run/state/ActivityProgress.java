@@ -115,7 +115,7 @@ public class ActivityProgress extends Initializable {
         assertInitialized();
         // TODO We should use the dynamic modification approach in order to provide most current values to the task
         //  (in case of update conflicts). But let's wait for the new repo with this.
-        activityState.setItemRealValues(ActivityStateType.F_PROGRESS, getValueCopy());
+        activityState.setItemRealValueIfChanged(ActivityStateType.F_PROGRESS, getValueCopy());
     }
 
     private CommonTaskBeans getBeans() {
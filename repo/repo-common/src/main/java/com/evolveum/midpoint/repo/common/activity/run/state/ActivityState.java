@@ -8,8 +8,10 @@
 package com.evolveum.midpoint.repo.common.activity.run.state;
 
 import com.evolveum.midpoint.prism.ComplexTypeDefinition;
+import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.ItemDefinition;
 import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.equivalence.EquivalenceStrategy;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.repo.common.activity.run.ActivityRunException;
 import com.evolveum.midpoint.repo.common.activity.run.state.counters.CountersIncrementOperation;
@@ -38,6 +40,7 @@ import javax.xml.datatype.XMLGregorianCalendar;
 import javax.xml.namespace.QName;
 import java.util.*;
 import java.util.Objects;
+import java.util.function.UnaryOperator;
 
 import static com.evolveum.midpoint.schema.result.OperationResultStatus.FATAL_ERROR;
 import static com.evolveum.midpoint.schema.util.task.ActivityStateUtil.isLocal;
@@ -133,6 +136,42 @@ public abstract class ActivityState implements DebugDumpable {
                 () -> setItemRealValuesInternal(path, isSingleNull(values) ? List.of() : Arrays.asList(values)));
     }
 
+    /**
+     * Sets the value of a single-valued container, unless the task already contains an equal one.
+     * This avoids writing items (e.g. statistics) that did not change since the last write.
+     *
+     * Container IDs are not considered, as the value in the task may or may not have them.
+     *
+     * @return true if the value was set (i.e. it was changed)
+     */
+    public boolean setItemRealValueIfChanged(ItemPath path, @Nullable Containerable value) throws ActivityRunException {
+        return setItemRealValueIfChanged(path, value, UnaryOperator.identity());
+    }
+
+    /**
+     * As {@link #setItemRealValueIfChanged(ItemPath, Containerable)}, but only the significant parts of the values
+     * (as provided by the `significantPart` function, which must not modify its argument) are compared.
+     * The changes in other parts are not written until there is a significant change.
+     */
+    public <C extends Containerable> boolean setItemRealValueIfChanged(
+            ItemPath path, @Nullable C value, @NotNull UnaryOperator<C> significantPart) throws ActivityRunException {
+        //noinspection unchecked
+        C current = (C) getItemRealValueClone(path, Containerable.class);
+        C currentSignificant = current != null ? significantPart.apply(current) : null;
+        C newSignificant = value != null ? significantPart.apply(value) : null;
+        boolean unchanged = currentSignificant == null ?
+                newSignificant == null :
+                newSignificant != null && currentSignificant.asPrismContainerValue().equals(
+                        newSignificant.asPrismContainerValue(), EquivalenceStrategy.REAL_VALUE);
+        if (unchanged) {
+            LOGGER.trace("Value of {} has not changed (significantly), not setting it", path);
+            return false;
+        } else {
+            setItemRealValues(path, value);
+            return true;
+        }
+    }
+
     /**
      * DO NOT use for setting work state items because of dynamic typing of the work state container value.
      */
@@ -79,22 +79,37 @@ public class ActivityStatistics {
 
     /**
      * Writes current values to the running task: into the memory and to repository.
+     *
+     * Only the parts that changed since the last write are written. E.g. synchronization statistics or bucket management
+     * statistics are often the same for long periods of time. If nothing changed, no repository update is done at all.
+     * Item processing statistics are written only if they changed in other parts than the list of current items.
      */
     void writeToTaskAsPendingModifications() throws ActivityRunException {
         if (activityState.getActivityRun().areStatisticsSupported()) {
-            activityState.setItemRealValues(ITEM_PROCESSING_STATISTICS_PATH, itemProcessing.getValueCopy());
+            activityState.setItemRealValueIfChanged(
+                    ITEM_PROCESSING_STATISTICS_PATH, itemProcessing.getValueCopy(), ActivityStatistics::withoutCurrentItems);
             if (activityState.getActivityRun().areSynchronizationStatisticsSupported()) {
-                activityState.setItemRealValues(SYNCHRONIZATION_STATISTICS_PATH, synchronizationStatistics.getValueCopy());
+                activityState.setItemRealValueIfChanged(SYNCHRONIZATION_STATISTICS_PATH, synchronizationStatistics.getValueCopy());
             }
             if (activityState.getActivityRun().areActionsExecutedStatisticsSupported()) {
-                activityState.setItemRealValues(ACTIONS_EXECUTED_PATH, actionsExecuted.getValueCopy());
+                activityState.setItemRealValueIfChanged(ACTIONS_EXECUTED_PATH, actionsExecuted.getValueCopy());
             }
             if (activityState.getActivity().getDistributionDefinition().hasBuckets()) {
-                activityState.setItemRealValues(BUCKET_MANAGEMENT_STATISTICS_PATH, bucketManagement.getValueCopy());
+                activityState.setItemRealValueIfChanged(BUCKET_MANAGEMENT_STATISTICS_PATH, bucketManagement.getValueCopy());
             }
         }
     }
 
+    /**
+     * Items being processed right now come and go with each processed item. If nothing else changed, they are not worth
+     * writing to the repository. (They are written along with the next significant change.)
+     */
+    private static ActivityItemProcessingStatisticsType withoutCurrentItems(ActivityItemProcessingStatisticsType value) {
+        ActivityItemProcessingStatisticsType clone = value.cloneWithoutId();
+        clone.getCurrent().clear();
+        return clone;
+    }
+
     public @NotNull CurrentActivityState<?> getActivityState() {
         return activityState;
     }
@@ -170,6 +170,8 @@ public class ActivityTreePurger {
                     task.refresh(result);
                 }
             }
+            // Bucketing state of all activities in the task is purged or deleted above.
+            beans.bucketingManager.deleteBucketsFromStore(task.getOid(), null, result);
             return canDelete;
         }
 
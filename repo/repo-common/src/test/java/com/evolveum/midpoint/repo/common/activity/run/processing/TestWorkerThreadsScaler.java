@@ -0,0 +1,219 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.common.activity.run.processing;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.schema.reporting.ConnIdOperation;
+import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.schema.statistics.ProvisioningOperation;
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkerThreadsScalingDefinitionType;
+
+/**
+ * Tests the decisions of {@link WorkerThreadsScaler}: limits, additive increase, reverting increases that did not help,
+ * and multiplicative decrease on overload.
+ */
+public class TestWorkerThreadsScaler extends AbstractUnitTest {
+
+    /** Connection pool statistics: active, idle, waiting, total, max. */
+    private static final Number[] POOL_RELAXED = { 2, 8, 0, 10, 10 };
+    private static final Number[] POOL_SATURATED = { 10, 0, 3, 10, 10 };
+
+    @BeforeSuite
+    public void setup() throws SchemaException, SAXException, IOException {
+        PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+    }
+
+    @Test
+    public void test100InitialThreadsWithinLimits() {
+        expect("initial value is kept within the limits");
+        assertThat(createScaler(scaling(3, 5), 2, null).getThreads()).as("threads").isEqualTo(3);
+        assertThat(createScaler(scaling(3, 5), 8, null).getThreads()).as("threads").isEqualTo(5);
+        assertThat(createScaler(scaling(3, 5), 4, null).getThreads()).as("threads").isEqualTo(4);
+
+        and("maximum defaults to twice the initial value");
+        WorkerThreadsScaler scaler = createScaler(new WorkerThreadsScalingDefinitionType(), 2, null);
+        for (int i = 0; i < 10; i++) {
+            scaler.bucketCompleted(100, 1000);
+        }
+        assertThat(scaler.getThreads()).as("threads").isEqualTo(4);
+    }
+
+    @Test
+    public void test110AdditiveIncrease() {
+        given();
+        WorkerThreadsScaler scaler = createScaler(scaling(1, 4), 2, null);
+
+        when("buckets complete with the same throughput");
+        scaler.bucketCompleted(100, 1000);
+        int afterFirst = scaler.getThreads();
+        scaler.bucketCompleted(100, 1000);
+        int afterSecond = scaler.getThreads();
+        scaler.bucketCompleted(100, 1000);
+
+        then("threads are added one by one, up to the maximum");
+        assertThat(afterFirst).as("threads after first bucket").isEqualTo(3);
+        assertThat(afterSecond).as("threads after second bucket").isEqualTo(4);
+        assertThat(scaler.getThreads()).as("threads after third bucket").isEqualTo(4);
+    }
+
+    @Test
+    public void test120RevertIncreaseWhenThroughputDrops() {
+        given();
+        WorkerThreadsScaler scaler = createScaler(scaling(1, 10), 4, null);
+        scaler.bucketCompleted(100, 1000);
+        assertThat(scaler.getThreads()).as("threads after first bucket").isEqualTo(5);
+
+        when("throughput drops after the increase");
+        scaler.bucketCompleted(50, 1000);
+
+        then("the increase is reverted");
+        assertThat(scaler.getThreads()).as("threads after second bucket").isEqualTo(4);
+
+        when("throughput stays the same after the revert");
+        scaler.bucketCompleted(50, 1000);
+
+        then("threads are added again");
+        assertThat(scaler.getThreads()).as("threads after third bucket").isEqualTo(5);
+    }
+
+    /** A small drop is considered a random fluctuation. */
+    @Test
+    public void test130InsignificantThroughputDropIgnored() {
+        given();
+        WorkerThreadsScaler scaler = createScaler(scaling(1, 10), 4, null);
+        scaler.bucketCompleted(100, 1000);
+
+        when();
+        scaler.bucketCompleted(98, 1000);
+
+        then();
+        assertThat(scaler.getThreads()).as("threads").isEqualTo(6);
+    }
+
+    @Test
+    public void test140MultiplicativeDecreaseAndRecoveryOnPoolSaturation() {
+        given();
+        AtomicReference<Number[]> poolStats = new AtomicReference<>(POOL_SATURATED);
+        WorkerThreadsScaler scaler = createScaler(scaling(1, 8), 8, poolStats);
+
+        when("connection pool is saturated during the bucket");
+        scaler.sampleResources();
+        scaler.bucketCompleted(100, 1000);
+
+        then("threads are decreased by one quarter");
+        assertThat(scaler.getThreads()).as("threads after overloaded bucket").isEqualTo(6);
+
+        when("the pool is no longer saturated");
+        poolStats.set(POOL_RELAXED);
+        scaler.sampleResources();
+        scaler.bucketCompleted(100, 1000);
+
+        then("threads are added again");
+        assertThat(scaler.getThreads()).as("threads after relaxed bucket").isEqualTo(7);
+    }
+
+    @Test
+    public void test150DecreaseByAtLeastOne() {
+        given();
+        WorkerThreadsScaler scaler = createScaler(scaling(1, 8), 3, new AtomicReference<>(POOL_SATURATED));
+
+        when();
+        scaler.sampleResources();
+        scaler.bucketCompleted(100, 1000);
+
+        then();
+        assertThat(scaler.getThreads()).as("threads").isEqualTo(2);
+    }
+
+    @Test
+    public void test160DecreaseOnConnectorErrors() {
+        given();
+        WorkerThreadsScaler scaler = createScaler(scaling(1, 8), 4, null);
+
+        when("10% of connector operations fail");
+        for (int i = 0; i < 10; i++) {
+            scaler.onConnIdOperationEnd(
+                    createOperation(10, i == 0 ? OperationResultStatus.FATAL_ERROR : OperationResultStatus.SUCCESS));
+        }
+        scaler.bucketCompleted(100, 1000);
+
+        then();
+        assertThat(scaler.getThreads()).as("threads").isEqualTo(3);
+    }
+
+    @Test
+    public void test170DecreaseOnConnectorLatencyIncrease() {
+        given();
+        WorkerThreadsScaler scaler = createScaler(scaling(1, 8), 4, null);
+        scaler.onConnIdOperationEnd(createOperation(10, OperationResultStatus.SUCCESS));
+        scaler.bucketCompleted(100, 1000);
+        assertThat(scaler.getThreads()).as("threads after first bucket").isEqualTo(5);
+
+        when("connector operations take twice as long");
+        scaler.onConnIdOperationEnd(createOperation(20, OperationResultStatus.SUCCESS));
+        scaler.bucketCompleted(100, 1000);
+
+        then();
+        assertThat(scaler.getThreads()).as("threads after second bucket").isEqualTo(4);
+    }
+
+    /** Nothing can be learned from an empty bucket. Measurements from it are not carried over to the next one. */
+    @Test
+    public void test180EmptyBucketIgnored() {
+        given();
+        WorkerThreadsScaler scaler = createScaler(scaling(1, 8), 4, new AtomicReference<>(POOL_SATURATED));
+        scaler.sampleResources();
+
+        when();
+        scaler.bucketCompleted(0, 1000);
+
+        then();
+        assertThat(scaler.getThreads()).as("threads after empty bucket").isEqualTo(4);
+
+        when();
+        scaler.bucketCompleted(100, 1000);
+
+        then();
+        assertThat(scaler.getThreads()).as("threads after non-empty bucket").isEqualTo(5);
+    }
+
+    private WorkerThreadsScaler createScaler(WorkerThreadsScalingDefinitionType definition, int initialThreads,
+            AtomicReference<Number[]> poolStats) {
+        return new WorkerThreadsScaler(definition, initialThreads, () -> poolStats != null ? poolStats.get() : null);
+    }
+
+    private WorkerThreadsScalingDefinitionType scaling(int min, int max) {
+        return new WorkerThreadsScalingDefinitionType()
+                .minThreads(min)
+                .maxThreads(max);
+    }
+
+    private ConnIdOperation createOperation(long duration, OperationResultStatus status) {
+        return ConnIdOperation.ConnIdOperationBuilder.aConnIdOperation()
+                .withIdentifier("op")
+                .withOperation(ProvisioningOperation.ICF_GET)
+                .withResourceRef(new ObjectReferenceType().oid("10000000-0000-0000-0000-000000000000"))
+                .withStartTimestamp(1000L)
+                .withEndTimestamp(1000L + duration)
+                .withStatus(status)
+                .build();
+    }
+}
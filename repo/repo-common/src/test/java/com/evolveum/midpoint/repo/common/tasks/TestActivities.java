@@ -16,6 +16,9 @@ import static org.assertj.core.api.Assertions.assertThat;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -23,14 +26,21 @@ import javax.xml.namespace.QName;
 
 import com.evolveum.midpoint.repo.common.AbstractRepoCommonTest;
 import com.evolveum.midpoint.repo.common.activity.handlers.NoOpActivityHandler;
+import com.evolveum.midpoint.prism.Containerable;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
+import com.evolveum.midpoint.repo.common.activity.run.SearchSpecification;
 import com.evolveum.midpoint.repo.common.activity.run.reports.ActivityReportUtil;
 import com.evolveum.midpoint.repo.common.activity.run.reports.SimpleReportReader;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.BucketingConfigurationOverrides;
+import com.evolveum.midpoint.repo.common.activity.run.sources.PrefetchingItemSource;
+import com.evolveum.midpoint.repo.common.activity.run.sources.SearchableItemSource;
+import com.evolveum.midpoint.schema.ContainerableResultHandler;
 import com.evolveum.midpoint.schema.statistics.ActionsExecutedInformationUtil;
 import com.evolveum.midpoint.schema.util.task.*;
 import com.evolveum.midpoint.schema.util.task.work.WorkDefinitionUtil;
 import com.evolveum.midpoint.schema.util.task.work.WorkDefinitionWrapper;
+import com.evolveum.midpoint.task.api.RunningTask;
 import com.evolveum.midpoint.task.api.TaskDebugUtil;
 import com.evolveum.midpoint.test.asserter.ActivityProgressInformationAsserter;
 import com.evolveum.midpoint.util.Holder;
@@ -45,6 +55,7 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 import com.evolveum.prism.xml.ns._public.types_3.ChangeTypeType;
 
 import org.apache.commons.collections4.ListUtils;
+import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
@@ -99,8 +110,14 @@ public class TestActivities extends AbstractRepoCommonTest {
     private static final TestResource<TaskType> TASK_140_PURE_COMPOSITE = new TestResource<>(TEST_DIR, "task-140-pure-composite.xml", "65866e01-73cd-4249-9b7b-03ebc4413bd0");
     private static final TestResource<TaskType> TASK_150_MOCK_ITERATIVE = new TestResource<>(TEST_DIR, "task-150-mock-iterative.xml", "c21785e9-1c67-492f-bc79-0c51f74561a1");
     private static final TestResource<TaskType> TASK_155_MOCK_ITERATIVE_BUCKETED = new TestResource<>(TEST_DIR, "task-155-mock-iterative-bucketed.xml", "02a94071-2eff-4ca0-aa63-3fdf9d540064");
+    private static final TestResource<TaskType> TASK_158_MOCK_ITERATIVE_CORRELATED = new TestResource<>(TEST_DIR, "task-158-mock-iterative-correlated.xml", "97e35b33-e6cd-435a-b73c-04afda3aab35");
     private static final TestResource<TaskType> TASK_160_MOCK_SEARCH_ITERATIVE = new TestResource<>(TEST_DIR, "task-160-mock-search-iterative.xml", "9d8384b3-a007-44e2-a9f7-084a64bdc285");
+    private static final TestResource<TaskType> TASK_165_MOCK_SEARCH_ITERATIVE_VIRTUAL_THREADS = new TestResource<>(TEST_DIR, "task-165-mock-search-iterative-virtual-threads.xml", "3bd7d0c4-57a9-4e6e-9d54-0f4c9d0b1f62");
+    private static final TestResource<TaskType> TASK_166_MOCK_SEARCH_ITERATIVE_PREFETCHING = new TestResource<>(TEST_DIR, "task-166-mock-search-iterative-prefetching.xml", "a5f0e6b4-0c1e-4b8e-9f3d-6d2b7e41c166");
+    private static final TestResource<TaskType> TASK_167_MOCK_SEARCH_ITERATIVE_BATCHES = new TestResource<>(TEST_DIR, "task-167-mock-search-iterative-batches.xml", "e2b7c3f1-9a4d-4f6e-8c1b-5d3a7f20c167");
     private static final TestResource<TaskType> TASK_170_MOCK_BUCKETED = new TestResource<>(TEST_DIR, "task-170-mock-bucketed.xml", "04e257d1-bb25-4675-8e00-f248f164fbc3");
+    private static final TestResource<TaskType> TASK_175_MOCK_BUCKETED_SCALING = new TestResource<>(TEST_DIR, "task-175-mock-bucketed-scaling.xml", "7c9e4d2a-61f3-4b85-a0d2-3e8f1b6c9175");
+    private static final TestResource<TaskType> TASK_176_MOCK_BUCKETED_SCALING_NO_THREADS = new TestResource<>(TEST_DIR, "task-176-mock-bucketed-scaling-no-threads.xml", "0b6d2f4e-8c1a-4e7b-9d35-a2f61c7e8176");
     private static final TestResource<TaskType> TASK_180_BUCKETED_TREE = new TestResource<>(TEST_DIR, "task-180-bucketed-tree.xml", "ac3220c5-6ded-4b94-894e-9ed39c05db66");
     private static final TestResource<TaskType> TASK_185_BUCKETED_TREE_ANALYSIS = new TestResource<>(TEST_DIR, "task-185-bucketed-tree-analysis.xml", "12f07ab1-41c3-4dba-bf47-3d2a032fa555");
     private static final TestResource<TaskType> TASK_190_SUSPENDING_COMPOSITE = new TestResource<>(TEST_DIR, "task-190-suspending-composite.xml", "1e7cf975-7253-4991-a707-661d3c52f203");
@@ -820,6 +837,46 @@ public class TestActivities extends AbstractRepoCommonTest {
                 .assertHasWallClockTime();
     }
 
+    /**
+     * Runs mock-iterative activity in multiple threads, with items correlated by their value modulo 7
+     * (like changes of the same resource object). Items with the same correlation value must be processed in order.
+     */
+    @Test
+    public void test158RunCorrelatedMockIterativeTask() throws Exception {
+        given();
+
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        recorder.reset();
+
+        Task task1 = taskAdd(TASK_158_MOCK_ITERATIVE_CORRELATED, result);
+
+        when();
+
+        waitForTaskClose(task1.getOid(), result, 30000, 200);
+
+        then();
+
+        task1.refresh(result);
+        assertTask(task1, "after")
+                .display()
+                .assertSuccess()
+                .assertClosed()
+                .assertProgress(300);
+
+        List<String> executions = new ArrayList<>(recorder.getExecutions());
+        assertThat(executions).as("recorder").hasSize(300);
+        Map<Integer, Integer> lastItemForCorrelationValue = new HashMap<>();
+        for (String execution : executions) {
+            int item = Integer.parseInt(execution.substring("Item: ".length()));
+            Integer previous = lastItemForCorrelationValue.put(item % 7, item);
+            assertThat(previous)
+                    .as("item processed before item %d with the same correlation value", item)
+                    .isEqualTo(item > 7 ? item - 7 : null);
+        }
+    }
+
     /**
      * Runs mock search-based activity.
      */
@@ -899,6 +956,233 @@ public class TestActivities extends AbstractRepoCommonTest {
                 .assertHasWallClockTime();
     }
 
+    /**
+     * Runs mock search-based activity with virtual worker threads.
+     * If the JVM does not support them, platform threads must be used. (The fallback itself is tested
+     * also on JVMs with virtual threads, see `TestLightweightTaskManager` in task-quartz-impl.)
+     */
+    @Test
+    public void test165RunMockSearchBasedTaskWithVirtualThreads() throws Exception {
+        given();
+
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        recorder.reset();
+
+        Task task1 = taskAdd(TASK_165_MOCK_SEARCH_ITERATIVE_VIRTUAL_THREADS, result);
+
+        when();
+
+        waitForTaskClose(task1.getOid(), result, 10000, 200);
+
+        then();
+
+        task1.refresh(result);
+        // @formatter:off
+        assertTask(task1, "after")
+                .display()
+                .assertSuccess()
+                .assertClosed()
+                .activityState()
+                    .rootActivity()
+                        .assertComplete()
+                        .assertSuccess()
+                        .itemProcessingStatistics()
+                            .assertTotalCounts(100, 0, 0)
+                            .assertRuns(1)
+                        .end();
+        // @formatter:on
+
+        Set<String> messages = IntStream.range(0, 100)
+                .mapToObj(i -> String.format("Role: " + ROLE_NAME_PATTERN, i))
+                .collect(Collectors.toSet());
+        assertThat(recorder.getExecutions()).as("recorder")
+                .containsExactlyInAnyOrderElementsOf(messages);
+
+        and("items are processed in virtual threads if the JVM supports them, in platform ones otherwise");
+        boolean virtualThreadsSupported = Runtime.version().feature() >= 21;
+        assertThat(recorder.getThreads()).as("worker threads")
+                .isNotEmpty()
+                .hasSizeLessThanOrEqualTo(20)
+                .allMatch(thread -> isVirtual(thread) == virtualThreadsSupported);
+    }
+
+    /** We are compiled against Java 17, so this must be called reflectively. */
+    private static boolean isVirtual(Thread thread) {
+        try {
+            return (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+        } catch (NoSuchMethodException e) {
+            return false;
+        } catch (ReflectiveOperationException e) {
+            throw new AssertionError(e);
+        }
+    }
+
+    /**
+     * Runs mock search-based activity with items prefetched in a separate thread.
+     */
+    @Test
+    public void test166RunMockSearchBasedTaskWithPrefetching() throws Exception {
+        given();
+
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        recorder.reset();
+
+        Task task1 = taskAdd(TASK_166_MOCK_SEARCH_ITERATIVE_PREFETCHING, result);
+
+        when();
+
+        waitForTaskClose(task1.getOid(), result, 10000, 200);
+
+        then();
+
+        task1.refresh(result);
+        // @formatter:off
+        assertTask(task1, "after")
+                .display()
+                .assertSuccess()
+                .assertClosed()
+                .activityState()
+                    .rootActivity()
+                        .assertComplete()
+                        .assertSuccess()
+                        .itemProcessingStatistics()
+                            .assertTotalCounts(100, 0, 0)
+                            .assertRuns(1)
+                        .end();
+        // @formatter:on
+
+        ActivityItemProcessingStatisticsType statistics = task1.getActivitiesStateOrClone().getActivity()
+                .getStatistics().getItemProcessing();
+        assertThat(statistics.getProcessed()).as("processed item sets").isNotEmpty();
+        Double queueWait = statistics.getProcessed().get(0).getQueueWaitDuration();
+        assertThat(queueWait).as("queue wait duration").isNotNull().isPositive();
+
+        // At most (worker threads x batch size x 2) requests can be in the buffer at any moment. So the total time spent
+        // there cannot exceed that multiple of the run time - unless the wait for a free slot (producer back-pressure)
+        // is counted in as well.
+        ActivityRunRecordType run = statistics.getRun().get(0);
+        long runDuration = XmlTypeConverter.toMillis(run.getEndTimestamp()) - XmlTypeConverter.toMillis(run.getStartTimestamp());
+        assertThat(queueWait).as("queue wait duration").isLessThanOrEqualTo(4 * 2 * (double) runDuration);
+
+        Set<String> messages = IntStream.range(0, 100)
+                .mapToObj(i -> String.format("Role: " + ROLE_NAME_PATTERN, i))
+                .collect(Collectors.toSet());
+        assertThat(recorder.getExecutions()).as("recorder")
+                .containsExactlyInAnyOrderElementsOf(messages);
+    }
+
+    /**
+     * Checks that the prefetching thread stops when the handler fails. (Otherwise, it would wait forever to put
+     * an item into the full prefetch queue.)
+     */
+    @Test
+    public void test168PrefetchingStopsWhenHandlerFails() throws Exception {
+        given();
+        OperationResult result = getTestOperationResult();
+        RunningTask runningTask = taskManager.createFakeRunningTask(getTestTask());
+        EndlessItemSource source = new EndlessItemSource();
+        AtomicInteger handled = new AtomicInteger();
+
+        when("handler fails on third item");
+        try {
+            new PrefetchingItemSource(source, 5).searchIterative(
+                    new SearchSpecification<>(RoleType.class, null, null, null),
+                    (role, lResult) -> {
+                        if (handled.incrementAndGet() == 3) {
+                            throw new IllegalStateException("Simulated failure");
+                        }
+                        return true;
+                    },
+                    runningTask,
+                    result);
+            fail("unexpected success");
+        } catch (IllegalStateException e) {
+            displayExpectedException(e);
+        }
+
+        then("fetcher finishes after filling the queue at most");
+        assertThat(source.finished.await(10, TimeUnit.SECONDS)).as("fetcher finished").isTrue();
+        assertThat(source.produced.get()).as("items produced").isLessThanOrEqualTo(3 + 5 + 2);
+    }
+
+    /** Checks that the prefetching thread stops when the handler requests the search to stop. */
+    @Test
+    public void test169PrefetchingStopsWhenHandlerRequestsIt() throws Exception {
+        given();
+        OperationResult result = getTestOperationResult();
+        RunningTask runningTask = taskManager.createFakeRunningTask(getTestTask());
+        EndlessItemSource source = new EndlessItemSource();
+        AtomicInteger handled = new AtomicInteger();
+
+        when("handler requests stop on third item");
+        new PrefetchingItemSource(source, 5).searchIterative(
+                new SearchSpecification<>(RoleType.class, null, null, null),
+                (role, lResult) -> handled.incrementAndGet() < 3,
+                runningTask,
+                result);
+
+        then("no more items are handled, and fetcher finishes after filling the queue at most");
+        assertThat(handled.get()).as("items handled").isEqualTo(3);
+        assertThat(source.finished.await(10, TimeUnit.SECONDS)).as("fetcher finished").isTrue();
+        assertThat(source.produced.get()).as("items produced").isLessThanOrEqualTo(3 + 5 + 2);
+    }
+
+    /**
+     * Runs mock search-based activity with worker threads taking items in micro-batches.
+     */
+    @Test
+    public void test167RunMockSearchBasedTaskInBatches() throws Exception {
+        given();
+
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        recorder.reset();
+
+        Task task1 = taskAdd(TASK_167_MOCK_SEARCH_ITERATIVE_BATCHES, result);
+
+        when();
+
+        waitForTaskClose(task1.getOid(), result, 10000, 200);
+
+        then();
+
+        task1.refresh(result);
+        // @formatter:off
+        assertTask(task1, "after")
+                .display()
+                .assertSuccess()
+                .assertClosed()
+                .activityState()
+                    .rootActivity()
+                        .assertComplete()
+                        .assertSuccess()
+                        .itemProcessingStatistics()
+                            .assertTotalCounts(100, 0, 0)
+                            .assertRuns(1)
+                        .end();
+        // @formatter:on
+
+        Set<String> messages = IntStream.range(0, 100)
+                .mapToObj(i -> String.format("Role: " + ROLE_NAME_PATTERN, i))
+                .collect(Collectors.toSet());
+        assertThat(recorder.getExecutions()).as("recorder")
+                .containsExactlyInAnyOrderElementsOf(messages);
+
+        and("batches were prepared and then processed in the same worker thread");
+        displayValue("prepared batch sizes", recorder.getPreparedBatchSizes());
+        assertThat(recorder.getPreparedBatchSizes()).as("prepared batch sizes")
+                .isNotEmpty()
+                .allSatisfy(size -> assertThat(size).as("batch size").isBetween(2, 10));
+        Map<String, Thread> processingThreads = recorder.getItemProcessingThreads();
+        recorder.getBatchPreparationThreads().forEach(
+                (name, thread) -> assertThat(processingThreads.get(name)).as("thread processing " + name).isSameAs(thread));
+    }
+
     /**
      * Runs mock search-based activity with buckets.
      */
@@ -964,6 +1248,103 @@ public class TestActivities extends AbstractRepoCommonTest {
                 .assertHasWallClockTime();
     }
 
+    /**
+     * Runs mock search-based activity with buckets and automatic scaling of worker threads.
+     */
+    @Test
+    public void test175RunBucketedTaskWithWorkerThreadsScaling() throws Exception {
+        given();
+
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        recorder.reset();
+
+        Task task1 = taskAdd(TASK_175_MOCK_BUCKETED_SCALING, result);
+
+        when();
+
+        waitForTaskClose(task1.getOid(), result, 10000, 200);
+
+        then();
+
+        task1.refresh(result);
+        assertTask(task1, "after")
+                .display()
+                .assertSuccess()
+                .assertClosed()
+                .activityState()
+                    .assertTreeRealizationComplete()
+                    .rootActivity()
+                        .assertComplete()
+                        .assertSuccess()
+                        .itemProcessingStatistics()
+                            .assertTotalCounts(100, 0, 0)
+                            .assertRuns(1)
+                        .end();
+
+        displayDumpable("recorder", recorder);
+        Set<String> messages = IntStream.range(0, 100)
+                .mapToObj(i -> String.format("Role: " + ROLE_NAME_PATTERN, i))
+                .collect(Collectors.toSet());
+        assertThat(recorder.getExecutions()).as("recorder")
+                .containsExactlyInAnyOrderElementsOf(messages);
+
+        assertProgress(task1.getOid(), "after")
+                .display()
+                .assertComplete()
+                .assertBuckets(11, 11)
+                .assertItems(100, 100);
+
+        List<Integer> threads = recorder.getWorkerThreadsPerBucket();
+        assertThat(threads).as("worker threads per bucket")
+                .hasSize(11)
+                .allSatisfy(t -> assertThat(t).isBetween(1, 4));
+        assertThat(threads.get(0)).as("worker threads in the first bucket").isEqualTo(2);
+        assertThat(new HashSet<>(threads)).as("distinct numbers of worker threads").hasSizeGreaterThan(1);
+    }
+
+    /**
+     * Worker threads scaling is ignored if there are no worker threads: the items are processed in the coordinator thread.
+     */
+    @Test
+    public void test176RunBucketedTaskWithScalingButNoWorkerThreads() throws Exception {
+        given();
+
+        Task task = getTestTask();
+        OperationResult result = task.getResult();
+
+        recorder.reset();
+
+        Task task1 = taskAdd(TASK_176_MOCK_BUCKETED_SCALING_NO_THREADS, result);
+
+        when();
+
+        waitForTaskClose(task1.getOid(), result, 10000, 200);
+
+        then();
+
+        task1.refresh(result);
+        // @formatter:off
+        assertTask(task1, "after")
+                .display()
+                .assertSuccess()
+                .assertClosed()
+                .activityState()
+                    .rootActivity()
+                        .assertComplete()
+                        .assertSuccess()
+                        .itemProcessingStatistics()
+                            .assertTotalCounts(100, 0, 0)
+                        .end();
+        // @formatter:on
+
+        displayDumpable("recorder", recorder);
+        assertThat(recorder.getExecutions()).as("executions").hasSize(100);
+        assertThat(recorder.getWorkerThreadsPerBucket()).as("worker threads per bucket").isEmpty();
+        assertThat(recorder.getThreads()).as("threads processing the items").hasSize(1);
+    }
+
     /**
      * Runs a tree of bucketed activities, to check that multiple bucketed activities do not conflict with each other.
      */
@@ -2723,4 +3104,33 @@ public class TestActivities extends AbstractRepoCommonTest {
                 activityManager.getPerformanceInformation(oid, result);
         displayDumpable("performance information", performanceInfo);
     }
+
+    /** Provides roles r00000, r00001, ... until the handler tells it to stop. */
+    private static class EndlessItemSource implements SearchableItemSource {
+
+        private final AtomicInteger produced = new AtomicInteger();
+        private final CountDownLatch finished = new CountDownLatch(1);
+
+        @Override
+        public Integer count(@NotNull SearchSpecification<?> searchSpecification, @NotNull RunningTask task,
+                @NotNull OperationResult result) {
+            return null;
+        }
+
+        @Override
+        public <C extends Containerable> void searchIterative(@NotNull SearchSpecification<C> searchSpecification,
+                @NotNull ContainerableResultHandler<C> handler, @NotNull RunningTask task, @NotNull OperationResult result) {
+            try {
+                for (int i = 0; ; i++) {
+                    produced.incrementAndGet();
+                    //noinspection unchecked
+                    if (!handler.handle((C) new RoleType().name(String.format("r%05d", i)), result)) {
+                        return;
+                    }
+                }
+            } finally {
+                finished.countDown();
+            }
+        }
+    }
 }
@@ -21,17 +21,22 @@ import java.util.Arrays;
 import java.util.List;
 import java.util.function.Consumer;
 import javax.annotation.PostConstruct;
+import javax.xml.namespace.QName;
 
 import org.jetbrains.annotations.NotNull;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
+import org.testng.SkipException;
 import org.testng.annotations.Test;
 
+import com.evolveum.midpoint.prism.PrismConstants;
 import com.evolveum.midpoint.prism.PrismContext;
+import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.prism.util.PrismAsserts;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
 import com.evolveum.midpoint.repo.common.AbstractRepoCommonTest;
 import com.evolveum.midpoint.repo.common.activity.definition.ActivityDistributionDefinition;
 import com.evolveum.midpoint.repo.common.activity.run.CommonTaskBeans;
@@ -41,17 +46,22 @@ import com.evolveum.midpoint.repo.common.activity.run.buckets.GetBucketOperation
 import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.BucketContentFactory;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.BucketContentFactoryGenerator;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.BucketFactory;
+import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.ItemSampler;
 import com.evolveum.midpoint.repo.common.activity.run.buckets.segmentation.StringBucketContentFactory;
+import com.evolveum.midpoint.repo.common.activity.run.sources.RepoObjectSampler;
+import com.evolveum.midpoint.repo.sqale.SqaleRepositoryConfiguration;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.util.task.ActivityPath;
 import com.evolveum.midpoint.schema.util.task.BucketingUtil;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.test.TestResource;
 import com.evolveum.midpoint.util.DebugUtil;
+import com.evolveum.midpoint.util.exception.ConfigurationException;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+import com.evolveum.prism.xml.ns._public.types_3.ItemPathType;
 
 /**
  * Low level tests of working with buckets: creating, getting, completing, releasing, and using buckets.
@@ -72,6 +82,7 @@ public class TestBucketingStatic extends AbstractRepoCommonTest {
     @Autowired private BucketingManager bucketingManager;
     @Autowired private BucketContentFactoryGenerator contentFactoryCreator;
     @Autowired private CommonTaskBeans beans;
+    @Autowired(required = false) private SqaleRepositoryConfiguration sqaleRepositoryConfiguration;
 
     private static final File TEST_DIR = new File("src/test/resources/tasks/bucketing-static");
 
@@ -98,6 +109,14 @@ public class TestBucketingStatic extends AbstractRepoCommonTest {
     private static final TestResource<TaskType> TASK_210_WORKER_4 = new TestResource<>(TEST_DIR, "task-210-4.xml", "f1bb0e85-abac-4e61-8a3a-f72d40f3e8d6");
     private static final TestResource<TaskType> TASK_210_WORKER_5 = new TestResource<>(TEST_DIR, "task-210-5.xml", "81e31c90-6546-4055-8371-a34ef79f5117");
 
+    private static final TestResource<TaskType> TASK_220_COORDINATOR = new TestResource<>(TEST_DIR, "task-220-c.xml", "eaeda297-59fc-4afc-b2a8-d6c6e699dc1e");
+    private static final TestResource<TaskType> TASK_220_WORKER_1 = new TestResource<>(TEST_DIR, "task-220-1.xml", "1a114eef-097c-40da-bc66-85cf5c25c647");
+    private static final TestResource<TaskType> TASK_220_WORKER_2 = new TestResource<>(TEST_DIR, "task-220-2.xml", "a891711e-3add-4bf2-b164-7b7a9bd101ec");
+
+    private static final TestResource<TaskType> TASK_230_COORDINATOR = new TestResource<>(TEST_DIR, "task-230-c.xml", "d8c3428d-3083-43a1-836a-94632ffc5573");
+    private static final TestResource<TaskType> TASK_230_WORKER_1 = new TestResource<>(TEST_DIR, "task-230-1.xml", "4784f86d-f0b4-4245-8721-3961e1330fb3");
+    private static final TestResource<TaskType> TASK_230_WORKER_2 = new TestResource<>(TEST_DIR, "task-230-2.xml", "5e2df8c6-d3af-47c1-8826-5fe43f312fbf");
+
     @PostConstruct
     public void initialize() throws Exception {
         displayTestTitle("Initializing TEST CLASS: " + getClass().getName());
@@ -627,6 +646,139 @@ public class TestBucketingStatic extends AbstractRepoCommonTest {
         }
     }
 
+    /**
+     * Sampled segmentation: buckets of equal number of items (regardless of the distribution of the values),
+     * covering the whole space, and narrowing of a bucket.
+     */
+    @Test
+    public void test160SampledSegmentation() throws Exception {
+        given();
+
+        List<String> values = List.of("a1", "a2", "a3", "a4", "a5", "b1", "b2", "x", "y", "z");
+        BucketsDefinitionType buckets = new BucketsDefinitionType()
+                .sampledSegmentation(new SampledWorkSegmentationType()
+                        .numberOfBuckets(4));
+
+        when();
+
+        BucketContentFactory contentFactory =
+                contentFactoryCreator.createContentFactory(buckets, null, new ListSampler(values));
+
+        List<StringIntervalWorkBucketContentType> contents = new ArrayList<>();
+        AbstractWorkBucketContentType last = null;
+        for (int i = 0; ; i++) {
+            AbstractWorkBucketContentType next = contentFactory.createNextBucketContent(last, i > 0 ? i : null);
+            if (next == null) {
+                break;
+            }
+            contents.add((StringIntervalWorkBucketContentType) next);
+            last = next;
+        }
+        AbstractWorkBucketContentType narrowed = contentFactory.createNarrowedBucketContent(contents.get(0), 1);
+
+        then();
+
+        assertThat(contentFactory.estimateBucketSize()).as("estimated bucket size").isEqualTo(3);
+        assertThat(contents).as("bucket contents").containsExactly(
+                new StringIntervalWorkBucketContentType().to("a4"),
+                new StringIntervalWorkBucketContentType().from("a4").to("b2"),
+                new StringIntervalWorkBucketContentType().from("b2").to("z"),
+                new StringIntervalWorkBucketContentType().from("z"));
+        assertThat(narrowed).as("narrowed content").isEqualTo(new StringIntervalWorkBucketContentType().to("a2"));
+    }
+
+    /**
+     * Sampled segmentation over repository objects, using a polystring discriminator whose values are ordered
+     * differently in their original and normalized forms. Each object must get into exactly one bucket,
+     * also after a bucket is narrowed and the next one is extended accordingly.
+     */
+    @Test
+    public void test165SampledSegmentationOfRepositoryObjects() throws Exception {
+        given("users with mixed-case names");
+        OperationResult result = createOperationResult();
+        String costCenter = "test165";
+        List<String> names = List.of("Anna", "bob", "Cyril", "dave", "Eve", "frank", "George", "hugo");
+        for (String name : names) {
+            repositoryService.addObject(
+                    new UserType().name(name).costCenter(costCenter).asPrismObject(), null, result);
+        }
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .item(UserType.F_COST_CENTER).eq(costCenter)
+                .build();
+        ActivityDistributionDefinition distributionDefinition = ActivityDistributionDefinition.create(
+                new ActivityDefinitionType()
+                        .distribution(new ActivityDistributionDefinitionType()
+                                .buckets(new BucketsDefinitionType()
+                                        .sampledSegmentation(new SampledWorkSegmentationType()
+                                                .discriminator(new ItemPathType(UserType.F_NAME))
+                                                .bucketSize(3)))),
+                () -> null);
+        RepoObjectSampler sampler = new RepoObjectSampler(UserType.class, query, repositoryService, result);
+
+        when("buckets are created, and the first one is narrowed");
+        BucketContentFactory contentFactory =
+                contentFactoryCreator.createContentFactory(distributionDefinition.getBuckets(), null, sampler);
+        List<AbstractWorkBucketContentType> contents = new ArrayList<>();
+        AbstractWorkBucketContentType last = null;
+        for (int i = 0; ; i++) {
+            AbstractWorkBucketContentType next = contentFactory.createNextBucketContent(last, i > 0 ? i : null);
+            if (next == null) {
+                break;
+            }
+            contents.add(next);
+            last = next;
+        }
+        AbstractWorkBucketContentType narrowed = contentFactory.createNarrowedBucketContent(contents.get(0), 1);
+        AbstractWorkBucketContentType adjoining = narrowed != null ?
+                contentFactory.createAdjoiningBucketContent(narrowed, contents.get(1)) : null;
+
+        then("buckets have the expected size, boundaries are in the original form, each user is in exactly one bucket");
+        List<String> found = new ArrayList<>();
+        List<Integer> sizes = new ArrayList<>();
+        for (AbstractWorkBucketContentType content : contents) {
+            String to = ((StringIntervalWorkBucketContentType) content).getTo();
+            if (to != null) {
+                assertThat(names).as("bucket boundary").contains(to);
+            }
+            List<String> bucketNames = searchUserNames(query, distributionDefinition, content);
+            sizes.add(bucketNames.size());
+            found.addAll(bucketNames);
+        }
+        assertThat(sizes).as("bucket sizes").containsExactly(3, 3, 2);
+        assertThat(found).as("users found in buckets").containsExactlyInAnyOrderElementsOf(names);
+
+        and("the narrowed bucket and the adjoining one cover the same users as the original two buckets");
+        assertThat(narrowed).as("narrowed content").isNotNull();
+        assertThat(adjoining).as("adjoining content").isNotNull();
+        List<String> narrowedNames = searchUserNames(query, distributionDefinition, narrowed);
+        List<String> adjoiningNames = searchUserNames(query, distributionDefinition, adjoining);
+        assertThat(narrowedNames).as("users in narrowed bucket").hasSize(1);
+        assertThat(adjoiningNames).as("users in adjoining bucket").hasSize(5);
+        List<String> expected = new ArrayList<>(searchUserNames(query, distributionDefinition, contents.get(0)));
+        expected.addAll(searchUserNames(query, distributionDefinition, contents.get(1)));
+        List<String> actual = new ArrayList<>(narrowedNames);
+        actual.addAll(adjoiningNames);
+        assertThat(actual).as("users in narrowed and adjoining buckets").containsExactlyInAnyOrderElementsOf(expected);
+
+        expect("comparing the polystring discriminator by its normalized form is refused");
+        try {
+            sampler.getDiscriminatorValue(
+                    UserType.F_NAME, PrismConstants.POLY_STRING_NORM_MATCHING_RULE_NAME, null, null, 0);
+            fail("unexpected success");
+        } catch (ConfigurationException e) {
+            displayExpectedException(e);
+        }
+    }
+
+    private List<String> searchUserNames(ObjectQuery query, ActivityDistributionDefinition distributionDefinition,
+            AbstractWorkBucketContentType content) throws SchemaException {
+        ObjectQuery bucketQuery = bucketingManager.narrowQueryForWorkBucket(UserType.class, query, distributionDefinition,
+                null, new WorkBucketType().sequentialNumber(1).content(content));
+        return repositoryService.searchObjects(UserType.class, bucketQuery, null, createOperationResult()).stream()
+                .map(user -> user.getName().getOrig())
+                .toList();
+    }
+
     /**
      * Checks "get bucket" operation on task pair (coordinator + worker).
      */
@@ -844,6 +996,155 @@ public class TestBucketingStatic extends AbstractRepoCommonTest {
         assertNumericBucket(buckets.get(0), WorkBucketStateType.COMPLETE, 5, 4, 5);
     }
 
+    /**
+     * Get/complete/release sequence for workers with buckets kept in the work bucket store (not in the coordinator task),
+     * with regular sampling (every second bucket is processed).
+     *
+     * Checks that a bucket is skipped (marked as complete) only if there is a next one to be processed.
+     */
+    @Test
+    public void test220GetReleaseCompleteSequenceForWorkersWithBucketStore() throws Exception {
+        if (sqaleRepositoryConfiguration == null) {
+            throw new SkipException("Work bucket store is available only in the native repository");
+        }
+        OperationResult result = createOperationResult();
+        taskAdd(TASK_220_COORDINATOR, result); // suspended
+        taskAdd(TASK_220_WORKER_1, result); // suspended
+        taskAdd(TASK_220_WORKER_2, result); // suspended
+
+        String oidC = TASK_220_COORDINATOR.oid;
+        String oidW1 = TASK_220_WORKER_1.oid;
+        String oidW2 = TASK_220_WORKER_2.oid;
+
+        sqaleRepositoryConfiguration.setWorkBucketTable(true);
+        try {
+            WorkBucketStore store = beans.getEnabledWorkBucketStore();
+            assertThat(store).as("work bucket store").isNotNull();
+            Task coordinator = taskManager.getTaskPlain(oidC, result);
+
+            when("worker 1 gets buckets twice, completing the first one");
+            WorkBucketType bucket = getWorkBucket(coordinator, oidW1, result);
+            assertNumericBucket(bucket, null, 2, 1, 2);
+            bucketingManager.completeWorkBucket(oidC, oidW1, ActivityPath.empty(), 2, null, null, result);
+            bucket = getWorkBucket(coordinator, oidW1, result);
+
+            then("bucket #4 is delegated to worker 1, the buckets before are complete");
+            assertNumericBucket(bucket, null, 4, 3, 4);
+            assertThat(getBucketStates(store, oidC, result))
+                    .containsExactly(COMPLETE, COMPLETE, COMPLETE, WorkBucketStateType.DELEGATED);
+
+            when("worker 2 gets the last bucket");
+            bucket = getWorkBucket(coordinator, oidW2, result);
+
+            then("bucket #5 is delegated to worker 2 and not skipped, although there is no bucket after it");
+            assertNumericBucket(bucket, null, 5, 4, 5);
+            assertThat(getBucketStates(store, oidC, result))
+                    .containsExactly(COMPLETE, COMPLETE, COMPLETE,
+                            WorkBucketStateType.DELEGATED, WorkBucketStateType.DELEGATED);
+
+            when("worker 2 releases bucket #5, worker 1 completes bucket #4 and gets the next one");
+            bucketingManager.releaseWorkBucket(oidC, oidW2, ActivityPath.empty(), 5, null, result);
+            assertThat(getBucketStates(store, oidC, result))
+                    .containsExactly(COMPLETE, COMPLETE, COMPLETE, WorkBucketStateType.DELEGATED, READY);
+            bucketingManager.completeWorkBucket(oidC, oidW1, ActivityPath.empty(), 4, null, null, result);
+            bucket = getWorkBucket(coordinator, oidW1, result);
+
+            then("released bucket #5 is delegated to worker 1");
+            assertNumericBucket(bucket, null, 5, 4, 5);
+            assertThat(store.findDelegatedBucket(oidC, ActivityPath.empty(), oidW1, result))
+                    .extracting(WorkBucketType::getSequentialNumber)
+                    .isEqualTo(5);
+
+            when("worker 1 completes bucket #5 and asks for the next one");
+            bucketingManager.completeWorkBucket(oidC, oidW1, ActivityPath.empty(), 5, null, null, result);
+            bucket = getWorkBucket(coordinator, oidW1, result);
+
+            then("no bucket is returned, all buckets are complete");
+            assertNull("Found bucket even if none should be found", bucket);
+            assertThat(getBucketStates(store, oidC, result))
+                    .containsExactly(COMPLETE, COMPLETE, COMPLETE, COMPLETE, COMPLETE);
+            assertThatOperationResult(result).isSuccess();
+
+            bucketingManager.deleteBucketsFromStore(oidC, null, result);
+        } finally {
+            sqaleRepositoryConfiguration.setWorkBucketTable(false);
+        }
+    }
+
+    /**
+     * Narrowing of a bucket that is not the last one: the rest of it is taken over by the next bucket,
+     * if that one was not obtained by any worker yet.
+     */
+    @Test
+    public void test230NarrowNonLastBucket() throws Exception {
+        OperationResult result = createOperationResult();
+        taskAdd(TASK_230_COORDINATOR, result); // suspended
+        taskAdd(TASK_230_WORKER_1, result); // suspended
+        taskAdd(TASK_230_WORKER_2, result); // suspended
+
+        String oidC = TASK_230_COORDINATOR.oid;
+        String oidW1 = TASK_230_WORKER_1.oid;
+        String oidW2 = TASK_230_WORKER_2.oid;
+        List<String> values = List.of("v01", "v02", "v03", "v04", "v05", "v06", "v07", "v08", "v09", "v10", "v11", "v12");
+
+        Task coordinator = taskManager.getTaskPlain(oidC, result);
+        ActivityDistributionDefinition distributionDefinition = getDistributionDefinition(coordinator);
+
+        given("worker 1 gets the first bucket (three buckets are created at once)");
+        WorkBucketType bucket = getWorkBucket(coordinator, oidW1, b -> b.withItemSampler(new ListSampler(values)), result);
+        assertThat(bucket.getContent()).isEqualTo(new StringIntervalWorkBucketContentType().to("v04"));
+
+        when("new items appear in the first bucket and it is narrowed");
+        List<String> values2 = new ArrayList<>(values);
+        values2.addAll(List.of("v01a", "v02a", "v03a"));
+        values2.sort(null);
+        WorkBucketType narrowed = bucketingManager.narrowWorkBucket(
+                oidC, oidW1, ActivityPath.empty(), bucket, distributionDefinition, new ListSampler(values2), null, result);
+
+        then("the first bucket is narrowed, and the second (ready) one is extended to cover the rest");
+        assertThat(narrowed).as("narrowed bucket").isNotNull();
+        assertThat(narrowed.getContent()).isEqualTo(new StringIntervalWorkBucketContentType().to("v02a"));
+        coordinator.refresh(result);
+        List<WorkBucketType> buckets = new ArrayList<>(getBuckets(coordinator));
+        sortBucketsBySequentialNumber(buckets);
+        assertThat(buckets).extracting(WorkBucketType::getContent).containsExactly(
+                new StringIntervalWorkBucketContentType().to("v02a"),
+                new StringIntervalWorkBucketContentType().from("v02a").to("v07"),
+                new StringIntervalWorkBucketContentType().from("v07").to("v10"));
+
+        when("worker 2 gets the second bucket");
+        WorkBucketType bucket2 = getWorkBucket(coordinator, oidW2, b -> b.withItemSampler(new ListSampler(values2)), result);
+
+        then("it gets the extended one");
+        assertThat(bucket2.getSequentialNumber()).isEqualTo(2);
+        assertThat(bucket2.getContent()).isEqualTo(new StringIntervalWorkBucketContentType().from("v02a").to("v07"));
+
+        when("even more items appear in the first bucket and it is narrowed again");
+        List<String> values3 = new ArrayList<>(values2);
+        values3.addAll(List.of("v00", "v00a"));
+        values3.sort(null);
+        WorkBucketType narrowedAgain = bucketingManager.narrowWorkBucket(
+                oidC, oidW1, ActivityPath.empty(), narrowed, distributionDefinition, new ListSampler(values3), null, result);
+
+        then("nothing is changed, as the next bucket is already being processed");
+        assertThat(narrowedAgain).as("narrowed bucket").isNull();
+        coordinator.refresh(result);
+        List<WorkBucketType> bucketsAfter = new ArrayList<>(getBuckets(coordinator));
+        sortBucketsBySequentialNumber(bucketsAfter);
+        assertThat(bucketsAfter).extracting(WorkBucketType::getContent).containsExactly(
+                new StringIntervalWorkBucketContentType().to("v02a"),
+                new StringIntervalWorkBucketContentType().from("v02a").to("v07"),
+                new StringIntervalWorkBucketContentType().from("v07").to("v10"));
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    private List<WorkBucketStateType> getBucketStates(WorkBucketStore store, String coordinatorOid, OperationResult result)
+            throws SchemaException {
+        return store.getBuckets(coordinatorOid, ActivityPath.empty(), result).stream()
+                .map(WorkBucketType::getState)
+                .toList();
+    }
+
     // TODO some test for batch allocation
 
     private WorkBucketType assumeNextValue(BucketFactory bucketFactory, ActivityStateType workState,
@@ -956,8 +1257,34 @@ public class TestBucketingStatic extends AbstractRepoCommonTest {
         return task;
     }
 
+    /** Samples a sorted list of (discriminator) values. */
+    private static class ListSampler implements ItemSampler {
+
+        @NotNull private final List<String> values;
+
+        private ListSampler(@NotNull List<String> values) {
+            this.values = values;
+        }
+
+        @Override
+        public Integer countItems() {
+            return values.size();
+        }
+
+        @Override
+        public String getDiscriminatorValue(ItemPath discriminator, QName matchingRule, String from, String to,
+                int position) {
+            return values.stream()
+                    .filter(v -> from == null || v.compareTo(from) >= 0)
+                    .filter(v -> to == null || v.compareTo(to) < 0)
+                    .skip(position)
+                    .findFirst()
+                    .orElse(null);
+        }
+    }
+
     @NotNull
     private BucketContentFactory createContentFactory(@NotNull ActivityDistributionDefinition distributionDefinition) {
-        return contentFactoryCreator.createContentFactory(distributionDefinition.getBuckets(), null);
+        return contentFactoryCreator.createContentFactory(distributionDefinition.getBuckets(), null, null);
     }
 }
@@ -15,6 +15,7 @@ import org.springframework.stereotype.Component;
 
 import javax.xml.datatype.XMLGregorianCalendar;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import static org.apache.commons.collections4.ListUtils.synchronizedList;
 
@@ -24,6 +25,23 @@ public class MockRecorder implements DebugDumpable {
     @SuppressWarnings("unchecked")
     private final List<String> executions = synchronizedList(new ArrayList<>());
 
+    /** Threads in which the items were processed. This is to verify that the right kind of threads is used. */
+    @NotNull private final Set<Thread> threads = ConcurrentHashMap.newKeySet();
+
+    /** Threads in which the items (keyed by name) were processed. */
+    @NotNull private final Map<String, Thread> itemProcessingThreads = new ConcurrentHashMap<>();
+
+    /** Threads in which the batches containing the items (keyed by name) were prepared. */
+    @NotNull private final Map<String, Thread> batchPreparationThreads = new ConcurrentHashMap<>();
+
+    /** Sizes of the batches prepared. */
+    @SuppressWarnings("unchecked")
+    private final List<Integer> preparedBatchSizes = synchronizedList(new ArrayList<>());
+
+    /** Numbers of worker threads planned for the buckets (if scaling is enabled), in the order of processing. */
+    @SuppressWarnings("unchecked")
+    private final List<Integer> workerThreadsPerBucket = synchronizedList(new ArrayList<>());
+
     /** This is to verify that realization start timestamps in workers are the same. */
     @NotNull private final Set<XMLGregorianCalendar> realizationStartTimestamps = new HashSet<>();
 
@@ -35,6 +53,43 @@ public class MockRecorder implements DebugDumpable {
         return executions;
     }
 
+    public void recordThread(Thread thread) {
+        threads.add(thread);
+    }
+
+    public @NotNull Collection<Thread> getThreads() {
+        return threads;
+    }
+
+    public void recordItemProcessingThread(String itemName, Thread thread) {
+        itemProcessingThreads.put(itemName, thread);
+    }
+
+    public @NotNull Map<String, Thread> getItemProcessingThreads() {
+        return itemProcessingThreads;
+    }
+
+    public void recordBatchPrepared(Collection<String> itemNames, Thread thread) {
+        itemNames.forEach(name -> batchPreparationThreads.put(name, thread));
+        preparedBatchSizes.add(itemNames.size());
+    }
+
+    public @NotNull Map<String, Thread> getBatchPreparationThreads() {
+        return batchPreparationThreads;
+    }
+
+    public List<Integer> getPreparedBatchSizes() {
+        return preparedBatchSizes;
+    }
+
+    public void recordWorkerThreadsForBucket(int value) {
+        workerThreadsPerBucket.add(value);
+    }
+
+    public List<Integer> getWorkerThreadsPerBucket() {
+        return workerThreadsPerBucket;
+    }
+
     public void recordRealizationStartTimestamp(XMLGregorianCalendar value) {
         realizationStartTimestamps.add(value);
     }
@@ -45,6 +100,11 @@ public class MockRecorder implements DebugDumpable {
 
     public void reset() {
         executions.clear();
+        threads.clear();
+        workerThreadsPerBucket.clear();
+        itemProcessingThreads.clear();
+        batchPreparationThreads.clear();
+        preparedBatchSizes.clear();
         realizationStartTimestamps.clear();
     }
 
@@ -53,6 +113,8 @@ public class MockRecorder implements DebugDumpable {
         StringBuilder sb = new StringBuilder();
         DebugUtil.debugDumpLabelLn(sb, "MockRecorder", indent);
         DebugUtil.debugDumpWithLabelLn(sb, "executions", executions, indent + 1);
+        DebugUtil.debugDumpWithLabelLn(sb, "worker threads per bucket", workerThreadsPerBucket, indent + 1);
+        DebugUtil.debugDumpWithLabelLn(sb, "prepared batch sizes", preparedBatchSizes, indent + 1);
         DebugUtil.debugDumpWithLabel(sb, "realization start timestamps", realizationStartTimestamps, indent + 1);
         return sb.toString();
     }
@@ -0,0 +1,38 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.repo.common.tasks.handlers.iterative;
+
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.repo.common.activity.run.PlainIterativeActivityRun;
+import com.evolveum.midpoint.repo.common.activity.run.processing.CorrelatableProcessingRequest;
+
+/**
+ * Mock request with a correlation value: requests with the same value must be processed in the order of items.
+ */
+class CorrelatedMockProcessingRequest extends IterativeMockProcessingRequest
+        implements CorrelatableProcessingRequest, Comparable<CorrelatedMockProcessingRequest> {
+
+    private final int correlationValue;
+
+    CorrelatedMockProcessingRequest(@NotNull Integer item, int correlationValue,
+            @NotNull PlainIterativeActivityRun<Integer, ?, ?, ?> activityRun) {
+        super(item, activityRun);
+        this.correlationValue = correlationValue;
+    }
+
+    @Override
+    public Object getCorrelationValue() {
+        return correlationValue;
+    }
+
+    @Override
+    public int compareTo(@NotNull CorrelatedMockProcessingRequest o) {
+        return Integer.compare(item, o.item);
+    }
+}
@@ -62,7 +62,9 @@ final class IterativeMockActivityRun
         Interval narrowed = NumericIntervalBucketUtil.getNarrowedInterval(bucket, workDef.getInterval());
 
         for (int item = narrowed.from; item < narrowed.to; item++) {
-            ItemProcessingRequest<Integer> request = new IterativeMockProcessingRequest(item, this);
+            ItemProcessingRequest<Integer> request = workDef.getCorrelationModulo() > 0 ?
+                    new CorrelatedMockProcessingRequest(item, item % workDef.getCorrelationModulo(), this) :
+                    new IterativeMockProcessingRequest(item, this);
             if (!coordinator.submit(request, result)) {
                 break;
             }
@@ -29,6 +29,7 @@ public class IterativeMockWorkDefinition extends AbstractWorkDefinition {
     private static final ItemName TO_NAME = new ItemName(NS_EXT, "to");
     private static final ItemName MESSAGE_NAME = new ItemName(NS_EXT, "message");
     private static final ItemName DELAY_NAME = new ItemName(NS_EXT, "delay");
+    private static final ItemName CORRELATION_MODULO_NAME = new ItemName(NS_EXT, "correlationModulo");
 
     static final QName WORK_DEFINITION_TYPE_QNAME = new QName(NS_EXT, "IterativeMockDefinitionType");
 
@@ -42,12 +43,16 @@ public class IterativeMockWorkDefinition extends AbstractWorkDefinition {
 
     private final long delay;
 
+    /** If non-zero, items are correlated by their value modulo this number (i.e. they must be processed in order). */
+    private final int correlationModulo;
+
     IterativeMockWorkDefinition(WorkDefinitionSource source) {
         PrismContainerValue<?> pcv = ((WorkDefinitionWrapper.UntypedWorkDefinitionWrapper) source).getUntypedDefinition();
         this.from = MoreObjects.firstNonNull(pcv.getPropertyRealValue(FROM_NAME, Integer.class), 0);
         this.to = MoreObjects.firstNonNull(pcv.getPropertyRealValue(TO_NAME, Integer.class), from);
         this.message = pcv.getPropertyRealValue(MESSAGE_NAME, String.class);
         this.delay = or0(pcv.getPropertyRealValue(DELAY_NAME, Long.class));
+        this.correlationModulo = or0(pcv.getPropertyRealValue(CORRELATION_MODULO_NAME, Integer.class));
     }
 
     public int getFrom() {
@@ -70,11 +75,16 @@ public class IterativeMockWorkDefinition extends AbstractWorkDefinition {
         return delay;
     }
 
+    public int getCorrelationModulo() {
+        return correlationModulo;
+    }
+
     @Override
     protected void debugDumpContent(StringBuilder sb, int indent) {
         DebugUtil.debugDumpWithLabelLn(sb, "from", from, indent+1);
         DebugUtil.debugDumpWithLabelLn(sb, "to", to, indent+1);
         DebugUtil.debugDumpWithLabelLn(sb, "message", message, indent+1);
         DebugUtil.debugDumpWithLabelLn(sb, "delay", delay, indent+1);
+        DebugUtil.debugDumpWithLabelLn(sb, "correlationModulo", correlationModulo, indent+1);
     }
 }
@@ -13,6 +13,7 @@ import com.evolveum.midpoint.prism.query.ObjectFilter;
 import com.evolveum.midpoint.repo.common.activity.run.ActivityReportingCharacteristics;
 import com.evolveum.midpoint.repo.common.activity.run.ActivityRunInstantiationContext;
 import com.evolveum.midpoint.repo.common.activity.run.processing.ItemProcessingRequest;
+import com.evolveum.midpoint.repo.common.activity.run.processing.WorkerThreadsScaler;
 import com.evolveum.midpoint.repo.common.activity.run.SearchBasedActivityRun;
 
 import com.evolveum.midpoint.schema.SchemaService;
@@ -23,6 +24,9 @@ import com.evolveum.midpoint.util.exception.ThresholdPolicyViolationException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.AbstractActivityWorkStateType;
 import com.evolveum.prism.xml.ns._public.query_3.SearchFilterType;
 
+import java.util.List;
+import java.util.stream.Collectors;
+
 import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.prism.delta.ChangeType;
@@ -66,6 +70,14 @@ final class SearchBasedMockActivityRun
                 activityState.getRealizationStartTimestamp());
     }
 
+    @Override
+    public void beforeBucketProcessing(OperationResult result) {
+        WorkerThreadsScaler scaler = getWorkerThreadsScaler();
+        if (scaler != null) {
+            getRecorder().recordWorkerThreadsForBucket(scaler.getThreads());
+        }
+    }
+
     @Override
     public boolean processItem(@NotNull ObjectType object,
             @NotNull ItemProcessingRequest<ObjectType> request, RunningTask workerTask, OperationResult result)
@@ -74,6 +86,8 @@ final class SearchBasedMockActivityRun
         String message = emptyIfNull(getWorkDefinition().getMessage()) + object.getName().getOrig();
         LOGGER.info("Message: {}", message);
         getRecorder().recordExecution(message);
+        getRecorder().recordThread(Thread.currentThread());
+        getRecorder().recordItemProcessingThread(object.getName().getOrig(), Thread.currentThread());
 
         checkFailOn(object);
         checkFreezeIfScavenger();
@@ -82,6 +96,17 @@ final class SearchBasedMockActivityRun
         return true;
     }
 
+    /** Records the batch, so that the tests can check the batches are prepared and then processed by the same thread. */
+    @Override
+    public void prepareItemBatch(@NotNull List<ItemProcessingRequest<ObjectType>> requests, @NotNull RunningTask workerTask,
+            OperationResult result) {
+        getRecorder().recordBatchPrepared(
+                requests.stream()
+                        .map(request -> request.getItem().getName().getOrig())
+                        .collect(Collectors.toList()),
+                Thread.currentThread());
+    }
+
     private void checkFreezeIfScavenger() {
         if (!getWorkDefinition().isFreezeIfScavenger()) {
             return;
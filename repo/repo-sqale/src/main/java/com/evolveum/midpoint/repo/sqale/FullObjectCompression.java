@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.util.exception.SystemException;
+
+/**
+ * Storage format of serialized form in `fullObject` (and similar) BYTEA columns.
+ *
+ * Values not stored as {@link #NONE} start with a header byte, followed by the length
+ * of the uncompressed serialized form (4 bytes, big endian) and the compressed data.
+ * Header byte values are control characters that can't start any supported serialization
+ * language (JSON, XML, YAML), so the format of each stored value is detected when reading.
+ * This allows to change the format in the configuration at any time and to convert old rows
+ * later (or not at all).
+ */
+public enum FullObjectCompression {
+
+    /** Plain UTF-8 serialized form without any header, also used for all the values stored before. */
+    NONE("none", (byte) 0),
+
+    /**
+     * Deflate compressed UTF-8 serialized form.
+     * Fastest compression level is used, because the serialized form is very repetitive
+     * and better levels cost a lot more CPU for just a little better ratio.
+     */
+    DEFLATE("deflate", (byte) 0x01);
+
+    private static final int HEADER_SIZE = 5; // header byte + int length of uncompressed data
+
+    private final String value;
+    private final byte header;
+
+    FullObjectCompression(String value, byte header) {
+        this.value = value;
+        this.header = header;
+    }
+
+    public String value() {
+        return value;
+    }
+
+    /** Returns compression for configuration value, null or empty value means {@link #NONE}. */
+    public static @NotNull FullObjectCompression fromValue(@Nullable String value) {
+        if (value == null || value.isEmpty()) {
+            return NONE;
+        }
+        for (FullObjectCompression compression : values()) {
+            if (compression.value.equalsIgnoreCase(value)) {
+                return compression;
+            }
+        }
+        throw new IllegalArgumentException("Unknown full object compression: " + value);
+    }
+
+    /** Detects the format of the stored value. */
+    public static @NotNull FullObjectCompression detect(@NotNull byte[] storedValue) {
+        if (storedValue.length >= HEADER_SIZE && storedValue[0] == DEFLATE.header) {
+            return DEFLATE;
+        }
+        return NONE;
+    }
+
+    /** Creates value for storing from the serialized form using this compression. */
+    public byte[] encode(@NotNull String serializedForm) {
+        byte[] data = serializedForm.getBytes(StandardCharsets.UTF_8);
+        if (this == NONE) {
+            return data;
+        }
+
+        Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data);
+            deflater.finish();
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 4 + HEADER_SIZE);
+            out.write(header);
+            out.writeBytes(ByteBuffer.allocate(4).putInt(data.length).array());
+            byte[] buffer = new byte[8192];
+            while (!deflater.finished()) {
+                int count = deflater.deflate(buffer);
+                out.write(buffer, 0, count);
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    /** Returns serialized form from the stored value, detecting its format. */
+    public static @Nullable String decode(@Nullable byte[] storedValue) {
+        if (storedValue == null) {
+            return null;
+        }
+
+        if (detect(storedValue) == NONE) {
+            return new String(storedValue, StandardCharsets.UTF_8);
+        }
+
+        int length = ByteBuffer.wrap(storedValue, 1, 4).getInt();
+        if (length < 0) {
+            throw new SystemException("Invalid length of compressed full object: " + length);
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(storedValue, HEADER_SIZE, storedValue.length - HEADER_SIZE);
+            byte[] data = new byte[length];
+            int position = 0;
+            while (position < length && !inflater.finished()) {
+                int count = inflater.inflate(data, position, length - position);
+                if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                position += count;
+            }
+            if (position != length) {
+                throw new SystemException("Compressed full object is truncated, expected "
+                        + length + " bytes, got " + position);
+            }
+            return new String(data, StandardCharsets.UTF_8);
+        } catch (DataFormatException e) {
+            throw new SystemException("Couldn't decompress full object: " + e.getMessage(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
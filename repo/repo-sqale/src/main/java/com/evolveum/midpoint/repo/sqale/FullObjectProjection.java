@@ -0,0 +1,209 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale;
+
+import java.io.IOException;
+import java.util.*;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.path.ItemName;
+import com.evolveum.midpoint.prism.path.ItemPath;
+import com.evolveum.midpoint.schema.GetOperationOptions;
+import com.evolveum.midpoint.schema.RetrieveOption;
+import com.evolveum.midpoint.schema.SelectorOptions;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Removes top-level items excluded by {@link GetOperationOptions#getRetrieve()} options
+ * from the serialized form *before* it is parsed by Prism.
+ * Prism parsing is by far the most expensive part of reading the object and big multi-value
+ * items (like `assignment` or `operationExecution`) are often not needed at all by the caller.
+ *
+ * Only JSON serialized form is supported, other forms are returned unchanged and parsed fully.
+ * The JSON is only tokenized (string values are not even decoded) and the excluded items
+ * are cut out of the original text, so this is much cheaper than parsing the excluded items.
+ * Only single-segment paths (top-level items of the object) are supported, because excluding
+ * deeper items would not save that much and nested items may be qualified in many ways.
+ *
+ * Excluded items are simply missing in the returned object.
+ * As the object is not complete, it must not be cached, but repository cache does not
+ * cache objects read with non-root options anyway.
+ * For the same reason, objects read for modification must not be projected,
+ * see {@link #withoutExcludedItems}.
+ */
+public class FullObjectProjection {
+
+    private static final Trace LOGGER = TraceManager.getTrace(FullObjectProjection.class);
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final Set<String> excludedItems;
+
+    private FullObjectProjection(Set<String> excludedItems) {
+        this.excludedItems = excludedItems;
+    }
+
+    /**
+     * Returns projection for the provided options or null, if no top-level item is excluded.
+     * Items that are always stored outside the full object (e.g. photo) can be ignored, these
+     * are not in the serialized form at all.
+     */
+    public static @Nullable FullObjectProjection fromOptions(
+            @Nullable Collection<SelectorOptions<GetOperationOptions>> options) {
+        if (options == null || options.isEmpty()) {
+            return null;
+        }
+
+        Set<String> excludedItems = new HashSet<>();
+        for (SelectorOptions<GetOperationOptions> option : options) {
+            if (!isItemExclusion(option)) {
+                continue;
+            }
+            ItemPath path = option.getItemPath(null);
+            if (path != null && path.size() == 1 && path.startsWithName()) {
+                ItemName itemName = path.firstToName();
+                excludedItems.add(itemName.getLocalPart());
+            }
+        }
+        return excludedItems.isEmpty() ? null : new FullObjectProjection(excludedItems);
+    }
+
+    /**
+     * Returns options without item exclusions, or the provided options if there is nothing to remove.
+     * Objects read for modification must always be complete, because their full object is written back.
+     */
+    public static @Nullable Collection<SelectorOptions<GetOperationOptions>> withoutExcludedItems(
+            @Nullable Collection<SelectorOptions<GetOperationOptions>> options) {
+        if (options == null || options.stream().noneMatch(FullObjectProjection::isItemExclusion)) {
+            return options;
+        }
+
+        List<SelectorOptions<GetOperationOptions>> result = new ArrayList<>();
+        for (SelectorOptions<GetOperationOptions> option : options) {
+            if (isItemExclusion(option)) {
+                GetOperationOptions getOptions = option.getOptions().clone();
+                getOptions.setRetrieve(null);
+                result.add(new SelectorOptions<>(option.getSelector(), getOptions));
+            } else {
+                result.add(option);
+            }
+        }
+        return result;
+    }
+
+    private static boolean isItemExclusion(SelectorOptions<GetOperationOptions> option) {
+        return !option.isRoot()
+                && option.getOptions() != null
+                && option.getOptions().getRetrieve() == RetrieveOption.EXCLUDE;
+    }
+
+    public @NotNull Set<String> getExcludedItems() {
+        return Collections.unmodifiableSet(excludedItems);
+    }
+
+    /**
+     * Returns serialized form without the excluded items.
+     * If the form is not JSON or it can't be tokenized, it is returned unchanged and Prism
+     * will parse it (and report any problems) as usual.
+     */
+    public @NotNull String apply(@NotNull String serializedForm) {
+        if (!serializedForm.startsWith("{")) {
+            return serializedForm;
+        }
+
+        List<int[]> cuts = new ArrayList<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(serializedForm)) {
+            parser.nextToken(); // START_OBJECT of the whole document
+            boolean rootFound = false;
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken valueToken = parser.nextToken();
+                if (!rootFound && !name.startsWith("@") && valueToken == JsonToken.START_OBJECT) {
+                    // this is the object itself, e.g. "user": {...}
+                    rootFound = true;
+                    collectCuts(parser, serializedForm, cuts);
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            LOGGER.debug("Couldn't apply projection to the serialized form, it will be parsed fully: {}",
+                    e.toString());
+            return serializedForm;
+        }
+
+        if (cuts.isEmpty()) {
+            return serializedForm;
+        }
+
+        StringBuilder sb = new StringBuilder(serializedForm.length());
+        int position = 0;
+        for (int[] cut : cuts) {
+            if (cut[0] > position) {
+                sb.append(serializedForm, position, cut[0]);
+            }
+            position = Math.max(position, cut[1]);
+        }
+        sb.append(serializedForm, position, serializedForm.length());
+        return sb.toString();
+    }
+
+    /**
+     * Collects char ranges of excluded fields of the object the parser is at.
+     * Each cut includes field name, value and the separating comma.
+     */
+    private void collectCuts(JsonParser parser, String serializedForm, List<int[]> cuts)
+            throws IOException {
+        JsonToken token = parser.nextToken();
+        while (token == JsonToken.FIELD_NAME) {
+            int fieldStart = tokenStart(parser);
+            boolean excluded = excludedItems.contains(localPart(parser.getCurrentName()));
+            parser.nextToken();
+            parser.skipChildren();
+            token = parser.nextToken();
+            if (!excluded) {
+                continue;
+            }
+
+            int nextStart = tokenStart(parser);
+            if (token == JsonToken.FIELD_NAME) {
+                // the following comma goes away with the field
+                cuts.add(new int[] { fieldStart, nextStart });
+            } else {
+                // last field, the preceding comma (if any) goes away with it
+                int commaIndex = fieldStart - 1;
+                while (commaIndex >= 0 && Character.isWhitespace(serializedForm.charAt(commaIndex))) {
+                    commaIndex--;
+                }
+                cuts.add(new int[] {
+                        commaIndex >= 0 && serializedForm.charAt(commaIndex) == ',' ? commaIndex : fieldStart,
+                        nextStart });
+            }
+        }
+    }
+
+    private int tokenStart(JsonParser parser) {
+        return (int) parser.getTokenLocation().getCharOffset();
+    }
+
+    /** Field names may be qualified by prefix or namespace URI, we only care about local part. */
+    private String localPart(String name) {
+        int index = Math.max(name.lastIndexOf('#'), name.lastIndexOf(':'));
+        return index >= 0 ? name.substring(index + 1) : name;
+    }
+
+    @Override
+    public String toString() {
+        return "FullObjectProjection{excludedItems=" + excludedItems + '}';
+    }
+}
@@ -0,0 +1,294 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.querydsl.core.Tuple;
+import org.jetbrains.annotations.NotNull;
+
+import com.evolveum.midpoint.CacheInvalidationContext;
+import com.evolveum.midpoint.repo.api.Cache;
+import com.evolveum.midpoint.repo.sqale.qmodel.object.MObjectType;
+import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrg;
+import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrgClosure;
+import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrgMapping;
+import com.evolveum.midpoint.repo.sqale.qmodel.ref.QObjectReference;
+import com.evolveum.midpoint.repo.sqale.qmodel.ref.QObjectReferenceMapping;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.SingleCacheStateInformationType;
+
+/**
+ * Node-local in-memory index of the org hierarchy used for ancestry checks like
+ * {@link SqaleRepositoryService#isDescendant} and {@link SqaleRepositoryService#isAncestor}.
+ * These are called very often by authorization and assignment evaluation and each call
+ * would be a database round-trip otherwise.
+ *
+ * The index is built lazily from `m_org` and org-owned rows of `m_ref_object_parent_org`
+ * and it has the same semantics as `m_org_closure` table, including the identity rows
+ * for all existing orgs and ignoring parent refs to non-existent orgs.
+ * Orgs are numbered and for each org a sorted array of its ancestor numbers is precomputed,
+ * so the check is a hash lookup followed by a binary search.
+ * Sorted arrays are used instead of bitsets, because the bitsets would take quadratic memory
+ * for big flat hierarchies, while the arrays are never bigger than the closure itself.
+ *
+ * The index is dropped when the repository service on this node adds or deletes an org
+ * or changes parent org refs of an org; other changes of orgs do not affect the hierarchy.
+ * Invalidations of {@link OrgType} coming from other nodes through the cache dispatcher drop it too,
+ * because these do not tell what was changed.
+ * Version counter prevents storing the index that was being built while invalidated.
+ *
+ * The index is rebuilt lazily by the first thread that needs it, without any lock.
+ * Other threads do not wait for the build, they use `m_org_closure` table in the meantime.
+ */
+public class OrgHierarchyIndex implements Cache {
+
+    private static final Trace LOGGER = TraceManager.getTrace(OrgHierarchyIndex.class);
+    private static final Trace LOGGER_CONTENT =
+            TraceManager.getTrace(OrgHierarchyIndex.class.getName() + ".content");
+
+    private static final int[] NO_ANCESTORS = new int[0];
+
+    private final SqaleRepoContext repositoryContext;
+
+    /** Incremented with each invalidation, the index is stored only if unchanged during build. */
+    private final AtomicLong version = new AtomicLong();
+
+    /** Current index, null if not built yet or invalidated. */
+    private volatile Snapshot snapshot;
+
+    /** True while some thread builds the index. */
+    private final AtomicBoolean building = new AtomicBoolean();
+
+    public OrgHierarchyIndex(SqaleRepoContext repositoryContext) {
+        this.repositoryContext = repositoryContext;
+    }
+
+    /**
+     * Returns true if ancestor org is the same as descendant org or its (even indirect) parent.
+     * Both OIDs must belong to existing orgs, otherwise false is returned.
+     * This is equivalent to the existence of the row in `m_org_closure` table.
+     */
+    public boolean isAncestorOrSelf(@NotNull UUID ancestorOid, @NotNull UUID descendantOid) {
+        return isAncestorOrSelfOfAny(ancestorOid, List.of(descendantOid));
+    }
+
+    /** Returns true if {@link #isAncestorOrSelf} is true for any of provided descendants. */
+    public boolean isAncestorOrSelfOfAny(
+            @NotNull UUID ancestorOid, @NotNull Collection<UUID> descendantOids) {
+        Snapshot current = snapshot();
+        if (current == null) {
+            return isAncestorOrSelfOfAnyInClosure(ancestorOid, descendantOids);
+        }
+        for (UUID descendantOid : descendantOids) {
+            if (current.isAncestorOrSelf(ancestorOid, descendantOid)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Drops the index, it is rebuilt on the next use. */
+    public void invalidate() {
+        version.incrementAndGet();
+        snapshot = null;
+    }
+
+    /**
+     * Changes of single orgs done on this node are handled by the repository service directly,
+     * which knows whether the hierarchy was changed, so only invalidations from other nodes
+     * and global ones (without OID) are processed here.
+     */
+    @Override
+    public void invalidate(Class<?> type, String oid, CacheInvalidationContext context) {
+        if (type != null && !type.isAssignableFrom(OrgType.class)) {
+            return;
+        }
+        if (oid != null && context != null && !context.isFromRemoteNode()) {
+            return;
+        }
+        invalidate();
+    }
+
+    /** Returns the index, building it if necessary, or null if it is being built by another thread. */
+    private Snapshot snapshot() {
+        Snapshot current = snapshot;
+        if (current != null || !building.compareAndSet(false, true)) {
+            return current;
+        }
+
+        try {
+            current = snapshot;
+            if (current != null) {
+                return current;
+            }
+
+            long buildVersion = version.get();
+            current = build();
+            snapshot = current;
+            // If invalidated during the build, the snapshot may be stale and it's dropped again.
+            // Invalidation after this check drops it by itself.
+            if (version.get() != buildVersion) {
+                snapshot = null;
+                LOGGER.debug("Org hierarchy index was invalidated while built, it is used only once");
+            }
+            return current;
+        } finally {
+            building.set(false);
+        }
+    }
+
+    private boolean isAncestorOrSelfOfAnyInClosure(UUID ancestorOid, Collection<UUID> descendantOids) {
+        try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startReadOnlyTransaction()) {
+            QOrgClosure oc = new QOrgClosure();
+            return jdbcSession.newQuery()
+                    .select(oc.ancestorOid)
+                    .from(oc)
+                    .where(oc.ancestorOid.eq(ancestorOid)
+                            .and(oc.descendantOid.in(descendantOids)))
+                    .fetchFirst() != null;
+        }
+    }
+
+    private Snapshot build() {
+        long startMs = System.currentTimeMillis();
+        List<UUID> orgOids;
+        List<Tuple> edges;
+        try (JdbcSession jdbcSession = repositoryContext.newJdbcSession().startReadOnlyTransaction()) {
+            QOrg o = QOrgMapping.getOrgMapping().defaultAlias();
+            orgOids = jdbcSession.newQuery()
+                    .select(o.oid)
+                    .from(o)
+                    .fetch();
+            QObjectReference<?> ref = QObjectReferenceMapping.getForParentOrg().defaultAlias();
+            edges = jdbcSession.newQuery()
+                    .select(ref.ownerOid, ref.targetOid)
+                    .from(ref)
+                    .where(ref.ownerType.eq(MObjectType.ORG))
+                    .fetch();
+            jdbcSession.commit();
+        }
+
+        Snapshot result = new Snapshot(orgOids, edges);
+        LOGGER.debug("Org hierarchy index built in {} ms: {} orgs, {} parent refs",
+                System.currentTimeMillis() - startMs, orgOids.size(), edges.size());
+        return result;
+    }
+
+    @Override
+    public @NotNull Collection<SingleCacheStateInformationType> getStateInformation() {
+        Snapshot current = snapshot;
+        return Collections.singleton(new SingleCacheStateInformationType()
+                .name(OrgHierarchyIndex.class.getName())
+                .size(current != null ? current.indexByOid.size() : 0));
+    }
+
+    @Override
+    public void dumpContent() {
+        Snapshot current = snapshot;
+        if (current != null && LOGGER_CONTENT.isInfoEnabled()) {
+            for (Map.Entry<UUID, Integer> entry : current.indexByOid.entrySet()) {
+                LOGGER_CONTENT.info("Org {} has {} ancestors",
+                        entry.getKey(), current.ancestors[entry.getValue()].length);
+            }
+        }
+    }
+
+    /** Immutable index built from the org hierarchy at some point in time. */
+    private static class Snapshot {
+
+        private final Map<UUID, Integer> indexByOid;
+
+        /** Sorted indexes of all ancestors (not including the org itself) for each org index. */
+        private final int[][] ancestors;
+
+        Snapshot(List<UUID> orgOids, List<Tuple> edges) {
+            int size = orgOids.size();
+            indexByOid = new HashMap<>(size * 4 / 3 + 1);
+            for (UUID orgOid : orgOids) {
+                indexByOid.put(orgOid, indexByOid.size());
+            }
+
+            int[][] parents = collectParents(edges, size);
+            ancestors = new int[size][];
+            // Marks nodes visited for the current org, stamp avoids clearing the array each time.
+            int[] visitedStamp = new int[size];
+            int[] queue = new int[size];
+            for (int org = 0; org < size; org++) {
+                int stamp = org + 1;
+                visitedStamp[org] = stamp;
+                int queueEnd = 0;
+                for (int parent : parents[org]) {
+                    if (visitedStamp[parent] != stamp) {
+                        visitedStamp[parent] = stamp;
+                        queue[queueEnd++] = parent;
+                    }
+                }
+                // Breadth-first walk up the hierarchy, works for cycles and multiple parents too.
+                for (int i = 0; i < queueEnd; i++) {
+                    for (int parent : parents[queue[i]]) {
+                        if (visitedStamp[parent] != stamp) {
+                            visitedStamp[parent] = stamp;
+                            queue[queueEnd++] = parent;
+                        }
+                    }
+                }
+                if (queueEnd == 0) {
+                    ancestors[org] = NO_ANCESTORS;
+                } else {
+                    int[] orgAncestors = Arrays.copyOf(queue, queueEnd);
+                    Arrays.sort(orgAncestors);
+                    ancestors[org] = orgAncestors;
+                }
+            }
+        }
+
+        private int[][] collectParents(List<Tuple> edges, int size) {
+            int[] parentCounts = new int[size];
+            int[] childIndexes = new int[edges.size()];
+            int[] parentIndexes = new int[edges.size()];
+            int edgeCount = 0;
+            for (Tuple edge : edges) {
+                Integer child = indexByOid.get(edge.get(0, UUID.class));
+                Integer parent = indexByOid.get(edge.get(1, UUID.class));
+                // refs to non-existent orgs are ignored, just like in m_org_closure
+                if (child != null && parent != null && !child.equals(parent)) {
+                    childIndexes[edgeCount] = child;
+                    parentIndexes[edgeCount] = parent;
+                    parentCounts[child]++;
+                    edgeCount++;
+                }
+            }
+
+            int[][] parents = new int[size][];
+            for (int org = 0; org < size; org++) {
+                parents[org] = parentCounts[org] == 0 ? NO_ANCESTORS : new int[parentCounts[org]];
+                parentCounts[org] = 0; // reused as fill position below
+            }
+            for (int i = 0; i < edgeCount; i++) {
+                int child = childIndexes[i];
+                parents[child][parentCounts[child]++] = parentIndexes[i];
+            }
+            return parents;
+        }
+
+        boolean isAncestorOrSelf(UUID ancestorOid, UUID descendantOid) {
+            Integer ancestor = indexByOid.get(ancestorOid);
+            Integer descendant = indexByOid.get(descendantOid);
+            if (ancestor == null || descendant == null) {
+                return false;
+            }
+            return ancestor.equals(descendant)
+                    || Arrays.binarySearch(ancestors[descendant], ancestor) >= 0;
+        }
+    }
+}
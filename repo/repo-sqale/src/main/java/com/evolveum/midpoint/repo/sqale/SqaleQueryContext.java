@@ -36,12 +36,6 @@ import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 public class SqaleQueryContext<S, Q extends FlexibleRelationalPathBase<R>, R>
         extends SqlQueryContext<S, Q, R> {
 
-    /**
-     * Flag guarding whether we need to refresh organization closure before executing
-     * the actual query.
-     */
-    private boolean containsOrgFilter = false;
-
     /**
      * Enables {@link #loadObject} method that is used to fetch additional objects,
      * e.g. container owners (parents) or references targets.
@@ -141,14 +135,6 @@ public class SqaleQueryContext<S, Q extends FlexibleRelationalPathBase<R>, R>
         return repositoryContext().searchCachedRelationId(qName);
     }
 
-    public void markContainsOrgFilter() {
-        containsOrgFilter = true;
-        SqaleQueryContext<?, ?, ?> parentContext = parentContext();
-        if (parentContext != null) {
-            parentContext.markContainsOrgFilter();
-        }
-    }
-
     /** Returns derived {@link SqaleQueryContext} for JOIN. */
     @Override
     protected <TS, TQ extends FlexibleRelationalPathBase<TR>, TR> SqlQueryContext<TS, TQ, TR>
@@ -188,16 +174,6 @@ public class SqaleQueryContext<S, Q extends FlexibleRelationalPathBase<R>, R>
         return (SqaleQueryContext<?, ?, ?>) super.parentContext();
     }
 
-    @Override
-    public void beforeQuery() {
-        if (containsOrgFilter) {
-            try (JdbcSession jdbcSession = repositoryContext().newJdbcSession().startTransaction()) {
-                jdbcSession.executeStatement("CALL m_refresh_org_closure()");
-                jdbcSession.commit();
-            }
-        }
-    }
-
     @Override
     public QueryModelMapping<S, Q, R> queryMapping() {
         return queryMapping;
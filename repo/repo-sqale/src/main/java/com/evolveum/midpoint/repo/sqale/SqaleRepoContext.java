@@ -93,6 +93,7 @@ public class SqaleRepoContext extends SqlRepoContext {
         querydslConfig.register(new EnumAsObjectType<>(TaskWaitingReasonType.class));
         querydslConfig.register(new EnumAsObjectType<>(ThreadStopActionType.class));
         querydslConfig.register(new EnumAsObjectType<>(TimeIntervalStatusType.class));
+        querydslConfig.register(new EnumAsObjectType<>(WorkBucketStateType.class));
 
         // JSONB type support
         querydslConfig.register(new QuerydslJsonbType());
@@ -192,6 +193,16 @@ public class SqaleRepoContext extends SqlRepoContext {
                 fullTextSearchConfig, prismObject.getCompileTimeClass(), modifications);
     }
 
+    /**
+     * Returns stored form of fullObject for the provided serialized form,
+     * compressed as configured by {@link SqaleRepositoryConfiguration#getFullObjectCompression()}.
+     */
+    public byte[] toStoredFullObject(@NotNull String serializedForm) {
+        return ((SqaleRepositoryConfiguration) getJdbcRepositoryConfiguration())
+                .getFullObjectCompression()
+                .encode(serializedForm);
+    }
+
     public byte[] createFullResult(OperationResultType operationResult) {
         try {
             // Note that escaping invalid characters and using toString for unsupported types
@@ -203,6 +203,15 @@ public class SqaleRepositoryBeanConfig {
                 sqlPerformanceMonitorsCollection);
     }
 
+    @Bean
+    public SqaleWorkBucketStore workBucketStore(
+            SqaleRepoContext sqlRepoContext,
+            SqlPerformanceMonitorsCollection sqlPerformanceMonitorsCollection) {
+        return new SqaleWorkBucketStore(
+                sqlRepoContext,
+                sqlPerformanceMonitorsCollection);
+    }
+
     @Bean
     public AuditServiceFactory sqlAuditServiceFactory(
             SqaleRepositoryConfiguration sqaleRepositoryConfiguration,
@@ -30,6 +30,12 @@ import com.evolveum.midpoint.util.exception.SystemException;
 public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration {
 
     private static final String PROPERTY_SQL_DURATION_WARNING_MS = "sqlDurationWarningMs";
+    private static final String PROPERTY_BATCH_OPERATION_SIZE = "batchOperationSize";
+    private static final String PROPERTY_ITERATIVE_SEARCH_BY_CURSOR = "iterativeSearchByCursor";
+    private static final String PROPERTY_ITERATIVE_SEARCH_BY_CURSOR_FETCHERS = "iterativeSearchByCursorFetchers";
+    private static final String PROPERTY_FULL_OBJECT_COMPRESSION = "fullObjectCompression";
+    private static final String PROPERTY_ORG_HIERARCHY_INDEX = "orgHierarchyIndex";
+    private static final String PROPERTY_WORK_BUCKET_TABLE = "workBucketTable";
 
     private static final String DEFAULT_DRIVER = "org.postgresql.Driver";
     private static final SupportedDatabase DEFAULT_DATABASE = SupportedDatabase.POSTGRESQL;
@@ -59,8 +65,17 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
 
     private static final int DEFAULT_ITERATIVE_SEARCH_PAGE_SIZE = 100;
 
+    /**
+     * Each fetcher thread holds a connection for the whole iteration, so this should stay
+     * well under the max pool size.
+     */
+    private static final int DEFAULT_ITERATIVE_SEARCH_BY_CURSOR_FETCHERS = 4;
+
     private static final int DEFAULT_SQL_DURATION_WARNING_MS = 0; // 0 or less means no warning
 
+    /** Max number of objects added/modified in a single transaction by batch operations. */
+    private static final int DEFAULT_BATCH_OPERATION_SIZE = 100;
+
     @NotNull private final Configuration configuration;
 
     // either dataSource or JDBC URL must be set
@@ -80,15 +95,22 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
     private Long leakDetectionThreshold;
 
     private String fullObjectFormat;
+    private FullObjectCompression fullObjectCompression;
 
     private String performanceStatisticsFile;
     private int performanceStatisticsLevel;
 
     private int iterativeSearchByPagingBatchSize;
+    private boolean iterativeSearchByCursor;
+    private int iterativeSearchByCursorFetchers;
     private boolean createMissingCustomColumns;
+    private boolean orgHierarchyIndex;
+    private boolean workBucketTable;
 
     private long sqlDurationWarningMs; // 0 or less means no warning
 
+    private int batchOperationSize;
+
     // Provided with configuration node "midpoint.repository".
     public SqaleRepositoryConfiguration(@NotNull Configuration configuration) {
         this.configuration = configuration;
@@ -130,6 +152,8 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
 
         fullObjectFormat = configuration.getString(PROPERTY_FULL_OBJECT_FORMAT, DEFAULT_FULL_OBJECT_FORMAT)
                 .toLowerCase(); // all language string constants are lower-cases
+        fullObjectCompression = FullObjectCompression.fromValue(
+                configuration.getString(PROPERTY_FULL_OBJECT_COMPRESSION, null));
 
         performanceStatisticsFile = configuration.getString(PROPERTY_PERFORMANCE_STATISTICS_FILE);
         performanceStatisticsLevel = configuration.getInt(PROPERTY_PERFORMANCE_STATISTICS_LEVEL,
@@ -137,12 +161,21 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
 
         iterativeSearchByPagingBatchSize = configuration.getInt(
                 PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, DEFAULT_ITERATIVE_SEARCH_PAGE_SIZE);
+        iterativeSearchByCursor =
+                configuration.getBoolean(PROPERTY_ITERATIVE_SEARCH_BY_CURSOR, false);
+        iterativeSearchByCursorFetchers = Math.max(0, configuration.getInt(
+                PROPERTY_ITERATIVE_SEARCH_BY_CURSOR_FETCHERS, DEFAULT_ITERATIVE_SEARCH_BY_CURSOR_FETCHERS));
         createMissingCustomColumns =
                 configuration.getBoolean(PROPERTY_CREATE_MISSING_CUSTOM_COLUMNS, false);
+        orgHierarchyIndex = configuration.getBoolean(PROPERTY_ORG_HIERARCHY_INDEX, true);
+        workBucketTable = configuration.getBoolean(PROPERTY_WORK_BUCKET_TABLE, false);
 
         sqlDurationWarningMs = configuration.getLong(
                 PROPERTY_SQL_DURATION_WARNING_MS, DEFAULT_SQL_DURATION_WARNING_MS);
 
+        batchOperationSize = Math.max(1,
+                configuration.getInt(PROPERTY_BATCH_OPERATION_SIZE, DEFAULT_BATCH_OPERATION_SIZE));
+
         validateConfiguration();
     }
 
@@ -214,6 +247,19 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
         return fullObjectFormat;
     }
 
+    /**
+     * Returns compression used for writing fullObject, {@link FullObjectCompression#NONE} by default.
+     * Reading detects the format of each stored value, so this can be changed at any time.
+     */
+    public @NotNull FullObjectCompression getFullObjectCompression() {
+        return fullObjectCompression;
+    }
+
+    // exists because of testing
+    public void setFullObjectCompression(@NotNull FullObjectCompression fullObjectCompression) {
+        this.fullObjectCompression = fullObjectCompression;
+    }
+
     @Override
     public boolean isEmbedded() {
         return false;
@@ -296,11 +342,63 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
         this.iterativeSearchByPagingBatchSize = iterativeSearchByPagingBatchSize;
     }
 
+    /**
+     * Returns true if iterative search should use server-side cursor in a single transaction
+     * by default, instead of paging by OID (or other provided ordering).
+     * This can be overridden for each search by `iterationMethod` get option.
+     * The cursor holds the transaction open for the whole iteration, so paging is still better
+     * for searches with very long processing of each object.
+     */
+    public boolean isIterativeSearchByCursor() {
+        return iterativeSearchByCursor;
+    }
+
+    // exists because of testing
+    public void setIterativeSearchByCursor(boolean iterativeSearchByCursor) {
+        this.iterativeSearchByCursor = iterativeSearchByCursor;
+    }
+
+    /**
+     * Returns max number of background threads fetching and parsing the rows for iterative searches
+     * by cursor, see {@link com.evolveum.midpoint.repo.sqlbase.SqlQueryExecutor#iterate}.
+     * When all of them are busy (or with 0), the search fetches the rows in the calling thread.
+     */
+    public int getIterativeSearchByCursorFetchers() {
+        return iterativeSearchByCursorFetchers;
+    }
+
     @Override
     public boolean isCreateMissingCustomColumns() {
         return createMissingCustomColumns;
     }
 
+    /**
+     * Returns true if org ancestry checks like {@link SqaleRepositoryService#isDescendant}
+     * use in-memory {@link OrgHierarchyIndex} instead of querying `m_org_closure` table.
+     */
+    public boolean isOrgHierarchyIndex() {
+        return orgHierarchyIndex;
+    }
+
+    // exists because of testing
+    public void setOrgHierarchyIndex(boolean orgHierarchyIndex) {
+        this.orgHierarchyIndex = orgHierarchyIndex;
+    }
+
+    /**
+     * Returns true if work buckets of distributed activities are stored in `m_work_bucket` table
+     * by {@link SqaleWorkBucketStore} instead of the coordinator task.
+     * This must be the same on all nodes and should not be changed while bucketed activities are running.
+     */
+    public boolean isWorkBucketTable() {
+        return workBucketTable;
+    }
+
+    // exists because of testing
+    public void setWorkBucketTable(boolean workBucketTable) {
+        this.workBucketTable = workBucketTable;
+    }
+
     /**
      * Returns threshold duration for SQL, after which it should be logged on warning level.
      * Value of 0 or less means that this warning is disabled.
@@ -309,6 +407,19 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
         return sqlDurationWarningMs;
     }
 
+    /**
+     * Returns max number of objects processed in a single transaction by batch operations
+     * like {@link SqaleRepositoryService#addObjects}.
+     */
+    public int getBatchOperationSize() {
+        return batchOperationSize;
+    }
+
+    // exists because of testing
+    public void setBatchOperationSize(int batchOperationSize) {
+        this.batchOperationSize = batchOperationSize;
+    }
+
     /**
      * Creates a copy of provided configuration for audit and applies override from config.xml.
      * This is used when the same data source is used by audit and repository.
@@ -319,6 +430,8 @@ public class SqaleRepositoryConfiguration implements JdbcRepositoryConfiguration
         config.fullObjectFormat =
                 auditConfig.getString(PROPERTY_FULL_OBJECT_FORMAT, mainRepoConfig.fullObjectFormat)
                         .toLowerCase();
+        config.fullObjectCompression = FullObjectCompression.fromValue(auditConfig.getString(
+                PROPERTY_FULL_OBJECT_COMPRESSION, mainRepoConfig.fullObjectCompression.value()));
         config.iterativeSearchByPagingBatchSize = auditConfig.getInt(
                 PROPERTY_ITERATIVE_SEARCH_BY_PAGING_BATCH_SIZE, mainRepoConfig.iterativeSearchByPagingBatchSize);
         config.createMissingCustomColumns = auditConfig.getBoolean(
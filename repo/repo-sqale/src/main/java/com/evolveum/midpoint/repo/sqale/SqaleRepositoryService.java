@@ -8,14 +8,16 @@ package com.evolveum.midpoint.repo.sqale;
 
 import static org.apache.commons.lang3.ObjectUtils.defaultIfNull;
 
-import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
 import java.sql.Driver;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.util.*;
 import java.util.function.Consumer;
+import java.util.function.IntFunction;
 import java.util.stream.Collectors;
+import javax.annotation.PostConstruct;
 import javax.xml.namespace.QName;
 
 import com.google.common.base.Strings;
@@ -24,9 +26,11 @@ import com.querydsl.core.Tuple;
 import com.querydsl.core.types.Path;
 import com.querydsl.core.types.dsl.Expressions;
 import com.querydsl.sql.SQLQuery;
+import org.apache.commons.lang3.StringUtils;
 import org.apache.commons.lang3.Validate;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.postgresql.util.PSQLException;
 import org.springframework.beans.factory.annotation.Autowired;
 
 import com.evolveum.midpoint.common.crypto.CryptoUtil;
@@ -64,6 +68,7 @@ import com.evolveum.midpoint.schema.internals.InternalMonitor;
 import com.evolveum.midpoint.schema.internals.InternalsConfig;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.schema.result.OperationResultStatus;
+import com.evolveum.midpoint.schema.util.ExceptionUtil;
 import com.evolveum.midpoint.schema.util.FocusTypeUtil;
 import com.evolveum.midpoint.schema.util.ObjectQueryUtil;
 import com.evolveum.midpoint.schema.util.ObjectTypeUtil;
@@ -104,6 +109,9 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
     public static final int INITIAL_VERSION_NUMBER = 0;
     public static final String INITIAL_VERSION_STRING = String.valueOf(INITIAL_VERSION_NUMBER);
 
+    /** Native repository specific operation, see {@link #rewriteFullObjects}. */
+    public static final String OP_REWRITE_FULL_OBJECTS = "rewriteFullObjects";
+
     private static final int MAX_CONFLICT_WATCHERS = 10;
 
     private static final Collection<SelectorOptions<GetOperationOptions>> GET_FOR_UPDATE_OPTIONS =
@@ -116,9 +124,13 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                     .build();
 
     private final SqlQueryExecutor sqlQueryExecutor;
+    private final OrgHierarchyIndex orgHierarchyIndex;
 
     @Autowired private SystemConfigurationChangeDispatcher systemConfigurationChangeDispatcher;
 
+    // Not available without repository cache (e.g. in repo-only tests or Ninja).
+    @Autowired(required = false) private CacheRegistry cacheRegistry;
+
     private final ThreadLocal<List<ConflictWatcherImpl>> conflictWatchersThreadLocal =
             ThreadLocal.withInitial(ArrayList::new);
 
@@ -128,7 +140,31 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             SqaleRepoContext repositoryContext,
             SqlPerformanceMonitorsCollection sqlPerformanceMonitorsCollection) {
         super(repositoryContext, sqlPerformanceMonitorsCollection);
-        this.sqlQueryExecutor = new SqlQueryExecutor(repositoryContext);
+        this.sqlQueryExecutor = new SqlQueryExecutor(repositoryContext,
+                repositoryConfiguration().getIterativeSearchByCursorFetchers());
+        this.orgHierarchyIndex = new OrgHierarchyIndex(repositoryContext);
+    }
+
+    @PostConstruct
+    public void init() {
+        if (cacheRegistry != null) {
+            // invalidations of orgs, also from other nodes, are delivered via cache registry
+            cacheRegistry.registerCache(orgHierarchyIndex);
+        }
+    }
+
+    @Override
+    public void destroy() {
+        if (cacheRegistry != null) {
+            cacheRegistry.unregisterCache(orgHierarchyIndex);
+        }
+        sqlQueryExecutor.shutdown();
+        super.destroy();
+    }
+
+    // exists because of testing
+    public OrgHierarchyIndex getOrgHierarchyIndex() {
+        return orgHierarchyIndex;
     }
 
     @Override
@@ -190,6 +226,90 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         return object;
     }
 
+    @Override
+    public @NotNull <T extends ObjectType> SearchResultList<PrismObject<T>> getObjects(
+            @NotNull Class<T> type,
+            @NotNull Collection<String> oids,
+            @Nullable Collection<SelectorOptions<GetOperationOptions>> options,
+            @NotNull OperationResult parentResult)
+            throws SchemaException {
+
+        Objects.requireNonNull(type, "Object type must not be null.");
+        Objects.requireNonNull(oids, "OIDs must not be null.");
+        Objects.requireNonNull(parentResult, "Operation result must not be null.");
+        Set<UUID> oidUuids = new LinkedHashSet<>();
+        for (String oid : oids) {
+            oidUuids.add(checkOid(oid));
+        }
+
+        logger.debug("Getting {} objects '{}': {}",
+                oidUuids.size(), type.getSimpleName(), parentResult.getOperation());
+
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_GET_OBJECTS)
+                .addQualifier(type.getSimpleName())
+                .setMinor()
+                .addParam("type", type.getName())
+                .addParam("oids", oids.toString())
+                .build();
+
+        try {
+            if (oidUuids.isEmpty()) {
+                return new SearchResultList<>();
+            }
+            return executeGetObjects(type, oidUuids, options);
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.close();
+        }
+    }
+
+    private <T extends ObjectType> SearchResultList<PrismObject<T>> executeGetObjects(
+            Class<T> type,
+            Set<UUID> oidUuids,
+            Collection<SelectorOptions<GetOperationOptions>> options)
+            throws SchemaException {
+        Map<UUID, PrismObject<T>> objectsByOid = new HashMap<>();
+        long opHandle = registerOperationStart(OP_GET_OBJECTS, type);
+        try (JdbcSession jdbcSession =
+                sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
+            SqaleTableMapping<T, QObject<MObject>, MObject> rootMapping =
+                    sqlRepoContext.getMappingBySchemaType(type);
+            QObject<MObject> root = rootMapping.defaultAlias();
+
+            List<Tuple> rows = jdbcSession.newQuery()
+                    .from(root)
+                    .select(rootMapping.selectExpressions(root, options))
+                    .where(root.oid.in(oidUuids))
+                    .fetch();
+
+            for (Tuple row : rows) {
+                if (row.get(root.fullObject) == null) {
+                    continue;
+                }
+                T object = rootMapping.toSchemaObject(row, root, options, jdbcSession, false);
+                //noinspection unchecked
+                objectsByOid.put(row.get(root.oid), (PrismObject<T>) object.asPrismObject());
+            }
+            jdbcSession.commit();
+        } finally {
+            registerOperationFinish(opHandle);
+        }
+
+        SearchResultList<PrismObject<T>> objects = new SearchResultList<>();
+        for (UUID oid : oidUuids) {
+            PrismObject<T> object = objectsByOid.get(oid);
+            if (object != null) {
+                invokeConflictWatchers((w) -> w.afterGetObject(object));
+                objects.add(object);
+            }
+        }
+        return objects;
+    }
+
     private UUID checkOid(String oid) {
         Objects.requireNonNull(oid, "OID must not be null");
         try {
@@ -302,26 +422,7 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                 .build();
 
         try {
-            PolyString name = object.getName();
-            if (name == null || Strings.isNullOrEmpty(name.getOrig())) {
-                throw new SchemaException("Attempt to add object without name.");
-            }
-
-            //noinspection ConstantConditions
-            logger.debug(
-                    "Adding object type '{}', overwrite={}, allowUnencryptedValues={}, name={} - {}",
-                    object.getCompileTimeClass().getSimpleName(), options.isOverwrite(),
-                    options.isAllowUnencryptedValues(), name.getOrig(), name.getNorm());
-
-            if (InternalsConfig.encryptionChecks && !RepoAddOptions.isAllowUnencryptedValues(options)) {
-                CryptoUtil.checkEncrypted(object);
-            }
-
-            if (InternalsConfig.consistencyChecks) {
-                object.checkConsistence(ConsistencyCheckScope.THOROUGH);
-            } else {
-                object.checkConsistence(ConsistencyCheckScope.MANDATORY_CHECKS_ONLY);
-            }
+            checkObjectForAdd(object, options);
 
             return object.getOid() == null || !options.isOverwrite()
                     ? executeAddObject(object)
@@ -337,6 +438,31 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         }
     }
 
+    private void checkObjectForAdd(
+            @NotNull PrismObject<? extends ObjectType> object, @NotNull RepoAddOptions options)
+            throws SchemaException {
+        PolyString name = object.getName();
+        if (name == null || Strings.isNullOrEmpty(name.getOrig())) {
+            throw new SchemaException("Attempt to add object without name.");
+        }
+
+        //noinspection ConstantConditions
+        logger.debug(
+                "Adding object type '{}', overwrite={}, allowUnencryptedValues={}, name={} - {}",
+                object.getCompileTimeClass().getSimpleName(), options.isOverwrite(),
+                options.isAllowUnencryptedValues(), name.getOrig(), name.getNorm());
+
+        if (InternalsConfig.encryptionChecks && !RepoAddOptions.isAllowUnencryptedValues(options)) {
+            CryptoUtil.checkEncrypted(object);
+        }
+
+        if (InternalsConfig.consistencyChecks) {
+            object.checkConsistence(ConsistencyCheckScope.THOROUGH);
+        } else {
+            object.checkConsistence(ConsistencyCheckScope.MANDATORY_CHECKS_ONLY);
+        }
+    }
+
     private <T extends ObjectType> String executeAddObject(
             @NotNull PrismObject<T> object)
             throws SchemaException, ObjectAlreadyExistsException {
@@ -348,6 +474,7 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             invokeConflictWatchers((w) -> w.afterAddObject(oid, object));
             return oid;
         } finally {
+            invalidateOrgHierarchyIndex(object.getCompileTimeClass());
             registerOperationFinish(opHandle);
         }
     }
@@ -395,10 +522,178 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             SqaleUtils.handlePostgresException(e);
             throw e;
         } finally {
+            invalidateOrgHierarchyIndex(newObject.getCompileTimeClass());
             registerOperationFinish(opHandle);
         }
     }
 
+    /**
+     * Adds objects in chunks of {@link SqaleRepositoryConfiguration#getBatchOperationSize()},
+     * each chunk in a single transaction, with root rows inserted by a JDBC batch.
+     * If anything in the chunk fails, the transaction is rolled back and the chunk is repeated
+     * with a savepoint for each object, so the failure is reported only for the failed objects.
+     * Overwrite option is not supported by the batch and object by object add is used instead.
+     */
+    @Override
+    public @NotNull List<BatchItemResult> addObjects(
+            @NotNull List<? extends PrismObject<? extends ObjectType>> objects,
+            @Nullable RepoAddOptions options,
+            @NotNull OperationResult parentResult) {
+        Objects.requireNonNull(objects, "Objects must not be null.");
+        Objects.requireNonNull(parentResult, "Operation result must not be null.");
+
+        if (RepoAddOptions.isOverwrite(options)) {
+            return RepositoryService.super.addObjects(objects, options, parentResult);
+        }
+        if (options == null) {
+            options = new RepoAddOptions();
+        }
+
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_ADD_OBJECTS)
+                .addParam("count", objects.size())
+                .addParam("options", options.toString())
+                .build();
+
+        try {
+            BatchItemResult[] results = new BatchItemResult[objects.size()];
+            List<Integer> indexesToAdd = new ArrayList<>();
+            for (int i = 0; i < objects.size(); i++) {
+                PrismObject<? extends ObjectType> object = objects.get(i);
+                try {
+                    checkObjectForAdd(object, options);
+                    indexesToAdd.add(i);
+                } catch (SchemaException | RuntimeException e) {
+                    results[i] = BatchItemResult.failed(object.getOid(), e);
+                }
+            }
+
+            sortByOid(indexesToAdd, i -> objects.get(i).getOid());
+            int batchSize = repositoryConfiguration().getBatchOperationSize();
+            for (int from = 0; from < indexesToAdd.size(); from += batchSize) {
+                executeAddObjects(objects,
+                        indexesToAdd.subList(from, Math.min(from + batchSize, indexesToAdd.size())),
+                        results, operationResult);
+            }
+
+            List<BatchItemResult> resultList = Arrays.asList(results);
+            long failures = resultList.stream().filter(r -> !r.isSuccess()).count();
+            operationResult.addReturn("added", resultList.size() - failures);
+            if (failures > 0) {
+                operationResult.recordPartialError(failures + " object(s) couldn't be added");
+            }
+            return resultList;
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.close();
+        }
+    }
+
+    private void executeAddObjects(
+            List<? extends PrismObject<? extends ObjectType>> objects,
+            List<Integer> indexes,
+            BatchItemResult[] results,
+            OperationResult operationResult) {
+        long opHandle = registerOperationStart(OP_ADD_OBJECTS, ObjectType.class);
+        // Generated OIDs are set in advance, this saves update of fullObject for each object.
+        List<Integer> generatedOidIndexes = new ArrayList<>();
+        for (int i : indexes) {
+            if (objects.get(i).getOid() == null) {
+                objects.get(i).setOid(UUID.randomUUID().toString());
+                generatedOidIndexes.add(i);
+            }
+        }
+
+        try {
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                AddObjectContext.executeBatch(sqlRepoContext,
+                        indexes.stream().map(objects::get).collect(Collectors.toList()),
+                        jdbcSession);
+                jdbcSession.commit();
+                for (int i : indexes) {
+                    results[i] = BatchItemResult.added(objects.get(i).getOid());
+                }
+            } catch (SchemaException | RuntimeException e) {
+                logger.debug("Adding batch of {} objects failed, repeating it with savepoint per object: {}",
+                        indexes.size(), e.toString());
+                executeAddObjectsWithSavepoints(objects, indexes, results);
+            }
+
+            // Only the final outcome is recorded and reported to conflict watchers, not the rolled back attempt.
+            for (int i : indexes) {
+                PrismObject<? extends ObjectType> object = objects.get(i);
+                OperationResult itemResult = operationResult.subresult(opNamePrefix + OP_ADD_OBJECT)
+                        .setMinor()
+                        .addQualifier(object.getCompileTimeClass().getSimpleName())
+                        .addParam("oid", object.getOid())
+                        .build();
+                if (results[i].isSuccess()) {
+                    itemResult.recordSuccess();
+                    invokeConflictWatchers((w) -> w.afterAddObject(object.getOid(), object));
+                } else {
+                    itemResult.recordFatalError(results[i].getException());
+                    if (generatedOidIndexes.contains(i)) {
+                        object.setOid(null);
+                    }
+                }
+                itemResult.close();
+            }
+        } finally {
+            for (int i : indexes) {
+                invalidateOrgHierarchyIndex(objects.get(i).getCompileTimeClass());
+            }
+            registerOperationFinish(opHandle);
+        }
+    }
+
+    private void executeAddObjectsWithSavepoints(
+            List<? extends PrismObject<? extends ObjectType>> objects,
+            List<Integer> indexes,
+            BatchItemResult[] results) {
+        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+            for (int i : indexes) {
+                PrismObject<? extends ObjectType> object = objects.get(i);
+                Savepoint savepoint = jdbcSession.setSavepoint();
+                try {
+                    results[i] = BatchItemResult.added(
+                            new AddObjectContext<>(sqlRepoContext, object).execute(jdbcSession));
+                    jdbcSession.releaseSavepoint(savepoint);
+                } catch (SchemaException | RuntimeException e) {
+                    jdbcSession.rollbackToSavepoint(savepoint);
+                    results[i] = BatchItemResult.failed(object.getOid(), toBatchItemException(e));
+                }
+            }
+            jdbcSession.commit();
+        }
+    }
+
+    /**
+     * Sorts batch item indexes by OID (the way PostgreSQL orders UUIDs, items without OID go last),
+     * so concurrent batches lock the rows in the same order and can't deadlock each other.
+     * Results are still stored by the original index, so the order of results is not affected.
+     */
+    private static void sortByOid(List<Integer> indexes, IntFunction<String> oidFunction) {
+        indexes.sort(Comparator.comparing(
+                (Integer i) -> StringUtils.lowerCase(oidFunction.apply(i)),
+                Comparator.nullsLast(Comparator.<String>naturalOrder())));
+    }
+
+    /** Translates constraint violations to {@link ObjectAlreadyExistsException}, as in single-object add. */
+    private Exception toBatchItemException(Exception e) {
+        if (e instanceof RuntimeException
+                && ExceptionUtil.findCause(e, PSQLException.class) != null) {
+            try {
+                SqaleUtils.handlePostgresException(e);
+            } catch (ObjectAlreadyExistsException oaee) {
+                return oaee;
+            }
+        }
+        return e;
+    }
+
     @Override
     @NotNull
     public <T extends ObjectType> ModifyObjectResult<T> modifyObject(
@@ -479,14 +774,180 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                     prepareUpdateContext(jdbcSession, type, modifications, oidUuid, options);
 
             ModifyObjectResult<T> rv = modifyObjectInternal(
-                    updateContext, modifications, precondition, options, parentResult);
+                    updateContext, modifications, precondition, options, true, parentResult);
             jdbcSession.commit();
             return rv;
         } finally {
+            invalidateOrgHierarchyIndex(type, modifications);
             registerOperationFinish(opHandle);
         }
     }
 
+    /**
+     * Modifies objects in chunks of {@link SqaleRepositoryConfiguration#getBatchOperationSize()},
+     * each chunk in a single transaction, which saves commit for each object.
+     * Failures are handled the same way as in {@link #addObjects}.
+     */
+    @Override
+    public @NotNull List<BatchItemResult> modifyObjects(
+            @NotNull List<? extends ObjectDelta<? extends ObjectType>> deltas,
+            @Nullable RepoModifyOptions options,
+            @NotNull OperationResult parentResult) {
+        Objects.requireNonNull(deltas, "Deltas must not be null.");
+        Objects.requireNonNull(parentResult, "Operation result must not be null.");
+
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + OP_MODIFY_OBJECTS)
+                .addParam("count", deltas.size())
+                .addParam("options", String.valueOf(options))
+                .build();
+
+        try {
+            BatchItemResult[] results = new BatchItemResult[deltas.size()];
+            List<Integer> indexesToModify = new ArrayList<>();
+            for (int i = 0; i < deltas.size(); i++) {
+                ObjectDelta<? extends ObjectType> delta = deltas.get(i);
+                try {
+                    if (!delta.isModify()) {
+                        throw new IllegalArgumentException("Modify delta expected, got " + delta);
+                    }
+                    checkOid(delta.getOid());
+                    Objects.requireNonNull(delta.getObjectTypeClass(), "Object class in delta must not be null.");
+                    indexesToModify.add(i);
+                } catch (RuntimeException e) {
+                    results[i] = BatchItemResult.failed(delta.getOid(), e);
+                }
+            }
+
+            sortByOid(indexesToModify, i -> deltas.get(i).getOid());
+            int batchSize = repositoryConfiguration().getBatchOperationSize();
+            for (int from = 0; from < indexesToModify.size(); from += batchSize) {
+                executeModifyObjects(deltas,
+                        indexesToModify.subList(from, Math.min(from + batchSize, indexesToModify.size())),
+                        options, results, operationResult);
+            }
+
+            List<BatchItemResult> resultList = Arrays.asList(results);
+            long failures = resultList.stream().filter(r -> !r.isSuccess()).count();
+            operationResult.addReturn("modified", resultList.size() - failures);
+            if (failures > 0) {
+                operationResult.recordPartialError(failures + " object(s) couldn't be modified");
+            }
+            return resultList;
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.close();
+        }
+    }
+
+    private void executeModifyObjects(
+            List<? extends ObjectDelta<? extends ObjectType>> deltas,
+            List<Integer> indexes,
+            RepoModifyOptions options,
+            BatchItemResult[] results,
+            OperationResult operationResult) {
+        long opHandle = registerOperationStart(OP_MODIFY_OBJECTS, ObjectType.class);
+        int subresultsBefore = operationResult.getSubresults().size();
+        try {
+            try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                for (int i : indexes) {
+                    ObjectDelta<? extends ObjectType> delta = deltas.get(i);
+                    results[i] = BatchItemResult.modified(delta.getOid(),
+                            modifyObjectInTransaction(jdbcSession, delta, options, operationResult));
+                }
+                jdbcSession.commit();
+            } catch (SchemaException | ObjectNotFoundException | RepositoryException | RuntimeException e) {
+                logger.debug("Modifying batch of {} objects failed, repeating it with savepoint per object: {}",
+                        indexes.size(), e.toString());
+                // The chunk was rolled back, results of its items are recorded again when it is repeated.
+                while (operationResult.getSubresults().size() > subresultsBefore) {
+                    operationResult.removeLastSubresult();
+                }
+                executeModifyObjectsWithSavepoints(deltas, indexes, options, results, operationResult);
+            }
+
+            // Conflict watchers are called only for committed modifications, so a repeated chunk is not counted twice.
+            for (int i : indexes) {
+                if (results[i].isSuccess()) {
+                    invokeConflictWatchersForModify(results[i].getModifyObjectResult());
+                }
+            }
+        } finally {
+            for (int i : indexes) {
+                invalidateOrgHierarchyIndex(deltas.get(i).getObjectTypeClass(), deltas.get(i).getModifications());
+            }
+            registerOperationFinish(opHandle);
+        }
+    }
+
+    private void executeModifyObjectsWithSavepoints(
+            List<? extends ObjectDelta<? extends ObjectType>> deltas,
+            List<Integer> indexes,
+            RepoModifyOptions options,
+            BatchItemResult[] results,
+            OperationResult operationResult) {
+        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+            for (int i : indexes) {
+                ObjectDelta<? extends ObjectType> delta = deltas.get(i);
+                Savepoint savepoint = jdbcSession.setSavepoint();
+                try {
+                    results[i] = BatchItemResult.modified(delta.getOid(),
+                            modifyObjectInTransaction(jdbcSession, delta, options, operationResult));
+                    jdbcSession.releaseSavepoint(savepoint);
+                } catch (SchemaException | ObjectNotFoundException | RepositoryException | RuntimeException e) {
+                    jdbcSession.rollbackToSavepoint(savepoint);
+                    results[i] = BatchItemResult.failed(delta.getOid(), toBatchItemException(e));
+                }
+            }
+            jdbcSession.commit();
+        }
+    }
+
+    /**
+     * Modifies the object within the batch transaction, the result of the item is recorded in its own subresult.
+     * Conflict watchers are not called here, but after the transaction is committed.
+     */
+    private <T extends ObjectType> ModifyObjectResult<T> modifyObjectInTransaction(
+            JdbcSession jdbcSession,
+            ObjectDelta<T> delta,
+            RepoModifyOptions options,
+            OperationResult operationResult)
+            throws SchemaException, ObjectNotFoundException, RepositoryException {
+        OperationResult itemResult = operationResult.subresult(opNamePrefix + OP_MODIFY_OBJECT)
+                .setMinor()
+                .addQualifier(delta.getObjectTypeClass().getSimpleName())
+                .addParam("oid", delta.getOid())
+                .build();
+        try {
+            RootUpdateContext<T, QObject<MObject>, MObject> updateContext = prepareUpdateContext(
+                    jdbcSession, delta.getObjectTypeClass(), delta.getModifications(),
+                    UUID.fromString(delta.getOid()), options);
+            return modifyObjectInternal(
+                    updateContext, delta.getModifications(), null, options, false, itemResult);
+        } catch (PreconditionViolationException e) {
+            throw new AssertionError(e); // with null precondition we couldn't get this exception
+        } catch (Throwable t) {
+            itemResult.recordFatalError(t);
+            throw t;
+        } finally {
+            itemResult.close();
+        }
+    }
+
+    private <T extends ObjectType> void invokeConflictWatchersForModify(ModifyObjectResult<T> modifyObjectResult) {
+        PrismObject<T> objectBefore = modifyObjectResult.getObjectBefore();
+        if (objectBefore == null) {
+            return; // nothing was modified
+        }
+        invokeConflictWatchers(w -> w.beforeModifyObject(objectBefore));
+        if (!modifyObjectResult.getModifications().isEmpty()) {
+            invokeConflictWatchers(w -> w.afterModifyObject(objectBefore.getOid()));
+        }
+    }
+
     @Override
     public @NotNull <T extends ObjectType> ModifyObjectResult<T> modifyObjectDynamically(
             @NotNull Class<T> type,
@@ -548,22 +1009,23 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
 
         long opHandle = registerOperationStart(OP_MODIFY_OBJECT_DYNAMICALLY, type);
 
+        Collection<? extends ItemDelta<?, ?>> modifications = null;
         try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
             RootUpdateContext<T, QObject<MObject>, MObject> updateContext =
                     prepareUpdateContext(jdbcSession, type, oidUuid, getOptions, modifyOptions);
 
             PrismObject<T> object = updateContext.getPrismObject().clone();
-            Collection<? extends ItemDelta<?, ?>> modifications =
-                    modificationsSupplier.get(object.asObjectable());
+            modifications = modificationsSupplier.get(object.asObjectable());
 
             ModifyObjectResult<T> rv = modifyObjectInternal(
-                    updateContext, modifications, null, modifyOptions, parentResult);
+                    updateContext, modifications, null, modifyOptions, true, parentResult);
             jdbcSession.commit();
             return rv;
         } catch (PreconditionViolationException e) {
             // no precondition is checked in this scenario, this should not happen
             throw new AssertionError(e);
         } finally {
+            invalidateOrgHierarchyIndex(type, modifications);
             registerOperationFinish(opHandle);
         }
     }
@@ -573,6 +1035,7 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             @NotNull Collection<? extends ItemDelta<?, ?>> modifications,
             @Nullable ModificationPrecondition<T> precondition,
             @Nullable RepoModifyOptions options,
+            boolean invokeConflictWatchers,
             @NotNull OperationResult operationResult)
             throws SchemaException, PreconditionViolationException, RepositoryException {
 
@@ -602,7 +1065,9 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             throw new PreconditionViolationException(
                     "Modification precondition does not hold for " + prismObject);
         }
-        invokeConflictWatchers(w -> w.beforeModifyObject(prismObject));
+        if (invokeConflictWatchers) {
+            invokeConflictWatchers(w -> w.beforeModifyObject(prismObject));
+        }
         PrismObject<T> originalObject = prismObject.clone(); // for result later
 
         boolean reindex = options.isForceReindex();
@@ -617,7 +1082,7 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         }
         logger.trace("OBJECT after:\n{}", prismObject.debugDumpLazily());
 
-        if (!modifications.isEmpty()) {
+        if (invokeConflictWatchers && !modifications.isEmpty()) {
             invokeConflictWatchers((w) -> w.afterModifyObject(prismObject.getOid()));
         }
         return new ModifyObjectResult<>(originalObject, prismObject, modifications);
@@ -675,7 +1140,11 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         return prepareUpdateContext(jdbcSession, schemaType, oid, getOptions, options);
     }
 
-    /** Read object for update and returns update context that contains it with specific get options. */
+    /**
+     * Read object for update and returns update context that contains it with specific get options.
+     * Item exclusions in get options are ignored, the whole object must be read, because its full
+     * object is written back after the modification.
+     */
     private <S extends ObjectType, Q extends QObject<R>, R extends MObject>
     RootUpdateContext<S, Q, R> prepareUpdateContext(
             @NotNull JdbcSession jdbcSession,
@@ -685,6 +1154,7 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             RepoModifyOptions options)
             throws SchemaException, ObjectNotFoundException {
 
+        getOptions = FullObjectProjection.withoutExcludedItems(getOptions);
         SqaleTableMapping<S, QObject<R>, R> rootMapping =
                 sqlRepoContext.getMappingBySchemaType(schemaType);
         QObject<R> entityPath = rootMapping.defaultAlias();
@@ -750,6 +1220,20 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
     public @NotNull <T extends ObjectType> DeleteObjectResult deleteObject(
             Class<T> type, String oid, OperationResult parentResult)
             throws ObjectNotFoundException {
+        try {
+            return deleteObject(type, oid, null, parentResult);
+        } catch (PreconditionViolationException e) {
+            throw new AssertionError(e); // with null precondition we couldn't get this exception
+        }
+    }
+
+    @Override
+    public @NotNull <T extends ObjectType> DeleteObjectResult deleteObject(
+            @NotNull Class<T> type,
+            @NotNull String oid,
+            @Nullable ModificationPrecondition<T> precondition,
+            @NotNull OperationResult parentResult)
+            throws ObjectNotFoundException, PreconditionViolationException {
 
         Validate.notNull(type, "Object type must not be null.");
         UUID oidUuid = checkOid(oid);
@@ -763,7 +1247,7 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                 .addParam("oid", oid)
                 .build();
         try {
-            return executeDeleteObject(type, oid, oidUuid);
+            return executeDeleteObject(type, oid, oidUuid, precondition);
         } catch (RuntimeException e) {
             throw handledGeneralException(e, operationResult);
         } catch (Throwable t) {
@@ -776,23 +1260,48 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
 
     @NotNull
     private <T extends ObjectType> DeleteObjectResult executeDeleteObject(
-            Class<T> type, String oid, UUID oidUuid) throws ObjectNotFoundException {
+            Class<T> type, String oid, UUID oidUuid, @Nullable ModificationPrecondition<T> precondition)
+            throws ObjectNotFoundException, PreconditionViolationException {
 
         long opHandle = registerOperationStart(OP_DELETE_OBJECT, type);
         try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
-            DeleteObjectResult result = deleteObjectAttempt(type, oidUuid, jdbcSession);
+            DeleteObjectResult result = deleteObjectAttempt(type, oidUuid, precondition, jdbcSession);
             invokeConflictWatchers((w) -> w.afterDeleteObject(oid));
 
             jdbcSession.commit();
             return result;
         } finally {
+            invalidateOrgHierarchyIndex(type);
             registerOperationFinish(opHandle);
         }
     }
 
+    /**
+     * Drops in-memory org hierarchy index if the type may be an org.
+     * This is called after the transaction is finished, successful or not.
+     */
+    private void invalidateOrgHierarchyIndex(@Nullable Class<?> type) {
+        if (type == null || type.isAssignableFrom(OrgType.class)) {
+            orgHierarchyIndex.invalidate();
+        }
+    }
+
+    /**
+     * Modification of an org changes the hierarchy only if parent org refs are modified.
+     * Null modifications mean they are not known (e.g. supplier failed), index is dropped then.
+     */
+    private void invalidateOrgHierarchyIndex(
+            @Nullable Class<?> type, @Nullable Collection<? extends ItemDelta<?, ?>> modifications) {
+        if (modifications == null || modifications.stream()
+                .anyMatch(m -> m.getPath().startsWithName(ObjectType.F_PARENT_ORG_REF))) {
+            invalidateOrgHierarchyIndex(type);
+        }
+    }
+
     private <T extends ObjectType, Q extends QObject<R>, R extends MObject>
-    DeleteObjectResult deleteObjectAttempt(Class<T> type, UUID oid, JdbcSession jdbcSession)
-            throws ObjectNotFoundException {
+    DeleteObjectResult deleteObjectAttempt(Class<T> type, UUID oid,
+            @Nullable ModificationPrecondition<T> precondition, JdbcSession jdbcSession)
+            throws ObjectNotFoundException, PreconditionViolationException {
 
         QueryTableMapping<T, Q, R> mapping = sqlRepoContext.getMappingBySchemaType(type);
         Q entityPath = mapping.defaultAlias();
@@ -806,12 +1315,30 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             throw new ObjectNotFoundException(type, oid.toString());
         }
 
+        String serializedForm = FullObjectCompression.decode(fullObject);
+        if (precondition != null) {
+            // The row is locked by the select above, the object can't change until the delete is committed.
+            PrismObject<T> prismObject;
+            try {
+                //noinspection unchecked
+                prismObject = (PrismObject<T>) sqlRepoContext.parsePrismObject(serializedForm, type)
+                        .prismValue.asPrismObject();
+            } catch (SchemaException e) {
+                throw new SystemException("Couldn't parse object to check deletion precondition: " + oid, e);
+            }
+            if (!precondition.holds(prismObject)) {
+                // will be rolled back automatically
+                throw new PreconditionViolationException(
+                        "Deletion precondition does not hold for " + prismObject);
+            }
+        }
+
         // object delete cascades to all owned related rows
         jdbcSession.newDelete(entityPath)
                 .where(entityPath.oid.eq(oid))
                 .execute();
 
-        return new DeleteObjectResult(new String(fullObject, StandardCharsets.UTF_8));
+        return new DeleteObjectResult(serializedForm);
     }
 
     // region Counting/searching
@@ -962,6 +1489,11 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             Collection<SelectorOptions<GetOperationOptions>> options,
             OperationResult operationResult) throws SchemaException, RepositoryException {
 
+        if (isIterationByCursor(options)) {
+            return executeSearchObjectsIterativeByCursor(
+                    type, originalQuery, handler, options, operationResult);
+        }
+
         try {
             ObjectPaging originalPaging = originalQuery != null ? originalQuery.getPaging() : null;
             // this is total requested size of the search
@@ -971,8 +1503,9 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                     ? originalPaging.getOrderingInstructions()
                     : null;
             if (providedOrdering != null && providedOrdering.size() > 1) {
-                throw new RepositoryException("searchObjectsIterative() does not support ordering"
-                        + " by multiple paths (yet): " + providedOrdering);
+                throw new RepositoryException("searchObjectsIterative() by paging does not support"
+                        + " ordering by multiple paths (yet), use single transaction iteration method: "
+                        + providedOrdering);
             }
 
             ObjectQuery pagedQuery = prismContext().queryFactory().createQuery();
@@ -1041,6 +1574,74 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         }
     }
 
+    /**
+     * Explicit `iterationMethod` option wins, single transaction means the cursor, any paging
+     * method means paging (always strictly sequential in this repository).
+     * Without the option, repository configuration decides.
+     */
+    private boolean isIterationByCursor(Collection<SelectorOptions<GetOperationOptions>> options) {
+        IterationMethodType iterationMethod =
+                GetOperationOptions.getIterationMethod(SelectorOptions.findRootOptions(options));
+        if (iterationMethod == IterationMethodType.SINGLE_TRANSACTION) {
+            return true;
+        } else if (iterationMethod == IterationMethodType.SIMPLE_PAGING
+                || iterationMethod == IterationMethodType.STRICTLY_SEQUENTIAL_PAGING) {
+            return false;
+        }
+        return repositoryConfiguration().isIterativeSearchByCursor();
+    }
+
+    /**
+     * Iterative search using server-side cursor with JDBC fetch size in a single read-only
+     * transaction, see {@link SqlQueryExecutor#iterate}.
+     * There is no need for repeated queries with the last OID condition, so any ordering is supported.
+     * OID is still added as the last ordering, so the order is the same as with paging.
+     */
+    private <T extends ObjectType> SearchResultMetadata executeSearchObjectsIterativeByCursor(
+            Class<T> type,
+            ObjectQuery originalQuery,
+            ResultHandler<T> handler,
+            Collection<SelectorOptions<GetOperationOptions>> options,
+            OperationResult operationResult) throws SchemaException, RepositoryException {
+
+        ObjectQuery query = originalQuery != null
+                ? originalQuery.clone()
+                : prismContext().queryFactory().createQuery();
+        if (query.getPaging() == null) {
+            query.setPaging(prismContext().queryFactory().createPaging());
+        }
+        query.getPaging().addOrderingInstruction(OID_PATH, OrderDirection.ASCENDING);
+        Integer maxSize = query.getPaging().getMaxSize();
+
+        int fetchSize = repositoryConfiguration().getIterativeSearchByPagingBatchSize();
+        String[] lastOid = new String[1];
+        boolean[] stoppedByHandler = new boolean[1];
+        long opHandle = registerOperationStart(OP_SEARCH_OBJECTS_ITERATIVE, type);
+        try {
+            logSearchInputParameters(type, query, "Search object iterative by cursor");
+            int handledCount = sqlQueryExecutor.iterate(
+                    SqaleQueryContext.from(type, sqlRepoContext), query, options,
+                    fetchSize, fetchSize * 2,
+                    o -> {
+                        //noinspection unchecked
+                        PrismObject<T> object = (PrismObject<T>) o.asPrismObject();
+                        lastOid[0] = object.getOid();
+                        stoppedByHandler[0] = !handler.handle(object, operationResult);
+                        return !stoppedByHandler[0];
+                    });
+
+            SearchResultMetadata metadata = new SearchResultMetadata()
+                    .approxNumberOfAllResults(handledCount)
+                    .pagingCookie(lastOid[0]);
+            if (stoppedByHandler[0] && (maxSize == null || handledCount < maxSize)) {
+                metadata.setPartialResults(true);
+            }
+            return metadata;
+        } finally {
+            registerOperationFinish(opHandle);
+        }
+    }
+
     /**
      * Without requested ordering, this is easy: `WHERE oid > lastOid`
      *
@@ -1282,10 +1883,13 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                 .map(ref -> UUID.fromString(ref.getOid()))
                 .collect(Collectors.toList());
 
-        long opHandle = registerOperationStart(OP_IS_DESCENDANT, OrgType.class);
-        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
-            jdbcSession.executeStatement("CALL m_refresh_org_closure()");
+        if (repositoryConfiguration().isOrgHierarchyIndex()) {
+            return orgHierarchyIndex.isAncestorOrSelfOfAny(
+                    UUID.fromString(ancestorOrgOid), objParentOrgOids);
+        }
 
+        long opHandle = registerOperationStart(OP_IS_DESCENDANT, OrgType.class);
+        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
             QOrgClosure oc = new QOrgClosure();
             long count = jdbcSession.newQuery()
                     .from(oc)
@@ -1310,10 +1914,13 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
             return false;
         }
 
-        long opHandle = registerOperationStart(OP_IS_ANCESTOR, OrgType.class);
-        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
-            jdbcSession.executeStatement("CALL m_refresh_org_closure()");
+        if (repositoryConfiguration().isOrgHierarchyIndex()) {
+            return orgHierarchyIndex.isAncestorOrSelf(
+                    UUID.fromString(object.getOid()), UUID.fromString(descendantOrgOid));
+        }
 
+        long opHandle = registerOperationStart(OP_IS_ANCESTOR, OrgType.class);
+        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
             QOrgClosure oc = new QOrgClosure();
             long count = jdbcSession.newQuery()
                     .from(oc)
@@ -1632,43 +2239,57 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
                         .build();
 
         try {
-            long closureCount, expectedCount;
+            long closureCount, expectedCount, matchingCount;
             try (JdbcSession jdbcSession =
                     sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
                 QOrgClosure oc = new QOrgClosure();
                 closureCount = jdbcSession.newQuery().from(oc).fetchCount();
-                // this is CTE used also for m_org_closure materialized view (here with count)
+                // This CTE computes the closure from scratch to compare it with m_org_closure.
+                // Identity rows are there for all orgs and refs to non-existent orgs are ignored,
+                // just like in the triggers maintaining m_org_closure.
                 QOrg o = QOrgMapping.getOrgMapping().defaultAlias();
-                QObjectReference<?> ref = QObjectReferenceMapping.getForParentOrg().newAlias("ref");
+                QOrg po = QOrgMapping.getOrgMapping().newAlias("po");
                 QObjectReference<?> par = QObjectReferenceMapping.getForParentOrg().newAlias("par");
+                QOrgClosure act = new QOrgClosure("act");
                 //noinspection unchecked
+                SQLQuery<?> expectedClosure = new SQLQuery<>().union(
+                        // non-recursive term: initial select
+                        new SQLQuery<>().select(o.oid, o.oid)
+                                .from(o),
+                        new SQLQuery<>().select(par.targetOid, oc.descendantOid)
+                                .from(par, oc)
+                                .where(par.ownerOid.eq(oc.ancestorOid)
+                                        .and(new SQLQuery<>().select(Expressions.ONE)
+                                                .from(po)
+                                                .where(po.oid.eq(par.targetOid))
+                                                .exists())));
                 expectedCount = jdbcSession.newQuery()
                         .withRecursive(oc, oc.ancestorOid, oc.descendantOid)
-                        .as(new SQLQuery<>().union(
-                                // non-recursive term: initial select
-                                new SQLQuery<>().select(o.oid, o.oid)
-                                        .from(o)
-                                        .where(new SQLQuery<>().select(Expressions.ONE)
-                                                .from(ref)
-                                                .where(ref.targetOid.eq(o.oid)
-                                                        .or(ref.ownerOid.eq(o.oid)))
-                                                .exists()),
-                                new SQLQuery<>().select(par.targetOid, oc.descendantOid)
-                                        .from(par, oc)
-                                        .where(par.ownerOid.eq(oc.ancestorOid))))
+                        .as(expectedClosure)
+                        .from(oc)
+                        .fetchCount();
+                // Counts alone can match even for different rows, so we count the matching rows too.
+                matchingCount = jdbcSession.newQuery()
+                        .withRecursive(oc, oc.ancestorOid, oc.descendantOid)
+                        .as(expectedClosure)
                         .from(oc)
+                        .join(act).on(act.ancestorOid.eq(oc.ancestorOid)
+                                .and(act.descendantOid.eq(oc.descendantOid)))
                         .fetchCount();
-                logger.info("Org closure consistency checked - closure count {}, expected count {}",
-                        closureCount, expectedCount);
+                logger.info("Org closure consistency checked - closure count {}, expected count {},"
+                        + " matching count {}", closureCount, expectedCount, matchingCount);
             }
             operationResult.addReturn("closure-count", closureCount);
             operationResult.addReturn("expected-count", expectedCount);
+            operationResult.addReturn("matching-count", matchingCount);
 
-            if (repairIfNecessary && closureCount != expectedCount) {
+            boolean consistent = closureCount == expectedCount && expectedCount == matchingCount;
+            if (repairIfNecessary && !consistent) {
                 try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
                     jdbcSession.executeStatement("CALL m_refresh_org_closure(true)");
                     jdbcSession.commit();
                 }
+                orgHierarchyIndex.invalidate();
                 logger.info("Org closure rebuild was requested and executed");
                 operationResult.addReturn("rebuild-done", true);
             } else {
@@ -1946,6 +2567,79 @@ public class SqaleRepositoryService extends SqaleServiceBase implements Reposito
         }
     }
 
+    /**
+     * Rewrites stored fullObject of all objects of the specified type (including subtypes)
+     * to the format configured by {@link SqaleRepositoryConfiguration#getFullObjectCompression()}.
+     * Only values stored in a different format are updated.
+     * Serialized form itself is not changed, so the object version is not incremented
+     * and no cache invalidation is needed.
+     * Rows are processed in OID order, each batch of {@link SqaleRepositoryConfiguration#getBatchOperationSize()}
+     * rows in a separate short transaction, so this can be run on a live system.
+     *
+     * @return number of rewritten objects
+     */
+    public <T extends ObjectType> int rewriteFullObjects(
+            @NotNull Class<T> type, @NotNull OperationResult parentResult) {
+        OperationResult operationResult =
+                parentResult.subresult(opNamePrefix + OP_REWRITE_FULL_OBJECTS)
+                        .addQualifier(type.getSimpleName())
+                        .addParam("type", type.getName())
+                        .build();
+        try {
+            FullObjectCompression compression = repositoryConfiguration().getFullObjectCompression();
+            int batchSize = repositoryConfiguration().getBatchOperationSize();
+            int rewritten = 0;
+            UUID lastOid = null;
+            while (true) {
+                long opHandle = registerOperationStart(OP_REWRITE_FULL_OBJECTS, type);
+                try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+                    QueryTableMapping<T, QObject<MObject>, MObject> mapping =
+                            sqlRepoContext.getMappingBySchemaType(type);
+                    QObject<MObject> root = mapping.defaultAlias();
+                    SQLQuery<Tuple> query = jdbcSession.newQuery()
+                            .from(root)
+                            .select(root.oid, root.fullObject)
+                            .orderBy(root.oid.asc())
+                            .limit(batchSize)
+                            .forUpdate();
+                    if (lastOid != null) {
+                        query.where(root.oid.gt(lastOid));
+                    }
+                    List<Tuple> rows = query.fetch();
+                    for (Tuple row : rows) {
+                        byte[] fullObject = row.get(root.fullObject);
+                        if (fullObject == null || FullObjectCompression.detect(fullObject) == compression) {
+                            continue;
+                        }
+                        jdbcSession.newUpdate(root)
+                                .set(root.fullObject,
+                                        compression.encode(FullObjectCompression.decode(fullObject)))
+                                .where(root.oid.eq(row.get(root.oid)))
+                                .execute();
+                        rewritten++;
+                    }
+                    jdbcSession.commit();
+
+                    if (rows.size() < batchSize) {
+                        break;
+                    }
+                    lastOid = rows.get(rows.size() - 1).get(root.oid);
+                } finally {
+                    registerOperationFinish(opHandle);
+                }
+            }
+            operationResult.addReturn("rewritten", rewritten);
+            return rewritten;
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Throwable t) {
+            recordFatalError(operationResult, t);
+            throw t;
+        } finally {
+            operationResult.close();
+        }
+    }
+
     @Override
     public <T extends ObjectType> void addDiagnosticInformation(Class<T> type, String oid,
             DiagnosticInformationType information, OperationResult parentResult)
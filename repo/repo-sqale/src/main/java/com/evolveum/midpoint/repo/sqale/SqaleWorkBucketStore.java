@@ -0,0 +1,449 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale;
+
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType.*;
+
+import java.util.*;
+import java.util.function.UnaryOperator;
+
+import com.querydsl.core.QueryFlag.Position;
+import com.querydsl.core.Tuple;
+import com.querydsl.core.types.Predicate;
+import com.querydsl.core.types.dsl.BooleanExpression;
+import com.querydsl.sql.dml.SQLInsertClause;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.SerializationOptions;
+import com.evolveum.midpoint.repo.api.SqlPerformanceMonitorsCollection;
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
+import com.evolveum.midpoint.repo.sqale.qmodel.task.MWorkBucket;
+import com.evolveum.midpoint.repo.sqale.qmodel.task.QWorkBucket;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.task.ActivityPath;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+/**
+ * Implementation of {@link WorkBucketStore} using `m_work_bucket` table, one row per bucket.
+ *
+ * Claiming of READY buckets uses `SELECT ... FOR UPDATE SKIP LOCKED`, so concurrent workers
+ * get different buckets without waiting for each other.
+ * Creation of new buckets is serialized by transaction-level advisory lock for the activity,
+ * because new buckets are derived from the last one.
+ *
+ * Enabled by {@link SqaleRepositoryConfiguration#isWorkBucketTable()}.
+ */
+public class SqaleWorkBucketStore extends SqaleServiceBase implements WorkBucketStore {
+
+    private static final String OP_FIND_DELEGATED_BUCKET = "findDelegatedBucket";
+    private static final String OP_CLAIM_READY_BUCKET = "claimReadyBucket";
+    private static final String OP_CREATE_AND_CLAIM_BUCKETS = "createAndClaimBuckets";
+    private static final String OP_COMPLETE_BUCKET = "completeBucket";
+    private static final String OP_NARROW_BUCKET = "narrowBucket";
+    private static final String OP_RELEASE_BUCKETS = "releaseBuckets";
+    private static final String OP_RECLAIM_BUCKETS = "reclaimBuckets";
+    private static final String OP_HAS_BUCKETS = "hasBuckets";
+    private static final String OP_COUNT_BUCKETS = "countBuckets";
+    private static final String OP_GET_BUCKETS = "getBuckets";
+    private static final String OP_DELETE_BUCKETS = "deleteBuckets";
+
+    public SqaleWorkBucketStore(
+            SqaleRepoContext sqlRepoContext,
+            SqlPerformanceMonitorsCollection sqlPerformanceMonitorsCollection) {
+        super(sqlRepoContext, sqlPerformanceMonitorsCollection);
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return repositoryConfiguration().isWorkBucketTable();
+    }
+
+    @Override
+    public @Nullable WorkBucketType findDelegatedBucket(@NotNull String coordinatorOid,
+            @NotNull ActivityPath activityPath, @NotNull String workerOid, @NotNull OperationResult parentResult)
+            throws SchemaException {
+        return executeInTransaction(OP_FIND_DELEGATED_BUCKET, coordinatorOid, activityPath, parentResult,
+                jdbcSession -> {
+                    QWorkBucket wb = QWorkBucket.DEFAULT;
+                    MWorkBucket row = jdbcSession.newQuery()
+                            .select(wb)
+                            .from(wb)
+                            .where(activityBuckets(wb, coordinatorOid, activityPath)
+                                    .and(wb.state.eq(DELEGATED))
+                                    .and(wb.workerOid.eq(UUID.fromString(workerOid))))
+                            .orderBy(wb.sequentialNumber.asc())
+                            .limit(1)
+                            .fetchOne();
+                    return row != null ? toBucket(row) : null;
+                });
+    }
+
+    @Override
+    public @Nullable WorkBucketType claimReadyBucket(@NotNull String coordinatorOid,
+            @NotNull ActivityPath activityPath, @NotNull String workerOid, @NotNull OperationResult parentResult)
+            throws SchemaException {
+        return executeInTransaction(OP_CLAIM_READY_BUCKET, coordinatorOid, activityPath, parentResult,
+                jdbcSession -> claimReadyBucket(jdbcSession, coordinatorOid, activityPath, workerOid));
+    }
+
+    private @Nullable WorkBucketType claimReadyBucket(JdbcSession jdbcSession,
+            String coordinatorOid, ActivityPath activityPath, String workerOid) throws SchemaException {
+        QWorkBucket wb = QWorkBucket.DEFAULT;
+        MWorkBucket row = jdbcSession.newQuery()
+                .select(wb)
+                .from(wb)
+                .where(activityBuckets(wb, coordinatorOid, activityPath)
+                        .and(wb.state.eq(READY)))
+                .orderBy(wb.sequentialNumber.asc())
+                .limit(1)
+                .forUpdate()
+                // Querydsl does not support SKIP LOCKED, it must follow FOR UPDATE at the end of the query.
+                .addFlag(Position.END, " SKIP LOCKED")
+                .fetchOne();
+        if (row == null) {
+            return null;
+        }
+
+        UUID workerUuid = UUID.fromString(workerOid);
+        jdbcSession.newUpdate(wb)
+                .set(wb.state, DELEGATED)
+                .set(wb.workerOid, workerUuid)
+                .where(activityBuckets(wb, coordinatorOid, activityPath)
+                        .and(wb.sequentialNumber.eq(row.sequentialNumber)))
+                .execute();
+        row.state = DELEGATED;
+        row.workerOid = workerUuid;
+        return toBucket(row);
+    }
+
+    @Override
+    public @Nullable WorkBucketType createAndClaimBuckets(@NotNull String coordinatorOid,
+            @NotNull ActivityPath activityPath, @NotNull String workerOid, @NotNull NewBucketsFactory factory,
+            @NotNull OperationResult parentResult) throws SchemaException {
+        return executeInTransaction(OP_CREATE_AND_CLAIM_BUCKETS, coordinatorOid, activityPath, parentResult,
+                jdbcSession -> {
+                    lockActivity(jdbcSession, coordinatorOid, activityPath);
+
+                    // Other worker holding the lock before us might have created new buckets meanwhile.
+                    WorkBucketType readyBucket = claimReadyBucket(jdbcSession, coordinatorOid, activityPath, workerOid);
+                    if (readyBucket != null) {
+                        return readyBucket;
+                    }
+
+                    QWorkBucket wb = QWorkBucket.DEFAULT;
+                    MWorkBucket lastRow = fetchLastRow(jdbcSession, coordinatorOid, activityPath);
+                    List<WorkBucketType> newBuckets =
+                            factory.createNewBuckets(lastRow != null ? toBucket(lastRow) : null);
+                    if (newBuckets.isEmpty()) {
+                        return null;
+                    }
+
+                    UUID coordinatorUuid = UUID.fromString(coordinatorOid);
+                    String activityPathString = activityPath.toString();
+                    SQLInsertClause insert = jdbcSession.newInsert(wb);
+                    WorkBucketType claimedBucket = null;
+                    for (WorkBucketType newBucket : newBuckets) {
+                        MWorkBucket row = new MWorkBucket();
+                        row.coordinatorOid = coordinatorUuid;
+                        row.activityPath = activityPathString;
+                        row.sequentialNumber = newBucket.getSequentialNumber();
+                        row.fullObject = toFullObject(newBucket);
+                        if (claimedBucket == null) {
+                            row.state = DELEGATED;
+                            row.workerOid = UUID.fromString(workerOid);
+                            claimedBucket = toBucket(row);
+                        } else {
+                            row.state = READY;
+                        }
+                        insert.populate(row).addBatch();
+                    }
+                    insert.execute();
+                    return claimedBucket;
+                });
+    }
+
+    @Override
+    public boolean completeBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            int sequentialNumber, @Nullable String workerOid, @NotNull OperationResult parentResult) {
+        return executeInTransaction(OP_COMPLETE_BUCKET, coordinatorOid, activityPath, parentResult,
+                jdbcSession -> {
+                    QWorkBucket wb = QWorkBucket.DEFAULT;
+                    Predicate condition = workerOid != null
+                            ? wb.state.eq(DELEGATED).and(wb.workerOid.eq(UUID.fromString(workerOid)))
+                            : wb.state.ne(COMPLETE);
+                    return jdbcSession.newUpdate(wb)
+                            .set(wb.state, COMPLETE)
+                            .where(activityBuckets(wb, coordinatorOid, activityPath)
+                                    .and(wb.sequentialNumber.eq(sequentialNumber))
+                                    .and(condition))
+                            .execute() > 0;
+                });
+    }
+
+    @Override
+    public boolean narrowBucket(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            int sequentialNumber, @NotNull String workerOid, @NotNull AbstractWorkBucketContentType newContent,
+            @NotNull UnaryOperator<AbstractWorkBucketContentType> nextContentFunction,
+            @NotNull OperationResult parentResult) throws SchemaException {
+        return executeInTransaction(OP_NARROW_BUCKET, coordinatorOid, activityPath, parentResult,
+                jdbcSession -> {
+                    // Creation of new buckets must not see the old content of the last bucket.
+                    lockActivity(jdbcSession, coordinatorOid, activityPath);
+
+                    MWorkBucket row = fetchRowForUpdate(jdbcSession, coordinatorOid, activityPath, sequentialNumber);
+                    if (row == null
+                            || row.state != DELEGATED
+                            || !UUID.fromString(workerOid).equals(row.workerOid)) {
+                        return false;
+                    }
+
+                    // The next bucket is locked, so it cannot be claimed while we extend it.
+                    MWorkBucket nextRow = fetchRowForUpdate(jdbcSession, coordinatorOid, activityPath, sequentialNumber + 1);
+                    AbstractWorkBucketContentType nextContent = null;
+                    if (nextRow != null) {
+                        if (nextRow.state != READY) {
+                            return false;
+                        }
+                        nextContent = nextContentFunction.apply(toBucket(nextRow).getContent());
+                        if (nextContent == null) {
+                            return false;
+                        }
+                    }
+
+                    updateContent(jdbcSession, coordinatorOid, activityPath, row, newContent);
+                    if (nextRow != null) {
+                        updateContent(jdbcSession, coordinatorOid, activityPath, nextRow, nextContent);
+                    }
+                    return true;
+                });
+    }
+
+    private @Nullable MWorkBucket fetchRowForUpdate(
+            JdbcSession jdbcSession, String coordinatorOid, ActivityPath activityPath, int sequentialNumber) {
+        QWorkBucket wb = QWorkBucket.DEFAULT;
+        return jdbcSession.newQuery()
+                .select(wb)
+                .from(wb)
+                .where(activityBuckets(wb, coordinatorOid, activityPath)
+                        .and(wb.sequentialNumber.eq(sequentialNumber)))
+                .forUpdate()
+                .fetchOne();
+    }
+
+    private void updateContent(JdbcSession jdbcSession, String coordinatorOid, ActivityPath activityPath,
+            MWorkBucket row, AbstractWorkBucketContentType newContent) throws SchemaException {
+        WorkBucketType bucket = toBucket(row);
+        bucket.setContent(newContent.clone());
+        QWorkBucket wb = QWorkBucket.DEFAULT;
+        jdbcSession.newUpdate(wb)
+                .set(wb.fullObject, toFullObject(bucket))
+                .where(activityBuckets(wb, coordinatorOid, activityPath)
+                        .and(wb.sequentialNumber.eq(row.sequentialNumber)))
+                .execute();
+    }
+
+    @Override
+    public int releaseBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull String workerOid, @Nullable Integer sequentialNumber, @NotNull OperationResult parentResult) {
+        return executeInTransaction(OP_RELEASE_BUCKETS, coordinatorOid, activityPath, parentResult,
+                jdbcSession -> {
+                    QWorkBucket wb = QWorkBucket.DEFAULT;
+                    Predicate condition = activityBuckets(wb, coordinatorOid, activityPath)
+                            .and(wb.state.eq(DELEGATED))
+                            .and(wb.workerOid.eq(UUID.fromString(workerOid)));
+                    if (sequentialNumber != null) {
+                        condition = wb.sequentialNumber.eq(sequentialNumber).and(condition);
+                    }
+                    return (int) jdbcSession.newUpdate(wb)
+                            .set(wb.state, READY)
+                            .setNull(wb.workerOid)
+                            .where(condition)
+                            .execute();
+                });
+    }
+
+    @Override
+    public int reclaimBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull Set<String> liveWorkerOids, @NotNull OperationResult parentResult) {
+        return executeInTransaction(OP_RECLAIM_BUCKETS, coordinatorOid, activityPath, parentResult,
+                jdbcSession -> {
+                    QWorkBucket wb = QWorkBucket.DEFAULT;
+                    Predicate condition = activityBuckets(wb, coordinatorOid, activityPath)
+                            .and(wb.state.eq(DELEGATED));
+                    if (!liveWorkerOids.isEmpty()) {
+                        List<UUID> liveWorkers = new ArrayList<>();
+                        liveWorkerOids.forEach(oid -> liveWorkers.add(UUID.fromString(oid)));
+                        condition = wb.workerOid.isNull().or(wb.workerOid.notIn(liveWorkers)).and(condition);
+                    }
+                    return (int) jdbcSession.newUpdate(wb)
+                            .set(wb.state, READY)
+                            .setNull(wb.workerOid)
+                            .where(condition)
+                            .execute();
+                });
+    }
+
+    @Override
+    public boolean hasBuckets(@NotNull String coordinatorOid, @NotNull ActivityPath activityPath,
+            @NotNull WorkBucketStateType state, @NotNull OperationResult parentResult) {
+        return executeInTransaction(OP_HAS_BUCKETS, coordinatorOid, activityPath, parentResult,
+                jdbcSession -> {
+                    QWorkBucket wb = QWorkBucket.DEFAULT;
+                    return jdbcSession.newQuery()
+                            .select(wb.sequentialNumber)
+                            .from(wb)
+                            .where(activityBuckets(wb, coordinatorOid, activityPath)
+                                    .and(wb.state.eq(state)))
+                            .fetchFirst() != null;
+                });
+    }
+
+    @Override
+    public @NotNull Map<WorkBucketStateType, Integer> countBuckets(@NotNull String coordinatorOid,
+            @NotNull ActivityPath activityPath, @NotNull OperationResult parentResult) {
+        return executeInTransaction(OP_COUNT_BUCKETS, coordinatorOid, activityPath, parentResult,
+                jdbcSession -> {
+                    QWorkBucket wb = QWorkBucket.DEFAULT;
+                    List<Tuple> rows = jdbcSession.newQuery()
+                            .select(wb.state, wb.sequentialNumber.count())
+                            .from(wb)
+                            .where(activityBuckets(wb, coordinatorOid, activityPath))
+                            .groupBy(wb.state)
+                            .fetch();
+                    Map<WorkBucketStateType, Integer> counts = new EnumMap<>(WorkBucketStateType.class);
+                    for (Tuple row : rows) {
+                        counts.put(row.get(wb.state),
+                                Objects.requireNonNull(row.get(wb.sequentialNumber.count())).intValue());
+                    }
+                    return counts;
+                });
+    }
+
+    @Override
+    public @NotNull List<WorkBucketType> getBuckets(@NotNull String coordinatorOid,
+            @NotNull ActivityPath activityPath, @NotNull OperationResult parentResult) throws SchemaException {
+        return executeInTransaction(OP_GET_BUCKETS, coordinatorOid, activityPath, parentResult,
+                jdbcSession -> {
+                    QWorkBucket wb = QWorkBucket.DEFAULT;
+                    List<MWorkBucket> rows = jdbcSession.newQuery()
+                            .select(wb)
+                            .from(wb)
+                            .where(activityBuckets(wb, coordinatorOid, activityPath))
+                            .orderBy(wb.sequentialNumber.asc())
+                            .fetch();
+                    List<WorkBucketType> buckets = new ArrayList<>(rows.size());
+                    for (MWorkBucket row : rows) {
+                        buckets.add(toBucket(row));
+                    }
+                    return buckets;
+                });
+    }
+
+    @Override
+    public void deleteBuckets(@NotNull String coordinatorOid, @Nullable ActivityPath activityPath,
+            @NotNull OperationResult parentResult) {
+        executeInTransaction(OP_DELETE_BUCKETS, coordinatorOid, activityPath, parentResult,
+                jdbcSession -> {
+                    QWorkBucket wb = QWorkBucket.DEFAULT;
+                    Predicate condition = activityPath != null
+                            ? activityBuckets(wb, coordinatorOid, activityPath)
+                            : wb.coordinatorOid.eq(UUID.fromString(coordinatorOid));
+                    long deleted = jdbcSession.newDelete(wb)
+                            .where(condition)
+                            .execute();
+                    logger.debug("Deleted {} work buckets of {} activity '{}'", deleted, coordinatorOid, activityPath);
+                    return null;
+                });
+    }
+
+    private BooleanExpression activityBuckets(QWorkBucket wb, String coordinatorOid, ActivityPath activityPath) {
+        return wb.coordinatorOid.eq(UUID.fromString(coordinatorOid))
+                .and(wb.activityPath.eq(activityPath.toString()));
+    }
+
+    /** Serializes the changes of the last bucket of the activity, the lock is released on commit/rollback. */
+    private void lockActivity(JdbcSession jdbcSession, String coordinatorOid, ActivityPath activityPath) {
+        // The key is only numeric, so it can be safely inlined.
+        jdbcSession.executeStatement("SELECT pg_advisory_xact_lock("
+                + activityLockKey(coordinatorOid, activityPath) + ")");
+    }
+
+    private @Nullable MWorkBucket fetchLastRow(
+            JdbcSession jdbcSession, String coordinatorOid, ActivityPath activityPath) {
+        QWorkBucket wb = QWorkBucket.DEFAULT;
+        return jdbcSession.newQuery()
+                .select(wb)
+                .from(wb)
+                .where(activityBuckets(wb, coordinatorOid, activityPath))
+                .orderBy(wb.sequentialNumber.desc())
+                .limit(1)
+                .fetchOne();
+    }
+
+    /** Key for `pg_advisory_xact_lock`, collisions just cause unnecessary waiting. */
+    private long activityLockKey(String coordinatorOid, ActivityPath activityPath) {
+        UUID uuid = UUID.fromString(coordinatorOid);
+        return uuid.getMostSignificantBits() ^ uuid.getLeastSignificantBits() ^ activityPath.toString().hashCode();
+    }
+
+    /** State and worker are not stored in the full object, they are in the columns. */
+    private byte[] toFullObject(WorkBucketType bucket) throws SchemaException {
+        WorkBucketType stored = new WorkBucketType()
+                .sequentialNumber(bucket.getSequentialNumber())
+                .content(bucket.getContent() != null ? bucket.getContent().clone() : null)
+                .estimatedSize(bucket.getEstimatedSize());
+        String serializedForm = sqlRepoContext.createStringSerializer()
+                .options(SerializationOptions
+                        .createSerializeReferenceNamesForNullOids()
+                        .skipWhitespaces(true))
+                .serializeRealValue(stored, ActivityBucketingStateType.F_BUCKET);
+        return sqlRepoContext.toStoredFullObject(serializedForm);
+    }
+
+    private WorkBucketType toBucket(MWorkBucket row) throws SchemaException {
+        String serializedForm = FullObjectCompression.decode(row.fullObject);
+        WorkBucketType bucket = sqlRepoContext.parsePrismObject(serializedForm, WorkBucketType.class).prismValue;
+        bucket.setState(row.state);
+        if (row.workerOid != null) {
+            bucket.setWorkerRef(new ObjectReferenceType()
+                    .oid(row.workerOid.toString())
+                    .type(TaskType.COMPLEX_TYPE));
+        }
+        return bucket;
+    }
+
+    private <T, E extends Exception> T executeInTransaction(String opName, String coordinatorOid,
+            @Nullable ActivityPath activityPath, OperationResult parentResult, SessionOperation<T, E> operation)
+            throws E {
+        OperationResult operationResult = parentResult.subresult(opNamePrefix + opName)
+                .addParam("coordinatorOid", coordinatorOid)
+                .addParam("activityPath", String.valueOf(activityPath))
+                .build();
+        long opHandle = registerOperationStart(opName, WorkBucketType.class);
+        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startTransaction()) {
+            T value = operation.execute(jdbcSession);
+            jdbcSession.commit();
+            return value;
+        } catch (RuntimeException e) {
+            throw handledGeneralException(e, operationResult);
+        } catch (Exception e) {
+            recordFatalError(operationResult, e);
+            throw e;
+        } finally {
+            registerOperationFinish(opHandle);
+            operationResult.close();
+        }
+    }
+
+    @FunctionalInterface
+    private interface SessionOperation<T, E extends Exception> {
+        T execute(JdbcSession jdbcSession) throws E;
+    }
+}
@@ -6,7 +6,6 @@
  */
 package com.evolveum.midpoint.repo.sqale.mapping;
 
-import java.nio.charset.StandardCharsets;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
@@ -26,6 +25,8 @@ import com.evolveum.midpoint.prism.Referencable;
 import com.evolveum.midpoint.prism.SerializationOptions;
 import com.evolveum.midpoint.prism.path.ItemName;
 import com.evolveum.midpoint.repo.sqale.ExtensionProcessor;
+import com.evolveum.midpoint.repo.sqale.FullObjectCompression;
+import com.evolveum.midpoint.repo.sqale.FullObjectProjection;
 import com.evolveum.midpoint.repo.sqale.SqaleRepoContext;
 import com.evolveum.midpoint.repo.sqale.SqaleUtils;
 import com.evolveum.midpoint.repo.sqale.delta.item.*;
@@ -471,11 +472,29 @@ public abstract class SqaleTableMapping<S, Q extends FlexibleRelationalPathBase<
         return parseSchemaObject(fullObject, identifier, schemaType());
     }
 
+    /**
+     * Parses the object skipping top-level items excluded by the options, see {@link FullObjectProjection}.
+     */
+    protected S parseSchemaObject(byte[] fullObject, String identifier,
+            Collection<SelectorOptions<GetOperationOptions>> options) throws SchemaException {
+        return parseSchemaObject(fullObject, identifier, schemaType(),
+                FullObjectProjection.fromOptions(options));
+    }
+
     protected <T> T parseSchemaObject(byte[] fullObject, String identifier, Class<T> clazz) throws SchemaException {
-        String serializedForm = fullObject != null
-                ? new String(fullObject, StandardCharsets.UTF_8)
-                : null;
+        return parseSchemaObject(fullObject, identifier, clazz, null);
+    }
+
+    private <T> T parseSchemaObject(byte[] fullObject, String identifier, Class<T> clazz,
+            @Nullable FullObjectProjection projection) throws SchemaException {
+        String serializedForm = null;
         try {
+            // stored value may be compressed, its format is detected from the header byte
+            serializedForm = FullObjectCompression.decode(fullObject);
+            if (projection != null && serializedForm != null) {
+                serializedForm = projection.apply(serializedForm);
+            }
+
             RepositoryObjectParseResult<T> result =
                     repositoryContext().parsePrismObject(serializedForm, clazz);
             T schemaObject = result.prismValue;
@@ -497,18 +516,21 @@ public abstract class SqaleTableMapping<S, Q extends FlexibleRelationalPathBase<
         }
     }
 
-    /** Creates serialized (byte array) form of an object or a container. */
+    /**
+     * Creates serialized (byte array) form of an object or a container.
+     * The result is compressed if configured, see {@link SqaleRepoContext#toStoredFullObject}.
+     */
     public <C extends Containerable> byte[] createFullObject(C container) throws SchemaException {
         repositoryContext().normalizeAllRelations(container.asPrismContainerValue());
-        return repositoryContext().createStringSerializer()
+        String serializedForm = repositoryContext().createStringSerializer()
                 .itemsToSkip(fullObjectItemsToSkip())
                 .options(SerializationOptions
                         .createSerializeReferenceNamesForNullOids()
                         .skipIndexOnly(true)
                         .skipTransient(true)
                         .skipWhitespaces(true))
-                .serialize(container.asPrismContainerValue())
-                .getBytes(StandardCharsets.UTF_8);
+                .serialize(container.asPrismContainerValue());
+        return repositoryContext().toStoredFullObject(serializedForm);
     }
 
     protected Collection<? extends QName> fullObjectItemsToSkip() {
@@ -156,7 +156,7 @@ public class QObjectMapping<S extends ObjectType, Q extends QObject<R>, R extend
             throws SchemaException {
         byte[] fullObject = Objects.requireNonNull(row.get(entityPath.fullObject));
         UUID oid = Objects.requireNonNull(row.get(entityPath.oid));
-        S ret = parseSchemaObject(fullObject, oid.toString());
+        S ret = parseSchemaObject(fullObject, oid.toString(), options);
         if (GetOperationOptions.isAttachDiagData(SelectorOptions.findRootOptions(options))) {
             RepositoryObjectDiagnosticData diagData = new RepositoryObjectDiagnosticData(fullObject.length);
             ret.asPrismContainer().setUserData(RepositoryService.KEY_DIAG_DATA, diagData);
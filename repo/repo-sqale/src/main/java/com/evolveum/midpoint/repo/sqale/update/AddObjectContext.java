@@ -8,10 +8,10 @@ package com.evolveum.midpoint.repo.sqale.update;
 
 import static com.evolveum.midpoint.repo.sqale.SqaleRepositoryService.INITIAL_VERSION_STRING;
 
-import java.util.Objects;
-import java.util.UUID;
+import java.util.*;
 
 import com.querydsl.core.QueryException;
+import com.querydsl.sql.dml.SQLInsertClause;
 import org.jetbrains.annotations.NotNull;
 import org.postgresql.util.PSQLException;
 
@@ -39,6 +39,7 @@ public class AddObjectContext<S extends ObjectType, Q extends QObject<R>, R exte
     private Q root;
     private QObjectMapping<S, Q, R> rootMapping;
     private MObjectType objectType;
+    private R row;
 
     public AddObjectContext(
             @NotNull SqaleRepoContext repositoryContext,
@@ -79,6 +80,46 @@ public class AddObjectContext<S extends ObjectType, Q extends QObject<R>, R exte
         }
     }
 
+    /**
+     * Inserts multiple objects with provided JDBC session, does not commit.
+     * Root rows are inserted using a JDBC batch for each table, related entities (containers,
+     * references, etc.) are inserted object by object after all the root rows are inserted.
+     * All the objects must have OIDs.
+     *
+     * If this fails, the session must be rolled back, because it's not known which object caused it.
+     */
+    public static void executeBatch(
+            @NotNull SqaleRepoContext repositoryContext,
+            @NotNull List<? extends PrismObject<? extends ObjectType>> objects,
+            @NotNull JdbcSession jdbcSession) throws SchemaException {
+        List<AddObjectContext<?, ?, ?>> contexts = new ArrayList<>();
+        Map<QObjectMapping<?, ?, ?>, SQLInsertClause> inserts = new LinkedHashMap<>();
+        for (PrismObject<? extends ObjectType> object : objects) {
+            AddObjectContext<?, ?, ?> context = new AddObjectContext<>(repositoryContext, object);
+            context.addRootRowToBatch(inserts, jdbcSession);
+            contexts.add(context);
+        }
+        for (SQLInsertClause insert : inserts.values()) {
+            insert.execute();
+        }
+        for (AddObjectContext<?, ?, ?> context : contexts) {
+            context.storeRelatedEntities(jdbcSession);
+        }
+    }
+
+    private void addRootRowToBatch(
+            Map<QObjectMapping<?, ?, ?>, SQLInsertClause> inserts, JdbcSession jdbcSession)
+            throws SchemaException {
+        Objects.requireNonNull(object.getOid(), "OID is required for batch insert");
+        object.setVersion(INITIAL_VERSION_STRING);
+        initContexts();
+        row = createRootRowWithOid(jdbcSession);
+        inserts.computeIfAbsent(rootMapping, m -> jdbcSession.newInsert(root))
+                // default populate mapper ignores null, rows with different columns end up in different statements
+                .populate(row)
+                .addBatch();
+    }
+
     public void executeReindexed(JdbcSession jdbcSession)
             throws SchemaException, ObjectAlreadyExistsException {
         try {
@@ -101,27 +142,36 @@ public class AddObjectContext<S extends ObjectType, Q extends QObject<R>, R exte
     }
 
     private String addObjectWithOid(JdbcSession jdbcSession) throws SchemaException {
-        long lastCid = new ContainerValueIdGenerator(object).generateForNewObject();
-        S schemaObject = object.asObjectable();
-        R row = rootMapping.toRowObjectWithoutFullObject(schemaObject, jdbcSession);
-        row.containerIdSeq = lastCid + 1;
-        rootMapping.setFullObject(row, schemaObject);
+        row = createRootRowWithOid(jdbcSession);
 
         UUID oid = jdbcSession.newInsert(root)
                 // default populate mapper ignores null, that's good, especially for objectType
                 .populate(row)
                 .executeWithKey(root.oid);
 
-        row.objectType = objectType; // sub-entities can use it, now it's safe to set it
-        rootMapping.storeRelatedEntities(row, schemaObject, jdbcSession);
+        storeRelatedEntities(jdbcSession);
 
         return Objects.requireNonNull(oid, "OID of inserted object can't be null")
                 .toString();
     }
 
+    private R createRootRowWithOid(JdbcSession jdbcSession) throws SchemaException {
+        long lastCid = new ContainerValueIdGenerator(object).generateForNewObject();
+        S schemaObject = object.asObjectable();
+        R rootRow = rootMapping.toRowObjectWithoutFullObject(schemaObject, jdbcSession);
+        rootRow.containerIdSeq = lastCid + 1;
+        rootMapping.setFullObject(rootRow, schemaObject);
+        return rootRow;
+    }
+
+    private void storeRelatedEntities(JdbcSession jdbcSession) throws SchemaException {
+        row.objectType = objectType; // sub-entities can use it, now it's safe to set it
+        rootMapping.storeRelatedEntities(row, object.asObjectable(), jdbcSession);
+    }
+
     private String addObjectWithoutOid(JdbcSession jdbcSession) throws SchemaException {
         S schemaObject = object.asObjectable();
-        R row = rootMapping.toRowObjectWithoutFullObject(schemaObject, jdbcSession);
+        row = rootMapping.toRowObjectWithoutFullObject(schemaObject, jdbcSession);
 
         // first insert without full object, because we don't know the OID yet
         UUID oid = jdbcSession.newInsert(root)
@@ -144,8 +194,7 @@ public class AddObjectContext<S extends ObjectType, Q extends QObject<R>, R exte
                 .execute();
 
         row.oid = oid;
-        row.objectType = objectType; // sub-entities can use it, now it's safe to set it
-        rootMapping.storeRelatedEntities(row, schemaObject, jdbcSession);
+        storeRelatedEntities(jdbcSession);
 
         return oidString;
     }
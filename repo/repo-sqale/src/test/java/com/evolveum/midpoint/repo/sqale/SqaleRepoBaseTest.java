@@ -8,7 +8,6 @@ package com.evolveum.midpoint.repo.sqale;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
-import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.function.Function;
 import java.util.stream.Stream;
@@ -548,7 +547,7 @@ public class SqaleRepoBaseTest extends AbstractSpringTest
     @NotNull
     protected <T> T parseFullObject(byte[] fullObject) {
         try {
-            return prismContext.parserFor(new String(fullObject, StandardCharsets.UTF_8))
+            return prismContext.parserFor(FullObjectCompression.decode(fullObject))
                     .parseRealValue();
         } catch (SchemaException e) {
             // to support lambdas
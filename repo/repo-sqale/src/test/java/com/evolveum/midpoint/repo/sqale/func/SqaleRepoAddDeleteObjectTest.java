@@ -29,8 +29,11 @@ import com.evolveum.midpoint.prism.Containerable;
 import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.prism.path.ItemName;
 import com.evolveum.midpoint.prism.polystring.PolyString;
+import com.evolveum.midpoint.repo.api.BatchItemResult;
 import com.evolveum.midpoint.repo.api.DeleteObjectResult;
+import com.evolveum.midpoint.repo.api.PreconditionViolationException;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.api.VersionPrecondition;
 import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
 import com.evolveum.midpoint.repo.sqale.SqaleRepositoryService;
 import com.evolveum.midpoint.repo.sqale.jsonb.Jsonb;
@@ -379,6 +382,40 @@ public class SqaleRepoAddDeleteObjectTest extends SqaleRepoBaseTest {
         assertThat(row.version).isEqualTo(SqaleRepositoryService.INITIAL_VERSION_NUMBER); // no change
     }
 
+    @Test
+    public void test130AddObjectsInBatchReportsFailuresPerObject() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("existing user and a batch containing conflicting, nameless and valid users");
+        String existingOid = repositoryService.addObject(
+                new UserType().name("user" + getTestNumber() + "-existing").asPrismObject(), null, result);
+        long baseCount = count(QUser.class);
+        List<PrismObject<UserType>> users = List.of(
+                new UserType().name("user" + getTestNumber() + "-1").asPrismObject(),
+                new UserType().oid(existingOid).name("user" + getTestNumber() + "-dup").asPrismObject(),
+                new UserType().asPrismObject(),
+                new UserType().name("user" + getTestNumber() + "-2").asPrismObject());
+
+        when("batch of users is added");
+        List<BatchItemResult> batchResults = repositoryService.addObjects(users, null, result);
+
+        then("valid users are added and failures are reported for the others");
+        assertThat(batchResults).hasSize(4);
+        assertThat(batchResults.get(0).isSuccess()).isTrue();
+        assertThat(batchResults.get(0).getOid()).isEqualTo(users.get(0).getOid());
+        assertThat(batchResults.get(1).getException()).isInstanceOf(ObjectAlreadyExistsException.class);
+        assertThat(batchResults.get(2).getException()).isInstanceOf(SchemaException.class);
+        assertThat(batchResults.get(3).isSuccess()).isTrue();
+        assertThat(count(QUser.class)).isEqualTo(baseCount + 2);
+        assertThatOperationResult(result).isPartialError();
+
+        and("successfully added users have their own successful item results");
+        assertThat(result.findSubresult(REPO_OP_PREFIX + RepositoryService.OP_ADD_OBJECTS)
+                .findSubresults(REPO_OP_PREFIX + RepositoryService.OP_ADD_OBJECT))
+                .filteredOn(OperationResult::isSuccess)
+                .hasSize(2);
+    }
+
     @Test
     public void test150AddOperationUpdatesPerformanceMonitor()
             throws ObjectAlreadyExistsException, SchemaException {
@@ -2527,6 +2564,33 @@ public class SqaleRepoAddDeleteObjectTest extends SqaleRepoBaseTest {
         assertThat(selectNullableObjectByOid(QUser.class, userOid)).isNull();
     }
 
+    @Test
+    public void test915DeleteWithVersionPrecondition() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("random user existing in the repository and its current version");
+        UUID userOid = randomExistingOid(QUser.class);
+        String version = repositoryService.getVersion(UserType.class, userOid.toString(), result);
+
+        expect("deleting it with a precondition for another version fails");
+        assertThatThrownBy(() -> repositoryService.deleteObject(UserType.class, userOid.toString(),
+                new VersionPrecondition<>(version + "1"), result))
+                .isInstanceOf(PreconditionViolationException.class);
+
+        and("user is not deleted");
+        assertThat(selectNullableObjectByOid(QUser.class, userOid)).isNotNull();
+
+        when("deleting it with a precondition for the current version");
+        OperationResult result2 = createOperationResult();
+        DeleteObjectResult deleteResult = repositoryService.deleteObject(
+                UserType.class, userOid.toString(), new VersionPrecondition<>(version), result2);
+
+        then("user is deleted");
+        assertThatOperationResult(result2).isSuccess();
+        assertThat(deleteResult).isNotNull();
+        assertThat(selectNullableObjectByOid(QUser.class, userOid)).isNull();
+    }
+
     @Test
     public void test920DeleteOperationUpdatesPerformanceMonitor()
             throws ObjectNotFoundException {
@@ -33,9 +33,12 @@ import com.evolveum.midpoint.prism.path.ItemName;
 import com.evolveum.midpoint.prism.path.ItemPath;
 import com.evolveum.midpoint.prism.polystring.PolyString;
 import com.evolveum.midpoint.prism.query.ObjectQuery;
+import com.evolveum.midpoint.repo.api.BatchItemResult;
+import com.evolveum.midpoint.repo.api.ConflictWatcher;
 import com.evolveum.midpoint.repo.api.RepoModifyOptions;
 import com.evolveum.midpoint.repo.api.RepositoryService;
 import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.repo.sqale.SqaleRepositoryService;
 import com.evolveum.midpoint.repo.sqale.SqaleUtils;
 import com.evolveum.midpoint.repo.sqale.jsonb.Jsonb;
 import com.evolveum.midpoint.repo.sqale.qmodel.accesscert.*;
@@ -56,6 +59,7 @@ import com.evolveum.midpoint.repo.sqale.qmodel.shadow.MShadow;
 import com.evolveum.midpoint.repo.sqale.qmodel.shadow.QShadow;
 import com.evolveum.midpoint.repo.sqale.qmodel.task.MTask;
 import com.evolveum.midpoint.repo.sqale.qmodel.task.QTask;
+import com.evolveum.midpoint.repo.sqlbase.ConflictWatcherImpl;
 import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
 import com.evolveum.midpoint.schema.GetOperationOptions;
 import com.evolveum.midpoint.schema.SearchResultList;
@@ -3449,6 +3453,152 @@ public class SqaleRepoModifyObjectTest extends SqaleRepoBaseTest {
 
     // endregion
 
+    // region batch modify
+    @Test
+    public void test850ModifyObjectsInBatchReportsFailuresPerObject() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("two users and a batch with modifications of them, of non-existing user and a non-modify delta");
+        String userAOid = repositoryService.addObject(
+                new UserType().name("user-850-a").asPrismObject(), null, result);
+        String userBOid = repositoryService.addObject(
+                new UserType().name("user-850-b").asPrismObject(), null, result);
+        String nonExistingOid = UUID.randomUUID().toString();
+        List<ObjectDelta<UserType>> deltas = List.of(
+                prismContext.deltaFor(UserType.class)
+                        .item(UserType.F_DESCRIPTION).replace("850-b")
+                        .asObjectDelta(userBOid),
+                prismContext.deltaFor(UserType.class)
+                        .item(UserType.F_DESCRIPTION).replace("850-x")
+                        .asObjectDelta(nonExistingOid),
+                prismContext.deltaFactory().object().createDeleteDelta(UserType.class, userAOid),
+                prismContext.deltaFor(UserType.class)
+                        .item(UserType.F_DESCRIPTION).replace("850-a")
+                        .asObjectDelta(userAOid));
+
+        when("batch of deltas is executed");
+        List<BatchItemResult> batchResults = repositoryService.modifyObjects(deltas, null, result);
+
+        then("results are in the order of deltas, valid modifications are applied");
+        assertThat(batchResults).hasSize(4);
+        assertThat(batchResults.get(0).isSuccess()).isTrue();
+        assertThat(batchResults.get(0).getOid()).isEqualTo(userBOid);
+        assertThat(batchResults.get(1).getException()).isInstanceOf(ObjectNotFoundException.class);
+        assertThat(batchResults.get(2).getException()).isInstanceOf(IllegalArgumentException.class);
+        assertThat(batchResults.get(3).isSuccess()).isTrue();
+        assertThat(batchResults.get(3).getOid()).isEqualTo(userAOid);
+        assertThatOperationResult(result).isPartialError();
+
+        assertThat(repositoryService.getObject(UserType.class, userAOid, null, result)
+                .asObjectable().getDescription()).isEqualTo("850-a");
+        assertThat(repositoryService.getObject(UserType.class, userBOid, null, result)
+                .asObjectable().getDescription()).isEqualTo("850-b");
+        MUser rowA = selectObjectByOid(QUser.class, userAOid);
+        assertThat(rowA.version).isEqualTo(SqaleRepositoryService.INITIAL_VERSION_NUMBER + 1);
+    }
+
+    /**
+     * Concurrent batches modifying the same objects in the opposite order must not deadlock,
+     * because the objects are locked in the order of their OIDs.
+     */
+    @Test
+    public void test851ConcurrentModifyObjectsInOppositeOrder() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("users modified by concurrent batches in the opposite order");
+        List<String> oids = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            oids.add(repositoryService.addObject(
+                    new UserType().name("user-851-" + i).asPrismObject(), null, result));
+        }
+        List<String> reversedOids = new ArrayList<>(oids);
+        Collections.reverse(reversedOids);
+        int rounds = 20;
+
+        when("two threads repeatedly modify all the users in a single batch");
+        List<BatchItemResult> allResults = Collections.synchronizedList(new ArrayList<>());
+        List<Throwable> errors = Collections.synchronizedList(new ArrayList<>());
+        List<Thread> threads = new ArrayList<>();
+        for (List<String> order : List.of(oids, reversedOids)) {
+            threads.add(new Thread(() -> {
+                try {
+                    for (int round = 0; round < rounds; round++) {
+                        List<ObjectDelta<UserType>> deltas = new ArrayList<>();
+                        for (String oid : order) {
+                            deltas.add(prismContext.deltaFor(UserType.class)
+                                    .item(UserType.F_COST_CENTER).replace(Thread.currentThread().getName() + round)
+                                    .asObjectDelta(oid));
+                        }
+                        allResults.addAll(repositoryService.modifyObjects(
+                                deltas, null, new OperationResult("modifyObjects")));
+                    }
+                } catch (Throwable t) {
+                    errors.add(t);
+                }
+            }));
+        }
+        threads.forEach(Thread::start);
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        then("all the modifications succeed");
+        assertThat(errors).isEmpty();
+        assertThat(allResults).hasSize(2 * rounds * oids.size());
+        assertThat(allResults).allMatch(BatchItemResult::isSuccess);
+        for (String oid : oids) {
+            MUser row = selectObjectByOid(QUser.class, oid);
+            assertThat(row.version).isEqualTo(SqaleRepositoryService.INITIAL_VERSION_NUMBER + 2 * rounds);
+        }
+    }
+
+    /**
+     * When a batch is repeated object by object after a failure, the rolled back attempt must not be visible:
+     * conflict watchers are notified once and each object has a single item result.
+     */
+    @Test
+    public void test852ModifyObjectsRepeatedAfterFailure() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("watched user and a batch with a non-existing user processed after it");
+        String userOid = repositoryService.addObject(
+                new UserType().name("user-852").asPrismObject(), null, result);
+        // sorted as the last one, so the watched user is modified in the failed attempt too
+        String nonExistingOid = "ffffffff-ffff-ffff-ffff-ffffffffffff";
+        List<ObjectDelta<UserType>> deltas = List.of(
+                prismContext.deltaFor(UserType.class)
+                        .item(UserType.F_DESCRIPTION).replace("852-x")
+                        .asObjectDelta(nonExistingOid),
+                prismContext.deltaFor(UserType.class)
+                        .item(UserType.F_DESCRIPTION).replace("852")
+                        .asObjectDelta(userOid));
+        ConflictWatcher watcher = repositoryService.createAndRegisterConflictWatcher(userOid);
+        try {
+            when("batch of deltas is executed");
+            OperationResult batchParentResult = createOperationResult();
+            List<BatchItemResult> batchResults = repositoryService.modifyObjects(deltas, null, batchParentResult);
+
+            then("the user is modified and the watcher sees the modification only once");
+            assertThat(batchResults.get(0).getException()).isInstanceOf(ObjectNotFoundException.class);
+            assertThat(batchResults.get(1).isSuccess()).isTrue();
+            assertThat(watcher.hasConflict()).isFalse();
+            assertThat(((ConflictWatcherImpl) watcher).getExpectedVersion())
+                    .isEqualTo(SqaleRepositoryService.INITIAL_VERSION_NUMBER + 1);
+
+            and("there is a single item result for each object");
+            OperationResult batchResult =
+                    batchParentResult.findSubresult(REPO_OP_PREFIX + RepositoryService.OP_MODIFY_OBJECTS);
+            List<OperationResult> itemResults =
+                    batchResult.findSubresults(REPO_OP_PREFIX + RepositoryService.OP_MODIFY_OBJECT);
+            assertThat(itemResults).hasSize(2);
+            assertThat(itemResults).filteredOn(OperationResult::isSuccess).hasSize(1);
+            assertThat(batchResult.isPartialError()).isTrue();
+        } finally {
+            repositoryService.unregisterConflictWatcher(watcher);
+        }
+    }
+    // endregion
+
     // region other tests
     @Test
     public void test900ModificationsMustNotBeNull() {
@@ -8,6 +8,8 @@ package com.evolveum.midpoint.repo.sqale.func;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
+import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 import java.util.UUID;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -35,6 +37,7 @@ import com.evolveum.midpoint.schema.SearchResultMetadata;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.IterationMethodType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
 
 /**
@@ -357,6 +360,119 @@ public class SqaleRepoSearchIterativeTest extends SqaleRepoBaseTest {
         }
     }
 
+    @Test
+    public void test140SearchIterativeBySingleTransactionWithMultipleOrderings() throws Exception {
+        OperationResult operationResult = createOperationResult();
+        SqlPerformanceMonitorImpl pm = getPerformanceMonitor();
+        pm.clearGlobalPerformanceInformation();
+
+        given("query with ordering by multiple paths");
+        ObjectQuery query = prismContext.queryFor(UserType.class)
+                .desc(UserType.F_COST_CENTER)
+                .asc(UserType.F_NAME)
+                .build();
+
+        when("calling search iterative with single transaction iteration method");
+        SearchResultMetadata metadata = searchObjectsIterative(query, operationResult,
+                SelectorOptions.create(GetOperationOptions.createIterationMethod(
+                        IterationMethodType.SINGLE_TRANSACTION)));
+
+        then("result metadata is not null and not partial result");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(metadata).isNotNull();
+        assertThat(metadata.getApproxNumberOfAllResults()).isEqualTo(testHandler.getCounter());
+        assertThat(metadata.isPartialResults()).isFalse();
+
+        and("only one iterative search operation was called without any page operations");
+        assertOperationRecordedCount(
+                REPO_OP_PREFIX + RepositoryService.OP_SEARCH_OBJECTS_ITERATIVE, 1);
+        assertOperationRecordedCount(
+                REPO_OP_PREFIX + RepositoryService.OP_SEARCH_OBJECTS_ITERATIVE_PAGE, 0);
+
+        and("all objects were processed in the required order");
+        assertThat(testHandler.getCounter()).isEqualTo(count(QUser.class));
+        QUser u = aliasFor(QUser.class);
+        try (JdbcSession jdbcSession = startReadOnlyTransaction()) {
+            List<String> result = jdbcSession.newQuery()
+                    .from(u)
+                    .orderBy(u.costCenter.desc(), u.nameOrig.asc(), u.oid.asc())
+                    .select(u.employeeNumber)
+                    .fetch();
+
+            for (int i = 0; i < result.size(); i++) {
+                assertThat(result.get(i)).isEqualTo(getTestNumber() + "-" + i); // order matches
+            }
+        }
+    }
+
+    @Test
+    public void test141SearchIterativeByCursorStoppedByHandler() throws Exception {
+        OperationResult operationResult = createOperationResult();
+        repositoryConfiguration.setIterativeSearchByCursor(true);
+        try {
+            given("query without paging and handler stopping after a few objects");
+            testHandler.setStoppingPredicate(u -> testHandler.getCounter() >= 5);
+
+            when("calling search iterative with cursor enabled by configuration");
+            SearchResultMetadata metadata = searchObjectsIterative(null, operationResult);
+
+            then("result metadata reports partial result and the iteration stops");
+            assertThatOperationResult(operationResult).isSuccess();
+            assertThat(metadata).isNotNull();
+            assertThat(metadata.isPartialResults()).isTrue();
+            assertThat(testHandler.getCounter()).isEqualTo(5);
+            assertThat(metadata.getApproxNumberOfAllResults()).isEqualTo(5);
+            // page cookie is the OID of the last processed object
+            assertThat(UUID.fromString(metadata.getPagingCookie())).isNotNull();
+        } finally {
+            repositoryConfiguration.setIterativeSearchByCursor(false);
+        }
+    }
+
+    /**
+     * Nested cursor searches use all the fetcher threads, the deeper ones must fetch the rows
+     * in the calling thread. Handler is always called in the calling thread.
+     */
+    @Test
+    public void test142NestedSearchesByCursorExceedingFetchers() throws Exception {
+        OperationResult operationResult = createOperationResult();
+        int depth = repositoryConfiguration.getIterativeSearchByCursorFetchers() + 2;
+        Collection<SelectorOptions<GetOperationOptions>> options =
+                SelectorOptions.createCollection(GetOperationOptions.createIterationMethod(
+                        IterationMethodType.SINGLE_TRANSACTION));
+
+        when("cursor searches are nested deeper than the number of fetcher threads");
+        Thread testThread = Thread.currentThread();
+        List<Integer> handledByLevel = new ArrayList<>();
+        searchNested(0, depth, options, testThread, handledByLevel, operationResult);
+
+        then("all the searches processed objects in the calling thread");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(handledByLevel).hasSize(depth);
+        assertThat(handledByLevel).allMatch(count -> count == 2);
+    }
+
+    /** Each level handles two objects and runs the next level from the handler of the first one. */
+    private void searchNested(int level, int depth, Collection<SelectorOptions<GetOperationOptions>> options,
+            Thread expectedThread, List<Integer> handledByLevel, OperationResult operationResult)
+            throws SchemaException {
+        AtomicInteger handled = new AtomicInteger();
+        repositoryService.searchObjectsIterative(UserType.class, null,
+                (object, result) -> {
+                    assertThat(Thread.currentThread()).isSameAs(expectedThread);
+                    if (handled.incrementAndGet() == 1 && level + 1 < depth) {
+                        try {
+                            searchNested(level + 1, depth, options, expectedThread, handledByLevel, result);
+                        } catch (SchemaException e) {
+                            throw new AssertionError(e);
+                        }
+                    }
+                    return handled.get() < 2;
+                },
+                options, true, operationResult);
+        handledByLevel.add(handled.get());
+    }
+
     @SafeVarargs
     private SearchResultMetadata searchObjectsIterative(
             ObjectQuery query,
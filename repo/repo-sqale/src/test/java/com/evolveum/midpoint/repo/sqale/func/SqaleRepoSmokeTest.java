@@ -15,6 +15,7 @@ import static com.evolveum.midpoint.repo.sqlbase.querydsl.FlexibleRelationalPath
 import java.sql.SQLException;
 import java.util.*;
 
+import org.apache.commons.lang3.StringUtils;
 import org.testng.Assert;
 import org.testng.SkipException;
 import org.testng.annotations.AfterMethod;
@@ -29,6 +30,7 @@ import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
 import com.evolveum.midpoint.repo.api.DeleteObjectResult;
 import com.evolveum.midpoint.repo.api.RepoModifyOptions;
 import com.evolveum.midpoint.repo.api.RepositoryService;
+import com.evolveum.midpoint.repo.sqale.FullObjectCompression;
 import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
 import com.evolveum.midpoint.repo.sqale.jsonb.Jsonb;
 import com.evolveum.midpoint.repo.sqale.qmodel.common.QContainer;
@@ -120,13 +122,24 @@ public class SqaleRepoSmokeTest extends SqaleRepoBaseTest {
                 .parentOrgRef(orgOid, OrgType.COMPLEX_TYPE);
         repositoryService.addObject(user.asPrismObject(), null, result);
 
+        and("closure is broken manually");
+        try (JdbcSession jdbcSession = startTransaction()) {
+            QOrgClosure oc = new QOrgClosure();
+            jdbcSession.newDelete(oc)
+                    .where(oc.ancestorOid.eq(UUID.fromString(rootOid))
+                            .and(oc.descendantOid.eq(UUID.fromString(orgOid))))
+                    .execute();
+            jdbcSession.commit();
+        }
+
         when("testOrgClosureConsistency() is called with rebuild flag");
         repositoryService.testOrgClosureConsistency(true, result);
 
         expect("operation is successful and contains info about closure");
         assertThatOperationResult(result).isSuccess();
         OperationResult subresult = result.getLastSubresult();
-        assertThat(subresult.getReturnSingle("closure-count")).isEqualTo(String.valueOf(baseCount));
+        assertThat(subresult.getReturnSingle("closure-count"))
+                .isEqualTo(String.valueOf(baseCount + 2));
         assertThat(subresult.getReturnSingle("expected-count"))
                 // two equality rows for each org + 1 for parent reference
                 .isEqualTo(String.valueOf(baseCount + 3));
@@ -134,17 +147,27 @@ public class SqaleRepoSmokeTest extends SqaleRepoBaseTest {
 
         and("closure is rebuilt");
         assertThat(count(new QOrgClosure())).isEqualTo(baseCount + 3); // as explained above
+
+        when("testOrgClosureConsistency() is called again");
+        repositoryService.testOrgClosureConsistency(true, result);
+
+        then("closure is consistent and no rebuild is done");
+        assertThatOperationResult(result).isSuccess();
+        subresult = result.getLastSubresult();
+        assertThat(subresult.getReturnSingle("matching-count"))
+                .isEqualTo(String.valueOf(baseCount + 3));
+        assertThat(subresult.getReturnSingle("rebuild-done")).isEqualTo("false");
     }
 
     @Test
-    public void test021OrgClosureIsRefreshedBeforeOrgFilterQuery() throws Exception {
+    public void test021OrgClosureIsMaintainedIncrementally() throws Exception {
         OperationResult result = createOperationResult();
 
         given("reset closure");
         refreshOrgClosureForce();
         long baseCount = count(new QOrgClosure());
 
-        given("user belonging to org hierarchy");
+        when("user belonging to org hierarchy is added");
         OrgType orgRoot = new OrgType().name("orgRoot" + getTestNumber());
         String rootOid = repositoryService.addObject(orgRoot.asPrismObject(), null, result);
         OrgType org = new OrgType().name("org" + getTestNumber())
@@ -153,21 +176,154 @@ public class SqaleRepoSmokeTest extends SqaleRepoBaseTest {
         UserType user = new UserType().name("user" + getTestNumber())
                 .parentOrgRef(orgOid, OrgType.COMPLEX_TYPE);
         String userOid = repositoryService.addObject(user.asPrismObject(), null, result);
-        assertThat(count(new QOrgClosure())).isEqualTo(baseCount); // not refreshed yet
+
+        then("closure is updated immediately");
+        assertThat(count(new QOrgClosure())).isEqualTo(baseCount + 3); // see previous test
 
         when("query with org filter is used");
         SearchResultList<PrismObject<UserType>> users = repositoryService.searchObjects(
                 UserType.class, prismContext.queryFor(UserType.class).isChildOf(rootOid).build(),
                 null, result);
 
-        expect("operation is successful and returns proper results");
+        then("operation is successful and returns proper results");
         assertThatOperationResult(result).isSuccess();
         assertThat(users).hasSize(1)
                 .extracting(p -> p.asObjectable().getOid())
                 .containsExactlyInAnyOrder(userOid);
 
-        and("closure is rebuilt");
-        assertThat(count(new QOrgClosure())).isEqualTo(baseCount + 3); // see previous test
+        when("org is moved out of the root org");
+        repositoryService.modifyObject(OrgType.class, orgOid,
+                prismContext.deltaFor(OrgType.class)
+                        .item(ObjectType.F_PARENT_ORG_REF)
+                        .delete(new ObjectReferenceType().oid(rootOid).type(OrgType.COMPLEX_TYPE))
+                        .asItemDeltas(),
+                result);
+
+        then("closure is updated immediately and the user is not under the root anymore");
+        assertThat(count(new QOrgClosure())).isEqualTo(baseCount + 2);
+        assertThat(repositoryService.searchObjects(
+                UserType.class, prismContext.queryFor(UserType.class).isChildOf(rootOid).build(),
+                null, result)).isEmpty();
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test022OrgHierarchyIndexIsInvalidatedByOrgChange() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("org hierarchy and user belonging to it");
+        OrgType orgRoot = new OrgType().name("orgRoot" + getTestNumber());
+        String rootOid = repositoryService.addObject(orgRoot.asPrismObject(), null, result);
+        OrgType org = new OrgType().name("org" + getTestNumber())
+                .parentOrgRef(rootOid, OrgType.COMPLEX_TYPE);
+        String orgOid = repositoryService.addObject(org.asPrismObject(), null, result);
+        PrismObject<UserType> user = new UserType().name("user" + getTestNumber())
+                .parentOrgRef(orgOid, OrgType.COMPLEX_TYPE)
+                .asPrismObject();
+
+        expect("ancestry checks using the index are the same as using the closure table");
+        assertThat(repositoryConfiguration.isOrgHierarchyIndex()).isTrue();
+        PrismObject<OrgType> rootObject = repositoryService.getObject(OrgType.class, rootOid, null, result);
+        assertThat(repositoryService.isAncestor(rootObject, orgOid)).isTrue();
+        assertThat(repositoryService.isDescendant(user, rootOid)).isTrue();
+        assertThat(repositoryService.isDescendant(user, orgOid)).isTrue();
+        repositoryConfiguration.setOrgHierarchyIndex(false);
+        try {
+            assertThat(repositoryService.isAncestor(rootObject, orgOid)).isTrue();
+            assertThat(repositoryService.isDescendant(user, rootOid)).isTrue();
+        } finally {
+            repositoryConfiguration.setOrgHierarchyIndex(true);
+        }
+
+        when("org is moved out of the root org");
+        repositoryService.modifyObject(OrgType.class, orgOid,
+                prismContext.deltaFor(OrgType.class)
+                        .item(ObjectType.F_PARENT_ORG_REF)
+                        .delete(new ObjectReferenceType().oid(rootOid).type(OrgType.COMPLEX_TYPE))
+                        .asItemDeltas(),
+                result);
+
+        then("index is invalidated and ancestry checks reflect the change");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(repositoryService.isAncestor(rootObject, orgOid)).isFalse();
+        assertThat(repositoryService.isDescendant(user, rootOid)).isFalse();
+        assertThat(repositoryService.isDescendant(user, orgOid)).isTrue();
+
+        when("root org is deleted");
+        repositoryService.deleteObject(OrgType.class, rootOid, result);
+
+        then("deleted org is not in the index anymore");
+        assertThat(repositoryService.isDescendant(
+                new OrgType().name("tmp").parentOrgRef(rootOid, OrgType.COMPLEX_TYPE).asPrismObject(),
+                rootOid)).isFalse();
+    }
+
+    @Test
+    public void test023OrgHierarchyIndexIsKeptOnNonHierarchyChange() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("org hierarchy and built index");
+        OrgType orgRoot = new OrgType().name("orgRoot" + getTestNumber());
+        String rootOid = repositoryService.addObject(orgRoot.asPrismObject(), null, result);
+        OrgType org = new OrgType().name("org" + getTestNumber())
+                .parentOrgRef(rootOid, OrgType.COMPLEX_TYPE);
+        String orgOid = repositoryService.addObject(org.asPrismObject(), null, result);
+        PrismObject<OrgType> rootObject = repositoryService.getObject(OrgType.class, rootOid, null, result);
+        assertThat(repositoryService.isAncestor(rootObject, orgOid)).isTrue();
+        assertThat(orgHierarchyIndexSize()).isPositive();
+
+        when("org is modified without changing the hierarchy");
+        repositoryService.modifyObject(OrgType.class, orgOid,
+                prismContext.deltaFor(OrgType.class)
+                        .item(OrgType.F_DESCRIPTION).replace("changed")
+                        .asItemDeltas(),
+                result);
+
+        then("index is kept");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(orgHierarchyIndexSize()).isPositive();
+        assertThat(repositoryService.isAncestor(rootObject, orgOid)).isTrue();
+
+        when("local invalidation of a single org is delivered via cache registry");
+        repositoryService.getOrgHierarchyIndex().invalidate(OrgType.class, orgOid, null);
+
+        then("index is kept too, the service itself handles local changes");
+        assertThat(orgHierarchyIndexSize()).isPositive();
+
+        when("invalidation of other type is delivered");
+        repositoryService.getOrgHierarchyIndex().invalidate(UserType.class, null, null);
+
+        then("index is kept");
+        assertThat(orgHierarchyIndexSize()).isPositive();
+
+        when("global invalidation of orgs is delivered");
+        repositoryService.getOrgHierarchyIndex().invalidate(OrgType.class, null, null);
+
+        then("index is dropped and rebuilt on the next use");
+        assertThat(orgHierarchyIndexSize()).isZero();
+        assertThat(repositoryService.isAncestor(rootObject, orgOid)).isTrue();
+        assertThat(orgHierarchyIndexSize()).isPositive();
+
+        when("org is moved under a new org");
+        OrgType newRoot = new OrgType().name("orgNewRoot" + getTestNumber());
+        String newRootOid = repositoryService.addObject(newRoot.asPrismObject(), null, result);
+        repositoryService.modifyObject(OrgType.class, orgOid,
+                prismContext.deltaFor(OrgType.class)
+                        .item(ObjectType.F_PARENT_ORG_REF)
+                        .replace(new ObjectReferenceType().oid(newRootOid).type(OrgType.COMPLEX_TYPE))
+                        .asItemDeltas(),
+                result);
+
+        then("ancestry checks reflect the move");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(repositoryService.isAncestor(rootObject, orgOid)).isFalse();
+        assertThat(repositoryService.isAncestor(
+                repositoryService.getObject(OrgType.class, newRootOid, null, result), orgOid)).isTrue();
+    }
+
+    private int orgHierarchyIndexSize() {
+        return repositoryService.getOrgHierarchyIndex().getStateInformation()
+                .iterator().next().getSize();
     }
 
     @Test
@@ -280,6 +436,29 @@ public class SqaleRepoSmokeTest extends SqaleRepoBaseTest {
         assertThatOperationResult(result).isFatalError();
     }
 
+    @Test
+    public void test205GetObjects() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("existing users and cleared performance information");
+        String user1Oid = repositoryService.addObject(
+                new UserType().name("user" + getTestNumber() + "-1").asPrismObject(), null, result);
+        String user2Oid = repositoryService.addObject(
+                new UserType().name("user" + getTestNumber() + "-2").asPrismObject(), null, result);
+        SqlPerformanceMonitorImpl pm = repositoryService.getPerformanceMonitor();
+        pm.clearGlobalPerformanceInformation();
+
+        when("getObjects is called for known OIDs, non-existent OID and a duplicate");
+        List<PrismObject<UserType>> objects = repositoryService.getObjects(UserType.class,
+                List.of(user2Oid, UUID.randomUUID().toString(), user1Oid, user2Oid), null, result);
+
+        then("existing objects are obtained in the order of OIDs using a single operation");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(objects).extracting(PrismObject::getOid)
+                .containsExactly(user2Oid, user1Oid);
+        assertSingleOperationRecorded(REPO_OP_PREFIX + RepositoryService.OP_GET_OBJECTS);
+    }
+
     @Test
     public void test210GetVersion() throws Exception {
         OperationResult result = createOperationResult();
@@ -396,6 +575,140 @@ public class SqaleRepoSmokeTest extends SqaleRepoBaseTest {
         assertThat(fullObjectUser.getJpegPhoto()).isNull();
     }
 
+    @Test
+    public void test230FullObjectCompression() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("user stored without compression");
+        String plainUserOid = repositoryService.addObject(
+                new UserType().name("user" + getTestNumber() + "-plain").asPrismObject(),
+                null, result);
+        MUser plainRow = selectObjectByOid(QUser.class, UUID.fromString(plainUserOid));
+        assertThat(FullObjectCompression.detect(plainRow.fullObject))
+                .isEqualTo(FullObjectCompression.NONE);
+
+        try {
+            when("compression is configured and another user is added");
+            repositoryConfiguration.setFullObjectCompression(FullObjectCompression.DEFLATE);
+            UserType user = new UserType()
+                    .name("user" + getTestNumber())
+                    .description(StringUtils.repeat("description ", 100));
+            String userOid = repositoryService.addObject(user.asPrismObject(), null, result);
+
+            then("new user is stored compressed and both users can be read");
+            assertThatOperationResult(result).isSuccess();
+            MUser row = selectObjectByOid(QUser.class, UUID.fromString(userOid));
+            assertThat(FullObjectCompression.detect(row.fullObject))
+                    .isEqualTo(FullObjectCompression.DEFLATE);
+            assertThat(row.fullObject.length)
+                    .isLessThan(FullObjectCompression.NONE.encode(
+                            FullObjectCompression.decode(row.fullObject)).length);
+            assertThat(repositoryService.getObject(UserType.class, userOid, null, result)
+                    .asObjectable().getDescription()).isEqualTo(user.getDescription());
+            assertThat(repositoryService.getObject(UserType.class, plainUserOid, null, result)
+                    .getName().getOrig()).isEqualTo("user" + getTestNumber() + "-plain");
+
+            and("rewriting full objects compresses the old user too");
+            int rewritten = repositoryService.rewriteFullObjects(UserType.class, result);
+            assertThatOperationResult(result).isSuccess();
+            assertThat(rewritten).isPositive();
+            plainRow = selectObjectByOid(QUser.class, UUID.fromString(plainUserOid));
+            assertThat(FullObjectCompression.detect(plainRow.fullObject))
+                    .isEqualTo(FullObjectCompression.DEFLATE);
+            assertThat(plainRow.version).isEqualTo(0); // version is not changed
+            assertThat(repositoryService.getObject(UserType.class, plainUserOid, null, result)
+                    .getName().getOrig()).isEqualTo("user" + getTestNumber() + "-plain");
+        } finally {
+            repositoryConfiguration.setFullObjectCompression(FullObjectCompression.NONE);
+            // other tests expect plain full objects
+            repositoryService.rewriteFullObjects(ObjectType.class, result);
+        }
+    }
+
+    @Test
+    public void test235GetObjectWithExcludedItems() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("user with assignments and activation");
+        UserType user = new UserType()
+                .name("user" + getTestNumber())
+                .description("description-" + getTestNumber())
+                .assignment(new AssignmentType()
+                        .targetRef(UUID.randomUUID().toString(), RoleType.COMPLEX_TYPE))
+                .assignment(new AssignmentType()
+                        .description("another assignment"))
+                .activation(new ActivationType()
+                        .administrativeStatus(ActivationStatusType.ENABLED));
+        String userOid = repositoryService.addObject(user.asPrismObject(), null, result);
+
+        when("user is obtained with assignments and activation excluded");
+        Collection<SelectorOptions<GetOperationOptions>> options = SchemaService.get()
+                .getOperationOptionsBuilder()
+                .item(UserType.F_ASSIGNMENT).dontRetrieve()
+                .item(UserType.F_ACTIVATION).dontRetrieve()
+                .build();
+        UserType userWithoutExcluded =
+                repositoryService.getObject(UserType.class, userOid, options, result)
+                        .asObjectable();
+
+        then("excluded items are missing, other items are returned");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(userWithoutExcluded.getAssignment()).isEmpty();
+        assertThat(userWithoutExcluded.getActivation()).isNull();
+        assertThat(userWithoutExcluded.getName().getOrig()).isEqualTo("user" + getTestNumber());
+        assertThat(userWithoutExcluded.getDescription()).isEqualTo("description-" + getTestNumber());
+
+        and("search with the same options returns the same");
+        SearchResultList<UserType> users = repositoryService.searchObjects(UserType.class,
+                        prismContext.queryFor(UserType.class).id(userOid).build(), options, result)
+                .map(o -> o.asObjectable());
+        assertThat(users).singleElement()
+                .matches(u -> u.getAssignment().isEmpty() && u.getActivation() == null
+                        && u.getDescription() != null);
+
+        and("user obtained without options is complete");
+        UserType fullUser = repositoryService.getObject(UserType.class, userOid, null, result)
+                .asObjectable();
+        assertThat(fullUser.getAssignment()).hasSize(2);
+        assertThat(fullUser.getActivation()).isNotNull();
+    }
+
+    @Test
+    public void test236ModifyObjectWithExcludedItemsKeepsThem() throws Exception {
+        OperationResult result = createOperationResult();
+
+        given("user with assignment and activation");
+        UserType user = new UserType()
+                .name("user" + getTestNumber())
+                .assignment(new AssignmentType()
+                        .targetRef(UUID.randomUUID().toString(), RoleType.COMPLEX_TYPE))
+                .activation(new ActivationType()
+                        .administrativeStatus(ActivationStatusType.ENABLED));
+        String userOid = repositoryService.addObject(user.asPrismObject(), null, result);
+
+        when("user is modified dynamically with assignments and activation excluded in get options");
+        Collection<SelectorOptions<GetOperationOptions>> options = SchemaService.get()
+                .getOperationOptionsBuilder()
+                .item(UserType.F_ASSIGNMENT).dontRetrieve()
+                .item(UserType.F_ACTIVATION).dontRetrieve()
+                .build();
+        repositoryService.modifyObjectDynamically(UserType.class, userOid, options,
+                u -> prismContext.deltaFor(UserType.class)
+                        .item(UserType.F_DESCRIPTION).replace("modified")
+                        .asItemDeltas(),
+                null, result);
+
+        then("modification is applied and excluded items are still stored in the full object");
+        assertThatOperationResult(result).isSuccess();
+        UserType modifiedUser = repositoryService.getObject(UserType.class, userOid, null, result)
+                .asObjectable();
+        assertThat(modifiedUser.getDescription()).isEqualTo("modified");
+        assertThat(modifiedUser.getAssignment()).hasSize(1);
+        assertThat(modifiedUser.getActivation()).isNotNull();
+        assertThat(modifiedUser.getActivation().getAdministrativeStatus())
+                .isEqualTo(ActivationStatusType.ENABLED);
+    }
+
     @Test
     public void test300AddDiagnosticInformation() throws Exception {
         OperationResult result = createOperationResult();
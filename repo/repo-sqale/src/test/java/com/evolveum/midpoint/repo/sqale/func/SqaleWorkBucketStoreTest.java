@@ -0,0 +1,357 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.repo.sqale.func;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import static com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketStateType.*;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.repo.api.WorkBucketStore;
+import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
+import com.evolveum.midpoint.repo.sqale.SqaleWorkBucketStore;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.schema.util.task.ActivityPath;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.NumericIntervalWorkBucketContentType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.WorkBucketType;
+
+/**
+ * Tests {@link SqaleWorkBucketStore}, with workers simulated by different worker OIDs.
+ */
+public class SqaleWorkBucketStoreTest extends SqaleRepoBaseTest {
+
+    private static final int BUCKET_SIZE = 10;
+    private static final int MAX_BUCKETS = 5;
+
+    private static final ActivityPath PATH = ActivityPath.fromId("reconciliation");
+
+    @Autowired private SqaleWorkBucketStore workBucketStore;
+
+    private String coordinatorOid;
+    private final String worker1Oid = UUID.randomUUID().toString();
+    private final String worker2Oid = UUID.randomUUID().toString();
+
+    /** Creates up to two numeric interval buckets following the last one, {@link #MAX_BUCKETS} in total. */
+    private final WorkBucketStore.NewBucketsFactory factory = lastBucket -> {
+        int lastNumber = lastBucket != null ? lastBucket.getSequentialNumber() : 0;
+        List<WorkBucketType> buckets = new ArrayList<>();
+        for (int number = lastNumber + 1; number <= Math.min(lastNumber + 2, MAX_BUCKETS); number++) {
+            buckets.add(new WorkBucketType()
+                    .sequentialNumber(number)
+                    .content(new NumericIntervalWorkBucketContentType()
+                            .from(BigInteger.valueOf((long) (number - 1) * BUCKET_SIZE))
+                            .to(BigInteger.valueOf((long) number * BUCKET_SIZE))));
+        }
+        return buckets;
+    };
+
+    @BeforeClass
+    public void initObjects() throws Exception {
+        OperationResult result = createOperationResult();
+        coordinatorOid = repositoryService.addObject(
+                new TaskType().name("coordinator").asPrismObject(), null, result);
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test100CreateAndClaimBuckets() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("worker 1 creates and claims buckets");
+        WorkBucketType bucket = workBucketStore.createAndClaimBuckets(
+                coordinatorOid, PATH, worker1Oid, factory, result);
+
+        then("the first bucket is delegated to worker 1, the other one is ready");
+        assertThatOperationResult(result).isSuccess();
+        assertThat(bucket).isNotNull();
+        assertThat(bucket.getSequentialNumber()).isEqualTo(1);
+        assertThat(bucket.getState()).isEqualTo(DELEGATED);
+        assertThat(bucket.getWorkerRef().getOid()).isEqualTo(worker1Oid);
+        assertThat(((NumericIntervalWorkBucketContentType) bucket.getContent()).getTo())
+                .isEqualTo(BigInteger.valueOf(BUCKET_SIZE));
+        assertThat(workBucketStore.countBuckets(coordinatorOid, PATH, result))
+                .containsEntry(DELEGATED, 1)
+                .containsEntry(READY, 1)
+                .doesNotContainKey(COMPLETE);
+
+        and("delegated bucket can be found for worker 1 only");
+        assertThat(workBucketStore.findDelegatedBucket(coordinatorOid, PATH, worker1Oid, result))
+                .isNotNull()
+                .extracting(WorkBucketType::getSequentialNumber).isEqualTo(1);
+        assertThat(workBucketStore.findDelegatedBucket(coordinatorOid, PATH, worker2Oid, result)).isNull();
+    }
+
+    @Test
+    public void test110ClaimReadyBucket() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("worker 2 claims a ready bucket");
+        WorkBucketType bucket = workBucketStore.claimReadyBucket(coordinatorOid, PATH, worker2Oid, result);
+
+        then("it gets the second bucket");
+        assertThat(bucket).isNotNull();
+        assertThat(bucket.getSequentialNumber()).isEqualTo(2);
+        assertThat(bucket.getWorkerRef().getOid()).isEqualTo(worker2Oid);
+
+        and("no more ready buckets are there");
+        assertThat(workBucketStore.claimReadyBucket(coordinatorOid, PATH, worker1Oid, result)).isNull();
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test115NarrowLastBucket() throws Exception {
+        OperationResult result = createOperationResult();
+        NumericIntervalWorkBucketContentType narrowed = new NumericIntervalWorkBucketContentType()
+                .from(BigInteger.valueOf(BUCKET_SIZE))
+                .to(BigInteger.valueOf(BUCKET_SIZE + BUCKET_SIZE / 2));
+
+        expect("a bucket followed by a delegated one can't be narrowed");
+        assertThat(workBucketStore.narrowBucket(coordinatorOid, PATH, 1, worker1Oid, narrowed,
+                next -> next, result))
+                .isFalse();
+
+        and("a bucket delegated to other worker can't be narrowed");
+        assertThat(workBucketStore.narrowBucket(coordinatorOid, PATH, 2, worker1Oid, narrowed,
+                next -> next, result))
+                .isFalse();
+
+        when("worker 2 narrows its (last) bucket");
+        boolean replaced = workBucketStore.narrowBucket(coordinatorOid, PATH, 2, worker2Oid, narrowed,
+                next -> null, result);
+
+        then("the bucket has the new content");
+        assertThat(replaced).isTrue();
+        WorkBucketType bucket = workBucketStore.findDelegatedBucket(coordinatorOid, PATH, worker2Oid, result);
+        assertThat(bucket).isNotNull();
+        assertThat(bucket.getContent()).isEqualTo(narrowed);
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test116NarrowBucketFollowedByReadyOne() throws Exception {
+        OperationResult result = createOperationResult();
+        ActivityPath path = ActivityPath.fromId("narrowing");
+        workBucketStore.createAndClaimBuckets(coordinatorOid, path, worker1Oid, factory, result);
+        NumericIntervalWorkBucketContentType narrowed = new NumericIntervalWorkBucketContentType()
+                .to(BigInteger.valueOf(BUCKET_SIZE / 2));
+
+        expect("narrowing is refused if the next bucket can't be adjusted");
+        assertThat(workBucketStore.narrowBucket(coordinatorOid, path, 1, worker1Oid, narrowed,
+                next -> null, result))
+                .isFalse();
+
+        when("worker 1 narrows its bucket, extending the next (ready) one");
+        boolean replaced = workBucketStore.narrowBucket(coordinatorOid, path, 1, worker1Oid, narrowed,
+                next -> ((NumericIntervalWorkBucketContentType) next).clone().from(narrowed.getTo()),
+                result);
+
+        then("both buckets have the new content");
+        assertThat(replaced).isTrue();
+        List<WorkBucketType> buckets = workBucketStore.getBuckets(coordinatorOid, path, result);
+        assertThat(buckets).extracting(WorkBucketType::getContent).containsExactly(
+                narrowed,
+                new NumericIntervalWorkBucketContentType()
+                        .from(BigInteger.valueOf(BUCKET_SIZE / 2))
+                        .to(BigInteger.valueOf(2 * BUCKET_SIZE)));
+        assertThat(buckets).extracting(WorkBucketType::getState).containsExactly(DELEGATED, READY);
+
+        when("the next bucket is claimed by worker 2");
+        workBucketStore.claimReadyBucket(coordinatorOid, path, worker2Oid, result);
+
+        then("the bucket can't be narrowed anymore");
+        assertThat(workBucketStore.narrowBucket(coordinatorOid, path, 1, worker1Oid,
+                new NumericIntervalWorkBucketContentType().to(BigInteger.ONE),
+                next -> ((NumericIntervalWorkBucketContentType) next).clone().from(BigInteger.ONE),
+                result))
+                .isFalse();
+        assertThat(workBucketStore.getBuckets(coordinatorOid, path, result))
+                .extracting(WorkBucketType::getContent)
+                .first().isEqualTo(narrowed);
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test120CompleteBucket() {
+        OperationResult result = createOperationResult();
+
+        expect("bucket of worker 2 can't be completed by worker 1");
+        assertThat(workBucketStore.completeBucket(coordinatorOid, PATH, 2, worker1Oid, result)).isFalse();
+
+        when("worker 1 completes its bucket");
+        boolean completed = workBucketStore.completeBucket(coordinatorOid, PATH, 1, worker1Oid, result);
+
+        then("the bucket is complete");
+        assertThat(completed).isTrue();
+        assertThat(workBucketStore.countBuckets(coordinatorOid, PATH, result))
+                .containsEntry(COMPLETE, 1)
+                .containsEntry(DELEGATED, 1)
+                .doesNotContainKey(READY);
+
+        and("existence of buckets in given states agrees with the counts");
+        assertThat(workBucketStore.hasBuckets(coordinatorOid, PATH, COMPLETE, result)).isTrue();
+        assertThat(workBucketStore.hasBuckets(coordinatorOid, PATH, DELEGATED, result)).isTrue();
+        assertThat(workBucketStore.hasBuckets(coordinatorOid, PATH, READY, result)).isFalse();
+        assertThat(workBucketStore.hasBuckets(coordinatorOid, ActivityPath.fromId("other"), COMPLETE, result))
+                .isFalse();
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test130ReleaseAndReclaimBuckets() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("worker 2 releases its bucket");
+        int released = workBucketStore.releaseBuckets(coordinatorOid, PATH, worker2Oid, 2, result);
+
+        then("the bucket is ready again and can be claimed by worker 1");
+        assertThat(released).isEqualTo(1);
+        WorkBucketType bucket = workBucketStore.claimReadyBucket(coordinatorOid, PATH, worker1Oid, result);
+        assertThat(bucket).isNotNull();
+        assertThat(bucket.getSequentialNumber()).isEqualTo(2);
+
+        when("buckets of workers other than worker 2 are reclaimed");
+        int reclaimed = workBucketStore.reclaimBuckets(coordinatorOid, PATH, Set.of(worker2Oid), result);
+
+        then("the bucket of worker 1 is ready again");
+        assertThat(reclaimed).isEqualTo(1);
+        assertThat(workBucketStore.countBuckets(coordinatorOid, PATH, result))
+                .containsEntry(COMPLETE, 1)
+                .containsEntry(READY, 1)
+                .doesNotContainKey(DELEGATED);
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test140CreateBucketsUntilThereAreNoMore() throws Exception {
+        OperationResult result = createOperationResult();
+
+        expect("ready bucket is claimed instead of creating new ones");
+        WorkBucketType bucket = workBucketStore.createAndClaimBuckets(
+                coordinatorOid, PATH, worker2Oid, factory, result);
+        assertThat(bucket).isNotNull();
+        assertThat(bucket.getSequentialNumber()).isEqualTo(2);
+
+        when("buckets are created and completed until factory returns none");
+        int lastNumber = 0;
+        WorkBucketType newBucket;
+        while ((newBucket = workBucketStore.createAndClaimBuckets(
+                coordinatorOid, PATH, worker1Oid, factory, result)) != null) {
+            lastNumber = newBucket.getSequentialNumber();
+            assertThat(workBucketStore.completeBucket(coordinatorOid, PATH, lastNumber, worker1Oid, result)).isTrue();
+        }
+        assertThat(workBucketStore.completeBucket(coordinatorOid, PATH, 2, null, result)).isTrue();
+
+        then("all buckets are complete");
+        assertThat(lastNumber).isEqualTo(MAX_BUCKETS);
+        assertThat(workBucketStore.countBuckets(coordinatorOid, PATH, result))
+                .containsOnlyKeys(COMPLETE)
+                .containsEntry(COMPLETE, MAX_BUCKETS);
+        assertThat(workBucketStore.getBuckets(coordinatorOid, PATH, result))
+                .extracting(WorkBucketType::getSequentialNumber)
+                .containsExactly(1, 2, 3, 4, 5);
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    @Test
+    public void test150DeleteBuckets() throws Exception {
+        OperationResult result = createOperationResult();
+
+        when("buckets of the coordinator are deleted");
+        workBucketStore.deleteBuckets(coordinatorOid, null, result);
+
+        then("there are no buckets");
+        assertThat(workBucketStore.getBuckets(coordinatorOid, PATH, result)).isEmpty();
+        assertThat(workBucketStore.countBuckets(coordinatorOid, PATH, result)).isEmpty();
+        assertThatOperationResult(result).isSuccess();
+    }
+
+    /**
+     * Many workers claim ready buckets at once. Each bucket must be claimed exactly once,
+     * and the workers must not wait for each other (the rows locked by others are skipped).
+     */
+    @Test
+    public void test160ConcurrentClaims() throws Exception {
+        OperationResult result = createOperationResult();
+        ActivityPath path = ActivityPath.fromId("concurrent");
+        int bucketsCount = 50;
+        int workersCount = 8;
+
+        given("many ready buckets");
+        WorkBucketType first = workBucketStore.createAndClaimBuckets(coordinatorOid, path, worker1Oid,
+                lastBucket -> IntStream.rangeClosed(1, bucketsCount)
+                        .mapToObj(number -> new WorkBucketType()
+                                .sequentialNumber(number)
+                                .content(new NumericIntervalWorkBucketContentType()
+                                        .from(BigInteger.valueOf(number))
+                                        .to(BigInteger.valueOf(number + 1))))
+                        .toList(),
+                result);
+        assertThat(first).isNotNull();
+        assertThat(workBucketStore.countBuckets(coordinatorOid, path, result))
+                .containsEntry(READY, bucketsCount - 1);
+
+        when("workers claim and complete the buckets concurrently");
+        Collection<Integer> claimed = new ConcurrentLinkedQueue<>();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(workersCount);
+        List<Future<?>> futures = new ArrayList<>();
+        try {
+            for (int i = 0; i < workersCount; i++) {
+                String workerOid = UUID.randomUUID().toString();
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    OperationResult workerResult = new OperationResult("worker");
+                    WorkBucketType bucket;
+                    while ((bucket = workBucketStore.claimReadyBucket(coordinatorOid, path, workerOid, workerResult)) != null) {
+                        claimed.add(bucket.getSequentialNumber());
+                        assertThat(workBucketStore.completeBucket(
+                                coordinatorOid, path, bucket.getSequentialNumber(), workerOid, workerResult))
+                                .isTrue();
+                    }
+                    return null;
+                }));
+            }
+            start.countDown();
+            for (Future<?> future : futures) {
+                future.get(1, TimeUnit.MINUTES);
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        then("each ready bucket was claimed exactly once");
+        assertThat(claimed)
+                .doesNotHaveDuplicates()
+                .hasSize(bucketsCount - 1)
+                .doesNotContain(first.getSequentialNumber());
+        assertThat(workBucketStore.countBuckets(coordinatorOid, path, result))
+                .containsEntry(COMPLETE, bucketsCount - 1)
+                .containsEntry(DELEGATED, 1)
+                .doesNotContainKey(READY);
+
+        workBucketStore.deleteBuckets(coordinatorOid, path, result);
+        assertThatOperationResult(result).isSuccess();
+    }
+}
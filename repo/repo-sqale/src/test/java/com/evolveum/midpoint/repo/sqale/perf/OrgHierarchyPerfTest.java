@@ -9,6 +9,10 @@ package com.evolveum.midpoint.repo.sqale.perf;
 import static org.assertj.core.api.Assertions.assertThat;
 
 import java.security.SecureRandom;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+import java.util.stream.Collectors;
 
 import org.testng.annotations.BeforeClass;
 import org.testng.annotations.Test;
@@ -18,12 +22,14 @@ import com.evolveum.midpoint.repo.sqale.SqaleRepoBaseTest;
 import com.evolveum.midpoint.repo.sqale.qmodel.focus.QUser;
 import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrg;
 import com.evolveum.midpoint.repo.sqale.qmodel.org.QOrgClosure;
+import com.evolveum.midpoint.repo.sqlbase.JdbcSession;
 import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.util.MiscUtil;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.SchemaException;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.MetadataType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectReferenceType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.OrgType;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.UserType;
@@ -88,11 +94,11 @@ public class OrgHierarchyPerfTest extends SqaleRepoBaseTest {
 
     @Test
     public void test100Xxx() throws Exception {
-        given("there are orgs and users, closure is not yet updated");
+        given("there are orgs and users, closure is already updated");
         OperationResult operationResult = createOperationResult();
         display("Orgs: " + count(QOrg.CLASS));
         display("Users: " + count(QUser.class));
-        assertThat(count(new QOrgClosure())).isZero();
+        assertThat(count(new QOrgClosure())).isPositive();
         OrgType org1x1x1 = searchObjects(OrgType.class,
                 prismContext.queryFor(OrgType.class)
                         .item(ObjectType.F_NAME).eq(PolyString.fromOrig("org1x1x1"))
@@ -106,11 +112,118 @@ public class OrgHierarchyPerfTest extends SqaleRepoBaseTest {
                         .build(),
                 operationResult);
 
-        then("non-empty result is returned and org closure has been initialized");
+        then("non-empty result is returned");
         assertThat(result).isNotEmpty();
-        assertThat(count(new QOrgClosure())).isPositive();
         display("Orgs: " + count(QOrg.CLASS));
         display("Org closure: " + count(new QOrgClosure()));
         display("Users: " + count(QUser.class));
     }
+
+    @Test
+    public void test200OrgMoveVersusFullRebuild() throws Exception {
+        given("org hierarchy with closure");
+        OperationResult operationResult = createOperationResult();
+        OrgType org1 = searchOrgByName("org1", operationResult);
+        OrgType org1x1 = searchOrgByName("org1x1", operationResult);
+        OrgType org2 = searchOrgByName("org2", operationResult);
+        long closureCount = count(new QOrgClosure());
+        Set<UUID> subtree = selectDescendants(org1x1.getOid());
+
+        when("org subtree is moved to another parent");
+        long startMs = System.currentTimeMillis();
+        repositoryService.modifyObject(OrgType.class, org1x1.getOid(),
+                prismContext.deltaFor(OrgType.class)
+                        .item(ObjectType.F_PARENT_ORG_REF)
+                        .replace(new ObjectReferenceType().oid(org2.getOid()).type(OrgType.COMPLEX_TYPE))
+                        .asItemDeltas(),
+                operationResult);
+        long moveMs = System.currentTimeMillis() - startMs;
+
+        then("closure is updated incrementally: the subtree is under the new parent, not under the old one");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(count(new QOrgClosure())).isEqualTo(closureCount);
+        assertThat(selectDescendants(org1x1.getOid())).isEqualTo(subtree);
+        assertThat(selectDescendants(org2.getOid())).containsAll(subtree);
+        assertThat(selectDescendants(org1.getOid())).doesNotContainAnyElementsOf(subtree);
+
+        and("full rebuild (former refresh) gives the same rows");
+        Set<String> incrementalRows = selectClosureRows();
+        startMs = System.currentTimeMillis();
+        refreshOrgClosureForce();
+        long rebuildMs = System.currentTimeMillis() - startMs;
+        assertThat(selectClosureRows()).isEqualTo(incrementalRows);
+        // timings are only informative, single runs are not comparable reliably
+        display("Org closure: " + closureCount + ", subtree move: " + moveMs
+                + " ms, full rebuild: " + rebuildMs + " ms");
+    }
+
+    @Test
+    public void test300ParentRefCreatingCycleIsIgnored() throws Exception {
+        given("org hierarchy with closure");
+        OperationResult operationResult = createOperationResult();
+        OrgType org3 = searchOrgByName("org3", operationResult);
+        OrgType org3x1x1 = searchOrgByName("org3x1x1", operationResult);
+        Set<String> rowsBefore = selectClosureRows();
+
+        when("a root org gets its own descendant as another parent");
+        repositoryService.modifyObject(OrgType.class, org3.getOid(),
+                prismContext.deltaFor(OrgType.class)
+                        .item(ObjectType.F_PARENT_ORG_REF)
+                        .add(new ObjectReferenceType().oid(org3x1x1.getOid()).type(OrgType.COMPLEX_TYPE))
+                        .asItemDeltas(),
+                operationResult);
+
+        then("the ref closing the cycle is ignored by the closure");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(selectClosureRows()).isEqualTo(rowsBefore);
+
+        and("full rebuild terminates and gives the same rows");
+        refreshOrgClosureForce();
+        assertThat(selectClosureRows()).isEqualTo(rowsBefore);
+
+        when("the ref closing the cycle is removed");
+        repositoryService.modifyObject(OrgType.class, org3.getOid(),
+                prismContext.deltaFor(OrgType.class)
+                        .item(ObjectType.F_PARENT_ORG_REF)
+                        .delete(new ObjectReferenceType().oid(org3x1x1.getOid()).type(OrgType.COMPLEX_TYPE))
+                        .asItemDeltas(),
+                operationResult);
+
+        then("the closure is not changed");
+        assertThatOperationResult(operationResult).isSuccess();
+        assertThat(selectClosureRows()).isEqualTo(rowsBefore);
+    }
+
+    private OrgType searchOrgByName(String name, OperationResult operationResult) throws SchemaException {
+        return searchObjects(OrgType.class,
+                prismContext.queryFor(OrgType.class)
+                        .item(ObjectType.F_NAME).eq(PolyString.fromOrig(name))
+                        .build(),
+                operationResult).get(0);
+    }
+
+    /** Returns the descendants of the org, including the org itself (identity row). */
+    private Set<UUID> selectDescendants(String oid) {
+        QOrgClosure oc = new QOrgClosure();
+        try (JdbcSession jdbcSession = startReadOnlyTransaction()) {
+            return new HashSet<>(jdbcSession.newQuery()
+                    .from(oc)
+                    .select(oc.descendantOid)
+                    .where(oc.ancestorOid.eq(UUID.fromString(oid)))
+                    .fetch());
+        }
+    }
+
+    private Set<String> selectClosureRows() {
+        QOrgClosure oc = new QOrgClosure();
+        try (JdbcSession jdbcSession = startReadOnlyTransaction()) {
+            return jdbcSession.newQuery()
+                    .from(oc)
+                    .select(oc.ancestorOid, oc.descendantOid, oc.paths)
+                    .fetch()
+                    .stream()
+                    .map(t -> t.get(oc.ancestorOid) + "=>" + t.get(oc.descendantOid) + ":" + t.get(oc.paths))
+                    .collect(Collectors.toSet());
+        }
+    }
 }
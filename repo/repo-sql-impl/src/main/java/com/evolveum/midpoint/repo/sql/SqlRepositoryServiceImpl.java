@@ -195,17 +195,6 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
         }
     }
 
-    @SuppressWarnings("SameParameterValue")
-    private <RV> RV executeAttemptsNoSchemaException(
-            String oid, String operationName, Class<?> type, String operationVerb,
-            OperationResult subResult, ResultSupplier<RV> supplier) throws ObjectNotFoundException {
-        try {
-            return executeAttempts(oid, operationName, type, operationVerb, subResult, supplier);
-        } catch (SchemaException e) {
-            throw new AssertionError("Should not occur", e);
-        }
-    }
-
     @SuppressWarnings("SameParameterValue")
     private <RV> RV executeQueryAttemptsNoSchemaException(ObjectQuery query,
             String operationName, Class<?> type, String operationVerb, OperationResult subResult,
@@ -458,6 +447,19 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
     public <T extends ObjectType> DeleteObjectResult deleteObject(
             Class<T> type, String oid, OperationResult result)
             throws ObjectNotFoundException {
+        try {
+            return deleteObject(type, oid, null, result);
+        } catch (PreconditionViolationException e) {
+            throw new AssertionError(e); // with null precondition we couldn't get this exception
+        }
+    }
+
+    @NotNull
+    @Override
+    public <T extends ObjectType> DeleteObjectResult deleteObject(
+            @NotNull Class<T> type, @NotNull String oid,
+            ModificationPrecondition<T> precondition, @NotNull OperationResult result)
+            throws ObjectNotFoundException, PreconditionViolationException {
         Validate.notNull(type, "Object type must not be null.");
         Validate.notEmpty(oid, "Oid must not be null or empty.");
         Validate.notNull(result, "Operation result must not be null.");
@@ -469,15 +471,23 @@ public class SqlRepositoryServiceImpl extends SqlBaseService implements Reposito
                 .addParam("type", type.getName())
                 .addParam("oid", oid)
                 .build();
+        SqlPerformanceMonitorImpl pm = getPerformanceMonitor();
+        long opHandle = pm.registerOperationStart(OP_DELETE_OBJECT, type);
+        int attempt = 1;
         try {
-
-            DeleteObjectResult rv = executeAttemptsNoSchemaException(oid, OP_DELETE_OBJECT, type, "deleting",
-                    subResult, () -> objectUpdater.deleteObjectAttempt(type, oid, subResult)
-            );
-            invokeConflictWatchers((w) -> w.afterDeleteObject(oid));
-            return rv;
-
+            // Not using executeAttempts, as the supplier there cannot throw PreconditionViolationException.
+            while (true) {
+                try {
+                    DeleteObjectResult rv = objectUpdater.deleteObjectAttempt(type, oid, precondition, subResult);
+                    invokeConflictWatchers((w) -> w.afterDeleteObject(oid));
+                    return rv;
+                } catch (RuntimeException ex) {
+                    attempt = baseHelper.logOperationAttempt(oid, "deleting", attempt, ex, subResult);
+                    pm.registerOperationNewAttempt(opHandle, attempt);
+                }
+            }
         } finally {
+            pm.registerOperationFinish(opHandle, attempt);
             OperationLogger.logDelete(type, oid, subResult);
         }
     }
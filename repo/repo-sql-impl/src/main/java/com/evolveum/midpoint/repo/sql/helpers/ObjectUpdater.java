@@ -299,14 +299,23 @@ public class ObjectUpdater {
         return oid;
     }
 
-    public <T extends ObjectType> DeleteObjectResult deleteObjectAttempt(Class<T> type, String oid, OperationResult result)
-            throws ObjectNotFoundException {
+    public <T extends ObjectType> DeleteObjectResult deleteObjectAttempt(Class<T> type, String oid,
+            ModificationPrecondition<T> precondition, OperationResult result)
+            throws ObjectNotFoundException, PreconditionViolationException {
         LOGGER_PERFORMANCE.debug("> delete object {}, oid={}", type.getSimpleName(), oid);
         Session session = null;
         OrgClosureManager.Context closureContext = null;
         try {
             session = baseHelper.beginTransaction();
 
+            if (precondition != null) {
+                // The row is locked here, so the object cannot be changed between the check and the deletion.
+                PrismObject<T> prismObject = objectRetriever.getObjectInternal(session, type, oid, null, true);
+                if (!precondition.holds(prismObject)) {
+                    throw new PreconditionViolationException("Deletion precondition does not hold for " + prismObject);
+                }
+            }
+
             Class<? extends RObject> clazz = ClassMapper.getHQLTypeClass(type);
             RObject object = session.get(clazz, oid);
             if (object == null) {
@@ -332,7 +341,10 @@ public class ObjectUpdater {
         } catch (ObjectNotFoundException ex) {
             baseHelper.rollbackTransaction(session, ex, result, FATAL_ERROR); // TODO might be handled error instead?
             throw ex;
-        } catch (RuntimeException ex) {
+        } catch (PreconditionViolationException ex) {
+            baseHelper.rollbackTransaction(session, ex, result, HANDLED_ERROR);
+            throw ex;
+        } catch (SchemaException | DtoTranslationException | RuntimeException ex) {
             baseHelper.handleGeneralException(ex, session, result);
             throw new AssertionError("Should not get here");
         } finally {
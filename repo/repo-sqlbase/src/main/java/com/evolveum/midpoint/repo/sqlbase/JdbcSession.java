@@ -8,6 +8,7 @@ package com.evolveum.midpoint.repo.sqlbase;
 
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Statement;
 import java.sql.Types;
 import java.util.Objects;
@@ -180,6 +181,35 @@ public class JdbcSession implements AutoCloseable {
         }
     }
 
+    /**
+     * Creates savepoint in the current transaction, this allows to recover from an error
+     * without rolling back the whole transaction using {@link #rollbackToSavepoint(Savepoint)}.
+     */
+    public Savepoint setSavepoint() {
+        try {
+            return connection.setSavepoint();
+        } catch (SQLException e) {
+            throw new SystemException("Couldn't set savepoint", e);
+        }
+    }
+
+    public void rollbackToSavepoint(Savepoint savepoint) {
+        try {
+            LOGGER.debug("Rolling back to savepoint (session {})", sessionId);
+            connection.rollback(savepoint);
+        } catch (SQLException e) {
+            throw new SystemException("Couldn't rollback to savepoint", e);
+        }
+    }
+
+    public void releaseSavepoint(Savepoint savepoint) {
+        try {
+            connection.releaseSavepoint(savepoint);
+        } catch (SQLException e) {
+            throw new SystemException("Couldn't release savepoint", e);
+        }
+    }
+
     /**
      * This is used for technical statements and throws {@link SystemException}.
      * Don't use this for unsafe concatenated statements with parameters!
@@ -9,6 +9,7 @@ package com.evolveum.midpoint.repo.sqlbase;
 import java.util.*;
 import java.util.function.BiFunction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import javax.xml.namespace.QName;
 
 import com.querydsl.core.Tuple;
@@ -18,6 +19,7 @@ import com.querydsl.core.types.Path;
 import com.querydsl.core.types.Predicate;
 import com.querydsl.core.types.dsl.ComparableExpressionBase;
 import com.querydsl.sql.SQLQuery;
+import com.querydsl.sql.StatementOptions;
 import org.jetbrains.annotations.NotNull;
 
 import com.evolveum.midpoint.prism.ItemDefinition;
@@ -322,6 +324,39 @@ public abstract class SqlQueryContext<S, Q extends FlexibleRelationalPathBase<R>
         return new PageOf<>(data, PageOf.PAGE_NO_PAGINATION, 0);
     }
 
+    /**
+     * Returns true if {@link #executeQueryStream} can be used.
+     * Detail fetchers need all the rows at once, so these mappings can't be streamed
+     * (these are used only by old audit anyway).
+     */
+    public boolean isStreamingSupported() {
+        return entityPathMapping.detailFetchMappers().isEmpty();
+    }
+
+    /**
+     * Executes the query using server-side cursor, rows are fetched from the database
+     * lazily in chunks of provided fetch size.
+     * Contrary to {@link #executeQuery}, no default limit is applied and detail fetchers are not
+     * supported, see {@link #isStreamingSupported()}.
+     * Returned stream must be closed and the JDBC session must be in a transaction (no auto-commit),
+     * otherwise the driver fetches all the rows at once.
+     */
+    public Stream<Tuple> executeQueryStream(JdbcSession jdbcSession, int fetchSize) throws QueryException {
+        if (!isStreamingSupported()) {
+            throw new UnsupportedOperationException(
+                    "Query streaming is not supported for mappings with detail fetchers: " + entityPathMapping);
+        }
+
+        SQLQuery<?> query = sqlQuery.clone(jdbcSession.connection());
+        query.setStatementOptions(StatementOptions.builder()
+                .setFetchSize(fetchSize)
+                .build());
+        // see com.evolveum.midpoint.repo.sqlbase.querydsl.SqlLogger for logging details
+        return query
+                .select(buildSelectExpressions(root(), query))
+                .stream();
+    }
+
     private @NotNull Expression<?>[] buildSelectExpressions(Q entity, SQLQuery<?> query) {
         Path<?>[] defaultExpressions = entityPathMapping.selectExpressions(entity, options);
         if (!query.getMetadata().isDistinct() || query.getMetadata().getOrderBy().isEmpty()) {
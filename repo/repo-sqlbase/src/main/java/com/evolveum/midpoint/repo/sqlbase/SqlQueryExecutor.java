@@ -6,10 +6,15 @@
  */
 package com.evolveum.midpoint.repo.sqlbase;
 
-import java.util.Collection;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
 
 import com.querydsl.core.Tuple;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import com.evolveum.midpoint.prism.query.ObjectQuery;
 import com.evolveum.midpoint.repo.sqlbase.querydsl.FlexibleRelationalPathBase;
@@ -18,6 +23,9 @@ import com.evolveum.midpoint.schema.SearchResultList;
 import com.evolveum.midpoint.schema.SearchResultMetadata;
 import com.evolveum.midpoint.schema.SelectorOptions;
 import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.util.exception.SystemException;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
 
 /**
  * Component just under the service that orchestrates query transformation and execution.
@@ -26,10 +34,38 @@ import com.evolveum.midpoint.util.exception.SchemaException;
  */
 public class SqlQueryExecutor {
 
+    private static final Trace LOGGER = TraceManager.getTrace(SqlQueryExecutor.class);
+
+    /** Queue item signalling the end of the results, see {@link #iterate}. */
+    private static final Object ITERATION_END = new Object();
+
     private final SqlRepoContext sqlRepoContext;
 
+    /** Bounded pool of threads for {@link #iterate}, null if iteration runs in the calling thread only. */
+    @Nullable private final ExecutorService fetcherExecutor;
+
     public SqlQueryExecutor(SqlRepoContext sqlRepoContext) {
+        this(sqlRepoContext, 0);
+    }
+
+    /**
+     * @param maxFetchers max number of threads fetching the rows for {@link #iterate} in the background;
+     * these are created as needed and stopped after a minute of inactivity
+     */
+    public SqlQueryExecutor(SqlRepoContext sqlRepoContext, int maxFetchers) {
         this.sqlRepoContext = sqlRepoContext;
+        if (maxFetchers > 0) {
+            AtomicInteger threadNumber = new AtomicInteger();
+            this.fetcherExecutor = new ThreadPoolExecutor(0, maxFetchers,
+                    1, TimeUnit.MINUTES, new SynchronousQueue<>(),
+                    r -> {
+                        Thread thread = new Thread(r, "sql-iteration-fetcher-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+        } else {
+            this.fetcherExecutor = null;
+        }
     }
 
     public <S, Q extends FlexibleRelationalPathBase<R>, R> int count(
@@ -71,6 +107,222 @@ public class SqlQueryExecutor {
         }
     }
 
+    /**
+     * Iterates over the query results using server-side cursor in a single read-only transaction.
+     * Ordering and limit from the query paging are respected, but no default limit is used.
+     *
+     * Rows are fetched and transformed (parsed) in a fetcher thread from a bounded pool,
+     * the fetcher owns the JDBC session and hands transformed objects over to the calling thread
+     * using bounded queue.
+     * This way fetching and parsing overlaps with the handler, which is always called
+     * in the calling thread.
+     * If there is no fetcher pool or all fetchers are busy, rows are fetched in the calling thread.
+     * If the query does not support streaming (mapping with detail fetchers), all the results
+     * are fetched at once, the same way as for {@link #list}.
+     * Handler returning false stops the iteration.
+     *
+     * @param fetchSize number of rows fetched from the cursor at once, also used for transformation
+     * @param queueSize max number of transformed objects waiting for the handler
+     * @return number of objects passed to the handler
+     */
+    public <S, Q extends FlexibleRelationalPathBase<R>, R> int iterate(
+            @NotNull SqlQueryContext<S, Q, R> context,
+            ObjectQuery query,
+            Collection<SelectorOptions<GetOperationOptions>> options,
+            int fetchSize,
+            int queueSize,
+            @NotNull Predicate<S> handler)
+            throws RepositoryException, SchemaException {
+
+        if (query != null) {
+            context.processFilter(query.getFilter());
+            context.processObjectPaging(query.getPaging());
+        }
+        context.processOptions(options);
+
+        context.beforeQuery();
+
+        if (!context.isStreamingSupported()) {
+            return iterateInCallingThread(context, handler, this::fetchAll);
+        }
+
+        IterationFetcher<S, Q, R> fetcher = new IterationFetcher<>(context, fetchSize, queueSize);
+        Future<?> fetcherFuture = submitFetcher(fetcher);
+        if (fetcherFuture == null) {
+            return iterateInCallingThread(context, handler, (c, sink) -> fetchByCursor(c, fetchSize, sink));
+        }
+
+        int handledCount = 0;
+        try {
+            while (true) {
+                Object item = fetcher.queue.take();
+                if (item == ITERATION_END) {
+                    return handledCount;
+                } else if (item instanceof IterationFailure) {
+                    throw rethrow(((IterationFailure) item).throwable);
+                }
+
+                handledCount++;
+                //noinspection unchecked
+                if (!handler.test((S) item)) {
+                    return handledCount;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SystemException("Interrupted while waiting for iterated objects", e);
+        } finally {
+            fetcher.stopped = true;
+            fetcher.queue.clear();
+            try {
+                fetcherFuture.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException | CancellationException e) {
+                // the failure (if any) was already reported via the queue
+                LOGGER.trace("Iteration fetcher ended with {}", e.toString());
+            }
+        }
+    }
+
+    /** Stops the fetcher threads, intended for repository shutdown. */
+    public void shutdown() {
+        if (fetcherExecutor != null) {
+            fetcherExecutor.shutdownNow();
+        }
+    }
+
+    /** Returns null if there is no free fetcher thread. */
+    private @Nullable Future<?> submitFetcher(IterationFetcher<?, ?, ?> fetcher) {
+        if (fetcherExecutor == null) {
+            return null;
+        }
+        try {
+            return fetcherExecutor.submit(fetcher);
+        } catch (RejectedExecutionException e) {
+            LOGGER.debug("No free iteration fetcher, fetching the rows in the calling thread");
+            return null;
+        }
+    }
+
+    private <S, Q extends FlexibleRelationalPathBase<R>, R> int iterateInCallingThread(
+            SqlQueryContext<S, Q, R> context, Predicate<S> handler, RowsFetcher<S, Q, R> rowsFetcher)
+            throws SchemaException, QueryException {
+        int[] handledCount = new int[1];
+        rowsFetcher.fetch(context, object -> {
+            handledCount[0]++;
+            return handler.test(object);
+        });
+        return handledCount[0];
+    }
+
+    /**
+     * Streams the rows using the cursor, transforms them in chunks and passes them to the sink,
+     * until the sink returns false.
+     */
+    private <S, Q extends FlexibleRelationalPathBase<R>, R> void fetchByCursor(
+            SqlQueryContext<S, Q, R> context, int fetchSize, Predicate<S> sink)
+            throws SchemaException, QueryException {
+        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startReadOnlyTransaction();
+                Stream<Tuple> rows = context.executeQueryStream(jdbcSession, fetchSize)) {
+            Iterator<Tuple> iterator = rows.iterator();
+            List<Tuple> chunk = new ArrayList<>(fetchSize);
+            while (iterator.hasNext()) {
+                chunk.add(iterator.next());
+                if (chunk.size() >= fetchSize || !iterator.hasNext()) {
+                    for (S object : context.transformToSchemaType(new PageOf<>(chunk), jdbcSession)) {
+                        if (!sink.test(object)) {
+                            return;
+                        }
+                    }
+                    chunk = new ArrayList<>(fetchSize);
+                }
+            }
+            jdbcSession.commit();
+        }
+    }
+
+    /** Non-streaming variant of {@link #fetchByCursor}, used when the query can't be streamed. */
+    private <S, Q extends FlexibleRelationalPathBase<R>, R> void fetchAll(
+            SqlQueryContext<S, Q, R> context, Predicate<S> sink)
+            throws SchemaException, QueryException {
+        try (JdbcSession jdbcSession = sqlRepoContext.newJdbcSession().startReadOnlyTransaction()) {
+            PageOf<S> result = context.transformToSchemaType(context.executeQuery(jdbcSession), jdbcSession);
+            for (S object : result) {
+                if (!sink.test(object)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private RuntimeException rethrow(Throwable t) throws SchemaException, RepositoryException {
+        if (t instanceof SchemaException) {
+            throw (SchemaException) t;
+        } else if (t instanceof RepositoryException) {
+            throw (RepositoryException) t;
+        } else if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        } else if (t instanceof Error) {
+            throw (Error) t;
+        }
+        return new SystemException(t.getMessage(), t);
+    }
+
+    @FunctionalInterface
+    private interface RowsFetcher<S, Q extends FlexibleRelationalPathBase<R>, R> {
+        void fetch(SqlQueryContext<S, Q, R> context, Predicate<S> sink) throws SchemaException, QueryException;
+    }
+
+    /** Fetches and transforms the rows in the fetcher thread for {@link #iterate}. */
+    private class IterationFetcher<S, Q extends FlexibleRelationalPathBase<R>, R> implements Runnable {
+
+        private final SqlQueryContext<S, Q, R> context;
+        private final int fetchSize;
+        private final BlockingQueue<Object> queue;
+
+        private volatile boolean stopped;
+
+        private IterationFetcher(SqlQueryContext<S, Q, R> context, int fetchSize, int queueSize) {
+            this.context = context;
+            this.fetchSize = fetchSize;
+            this.queue = new ArrayBlockingQueue<>(queueSize);
+        }
+
+        @Override
+        public void run() {
+            try {
+                fetchByCursor(context, fetchSize, this::put);
+                put(ITERATION_END);
+            } catch (Throwable t) {
+                put(new IterationFailure(t));
+            }
+        }
+
+        /** Puts the item to the queue, returns false if the iteration was stopped in the meantime. */
+        private boolean put(Object item) {
+            try {
+                while (!stopped) {
+                    if (queue.offer(item, 100, TimeUnit.MILLISECONDS)) {
+                        return true;
+                    }
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return false;
+        }
+    }
+
+    /** Queue item signalling failure of the fetching thread, see {@link #iterate}. */
+    private static class IterationFailure {
+        private final Throwable throwable;
+
+        private IterationFailure(Throwable throwable) {
+            this.throwable = throwable;
+        }
+    }
+
     @NotNull
     private <T> SearchResultList<T> createSearchResultList(PageOf<T> result) {
         SearchResultMetadata metadata = new SearchResultMetadata();
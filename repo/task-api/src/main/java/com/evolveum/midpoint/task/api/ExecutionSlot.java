@@ -0,0 +1,26 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.task.api;
+
+import com.evolveum.midpoint.util.annotation.Experimental;
+
+/**
+ * Permission to process a unit of work, granted by the node-local fair-share scheduler.
+ * See {@link RunningTask#acquireExecutionSlot()}.
+ */
+@Experimental
+@FunctionalInterface
+public interface ExecutionSlot extends AutoCloseable {
+
+    /** Slot that does not hold any capacity, e.g. if the fair-share scheduling is disabled. */
+    ExecutionSlot NONE = () -> { };
+
+    /** Releases the slot. Must be called from the thread that acquired it. */
+    @Override
+    void close();
+}
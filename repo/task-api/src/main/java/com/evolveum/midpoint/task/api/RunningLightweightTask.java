@@ -32,7 +32,18 @@ public interface RunningLightweightTask extends RunningTask {
      * Request the start of the execution of this task's handler.
      * The handler is executed asynchronously.
      */
-    void startLightweightHandler();
+    default void startLightweightHandler() {
+        startLightweightHandler(false);
+    }
+
+    /**
+     * Request the start of the execution of this task's handler, optionally in a virtual thread.
+     * If virtual threads are not supported by the JVM, a platform thread is used.
+     *
+     * Note that the handler then must not rely on any structures keyed by the thread that are not cleaned up
+     * at the end of the execution, as there is a new thread for each handler.
+     */
+    void startLightweightHandler(boolean virtualThread);
 
     /**
      * Was the task requested to start? (It may or may not actually started.)
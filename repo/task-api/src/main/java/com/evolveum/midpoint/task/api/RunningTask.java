@@ -102,4 +102,14 @@ public interface RunningTask extends Task, RunningTaskStatisticsCollector, CanRu
      * Sets the "excluded from staleness checking" flag.
      */
     void setExcludedFromStalenessChecking(boolean value);
+
+    /**
+     * Acquires a slot for processing a unit of work (typically an item) from the node-local fair-share scheduler.
+     * Blocks if this task has used up its share of the node capacity and other tasks are waiting for it.
+     *
+     * The slot must be released by calling {@link ExecutionSlot#close()}, preferably in try-with-resources block.
+     * If the fair-share scheduling is disabled, or if the task was asked to stop, a no-op slot is returned.
+     */
+    @Experimental
+    @NotNull ExecutionSlot acquireExecutionSlot();
 }
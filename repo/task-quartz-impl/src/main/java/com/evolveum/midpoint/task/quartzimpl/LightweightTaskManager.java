@@ -14,12 +14,18 @@ import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import javax.annotation.PreDestroy;
 
+import com.google.common.annotations.VisibleForTesting;
+import org.jetbrains.annotations.Nullable;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Component;
 
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.RunningTask;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
 
 /**
  * Manages lightweight asynchronous tasks.
@@ -31,12 +37,60 @@ public class LightweightTaskManager {
 
     @Autowired private LocalNodeState localNodeState;
 
+    private static final Trace LOGGER = TraceManager.getTrace(LightweightTaskManager.class);
+
     private final ExecutorService lightweightHandlersExecutor = Executors.newCachedThreadPool();
 
-    Future<?> submit(Runnable r) {
+    /**
+     * Executor creating a virtual thread for each handler. Null if virtual threads are not supported by the JVM.
+     * It is obtained reflectively, as we are compiled against a Java version that does not know them.
+     */
+    @Nullable private final ExecutorService virtualThreadsExecutor;
+
+    private final AtomicBoolean virtualThreadsWarningIssued = new AtomicBoolean();
+
+    public LightweightTaskManager() {
+        this(true);
+    }
+
+    /** Allows testing the fallback to platform threads also on JVMs that support virtual ones. */
+    @VisibleForTesting
+    LightweightTaskManager(boolean virtualThreadsAllowed) {
+        virtualThreadsExecutor = virtualThreadsAllowed ? createVirtualThreadsExecutor() : null;
+    }
+
+    private static ExecutorService createVirtualThreadsExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            LOGGER.debug("Virtual threads are not supported by this JVM");
+            return null;
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            LOGGER.warn("Couldn't create executor for virtual threads: {}", e.getMessage(), e);
+            return null;
+        }
+    }
+
+    Future<?> submit(Runnable r, boolean virtualThread) {
+        if (virtualThread) {
+            if (virtualThreadsExecutor != null) {
+                return virtualThreadsExecutor.submit(r);
+            } else if (!virtualThreadsWarningIssued.getAndSet(true)) {
+                LOGGER.warn("Virtual threads are not supported by this JVM, using platform threads instead");
+            }
+        }
         return lightweightHandlersExecutor.submit(r);
     }
 
+    /** The handlers should be finished by now; this only lets the executors go. Running handlers are not interrupted. */
+    @PreDestroy
+    public void shutdown() {
+        lightweightHandlersExecutor.shutdown();
+        if (virtualThreadsExecutor != null) {
+            virtualThreadsExecutor.shutdown();
+        }
+    }
+
     public void waitForTransientChildrenAndCloseThem(RunningTask task, OperationResult result) {
         for (RunningLightweightTaskImpl subtask : ((RunningTaskQuartzImpl) task).getRunnableOrRunningLightweightAsynchronousSubtasks()) {
             subtask.waitForCompletion(result);
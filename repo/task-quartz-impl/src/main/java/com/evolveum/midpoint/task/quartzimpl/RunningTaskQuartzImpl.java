@@ -11,6 +11,7 @@ import com.evolveum.midpoint.prism.PrismObject;
 import com.evolveum.midpoint.schema.result.OperationResult;
 import com.evolveum.midpoint.task.api.*;
 import com.evolveum.midpoint.task.quartzimpl.statistics.Statistics;
+import com.evolveum.midpoint.task.quartzimpl.statistics.StoredStatistics;
 import com.evolveum.midpoint.util.annotation.Experimental;
 import com.evolveum.midpoint.util.exception.ObjectAlreadyExistsException;
 import com.evolveum.midpoint.util.exception.ObjectNotFoundException;
@@ -39,6 +40,12 @@ public class RunningTaskQuartzImpl extends TaskQuartzImpl implements RunningTask
     private long operationStatsUpdateInterval = DEFAULT_OPERATION_STATS_UPDATE_INTERVAL;
     private volatile Long lastOperationStatsUpdateTimestamp;
 
+    /**
+     * Statistics-related values stored into repository (or scheduled to be stored by pending modifications).
+     * Unchanged values are not written again. Guarded by itself.
+     */
+    private final StoredStatistics lastStoredStatistics = new StoredStatistics();
+
     /**
      * Root of the task hierarchy. It is not guaranteed to be current. It is initialized when the task is started.
      * Can even point to the this task object.
@@ -78,11 +85,21 @@ public class RunningTaskQuartzImpl extends TaskQuartzImpl implements RunningTask
     /** True if this task should not be checked for staleness. */
     private boolean excludedFromStalenessChecking;
 
+    /** Weight of this task for the fair-share scheduling. Determined when the task is started. */
+    private final int schedulingWeight;
+
     public RunningTaskQuartzImpl(@NotNull TaskManagerQuartzImpl taskManager, @NotNull PrismObject<TaskType> taskPrism,
             @NotNull Task rootTask, @Nullable Task parentTask) {
         super(taskManager, taskPrism);
         this.rootTask = rootTask;
         this.parentTask = parentTask;
+        this.schedulingWeight = determineSchedulingWeight(taskPrism.asObjectable());
+    }
+
+    private static int determineSchedulingWeight(TaskType task) {
+        TaskExecutionConstraintsType constraints = task.getExecutionConstraints();
+        Integer weight = constraints != null ? constraints.getSchedulingWeight() : null;
+        return weight != null ? weight : 1;
     }
 
     //region Task execution (canRun, executing thread)
@@ -111,6 +128,18 @@ public class RunningTaskQuartzImpl extends TaskQuartzImpl implements RunningTask
     public void setExecutingThread(Thread executingThread) {
         this.executingThread = executingThread;
     }
+
+    @Override
+    public @NotNull ExecutionSlot acquireExecutionSlot() {
+        RunningTaskQuartzImpl schedulingTask = getSchedulingTask();
+        return beans.fairShareScheduler.acquire(
+                schedulingTask.getTaskIdentifier(), schedulingTask.schedulingWeight, this, statistics);
+    }
+
+    /** The task that competes for the node capacity on behalf of this one. */
+    @NotNull RunningTaskQuartzImpl getSchedulingTask() {
+        return this;
+    }
     //endregion
 
     //region Subtasks
@@ -226,7 +255,7 @@ public class RunningTaskQuartzImpl extends TaskQuartzImpl implements RunningTask
                 if (additionalUpdater != null) {
                     additionalUpdater.run();
                 }
-                storeStatisticsIntoRepository(result);
+                storeStatisticsIntoRepository(true, result);
                 return true;
             } catch (Throwable t) {
                 // We should try the next time.
@@ -238,9 +267,47 @@ public class RunningTaskQuartzImpl extends TaskQuartzImpl implements RunningTask
 
     @Override
     public void storeStatisticsIntoRepository(OperationResult result) throws SchemaException, ObjectNotFoundException {
-        addPendingModification(createContainerDeltaIfPersistent(TaskType.F_OPERATION_STATS, getStoredOperationStatsOrClone()));
-        addPendingModification(createPropertyDeltaIfPersistent(TaskType.F_PROGRESS, getLegacyProgress()));
-        addPendingModification(createPropertyDeltaIfPersistent(TaskType.F_EXPECTED_TOTAL, getExpectedTotal()));
+        storeStatisticsIntoRepository(false, result);
+    }
+
+    /**
+     * Stores the statistics-related items that differ from the values known to be stored.
+     *
+     * @param onlyIfSignificant If true (periodic updates), the operation statistics are not written if they differ only
+     * in the performance information (repository, caches, operations) - unless there is something other to be written.
+     * These parts change with each write of the task, so the task would be rewritten each time even if doing nothing.
+     *
+     * Note that this only limits the number of writes: each write that does happen still updates the task object,
+     * including its full object representation in the repository. Statistics are not stored separately from the task.
+     */
+    private void storeStatisticsIntoRepository(boolean onlyIfSignificant, OperationResult result)
+            throws SchemaException, ObjectNotFoundException {
+        synchronized (lastStoredStatistics) {
+            OperationStatsType operationStats = getStoredOperationStatsOrClone();
+            Long progress = getLegacyProgress();
+            Long expectedTotal = getExpectedTotal();
+            boolean write = !onlyIfSignificant
+                    || getPendingModificationsCount() > 0
+                    || !lastStoredStatistics.isStored(TaskType.F_PROGRESS, progress)
+                    || !lastStoredStatistics.isStored(TaskType.F_EXPECTED_TOTAL, expectedTotal)
+                    || lastStoredStatistics.isOperationStatsSignificantlyChanged(operationStats);
+            if (!write) {
+                LOGGER.trace("No significant change in statistics, not storing them into repository");
+                return;
+            }
+            if (!lastStoredStatistics.isStored(TaskType.F_OPERATION_STATS, operationStats)) {
+                addPendingModification(createContainerDeltaIfPersistent(TaskType.F_OPERATION_STATS, operationStats));
+                lastStoredStatistics.recordStored(TaskType.F_OPERATION_STATS, operationStats);
+            }
+            if (!lastStoredStatistics.isStored(TaskType.F_PROGRESS, progress)) {
+                addPendingModification(createPropertyDeltaIfPersistent(TaskType.F_PROGRESS, progress));
+                lastStoredStatistics.recordStored(TaskType.F_PROGRESS, progress);
+            }
+            if (!lastStoredStatistics.isStored(TaskType.F_EXPECTED_TOTAL, expectedTotal)) {
+                addPendingModification(createPropertyDeltaIfPersistent(TaskType.F_EXPECTED_TOTAL, expectedTotal));
+                lastStoredStatistics.recordStored(TaskType.F_EXPECTED_TOTAL, expectedTotal);
+            }
+        }
         try {
             LOGGER.trace("Storing statistics into repository: {} pending modifications", getPendingModificationsCount());
             flushPendingModifications(result);
@@ -250,6 +317,78 @@ public class RunningTaskQuartzImpl extends TaskQuartzImpl implements RunningTask
         lastOperationStatsUpdateTimestamp = System.currentTimeMillis();
     }
 
+    /**
+     * Pending modifications of the statistics-related items are recorded as stored. If the flush fails, we don't know
+     * what was stored, so everything will be stored next time.
+     */
+    @Override
+    public void flushPendingModifications(OperationResult result)
+            throws ObjectNotFoundException, SchemaException, ObjectAlreadyExistsException {
+        try {
+            super.flushPendingModifications(result);
+        } catch (Throwable t) {
+            synchronized (lastStoredStatistics) {
+                lastStoredStatistics.clear();
+            }
+            throw t;
+        }
+    }
+
+    @Override
+    public void setLegacyProgress(Long value) {
+        synchronized (lastStoredStatistics) {
+            if (lastStoredStatistics.isStored(TaskType.F_PROGRESS, value)) {
+                setProgressTransient(value);
+            } else {
+                super.setLegacyProgress(value);
+                lastStoredStatistics.recordStored(TaskType.F_PROGRESS, value);
+            }
+        }
+    }
+
+    @Override
+    public void setLegacyProgressImmediate(Long value, OperationResult result)
+            throws ObjectNotFoundException, SchemaException {
+        synchronized (lastStoredStatistics) {
+            lastStoredStatistics.forget(TaskType.F_PROGRESS);
+            super.setLegacyProgressImmediate(value, result);
+            lastStoredStatistics.recordStored(TaskType.F_PROGRESS, value);
+        }
+    }
+
+    @Override
+    public void setExpectedTotal(Long value) {
+        synchronized (lastStoredStatistics) {
+            if (lastStoredStatistics.isStored(TaskType.F_EXPECTED_TOTAL, value)) {
+                setExpectedTotalTransient(value);
+            } else {
+                super.setExpectedTotal(value);
+                lastStoredStatistics.recordStored(TaskType.F_EXPECTED_TOTAL, value);
+            }
+        }
+    }
+
+    @Override
+    public void setOperationStats(OperationStatsType value) {
+        synchronized (lastStoredStatistics) {
+            super.setOperationStats(value);
+            if (isPersistent()) {
+                lastStoredStatistics.recordStored(TaskType.F_OPERATION_STATS, value);
+            } else {
+                lastStoredStatistics.forget(TaskType.F_OPERATION_STATS);
+            }
+        }
+    }
+
+    /** After refresh, the repository could contain anything (e.g. written by other nodes), so we'll store everything next time. */
+    @Override
+    public void refresh(OperationResult parentResult) throws ObjectNotFoundException, SchemaException {
+        super.refresh(parentResult);
+        synchronized (lastStoredStatistics) {
+            lastStoredStatistics.clear();
+        }
+    }
+
     @Override
     public void updateAndStoreStatisticsIntoRepository(boolean updateThreadLocalStatistics, OperationResult result)
             throws SchemaException, ObjectNotFoundException {
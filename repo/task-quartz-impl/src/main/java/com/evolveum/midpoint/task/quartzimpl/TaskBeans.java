@@ -32,6 +32,7 @@ import com.evolveum.midpoint.task.quartzimpl.nodes.NodeCleaner;
 import com.evolveum.midpoint.task.quartzimpl.nodes.NodeRetriever;
 import com.evolveum.midpoint.task.quartzimpl.quartz.LocalScheduler;
 import com.evolveum.midpoint.task.quartzimpl.quartz.TaskSynchronizer;
+import com.evolveum.midpoint.task.quartzimpl.run.FairShareScheduler;
 import com.evolveum.midpoint.task.quartzimpl.run.HandlerExecutor;
 import com.evolveum.midpoint.task.quartzimpl.tasks.TaskInstantiator;
 import com.evolveum.midpoint.task.quartzimpl.tasks.TaskPersister;
@@ -55,6 +56,7 @@ public class TaskBeans {
     @Autowired public ClusterManager clusterManager;
     @Autowired public TaskHandlerRegistry handlerRegistry;
     @Autowired public HandlerExecutor handlerExecutor;
+    @Autowired public FairShareScheduler fairShareScheduler;
     @Autowired public TaskListenerRegistry listenerRegistry;
     @Autowired public TaskStateManager taskStateManager;
     @Autowired public TaskRetriever taskRetriever;
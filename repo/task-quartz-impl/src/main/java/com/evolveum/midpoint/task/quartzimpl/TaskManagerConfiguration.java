@@ -95,6 +95,7 @@ public class TaskManagerConfiguration {
     private static final String WORK_ALLOCATION_DEFAULT_FREE_BUCKET_WAIT_INTERVAL_ENTRY = "workAllocationDefaultFreeBucketWaitInterval";
 
     private static final String TASK_EXECUTION_LIMITATIONS_CONFIG_ENTRY = "taskExecutionLimitations";
+    private static final String FAIR_SHARE_SLOTS_CONFIG_ENTRY = "fairShareSlots";
 
     private static final String SUREFIRE_PRESENCE_PROPERTY = "surefire.real.class.path";
 
@@ -197,6 +198,13 @@ public class TaskManagerConfiguration {
 
     private TaskExecutionLimitationsType taskExecutionLimitations;
 
+    /**
+     * Number of items that can be processed concurrently on this node, shared by running tasks according to their
+     * scheduling weights. It should correspond to the number of repository connections we are willing to devote
+     * to task execution. Zero (the default) means that the fair-share scheduling is disabled.
+     */
+    private int fairShareSlots;
+
     // quartz jdbc job store specific information
     private String sqlSchemaFile;
     private String jdbcDriverDelegateClass;
@@ -258,6 +266,7 @@ public class TaskManagerConfiguration {
             SCHEDULER_INITIALLY_STOPPED_CONFIG_ENTRY,
             LOCAL_NODE_CLUSTERING_ENABLED_CONFIG_ENTRY,
             TASK_EXECUTION_LIMITATIONS_CONFIG_ENTRY,
+            FAIR_SHARE_SLOTS_CONFIG_ENTRY,
             CHECK_FOR_TASK_CONCURRENT_EXECUTION_CONFIG_ENTRY,
             NODE_ALIVENESS_TIMEOUT_CONFIG_ENTRY,
             NODE_STARTUP_TIMEOUT_CONFIG_ENTRY,
@@ -367,6 +376,7 @@ public class TaskManagerConfiguration {
         runNowKeepsOriginalSchedule = c.getBoolean(RUN_NOW_KEEPS_ORIGINAL_SCHEDULE_CONFIG_ENTRY, RUN_NOW_KEEPS_ORIGINAL_SCHEDULE_DEFAULT);
         schedulerInitiallyStopped = c.getBoolean(SCHEDULER_INITIALLY_STOPPED_CONFIG_ENTRY, false);
         localNodeClusteringEnabled = c.getBoolean(LOCAL_NODE_CLUSTERING_ENABLED_CONFIG_ENTRY, false);
+        fairShareSlots = c.getInt(FAIR_SHARE_SLOTS_CONFIG_ENTRY, 0);
 
         if (c.containsKey(TASK_EXECUTION_LIMITATIONS_CONFIG_ENTRY)) {
             taskExecutionLimitations = parseExecutionLimitations(c.getString(TASK_EXECUTION_LIMITATIONS_CONFIG_ENTRY));
@@ -696,4 +706,8 @@ public class TaskManagerConfiguration {
     public TaskExecutionLimitationsType getTaskExecutionLimitations() {
         return taskExecutionLimitations;
     }
+
+    public int getFairShareSlots() {
+        return fairShareSlots;
+    }
 }
@@ -758,6 +758,10 @@ public class TaskQuartzImpl implements Task {
         setProperty(TaskType.F_EXPECTED_TOTAL, value);
     }
 
+    public void setExpectedTotalTransient(Long value) {
+        setPropertyTransient(TaskType.F_EXPECTED_TOTAL, value);
+    }
+
     /*
      * Result setters set also result status type!
      */
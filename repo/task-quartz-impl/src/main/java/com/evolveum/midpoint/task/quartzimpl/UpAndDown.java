@@ -56,6 +56,7 @@ public class UpAndDown implements BeanFactoryAware {
     @Autowired private TaskSynchronizer taskSynchronizer;
     @Autowired private MidpointConfiguration midpointConfiguration;
     @Autowired private CacheDispatcher cacheDispatcher;
+    @Autowired private FairShareScheduler fairShareScheduler;
     private BeanFactory beanFactory;
 
     /**
@@ -125,6 +126,8 @@ public class UpAndDown implements BeanFactoryAware {
             configuration.validateJdbcJobStoreInformation();
         }
 
+        fairShareScheduler.setSlots(configuration.getFairShareSlots());
+
         // register node
         NodeType node = nodeRegistrar.initializeNode(result); // may throw initialization exception
         if (!configuration.isTestMode()) { // in test mode do not start cluster manager thread nor verify cluster config
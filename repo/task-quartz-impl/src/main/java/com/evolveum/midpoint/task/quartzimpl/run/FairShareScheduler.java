@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.task.quartzimpl.run;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.stereotype.Component;
+
+import com.evolveum.midpoint.task.api.CanRunSupplier;
+import com.evolveum.midpoint.task.api.ExecutionSlot;
+import com.evolveum.midpoint.task.quartzimpl.statistics.Statistics;
+import com.evolveum.midpoint.util.logging.Trace;
+import com.evolveum.midpoint.util.logging.TraceManager;
+
+/**
+ * Node-local fair-share scheduler. Divides the execution capacity of the node - given as the number of items
+ * that can be processed at once ("slots") - among the running tasks, proportionally to their scheduling weights.
+ * A task shares its part of the capacity with its lightweight subtasks (worker threads).
+ *
+ * 1. A task that holds less slots than its share gets a free slot immediately.
+ * 2. A task that holds its share (or more) gets a free slot only if no other task below its share is waiting for one.
+ * So the capacity is never left unused when there is a demand for it.
+ * 3. If there is no free slot, the requester waits. As the slots are acquired for individual items, a task exceeding
+ * its share is effectively preempted at the item boundary.
+ *
+ * The execution groups (see {@link GroupLimitsChecker}) are unaffected: they limit the number of running tasks
+ * cluster-wide, while this class allocates the capacity among the tasks that are already running on the local node.
+ *
+ * Slots are reentrant per thread: a nested request is granted without consuming the capacity.
+ */
+@Component
+public class FairShareScheduler {
+
+    private static final Trace LOGGER = TraceManager.getTrace(FairShareScheduler.class);
+
+    /** How often a waiting thread checks whether its task can still run (in milliseconds). */
+    private static final long CAN_RUN_CHECK_INTERVAL = 1000L;
+
+    /** Total number of slots. Zero means that the fair-share scheduling is disabled. */
+    private volatile int slots;
+
+    /** Number of slots currently held. Guarded by this. */
+    private int used;
+
+    /** Tasks that hold or wait for a slot, keyed by task identifier. Guarded by this. */
+    private final Map<String, Participant> participants = new HashMap<>();
+
+    /** Whether the current thread holds a slot. */
+    private final ThreadLocal<Boolean> holdingSlot = new ThreadLocal<>();
+
+    public void setSlots(int slots) {
+        LOGGER.debug("Fair-share scheduling slots: {}", slots);
+        synchronized (this) {
+            this.slots = slots;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Acquires a slot for the participant (a task) with given weight. Blocks until the slot is available,
+     * or until the task is asked to stop; in the latter case, a no-op slot is returned.
+     *
+     * @param statistics Where to record the waiting and run time. Null if they should not be recorded.
+     */
+    public @NotNull ExecutionSlot acquire(@NotNull String participantId, int weight,
+            @NotNull CanRunSupplier canRunSupplier, @Nullable Statistics statistics) {
+        if (slots <= 0 || holdingSlot.get() != null) {
+            return ExecutionSlot.NONE;
+        }
+        long start = System.currentTimeMillis();
+        boolean waited = false;
+        Participant participant;
+        synchronized (this) {
+            participant = participants.computeIfAbsent(participantId, id -> new Participant(Math.max(weight, 1)));
+            participant.waiting++;
+            boolean acquired = false;
+            try {
+                while (!canAcquire(participant)) {
+                    if (!canRunSupplier.canRun()) {
+                        LOGGER.trace("Task {} cannot run, not waiting for the slot anymore", participantId);
+                        return ExecutionSlot.NONE;
+                    }
+                    waited = true;
+                    try {
+                        wait(CAN_RUN_CHECK_INTERVAL);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        return ExecutionSlot.NONE;
+                    }
+                }
+                participant.held++;
+                used++;
+                acquired = true;
+            } finally {
+                participant.waiting--;
+                if (!acquired) {
+                    removeIfIdle(participantId, participant);
+                    notifyAll(); // the shares have changed
+                }
+            }
+        }
+        holdingSlot.set(true);
+        long acquiredAt = System.currentTimeMillis();
+        return new Slot(participantId, participant, statistics, waited, acquiredAt - start, acquiredAt);
+    }
+
+    private boolean canAcquire(Participant participant) {
+        if (used >= slots) {
+            return false;
+        } else if (participant.held < getShare(participant)) {
+            return true;
+        } else {
+            return participants.values().stream()
+                    .noneMatch(other -> other != participant && other.waiting > 0 && other.held < getShare(other));
+        }
+    }
+
+    private double getShare(Participant participant) {
+        int totalWeight = participants.values().stream()
+                .mapToInt(p -> p.weight)
+                .sum();
+        return (double) slots * participant.weight / totalWeight;
+    }
+
+    private synchronized void release(String participantId, Participant participant) {
+        participant.held--;
+        used--;
+        removeIfIdle(participantId, participant);
+        notifyAll();
+    }
+
+    private void removeIfIdle(String participantId, Participant participant) {
+        if (participant.held == 0 && participant.waiting == 0) {
+            participants.remove(participantId);
+        }
+    }
+
+    /** A task competing for the slots. Guarded by the scheduler. */
+    private static class Participant {
+
+        private final int weight;
+
+        /** Number of slots held. */
+        private int held;
+
+        /** Number of threads waiting for a slot. */
+        private int waiting;
+
+        private Participant(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private class Slot implements ExecutionSlot {
+
+        @NotNull private final String participantId;
+        @NotNull private final Participant participant;
+        @Nullable private final Statistics statistics;
+        private final boolean waited;
+        private final long waitTime;
+        private final long acquiredAt;
+        private boolean closed;
+
+        private Slot(@NotNull String participantId, @NotNull Participant participant, @Nullable Statistics statistics,
+                boolean waited, long waitTime, long acquiredAt) {
+            this.participantId = participantId;
+            this.participant = participant;
+            this.statistics = statistics;
+            this.waited = waited;
+            this.waitTime = waitTime;
+            this.acquiredAt = acquiredAt;
+        }
+
+        @Override
+        public void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            holdingSlot.remove();
+            release(participantId, participant);
+            if (statistics != null) {
+                statistics.recordFairShareSlot(waited, waitTime, System.currentTimeMillis() - acquiredAt);
+            }
+        }
+    }
+}
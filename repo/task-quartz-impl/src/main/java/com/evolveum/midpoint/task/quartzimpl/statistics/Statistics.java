@@ -80,6 +80,13 @@ public class Statistics {
     private volatile OperationsPerformanceInformationType operationsPerformanceInformation;
     private volatile OperationsPerformanceInformationType initialOperationsPerformanceInformation;
 
+    /**
+     * Waiting for and holding execution slots of the fair-share scheduler. Recorded from the task thread,
+     * read from any thread; so guarded by itself. The whole structure is replaced when collecting is restarted.
+     */
+    @NotNull private volatile FairShareSchedulingInformationType fairShareSchedulingInformation =
+            new FairShareSchedulingInformationType();
+
     private EnvironmentalPerformanceInformation getEnvironmentalPerformanceInformation() {
         return environmentalPerformanceInformation;
     }
@@ -137,6 +144,22 @@ public class Statistics {
         return rv;
     }
 
+    private FairShareSchedulingInformationType getAggregateFairShareSchedulingInformation(Collection<Statistics> children) {
+        FairShareSchedulingInformationType rv = new FairShareSchedulingInformationType();
+        FairShareSchedulingInformationUtil.addTo(rv, getFairShareSchedulingInformationCopy());
+        for (Statistics child : children) {
+            FairShareSchedulingInformationUtil.addTo(rv, child.getFairShareSchedulingInformationCopy());
+        }
+        return rv.getSlotsAcquired() != null ? rv : null;
+    }
+
+    private FairShareSchedulingInformationType getFairShareSchedulingInformationCopy() {
+        FairShareSchedulingInformationType info = fairShareSchedulingInformation;
+        synchronized (info) {
+            return info.clone();
+        }
+    }
+
     /**
      * Gets aggregated operation statistics from this object and provided child objects.
      *
@@ -147,10 +170,12 @@ public class Statistics {
         RepositoryPerformanceInformationType repo = getAggregateRepositoryPerformanceInformation(children);
         CachesPerformanceInformationType caches = getAggregateCachesPerformanceInformation(children);
         OperationsPerformanceInformationType methods = getAggregateOperationsPerformanceInformation(children);
+        FairShareSchedulingInformationType fairShare = getAggregateFairShareSchedulingInformation(children);
         // This is not fetched from children (present on coordinator task only).
         // It looks like that children are always LATs, and LATs do not have bucket management information.
         String cachingConfiguration = getAggregateCachingConfiguration(children);
-        if (env == null && repo == null && caches == null && methods == null && cachingConfiguration == null) {
+        if (env == null && repo == null && caches == null && methods == null && fairShare == null
+                && cachingConfiguration == null) {
             return null;
         }
         OperationStatsType rv = new OperationStatsType();
@@ -158,6 +183,7 @@ public class Statistics {
         rv.setRepositoryPerformanceInformation(repo);
         rv.setCachesPerformanceInformation(caches);
         rv.setOperationsPerformanceInformation(methods);
+        rv.setFairShareSchedulingInformation(fairShare);
         rv.setCachingConfiguration(cachingConfiguration);
         rv.setTimestamp(createXMLGregorianCalendar(new Date()));
         return rv;
@@ -190,6 +216,14 @@ public class Statistics {
         environmentalPerformanceInformation.recordMappingOperation(objectOid, objectName, objectTypeName, mappingName, duration);
     }
 
+    /** Records a slot of the fair-share scheduler that was waited for (if `waited`) and then held. */
+    public void recordFairShareSlot(boolean waited, long waitTime, long runTime) {
+        FairShareSchedulingInformationType info = fairShareSchedulingInformation;
+        synchronized (info) {
+            FairShareSchedulingInformationUtil.record(info, waited, waitTime, runTime);
+        }
+    }
+
     private void resetEnvironmentalPerformanceInformation(EnvironmentalPerformanceInformationType value) {
         environmentalPerformanceInformation = new EnvironmentalPerformanceInformation(value);
     }
@@ -223,6 +257,8 @@ public class Statistics {
 
     private void startOrRestartCollectingRegularStatistics(OperationStatsType initialOperationStats) {
         resetEnvironmentalPerformanceInformation(initialOperationStats.getEnvironmentalPerformanceInformation());
+        FairShareSchedulingInformationType initialFairShare = initialOperationStats.getFairShareSchedulingInformation();
+        fairShareSchedulingInformation = initialFairShare != null ? initialFairShare.clone() : new FairShareSchedulingInformationType();
     }
 
     private void startOrRestartCollectingThreadLocalStatistics(OperationStatsType initialOperationStats,
@@ -0,0 +1,93 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.task.quartzimpl.statistics;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import com.evolveum.midpoint.prism.path.ItemName;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.OperationStatsType;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.TaskType;
+
+/**
+ * Values of statistics-related task items (progress, expected total, operation statistics) as they were written
+ * into the repository, or scheduled to be written there as pending modifications. Allows skipping writes of unchanged values.
+ *
+ * Operation statistics are compared without the timestamp and the caching configuration dump, as these are different
+ * each time the statistics are computed.
+ *
+ * Not thread safe. The owner must synchronize the access.
+ */
+public class StoredStatistics {
+
+    /** Stored values of the items. An item that is not here is in unknown state. The values may be null. */
+    @NotNull private final Map<ItemName, Object> values = new HashMap<>();
+
+    /** Is the value of given item known to be stored? */
+    public boolean isStored(@NotNull ItemName name, @Nullable Object value) {
+        return values.containsKey(name)
+                && Objects.equals(values.get(name), normalize(name, value));
+    }
+
+    /** Records that the value of given item was stored, or that it is going to be stored. */
+    public void recordStored(@NotNull ItemName name, @Nullable Object value) {
+        values.put(name, normalize(name, value));
+    }
+
+    /** Forgets the stored value of given item, e.g. because we don't know whether the store succeeded. */
+    public void forget(@NotNull ItemName name) {
+        values.remove(name);
+    }
+
+    /** Forgets all stored values. So they will be all written next time. */
+    public void clear() {
+        values.clear();
+    }
+
+    /**
+     * Are the operation statistics different from the stored ones in other parts than the performance information
+     * on repository, caches, and operations (methods)? These parts change with each write of the task, so they are not
+     * considered significant: otherwise, the task would be rewritten at each periodic store, even when doing nothing.
+     */
+    public boolean isOperationStatsSignificantlyChanged(@Nullable OperationStatsType operationStats) {
+        if (!values.containsKey(TaskType.F_OPERATION_STATS)) {
+            return true;
+        }
+        return !Objects.equals(
+                getSignificantPart((OperationStatsType) values.get(TaskType.F_OPERATION_STATS)),
+                getSignificantPart(operationStats));
+    }
+
+    private static Object normalize(ItemName name, Object value) {
+        if (TaskType.F_OPERATION_STATS.equals(name) && value != null) {
+            OperationStatsType clone = ((OperationStatsType) value).clone();
+            clone.setTimestamp(null);
+            clone.setCachingConfiguration(null);
+            return clone;
+        } else {
+            return value;
+        }
+    }
+
+    private static OperationStatsType getSignificantPart(OperationStatsType operationStats) {
+        if (operationStats == null) {
+            return null;
+        }
+        OperationStatsType clone = operationStats.clone();
+        clone.setTimestamp(null);
+        clone.setCachingConfiguration(null);
+        clone.setRepositoryPerformanceInformation(null);
+        clone.setCachesPerformanceInformation(null);
+        clone.setOperationsPerformanceInformation(null);
+        return clone;
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.task.quartzimpl;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+
+/**
+ * Tests the kinds of threads that lightweight task handlers are executed in.
+ */
+public class TestLightweightTaskManager extends AbstractUnitTest {
+
+    /** Virtual threads are available since Java 21. */
+    private static final boolean VIRTUAL_THREADS_SUPPORTED = Runtime.version().feature() >= 21;
+
+    @Test
+    public void test100PlatformThread() throws Exception {
+        given();
+        LightweightTaskManager manager = new LightweightTaskManager();
+
+        when();
+        Thread thread = runAndGetThread(manager, false);
+
+        then();
+        assertThat(isVirtual(thread)).as("virtual thread").isFalse();
+        manager.shutdown();
+    }
+
+    @Test
+    public void test110VirtualThread() throws Exception {
+        given();
+        LightweightTaskManager manager = new LightweightTaskManager();
+
+        when();
+        Thread thread = runAndGetThread(manager, true);
+
+        then("virtual thread is used if supported by the JVM, platform one otherwise");
+        assertThat(isVirtual(thread)).as("virtual thread").isEqualTo(VIRTUAL_THREADS_SUPPORTED);
+        manager.shutdown();
+    }
+
+    /** The fallback used on JVMs without virtual threads is tested on any JVM. */
+    @Test
+    public void test120FallbackToPlatformThread() throws Exception {
+        given("virtual threads are not available");
+        LightweightTaskManager manager = new LightweightTaskManager(false);
+
+        when();
+        Thread thread = runAndGetThread(manager, true);
+
+        then("platform thread is used");
+        assertThat(isVirtual(thread)).as("virtual thread").isFalse();
+        manager.shutdown();
+    }
+
+    private Thread runAndGetThread(LightweightTaskManager manager, boolean virtualThread) throws Exception {
+        AtomicReference<Thread> thread = new AtomicReference<>();
+        manager.submit(() -> thread.set(Thread.currentThread()), virtualThread)
+                .get(10, TimeUnit.SECONDS);
+        assertThat(thread.get()).as("thread").isNotNull();
+        return thread.get();
+    }
+
+    /** We are compiled against Java 17, so this must be called reflectively. */
+    private boolean isVirtual(Thread thread) throws Exception {
+        return VIRTUAL_THREADS_SUPPORTED
+                && (Boolean) Thread.class.getMethod("isVirtual").invoke(thread);
+    }
+}
@@ -19,11 +19,19 @@ import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import javax.xml.namespace.QName;
 
 import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.task.api.ExecutionSlot;
 import com.evolveum.midpoint.task.api.Task;
 import com.evolveum.midpoint.task.quartzimpl.quartz.TaskSynchronizer;
+import com.evolveum.midpoint.task.quartzimpl.run.FairShareScheduler;
+import com.evolveum.midpoint.task.quartzimpl.statistics.Statistics;
 import com.evolveum.midpoint.test.TestResource;
 import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
 
@@ -145,6 +153,75 @@ public class TestMiscellaneous extends AbstractTaskManagerTest {
         assertEquals("Wrong computed value for '" + value + "'", expected, computed.getGroupLimitation());
     }
 
+    /**
+     * Checks that a task holding more than its share of fair-share slots has to wait while another task
+     * is below its share.
+     */
+    @Test
+    public void test120FairShareScheduling() throws Exception {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            given("scheduler with two slots, both held by task A");
+            FairShareScheduler scheduler = new FairShareScheduler();
+            scheduler.setSlots(2);
+            Statistics statisticsA = new Statistics();
+            Statistics statisticsB = new Statistics();
+
+            CountDownLatch a12Acquired = new CountDownLatch(2);
+            CountDownLatch releaseA1 = new CountDownLatch(1);
+            CountDownLatch releaseA2 = new CountDownLatch(1);
+            holdSlot(executor, scheduler, "A", statisticsA, a12Acquired, releaseA1);
+            holdSlot(executor, scheduler, "A", statisticsA, a12Acquired, releaseA2);
+            assertThat(a12Acquired.await(5, TimeUnit.SECONDS)).as("A1 and A2 acquired").isTrue();
+
+            when("task B and then task A request a slot");
+            CountDownLatch b1Acquired = new CountDownLatch(1);
+            CountDownLatch releaseB1 = new CountDownLatch(1);
+            Future<?> b1 = holdSlot(executor, scheduler, "B", statisticsB, b1Acquired, releaseB1);
+            assertThat(b1Acquired.await(300, TimeUnit.MILLISECONDS)).as("B1 acquired without a free slot").isFalse();
+
+            CountDownLatch a3Acquired = new CountDownLatch(1);
+            CountDownLatch releaseA3 = new CountDownLatch(1);
+            holdSlot(executor, scheduler, "A", statisticsA, a3Acquired, releaseA3);
+
+            and("one slot of task A is released");
+            releaseA1.countDown();
+
+            then("task B gets it, as it is below its share");
+            assertThat(b1Acquired.await(5, TimeUnit.SECONDS)).as("B1 acquired").isTrue();
+            assertThat(a3Acquired.await(300, TimeUnit.MILLISECONDS)).as("A3 acquired over its share").isFalse();
+
+            when("the slot of task B is released");
+            releaseB1.countDown();
+            b1.get(5, TimeUnit.SECONDS);
+
+            then("task A gets it, and the waiting is recorded");
+            assertThat(a3Acquired.await(5, TimeUnit.SECONDS)).as("A3 acquired").isTrue();
+            releaseA2.countDown();
+            releaseA3.countDown();
+
+            FairShareSchedulingInformationType infoB =
+                    statisticsB.getAggregatedOperationStats(emptyList()).getFairShareSchedulingInformation();
+            displayValue("fair-share scheduling information for B", infoB);
+            assertThat(infoB.getSlotsAcquired()).as("slots acquired by B").isEqualTo(1);
+            assertThat(infoB.getWaitCount()).as("waits of B").isEqualTo(1);
+            assertThat(infoB.getTotalWaitTime()).as("wait time of B").isGreaterThanOrEqualTo(300L);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private Future<?> holdSlot(ExecutorService executor, FairShareScheduler scheduler, String taskIdentifier,
+            Statistics statistics, CountDownLatch acquired, CountDownLatch release) {
+        return executor.submit(() -> {
+            try (ExecutionSlot ignored = scheduler.acquire(taskIdentifier, 1, () -> true, statistics)) {
+                acquired.countDown();
+                release.await();
+            }
+            return null;
+        });
+    }
+
     @Test
     public void test200TaskMigrationOnStart() throws Exception {
         given();
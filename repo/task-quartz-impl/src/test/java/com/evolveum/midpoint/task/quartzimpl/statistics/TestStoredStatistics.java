@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+
+package com.evolveum.midpoint.task.quartzimpl.statistics;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.io.IOException;
+
+import org.testng.annotations.BeforeSuite;
+import org.testng.annotations.Test;
+import org.xml.sax.SAXException;
+
+import com.evolveum.midpoint.prism.util.PrismTestUtil;
+import com.evolveum.midpoint.prism.xml.XmlTypeConverter;
+import com.evolveum.midpoint.schema.MidPointPrismContextFactory;
+import com.evolveum.midpoint.tools.testng.AbstractUnitTest;
+import com.evolveum.midpoint.util.exception.SchemaException;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.*;
+
+/**
+ * Tests deciding which statistics-related task items are to be stored into the repository.
+ */
+public class TestStoredStatistics extends AbstractUnitTest {
+
+    @BeforeSuite
+    public void setup() throws SchemaException, SAXException, IOException {
+        PrismTestUtil.resetPrismContext(MidPointPrismContextFactory.FACTORY);
+    }
+
+    @Test
+    public void test100UnknownAndRecordedValues() {
+        given();
+        StoredStatistics stored = new StoredStatistics();
+
+        expect("nothing is known to be stored");
+        assertThat(stored.isStored(TaskType.F_PROGRESS, null)).as("null progress stored").isFalse();
+        assertThat(stored.isStored(TaskType.F_PROGRESS, 10L)).as("progress stored").isFalse();
+        assertThat(stored.isOperationStatsSignificantlyChanged(null)).as("operation stats changed").isTrue();
+
+        when("values are recorded");
+        stored.recordStored(TaskType.F_PROGRESS, 10L);
+        stored.recordStored(TaskType.F_EXPECTED_TOTAL, null);
+
+        then("exactly the recorded values are known to be stored");
+        assertThat(stored.isStored(TaskType.F_PROGRESS, 10L)).as("progress 10 stored").isTrue();
+        assertThat(stored.isStored(TaskType.F_PROGRESS, 11L)).as("progress 11 stored").isFalse();
+        assertThat(stored.isStored(TaskType.F_EXPECTED_TOTAL, null)).as("null expected total stored").isTrue();
+        assertThat(stored.isStored(TaskType.F_EXPECTED_TOTAL, 100L)).as("expected total stored").isFalse();
+
+        when("a value is forgotten");
+        stored.forget(TaskType.F_PROGRESS);
+
+        then("it is no longer known to be stored");
+        assertThat(stored.isStored(TaskType.F_PROGRESS, 10L)).as("progress stored").isFalse();
+        assertThat(stored.isStored(TaskType.F_EXPECTED_TOTAL, null)).as("null expected total stored").isTrue();
+    }
+
+    /** Timestamp and caching configuration dump are different each time the statistics are computed. */
+    @Test
+    public void test110TimestampAndCachingConfigurationIgnored() {
+        given();
+        StoredStatistics stored = new StoredStatistics();
+        stored.recordStored(TaskType.F_OPERATION_STATS, createOperationStats(1000L, "message 1", 1));
+
+        when();
+        OperationStatsType current = createOperationStats(2000L, "message 1", 1);
+
+        then();
+        assertThat(stored.isStored(TaskType.F_OPERATION_STATS, current)).as("operation stats stored").isTrue();
+        assertThat(stored.isOperationStatsSignificantlyChanged(current)).as("operation stats changed").isFalse();
+    }
+
+    /** Repository (as well as caches and operations) performance information change because of the store itself. */
+    @Test
+    public void test120RepositoryPerformanceChangeIsNotSignificant() {
+        given();
+        StoredStatistics stored = new StoredStatistics();
+        stored.recordStored(TaskType.F_OPERATION_STATS, createOperationStats(1000L, "message 1", 1));
+
+        when();
+        OperationStatsType current = createOperationStats(2000L, "message 1", 2);
+
+        then("the change is not significant, but the stats are to be written along with a significant change");
+        assertThat(stored.isOperationStatsSignificantlyChanged(current)).as("operation stats changed").isFalse();
+        assertThat(stored.isStored(TaskType.F_OPERATION_STATS, current)).as("operation stats stored").isFalse();
+    }
+
+    @Test
+    public void test130EnvironmentalPerformanceChangeIsSignificant() {
+        given();
+        StoredStatistics stored = new StoredStatistics();
+        stored.recordStored(TaskType.F_OPERATION_STATS, createOperationStats(1000L, "message 1", 1));
+
+        when();
+        OperationStatsType current = createOperationStats(2000L, "message 2", 1);
+
+        then();
+        assertThat(stored.isOperationStatsSignificantlyChanged(current)).as("operation stats changed").isTrue();
+        assertThat(stored.isStored(TaskType.F_OPERATION_STATS, current)).as("operation stats stored").isFalse();
+    }
+
+    /** Recorded value must not be influenced by later changes of the object that was passed in. */
+    @Test
+    public void test140RecordedValueIsCopied() {
+        given();
+        StoredStatistics stored = new StoredStatistics();
+        OperationStatsType value = createOperationStats(1000L, "message 1", 1);
+        stored.recordStored(TaskType.F_OPERATION_STATS, value);
+
+        when();
+        value.getEnvironmentalPerformanceInformation().setLastMessage("message 2");
+
+        then();
+        assertThat(stored.isStored(TaskType.F_OPERATION_STATS, value)).as("operation stats stored").isFalse();
+    }
+
+    @Test
+    public void test150Clear() {
+        given();
+        StoredStatistics stored = new StoredStatistics();
+        OperationStatsType value = createOperationStats(1000L, "message 1", 1);
+        stored.recordStored(TaskType.F_OPERATION_STATS, value);
+        stored.recordStored(TaskType.F_PROGRESS, 10L);
+
+        when();
+        stored.clear();
+
+        then("everything is to be stored again");
+        assertThat(stored.isStored(TaskType.F_OPERATION_STATS, value)).as("operation stats stored").isFalse();
+        assertThat(stored.isOperationStatsSignificantlyChanged(value)).as("operation stats changed").isTrue();
+        assertThat(stored.isStored(TaskType.F_PROGRESS, 10L)).as("progress stored").isFalse();
+    }
+
+    private OperationStatsType createOperationStats(long timestamp, String lastMessage, int repoInvocations) {
+        return new OperationStatsType()
+                .timestamp(XmlTypeConverter.createXMLGregorianCalendar(timestamp))
+                .cachingConfiguration("dumped at " + timestamp)
+                .environmentalPerformanceInformation(new EnvironmentalPerformanceInformationType()
+                        .lastMessage(lastMessage))
+                .repositoryPerformanceInformation(new RepositoryPerformanceInformationType()
+                        .operation(new RepositoryOperationPerformanceInformationType()
+                                .name("getObject")
+                                .invocationCount(repoInvocations)));
+    }
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.ninja.action;
+
+import java.util.List;
+
+import com.evolveum.midpoint.ninja.impl.NinjaException;
+import com.evolveum.midpoint.ninja.opts.RewriteFullObjectsOptions;
+import com.evolveum.midpoint.ninja.util.NinjaUtils;
+import com.evolveum.midpoint.repo.sqale.SqaleRepositoryService;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+import com.evolveum.midpoint.schema.result.OperationResult;
+import com.evolveum.midpoint.xml.ns._public.common.common_3.ObjectType;
+
+/**
+ * Rewrites stored full objects to the format (compression) currently configured
+ * by `fullObjectCompression` repository property.
+ * Stored format is detected when reading, so this can be run any time after changing the configuration,
+ * even while midPoint is running.
+ * Only native repository is supported.
+ */
+public class RewriteFullObjectsRepositoryAction extends RepositoryAction<RewriteFullObjectsOptions> {
+
+    private static final String DOT_CLASS = RewriteFullObjectsRepositoryAction.class.getName() + ".";
+
+    private static final String OPERATION_REWRITE_FULL_OBJECTS = DOT_CLASS + "rewriteFullObjects";
+
+    @Override
+    public void execute() throws Exception {
+        String[] beanNames = context.getApplicationContext().getBeanNamesForType(SqaleRepositoryService.class);
+        if (beanNames.length == 0) {
+            throw new NinjaException("Rewriting full objects is supported only for native repository");
+        }
+        SqaleRepositoryService repository =
+                context.getApplicationContext().getBean(SqaleRepositoryService.class);
+
+        log.info("Rewriting full objects using '{}' compression",
+                repository.repositoryConfiguration().getFullObjectCompression().value());
+
+        OperationResult result = new OperationResult(OPERATION_REWRITE_FULL_OBJECTS);
+        int total = 0;
+        if (options.getType().isEmpty()) {
+            // object table contains all the objects, no need to go over the concrete types
+            total = repository.rewriteFullObjects(ObjectType.class, result);
+        } else {
+            List<ObjectTypes> types = NinjaUtils.getTypes(options.getType());
+            for (ObjectTypes type : types) {
+                int count = repository.rewriteFullObjects(type.getClassDefinition(), result);
+                log.info("{}:\t{}", type.name(), count);
+                total += count;
+            }
+        }
+
+        log.info("===\nTotal rewritten:\t{}", total);
+    }
+}
@@ -37,7 +37,10 @@ public enum Command {
 
     EXPORT_AUDIT("exportAudit", ExportAuditOptions.class, ExportAuditRepositoryAction.class, null),
 
-    TRACE("trace", EditTraceOptions.class, EditTraceAction.class, null);
+    TRACE("trace", EditTraceOptions.class, EditTraceAction.class, null),
+
+    REWRITE_FULL_OBJECTS("rewriteFullObjects", RewriteFullObjectsOptions.class,
+            RewriteFullObjectsRepositoryAction.class, null);
 
     // todo reencrypt, modify, bulk, etc
 
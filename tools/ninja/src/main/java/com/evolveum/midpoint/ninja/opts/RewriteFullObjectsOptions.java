@@ -0,0 +1,34 @@
+/*
+ * Copyright (C) 2010-2022 Evolveum and contributors
+ *
+ * This work is dual-licensed under the Apache License 2.0
+ * and European Union Public License. See LICENSE file for details.
+ */
+package com.evolveum.midpoint.ninja.opts;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import com.beust.jcommander.Parameter;
+import com.beust.jcommander.Parameters;
+
+import com.evolveum.midpoint.ninja.util.ObjectTypesConverter;
+import com.evolveum.midpoint.schema.constants.ObjectTypes;
+
+/**
+ * Options for rewriting stored full objects to the currently configured format (native repository only).
+ */
+@Parameters(resourceBundle = "messages", commandDescriptionKey = "rewriteFullObjects")
+public class RewriteFullObjectsOptions {
+
+    public static final String P_TYPE = "-t";
+    public static final String P_TYPE_LONG = "--type";
+
+    @Parameter(names = { P_TYPE, P_TYPE_LONG }, descriptionKey = "base.type",
+            validateWith = ObjectTypesConverter.class, converter = ObjectTypesConverter.class)
+    private Set<ObjectTypes> type = new HashSet<>();
+
+    public Set<ObjectTypes> getType() {
+        return type;
+    }
+}